@@ -3,11 +3,13 @@
 
 package com.microsoft.tfs.checkinpolicies.checkforcomments;
 
+import com.microsoft.tfs.core.checkinpolicies.IndependentPolicy;
 import com.microsoft.tfs.core.checkinpolicies.PolicyBase;
 import com.microsoft.tfs.core.checkinpolicies.PolicyContext;
 import com.microsoft.tfs.core.checkinpolicies.PolicyEditArgs;
 import com.microsoft.tfs.core.checkinpolicies.PolicyEvaluationCancelledException;
 import com.microsoft.tfs.core.checkinpolicies.PolicyFailure;
+import com.microsoft.tfs.core.checkinpolicies.PolicyInputs;
 import com.microsoft.tfs.core.checkinpolicies.PolicyType;
 import com.microsoft.tfs.core.memento.Memento;
 import com.microsoft.tfs.core.pendingcheckin.PendingCheckin;
@@ -19,7 +21,7 @@ import com.microsoft.tfs.core.pendingcheckin.PendingCheckin;
  * This policy does not require a GUI/CLC duality, because there is no graphical
  * configuration or evaluation.
  */
-public class CheckForCommentsPolicy extends PolicyBase {
+public class CheckForCommentsPolicy extends PolicyBase implements IndependentPolicy {
     private final static PolicyType TYPE =
         new PolicyType(
             "com.teamprise.checkinpolicies.checkforcomments.CheckForCommentsPolicy-1", //$NON-NLS-1$
@@ -99,6 +101,17 @@ public class CheckForCommentsPolicy extends PolicyBase {
         return CheckForCommentsPolicy.TYPE;
     }
 
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.microsoft.tfs.core.checkinpolicies.IndependentPolicy#
+     * getPolicyInputs()
+     */
+    @Override
+    public PolicyInputs getPolicyInputs() {
+        return PolicyInputs.COMMENT;
+    }
+
     /*
      * (non-Javadoc)
      *
@@ -11,11 +11,13 @@ import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
 
 import com.microsoft.tfs.checkinpolicies.forbiddenpatterns.ui.ForbiddenPatternsPolicyUI;
+import com.microsoft.tfs.core.checkinpolicies.IndependentPolicy;
 import com.microsoft.tfs.core.checkinpolicies.PolicyBase;
 import com.microsoft.tfs.core.checkinpolicies.PolicyContext;
 import com.microsoft.tfs.core.checkinpolicies.PolicyEditArgs;
 import com.microsoft.tfs.core.checkinpolicies.PolicyEvaluationCancelledException;
 import com.microsoft.tfs.core.checkinpolicies.PolicyFailure;
+import com.microsoft.tfs.core.checkinpolicies.PolicyInputs;
 import com.microsoft.tfs.core.checkinpolicies.PolicyType;
 import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.PendingChange;
 import com.microsoft.tfs.core.memento.Memento;
@@ -29,7 +31,7 @@ import com.microsoft.tfs.util.Check;
  * See {@link ForbiddenPatternsPolicyUI} for an extension of this class that
  * provides for graphical configuration and evaluation.
  */
-public class ForbiddenPatternsPolicy extends PolicyBase {
+public class ForbiddenPatternsPolicy extends PolicyBase implements IndependentPolicy {
     private final static String PATTERN_MEMENTO_NAME = "pattern"; //$NON-NLS-1$
 
     /**
@@ -138,6 +140,17 @@ public class ForbiddenPatternsPolicy extends PolicyBase {
         return ForbiddenPatternsPolicy.TYPE;
     }
 
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.microsoft.tfs.core.checkinpolicies.IndependentPolicy#
+     * getPolicyInputs()
+     */
+    @Override
+    public PolicyInputs getPolicyInputs() {
+        return PolicyInputs.PENDING_CHANGES;
+    }
+
     /*
      * (non-Javadoc)
      *
@@ -3,16 +3,18 @@
 
 package com.microsoft.tfs.checkinpolicies.workitempolicy;
 
+import com.microsoft.tfs.core.checkinpolicies.IndependentPolicy;
 import com.microsoft.tfs.core.checkinpolicies.PolicyBase;
 import com.microsoft.tfs.core.checkinpolicies.PolicyContext;
 import com.microsoft.tfs.core.checkinpolicies.PolicyEditArgs;
 import com.microsoft.tfs.core.checkinpolicies.PolicyEvaluationCancelledException;
 import com.microsoft.tfs.core.checkinpolicies.PolicyFailure;
+import com.microsoft.tfs.core.checkinpolicies.PolicyInputs;
 import com.microsoft.tfs.core.checkinpolicies.PolicyType;
 import com.microsoft.tfs.core.memento.Memento;
 import com.microsoft.tfs.core.pendingcheckin.PendingCheckin;
 
-public class WorkItemPolicy extends PolicyBase {
+public class WorkItemPolicy extends PolicyBase implements IndependentPolicy {
     private final static PolicyType TYPE =
         new PolicyType(
             "com.teamprise.checkinpolicies.workitempolicy.WorkItemPolicy-1", //$NON-NLS-1$
@@ -40,6 +42,17 @@ public class WorkItemPolicy extends PolicyBase {
         return TYPE;
     }
 
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.microsoft.tfs.core.checkinpolicies.IndependentPolicy#
+     * getPolicyInputs()
+     */
+    @Override
+    public PolicyInputs getPolicyInputs() {
+        return PolicyInputs.WORK_ITEMS;
+    }
+
     /*
      * (non-Javadoc)
      *
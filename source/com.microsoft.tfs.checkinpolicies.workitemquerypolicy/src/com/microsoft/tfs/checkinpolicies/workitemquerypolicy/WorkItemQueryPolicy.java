@@ -10,12 +10,14 @@ import java.util.List;
 
 import com.microsoft.tfs.client.common.ui.teamexplorer.helpers.WorkItemHelpers;
 import com.microsoft.tfs.core.TFSTeamProjectCollection;
+import com.microsoft.tfs.core.checkinpolicies.IndependentPolicy;
 import com.microsoft.tfs.core.checkinpolicies.PolicyBase;
 import com.microsoft.tfs.core.checkinpolicies.PolicyContext;
 import com.microsoft.tfs.core.checkinpolicies.PolicyContextKeys;
 import com.microsoft.tfs.core.checkinpolicies.PolicyEditArgs;
 import com.microsoft.tfs.core.checkinpolicies.PolicyEvaluationCancelledException;
 import com.microsoft.tfs.core.checkinpolicies.PolicyFailure;
+import com.microsoft.tfs.core.checkinpolicies.PolicyInputs;
 import com.microsoft.tfs.core.checkinpolicies.PolicyType;
 import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.WorkItemCheckinInfo;
 import com.microsoft.tfs.core.clients.workitem.CoreFieldReferenceNames;
@@ -30,7 +32,7 @@ import com.microsoft.tfs.util.Check;
 import com.microsoft.tfs.util.GUID;
 import com.microsoft.tfs.util.GUID.GUIDStringFormat;
 
-public class WorkItemQueryPolicy extends PolicyBase {
+public class WorkItemQueryPolicy extends PolicyBase implements IndependentPolicy {
     private final static PolicyType TYPE =
         new PolicyType(
             "com.teamprise.checkinpolicies.workitemquerypolicy.WorkItemQueryPolicy-1", //$NON-NLS-1$
@@ -213,6 +215,21 @@ public class WorkItemQueryPolicy extends PolicyBase {
         return TYPE;
     }
 
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.microsoft.tfs.core.checkinpolicies.IndependentPolicy#
+     * getPolicyInputs()
+     */
+    @Override
+    public PolicyInputs getPolicyInputs() {
+        /*
+         * The stored query's results are cached for a while, so they aren't
+         * treated as an input.
+         */
+        return PolicyInputs.PENDING_CHANGES.combine(PolicyInputs.WORK_ITEMS);
+    }
+
     @Override
     public void loadConfiguration(final Memento configurationMemento) {
         queryGUID = new GUID(configurationMemento.getString(QUERY_GUID_ATTRIBUTE));
@@ -117,6 +117,34 @@ public abstract class EnvironmentVariables {
      */
     public static final String BYPASS_INTERACTIVE_BROWSER_LOGIN = "TF_BYPASS_BROWSER_LOGIN"; //$NON-NLS-1$
 
+    /**
+     * When set to True, Yes or Y, local workspaces are watched for changes
+     * with the Java 7 file system watch service, so commands after the first
+     * one in a command file (or other long-running CLC process) can scan only
+     * the paths that changed instead of the whole workspace. Has no effect on
+     * Java 6.
+     * <p>
+     * The default (when this variable is not set) is that every command scans
+     * the whole workspace.
+     */
+    public static final String USE_NIO_PATH_WATCHER = "TF_USE_NIO_PATH_WATCHER"; //$NON-NLS-1$
+
+    /**
+     * When set to True, Yes or Y, commands are sent to the daemon started by
+     * the "daemon" command (when one is running), which runs them in its
+     * long-running process with the connections and workspaces earlier
+     * commands used. When no daemon is running (or it can't run the command),
+     * the command runs in this process as usual.
+     */
+    public static final String USE_DAEMON = "TF_USE_DAEMON"; //$NON-NLS-1$
+
+    /**
+     * How many minutes the daemon started by the "daemon" command waits for a
+     * command before it exits. The default (when this variable is not set, or
+     * is 0) is that the daemon runs until it is stopped.
+     */
+    public static final String DAEMON_IDLE_MINUTES = "TF_DAEMON_IDLE_MINUTES"; //$NON-NLS-1$
+
     public static boolean getBoolean(final String variableName, final boolean defaultValue) {
         final String value = PlatformMiscUtils.getInstance().getEnvironmentVariable(variableName);
 
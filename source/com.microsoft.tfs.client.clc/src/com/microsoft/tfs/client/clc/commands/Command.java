@@ -88,6 +88,7 @@ import com.microsoft.tfs.core.clients.versioncontrol.events.VersionControlEventE
 import com.microsoft.tfs.core.clients.versioncontrol.exceptions.DownloadProxyException;
 import com.microsoft.tfs.core.clients.versioncontrol.exceptions.ServerPathFormatException;
 import com.microsoft.tfs.core.clients.versioncontrol.internal.localworkspace.NullPathWatcherFactory;
+import com.microsoft.tfs.core.clients.versioncontrol.localworkspace.NIOPathWatcherFactory;
 import com.microsoft.tfs.core.clients.versioncontrol.path.ItemPath;
 import com.microsoft.tfs.core.clients.versioncontrol.path.LocalPath;
 import com.microsoft.tfs.core.clients.versioncontrol.path.ServerPath;
@@ -1811,7 +1812,11 @@ public abstract class Command
         ee.addConflictListener(this);
         ee.addMergingListener(this);
 
-        client.setPathWatcherFactory(new CLCPathWatcherFactory());
+        if (EnvironmentVariables.getBoolean(EnvironmentVariables.USE_NIO_PATH_WATCHER, false)) {
+            client.setPathWatcherFactory(new NIOPathWatcherFactory());
+        } else {
+            client.setPathWatcherFactory(new CLCPathWatcherFactory());
+        }
 
         // Store this for close()
         this.client = client;
@@ -0,0 +1,218 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the repository root.
+
+package com.microsoft.tfs.client.clc.daemon;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.text.MessageFormat;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.microsoft.tfs.client.clc.ExitCode;
+import com.microsoft.tfs.client.clc.Messages;
+import com.microsoft.tfs.client.clc.daemon.DaemonProtocol.ServerInfo;
+import com.microsoft.tfs.console.display.ConsoleDisplay;
+import com.microsoft.tfs.console.display.Display;
+
+/**
+ * Sends commands to a {@link DaemonServer} to run, and writes their output to
+ * this process's console.
+ *
+ * @threadsafety thread-safe
+ */
+public final class DaemonClient {
+    private static final Log log = LogFactory.getLog(DaemonClient.class);
+
+    /**
+     * Returned by {@link #run(String[])} when the command was not run because
+     * no server is running or the server can't run it.
+     */
+    public static final int NOT_RUN = Integer.MIN_VALUE;
+
+    private static final int CONNECT_TIMEOUT_MILLIS = 2000;
+
+    private DaemonClient() {
+    }
+
+    /**
+     * Runs a command in the server, with this process's working directory,
+     * environment and console size, and writes its output to this process's
+     * console.
+     *
+     * @param args
+     *        the command-line arguments (must not be <code>null</code>)
+     * @return the command's exit code, or {@link #NOT_RUN} if no server ran
+     *         the command (so the caller must run it)
+     */
+    public static int run(final String[] args) {
+        return send(DaemonProtocol.REQUEST_RUN, args);
+    }
+
+    /**
+     * Asks the server to stop after the command it is running.
+     *
+     * @return <code>true</code> if a server was asked to stop,
+     *         <code>false</code> if no server is running
+     */
+    public static boolean stop() {
+        return send(DaemonProtocol.REQUEST_STOP, new String[0]) != NOT_RUN;
+    }
+
+    /**
+     * @return <code>true</code> if a server is accepting requests,
+     *         <code>false</code> otherwise
+     */
+    public static boolean isServerRunning() {
+        final ServerInfo info = DaemonProtocol.readServerInfo();
+        if (info == null) {
+            return false;
+        }
+
+        final Socket socket = connect(info);
+        if (socket == null) {
+            return false;
+        }
+
+        try {
+            socket.close();
+        } catch (final IOException e) {
+            // Ignore
+        }
+        return true;
+    }
+
+    private static int send(final int request, final String[] args) {
+        final ServerInfo info = DaemonProtocol.readServerInfo();
+        if (info == null) {
+            return NOT_RUN;
+        }
+
+        return send(info, request, args, new ConsoleDisplay(false));
+    }
+
+    /**
+     * Sends a request to a server and writes the command's output to a
+     * display.
+     *
+     * @return the command's exit code, or {@link #NOT_RUN} if the server did
+     *         not run the command
+     */
+    static int send(final ServerInfo info, final int request, final String[] args, final Display display) {
+        final Socket socket = connect(info);
+        if (socket == null) {
+            return NOT_RUN;
+        }
+
+        boolean received = false;
+
+        try {
+            final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            final DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+
+            out.writeInt(DaemonProtocol.VERSION);
+            DaemonProtocol.writeString(out, info.getSecret());
+            out.writeInt(request);
+            DaemonProtocol.writeString(out, new File(".").getCanonicalPath()); //$NON-NLS-1$
+            out.writeInt(display.getWidth());
+            out.writeInt(display.getHeight());
+
+            final Map<String, String> environment = System.getenv();
+            out.writeInt(environment.size());
+            for (final Entry<String, String> entry : environment.entrySet()) {
+                DaemonProtocol.writeString(out, entry.getKey());
+                DaemonProtocol.writeString(out, entry.getValue());
+            }
+
+            out.writeInt(args.length);
+            for (final String arg : args) {
+                DaemonProtocol.writeString(out, arg);
+            }
+            out.flush();
+
+            while (true) {
+                final byte frameType = in.readByte();
+                received = true;
+
+                switch (frameType) {
+                    case DaemonProtocol.FRAME_OUTPUT:
+                        copyFrame(in, display.getPrintStream());
+                        break;
+                    case DaemonProtocol.FRAME_ERROR:
+                        copyFrame(in, display.getErrorPrintStream());
+                        break;
+                    case DaemonProtocol.FRAME_EXIT:
+                        return in.readInt();
+                    case DaemonProtocol.FRAME_REFUSED:
+                        log.debug("The daemon refused the request"); //$NON-NLS-1$
+                        return NOT_RUN;
+                    default:
+                        throw new IOException("Unknown frame type " + frameType); //$NON-NLS-1$
+                }
+            }
+        } catch (final IOException e) {
+            if (received == false) {
+                /*
+                 * The server never started the command (for instance, it
+                 * stopped while this request waited to be accepted).
+                 */
+                log.debug("The daemon did not answer", e); //$NON-NLS-1$
+                return NOT_RUN;
+            }
+
+            log.warn("Lost the connection to the daemon", e); //$NON-NLS-1$
+
+            final String messageFormat = Messages.getString("DaemonClient.ConnectionLostFormat"); //$NON-NLS-1$
+            display.printErrorLine(MessageFormat.format(messageFormat, e.getLocalizedMessage()));
+            return ExitCode.FAILURE;
+        } finally {
+            try {
+                socket.close();
+            } catch (final IOException e) {
+                // Ignore
+            }
+        }
+    }
+
+    private static Socket connect(final ServerInfo info) {
+        final Socket socket = new Socket();
+        try {
+            socket.connect(
+                new InetSocketAddress(InetAddress.getByName("127.0.0.1"), info.getPort()), //$NON-NLS-1$
+                CONNECT_TIMEOUT_MILLIS);
+            return socket;
+        } catch (final IOException e) {
+            log.debug("No daemon is listening on port " + info.getPort(), e); //$NON-NLS-1$
+
+            try {
+                socket.close();
+            } catch (final IOException closeException) {
+                // Ignore
+            }
+            return null;
+        }
+    }
+
+    private static void copyFrame(final DataInputStream in, final PrintStream stream) throws IOException {
+        final int length = in.readInt();
+        if (length < 0) {
+            throw new IOException("Invalid frame length " + length); //$NON-NLS-1$
+        }
+
+        final byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        stream.write(bytes, 0, length);
+        stream.flush();
+    }
+}
@@ -0,0 +1,289 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the repository root.
+
+package com.microsoft.tfs.client.clc.daemon;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+
+import com.microsoft.tfs.core.config.persistence.DefaultPersistenceStoreProvider;
+import com.microsoft.tfs.core.persistence.FilesystemPersistenceStore;
+import com.microsoft.tfs.util.Platform;
+
+/**
+ * The messages {@link DaemonClient} and {@link DaemonServer} exchange, and the
+ * file through which the client finds the server.
+ * <p>
+ * The server listens on a loopback TCP port, and writes the port and a random
+ * secret to a file in a directory only the user can read. A client connects to
+ * the port and sends:
+ *
+ * <pre>
+ * int      {@link #VERSION}
+ * string   secret
+ * int      {@link #REQUEST_RUN} or {@link #REQUEST_STOP}
+ * string   current working directory
+ * int      display width
+ * int      display height
+ * int      environment variable count, then a name string and a value string for each
+ * int      argument count, then a string for each
+ * </pre>
+ *
+ * The server answers with a sequence of frames, each a type byte followed by
+ * its data: {@link #FRAME_OUTPUT} and {@link #FRAME_ERROR} carry an int length
+ * and that many bytes of the command's output, {@link #FRAME_EXIT} carries the
+ * int exit code and ends the response, and {@link #FRAME_REFUSED} (which
+ * carries nothing) ends a response to a request the server can't serve, which
+ * the client runs itself.
+ * <p>
+ * Strings are an int length and that many bytes of UTF-8. The server reads at
+ * most {@link #MAX_SECRET_LENGTH} bytes of secret before it authenticates the
+ * client, and limits the other strings and counts so a bad request can't
+ * exhaust its memory.
+ *
+ * @threadsafety thread-safe
+ */
+public final class DaemonProtocol {
+    public static final int VERSION = 1;
+
+    public static final int REQUEST_RUN = 1;
+    public static final int REQUEST_STOP = 2;
+
+    public static final byte FRAME_OUTPUT = 1;
+    public static final byte FRAME_ERROR = 2;
+    public static final byte FRAME_EXIT = 3;
+    public static final byte FRAME_REFUSED = 4;
+
+    /**
+     * The length of the secret (32 random bytes in hex).
+     */
+    public static final int MAX_SECRET_LENGTH = 64;
+
+    /**
+     * The most bytes in any other string of a request.
+     */
+    public static final int MAX_STRING_LENGTH = 256 * 1024;
+
+    /**
+     * The most environment variables in a request.
+     */
+    public static final int MAX_ENVIRONMENT_COUNT = 4096;
+
+    /**
+     * The most arguments in a request.
+     */
+    public static final int MAX_ARGUMENT_COUNT = 64 * 1024;
+
+    private static final String SERVER_DIRECTORY_NAME = "clc-daemon"; //$NON-NLS-1$
+    private static final String SERVER_FILE_NAME = "server.properties"; //$NON-NLS-1$
+    private static final String PORT_PROPERTY = "port"; //$NON-NLS-1$
+    private static final String SECRET_PROPERTY = "secret"; //$NON-NLS-1$
+
+    private static final String CHARSET = "UTF-8"; //$NON-NLS-1$
+
+    private DaemonProtocol() {
+    }
+
+    /**
+     * The port and secret of a running server.
+     */
+    public static class ServerInfo {
+        private final int port;
+        private final String secret;
+
+        public ServerInfo(final int port, final String secret) {
+            this.port = port;
+            this.secret = secret;
+        }
+
+        public int getPort() {
+            return port;
+        }
+
+        public String getSecret() {
+            return secret;
+        }
+    }
+
+    /**
+     * @return the file the server writes its {@link ServerInfo} to
+     */
+    public static File getServerFile() {
+        final FilesystemPersistenceStore store =
+            DefaultPersistenceStoreProvider.INSTANCE.getConfigurationPersistenceStore();
+        return new File(store.getItemFile(SERVER_DIRECTORY_NAME), SERVER_FILE_NAME);
+    }
+
+    /**
+     * Reads the {@link ServerInfo} the server wrote.
+     *
+     * @return the server's info, or <code>null</code> if no server has written
+     *         it (or it can't be read)
+     */
+    public static ServerInfo readServerInfo() {
+        return readServerInfo(getServerFile());
+    }
+
+    static ServerInfo readServerInfo(final File file) {
+        if (file.exists() == false) {
+            return null;
+        }
+
+        final Properties properties = new Properties();
+        try {
+            final InputStream in = new FileInputStream(file);
+            try {
+                properties.load(in);
+            } finally {
+                in.close();
+            }
+
+            final String port = properties.getProperty(PORT_PROPERTY);
+            final String secret = properties.getProperty(SECRET_PROPERTY);
+            if (port == null || secret == null) {
+                return null;
+            }
+
+            return new ServerInfo(Integer.parseInt(port), secret);
+        } catch (final IOException e) {
+            return null;
+        } catch (final NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Writes the server's {@link ServerInfo} to a file in a directory only the
+     * user can read.
+     *
+     * @param info
+     *        the info to write (must not be <code>null</code>)
+     * @throws IOException
+     *         if the file could not be written, or its permissions could not
+     *         be restricted
+     */
+    public static void writeServerInfo(final ServerInfo info) throws IOException {
+        writeServerInfo(getServerFile(), info);
+    }
+
+    static void writeServerInfo(final File file, final ServerInfo info) throws IOException {
+        final File directory = file.getParentFile();
+        directory.mkdirs();
+
+        /*
+         * Restrict the directory before the file is created in it, so the
+         * secret is never readable by others whatever the umask. Java 6 can't
+         * set permissions on Windows, where the user's profile directory is
+         * private anyway.
+         */
+        if (Platform.isCurrentPlatform(Platform.WINDOWS) == false) {
+            restrictToOwner(directory, true);
+        }
+
+        file.delete();
+        if (file.createNewFile() == false) {
+            throw new IOException("Could not create " + file); //$NON-NLS-1$
+        }
+
+        if (Platform.isCurrentPlatform(Platform.WINDOWS) == false) {
+            restrictToOwner(file, false);
+        }
+
+        final Properties properties = new Properties();
+        properties.setProperty(PORT_PROPERTY, Integer.toString(info.getPort()));
+        properties.setProperty(SECRET_PROPERTY, info.getSecret());
+
+        final OutputStream out = new FileOutputStream(file);
+        try {
+            properties.store(out, null);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Deletes the server's {@link ServerInfo} file if it still describes the
+     * given server (a newer server may have replaced it).
+     */
+    public static void deleteServerInfo(final ServerInfo info) {
+        final ServerInfo current = readServerInfo();
+        if (current != null && current.getSecret().equals(info.getSecret())) {
+            getServerFile().delete();
+        }
+    }
+
+    /**
+     * Lets only the owner use a file or directory.
+     *
+     * @throws IOException
+     *         if any permission could not be changed
+     */
+    private static void restrictToOwner(final File file, final boolean directory) throws IOException {
+        final boolean restricted = file.setReadable(false, false)
+            && file.setReadable(true, true)
+            && file.setWritable(false, false)
+            && file.setWritable(true, true)
+            && file.setExecutable(false, false)
+            && (directory == false || file.setExecutable(true, true));
+
+        if (restricted == false) {
+            throw new IOException("Could not restrict the permissions of " + file); //$NON-NLS-1$
+        }
+    }
+
+    public static void writeString(final DataOutputStream out, final String value) throws IOException {
+        final byte[] bytes = value.getBytes(CHARSET);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * @equivalence readString(in, MAX_STRING_LENGTH)
+     */
+    public static String readString(final DataInputStream in) throws IOException {
+        return readString(in, MAX_STRING_LENGTH);
+    }
+
+    /**
+     * Reads a string.
+     *
+     * @param maxLength
+     *        the most bytes the string may have
+     * @throws IOException
+     *         if the string could not be read, or is longer than maxLength
+     */
+    public static String readString(final DataInputStream in, final int maxLength) throws IOException {
+        final int length = in.readInt();
+        if (length < 0 || length > maxLength) {
+            throw new IOException("Invalid string length " + length); //$NON-NLS-1$
+        }
+
+        final byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, CHARSET);
+    }
+
+    /**
+     * Reads a count of the items which follow.
+     *
+     * @param maxCount
+     *        the largest count allowed
+     * @throws IOException
+     *         if the count could not be read, or is negative or larger than
+     *         maxCount
+     */
+    public static int readCount(final DataInputStream in, final int maxCount) throws IOException {
+        final int count = in.readInt();
+        if (count < 0 || count > maxCount) {
+            throw new IOException("Invalid count " + count); //$NON-NLS-1$
+        }
+        return count;
+    }
+}
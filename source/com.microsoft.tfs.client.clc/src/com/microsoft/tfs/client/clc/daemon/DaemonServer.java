@@ -0,0 +1,372 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the repository root.
+
+package com.microsoft.tfs.client.clc.daemon;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.security.SecureRandom;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.microsoft.tfs.client.clc.Application;
+import com.microsoft.tfs.client.clc.ExitCode;
+import com.microsoft.tfs.client.clc.daemon.DaemonProtocol.ServerInfo;
+import com.microsoft.tfs.client.clc.vc.CLCTaskMonitor;
+import com.microsoft.tfs.console.display.PrintStreamDisplay;
+import com.microsoft.tfs.console.input.Input;
+import com.microsoft.tfs.jni.PlatformMiscUtils;
+import com.microsoft.tfs.util.ArrayUtils;
+import com.microsoft.tfs.util.Check;
+import com.microsoft.tfs.util.Platform;
+import com.microsoft.tfs.util.tasks.TaskMonitor;
+import com.microsoft.tfs.util.tasks.TaskMonitorService;
+
+/**
+ * Runs commands sent by {@link DaemonClient}s in a long-running process, so
+ * they share the connections, workspaces and workspace watchers that
+ * {@link com.microsoft.tfs.client.clc.commands.Command} caches for the life of
+ * the process (as commands in a command file do), and don't each pay for
+ * starting a Java virtual machine.
+ * <p>
+ * Commands run one at a time, in the order their clients connect, each with
+ * its client's working directory, environment and display size. Commands
+ * can't read the client's standard input, so prompts see the end of input.
+ * When the client goes away (its output can't be written), the command's
+ * {@link TaskMonitor} is canceled, so commands which check it stop early.
+ * <p>
+ * The working directory is changed with
+ * {@link PlatformMiscUtils#changeCurrentDirectory(String)}. Java virtual
+ * machines which ignore changes to the <code>user.dir</code> property (Java 11
+ * and newer) can't resolve relative paths against it, so the server refuses
+ * requests there and the clients run the commands themselves.
+ *
+ * @threadsafety thread-compatible
+ */
+public class DaemonServer {
+    private static final Log log = LogFactory.getLog(DaemonServer.class);
+
+    /**
+     * How long a client has to send its version and secret. Clients send their
+     * whole request as soon as they connect, so this is short, and a
+     * connection which sends nothing holds up the other clients only briefly.
+     */
+    private static final int AUTHENTICATION_TIMEOUT_MILLIS = 2 * 1000;
+
+    /**
+     * How long an authenticated client has to send the rest of its request.
+     */
+    private static final int REQUEST_TIMEOUT_MILLIS = 10 * 1000;
+
+    private final Class<? extends Application> applicationClass;
+    private final int idleTimeoutMillis;
+
+    private final ForwardingDisplay display = new ForwardingDisplay();
+    private final Input input = new Input() {
+        @Override
+        public InputStream getInputStream() {
+            return new ByteArrayInputStream(new byte[0]);
+        }
+    };
+
+    private boolean stopped;
+
+    /**
+     * @param applicationClass
+     *        the application to run each command with (must not be
+     *        <code>null</code>, must have a public no-argument constructor)
+     * @param idleTimeoutMillis
+     *        how long the server waits for a request before it stops (0 waits
+     *        forever)
+     */
+    public DaemonServer(final Class<? extends Application> applicationClass, final int idleTimeoutMillis) {
+        Check.notNull(applicationClass, "applicationClass"); //$NON-NLS-1$
+        Check.isTrue(idleTimeoutMillis >= 0, "idleTimeoutMillis >= 0"); //$NON-NLS-1$
+
+        this.applicationClass = applicationClass;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+    }
+
+    /**
+     * Serves requests until a client asks the server to stop or it has been
+     * idle for the idle timeout.
+     *
+     * @throws IOException
+     *         if the server could not listen for requests
+     */
+    public void run() throws IOException {
+        final ServerSocket serverSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1")); //$NON-NLS-1$
+
+        final byte[] secret = new byte[32];
+        new SecureRandom().nextBytes(secret);
+        final ServerInfo info = new ServerInfo(serverSocket.getLocalPort(), ArrayUtils.byteArrayToHexString(secret));
+
+        try {
+            DaemonProtocol.writeServerInfo(info);
+            serverSocket.setSoTimeout(idleTimeoutMillis);
+
+            log.info("Listening for requests on port " + info.getPort()); //$NON-NLS-1$
+
+            while (stopped == false) {
+                final Socket socket;
+                try {
+                    socket = serverSocket.accept();
+                } catch (final SocketTimeoutException e) {
+                    log.info("Stopping after " + idleTimeoutMillis + " ms without a request"); //$NON-NLS-1$ //$NON-NLS-2$
+                    break;
+                }
+
+                try {
+                    serve(socket, info.getSecret());
+                } catch (final EOFException e) {
+                    // A client checking whether the server is running
+                    log.debug("A client disconnected without a request", e); //$NON-NLS-1$
+                } catch (final IOException e) {
+                    log.warn("Error serving a request", e); //$NON-NLS-1$
+                } finally {
+                    socket.close();
+                }
+            }
+        } finally {
+            DaemonProtocol.deleteServerInfo(info);
+            serverSocket.close();
+        }
+    }
+
+    /**
+     * Reads a request from a client and serves it.
+     *
+     * @param socket
+     *        the client's connection (must not be <code>null</code>)
+     * @param secret
+     *        the secret the client must send (must not be <code>null</code>)
+     * @throws IOException
+     *         if the request could not be read, or the response could not be
+     *         written
+     */
+    void serve(final Socket socket, final String secret) throws IOException {
+        socket.setSoTimeout(AUTHENTICATION_TIMEOUT_MILLIS);
+
+        final DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+
+        if (in.readInt() != DaemonProtocol.VERSION) {
+            writeRefused(out);
+            return;
+        }
+
+        final String clientSecret;
+        try {
+            clientSecret = DaemonProtocol.readString(in, DaemonProtocol.MAX_SECRET_LENGTH);
+        } catch (final IOException e) {
+            log.warn("Ignoring a request with an invalid secret", e); //$NON-NLS-1$
+            return;
+        }
+
+        if (secretsEqual(secret, clientSecret) == false) {
+            log.warn("Ignoring a request with the wrong secret"); //$NON-NLS-1$
+            return;
+        }
+
+        socket.setSoTimeout(REQUEST_TIMEOUT_MILLIS);
+
+        final int request = in.readInt();
+        final String workingDirectory = DaemonProtocol.readString(in);
+        final int width = in.readInt();
+        final int height = in.readInt();
+
+        final Map<String, String> environment = Platform.isCurrentPlatform(Platform.WINDOWS)
+            ? new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER) : new HashMap<String, String>();
+        final int environmentCount = DaemonProtocol.readCount(in, DaemonProtocol.MAX_ENVIRONMENT_COUNT);
+        for (int i = 0; i < environmentCount; i++) {
+            final String name = DaemonProtocol.readString(in);
+            environment.put(name, DaemonProtocol.readString(in));
+        }
+
+        final String[] args = new String[DaemonProtocol.readCount(in, DaemonProtocol.MAX_ARGUMENT_COUNT)];
+        for (int i = 0; i < args.length; i++) {
+            args[i] = DaemonProtocol.readString(in);
+        }
+
+        socket.setSoTimeout(0);
+
+        if (request == DaemonProtocol.REQUEST_STOP) {
+            stopped = true;
+            writeExit(out, ExitCode.SUCCESS);
+            return;
+        }
+
+        if (request != DaemonProtocol.REQUEST_RUN || changeWorkingDirectory(workingDirectory) == false) {
+            writeRefused(out);
+            return;
+        }
+
+        /*
+         * PrintStream hides write errors from the command, so the frame
+         * streams cancel the command's task monitor when the client goes
+         * away.
+         */
+        final CLCTaskMonitor taskMonitor = new CLCTaskMonitor();
+        final PrintStream outputStream =
+            new PrintStream(new FrameOutputStream(out, DaemonProtocol.FRAME_OUTPUT, taskMonitor), true);
+        final PrintStream errorStream =
+            new PrintStream(new FrameOutputStream(out, DaemonProtocol.FRAME_ERROR, taskMonitor), true);
+        display.setTarget(new PrintStreamDisplay(outputStream, errorStream, width, height));
+        PlatformMiscUtils.setEnvironmentOverride(environment);
+        TaskMonitorService.pushTaskMonitor(taskMonitor);
+
+        int ret = ExitCode.FAILURE;
+        try {
+            final Application application = applicationClass.getConstructor().newInstance();
+            application.setDisplay(display);
+            application.setInput(input);
+
+            ret = application.run(args);
+        } catch (final Exception e) {
+            log.error("Unhandled exception reached the daemon: ", e); //$NON-NLS-1$
+        } finally {
+            TaskMonitorService.popTaskMonitor();
+            PlatformMiscUtils.setEnvironmentOverride(null);
+            display.setTarget(new PrintStreamDisplay(System.out, System.err, width, height));
+
+            outputStream.flush();
+            errorStream.flush();
+        }
+
+        if (outputStream.checkError() || errorStream.checkError()) {
+            log.warn("The client went away before the command finished"); //$NON-NLS-1$
+            return;
+        }
+
+        writeExit(out, ret);
+    }
+
+    /**
+     * Changes the process's working directory, and checks that Java resolves
+     * relative paths against the new one.
+     */
+    private boolean changeWorkingDirectory(final String directory) {
+        if (PlatformMiscUtils.getInstance().changeCurrentDirectory(directory) == false) {
+            log.warn("Could not change the working directory to " + directory); //$NON-NLS-1$
+            return false;
+        }
+
+        try {
+            if (new File(".").getCanonicalFile().equals(new File(directory).getCanonicalFile())) //$NON-NLS-1$
+            {
+                return true;
+            }
+        } catch (final IOException e) {
+            log.warn("Error checking the working directory", e); //$NON-NLS-1$
+            return false;
+        }
+
+        log.warn("This Java virtual machine does not resolve relative paths against a changed working directory"); //$NON-NLS-1$
+        return false;
+    }
+
+    private static boolean secretsEqual(final String expected, final String actual) {
+        if (expected.length() != actual.length()) {
+            return false;
+        }
+
+        // Compare every character so the time doesn't tell how many matched
+        int difference = 0;
+        for (int i = 0; i < expected.length(); i++) {
+            difference |= expected.charAt(i) ^ actual.charAt(i);
+        }
+        return difference == 0;
+    }
+
+    private static void writeRefused(final DataOutputStream out) throws IOException {
+        synchronized (out) {
+            out.writeByte(DaemonProtocol.FRAME_REFUSED);
+            out.flush();
+        }
+    }
+
+    private static void writeExit(final DataOutputStream out, final int exitCode) throws IOException {
+        synchronized (out) {
+            out.writeByte(DaemonProtocol.FRAME_EXIT);
+            out.writeInt(exitCode);
+            out.flush();
+        }
+    }
+
+    /**
+     * Writes everything written to it to the client as frames of one type.
+     * When a write fails, it cancels the command's task monitor.
+     */
+    private static class FrameOutputStream extends OutputStream {
+        private final DataOutputStream out;
+        private final byte frameType;
+        private final TaskMonitor taskMonitor;
+
+        public FrameOutputStream(final DataOutputStream out, final byte frameType, final TaskMonitor taskMonitor) {
+            this.out = out;
+            this.frameType = frameType;
+            this.taskMonitor = taskMonitor;
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            write(new byte[] {
+                (byte) b
+            }, 0, 1);
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) throws IOException {
+            if (len == 0) {
+                return;
+            }
+
+            synchronized (out) {
+                try {
+                    out.writeByte(frameType);
+                    out.writeInt(len);
+                    out.write(b, off, len);
+                } catch (final IOException e) {
+                    cancel(e);
+                    throw e;
+                }
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            synchronized (out) {
+                try {
+                    out.flush();
+                } catch (final IOException e) {
+                    cancel(e);
+                    throw e;
+                }
+            }
+        }
+
+        private void cancel(final IOException e) {
+            if (taskMonitor.isCanceled() == false) {
+                log.warn("Canceling the command because its output could not be written", e); //$NON-NLS-1$
+                taskMonitor.setCanceled();
+            }
+        }
+    }
+}
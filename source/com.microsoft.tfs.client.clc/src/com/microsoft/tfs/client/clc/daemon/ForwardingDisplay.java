@@ -0,0 +1,71 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the repository root.
+
+package com.microsoft.tfs.client.clc.daemon;
+
+import java.io.PrintStream;
+
+import com.microsoft.tfs.console.display.Display;
+import com.microsoft.tfs.console.display.NullDisplay;
+import com.microsoft.tfs.util.Check;
+
+/**
+ * A {@link Display} which forwards to the display of the command
+ * {@link DaemonServer} is running. The server gives every command this one
+ * display, because connections cached by an earlier command still write their
+ * prompts and messages to that command's display.
+ *
+ * @threadsafety thread-safe
+ */
+class ForwardingDisplay implements Display {
+    private volatile Display target = new NullDisplay();
+
+    /**
+     * @param target
+     *        the display to forward to (must not be <code>null</code>)
+     */
+    public void setTarget(final Display target) {
+        Check.notNull(target, "target"); //$NON-NLS-1$
+        this.target = target;
+    }
+
+    @Override
+    public void print(final String text) {
+        target.print(text);
+    }
+
+    @Override
+    public void flush() {
+        target.flush();
+    }
+
+    @Override
+    public void printLine(final String line) {
+        target.printLine(line);
+    }
+
+    @Override
+    public void printErrorLine(final String line) {
+        target.printErrorLine(line);
+    }
+
+    @Override
+    public PrintStream getPrintStream() {
+        return target.getPrintStream();
+    }
+
+    @Override
+    public PrintStream getErrorPrintStream() {
+        return target.getErrorPrintStream();
+    }
+
+    @Override
+    public int getWidth() {
+        return target.getWidth();
+    }
+
+    @Override
+    public int getHeight() {
+        return target.getHeight();
+    }
+}
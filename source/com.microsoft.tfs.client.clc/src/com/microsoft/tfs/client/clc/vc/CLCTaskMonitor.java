@@ -6,6 +6,7 @@ package com.microsoft.tfs.client.clc.vc;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import com.microsoft.tfs.util.tasks.TaskMonitor;
+import com.microsoft.tfs.util.tasks.TaskMonitorService;
 
 /**
  * A {@link TaskMonitor} that really doesn't monitor progress, but provides
@@ -23,6 +24,22 @@ public class CLCTaskMonitor implements TaskMonitor {
         this(null);
     }
 
+    /**
+     * Creates a monitor for a command to push while it runs. When the calling
+     * thread's current monitor is a {@link CLCTaskMonitor} (the daemon server
+     * pushes one for each command it runs), the new monitor shares its
+     * cancelation state.
+     *
+     * @return a new monitor (never <code>null</code>)
+     */
+    public static CLCTaskMonitor newCommandTaskMonitor() {
+        final TaskMonitor current = TaskMonitorService.getTaskMonitor();
+        if (current instanceof CLCTaskMonitor) {
+            return new CLCTaskMonitor(((CLCTaskMonitor) current).canceled);
+        }
+        return new CLCTaskMonitor();
+    }
+
     /**
      * For use by {@link #newSubTaskMonitor(int)} to share cancelation state.
      *
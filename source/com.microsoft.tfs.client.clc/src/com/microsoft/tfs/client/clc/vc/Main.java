@@ -10,8 +10,10 @@ import org.apache.commons.logging.LogFactory;
 
 import com.microsoft.tfs.client.clc.Application;
 import com.microsoft.tfs.client.clc.CommandsMap;
+import com.microsoft.tfs.client.clc.EnvironmentVariables;
 import com.microsoft.tfs.client.clc.ExitCode;
 import com.microsoft.tfs.client.clc.OptionsMap;
+import com.microsoft.tfs.client.clc.daemon.DaemonClient;
 import com.microsoft.tfs.client.common.logging.TELoggingConfiguration;
 import com.microsoft.tfs.util.shutdown.ShutdownManager;
 
@@ -52,7 +54,12 @@ public class Main extends Application {
         int ret = ExitCode.FAILURE;
 
         try {
-            ret = main.run(args);
+            int daemonRet = DaemonClient.NOT_RUN;
+            if (useDaemon(args)) {
+                daemonRet = DaemonClient.run(args);
+            }
+
+            ret = (daemonRet != DaemonClient.NOT_RUN) ? daemonRet : main.run(args);
         } catch (final Throwable e) {
             log.error("Unhandled exception reached Main: ", e); //$NON-NLS-1$
         } finally {
@@ -71,6 +78,20 @@ public class Main extends Application {
         System.exit(ret);
     }
 
+    /**
+     * Tests whether the command should be sent to a running daemon (see
+     * {@link EnvironmentVariables#USE_DAEMON}). The daemon command itself
+     * always runs in this process.
+     */
+    private static boolean useDaemon(final String[] args) {
+        if (args.length > 0 && args[0].equalsIgnoreCase("daemon")) //$NON-NLS-1$
+        {
+            return false;
+        }
+
+        return EnvironmentVariables.getBoolean(EnvironmentVariables.USE_DAEMON, false);
+    }
+
     /**
      * Constructs a CLC. See run() for all the interesting stuff.
      */
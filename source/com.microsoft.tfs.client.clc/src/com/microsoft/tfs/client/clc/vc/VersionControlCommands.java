@@ -19,6 +19,7 @@ import com.microsoft.tfs.client.clc.vc.commands.CommandBranches;
 import com.microsoft.tfs.client.clc.vc.commands.CommandChangeset;
 import com.microsoft.tfs.client.clc.vc.commands.CommandCheckin;
 import com.microsoft.tfs.client.clc.vc.commands.CommandCheckout;
+import com.microsoft.tfs.client.clc.vc.commands.CommandDaemon;
 import com.microsoft.tfs.client.clc.vc.commands.CommandDelete;
 import com.microsoft.tfs.client.clc.vc.commands.CommandDestroy;
 import com.microsoft.tfs.client.clc.vc.commands.CommandDifference;
@@ -97,6 +98,9 @@ public class VersionControlCommands extends CommandsMap {
             "co", //$NON-NLS-1$
             "edit" //$NON-NLS-1$
         });
+        putCommand(CommandDaemon.class, new String[] {
+            "daemon" //$NON-NLS-1$
+        });
         putCommand(CommandDelete.class, new String[] {
             "delete", //$NON-NLS-1$
             "rm" //$NON-NLS-1$
@@ -0,0 +1,129 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the repository root.
+
+package com.microsoft.tfs.client.clc.vc.commands;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.text.MessageFormat;
+
+import com.microsoft.tfs.client.clc.AcceptedOptionSet;
+import com.microsoft.tfs.client.clc.EnvironmentVariables;
+import com.microsoft.tfs.client.clc.ExitCode;
+import com.microsoft.tfs.client.clc.Messages;
+import com.microsoft.tfs.client.clc.commands.Command;
+import com.microsoft.tfs.client.clc.daemon.DaemonClient;
+import com.microsoft.tfs.client.clc.daemon.DaemonServer;
+import com.microsoft.tfs.client.clc.exceptions.ArgumentException;
+import com.microsoft.tfs.client.clc.exceptions.CLCException;
+import com.microsoft.tfs.client.clc.exceptions.InvalidFreeArgumentException;
+import com.microsoft.tfs.client.clc.exceptions.LicenseException;
+import com.microsoft.tfs.client.clc.vc.Main;
+import com.microsoft.tfs.core.exceptions.InputValidationException;
+import com.microsoft.tfs.jni.PlatformMiscUtils;
+import com.microsoft.tfs.util.StringUtil;
+
+/**
+ * Runs the commands other command-line client processes send it (see
+ * {@link EnvironmentVariables#USE_DAEMON}) until it is stopped, or stops the
+ * running daemon.
+ */
+public final class CommandDaemon extends Command {
+    private static final String STOP_ARGUMENT = "stop"; //$NON-NLS-1$
+
+    public CommandDaemon() {
+        super();
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.microsoft.tfs.client.clc.commands.Command#run()
+     */
+    @Override
+    public void run()
+        throws ArgumentException,
+            MalformedURLException,
+            CLCException,
+            LicenseException,
+            InputValidationException {
+        final String[] args = getFreeArguments();
+
+        if (args.length > 1 || (args.length == 1 && args[0].equalsIgnoreCase(STOP_ARGUMENT) == false)) {
+            final String messageFormat = Messages.getString("CommandDaemon.InvalidArgumentsFormat"); //$NON-NLS-1$
+            final String message = MessageFormat.format(messageFormat, getCanonicalName(), STOP_ARGUMENT);
+
+            throw new InvalidFreeArgumentException(message);
+        }
+
+        if (args.length == 1) {
+            if (DaemonClient.stop() == false) {
+                getDisplay().printErrorLine(Messages.getString("CommandDaemon.NotRunning")); //$NON-NLS-1$
+                setExitCode(ExitCode.PARTIAL_SUCCESS);
+            }
+            return;
+        }
+
+        if (DaemonClient.isServerRunning()) {
+            throw new CLCException(Messages.getString("CommandDaemon.AlreadyRunning")); //$NON-NLS-1$
+        }
+
+        final int idleMinutes = getIdleMinutes();
+
+        final String messageFormat = Messages.getString("CommandDaemon.RunningFormat"); //$NON-NLS-1$
+        getDisplay().printLine(MessageFormat.format(messageFormat, EnvironmentVariables.USE_DAEMON, STOP_ARGUMENT));
+
+        try {
+            new DaemonServer(Main.class, idleMinutes * 60 * 1000).run();
+        } catch (final IOException e) {
+            final String errorFormat = Messages.getString("CommandDaemon.ErrorRunningFormat"); //$NON-NLS-1$
+            throw new CLCException(MessageFormat.format(errorFormat, e.getLocalizedMessage()));
+        }
+    }
+
+    private int getIdleMinutes() throws CLCException {
+        final String value =
+            PlatformMiscUtils.getInstance().getEnvironmentVariable(EnvironmentVariables.DAEMON_IDLE_MINUTES);
+
+        if (StringUtil.isNullOrEmpty(value)) {
+            return 0;
+        }
+
+        try {
+            final int minutes = Integer.parseInt(value.trim());
+            if (minutes >= 0 && minutes <= Integer.MAX_VALUE / (60 * 1000)) {
+                return minutes;
+            }
+        } catch (final NumberFormatException e) {
+            // Fall through
+        }
+
+        final String messageFormat = Messages.getString("CommandDaemon.InvalidIdleMinutesFormat"); //$NON-NLS-1$
+        throw new CLCException(MessageFormat.format(messageFormat, EnvironmentVariables.DAEMON_IDLE_MINUTES, value));
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see
+     * com.microsoft.tfs.client.clc.commands.Command#getSupportedOptionSets()
+     */
+    @Override
+    public AcceptedOptionSet[] getSupportedOptionSets() {
+        final AcceptedOptionSet[] optionSets = new AcceptedOptionSet[1];
+        optionSets[0] = new AcceptedOptionSet("[stop]"); //$NON-NLS-1$
+        return optionSets;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.microsoft.tfs.client.clc.commands.Command#getCommandHelpText()
+     */
+    @Override
+    public String[] getCommandHelpText() {
+        return new String[] {
+            Messages.getString("CommandDaemon.HelpText1") //$NON-NLS-1$
+        };
+    }
+}
@@ -46,7 +46,7 @@ import com.microsoft.tfs.util.tasks.TaskMonitorService;
 public final class CommandGet extends Command {
     protected static final Log log = LogFactory.getLog(CommandGet.class);
 
-    private final TaskMonitor taskMonitor = new CLCTaskMonitor();
+    private final TaskMonitor taskMonitor = CLCTaskMonitor.newCommandTaskMonitor();
 
     public CommandGet() {
         super();
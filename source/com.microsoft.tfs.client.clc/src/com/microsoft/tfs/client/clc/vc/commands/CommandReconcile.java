@@ -66,7 +66,7 @@ import com.microsoft.tfs.util.tasks.TaskMonitorService;
 public final class CommandReconcile extends Command {
     private final DateFormat defaultFormat = SimpleDateFormat.getDateTimeInstance(DateFormat.SHORT, DateFormat.SHORT);
 
-    private final TaskMonitor taskMonitor = new CLCTaskMonitor();
+    private final TaskMonitor taskMonitor = CLCTaskMonitor.newCommandTaskMonitor();
 
     public CommandReconcile() {
         super();
@@ -106,6 +106,7 @@ public final class CommandUndoUnchanged extends Command {
 
         if (allchanges != null) {
             getDisplay().printLine(Messages.getString("CommandUndoUnchanged.BuildUnchangedPendingChanges")); //$NON-NLS-1$
+            PendingChange.prefetchContentHashes(allchanges);
             for (final PendingChange change : allchanges) {
                 if (change.isUnchanged(workspace)) {
                     specList.add(new ItemSpec(change.getServerItem(), RecursionType.NONE));
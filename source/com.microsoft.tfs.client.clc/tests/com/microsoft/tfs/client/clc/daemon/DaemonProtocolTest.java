@@ -0,0 +1,111 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the repository root.
+
+package com.microsoft.tfs.client.clc.daemon;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+
+import com.microsoft.tfs.client.clc.daemon.DaemonProtocol.ServerInfo;
+
+import junit.framework.TestCase;
+
+public class DaemonProtocolTest extends TestCase {
+    public void testStringRoundTrip() throws Exception {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+        DaemonProtocol.writeString(out, ""); //$NON-NLS-1$
+        DaemonProtocol.writeString(out, "tf get $/project"); //$NON-NLS-1$
+        DaemonProtocol.writeString(out, "\u00e9\u4e2d\ud83d\ude00"); //$NON-NLS-1$
+        out.flush();
+
+        final DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        assertEquals("", DaemonProtocol.readString(in)); //$NON-NLS-1$
+        assertEquals("tf get $/project", DaemonProtocol.readString(in)); //$NON-NLS-1$
+        assertEquals("\u00e9\u4e2d\ud83d\ude00", DaemonProtocol.readString(in)); //$NON-NLS-1$
+        assertEquals(-1, in.read());
+    }
+
+    public void testLongStringIsRejected() throws Exception {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+        DaemonProtocol.writeString(out, "0123456789"); //$NON-NLS-1$
+        out.flush();
+
+        final DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        try {
+            DaemonProtocol.readString(in, 9);
+            fail();
+        } catch (final IOException e) {
+        }
+    }
+
+    public void testHugeLengthIsRejectedBeforeReading() throws Exception {
+        assertInvalidString(Integer.MAX_VALUE, DaemonProtocol.MAX_STRING_LENGTH);
+        assertInvalidString(DaemonProtocol.MAX_SECRET_LENGTH + 1, DaemonProtocol.MAX_SECRET_LENGTH);
+        assertInvalidString(-1, DaemonProtocol.MAX_STRING_LENGTH);
+    }
+
+    public void testCounts() throws Exception {
+        assertEquals(0, DaemonProtocol.readCount(intStream(0), 10));
+        assertEquals(10, DaemonProtocol.readCount(intStream(10), 10));
+
+        try {
+            DaemonProtocol.readCount(intStream(11), 10);
+            fail();
+        } catch (final IOException e) {
+        }
+
+        try {
+            DaemonProtocol.readCount(intStream(-1), 10);
+            fail();
+        } catch (final IOException e) {
+        }
+    }
+
+    public void testServerInfoRoundTrip() throws Exception {
+        final File directory = File.createTempFile("DaemonProtocolTest", ""); //$NON-NLS-1$ //$NON-NLS-2$
+        directory.delete();
+
+        final File file = new File(new File(directory, "daemon"), "server.properties"); //$NON-NLS-1$ //$NON-NLS-2$
+        try {
+            assertNull(DaemonProtocol.readServerInfo(file));
+
+            DaemonProtocol.writeServerInfo(file, new ServerInfo(1234, "abcd")); //$NON-NLS-1$
+
+            final ServerInfo info = DaemonProtocol.readServerInfo(file);
+            assertEquals(1234, info.getPort());
+            assertEquals("abcd", info.getSecret()); //$NON-NLS-1$
+
+            // Writing again replaces the file
+            DaemonProtocol.writeServerInfo(file, new ServerInfo(5678, "efgh")); //$NON-NLS-1$
+            assertEquals(5678, DaemonProtocol.readServerInfo(file).getPort());
+        } finally {
+            file.delete();
+            file.getParentFile().delete();
+            directory.delete();
+        }
+    }
+
+    private static void assertInvalidString(final int length, final int maxLength) throws Exception {
+        try {
+            DaemonProtocol.readString(intStream(length), maxLength);
+            fail();
+        } catch (final IOException e) {
+            // Thrown for the length, not for the missing bytes
+            assertTrue(e.getMessage().indexOf("length") >= 0); //$NON-NLS-1$
+        }
+    }
+
+    private static DataInputStream intStream(final int value) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(value);
+        out.flush();
+        return new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+    }
+}
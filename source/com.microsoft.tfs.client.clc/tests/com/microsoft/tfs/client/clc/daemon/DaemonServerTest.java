@@ -0,0 +1,201 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the repository root.
+
+package com.microsoft.tfs.client.clc.daemon;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+import com.microsoft.tfs.client.clc.ExitCode;
+import com.microsoft.tfs.client.clc.daemon.DaemonProtocol.ServerInfo;
+import com.microsoft.tfs.client.clc.vc.Main;
+import com.microsoft.tfs.console.display.Display;
+import com.microsoft.tfs.console.display.PrintStreamDisplay;
+
+import junit.framework.TestCase;
+
+public class DaemonServerTest extends TestCase {
+    private static final String SECRET = "0123456789abcdef0123456789abcdef0123456789abcdef0123456789abcdef"; //$NON-NLS-1$
+
+    private ServerSocket serverSocket;
+    private ServerInfo info;
+
+    private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+    private final ByteArrayOutputStream error = new ByteArrayOutputStream();
+    private final Display display = new PrintStreamDisplay(new PrintStream(output), new PrintStream(error), 80, 24);
+
+    /**
+     * Accepts one connection and handles it on another thread.
+     */
+    private abstract class Connection extends Thread {
+        public volatile Exception exception;
+
+        @Override
+        public void run() {
+            try {
+                final Socket socket = serverSocket.accept();
+                try {
+                    handle(socket);
+                } finally {
+                    socket.close();
+                }
+            } catch (final Exception e) {
+                exception = e;
+            }
+        }
+
+        protected abstract void handle(Socket socket) throws Exception;
+
+        public void finish() throws Exception {
+            join(10000);
+            assertFalse(isAlive());
+            if (exception != null) {
+                throw exception;
+            }
+        }
+    }
+
+    /**
+     * Serves one request with a {@link DaemonServer}.
+     */
+    private class ServerConnection extends Connection {
+        @Override
+        protected void handle(final Socket socket) throws Exception {
+            new DaemonServer(Main.class, 0).serve(socket, SECRET);
+        }
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        serverSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1")); //$NON-NLS-1$
+        info = new ServerInfo(serverSocket.getLocalPort(), SECRET);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        serverSocket.close();
+    }
+
+    public void testRoundTrip() throws Exception {
+        final Connection connection = new Connection() {
+            @Override
+            protected void handle(final Socket socket) throws Exception {
+                final DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                final DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+
+                assertEquals(DaemonProtocol.VERSION, in.readInt());
+                assertEquals(SECRET, DaemonProtocol.readString(in));
+                assertEquals(DaemonProtocol.REQUEST_RUN, in.readInt());
+                DaemonProtocol.readString(in);
+                assertEquals(80, in.readInt());
+                assertEquals(24, in.readInt());
+
+                final int environmentCount = DaemonProtocol.readCount(in, DaemonProtocol.MAX_ENVIRONMENT_COUNT);
+                for (int i = 0; i < environmentCount * 2; i++) {
+                    DaemonProtocol.readString(in);
+                }
+
+                assertEquals(2, DaemonProtocol.readCount(in, DaemonProtocol.MAX_ARGUMENT_COUNT));
+                assertEquals("status", DaemonProtocol.readString(in)); //$NON-NLS-1$
+                assertEquals("-recursive", DaemonProtocol.readString(in)); //$NON-NLS-1$
+
+                writeFrame(out, DaemonProtocol.FRAME_OUTPUT, "out"); //$NON-NLS-1$
+                writeFrame(out, DaemonProtocol.FRAME_ERROR, "err"); //$NON-NLS-1$
+                out.writeByte(DaemonProtocol.FRAME_EXIT);
+                out.writeInt(3);
+                out.flush();
+            }
+        };
+        connection.start();
+
+        assertEquals(3, DaemonClient.send(info, DaemonProtocol.REQUEST_RUN, new String[] {
+            "status", //$NON-NLS-1$
+            "-recursive" //$NON-NLS-1$
+        }, display));
+        connection.finish();
+
+        assertEquals("out", output.toString("UTF-8")); //$NON-NLS-1$ //$NON-NLS-2$
+        assertEquals("err", error.toString("UTF-8")); //$NON-NLS-1$ //$NON-NLS-2$
+    }
+
+    public void testStop() throws Exception {
+        final Connection connection = new ServerConnection();
+        connection.start();
+
+        assertEquals(ExitCode.SUCCESS, DaemonClient.send(info, DaemonProtocol.REQUEST_STOP, new String[0], display));
+        connection.finish();
+    }
+
+    public void testUnknownRequestIsRefused() throws Exception {
+        final Connection connection = new ServerConnection();
+        connection.start();
+
+        // The client runs refused commands itself
+        assertEquals(DaemonClient.NOT_RUN, DaemonClient.send(info, 99, new String[0], display));
+        connection.finish();
+    }
+
+    public void testOtherVersionIsRefused() throws Exception {
+        final Connection connection = new ServerConnection();
+        connection.start();
+
+        final Socket socket = new Socket(InetAddress.getByName("127.0.0.1"), info.getPort()); //$NON-NLS-1$
+        try {
+            final DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            out.writeInt(DaemonProtocol.VERSION + 1);
+            out.flush();
+
+            final DataInputStream in = new DataInputStream(socket.getInputStream());
+            assertEquals(DaemonProtocol.FRAME_REFUSED, in.readByte());
+            assertEquals(-1, in.read());
+        } finally {
+            socket.close();
+        }
+        connection.finish();
+    }
+
+    public void testWrongSecretIsIgnored() throws Exception {
+        final Connection connection = new ServerConnection();
+        connection.start();
+
+        assertEquals(
+            DaemonClient.NOT_RUN,
+            DaemonClient.send(new ServerInfo(info.getPort(), SECRET.replace('0', '1')), 1, new String[0], display));
+        connection.finish();
+        assertEquals(0, output.size());
+    }
+
+    public void testLongSecretIsIgnored() throws Exception {
+        final Connection connection = new ServerConnection();
+        connection.start();
+
+        final Socket socket = new Socket(InetAddress.getByName("127.0.0.1"), info.getPort()); //$NON-NLS-1$
+        try {
+            final DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            out.writeInt(DaemonProtocol.VERSION);
+            out.writeInt(Integer.MAX_VALUE);
+            out.flush();
+
+            // The server closes the connection without reading the secret
+            assertEquals(-1, socket.getInputStream().read());
+        } finally {
+            socket.close();
+        }
+        connection.finish();
+    }
+
+    private static void writeFrame(final DataOutputStream out, final byte frameType, final String text)
+        throws IOException {
+        final byte[] bytes = text.getBytes("UTF-8"); //$NON-NLS-1$
+        out.writeByte(frameType);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+}
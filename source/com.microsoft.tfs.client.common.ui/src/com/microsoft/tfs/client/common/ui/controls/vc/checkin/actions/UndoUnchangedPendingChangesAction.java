@@ -163,6 +163,12 @@ public class UndoUnchangedPendingChangesAction extends Action {
             final List<ChangeItem> changedList = new ArrayList<ChangeItem>();
             final List<ChangeItem> unchangedList = new ArrayList<ChangeItem>();
 
+            try {
+                PendingChange.prefetchContentHashes(ChangeItem.getPendingChanges(changeItems));
+            } catch (final CanceledException e) {
+                return Status.CANCEL_STATUS;
+            }
+
             for (int i = 0; i < changeItems.length; i++) {
                 if (progressMonitor.isCanceled()) {
                     return Status.CANCEL_STATUS;
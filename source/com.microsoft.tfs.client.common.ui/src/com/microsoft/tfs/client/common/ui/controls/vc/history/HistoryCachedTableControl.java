@@ -16,6 +16,8 @@ import org.eclipse.jface.dialogs.MessageDialog;
 import org.eclipse.jface.viewers.ISelectionProvider;
 import org.eclipse.jface.viewers.IStructuredSelection;
 import org.eclipse.swt.SWT;
+import org.eclipse.swt.events.DisposeEvent;
+import org.eclipse.swt.events.DisposeListener;
 import org.eclipse.swt.graphics.Point;
 import org.eclipse.swt.widgets.Composite;
 import org.eclipse.swt.widgets.Table;
@@ -80,6 +82,13 @@ public class HistoryCachedTableControl extends CompatibilityVirtualTable impleme
         setupTable(getTable());
 
         copyAction = new CopyAction(this);
+
+        addDisposeListener(new DisposeListener() {
+            @Override
+            public void widgetDisposed(final DisposeEvent e) {
+                closeChangesetsCache();
+            }
+        });
     }
 
     @Override
@@ -122,6 +131,8 @@ public class HistoryCachedTableControl extends CompatibilityVirtualTable impleme
     public void setInput(final HistoryInput input) {
         historyInput = input;
 
+        closeChangesetsCache();
+
         final Table table = getTable();
 
         if (input == null) {
@@ -173,6 +184,17 @@ public class HistoryCachedTableControl extends CompatibilityVirtualTable impleme
         fireSelectionChanged();
     }
 
+    /**
+     * Closes the cache of results from the last history query (which cancels
+     * any page being read ahead for it).
+     */
+    private void closeChangesetsCache() {
+        if (changesetsCache != null) {
+            changesetsCache.close();
+            changesetsCache = null;
+        }
+    }
+
     @Override
     public void refresh() {
         if (historyInput != null) {
@@ -205,6 +227,10 @@ public class HistoryCachedTableControl extends CompatibilityVirtualTable impleme
 
     @Override
     protected void populateTableItem(final TableItem tableItem) {
+        if (changesetsCache == null) {
+            return;
+        }
+
         final int index = getTable().indexOf(tableItem);
 
         changesetsCache.cacheItems(index + 1);
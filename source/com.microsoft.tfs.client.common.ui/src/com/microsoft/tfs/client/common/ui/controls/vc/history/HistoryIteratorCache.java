@@ -9,6 +9,7 @@ import java.util.List;
 
 import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.Changeset;
 import com.microsoft.tfs.util.Check;
+import com.microsoft.tfs.util.Closable;
 
 /**
  * Similar to:
@@ -46,4 +47,15 @@ public class HistoryIteratorCache {
     public boolean isEndOfList() {
         return endOfList;
     }
+
+    /**
+     * Closes the history iterator if it is {@link Closable}, which cancels any
+     * page it is reading ahead. No more items can be cached afterwards.
+     */
+    public void close() {
+        if (historyIterator instanceof Closable) {
+            ((Closable) historyIterator).close();
+        }
+        endOfList = true;
+    }
 }
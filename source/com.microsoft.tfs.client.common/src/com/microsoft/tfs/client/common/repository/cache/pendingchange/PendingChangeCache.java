@@ -112,9 +112,9 @@ public class PendingChangeCache {
      *
      * <p>
      * This lock provides only atomic semantics to operations in this class that
-     * modify cached data. Visibility of the cached data is provided by a
-     * separate lock that's encapsulated in the PendingChangeCollection class.
-     * The two locks are not related (they serve different purposes).
+     * modify cached data. Visibility of the cached data is provided by the
+     * PendingChangeCollection class (queries don't acquire this lock). The two
+     * are not related (they serve different purposes).
      * </p>
      */
     private final Object atomicOperationLock = new Object();
@@ -450,6 +450,12 @@ public class PendingChangeCache {
             ++operationDepth;
         }
 
+        /*
+         * Don't let queries copy the changes until the operation is done
+         * changing them.
+         */
+        changes.beginBatch();
+
         if (sendEvent) {
             final PendingChangeCacheEvent event = new PendingChangeCacheEvent(this);
             getListener().onBeforeUpdatePendingChanges(event);
@@ -471,6 +477,8 @@ public class PendingChangeCache {
             modified = changesModifiedInOperation;
         }
 
+        changes.endBatch();
+
         if (sendEvent) {
             final PendingChangeCacheEvent event = new PendingChangeCacheEvent(this);
             getListener().onAfterUpdatePendingChanges(event, modified);
@@ -27,6 +27,15 @@ import com.microsoft.tfs.util.Check;
  * provides several indexes over the cached pending changes (by server path, by
  * local path, and by parentage so that you can query all pending changes
  * beneath a given path.)
+ * <p>
+ * Writers update the indexes under a lock. Queries read an immutable copy of
+ * the indexes without locking, so many threads can query concurrently without
+ * contending with each other. After the indexes change, queries read them
+ * under the lock until there have been about as many of those queries as there
+ * are pending changes, then the copy is remade; so a run of changes costs at
+ * most one copy, and copying never costs more than the queries it serves.
+ * During a batch of changes (see {@link #beginBatch()}) queries always read
+ * the indexes under the lock.
  */
 public class PendingChangeCollection {
     private final Workspace workspace;
@@ -63,6 +72,25 @@ public class PendingChangeCollection {
      */
     private final Object lock = new Object();
 
+    /**
+     * The number of batches in progress (see {@link #beginBatch()}). Guarded
+     * by {@link #lock}.
+     */
+    private int batchDepth;
+
+    /**
+     * An immutable copy of the indexes, or <code>null</code> if they have
+     * changed since it was made. Written only while holding {@link #lock};
+     * read without it.
+     */
+    private volatile Snapshot snapshot;
+
+    /**
+     * The number of queries which have read the indexes under the lock since
+     * they last changed. Guarded by {@link #lock}.
+     */
+    private int lockedReads;
+
     public PendingChangeCollection(final Workspace workspace) {
         Check.notNull(workspace, "workspace"); //$NON-NLS-1$
 
@@ -78,6 +106,64 @@ public class PendingChangeCollection {
             changesByParentServerPath.clear();
             changesByLocalPath.clear();
             changesByParentLocalPath.clear();
+
+            modified();
+        }
+    }
+
+    /**
+     * Starts a batch of changes: until the matching {@link #endBatch()},
+     * queries read the indexes under the lock instead of copying indexes which
+     * are about to change again. Batches may be nested.
+     */
+    public void beginBatch() {
+        synchronized (lock) {
+            batchDepth++;
+        }
+    }
+
+    /**
+     * Ends a batch of changes started with {@link #beginBatch()}.
+     */
+    public void endBatch() {
+        synchronized (lock) {
+            if (batchDepth == 0) {
+                log.warn("endBatch called without a matching beginBatch"); //$NON-NLS-1$
+                return;
+            }
+
+            batchDepth--;
+        }
+    }
+
+    /**
+     * Stops queries using the copy of the indexes made before a change.
+     *
+     * You must acquire the lock before calling this method.
+     */
+    private void modified() {
+        snapshot = null;
+        lockedReads = 0;
+    }
+
+    /**
+     * Gets the current copy of the indexes, remaking it if they have changed
+     * and enough queries have read them under the lock since.
+     *
+     * @return the copy, or <code>null</code> if the query must read the indexes
+     *         under the lock
+     */
+    private Snapshot getSnapshot() {
+        final Snapshot current = snapshot;
+        if (current != null) {
+            return current;
+        }
+
+        synchronized (lock) {
+            if (snapshot == null && batchDepth == 0 && ++lockedReads > changesByServerPath.size()) {
+                snapshot = new Snapshot();
+            }
+            return snapshot;
         }
     }
 
@@ -107,10 +193,12 @@ public class PendingChangeCollection {
 
         synchronized (lock) {
             if (!forRefill) {
-                oldPendingChange = remove(newPendingChange);
+                oldPendingChange = removeAndRetarget(newPendingChange);
             }
 
             addInternal(newPendingChange);
+
+            modified();
         }
 
         return oldPendingChange;
@@ -183,23 +271,39 @@ public class PendingChangeCollection {
         PendingChange removedChange;
 
         synchronized (lock) {
-            removedChange = removeInternal(changeToRemove);
+            removedChange = removeAndRetarget(changeToRemove);
 
-            /*
-             * If the undone pending change was a renamed folder, this means
-             * that any children have had their paths updated. (We are not given
-             * new pending changes for the children in this case.)
-             */
-            if (removedChange != null
-                && removedChange.getChangeType().contains(ChangeType.RENAME)
-                && removedChange.getItemType().equals(ItemType.FOLDER)) {
-                retargetChildrenOfUndoneRename(removedChange);
+            if (removedChange != null) {
+                modified();
             }
         }
 
         return removedChange;
     }
 
+    /**
+     * Removes a pending change from the maps, and updates the paths of the
+     * children of an undone folder rename.
+     *
+     * You must acquire the lock before calling this method.
+     */
+    private PendingChange removeAndRetarget(final PendingChange changeToRemove) {
+        final PendingChange removedChange = removeInternal(changeToRemove);
+
+        /*
+         * If the undone pending change was a renamed folder, this means that
+         * any children have had their paths updated. (We are not given new
+         * pending changes for the children in this case.)
+         */
+        if (removedChange != null
+            && removedChange.getChangeType().contains(ChangeType.RENAME)
+            && removedChange.getItemType().equals(ItemType.FOLDER)) {
+            retargetChildrenOfUndoneRename(removedChange);
+        }
+
+        return removedChange;
+    }
+
     private PendingChange removeInternal(final PendingChange changeToRemove) {
         Check.notNull(changeToRemove, "changeToRemove"); //$NON-NLS-1$
         Check.notNull(changeToRemove.getServerItem(), "changeToRemove.serverItem"); //$NON-NLS-1$
@@ -289,7 +393,10 @@ public class PendingChangeCollection {
             return;
         }
 
-        for (final PendingChange childChange : childChanges) {
+        /*
+         * Iterate over a copy: moving a child removes it from childChanges.
+         */
+        for (final PendingChange childChange : toArray(childChanges)) {
             /*
              * Dup this pending change before modifying it - callers that added
              * this change may still have a reference.
@@ -319,6 +426,11 @@ public class PendingChangeCollection {
      * @return all of the pending changes currently held by this collection
      */
     public PendingChange[] getValues() {
+        final Snapshot current = getSnapshot();
+        if (current != null) {
+            return current.values.clone();
+        }
+
         /*
          * The conversion to an array must happen inside the lock because the
          * lock covers the values in the map.
@@ -347,6 +459,11 @@ public class PendingChangeCollection {
     public PendingChange getValueByServerPath(String serverPath) {
         serverPath = ServerPath.canonicalize(serverPath);
 
+        final Snapshot current = getSnapshot();
+        if (current != null) {
+            return current.changesByServerPath.get(serverPath);
+        }
+
         synchronized (lock) {
             return changesByServerPath.get(serverPath);
         }
@@ -364,18 +481,17 @@ public class PendingChangeCollection {
     public PendingChange[] getValuesByServerPathRecursive(String serverPath) {
         serverPath = ServerPath.canonicalize(serverPath);
 
+        final Snapshot current = getSnapshot();
+        if (current != null) {
+            return copy(current.changesByParentServerPath.get(serverPath));
+        }
+
         /*
          * The conversion to an array must happen inside the lock because the
          * lock covers the values in the map.
          */
         synchronized (lock) {
-            final Set<PendingChange> changes = changesByParentServerPath.get(serverPath);
-
-            if (changes == null) {
-                return new PendingChange[0];
-            }
-
-            return changes.toArray(new PendingChange[changes.size()]);
+            return toArray(changesByParentServerPath.get(serverPath));
         }
     }
 
@@ -392,6 +508,11 @@ public class PendingChangeCollection {
     public PendingChange getValueByLocalPath(String localPath) {
         localPath = LocalPath.canonicalize(localPath);
 
+        final Snapshot current = getSnapshot();
+        if (current != null) {
+            return current.changesByLocalPath.get(localPath);
+        }
+
         synchronized (lock) {
             return changesByLocalPath.get(localPath);
         }
@@ -409,18 +530,17 @@ public class PendingChangeCollection {
     public PendingChange[] getValuesByLocalPathRecursive(String localPath) {
         localPath = LocalPath.canonicalize(localPath);
 
+        final Snapshot current = getSnapshot();
+        if (current != null) {
+            return copy(current.changesByParentLocalPath.get(localPath));
+        }
+
         /*
          * The conversion to an array must happen inside the lock because the
          * lock covers the values in the map.
          */
         synchronized (lock) {
-            final Set<PendingChange> changes = changesByParentLocalPath.get(localPath);
-
-            if (changes == null) {
-                return new PendingChange[0];
-            }
-
-            return changes.toArray(new PendingChange[changes.size()]);
+            return toArray(changesByParentLocalPath.get(localPath));
         }
     }
 
@@ -436,6 +556,13 @@ public class PendingChangeCollection {
     public boolean hasValuesByLocalPathRecursive(String localPath) {
         localPath = LocalPath.canonicalize(localPath);
 
+        final Snapshot current = getSnapshot();
+        if (current != null) {
+            final PendingChange[] changes = current.changesByParentLocalPath.get(localPath);
+
+            return changes != null && changes.length > 0;
+        }
+
         synchronized (lock) {
             final Set<PendingChange> changes = changesByParentLocalPath.get(localPath);
 
@@ -447,8 +574,61 @@ public class PendingChangeCollection {
      * @return the current number of pending changes held by this collection
      */
     public int size() {
+        final Snapshot current = getSnapshot();
+        if (current != null) {
+            return current.values.length;
+        }
+
         synchronized (lock) {
             return changesByServerPath.size();
         }
     }
+
+    private static PendingChange[] toArray(final Set<PendingChange> changes) {
+        if (changes == null) {
+            return new PendingChange[0];
+        }
+
+        return changes.toArray(new PendingChange[changes.size()]);
+    }
+
+    private static PendingChange[] copy(final PendingChange[] changes) {
+        if (changes == null) {
+            return new PendingChange[0];
+        }
+
+        return changes.clone();
+    }
+
+    /**
+     * An immutable copy of the indexes, made while holding the lock. The
+     * parent path indexes hold arrays, so queries only have to copy them.
+     */
+    private final class Snapshot {
+        private final PendingChange[] values;
+        private final Map<String, PendingChange> changesByServerPath;
+        private final Map<String, PendingChange[]> changesByParentServerPath;
+        private final Map<String, PendingChange> changesByLocalPath;
+        private final Map<String, PendingChange[]> changesByParentLocalPath;
+
+        public Snapshot() {
+            final Collection<PendingChange> allChanges = PendingChangeCollection.this.changesByServerPath.values();
+            values = allChanges.toArray(new PendingChange[allChanges.size()]);
+            changesByServerPath = new HashMap<String, PendingChange>(PendingChangeCollection.this.changesByServerPath);
+            changesByParentServerPath = copy(PendingChangeCollection.this.changesByParentServerPath);
+            changesByLocalPath = new HashMap<String, PendingChange>(PendingChangeCollection.this.changesByLocalPath);
+            changesByParentLocalPath = copy(PendingChangeCollection.this.changesByParentLocalPath);
+        }
+
+        private Map<String, PendingChange[]> copy(final Map<String, Set<PendingChange>> changesByParentPath) {
+            final Map<String, PendingChange[]> copy =
+                new HashMap<String, PendingChange[]>(changesByParentPath.size() * 4 / 3 + 1);
+
+            for (final Map.Entry<String, Set<PendingChange>> entry : changesByParentPath.entrySet()) {
+                copy.put(entry.getKey(), toArray(entry.getValue()));
+            }
+
+            return copy;
+        }
+    }
 }
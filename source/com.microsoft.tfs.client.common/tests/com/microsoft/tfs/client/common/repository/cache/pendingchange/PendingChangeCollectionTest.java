@@ -0,0 +1,243 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the repository root.
+
+package com.microsoft.tfs.client.common.repository.cache.pendingchange;
+
+import java.io.File;
+import java.util.Calendar;
+
+import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.ChangeType;
+import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.ItemType;
+import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.LockLevel;
+import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.PendingChange;
+import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.Workspace;
+
+import junit.framework.TestCase;
+import ms.tfs.versioncontrol.clientservices._03._Workspace;
+
+public class PendingChangeCollectionTest extends TestCase {
+    private static final String LOCAL_ROOT = new File(File.listRoots()[0], "workspace").getAbsolutePath(); //$NON-NLS-1$
+
+    private PendingChangeCollection collection;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        collection = new PendingChangeCollection(new Workspace(new _Workspace(), null));
+    }
+
+    public void testAdd() {
+        checkAdd(false);
+    }
+
+    public void testAddInBatch() {
+        checkAdd(true);
+    }
+
+    public void testRemove() {
+        checkRemove(false);
+    }
+
+    public void testRemoveInBatch() {
+        checkRemove(true);
+    }
+
+    public void testUndoneFolderRename() {
+        checkUndoneFolderRename(false);
+    }
+
+    public void testUndoneFolderRenameInBatch() {
+        checkUndoneFolderRename(true);
+    }
+
+    public void testClear() {
+        checkClear(false);
+    }
+
+    public void testClearInBatch() {
+        checkClear(true);
+    }
+
+    public void testNestedBatches() {
+        collection.add(edit("$/proj/a.txt", "a.txt"), true); //$NON-NLS-1$ //$NON-NLS-2$
+        query();
+
+        collection.beginBatch();
+        collection.beginBatch();
+        collection.add(edit("$/proj/b.txt", "b.txt"), false); //$NON-NLS-1$ //$NON-NLS-2$
+        collection.endBatch();
+        query();
+        assertEquals(2, collection.size());
+
+        collection.add(edit("$/proj/c.txt", "c.txt"), false); //$NON-NLS-1$ //$NON-NLS-2$
+        collection.endBatch();
+        query();
+        assertEquals(3, collection.size());
+
+        // An extra end is ignored
+        collection.endBatch();
+        collection.add(edit("$/proj/d.txt", "d.txt"), false); //$NON-NLS-1$ //$NON-NLS-2$
+        query();
+        assertEquals(4, collection.getValues().length);
+    }
+
+    private void checkAdd(final boolean inBatch) {
+        collection.add(edit("$/proj/a.txt", "a.txt"), true); //$NON-NLS-1$ //$NON-NLS-2$
+        query();
+
+        if (inBatch) {
+            collection.beginBatch();
+        }
+
+        collection.add(edit("$/proj/folder/b.txt", "folder/b.txt"), false); //$NON-NLS-1$ //$NON-NLS-2$
+        query();
+
+        assertEquals(2, collection.size());
+        assertEquals(2, collection.getValues().length);
+        assertNotNull(collection.getValueByServerPath("$/proj/folder/b.txt")); //$NON-NLS-1$
+        assertNotNull(collection.getValueByLocalPath(local("folder/b.txt"))); //$NON-NLS-1$
+        assertEquals(2, collection.getValuesByServerPathRecursive("$/proj").length); //$NON-NLS-1$
+        assertEquals(1, collection.getValuesByLocalPathRecursive(local("folder")).length); //$NON-NLS-1$
+        assertTrue(collection.hasValuesByLocalPathRecursive(local("folder"))); //$NON-NLS-1$
+
+        if (inBatch) {
+            collection.endBatch();
+            query();
+            assertEquals(2, collection.size());
+        }
+    }
+
+    private void checkRemove(final boolean inBatch) {
+        collection.add(edit("$/proj/a.txt", "a.txt"), true); //$NON-NLS-1$ //$NON-NLS-2$
+        collection.add(edit("$/proj/folder/b.txt", "folder/b.txt"), true); //$NON-NLS-1$ //$NON-NLS-2$
+        query();
+
+        if (inBatch) {
+            collection.beginBatch();
+        }
+
+        assertNotNull(collection.remove(edit("$/proj/folder/b.txt", "folder/b.txt"))); //$NON-NLS-1$ //$NON-NLS-2$
+        query();
+
+        assertEquals(1, collection.size());
+        assertEquals(1, collection.getValues().length);
+        assertNull(collection.getValueByServerPath("$/proj/folder/b.txt")); //$NON-NLS-1$
+        assertNull(collection.getValueByLocalPath(local("folder/b.txt"))); //$NON-NLS-1$
+        assertEquals(1, collection.getValuesByServerPathRecursive("$/proj").length); //$NON-NLS-1$
+        assertEquals(0, collection.getValuesByLocalPathRecursive(local("folder")).length); //$NON-NLS-1$
+        assertFalse(collection.hasValuesByLocalPathRecursive(local("folder"))); //$NON-NLS-1$
+
+        if (inBatch) {
+            collection.endBatch();
+            query();
+            assertEquals(1, collection.size());
+        }
+    }
+
+    private void checkUndoneFolderRename(final boolean inBatch) {
+        final PendingChange rename =
+            change("$/proj/new", "$/proj/old", "new", ItemType.FOLDER, ChangeType.RENAME); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+        rename.setSourceLocalItem(local("old")); //$NON-NLS-1$
+
+        collection.add(rename, true);
+        collection.add(edit("$/proj/new/a.txt", "new/a.txt"), true); //$NON-NLS-1$ //$NON-NLS-2$
+        collection.add(edit("$/proj/new/b.txt", "new/b.txt"), true); //$NON-NLS-1$ //$NON-NLS-2$
+        query();
+
+        if (inBatch) {
+            collection.beginBatch();
+        }
+
+        // Undoing the rename moves both children back under the old name
+        assertNotNull(collection.remove(rename));
+        query();
+
+        assertEquals(2, collection.size());
+        assertNull(collection.getValueByServerPath("$/proj/new/a.txt")); //$NON-NLS-1$
+        assertNotNull(collection.getValueByServerPath("$/proj/old/a.txt")); //$NON-NLS-1$
+        assertNull(collection.getValueByLocalPath(local("new/b.txt"))); //$NON-NLS-1$
+        assertNotNull(collection.getValueByLocalPath(local("old/b.txt"))); //$NON-NLS-1$
+        assertEquals(0, collection.getValuesByServerPathRecursive("$/proj/new").length); //$NON-NLS-1$
+        assertEquals(2, collection.getValuesByServerPathRecursive("$/proj/old").length); //$NON-NLS-1$
+        assertFalse(collection.hasValuesByLocalPathRecursive(local("new"))); //$NON-NLS-1$
+        assertTrue(collection.hasValuesByLocalPathRecursive(local("old"))); //$NON-NLS-1$
+
+        if (inBatch) {
+            collection.endBatch();
+            query();
+            assertNotNull(collection.getValueByServerPath("$/proj/old/a.txt")); //$NON-NLS-1$
+        }
+    }
+
+    private void checkClear(final boolean inBatch) {
+        collection.add(edit("$/proj/a.txt", "a.txt"), true); //$NON-NLS-1$ //$NON-NLS-2$
+        collection.add(edit("$/proj/b.txt", "b.txt"), true); //$NON-NLS-1$ //$NON-NLS-2$
+        query();
+
+        if (inBatch) {
+            collection.beginBatch();
+        }
+
+        collection.clear();
+        query();
+
+        assertEquals(0, collection.size());
+        assertEquals(0, collection.getValues().length);
+        assertNull(collection.getValueByServerPath("$/proj/a.txt")); //$NON-NLS-1$
+        assertNull(collection.getValueByLocalPath(local("b.txt"))); //$NON-NLS-1$
+        assertEquals(0, collection.getValuesByServerPathRecursive("$/proj").length); //$NON-NLS-1$
+        assertFalse(collection.hasValuesByLocalPathRecursive(LOCAL_ROOT));
+
+        if (inBatch) {
+            collection.endBatch();
+            query();
+            assertEquals(0, collection.size());
+        }
+    }
+
+    /**
+     * Queries the collection more times than it has pending changes, so that
+     * outside a batch later queries read a snapshot of the indexes.
+     */
+    private void query() {
+        final int count = collection.size() + 2;
+        for (int i = 0; i < count; i++) {
+            collection.getValueByServerPath("$/proj"); //$NON-NLS-1$
+        }
+    }
+
+    private static PendingChange edit(final String serverItem, final String relativeLocalItem) {
+        return change(serverItem, null, relativeLocalItem, ItemType.FILE, ChangeType.EDIT);
+    }
+
+    private static PendingChange change(
+        final String serverItem,
+        final String sourceServerItem,
+        final String relativeLocalItem,
+        final ItemType itemType,
+        final ChangeType changeType) {
+        return new PendingChange(
+            serverItem,
+            sourceServerItem,
+            0,
+            0,
+            0,
+            LockLevel.NONE,
+            local(relativeLocalItem),
+            itemType,
+            0,
+            Calendar.getInstance(),
+            0,
+            changeType,
+            null,
+            null,
+            0,
+            0,
+            null,
+            false);
+    }
+
+    private static String local(final String relativePath) {
+        return new File(LOCAL_ROOT, relativePath).getAbsolutePath();
+    }
+}
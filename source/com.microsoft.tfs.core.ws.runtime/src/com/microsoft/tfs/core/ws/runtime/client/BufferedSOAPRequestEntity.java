@@ -3,24 +3,31 @@
 
 package com.microsoft.tfs.core.ws.runtime.client;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.text.MessageFormat;
+import java.util.zip.GZIPOutputStream;
 
 import com.microsoft.tfs.core.httpclient.methods.RequestEntity;
+import com.microsoft.tfs.util.IOUtils;
+import com.microsoft.tfs.util.temp.FastTempOutputStream;
 
 /**
  * An HttpClient request entity implementation suited for SOAP request use which
- * buffers its entire request into memory so that its content length may be
- * measured. The actual request body construction is delegated to a
- * SOAPRequestEntity (@see {@link SOAPRequestEntity}).
+ * buffers its entire request so that its content length may be measured. The
+ * request is buffered in memory up to the {@link FastTempOutputStream} heap
+ * limit, and in a temporary file beyond it, so very large requests do not need
+ * an equally large heap. The actual request body construction is delegated to
+ * a SOAPRequestEntity (@see {@link SOAPRequestEntity}).
+ * <p>
+ * Call {@link #dispose()} when the request is finished to delete any temporary
+ * file.
  */
 public class BufferedSOAPRequestEntity extends Object implements RequestEntity {
     /**
-     * Our byte-array backed buffer of the entire request.
+     * Our buffer of the entire request.
      */
-    private ByteArrayOutputStream buffer;
+    private FastTempOutputStream buffer;
 
     /**
      * The delegate request entity that we wrap, which actually does all the
@@ -28,6 +35,11 @@ public class BufferedSOAPRequestEntity extends Object implements RequestEntity {
      */
     private final SOAPRequestEntity delegate;
 
+    /**
+     * True if the buffered request is compressed with gzip.
+     */
+    private final boolean compress;
+
     /**
      * Construct a buffered request entity that wraps the given entity.
      *
@@ -35,7 +47,21 @@ public class BufferedSOAPRequestEntity extends Object implements RequestEntity {
      *        the entity to wrap (not null).
      */
     public BufferedSOAPRequestEntity(final SOAPRequestEntity entity) {
+        this(entity, false);
+    }
+
+    /**
+     * Construct a buffered request entity that wraps the given entity.
+     *
+     * @param entity
+     *        the entity to wrap (not null).
+     * @param compress
+     *        if true, the request is compressed with gzip (the caller must set
+     *        the Content-Encoding header)
+     */
+    public BufferedSOAPRequestEntity(final SOAPRequestEntity entity, final boolean compress) {
         delegate = entity;
+        this.compress = compress;
     }
 
     public void setSOAPHeaderProvider(final SOAPHeaderProvider soapHeaderProvider) {
@@ -49,7 +75,7 @@ public class BufferedSOAPRequestEntity extends Object implements RequestEntity {
      * org.apache.commons.httpclient.methods.RequestEntity#getContentLength()
      */
     @Override
-    public long getContentLength() {
+    public synchronized long getContentLength() {
         try {
             ensureRequestIsBuffered();
         } catch (final IOException e) {
@@ -99,19 +125,53 @@ public class BufferedSOAPRequestEntity extends Object implements RequestEntity {
      * .io.OutputStream)
      */
     @Override
-    public void writeRequest(final OutputStream out) throws IOException {
+    public synchronized void writeRequest(final OutputStream out) throws IOException {
         ensureRequestIsBuffered();
 
-        buffer.writeTo(out);
+        // Closes the input stream
+        IOUtils.copy(buffer.getInputStream(), out);
     }
 
     /**
-     * Invokes the delegate to write its request into the byte array buffer.
+     * Frees the buffered request, deleting its temporary file if it has one.
+     * The request is buffered again if it is written after this.
+     */
+    public synchronized void dispose() throws IOException {
+        if (buffer != null) {
+            buffer.dispose();
+            buffer = null;
+        }
+    }
+
+    /**
+     * Invokes the delegate to write its request into the buffer.
      */
     private synchronized void ensureRequestIsBuffered() throws IOException {
         if (buffer == null) {
-            buffer = new ByteArrayOutputStream();
-            delegate.writeRequest(buffer);
+            final FastTempOutputStream newBuffer = new FastTempOutputStream();
+
+            try {
+                if (compress) {
+                    final GZIPOutputStream gzip = new GZIPOutputStream(newBuffer);
+                    try {
+                        delegate.writeRequest(gzip);
+                    } finally {
+                        // Frees the deflater and closes the buffer
+                        gzip.close();
+                    }
+                } else {
+                    delegate.writeRequest(newBuffer);
+                    newBuffer.close();
+                }
+            } catch (final IOException e) {
+                newBuffer.dispose();
+                throw e;
+            } catch (final RuntimeException e) {
+                newBuffer.dispose();
+                throw e;
+            }
+
+            buffer = newBuffer;
         }
     }
 }
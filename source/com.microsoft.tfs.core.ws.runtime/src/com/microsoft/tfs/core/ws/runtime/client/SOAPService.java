@@ -83,6 +83,27 @@ public abstract class SOAPService {
      */
     protected static final boolean ALLOW_RESPONSE_COMPRESSION = !Boolean.getBoolean("teamexplorer.soap.disable-gzip"); //$NON-NLS-1$
 
+    /**
+     * If the system property "teamexplorer.soap.gzip-requests=true" then we
+     * compress our SOAP requests with gzip and send them with a
+     * "Content-Encoding: gzip" header. The server must be configured to accept
+     * compressed requests (IIS does not by default), so the default is to send
+     * requests uncompressed.
+     */
+    protected static final boolean ALLOW_REQUEST_COMPRESSION = Boolean.getBoolean("teamexplorer.soap.gzip-requests"); //$NON-NLS-1$
+
+    /**
+     * If the system property "teamexplorer.soap.stream-requests=true" then we
+     * write our SOAP requests straight to the connection with chunked transfer
+     * encoding instead of buffering them to measure their content length.
+     * Streaming keeps no copy of the request, but the request is serialized
+     * again each time it must be resent (for instance during NTLM
+     * authentication) and some proxies do not accept chunked requests, so the
+     * default is to buffer requests (in memory, or in a temporary file for
+     * large requests).
+     */
+    protected static final boolean STREAM_REQUESTS = Boolean.getBoolean("teamexplorer.soap.stream-requests"); //$NON-NLS-1$
+
     /**
      * The HTTP client used by this stub for all network operations. Must be
      * configured with a {@link MultiThreadedHttpConnectionManager}.
@@ -312,7 +333,7 @@ public abstract class SOAPService {
      */
     protected SOAPRequest createSOAPRequest(final String methodName, final SOAPMethodRequestWriter requestWriter) {
         final PostMethod method = new PostMethod(endpoint.toString());
-        method.setContentChunked(false);
+        method.setContentChunked(STREAM_REQUESTS);
 
         // Let the extending classes insert their headers, if required (SOAP 1.1
         // needs the SOAPAction header).
@@ -329,17 +350,27 @@ public abstract class SOAPService {
 
         requestEntity.setSOAPHeaderProvider(soapHeaderProvider);
 
-        /*
-         * We must wrap the request entity in a buffered version so its content
-         * length can be known (the request body is buffered in memory before it
-         * is sent). This also makes the NTLM authentication process more
-         * efficient since repeated calls to the request entity to construct its
-         * body can be done from the buffer.
-         */
-        final BufferedSOAPRequestEntity bufferedEntity = new BufferedSOAPRequestEntity(requestEntity);
+        if (ALLOW_REQUEST_COMPRESSION) {
+            method.setRequestHeader("Content-Encoding", "gzip"); //$NON-NLS-1$ //$NON-NLS-2$
+        }
 
-        // Use the buffered wrapper.
-        method.setRequestEntity(bufferedEntity);
+        if (STREAM_REQUESTS) {
+            /*
+             * Write the request body straight to the connection (chunked) as
+             * it is serialized.
+             */
+            method.setRequestEntity(new StreamingSOAPRequestEntity(requestEntity, ALLOW_REQUEST_COMPRESSION));
+        } else {
+            /*
+             * We must wrap the request entity in a buffered version so its
+             * content length can be known (the request body is buffered before
+             * it is sent, in a temporary file if it is large). This also makes
+             * the NTLM authentication process more efficient since repeated
+             * calls to the request entity to construct its body can be done
+             * from the buffer.
+             */
+            method.setRequestEntity(new BufferedSOAPRequestEntity(requestEntity, ALLOW_REQUEST_COMPRESSION));
+        }
 
         return new SOAPRequest(method, requestEntity);
     }
@@ -668,7 +699,7 @@ public abstract class SOAPService {
                      * internal state.
                      */
                     log.info("SOAP method=\'" //$NON-NLS-1$
-                        + ((BufferedSOAPRequestEntity) method.getRequestEntity()).getMethodName()
+                        + request.getRequestEntity().getMethodName()
                         + "\', status=" //$NON-NLS-1$
                         + (method.getStatusLine() != null ? method.getStatusCode() : -1)
                         + ", content-length=" //$NON-NLS-1$
@@ -688,6 +719,18 @@ public abstract class SOAPService {
             }
 
             method.releaseConnection();
+
+            /*
+             * Free the buffered request (which may be in a temporary file).
+             * It is buffered again if a request handler retries the request.
+             */
+            if (method.getRequestEntity() instanceof BufferedSOAPRequestEntity) {
+                try {
+                    ((BufferedSOAPRequestEntity) method.getRequestEntity()).dispose();
+                } catch (final IOException e) {
+                    log.warn("Could not dispose the buffered SOAP request", e); //$NON-NLS-1$
+                }
+            }
         }
     }
 
@@ -0,0 +1,165 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the repository root.
+
+package com.microsoft.tfs.core.ws.runtime.client;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import com.microsoft.tfs.core.httpclient.methods.RequestEntity;
+
+/**
+ * An HttpClient request entity implementation suited for SOAP request use which
+ * writes its request straight to the connection as it is serialized, so no
+ * copy of the request is kept. The content length is not known, so the
+ * request must be sent with chunked transfer encoding. When HttpClient sends
+ * the request again (for instance during NTLM authentication) the request is
+ * serialized again. The actual request body construction is delegated to a
+ * SOAPRequestEntity (@see {@link SOAPRequestEntity}).
+ */
+public class StreamingSOAPRequestEntity extends Object implements RequestEntity {
+    /**
+     * A gzip member header: magic, deflate, no flags, no time, no extra
+     * flags, unknown operating system.
+     */
+    private static final byte[] GZIP_HEADER = new byte[] {
+        (byte) 0x1f,
+        (byte) 0x8b,
+        Deflater.DEFLATED,
+        0,
+        0,
+        0,
+        0,
+        0,
+        0,
+        (byte) 0xff
+    };
+
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    /**
+     * The delegate request entity that we wrap, which actually does all the
+     * serialization.
+     */
+    private final SOAPRequestEntity delegate;
+
+    /**
+     * True if the request is compressed with gzip.
+     */
+    private final boolean compress;
+
+    /**
+     * Construct a streaming request entity that wraps the given entity.
+     *
+     * @param entity
+     *        the entity to wrap (not null).
+     * @param compress
+     *        if true, the request is compressed with gzip (the caller must set
+     *        the Content-Encoding header)
+     */
+    public StreamingSOAPRequestEntity(final SOAPRequestEntity entity, final boolean compress) {
+        delegate = entity;
+        this.compress = compress;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see
+     * org.apache.commons.httpclient.methods.RequestEntity#getContentLength()
+     */
+    @Override
+    public long getContentLength() {
+        // Not known until the request has been written.
+        return -1;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.apache.commons.httpclient.methods.RequestEntity#getContentType()
+     */
+    @Override
+    public String getContentType() {
+        return delegate.getContentType();
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.apache.commons.httpclient.methods.RequestEntity#isRepeatable()
+     */
+    @Override
+    public boolean isRepeatable() {
+        /*
+         * The delegate serializes the request from its request writer each
+         * time it is written.
+         */
+        return delegate.isRepeatable();
+    }
+
+    /**
+     * @return the SOAP method (action) associated with this request.
+     */
+    public String getMethodName() {
+        return delegate.getMethodName();
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see
+     * org.apache.commons.httpclient.methods.RequestEntity#writeRequest(java
+     * .io.OutputStream)
+     */
+    @Override
+    public void writeRequest(final OutputStream out) throws IOException {
+        if (compress) {
+            writeCompressedRequest(out);
+        } else {
+            delegate.writeRequest(out);
+        }
+    }
+
+    /**
+     * Writes the request in gzip format. {@link GZIPOutputStream} can't be
+     * used, because the connection's stream must stay open and a gzip stream
+     * only frees its deflater when it is closed. This method owns the deflater
+     * and ends it whether or not the request is written.
+     */
+    private void writeCompressedRequest(final OutputStream out) throws IOException {
+        final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+
+        try {
+            out.write(GZIP_HEADER);
+
+            final CRC32 crc = new CRC32();
+            final DeflaterOutputStream deflaterStream = new DeflaterOutputStream(out, deflater, BUFFER_SIZE);
+            delegate.writeRequest(new CheckedOutputStream(deflaterStream, crc));
+
+            /*
+             * Finish (not close) the deflater stream, because closing it would
+             * close the connection's stream. HttpClient finishes the chunked
+             * stream itself.
+             */
+            deflaterStream.finish();
+
+            writeInt32(out, (int) crc.getValue());
+            writeInt32(out, (int) deflater.getBytesRead());
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static void writeInt32(final OutputStream out, final int value) throws IOException {
+        out.write(value & 0xff);
+        out.write((value >> 8) & 0xff);
+        out.write((value >> 16) & 0xff);
+        out.write((value >> 24) & 0xff);
+    }
+}
@@ -0,0 +1,96 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the repository root.
+
+package com.microsoft.tfs.core.ws.runtime.client;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import com.microsoft.tfs.util.temp.FastTempOutputStream;
+
+import junit.framework.TestCase;
+
+public class BufferedSOAPRequestEntityTest extends TestCase {
+    public void testUncompressedRoundTrip() throws IOException {
+        final byte[] body = TestSOAPRequestEntity.newBody(1000);
+        final BufferedSOAPRequestEntity entity = new BufferedSOAPRequestEntity(new TestSOAPRequestEntity(body));
+
+        assertEquals(body.length, entity.getContentLength());
+        assertTrue(Arrays.equals(body, write(entity)));
+
+        entity.dispose();
+    }
+
+    public void testCompressedRoundTrip() throws IOException {
+        final byte[] body = TestSOAPRequestEntity.newBody(100 * 1024);
+        final BufferedSOAPRequestEntity entity = new BufferedSOAPRequestEntity(new TestSOAPRequestEntity(body), true);
+
+        final long contentLength = entity.getContentLength();
+        assertTrue(contentLength < body.length);
+
+        final byte[] written = write(entity);
+        assertEquals(contentLength, written.length);
+        assertTrue(Arrays.equals(body, TestSOAPRequestEntity.gunzip(written)));
+
+        entity.dispose();
+    }
+
+    public void testRepeatedWritesBufferOnce() throws IOException {
+        final byte[] body = TestSOAPRequestEntity.newBody(1000);
+        final TestSOAPRequestEntity delegate = new TestSOAPRequestEntity(body);
+        final BufferedSOAPRequestEntity entity = new BufferedSOAPRequestEntity(delegate, true);
+
+        final byte[] first = write(entity);
+        final byte[] second = write(entity);
+        assertTrue(Arrays.equals(first, second));
+        assertEquals(1, delegate.getWriteCount());
+
+        // The request is buffered again after it is disposed
+        entity.dispose();
+        assertTrue(Arrays.equals(body, TestSOAPRequestEntity.gunzip(write(entity))));
+        assertEquals(2, delegate.getWriteCount());
+
+        entity.dispose();
+    }
+
+    public void testLargeCompressedRoundTrip() throws IOException {
+        // Random bytes don't compress, so the buffer spills to a file
+        final byte[] body = new byte[FastTempOutputStream.DEFAULT_HEAP_STORAGE_LIMIT_BYTES + 1024 * 1024];
+        new Random(0).nextBytes(body);
+
+        final BufferedSOAPRequestEntity entity = new BufferedSOAPRequestEntity(new TestSOAPRequestEntity(body), true);
+
+        final byte[] written = write(entity);
+        assertTrue(written.length > FastTempOutputStream.DEFAULT_HEAP_STORAGE_LIMIT_BYTES);
+        assertEquals(entity.getContentLength(), written.length);
+        assertTrue(Arrays.equals(body, TestSOAPRequestEntity.gunzip(written)));
+
+        entity.dispose();
+    }
+
+    public void testFailedBufferingIsNotKept() throws IOException {
+        final IOException failure = new IOException("test"); //$NON-NLS-1$
+        final BufferedSOAPRequestEntity entity = new BufferedSOAPRequestEntity(
+            new TestSOAPRequestEntity(TestSOAPRequestEntity.newBody(1000), failure),
+            true);
+
+        for (int i = 0; i < 2; i++) {
+            try {
+                write(entity);
+                fail("expected IOException"); //$NON-NLS-1$
+            } catch (final IOException e) {
+                assertSame(failure, e);
+            }
+        }
+
+        entity.dispose();
+    }
+
+    private static byte[] write(final BufferedSOAPRequestEntity entity) throws IOException {
+        final ByteArrayOutputStream os = new ByteArrayOutputStream();
+        entity.writeRequest(os);
+        return os.toByteArray();
+    }
+}
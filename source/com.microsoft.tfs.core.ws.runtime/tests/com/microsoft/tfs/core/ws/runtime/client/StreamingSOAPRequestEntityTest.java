@@ -0,0 +1,92 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the repository root.
+
+package com.microsoft.tfs.core.ws.runtime.client;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+public class StreamingSOAPRequestEntityTest extends TestCase {
+    /**
+     * Records whether it was closed, as the connection's stream must not be.
+     */
+    private static class ConnectionOutputStream extends ByteArrayOutputStream {
+        public boolean closed;
+
+        @Override
+        public void close() throws IOException {
+            closed = true;
+            super.close();
+        }
+    }
+
+    public void testUncompressed() throws IOException {
+        final byte[] body = TestSOAPRequestEntity.newBody(1000);
+        final StreamingSOAPRequestEntity entity =
+            new StreamingSOAPRequestEntity(new TestSOAPRequestEntity(body), false);
+
+        assertEquals(-1, entity.getContentLength());
+
+        final ConnectionOutputStream out = new ConnectionOutputStream();
+        entity.writeRequest(out);
+
+        assertTrue(Arrays.equals(body, out.toByteArray()));
+        assertFalse(out.closed);
+    }
+
+    public void testCompressedRoundTrip() throws IOException {
+        checkCompressedRoundTrip(TestSOAPRequestEntity.newBody(1000));
+    }
+
+    public void testEmptyCompressedRoundTrip() throws IOException {
+        checkCompressedRoundTrip(new byte[0]);
+    }
+
+    public void testLargeCompressedRoundTrip() throws IOException {
+        checkCompressedRoundTrip(TestSOAPRequestEntity.newBody(4 * 1024 * 1024));
+    }
+
+    public void testRepeatedWritesSerializeAgain() throws IOException {
+        final byte[] body = TestSOAPRequestEntity.newBody(1000);
+        final TestSOAPRequestEntity delegate = new TestSOAPRequestEntity(body);
+        final StreamingSOAPRequestEntity entity = new StreamingSOAPRequestEntity(delegate, true);
+
+        for (int i = 1; i <= 2; i++) {
+            final ConnectionOutputStream out = new ConnectionOutputStream();
+            entity.writeRequest(out);
+
+            assertTrue(Arrays.equals(body, TestSOAPRequestEntity.gunzip(out.toByteArray())));
+            assertEquals(i, delegate.getWriteCount());
+        }
+    }
+
+    public void testFailureIsThrown() {
+        final IOException failure = new IOException("test"); //$NON-NLS-1$
+        final StreamingSOAPRequestEntity entity = new StreamingSOAPRequestEntity(
+            new TestSOAPRequestEntity(TestSOAPRequestEntity.newBody(1000), failure),
+            true);
+
+        final ConnectionOutputStream out = new ConnectionOutputStream();
+        try {
+            entity.writeRequest(out);
+            fail("expected IOException"); //$NON-NLS-1$
+        } catch (final IOException e) {
+            assertSame(failure, e);
+        }
+
+        assertFalse(out.closed);
+    }
+
+    private static void checkCompressedRoundTrip(final byte[] body) throws IOException {
+        final StreamingSOAPRequestEntity entity = new StreamingSOAPRequestEntity(new TestSOAPRequestEntity(body), true);
+
+        final ConnectionOutputStream out = new ConnectionOutputStream();
+        entity.writeRequest(out);
+
+        assertTrue(Arrays.equals(body, TestSOAPRequestEntity.gunzip(out.toByteArray())));
+        assertFalse(out.closed);
+    }
+}
@@ -0,0 +1,97 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the repository root.
+
+package com.microsoft.tfs.core.ws.runtime.client;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+import javax.xml.stream.XMLStreamWriter;
+
+/**
+ * A request entity which writes a fixed body, or fails after writing part of
+ * it, for testing the entities which wrap request entities.
+ */
+class TestSOAPRequestEntity extends SOAPRequestEntity {
+    private final byte[] body;
+    private final IOException failure;
+
+    private int writeCount;
+
+    public TestSOAPRequestEntity(final byte[] body) {
+        this(body, null);
+    }
+
+    /**
+     * @param failure
+     *        thrown after half the body is written, or <code>null</code> to
+     *        write the whole body
+     */
+    public TestSOAPRequestEntity(final byte[] body, final IOException failure) {
+        super("Test", "http://example.com/test", new SOAPMethodRequestWriter() { //$NON-NLS-1$ //$NON-NLS-2$
+            @Override
+            public void writeSOAPRequest(final XMLStreamWriter writer, final OutputStream out) {
+            }
+        });
+
+        this.body = body;
+        this.failure = failure;
+    }
+
+    @Override
+    public String getContentType() {
+        return "text/xml"; //$NON-NLS-1$
+    }
+
+    @Override
+    public void writeRequest(final OutputStream out) throws IOException {
+        writeCount++;
+
+        if (failure != null) {
+            out.write(body, 0, body.length / 2);
+            throw failure;
+        }
+
+        out.write(body);
+    }
+
+    public int getWriteCount() {
+        return writeCount;
+    }
+
+    /**
+     * @return a body of the given length which compresses, but not to nothing
+     */
+    public static byte[] newBody(final int length) {
+        final byte[] body = new byte[length];
+        final Random random = new Random(length);
+
+        for (int i = 0; i < length; i++) {
+            body[i] = (byte) ('a' + random.nextInt(4));
+        }
+
+        return body;
+    }
+
+    public static byte[] gunzip(final byte[] bytes) throws IOException {
+        final InputStream is = new GZIPInputStream(new ByteArrayInputStream(bytes));
+        final ByteArrayOutputStream os = new ByteArrayOutputStream();
+
+        try {
+            final byte[] buffer = new byte[4096];
+            int read;
+            while ((read = is.read(buffer)) != -1) {
+                os.write(buffer, 0, read);
+            }
+        } finally {
+            is.close();
+        }
+
+        return os.toByteArray();
+    }
+}
@@ -0,0 +1,40 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the repository root.
+
+package com.microsoft.tfs.core.checkinpolicies;
+
+import com.microsoft.tfs.core.pendingcheckin.PendingCheckin;
+
+/**
+ * <p>
+ * A {@link PolicyInstance} whose evaluation depends only on the parts of the
+ * {@link PendingCheckin} it declares, and shares no state with other policy
+ * instances.
+ * </p>
+ * <p>
+ * When enabled, the {@link PolicyEvaluator} evaluates independent policies on
+ * other threads, alongside each other and the policies which are not
+ * independent, and only evaluates an independent policy again when one of its
+ * inputs changed. Policies which don't implement this interface are evaluated
+ * one at a time on the thread which evaluates the policies, every time the
+ * policies are evaluated, as they always have been.
+ * </p>
+ * <p>
+ * An independent policy's
+ * {@link PolicyInstance#evaluate(PolicyContext)} must not require the user
+ * interface thread, and should poll the {@link PolicyContextKeys#TASK_MONITOR}
+ * task monitor for cancelation, because the evaluator cancels it when it runs
+ * past the evaluator's time budget.
+ * </p>
+ *
+ * @see PolicyInputs
+ * @since TEE-SDK-14.0
+ */
+public interface IndependentPolicy extends PolicyInstance {
+    /**
+     * @return the parts of the pending checkin this policy reads during
+     *         evaluation (<code>null</code> is the same as
+     *         {@link PolicyInputs#ALL})
+     */
+    public PolicyInputs getPolicyInputs();
+}
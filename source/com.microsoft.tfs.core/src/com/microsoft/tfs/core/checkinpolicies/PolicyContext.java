@@ -19,7 +19,7 @@ import com.microsoft.tfs.util.Check;
  * @threadsafety thread-safe
  */
 public class PolicyContext {
-    private final Map properties = new HashMap();
+    private final Map<String, Object> properties = new HashMap<String, Object>();
 
     /**
      * Creates a {@link PolicyContext} with no keys initially set.
@@ -27,6 +27,22 @@ public class PolicyContext {
     public PolicyContext() {
     }
 
+    /**
+     * Creates a {@link PolicyContext} with the same properties as another.
+     * Properties added to either context afterward are not added to the other.
+     *
+     * @param other
+     *        the context whose properties to copy (must not be
+     *        <code>null</code>)
+     */
+    public PolicyContext(final PolicyContext other) {
+        Check.notNull(other, "other"); //$NON-NLS-1$
+
+        synchronized (other.properties) {
+            properties.putAll(other.properties);
+        }
+    }
+
     /**
      * Adds a property to this {@link PolicyContext}. If the property is already
      * defined, the old value will be overwritten.
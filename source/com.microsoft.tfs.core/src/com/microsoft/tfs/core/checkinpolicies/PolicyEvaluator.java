@@ -8,8 +8,14 @@ import java.io.StringWriter;
 import java.text.MessageFormat;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -21,6 +27,7 @@ import com.microsoft.tfs.core.checkinpolicies.events.PolicyLoadErrorEvent;
 import com.microsoft.tfs.core.checkinpolicies.events.PolicyLoadErrorListener;
 import com.microsoft.tfs.core.checkinpolicies.events.PolicyStateChangedEvent;
 import com.microsoft.tfs.core.checkinpolicies.events.PolicyStateChangedListener;
+import com.microsoft.tfs.core.checkinpolicies.internal.ConcurrentPolicyEvaluator;
 import com.microsoft.tfs.core.checkinpolicies.internal.LoadErrorPolicy;
 import com.microsoft.tfs.core.checkinpolicies.internal.PolicyEvaluationStatusComparator;
 import com.microsoft.tfs.core.clients.CoreClientEvent;
@@ -102,6 +109,28 @@ import com.microsoft.tfs.util.tasks.TaskMonitorService;
  * via {@link #addPolicyLoadErrorListener(PolicyLoadErrorListener)} which is
  * fired as the load error happens.
  * </p>
+ * <p>
+ * <b>Parallel and Incremental Evaluation</b>
+ * </p>
+ * <p>
+ * Policies which implement {@link IndependentPolicy} can be evaluated on other
+ * threads, alongside each other and the other policies, when the
+ * {@link #PARALLEL_EVALUATION_PROPERTY_NAME} system property is
+ * <code>true</code>. The evaluator waits up to
+ * {@link #TIME_BUDGET_PROPERTY_NAME} milliseconds for them; a policy still
+ * running after that is canceled and reported with a failure until it
+ * finishes, when a {@link PolicyStateChangedEvent} is fired with its failures.
+ * </p>
+ * <p>
+ * When the {@link #INCREMENTAL_EVALUATION_PROPERTY_NAME} system property is
+ * <code>true</code>, changes to the pending checkin's checked pending changes,
+ * checked work items, or comment don't reload the policies, and an independent
+ * policy is only evaluated again when one of its {@link PolicyInputs} changed.
+ * The evaluator state changes as soon as an input changes, but the
+ * {@link PolicyEvaluatorStateChangedEvent} is fired once
+ * {@link #DEBOUNCE_PROPERTY_NAME} milliseconds after the last of a burst of
+ * changes.
+ * </p>
  *
  * @see PolicyEvaluatorState
  * @since TEE-SDK-10.1
@@ -113,6 +142,46 @@ public class PolicyEvaluator implements Closable {
     private static final PolicyEvaluationStatusComparator policyStatusComparator =
         new PolicyEvaluationStatusComparator();
 
+    /**
+     * The system property which, when <code>true</code>, evaluates
+     * {@link IndependentPolicy} instances on other threads.
+     */
+    public static final String PARALLEL_EVALUATION_PROPERTY_NAME =
+        "com.microsoft.tfs.core.checkinpolicies.parallel"; //$NON-NLS-1$
+
+    /**
+     * The system property which sets how long, in milliseconds, an evaluation
+     * waits for the policies evaluated on other threads (0 waits for as long
+     * as they take).
+     */
+    public static final String TIME_BUDGET_PROPERTY_NAME =
+        "com.microsoft.tfs.core.checkinpolicies.parallel.timebudget"; //$NON-NLS-1$
+
+    /**
+     * The system property which, when <code>true</code>, only evaluates
+     * {@link IndependentPolicy} instances again when their inputs changed, and
+     * debounces the events for input changes.
+     */
+    public static final String INCREMENTAL_EVALUATION_PROPERTY_NAME =
+        "com.microsoft.tfs.core.checkinpolicies.incremental"; //$NON-NLS-1$
+
+    /**
+     * The system property which sets how long, in milliseconds, the evaluator
+     * waits after an input changes for more changes before it fires the
+     * {@link PolicyEvaluatorStateChangedEvent}.
+     */
+    public static final String DEBOUNCE_PROPERTY_NAME =
+        "com.microsoft.tfs.core.checkinpolicies.incremental.debounce"; //$NON-NLS-1$
+
+    private static final int DEFAULT_TIME_BUDGET_MILLIS = 30000;
+    private static final int DEFAULT_DEBOUNCE_MILLIS = 250;
+
+    /**
+     * Fires the debounced events for all evaluators. Created when first
+     * needed.
+     */
+    private static Timer debounceTimer;
+
     /**
      * Contains {@link PolicyEvaluationStatus} objects, which contain the actual
      * instances we evaluate.
@@ -131,6 +200,69 @@ public class PolicyEvaluator implements Closable {
 
     private final Object evaluatorLock = new Object();
 
+    private final boolean incremental;
+    private final int debounceMillis;
+    private final ConcurrentPolicyEvaluator concurrentEvaluator;
+
+    /*
+     * These are guarded by evaluatorLock.
+     */
+
+    /**
+     * True when the policies must be loaded before the next evaluation.
+     */
+    private boolean reloadNeeded = true;
+
+    /**
+     * The policies and inputs of the loaded statuses whose policies are
+     * independent, which are read when they're loaded because the statuses
+     * are locked while they evaluate.
+     */
+    private final Map<PolicyEvaluationStatus, IndependentPolicy> independentPolicies =
+        new HashMap<PolicyEvaluationStatus, IndependentPolicy>();
+
+    private final Map<PolicyEvaluationStatus, PolicyInputs> independentPolicyInputs =
+        new HashMap<PolicyEvaluationStatus, PolicyInputs>();
+
+    /**
+     * The independent statuses which must be evaluated again because one of
+     * their inputs changed or they have not been evaluated.
+     */
+    private final Set<PolicyEvaluationStatus> staleStatuses = new HashSet<PolicyEvaluationStatus>();
+
+    /**
+     * The failures reported for independent statuses which are still
+     * evaluating after the time budget ran out.
+     */
+    private final Map<PolicyEvaluationStatus, PolicyFailure[]> overdueFailures =
+        new HashMap<PolicyEvaluationStatus, PolicyFailure[]>();
+
+    /*
+     * These are guarded by inputsLock, which is never held while taking
+     * evaluatorLock, so the threads changing the pending checkin don't wait for
+     * evaluations.
+     */
+
+    private final Object inputsLock = new Object();
+
+    /**
+     * The inputs which changed since they were last applied to the statuses.
+     */
+    private PolicyInputs changedInputs = PolicyInputs.NONE;
+
+    /**
+     * The debounced event which has not been fired yet, or <code>null</code>.
+     */
+    private TimerTask pendingStateChangedEvent;
+
+    private final ConcurrentPolicyEvaluator.LateEvaluationListener lateEvaluationListener =
+        new ConcurrentPolicyEvaluator.LateEvaluationListener() {
+            @Override
+            public void onLateEvaluationFinished(final PolicyEvaluationStatus status, final boolean completed) {
+                PolicyEvaluator.this.onLateEvaluationFinished(status, completed);
+            }
+        };
+
     /**
      * Invoked when a policy status object we have changes its state.
      */
@@ -148,7 +280,7 @@ public class PolicyEvaluator implements Closable {
         new CheckedPendingChangesChangedListener() {
             @Override
             public void onCheckedPendingChangesChanged(final CheckedPendingChangesChangedEvent e) {
-                PolicyEvaluator.this.onPolicyEvaluatorStateChanged(e);
+                PolicyEvaluator.this.onPolicyInputChanged(e, PolicyInputs.PENDING_CHANGES);
             }
         };
 
@@ -170,7 +302,7 @@ public class PolicyEvaluator implements Closable {
     private final CommentChangedListener savedCommentChangedListener = new CommentChangedListener() {
         @Override
         public void onCommentChanged(final CommentChangedEvent e) {
-            PolicyEvaluator.this.onPolicyEvaluatorStateChanged(e);
+            PolicyEvaluator.this.onPolicyInputChanged(e, PolicyInputs.COMMENT);
         }
     };
 
@@ -178,7 +310,7 @@ public class PolicyEvaluator implements Closable {
         new CheckedWorkItemsChangedListener() {
             @Override
             public void onCheckedWorkItemsChangesChanged(final CheckedWorkItemsChangedEvent e) {
-                PolicyEvaluator.this.onPolicyEvaluatorStateChanged(e);
+                PolicyEvaluator.this.onPolicyInputChanged(e, PolicyInputs.WORK_ITEMS);
             }
         };
 
@@ -198,6 +330,16 @@ public class PolicyEvaluator implements Closable {
 
         this.client = client;
         this.policyLoader = policyLoader;
+
+        incremental = Boolean.getBoolean(INCREMENTAL_EVALUATION_PROPERTY_NAME);
+        debounceMillis = Integer.getInteger(DEBOUNCE_PROPERTY_NAME, DEFAULT_DEBOUNCE_MILLIS).intValue();
+
+        if (Boolean.getBoolean(PARALLEL_EVALUATION_PROPERTY_NAME)) {
+            concurrentEvaluator = new ConcurrentPolicyEvaluator(
+                Integer.getInteger(TIME_BUDGET_PROPERTY_NAME, DEFAULT_TIME_BUDGET_MILLIS).intValue());
+        } else {
+            concurrentEvaluator = null;
+        }
     }
 
     /**
@@ -358,8 +500,14 @@ public class PolicyEvaluator implements Closable {
             this.pendingCheckin.getWorkItems().addCheckedWorkItemsChangedListener(savedWorkItemsChagnedListener);
         }
 
+        synchronized (inputsLock) {
+            cancelPendingStateChangedEvent();
+            changedInputs = PolicyInputs.NONE;
+        }
+
         synchronized (evaluatorLock) {
             evaluatorState = PolicyEvaluatorState.UNEVALUATED;
+            reloadNeeded = true;
         }
 
         /*
@@ -416,6 +564,11 @@ public class PolicyEvaluator implements Closable {
         policyEvaluationStatuses = new ArrayList<PolicyEvaluationStatus>();
 
         evaluatorState = PolicyEvaluatorState.UNEVALUATED;
+        reloadNeeded = false;
+        independentPolicies.clear();
+        independentPolicyInputs.clear();
+        staleStatuses.clear();
+        overdueFailures.clear();
 
         if (currentPendingCheckin == null) {
             return;
@@ -625,6 +778,23 @@ public class PolicyEvaluator implements Closable {
         if (evaluatorState == PolicyEvaluatorState.UNEVALUATED && policyEvaluationStatuses.size() == 0) {
             evaluatorState = PolicyEvaluatorState.EVALUATED;
         }
+
+        /*
+         * Every policy is evaluated after a load. Read the inputs of the
+         * independent ones now, while none of them is evaluating.
+         */
+        for (int i = 0; i < policyEvaluationStatuses.size(); i++) {
+            final PolicyEvaluationStatus status = policyEvaluationStatuses.get(i);
+            final PolicyInstance policy = status.getPolicy();
+
+            if (policy instanceof IndependentPolicy) {
+                final PolicyInputs inputs = ((IndependentPolicy) policy).getPolicyInputs();
+
+                independentPolicies.put(status, (IndependentPolicy) policy);
+                independentPolicyInputs.put(status, inputs != null ? inputs : PolicyInputs.ALL);
+                staleStatuses.add(status);
+            }
+        }
     }
 
     /**
@@ -643,6 +813,7 @@ public class PolicyEvaluator implements Closable {
             // This triggers a reload of the definitions when evaluate()
             // runs. It will always fire the state changed event for us.
             evaluatorState = PolicyEvaluatorState.UNEVALUATED;
+            reloadNeeded = true;
 
             return evaluate(policyContext);
         }
@@ -657,9 +828,18 @@ public class PolicyEvaluator implements Closable {
             removePendingCheckinEventListeners();
         }
 
+        synchronized (inputsLock) {
+            cancelPendingStateChangedEvent();
+        }
+
         synchronized (evaluatorLock) {
             evaluatorStateChangedEventListeners.clear();
 
+            independentPolicies.clear();
+            independentPolicyInputs.clear();
+            staleStatuses.clear();
+            overdueFailures.clear();
+
             closePolicyStatuses(
                 policyEvaluationStatuses.toArray(new PolicyEvaluationStatus[policyEvaluationStatuses.size()]));
 
@@ -716,6 +896,12 @@ public class PolicyEvaluator implements Closable {
 
             pendingCheckin.getPendingChanges().removeCheckedPendingChangesChangedListener(
                 savedCheckedPendingChangesChangedListener);
+
+            pendingCheckin.getPendingChanges().removeCommentChangedListener(savedCommentChangedListener);
+        }
+
+        if (pendingCheckin != null && pendingCheckin.getWorkItems() != null) {
+            pendingCheckin.getWorkItems().removeCheckedWorkItemsChangedListener(savedWorkItemsChagnedListener);
         }
     }
 
@@ -755,7 +941,9 @@ public class PolicyEvaluator implements Closable {
                      * fires the event, etc.). If the state is correctly set,
                      * the control can know not to evaluate.
                      */
-                    if (evaluatorState == PolicyEvaluatorState.UNEVALUATED
+                    applyInputChanges();
+
+                    if (reloadNeeded
                         || evaluatorState == PolicyEvaluatorState.POLICIES_LOAD_ERROR
                         || evaluatorState == PolicyEvaluatorState.CANCELLED) {
                         try {
@@ -798,43 +986,114 @@ public class PolicyEvaluator implements Closable {
                         }
                     } else {
                         /*
-                         * Evaluate all the statuses.
+                         * Evaluate all the statuses, except independent ones
+                         * whose inputs haven't changed (when evaluating
+                         * incrementally) and ones still evaluating from an
+                         * earlier evaluation (which keep their overdue
+                         * failures). Independent statuses evaluated in parallel
+                         * start first, so they evaluate alongside the others.
                          */
+                        final List<PolicyEvaluationStatus> serialStatuses = new ArrayList<PolicyEvaluationStatus>();
+                        final List<PolicyEvaluationStatus> concurrentStatuses =
+                            new ArrayList<PolicyEvaluationStatus>();
 
                         for (int i = 0; i < policyEvaluationStatuses.size(); i++) {
-                            if (taskMonitor.isCanceled()) {
-                                throw new PolicyEvaluationCancelledException();
+                            final PolicyEvaluationStatus status = policyEvaluationStatuses.get(i);
+                            final boolean independent = independentPolicies.containsKey(status);
+
+                            if (independent
+                                && (overdueFailures.containsKey(status)
+                                    || (incremental && staleStatuses.contains(status) == false))) {
+                                taskMonitor.worked(1);
+                            } else {
+                                if (independent && concurrentEvaluator != null) {
+                                    concurrentStatuses.add(status);
+                                } else {
+                                    serialStatuses.add(status);
+                                }
+
+                                staleStatuses.remove(status);
                             }
+                        }
 
-                            final PolicyEvaluationStatus status = policyEvaluationStatuses.get(i);
+                        ConcurrentPolicyEvaluator.Evaluation evaluation = null;
 
-                            taskMonitor.setCurrentWorkDescription(
-                                MessageFormat.format(
-                                    Messages.getString("PolicyEvaluator.EvaluatingFormat"), //$NON-NLS-1$
-                                    status.getPolicyType().getName()));
+                        try {
+                            if (concurrentStatuses.size() > 0) {
+                                evaluation = concurrentEvaluator.start(
+                                    concurrentStatuses,
+                                    policyContext,
+                                    lateEvaluationListener);
+                            }
 
-                            TaskMonitor subTaskMonitor = null;
+                            for (int i = 0; i < serialStatuses.size(); i++) {
+                                if (taskMonitor.isCanceled()) {
+                                    throw new PolicyEvaluationCancelledException();
+                                }
 
-                            try {
-                                subTaskMonitor = taskMonitor.newSubTaskMonitor(1);
-                                policyContext.addProperty(PolicyContextKeys.TASK_MONITOR, subTaskMonitor);
-                                status.evaluate(policyContext);
-                            } finally {
-                                if (subTaskMonitor != null) {
-                                    subTaskMonitor.done();
+                                final PolicyEvaluationStatus status = serialStatuses.get(i);
+
+                                taskMonitor.setCurrentWorkDescription(
+                                    MessageFormat.format(
+                                        Messages.getString("PolicyEvaluator.EvaluatingFormat"), //$NON-NLS-1$
+                                        status.getPolicyType().getName()));
+
+                                TaskMonitor subTaskMonitor = null;
+
+                                try {
+                                    subTaskMonitor = taskMonitor.newSubTaskMonitor(1);
+                                    policyContext.addProperty(PolicyContextKeys.TASK_MONITOR, subTaskMonitor);
+                                    status.evaluate(policyContext);
+                                } finally {
+                                    if (subTaskMonitor != null) {
+                                        subTaskMonitor.done();
+                                    }
                                 }
                             }
 
+                            if (evaluation != null) {
+                                taskMonitor.setCurrentWorkDescription(
+                                    Messages.getString("PolicyEvaluator.EvaluatingCheckinPolicies")); //$NON-NLS-1$
+
+                                final List<PolicyEvaluationStatus> overdue = evaluation.waitForCompletion(taskMonitor);
+                                evaluation = null;
+
+                                final String budgetSeconds =
+                                    Long.toString((concurrentEvaluator.getTimeBudgetMillis() + 999) / 1000);
+
+                                for (int i = 0; i < overdue.size(); i++) {
+                                    final PolicyEvaluationStatus status = overdue.get(i);
+                                    final IndependentPolicy policy = independentPolicies.get(status);
+
+                                    overdueFailures.put(status, new PolicyFailure[] {
+                                        new PolicyFailure(
+                                            MessageFormat.format(
+                                                Messages.getString("PolicyEvaluator.PolicyDidNotFinishFormat"), //$NON-NLS-1$
+                                                policy.getPolicyType().getName(),
+                                                budgetSeconds),
+                                            policy)
+                                    });
+                                }
+                            }
+                        } finally {
                             /*
-                             * Only change state to Evaluated if there wasn't a
-                             * load error state before the evaluation that we
-                             * must preserve.
+                             * Stop the parallel evaluations if a serial one
+                             * was canceled.
                              */
-                            if (preserveLoadErrorState == false) {
-                                evaluatorState = PolicyEvaluatorState.EVALUATED;
+                            if (evaluation != null) {
+                                evaluation.cancel();
                             }
                         }
 
+                        /*
+                         * Only change state to Evaluated if there wasn't a
+                         * load error state before the evaluation that we must
+                         * preserve.
+                         */
+                        if (preserveLoadErrorState == false) {
+                            evaluatorState = PolicyEvaluatorState.EVALUATED;
+                        }
+
                         /*
                          * Get all the failures from all of the statuses we
                          * evaluated.
@@ -899,6 +1158,7 @@ public class PolicyEvaluator implements Closable {
      */
     public PolicyEvaluatorState getPolicyEvaluatorState() {
         synchronized (evaluatorLock) {
+            applyInputChanges();
             return evaluatorState;
         }
     }
@@ -931,7 +1191,12 @@ public class PolicyEvaluator implements Closable {
             for (final Iterator<PolicyEvaluationStatus> i = policyEvaluationStatuses.iterator(); i.hasNext();) {
                 final PolicyEvaluationStatus status = i.next();
 
-                final PolicyFailure[] theseFailures = status.getFailures();
+                /*
+                 * Don't ask an overdue status, which is locked while it
+                 * evaluates.
+                 */
+                final PolicyFailure[] theseFailures =
+                    overdueFailures.containsKey(status) ? overdueFailures.get(status) : status.getFailures();
 
                 if (theseFailures != null) {
                     for (int j = 0; j < theseFailures.length; j++) {
@@ -958,11 +1223,166 @@ public class PolicyEvaluator implements Closable {
     private void onPolicyEvaluatorStateChanged(final CoreClientEvent e) {
         synchronized (evaluatorLock) {
             evaluatorState = PolicyEvaluatorState.UNEVALUATED;
+            reloadNeeded = true;
         }
 
         firePolicyEvaluatorStateChangedEvent();
     }
 
+    /**
+     * Handles a change to one of the pending checkin's {@link PolicyInputs}.
+     * When not evaluating incrementally this is the same as
+     * {@link #onPolicyEvaluatorStateChanged(CoreClientEvent)}. Otherwise the
+     * change is recorded, to be applied to the statuses the next time the
+     * state is read or the policies are evaluated, and the event is fired after
+     * the debounce delay.
+     */
+    private void onPolicyInputChanged(final CoreClientEvent e, final PolicyInputs input) {
+        if (incremental == false) {
+            onPolicyEvaluatorStateChanged(e);
+            return;
+        }
+
+        synchronized (inputsLock) {
+            changedInputs = changedInputs.combine(input);
+
+            cancelPendingStateChangedEvent();
+
+            if (debounceMillis > 0) {
+                pendingStateChangedEvent = new TimerTask() {
+                    @Override
+                    public void run() {
+                        synchronized (inputsLock) {
+                            if (pendingStateChangedEvent != this) {
+                                return;
+                            }
+                            pendingStateChangedEvent = null;
+                        }
+
+                        /*
+                         * Reading the state applies the changes.
+                         */
+                        getPolicyEvaluatorState();
+                        firePolicyEvaluatorStateChangedEvent();
+                    }
+                };
+
+                getDebounceTimer().schedule(pendingStateChangedEvent, debounceMillis);
+                return;
+            }
+        }
+
+        getPolicyEvaluatorState();
+        firePolicyEvaluatorStateChangedEvent();
+    }
+
+    /**
+     * Cancels the debounced event which has not been fired yet, if there is
+     * one. Must be called while holding {@link #inputsLock}.
+     */
+    private void cancelPendingStateChangedEvent() {
+        if (pendingStateChangedEvent != null) {
+            pendingStateChangedEvent.cancel();
+            pendingStateChangedEvent = null;
+        }
+    }
+
+    private static synchronized Timer getDebounceTimer() {
+        if (debounceTimer == null) {
+            debounceTimer = new Timer("PolicyEvaluator debounce", true); //$NON-NLS-1$
+        }
+        return debounceTimer;
+    }
+
+    /**
+     * Applies the inputs which changed since the last call to the statuses,
+     * marking the independent statuses which read them (and all the others)
+     * stale, and the evaluator {@link PolicyEvaluatorState#UNEVALUATED}. An
+     * evaluator which failed to load or was canceled reloads its policies, as
+     * it would have for any change before incremental evaluation. Must be
+     * called while holding {@link #evaluatorLock}.
+     */
+    private void applyInputChanges() {
+        final PolicyInputs changed;
+        synchronized (inputsLock) {
+            changed = changedInputs;
+            changedInputs = PolicyInputs.NONE;
+        }
+
+        if (changed.isEmpty()) {
+            return;
+        }
+
+        if (evaluatorState == PolicyEvaluatorState.POLICIES_LOAD_ERROR
+            || evaluatorState == PolicyEvaluatorState.CANCELLED) {
+            evaluatorState = PolicyEvaluatorState.UNEVALUATED;
+            reloadNeeded = true;
+            return;
+        }
+
+        boolean stale = false;
+        for (int i = 0; i < policyEvaluationStatuses.size(); i++) {
+            final PolicyEvaluationStatus status = policyEvaluationStatuses.get(i);
+            final PolicyInputs inputs = independentPolicyInputs.get(status);
+
+            if (inputs == null) {
+                // Not independent, so evaluated every time
+                stale = true;
+            } else if (inputs.containsAny(changed)) {
+                staleStatuses.add(status);
+                stale = true;
+            }
+        }
+
+        if (stale) {
+            evaluatorState = PolicyEvaluatorState.UNEVALUATED;
+        }
+    }
+
+    /**
+     * Handles an overdue independent status finishing its evaluation, by
+     * replacing its overdue failure with its new failures and firing a
+     * {@link PolicyStateChangedEvent} with them. If the policy was canceled, or
+     * its inputs changed while it evaluated, it is stale and the evaluator
+     * becomes {@link PolicyEvaluatorState#UNEVALUATED} instead.
+     */
+    private void onLateEvaluationFinished(final PolicyEvaluationStatus status, final boolean completed) {
+        final PolicyInstance policy;
+        PolicyFailure[] failures = null;
+
+        synchronized (evaluatorLock) {
+            /*
+             * The entry is gone if the policies were reloaded or the evaluation
+             * was canceled since.
+             */
+            if (overdueFailures.remove(status) == null) {
+                return;
+            }
+
+            policy = independentPolicies.get(status);
+
+            applyInputChanges();
+
+            if (completed == false) {
+                staleStatuses.add(status);
+            }
+
+            if (staleStatuses.contains(status)) {
+                if (evaluatorState == PolicyEvaluatorState.EVALUATED) {
+                    evaluatorState = PolicyEvaluatorState.UNEVALUATED;
+                }
+            } else {
+                failures = status.getFailures();
+            }
+        }
+
+        if (failures != null) {
+            firePolicyStateChangedEvent(new PolicyStateChangedEvent(EventSource.newFromHere(), failures, policy));
+        } else {
+            firePolicyEvaluatorStateChangedEvent();
+        }
+    }
+
     /**
      * @see PolicyStateChangedListener
      */
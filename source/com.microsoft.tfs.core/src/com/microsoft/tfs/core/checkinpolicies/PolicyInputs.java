@@ -0,0 +1,82 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the repository root.
+
+package com.microsoft.tfs.core.checkinpolicies;
+
+import com.microsoft.tfs.core.pendingcheckin.PendingCheckin;
+import com.microsoft.tfs.util.BitField;
+
+/**
+ * The parts of a {@link PendingCheckin} an {@link IndependentPolicy} reads
+ * during evaluation. When none of a policy's inputs change, the
+ * {@link PolicyEvaluator} can keep the failures from the policy's last
+ * evaluation instead of evaluating it again.
+ *
+ * @since TEE-SDK-14.0
+ */
+public final class PolicyInputs extends BitField {
+    private static final long serialVersionUID = -2894375310642768931L;
+
+    /**
+     * The policy reads none of the pending checkin.
+     */
+    public final static PolicyInputs NONE = new PolicyInputs(0, "None"); //$NON-NLS-1$
+
+    /**
+     * The policy reads the checked pending changes.
+     */
+    public final static PolicyInputs PENDING_CHANGES = new PolicyInputs(1, "PendingChanges"); //$NON-NLS-1$
+
+    /**
+     * The policy reads the checked work items.
+     */
+    public final static PolicyInputs WORK_ITEMS = new PolicyInputs(2, "WorkItems"); //$NON-NLS-1$
+
+    /**
+     * The policy reads the check-in comment.
+     */
+    public final static PolicyInputs COMMENT = new PolicyInputs(4, "Comment"); //$NON-NLS-1$
+
+    /**
+     * The policy reads all of the pending checkin (or something other than the
+     * inputs above), and is evaluated every time any input changes.
+     */
+    public final static PolicyInputs ALL = new PolicyInputs(1 | 2 | 4);
+
+    public static PolicyInputs combine(final PolicyInputs[] inputs) {
+        return new PolicyInputs(BitField.combine(inputs));
+    }
+
+    private PolicyInputs(final int flags, final String name) {
+        super(flags);
+        registerStringValue(getClass(), flags, name);
+    }
+
+    private PolicyInputs(final int flags) {
+        super(flags);
+    }
+
+    public boolean containsAll(final PolicyInputs other) {
+        return containsAllInternal(other);
+    }
+
+    public boolean contains(final PolicyInputs other) {
+        return containsInternal(other);
+    }
+
+    public boolean containsAny(final PolicyInputs other) {
+        return containsAnyInternal(other);
+    }
+
+    public PolicyInputs remove(final PolicyInputs other) {
+        return new PolicyInputs(removeInternal(other));
+    }
+
+    public PolicyInputs retain(final PolicyInputs other) {
+        return new PolicyInputs(retainInternal(other));
+    }
+
+    public PolicyInputs combine(final PolicyInputs other) {
+        return new PolicyInputs(combineInternal(other));
+    }
+}
@@ -0,0 +1,355 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the repository root.
+
+package com.microsoft.tfs.core.checkinpolicies.internal;
+
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.microsoft.tfs.core.checkinpolicies.PolicyContext;
+import com.microsoft.tfs.core.checkinpolicies.PolicyContextKeys;
+import com.microsoft.tfs.core.checkinpolicies.PolicyEvaluationCancelledException;
+import com.microsoft.tfs.core.checkinpolicies.PolicyEvaluationStatus;
+import com.microsoft.tfs.util.Check;
+import com.microsoft.tfs.util.tasks.TaskMonitor;
+
+/**
+ * <p>
+ * Evaluates {@link PolicyEvaluationStatus}es on other threads, all at once, and
+ * waits up to a time budget for them to finish.
+ * </p>
+ * <p>
+ * Each policy gets its own copy of the {@link PolicyContext} with its own
+ * {@link TaskMonitor}, which reports no progress (the thread waiting for the
+ * evaluation reports one unit of work for each policy which finishes) and is
+ * canceled when the waiting thread's task monitor is canceled or the policy
+ * runs past the time budget. A policy which runs past the budget is
+ * <em>overdue</em>: the waiting thread stops waiting for it, and when it
+ * finishes a {@link LateEvaluationListener} is told.
+ * </p>
+ *
+ * @threadsafety thread-safe
+ */
+public class ConcurrentPolicyEvaluator {
+    private static final Log log = LogFactory.getLog(ConcurrentPolicyEvaluator.class);
+
+    /**
+     * How often the waiting thread checks its task monitor for cancelation.
+     */
+    private static final long POLL_MILLIS = 100;
+
+    /**
+     * Runs the policies. Threads are created as needed (one per policy being
+     * evaluated) and exit when idle.
+     */
+    private static final ExecutorService executor = new ThreadPoolExecutor(
+        0,
+        Integer.MAX_VALUE,
+        30,
+        TimeUnit.SECONDS,
+        new SynchronousQueue<Runnable>(),
+        new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable r) {
+                final Thread thread = new Thread(r, "PolicyEvaluator"); //$NON-NLS-1$
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+    /**
+     * Told when an overdue policy finishes.
+     */
+    public interface LateEvaluationListener {
+        /**
+         * Invoked on the thread which evaluated the policy, after it finished.
+         *
+         * @param status
+         *        the status whose policy finished (not <code>null</code>)
+         * @param completed
+         *        <code>true</code> if the policy finished evaluating and the
+         *        status has its new failures, <code>false</code> if it was
+         *        canceled (or failed unexpectedly) and the status's failures
+         *        are from an earlier evaluation
+         */
+        public void onLateEvaluationFinished(PolicyEvaluationStatus status, boolean completed);
+    }
+
+    private final long timeBudgetMillis;
+
+    /**
+     * @param timeBudgetMillis
+     *        how long to wait for the policies to finish evaluating, in
+     *        milliseconds (0 or less waits for as long as they take)
+     */
+    public ConcurrentPolicyEvaluator(final long timeBudgetMillis) {
+        this.timeBudgetMillis = timeBudgetMillis;
+    }
+
+    /**
+     * @return how long to wait for the policies to finish evaluating, in
+     *         milliseconds (0 or less waits for as long as they take)
+     */
+    public long getTimeBudgetMillis() {
+        return timeBudgetMillis;
+    }
+
+    /**
+     * Starts evaluating the given statuses. Call
+     * {@link Evaluation#waitForCompletion(TaskMonitor)} on the returned object
+     * to wait for them.
+     *
+     * @param statuses
+     *        the statuses to evaluate (must not be <code>null</code>)
+     * @param policyContext
+     *        the context to copy for each policy (must not be
+     *        <code>null</code>)
+     * @param listener
+     *        told when an overdue policy finishes (must not be
+     *        <code>null</code>)
+     * @return the evaluation
+     */
+    public Evaluation start(
+        final List<PolicyEvaluationStatus> statuses,
+        final PolicyContext policyContext,
+        final LateEvaluationListener listener) {
+        Check.notNull(statuses, "statuses"); //$NON-NLS-1$
+        Check.notNull(policyContext, "policyContext"); //$NON-NLS-1$
+        Check.notNull(listener, "listener"); //$NON-NLS-1$
+
+        final long deadline =
+            timeBudgetMillis > 0 ? System.currentTimeMillis() + timeBudgetMillis : Long.MAX_VALUE;
+        final CountDownLatch latch = new CountDownLatch(statuses.size());
+
+        final Task[] tasks = new Task[statuses.size()];
+        for (int i = 0; i < tasks.length; i++) {
+            tasks[i] = new Task(statuses.get(i), policyContext, listener, latch);
+            executor.execute(tasks[i]);
+        }
+
+        return new Evaluation(tasks, latch, deadline);
+    }
+
+    /**
+     * Policies being evaluated by a {@link ConcurrentPolicyEvaluator}.
+     */
+    public static class Evaluation {
+        private final Task[] tasks;
+        private final CountDownLatch latch;
+        private final long deadline;
+
+        private Evaluation(final Task[] tasks, final CountDownLatch latch, final long deadline) {
+            this.tasks = tasks;
+            this.latch = latch;
+            this.deadline = deadline;
+        }
+
+        /**
+         * Waits for the policies to finish evaluating, or for the time budget
+         * to run out. Policies which have not finished by then are canceled
+         * and returned.
+         *
+         * @param taskMonitor
+         *        the monitor to report one unit of work to for each policy
+         *        which finishes, and to poll for cancelation (must not be
+         *        <code>null</code>)
+         * @return the statuses of the overdue policies (never
+         *         <code>null</code>)
+         * @throws PolicyEvaluationCancelledException
+         *         if the task monitor was canceled, or a policy canceled its
+         *         evaluation
+         */
+        public List<PolicyEvaluationStatus> waitForCompletion(final TaskMonitor taskMonitor)
+            throws PolicyEvaluationCancelledException {
+            Check.notNull(taskMonitor, "taskMonitor"); //$NON-NLS-1$
+
+            int reported = 0;
+            boolean done = false;
+            while (done == false) {
+                if (taskMonitor.isCanceled()) {
+                    cancel();
+                    throw new PolicyEvaluationCancelledException();
+                }
+
+                final long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    break;
+                }
+
+                try {
+                    done = latch.await(Math.min(remaining, POLL_MILLIS), TimeUnit.MILLISECONDS);
+                } catch (final InterruptedException e) {
+                    cancel();
+                    Thread.currentThread().interrupt();
+                    throw new PolicyEvaluationCancelledException();
+                }
+
+                final int finished = tasks.length - (int) latch.getCount();
+                if (finished > reported) {
+                    taskMonitor.worked(finished - reported);
+                    reported = finished;
+                }
+            }
+
+            final List<PolicyEvaluationStatus> overdue = new ArrayList<PolicyEvaluationStatus>();
+            PolicyEvaluationCancelledException cancelledException = null;
+
+            for (int i = 0; i < tasks.length; i++) {
+                final Task task = tasks[i];
+
+                if (task.state.compareAndSet(Task.RUNNING, Task.OVERDUE)) {
+                    log.warn(MessageFormat.format(
+                        "Check-in policy {0} did not finish evaluating within its time budget", //$NON-NLS-1$
+                        task.policyTypeID));
+
+                    task.taskMonitor.setCanceled();
+                    overdue.add(task.status);
+                } else if (task.state.get() == Task.FINISHED && task.cancelledException != null) {
+                    cancelledException = task.cancelledException;
+                }
+            }
+
+            taskMonitor.worked(tasks.length - reported);
+
+            if (cancelledException != null) {
+                cancel();
+                throw cancelledException;
+            }
+
+            return overdue;
+        }
+
+        /**
+         * Cancels the policies which have not finished. They are not reported
+         * to the {@link LateEvaluationListener} as overdue unless they are
+         * already overdue.
+         */
+        public void cancel() {
+            for (int i = 0; i < tasks.length; i++) {
+                tasks[i].state.compareAndSet(Task.RUNNING, Task.CANCELED);
+                tasks[i].taskMonitor.setCanceled();
+            }
+        }
+    }
+
+    /**
+     * Evaluates one status.
+     */
+    private static class Task implements Runnable {
+        public static final int RUNNING = 0;
+        public static final int FINISHED = 1;
+        public static final int OVERDUE = 2;
+        public static final int CANCELED = 3;
+
+        public final PolicyEvaluationStatus status;
+        public final String policyTypeID;
+        public final PolicyTaskMonitor taskMonitor = new PolicyTaskMonitor();
+        public final AtomicInteger state = new AtomicInteger(RUNNING);
+        public volatile PolicyEvaluationCancelledException cancelledException;
+
+        private final PolicyContext policyContext;
+        private final LateEvaluationListener listener;
+        private final CountDownLatch latch;
+
+        public Task(
+            final PolicyEvaluationStatus status,
+            final PolicyContext policyContext,
+            final LateEvaluationListener listener,
+            final CountDownLatch latch) {
+            this.status = status;
+            /*
+             * Read before the evaluation starts, because the status is locked
+             * while it evaluates.
+             */
+            this.policyTypeID = status.getPolicyType().getID();
+            this.policyContext = new PolicyContext(policyContext);
+            this.policyContext.addProperty(PolicyContextKeys.TASK_MONITOR, taskMonitor);
+            this.listener = listener;
+            this.latch = latch;
+        }
+
+        @Override
+        public void run() {
+            boolean completed = false;
+            try {
+                status.evaluate(policyContext);
+                completed = true;
+            } catch (final PolicyEvaluationCancelledException e) {
+                cancelledException = e;
+            } catch (final RuntimeException e) {
+                /*
+                 * The status converts policy exceptions to failures, so this
+                 * is probably a closed status.
+                 */
+                log.warn("Unexpected exception evaluating check-in policy", e); //$NON-NLS-1$
+            } finally {
+                if (state.compareAndSet(RUNNING, FINISHED) == false && state.get() == OVERDUE) {
+                    try {
+                        listener.onLateEvaluationFinished(status, completed);
+                    } catch (final RuntimeException e) {
+                        log.warn("Error in late policy evaluation listener", e); //$NON-NLS-1$
+                    }
+                }
+
+                latch.countDown();
+            }
+        }
+    }
+
+    /**
+     * A {@link TaskMonitor} which only records cancelation.
+     */
+    private static class PolicyTaskMonitor implements TaskMonitor {
+        private volatile boolean canceled;
+
+        @Override
+        public void begin(final String taskName, final int totalWork) {
+        }
+
+        @Override
+        public void beginWithUnknownTotalWork(final String taskName) {
+        }
+
+        @Override
+        public void done() {
+        }
+
+        @Override
+        public boolean isCanceled() {
+            return canceled;
+        }
+
+        @Override
+        public void setCanceled() {
+            canceled = true;
+        }
+
+        @Override
+        public void worked(final int amount) {
+        }
+
+        @Override
+        public void setTaskName(final String taskName) {
+        }
+
+        @Override
+        public void setCurrentWorkDescription(final String description) {
+        }
+
+        @Override
+        public TaskMonitor newSubTaskMonitor(final int amount) {
+            return this;
+        }
+    }
+}
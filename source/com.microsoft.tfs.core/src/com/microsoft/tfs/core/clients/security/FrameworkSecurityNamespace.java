@@ -7,7 +7,12 @@ import java.util.ArrayList;
 import java.util.List;
 
 import com.microsoft.tfs.core.TFSConnection;
+import com.microsoft.tfs.core.clients.security.internal.PermissionCache;
+import com.microsoft.tfs.core.clients.webservices.IIdentityManagementService;
 import com.microsoft.tfs.core.clients.webservices.IdentityDescriptor;
+import com.microsoft.tfs.core.clients.webservices.MembershipQuery;
+import com.microsoft.tfs.core.clients.webservices.ReadIdentityOptions;
+import com.microsoft.tfs.core.clients.webservices.TeamFoundationIdentity;
 import com.microsoft.tfs.core.internal.wrappers.WrapperUtils;
 import com.microsoft.tfs.util.Check;
 import com.microsoft.tfs.util.GUID;
@@ -18,6 +23,16 @@ import ms.ws._IdentityDescriptor;
 import ms.ws._SecurityWebServiceSoap;
 
 /**
+ * A security namespace whose permission checks and access control lists are
+ * read from and written to the server's security web service.
+ * <p>
+ * When {@link PermissionCache#ENABLED_PROPERTY_NAME} is set, permission checks
+ * are evaluated from access control lists and group memberships cached by a
+ * {@link PermissionCache}, and the answers to checks which only the server can
+ * evaluate (write permission checks, and checks which administrators always
+ * pass which the cached lists don't allow) are cached. Any change this object
+ * makes to the namespace's access control lists empties the cache.
+ *
  * @since TEE-SDK-11.0
  */
 public class FrameworkSecurityNamespace extends SecurityNamespace {
@@ -32,6 +47,12 @@ public class FrameworkSecurityNamespace extends SecurityNamespace {
      */
     private final _SecurityWebServiceSoap securityProxy;
 
+    /**
+     * Evaluates permission checks on the client, or <code>null</code> if
+     * every check asks the server.
+     */
+    private final PermissionCache permissionCache;
+
     /**
      * <p>
      * Creates an instance of the SecurityNamespace
@@ -51,6 +72,24 @@ public class FrameworkSecurityNamespace extends SecurityNamespace {
 
         this.description = description;
         securityProxy = (_SecurityWebServiceSoap) connection.getWebService(_SecurityWebServiceSoap.class);
+
+        permissionCache = PermissionCache.createIfEnabled(description, new PermissionCache.Loader() {
+            @Override
+            public AccessControlListDetails[] loadAccessControlLists(final String token, final boolean recurse) {
+                return queryAccessControlLists(token, null, false, recurse);
+            }
+
+            @Override
+            public IdentityDescriptor[] loadMemberships(final IdentityDescriptor descriptor) {
+                final IIdentityManagementService identityService =
+                    (IIdentityManagementService) connection.getClient(IIdentityManagementService.class);
+
+                final TeamFoundationIdentity identity =
+                    identityService.readIdentity(descriptor, MembershipQuery.EXPANDED, ReadIdentityOptions.NONE);
+
+                return identity != null ? identity.getMemberOf() : null;
+            }
+        });
     }
 
     /**
@@ -70,6 +109,18 @@ public class FrameworkSecurityNamespace extends SecurityNamespace {
         Check.notNull(token, "token"); //$NON-NLS-1$
         Check.notNull(descriptor, "descriptor"); //$NON-NLS-1$
 
+        if (permissionCache != null) {
+            return hasPermissionCached(token, descriptor, requestedPermissions, alwaysAllowAdministrators);
+        }
+
+        return queryHasPermission(token, descriptor, requestedPermissions, alwaysAllowAdministrators);
+    }
+
+    private boolean queryHasPermission(
+        final String token,
+        final IdentityDescriptor descriptor,
+        final int requestedPermissions,
+        final boolean alwaysAllowAdministrators) {
         final boolean[] ret = securityProxy.hasPermissionByPermissionsList(
             getDescription().getNamespaceId().getGUIDString(),
             token,
@@ -94,6 +145,14 @@ public class FrameworkSecurityNamespace extends SecurityNamespace {
         Check.notNullOrEmpty(tokens, "tokens"); //$NON-NLS-1$
         Check.notNull(descriptor, "descriptor"); //$NON-NLS-1$
 
+        if (permissionCache != null) {
+            final boolean[] ret = new boolean[tokens.length];
+            for (int i = 0; i < tokens.length; i++) {
+                ret[i] = hasPermissionCached(tokens[i], descriptor, requestedPermissions, alwaysAllowAdministrators);
+            }
+            return ret;
+        }
+
         return securityProxy.hasPermissionByTokenList(
             getDescription().getNamespaceId().getGUIDString(),
             tokens,
@@ -111,6 +170,14 @@ public class FrameworkSecurityNamespace extends SecurityNamespace {
         Check.notNull(token, "token"); //$NON-NLS-1$
         Check.notNullOrEmpty(descriptors, "descriptors"); //$NON-NLS-1$
 
+        if (permissionCache != null) {
+            final boolean[] ret = new boolean[descriptors.length];
+            for (int i = 0; i < descriptors.length; i++) {
+                ret[i] = hasPermissionCached(token, descriptors[i], requestedPermissions, alwaysAllowAdministrators);
+            }
+            return ret;
+        }
+
         return securityProxy.hasPermissionByDescriptorList(
             getDescription().getNamespaceId().getGUIDString(),
             token,
@@ -130,6 +197,14 @@ public class FrameworkSecurityNamespace extends SecurityNamespace {
         Check.notNull(requestedPermissions, "requestedPermissions"); //$NON-NLS-1$
         Check.isTrue(requestedPermissions.length > 0, "requestedPermissions.length > 0"); //$NON-NLS-1$
 
+        if (permissionCache != null) {
+            final boolean[] ret = new boolean[requestedPermissions.length];
+            for (int i = 0; i < requestedPermissions.length; i++) {
+                ret[i] = hasPermissionCached(token, descriptor, requestedPermissions[i], alwaysAllowAdministrators);
+            }
+            return ret;
+        }
+
         return securityProxy.hasPermissionByPermissionsList(
             getDescription().getNamespaceId().getGUIDString(),
             token,
@@ -138,10 +213,67 @@ public class FrameworkSecurityNamespace extends SecurityNamespace {
             alwaysAllowAdministrators);
     }
 
+    /**
+     * Evaluates a permission check with {@link #permissionCache}. A check the
+     * cached lists don't allow is passed to the server if administrators
+     * always pass it (the lists don't say who the administrators are), and
+     * the server's answer is cached.
+     */
+    private boolean hasPermissionCached(
+        final String token,
+        final IdentityDescriptor descriptor,
+        final int requestedPermissions,
+        final boolean alwaysAllowAdministrators) {
+        if (permissionCache.hasPermission(token, descriptor, requestedPermissions)) {
+            return true;
+        }
+
+        if (!alwaysAllowAdministrators) {
+            return false;
+        }
+
+        final String key = "hasPermission;" //$NON-NLS-1$
+            + descriptor.getIdentityType()
+            + ";" //$NON-NLS-1$
+            + descriptor.getIdentifier()
+            + ";" //$NON-NLS-1$
+            + requestedPermissions
+            + ";" //$NON-NLS-1$
+            + token;
+
+        final Boolean answer = permissionCache.getAnswer(key);
+        if (answer != null) {
+            return answer.booleanValue();
+        }
+
+        final long generation = permissionCache.getGeneration();
+        final boolean ret = queryHasPermission(token, descriptor, requestedPermissions, true);
+        permissionCache.putAnswer(key, ret, generation);
+        return ret;
+    }
+
     @Override
     public boolean hasWritePermission(final String token, final int permissionsToChange) {
         Check.notNull(token, "token"); //$NON-NLS-1$
 
+        if (permissionCache != null) {
+            final String key = "hasWritePermission;" + permissionsToChange + ";" + token; //$NON-NLS-1$ //$NON-NLS-2$
+
+            final Boolean answer = permissionCache.getAnswer(key);
+            if (answer != null) {
+                return answer.booleanValue();
+            }
+
+            final long generation = permissionCache.getGeneration();
+            final boolean ret = queryHasWritePermission(token, permissionsToChange);
+            permissionCache.putAnswer(key, ret, generation);
+            return ret;
+        }
+
+        return queryHasWritePermission(token, permissionsToChange);
+    }
+
+    private boolean queryHasWritePermission(final String token, final int permissionsToChange) {
         final boolean[] ret =
             securityProxy.hasWritePermission(getDescription().getNamespaceId().getGUIDString(), token, new int[] {
                 permissionsToChange
@@ -160,6 +292,14 @@ public class FrameworkSecurityNamespace extends SecurityNamespace {
         Check.notNull(permissionsToChange, "permissionsToChange"); //$NON-NLS-1$
         Check.isTrue(permissionsToChange.length > 0, "permissionsToChange.length > 0"); //$NON-NLS-1$
 
+        if (permissionCache != null) {
+            final boolean[] ret = new boolean[permissionsToChange.length];
+            for (int i = 0; i < permissionsToChange.length; i++) {
+                ret[i] = hasWritePermission(token, permissionsToChange[i]);
+            }
+            return ret;
+        }
+
         return securityProxy.hasWritePermission(
             getDescription().getNamespaceId().getGUIDString(),
             token,
@@ -177,10 +317,14 @@ public class FrameworkSecurityNamespace extends SecurityNamespace {
     public boolean removeAccessControlLists(final String[] tokens, final boolean recurse) {
         Check.notNull(tokens, "tokens"); //$NON-NLS-1$
 
-        return securityProxy.removeAccessControlList(
-            getDescription().getNamespaceId().getGUIDString(),
-            tokens,
-            recurse);
+        try {
+            return securityProxy.removeAccessControlList(
+                getDescription().getNamespaceId().getGUIDString(),
+                tokens,
+                recurse);
+        } finally {
+            invalidatePermissionCache();
+        }
     }
 
     @Override
@@ -188,10 +332,14 @@ public class FrameworkSecurityNamespace extends SecurityNamespace {
         Check.notNull(token, "token"); //$NON-NLS-1$
         Check.notNullOrEmpty(descriptors, "descriptors"); //$NON-NLS-1$
 
-        return securityProxy.removeAccessControlEntries(
-            getDescription().getNamespaceId().getGUIDString(),
-            token,
-            (_IdentityDescriptor[]) WrapperUtils.unwrap(IdentityDescriptor.class, descriptors));
+        try {
+            return securityProxy.removeAccessControlEntries(
+                getDescription().getNamespaceId().getGUIDString(),
+                token,
+                (_IdentityDescriptor[]) WrapperUtils.unwrap(IdentityDescriptor.class, descriptors));
+        } finally {
+            invalidatePermissionCache();
+        }
     }
 
     @Override
@@ -209,12 +357,16 @@ public class FrameworkSecurityNamespace extends SecurityNamespace {
         Check.notNull(token, "token"); //$NON-NLS-1$
         Check.notNull(descriptor, "descriptor"); //$NON-NLS-1$
 
-        return new AccessControlEntryDetails(
-            securityProxy.removePermissions(
-                getDescription().getNamespaceId().getGUIDString(),
-                token,
-                descriptor.getWebServiceObject(),
-                permissionsToRemove));
+        try {
+            return new AccessControlEntryDetails(
+                securityProxy.removePermissions(
+                    getDescription().getNamespaceId().getGUIDString(),
+                    token,
+                    descriptor.getWebServiceObject(),
+                    permissionsToRemove));
+        } finally {
+            invalidatePermissionCache();
+        }
     }
 
     @Override
@@ -254,24 +406,32 @@ public class FrameworkSecurityNamespace extends SecurityNamespace {
         Check.notNullOrEmpty(accessControlEntries, "accessControlEntries"); //$NON-NLS-1$
         Check.notNull(token, "token"); //$NON-NLS-1$
 
-        return (AccessControlEntryDetails[]) WrapperUtils.wrap(
-            AccessControlEntryDetails.class,
-            securityProxy.setPermissions(
-                getDescription().getNamespaceId().getGUIDString(),
-                token,
-                (_AccessControlEntryDetails[]) WrapperUtils.unwrap(
-                    _AccessControlEntryDetails.class,
-                    accessControlEntries),
-                merge));
+        try {
+            return (AccessControlEntryDetails[]) WrapperUtils.wrap(
+                AccessControlEntryDetails.class,
+                securityProxy.setPermissions(
+                    getDescription().getNamespaceId().getGUIDString(),
+                    token,
+                    (_AccessControlEntryDetails[]) WrapperUtils.unwrap(
+                        _AccessControlEntryDetails.class,
+                        accessControlEntries),
+                    merge));
+        } finally {
+            invalidatePermissionCache();
+        }
     }
 
     @Override
     public void setAccessControlLists(final AccessControlListDetails[] accessControlLists) {
         Check.notNullOrEmpty(accessControlLists, "accessControlLists"); //$NON-NLS-1$
 
-        securityProxy.setAccessControlList(
-            getDescription().getNamespaceId().getGUIDString(),
-            (_AccessControlListDetails[]) WrapperUtils.unwrap(_AccessControlListDetails.class, accessControlLists));
+        try {
+            securityProxy.setAccessControlList(
+                getDescription().getNamespaceId().getGUIDString(),
+                (_AccessControlListDetails[]) WrapperUtils.unwrap(_AccessControlListDetails.class, accessControlLists));
+        } finally {
+            invalidatePermissionCache();
+        }
     }
 
     @Override
@@ -350,6 +510,16 @@ public class FrameworkSecurityNamespace extends SecurityNamespace {
     public void setInheritFlag(final String token, final boolean inherit) {
         Check.notNull(token, "token"); //$NON-NLS-1$
 
-        securityProxy.setInheritFlag(getDescription().getNamespaceId().getGUIDString(), token, inherit);
+        try {
+            securityProxy.setInheritFlag(getDescription().getNamespaceId().getGUIDString(), token, inherit);
+        } finally {
+            invalidatePermissionCache();
+        }
+    }
+
+    private void invalidatePermissionCache() {
+        if (permissionCache != null) {
+            permissionCache.invalidate();
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,412 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the repository root.
+
+package com.microsoft.tfs.core.clients.security.internal;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.microsoft.tfs.core.clients.security.AccessControlEntryDetails;
+import com.microsoft.tfs.core.clients.security.AccessControlListDetails;
+import com.microsoft.tfs.core.clients.security.SecurityNamespaceDescription;
+import com.microsoft.tfs.core.clients.security.SecurityNamespaceStructure;
+import com.microsoft.tfs.core.clients.webservices.IdentityDescriptor;
+import com.microsoft.tfs.core.clients.webservices.IdentityDescriptorComparer;
+import com.microsoft.tfs.util.Check;
+
+/**
+ * Caches a security namespace's access control lists and the group
+ * memberships of the identities permissions are checked for, so permission
+ * checks can be evaluated on the client instead of asking the server each
+ * time.
+ * <p>
+ * In a hierarchical namespace, the first permission check for a token loads
+ * the access control lists of the token's root element and everything below
+ * it in one request. A check walks from the token up toward the root: at each
+ * level, the entries for the identity and the groups it is a member of (at
+ * any depth) decide the permission bits no nearer level has decided, with
+ * deny winning over allow, until a list which doesn't inherit. In a flat
+ * namespace, each token's list is loaded and evaluated alone.
+ * <p>
+ * Lists and memberships are cached for a time to live. {@link #invalidate()}
+ * drops everything (the namespace calls it when it changes any list). The
+ * cache also remembers answers to checks it can't evaluate itself (see
+ * {@link #getAnswer(String)}).
+ *
+ * @threadsafety thread-safe
+ */
+public class PermissionCache {
+    private static final Log log = LogFactory.getLog(PermissionCache.class);
+
+    /**
+     * A property which, when set to <code>true</code>, makes security
+     * namespaces evaluate permission checks with a {@link PermissionCache}.
+     */
+    public static final String ENABLED_PROPERTY_NAME =
+        "com.microsoft.tfs.core.clients.security.permissioncache"; //$NON-NLS-1$
+
+    /**
+     * A property which sets how many seconds access control lists, group
+     * memberships and answers are cached. The default is
+     * {@link #TIME_TO_LIVE_SECONDS_DEFAULT}.
+     */
+    public static final String TIME_TO_LIVE_PROPERTY_NAME =
+        "com.microsoft.tfs.core.clients.security.permissioncache.ttl"; //$NON-NLS-1$
+
+    public static final int TIME_TO_LIVE_SECONDS_DEFAULT = 300;
+
+    /**
+     * The answers are dropped when this many are cached.
+     */
+    private static final int MAX_ANSWERS = 4096;
+
+    /**
+     * Reads what isn't cached from the server.
+     */
+    public interface Loader {
+        /**
+         * @param token
+         *        the token to read the access control list of (must not be
+         *        <code>null</code>)
+         * @param recurse
+         *        <code>true</code> to also read the lists of all the tokens
+         *        below it
+         * @return the lists read (may be <code>null</code> or empty)
+         */
+        AccessControlListDetails[] loadAccessControlLists(String token, boolean recurse);
+
+        /**
+         * @param descriptor
+         *        the identity to read the group memberships of (must not be
+         *        <code>null</code>)
+         * @return the groups the identity is a member of, directly or through
+         *         other groups (may be <code>null</code> or empty)
+         */
+        IdentityDescriptor[] loadMemberships(IdentityDescriptor descriptor);
+    }
+
+    private final Loader loader;
+    private final long timeToLiveMilliseconds;
+    private final boolean hierarchical;
+    private final char separator;
+    private final int elementLength;
+
+    /**
+     * Synchronizes {@link #accessControlLists}, {@link #memberships},
+     * {@link #answers} and {@link #generation}.
+     */
+    private final Object lock = new Object();
+
+    /**
+     * The access control lists loaded for each root token, by token.
+     */
+    private final Map<String, Entry<Map<String, AccessControlListDetails>>> accessControlLists =
+        new TreeMap<String, Entry<Map<String, AccessControlListDetails>>>(String.CASE_INSENSITIVE_ORDER);
+
+    /**
+     * Each identity and the groups it is a member of.
+     */
+    private final Map<IdentityDescriptor, Entry<Set<IdentityDescriptor>>> memberships =
+        new TreeMap<IdentityDescriptor, Entry<Set<IdentityDescriptor>>>(IdentityDescriptorComparer.INSTANCE);
+
+    private final Map<String, Entry<Boolean>> answers = new HashMap<String, Entry<Boolean>>();
+
+    /**
+     * Incremented by {@link #invalidate()}, so a load which started before the
+     * cache was invalidated isn't cached.
+     */
+    private long generation;
+
+    /**
+     * @param description
+     *        the namespace's description (must not be <code>null</code>)
+     * @param loader
+     *        reads what isn't cached (must not be <code>null</code>)
+     * @param timeToLiveMilliseconds
+     *        how long lists, memberships and answers are cached (must be >= 0)
+     */
+    public PermissionCache(
+        final SecurityNamespaceDescription description,
+        final Loader loader,
+        final long timeToLiveMilliseconds) {
+        Check.notNull(description, "description"); //$NON-NLS-1$
+        Check.notNull(loader, "loader"); //$NON-NLS-1$
+        Check.isTrue(timeToLiveMilliseconds >= 0, "timeToLiveMilliseconds >= 0"); //$NON-NLS-1$
+
+        this.loader = loader;
+        this.timeToLiveMilliseconds = timeToLiveMilliseconds;
+        this.hierarchical = description.getNamespaceStructure() == SecurityNamespaceStructure.HIERARCHICHAL;
+        this.separator = description.getSeparatorValue();
+        this.elementLength = description.getElementLength();
+    }
+
+    /**
+     * @return a cache whose time to live is read from
+     *         {@link #TIME_TO_LIVE_PROPERTY_NAME} if {@link #ENABLED_PROPERTY_NAME}
+     *         is set, otherwise <code>null</code>
+     */
+    public static PermissionCache createIfEnabled(final SecurityNamespaceDescription description, final Loader loader) {
+        if (!Boolean.getBoolean(ENABLED_PROPERTY_NAME)) {
+            return null;
+        }
+
+        final int timeToLiveSeconds = Integer.getInteger(TIME_TO_LIVE_PROPERTY_NAME, TIME_TO_LIVE_SECONDS_DEFAULT);
+        return new PermissionCache(description, loader, Math.max(0, timeToLiveSeconds) * 1000L);
+    }
+
+    /**
+     * Evaluates the permissions an identity has on a token.
+     *
+     * @param token
+     *        the token (must not be <code>null</code>)
+     * @param descriptor
+     *        the identity (must not be <code>null</code>)
+     * @return the permission bits the identity is allowed
+     */
+    public int getEffectiveAllow(final String token, final IdentityDescriptor descriptor) {
+        Check.notNull(token, "token"); //$NON-NLS-1$
+        Check.notNull(descriptor, "descriptor"); //$NON-NLS-1$
+
+        final List<String> tokens = getTokenAndAncestors(token);
+        final Map<String, AccessControlListDetails> lists = getAccessControlLists(tokens.get(tokens.size() - 1));
+        final Set<IdentityDescriptor> identities = getIdentities(descriptor);
+
+        int allow = 0;
+        int deny = 0;
+
+        for (final String levelToken : tokens) {
+            final AccessControlListDetails list = lists.get(levelToken);
+            if (list == null) {
+                continue;
+            }
+
+            int levelAllow = 0;
+            int levelDeny = 0;
+            for (final AccessControlEntryDetails entry : list.getAccessControlEntries()) {
+                final IdentityDescriptor entryDescriptor = entry.getSerializableDescriptor();
+                if (entryDescriptor != null && identities.contains(entryDescriptor)) {
+                    levelAllow |= entry.getAllow();
+                    levelDeny |= entry.getDeny();
+                }
+            }
+
+            // Nearer levels win; at the same level, deny wins
+            final int undecided = ~(allow | deny);
+            deny |= levelDeny & undecided;
+            allow |= levelAllow & ~levelDeny & undecided;
+
+            if (!list.isInheritPermissions()) {
+                break;
+            }
+        }
+
+        return allow;
+    }
+
+    /**
+     * @return <code>true</code> if the identity is allowed all the requested
+     *         permissions on the token
+     */
+    public boolean hasPermission(
+        final String token,
+        final IdentityDescriptor descriptor,
+        final int requestedPermissions) {
+        return (getEffectiveAllow(token, descriptor) & requestedPermissions) == requestedPermissions;
+    }
+
+    /**
+     * Gets a cached answer to a check this cache can't evaluate (for instance,
+     * one which depends on administrator rights), which the caller got from
+     * the server and stored with {@link #putAnswer(String, boolean, long)}.
+     *
+     * @param key
+     *        identifies the check (must not be <code>null</code>)
+     * @return the cached answer, or <code>null</code> if there is none
+     */
+    public Boolean getAnswer(final String key) {
+        Check.notNull(key, "key"); //$NON-NLS-1$
+
+        synchronized (lock) {
+            final Entry<Boolean> entry = answers.get(key);
+            return entry != null && !entry.isExpired() ? entry.value : null;
+        }
+    }
+
+    /**
+     * Caches the answer to a check (see {@link #getAnswer(String)}).
+     *
+     * @param key
+     *        identifies the check (must not be <code>null</code>)
+     * @param answer
+     *        the server's answer
+     * @param loadGeneration
+     *        the value of {@link #getGeneration()} before the server was asked
+     */
+    public void putAnswer(final String key, final boolean answer, final long loadGeneration) {
+        Check.notNull(key, "key"); //$NON-NLS-1$
+
+        synchronized (lock) {
+            if (loadGeneration == generation) {
+                if (answers.size() >= MAX_ANSWERS) {
+                    answers.clear();
+                }
+                answers.put(key, new Entry<Boolean>(Boolean.valueOf(answer)));
+            }
+        }
+    }
+
+    /**
+     * @return a value to pass to {@link #putAnswer(String, boolean, long)},
+     *         read before asking the server
+     */
+    public long getGeneration() {
+        synchronized (lock) {
+            return generation;
+        }
+    }
+
+    /**
+     * Drops all cached lists, memberships and answers.
+     */
+    public void invalidate() {
+        synchronized (lock) {
+            generation++;
+            accessControlLists.clear();
+            memberships.clear();
+            answers.clear();
+        }
+    }
+
+    /**
+     * @return the token, then each of its ancestors up to its root element
+     *         (just the token in a flat namespace)
+     */
+    List<String> getTokenAndAncestors(final String token) {
+        final List<String> tokens = new ArrayList<String>();
+
+        String current = trimSeparators(token);
+        tokens.add(current);
+
+        if (!hierarchical) {
+            return tokens;
+        }
+
+        while (true) {
+            final String parent;
+            if (separator != '\0') {
+                final int index = current.lastIndexOf(separator);
+                parent = index > 0 ? trimSeparators(current.substring(0, index)) : ""; //$NON-NLS-1$
+            } else if (elementLength > 0 && current.length() > elementLength) {
+                parent = current.substring(0, current.length() - elementLength);
+            } else {
+                parent = ""; //$NON-NLS-1$
+            }
+
+            if (parent.length() == 0) {
+                return tokens;
+            }
+
+            tokens.add(parent);
+            current = parent;
+        }
+    }
+
+    private String trimSeparators(final String token) {
+        if (separator == '\0') {
+            return token;
+        }
+
+        int end = token.length();
+        while (end > 1 && token.charAt(end - 1) == separator) {
+            end--;
+        }
+        return token.substring(0, end);
+    }
+
+    private Map<String, AccessControlListDetails> getAccessControlLists(final String rootToken) {
+        final long loadGeneration;
+        synchronized (lock) {
+            final Entry<Map<String, AccessControlListDetails>> entry = accessControlLists.get(rootToken);
+            if (entry != null && !entry.isExpired()) {
+                return entry.value;
+            }
+            loadGeneration = generation;
+        }
+
+        final AccessControlListDetails[] loaded = loader.loadAccessControlLists(rootToken, hierarchical);
+
+        final Map<String, AccessControlListDetails> lists =
+            new TreeMap<String, AccessControlListDetails>(String.CASE_INSENSITIVE_ORDER);
+        if (loaded != null) {
+            for (final AccessControlListDetails list : loaded) {
+                if (list != null && list.getToken() != null) {
+                    lists.put(trimSeparators(list.getToken()), list);
+                }
+            }
+        }
+
+        if (log.isDebugEnabled()) {
+            log.debug("Loaded " + lists.size() + " access control lists under " + rootToken); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+
+        synchronized (lock) {
+            if (loadGeneration == generation) {
+                accessControlLists.put(rootToken, new Entry<Map<String, AccessControlListDetails>>(lists));
+            }
+        }
+
+        return lists;
+    }
+
+    private Set<IdentityDescriptor> getIdentities(final IdentityDescriptor descriptor) {
+        final long loadGeneration;
+        synchronized (lock) {
+            final Entry<Set<IdentityDescriptor>> entry = memberships.get(descriptor);
+            if (entry != null && !entry.isExpired()) {
+                return entry.value;
+            }
+            loadGeneration = generation;
+        }
+
+        final Set<IdentityDescriptor> identities = new TreeSet<IdentityDescriptor>(IdentityDescriptorComparer.INSTANCE);
+        identities.add(descriptor);
+
+        final IdentityDescriptor[] groups = loader.loadMemberships(descriptor);
+        if (groups != null) {
+            for (final IdentityDescriptor group : groups) {
+                if (group != null) {
+                    identities.add(group);
+                }
+            }
+        }
+
+        synchronized (lock) {
+            if (loadGeneration == generation) {
+                memberships.put(descriptor, new Entry<Set<IdentityDescriptor>>(identities));
+            }
+        }
+
+        return identities;
+    }
+
+    private class Entry<T> {
+        public final T value;
+        private final long expires = System.currentTimeMillis() + timeToLiveMilliseconds;
+
+        public Entry(final T value) {
+            this.value = value;
+        }
+
+        public boolean isExpired() {
+            return System.currentTimeMillis() >= expires;
+        }
+    }
+}
@@ -0,0 +1,95 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the repository root.
+
+package com.microsoft.tfs.core.clients.versioncontrol;
+
+import com.microsoft.tfs.util.Check;
+
+/**
+ * Describes how long one file a get downloaded waited for a download worker
+ * and how long it took to download and complete.
+ *
+ * @since TEE-SDK-14.0
+ * @threadsafety immutable
+ */
+public final class DownloadTiming {
+    private final String serverItem;
+    private final long bytes;
+    private final long startTime;
+    private final long queuedMillis;
+    private final long downloadMillis;
+
+    /**
+     * @param serverItem
+     *        the server path of the file (must not be <code>null</code>)
+     * @param bytes
+     *        the number of bytes downloaded (must be >= 0)
+     * @param startTime
+     *        when the download started, in milliseconds since the epoch
+     * @param queuedMillis
+     *        how long the file waited for a worker before the download started
+     *        (must be >= 0)
+     * @param downloadMillis
+     *        how long the download (and the completion of the get operation)
+     *        took (must be >= 0)
+     */
+    public DownloadTiming(
+        final String serverItem,
+        final long bytes,
+        final long startTime,
+        final long queuedMillis,
+        final long downloadMillis) {
+        Check.notNull(serverItem, "serverItem"); //$NON-NLS-1$
+        Check.isTrue(bytes >= 0, "bytes >= 0"); //$NON-NLS-1$
+        Check.isTrue(queuedMillis >= 0, "queuedMillis >= 0"); //$NON-NLS-1$
+        Check.isTrue(downloadMillis >= 0, "downloadMillis >= 0"); //$NON-NLS-1$
+
+        this.serverItem = serverItem;
+        this.bytes = bytes;
+        this.startTime = startTime;
+        this.queuedMillis = queuedMillis;
+        this.downloadMillis = downloadMillis;
+    }
+
+    public String getServerItem() {
+        return serverItem;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * @return when the download started, in milliseconds since the epoch
+     */
+    public long getStartTime() {
+        return startTime;
+    }
+
+    /**
+     * @return when the download finished, in milliseconds since the epoch
+     */
+    public long getEndTime() {
+        return startTime + downloadMillis;
+    }
+
+    public long getQueuedMillis() {
+        return queuedMillis;
+    }
+
+    public long getDownloadMillis() {
+        return downloadMillis;
+    }
+
+    /**
+     * @return the bytes downloaded per second while this file downloaded
+     */
+    public long getBytesPerSecond() {
+        return bytes * 1000 / Math.max(1, downloadMillis);
+    }
+
+    @Override
+    public String toString() {
+        return serverItem + ": " + bytes + " bytes in " + downloadMillis + " ms (queued " + queuedMillis + " ms)"; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+    }
+}
@@ -4,6 +4,7 @@
 package com.microsoft.tfs.core.clients.versioncontrol;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.Failure;
@@ -11,9 +12,13 @@ import com.microsoft.tfs.util.Check;
 
 /**
  * Contains the status of a get operation that has completed.
+ * <p>
+ * The counts, failures and download timings are recorded by the get's
+ * partition and download workers at the same time, so all the methods are
+ * synchronized.
  *
  * @since TEE-SDK-10.1
- * @threadsafety thread-compatible
+ * @threadsafety thread-safe
  */
 public final class GetStatus {
     private int numOperations;
@@ -24,6 +29,7 @@ public final class GetStatus {
     private final List<Failure> failures = new ArrayList<Failure>();
     private boolean haveResolvableWarnings;
     private boolean canceled = false;
+    private final List<DownloadTiming> downloadTimings = new ArrayList<DownloadTiming>();
 
     public GetStatus() {
     }
@@ -32,19 +38,43 @@ public final class GetStatus {
      * Combining the status from 2 Get calls.
      */
     public void combine(final GetStatus getStatus) {
-        numOperations += getStatus.numOperations;
-        numConflicts += getStatus.numConflicts;
-        numUpdated += getStatus.numUpdated;
-        numWarnings += getStatus.numWarnings;
-        numResolvedConflicts += getStatus.numResolvedConflicts;
-        haveResolvableWarnings |= getStatus.haveResolvableWarnings;
-        failures.addAll(getStatus.failures);
+        final int otherNumOperations;
+        final int otherNumConflicts;
+        final int otherNumUpdated;
+        final int otherNumWarnings;
+        final int otherNumResolvedConflicts;
+        final boolean otherHaveResolvableWarnings;
+        final Failure[] otherFailures;
+        final DownloadTiming[] otherTimings;
+
+        // Don't hold both locks at once
+        synchronized (getStatus) {
+            otherNumOperations = getStatus.numOperations;
+            otherNumConflicts = getStatus.numConflicts;
+            otherNumUpdated = getStatus.numUpdated;
+            otherNumWarnings = getStatus.numWarnings;
+            otherNumResolvedConflicts = getStatus.numResolvedConflicts;
+            otherHaveResolvableWarnings = getStatus.haveResolvableWarnings;
+            otherFailures = getStatus.getFailures();
+            otherTimings = getStatus.getDownloadTimings();
+        }
+
+        synchronized (this) {
+            numOperations += otherNumOperations;
+            numConflicts += otherNumConflicts;
+            numUpdated += otherNumUpdated;
+            numWarnings += otherNumWarnings;
+            numResolvedConflicts += otherNumResolvedConflicts;
+            haveResolvableWarnings |= otherHaveResolvableWarnings;
+            failures.addAll(Arrays.asList(otherFailures));
+            downloadTimings.addAll(Arrays.asList(otherTimings));
+        }
     }
 
     /**
      * Get the failures generated by this invocation of get.
      */
-    public Failure[] getFailures() {
+    public synchronized Failure[] getFailures() {
         return failures.toArray(new Failure[failures.size()]);
     }
 
@@ -54,7 +84,7 @@ public final class GetStatus {
      * @param failure
      *        the failure to add (must not be <code>null</code>)
      */
-    public void addFailure(final Failure failure) {
+    public synchronized void addFailure(final Failure failure) {
         Check.notNull(failure, "failure"); //$NON-NLS-1$
         failures.add(failure);
     }
@@ -66,7 +96,7 @@ public final class GetStatus {
      *         set to the number of items passed in (in that case, the server
      *         was never called).
      */
-    public int getNumFailures() {
+    public synchronized int getNumFailures() {
         return failures.size();
     }
 
@@ -75,52 +105,52 @@ public final class GetStatus {
      *         returned no operations and no failures, everything was already up
      *         to date.
      */
-    public int getNumOperations() {
+    public synchronized int getNumOperations() {
         return numOperations;
     }
 
-    public void setNumOperations(final int value) {
+    public synchronized void setNumOperations(final int value) {
         numOperations = value;
     }
 
-    public void decrementNumOperations() {
+    public synchronized void decrementNumOperations() {
         numOperations--;
     }
 
     /**
      * @return The number of conflicts encountered by get.
      */
-    public int getNumConflicts() {
+    public synchronized int getNumConflicts() {
         return numConflicts;
     }
 
-    public void incrementNumConflicts() {
+    public synchronized void incrementNumConflicts() {
         numConflicts++;
     }
 
-    public void setNumConflicts(final int value) {
+    public synchronized void setNumConflicts(final int value) {
         numConflicts = value;
     }
 
     /**
      * @return the number of operations which updated the workspace.
      */
-    public int getNumUpdated() {
+    public synchronized int getNumUpdated() {
         return numUpdated;
     }
 
-    public void incrementNumUpdated() {
+    public synchronized void incrementNumUpdated() {
         numUpdated++;
     }
 
     /**
      * @return the number of warnings encountered by get.
      */
-    public int getNumWarnings() {
+    public synchronized int getNumWarnings() {
         return numWarnings;
     }
 
-    public void incrementNumWarnings() {
+    public synchronized void incrementNumWarnings() {
         numWarnings++;
     }
 
@@ -128,15 +158,15 @@ public final class GetStatus {
      * @return the number of conflicts resolved (by auto resolve or manual
      *         resolve)
      */
-    public int getNumResolvedConflicts() {
+    public synchronized int getNumResolvedConflicts() {
         return numResolvedConflicts;
     }
 
-    public void setNumResolvedConflicts(final int numResolvedConflicts) {
+    public synchronized void setNumResolvedConflicts(final int numResolvedConflicts) {
         this.numResolvedConflicts = numResolvedConflicts;
     }
 
-    public void incrementNumResolvedConflicts() {
+    public synchronized void incrementNumResolvedConflicts() {
         numResolvedConflicts++;
     }
 
@@ -146,7 +176,7 @@ public final class GetStatus {
      *
      * @return True when nothing needed to be done.
      */
-    public boolean isNoActionNeeded() {
+    public synchronized boolean isNoActionNeeded() {
         return getNumOperations() == 0
             && getNumConflicts() == 0
             && getNumWarnings() == 0
@@ -154,20 +184,78 @@ public final class GetStatus {
             && getNumResolvedConflicts() == 0;
     }
 
-    public boolean haveResolvableWarnings() {
+    public synchronized boolean haveResolvableWarnings() {
         return haveResolvableWarnings;
     }
 
-    public void setHaveResolvableWarnings(final boolean value) {
+    public synchronized void setHaveResolvableWarnings(final boolean value) {
         haveResolvableWarnings = value;
     }
 
-    public boolean isCanceled() {
+    public synchronized boolean isCanceled() {
         return canceled;
     }
 
-    public void setCanceled(final boolean canceled) {
+    public synchronized void setCanceled(final boolean canceled) {
         this.canceled = canceled;
     }
 
+    /**
+     * Records the timing of a file the get downloaded.
+     *
+     * @param timing
+     *        the timing to add (must not be <code>null</code>)
+     */
+    public synchronized void addDownloadTiming(final DownloadTiming timing) {
+        Check.notNull(timing, "timing"); //$NON-NLS-1$
+        downloadTimings.add(timing);
+    }
+
+    /**
+     * @return the timings of the files the get downloaded from the server, in
+     *         the order they finished (never <code>null</code>). Files which
+     *         were already on disk or came from the content cache are not
+     *         included.
+     */
+    public synchronized DownloadTiming[] getDownloadTimings() {
+        return downloadTimings.toArray(new DownloadTiming[downloadTimings.size()]);
+    }
+
+    /**
+     * @return the total number of bytes the get downloaded from the server
+     */
+    public synchronized long getNumBytesDownloaded() {
+        long bytes = 0;
+        for (final DownloadTiming timing : downloadTimings) {
+            bytes += timing.getBytes();
+        }
+        return bytes;
+    }
+
+    /**
+     * @return the milliseconds from the start of the first download to the end
+     *         of the last, or 0 if nothing was downloaded
+     */
+    public synchronized long getDownloadMillis() {
+        if (downloadTimings.isEmpty()) {
+            return 0;
+        }
+
+        long start = Long.MAX_VALUE;
+        long end = Long.MIN_VALUE;
+        for (final DownloadTiming timing : downloadTimings) {
+            start = Math.min(start, timing.getStartTime());
+            end = Math.max(end, timing.getEndTime());
+        }
+        return end - start;
+    }
+
+    /**
+     * @return the bytes downloaded per second over {@link #getDownloadMillis()}
+     *         (all the downloads together, including the time they overlapped)
+     */
+    public synchronized long getDownloadBytesPerSecond() {
+        return getNumBytesDownloaded() * 1000 / Math.max(1, getDownloadMillis());
+    }
+
 }
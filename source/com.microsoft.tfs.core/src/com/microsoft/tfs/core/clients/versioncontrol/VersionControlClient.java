@@ -29,6 +29,7 @@ import java.util.concurrent.SynchronousQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.zip.GZIPInputStream;
 
@@ -50,6 +51,7 @@ import com.microsoft.tfs.core.clients.security.ISecurityService;
 import com.microsoft.tfs.core.clients.security.SecurityNamespace;
 import com.microsoft.tfs.core.clients.security.SecurityService;
 import com.microsoft.tfs.core.clients.versioncontrol.engines.MergeEngine;
+import com.microsoft.tfs.core.clients.versioncontrol.engines.internal.DownloadScheduler;
 import com.microsoft.tfs.core.clients.versioncontrol.engines.internal.GetEngine;
 import com.microsoft.tfs.core.clients.versioncontrol.engines.internal.OutputStreamDownloadOutput;
 import com.microsoft.tfs.core.clients.versioncontrol.engines.internal.workers.TempDownloadWorker;
@@ -74,6 +76,7 @@ import com.microsoft.tfs.core.clients.versioncontrol.internal.HistoryIterator;
 import com.microsoft.tfs.core.clients.versioncontrol.internal.WebServiceLayer;
 import com.microsoft.tfs.core.clients.versioncontrol.internal.WebServiceLayerLocalWorkspaces;
 import com.microsoft.tfs.core.clients.versioncontrol.internal.concurrent.AccountingCompletionService;
+import com.microsoft.tfs.core.clients.versioncontrol.internal.concurrent.AdaptiveConcurrencyController;
 import com.microsoft.tfs.core.clients.versioncontrol.internal.concurrent.BoundedExecutor;
 import com.microsoft.tfs.core.clients.versioncontrol.internal.localworkspace.BaselineRequest;
 import com.microsoft.tfs.core.clients.versioncontrol.internal.localworkspace.LocalDataAccessLayer;
@@ -243,6 +246,46 @@ public final class VersionControlClient implements Closable {
      */
     private final static int DEFAULT_GET_ENGINE_WORKER_TIMEOUT_SECONDS = 20;
 
+    /**
+     * A property which, when set to <code>true</code>, lets the upload and
+     * download worker limits change at runtime with observed throughput and
+     * latency (see {@link AdaptiveConcurrencyController}). The configured
+     * worker limit is the starting limit; the limit for small files may grow
+     * to {@link #ADAPTIVE_WORKER_LIMIT_MULTIPLIER} times that.
+     */
+    private final static String ADAPTIVE_WORKERS_PROPERTY =
+        "com.microsoft.tfs.core.clients.versioncontrol.adaptiveworkers"; //$NON-NLS-1$
+
+    private final static int ADAPTIVE_WORKER_LIMIT_MULTIPLIER = 4;
+
+    /**
+     * Uploads of files at least this large run in their own pool when adaptive
+     * workers are enabled, so a few large transfers (limited by bandwidth)
+     * don't skew the limit for many small ones (limited by round trips).
+     */
+    private final static long LARGE_FILE_SIZE = 1024 * 1024;
+
+    /**
+     * A property which, when set to <code>true</code>, lets the get engine
+     * process the operations in directories which no other operation depends
+     * on (files gotten, replaced or deleted in place) on up to
+     * {@link #LOCAL_WORKER_LIMIT} threads, so their local disk work overlaps
+     * the downloads and the operations which must run in order.
+     */
+    private final static String PIPELINED_GET_PROPERTY =
+        "com.microsoft.tfs.core.clients.versioncontrol.pipelinedget"; //$NON-NLS-1$
+
+    private final static int LOCAL_WORKER_LIMIT = 4;
+
+    /**
+     * A property which picks the order the get engine runs downloads in:
+     * <code>largest</code> (largest first) or <code>smallest</code> (smallest
+     * first). Downloads run in the order the server sent the get operations
+     * when it isn't set. See {@link DownloadScheduler}.
+     */
+    private final static String DOWNLOAD_SCHEDULING_PROPERTY =
+        "com.microsoft.tfs.core.clients.versioncontrol.downloadscheduling"; //$NON-NLS-1$
+
     // Final instance fields
 
     /*
@@ -268,6 +311,19 @@ public final class VersionControlClient implements Closable {
      */
     private final BoundedExecutor uploadDownloadWorkerExecutor;
 
+    /**
+     * The executor for uploads of large files. The same as
+     * {@link #uploadDownloadWorkerExecutor} unless adaptive workers are
+     * enabled.
+     */
+    private final BoundedExecutor largeFileWorkerExecutor;
+
+    /**
+     * The executor for the get engine's local disk work, or <code>null</code>
+     * if pipelined gets are not enabled.
+     */
+    private final BoundedExecutor localWorkerExecutor;
+
     /**
      * Coordinates listeners and dispatches our events.
      */
@@ -470,7 +526,33 @@ public final class VersionControlClient implements Closable {
             TimeUnit.SECONDS,
             new SynchronousQueue<Runnable>());
 
-        uploadDownloadWorkerExecutor = new BoundedExecutor(threadPoolExecutor, maximumGetEngineWorkerThreads);
+        if (Boolean.getBoolean(ADAPTIVE_WORKERS_PROPERTY)) {
+            uploadDownloadWorkerExecutor = new BoundedExecutor(
+                threadPoolExecutor,
+                maximumGetEngineWorkerThreads,
+                new AdaptiveConcurrencyController(
+                    "upload/download workers", //$NON-NLS-1$
+                    1,
+                    maximumGetEngineWorkerThreads * ADAPTIVE_WORKER_LIMIT_MULTIPLIER));
+
+            final int largeFileWorkers = Math.max(1, maximumGetEngineWorkerThreads / 2);
+            largeFileWorkerExecutor = new BoundedExecutor(
+                threadPoolExecutor,
+                largeFileWorkers,
+                new AdaptiveConcurrencyController(
+                    "large file upload workers", //$NON-NLS-1$
+                    1,
+                    Math.max(largeFileWorkers, maximumGetEngineWorkerThreads)));
+        } else {
+            uploadDownloadWorkerExecutor = new BoundedExecutor(threadPoolExecutor, maximumGetEngineWorkerThreads);
+            largeFileWorkerExecutor = uploadDownloadWorkerExecutor;
+        }
+
+        if (Boolean.getBoolean(PIPELINED_GET_PROPERTY)) {
+            localWorkerExecutor = new BoundedExecutor(threadPoolExecutor, LOCAL_WORKER_LIMIT);
+        } else {
+            localWorkerExecutor = null;
+        }
 
         /*
          * Configure default property filters for the Unix execute bit.
@@ -671,6 +753,37 @@ public final class VersionControlClient implements Closable {
         return uploadDownloadWorkerExecutor;
     }
 
+    /**
+     * Gets the executor for a transfer of a file of a known size. Large files
+     * use their own executor when adaptive workers are enabled; otherwise this
+     * is the same as {@link #getUploadDownloadWorkerExecutor()}. The current
+     * limit and in-flight counts are available from the executor.
+     *
+     * @param fileSize
+     *        the size of the file in bytes
+     * @return the {@link BoundedExecutor} to run the transfer on
+     */
+    public BoundedExecutor getUploadDownloadWorkerExecutor(final long fileSize) {
+        return fileSize >= LARGE_FILE_SIZE ? largeFileWorkerExecutor : uploadDownloadWorkerExecutor;
+    }
+
+    /**
+     * @return the {@link BoundedExecutor} that throttles the get engine's local
+     *         disk work, or <code>null</code> if the get engine processes all
+     *         operations on the calling thread
+     */
+    public BoundedExecutor getLocalWorkerExecutor() {
+        return localWorkerExecutor;
+    }
+
+    /**
+     * @return the order the get engine runs downloads in (never
+     *         <code>null</code>)
+     */
+    public DownloadScheduler.Policy getDownloadSchedulingPolicy() {
+        return DownloadScheduler.Policy.fromPropertyValue(System.getProperty(DOWNLOAD_SCHEDULING_PROPERTY));
+    }
+
     /**
      * Gets the workspace containing a mapping for the given path. May throw a
      * {@link ItemNotMappedException} if there is no mapping or it's not mapped
@@ -2440,12 +2553,14 @@ public final class VersionControlClient implements Closable {
      * @param taskMonitor
      *        a custom {@link TaskMonitor} or <code>null</code> to use the
      *        monitor from the {@link TaskMonitorService}
+     * @return the number of bytes the server sent for the attempt which
+     *         succeeded (the compressed size, if the file was sent compressed)
      * @throws CanceledException
      *         if the download was cancelled by the user via core's
      *         {@link TaskMonitor}. The output streams may have had some data
      *         written to them.
      */
-    public void downloadFileToStreams(
+    public long downloadFileToStreams(
         final DownloadSpec spec,
         final DownloadOutput[] outputs,
         EventSource eventSource,
@@ -2488,12 +2603,10 @@ public final class VersionControlClient implements Closable {
                     resetOutputs(outputs);
                 }
 
-                downloadFileToStreamsInternal(spec, outputs, taskMonitor);
-
                 /*
                  * This breaks from the loop in the success case.
                  */
-                return;
+                return downloadFileToStreamsInternal(spec, outputs, taskMonitor);
             } catch (final SocketException e) {
                 log.warn("SocketException for " + spec.getQueryString(), e); //$NON-NLS-1$
                 /*
@@ -2505,6 +2618,8 @@ public final class VersionControlClient implements Closable {
                     throw new VersionControlException(e);
                 }
 
+                uploadDownloadWorkerExecutor.recordTransferFailure();
+
                 if (retryCount == maxRetry) {
                     log.warn(MessageFormat.format(
                         "Max retry reached {0}, not trying any longer", //$NON-NLS-1$
@@ -2520,6 +2635,8 @@ public final class VersionControlClient implements Closable {
             } catch (final SocketTimeoutException e) {
                 log.warn("SocketTimeoutException for " + spec.getQueryString(), e); //$NON-NLS-1$
 
+                uploadDownloadWorkerExecutor.recordTransferFailure();
+
                 if (retryCount == maxRetry) {
                     log.warn(MessageFormat.format(
                         "Max retry reached {0}, not trying any longer", //$NON-NLS-1$
@@ -2583,6 +2700,9 @@ public final class VersionControlClient implements Closable {
                 throw new VersionControlException(e);
             }
         }
+
+        // Every attempt was retried without downloading anything
+        return 0;
     }
 
     /**
@@ -2615,9 +2735,11 @@ public final class VersionControlClient implements Closable {
     /**
      * Downloads to one or more output streams, immediately throwing on all
      * errors (never retries). The streams are always left open.
+     *
+     * @return the number of bytes read from the response body
      */
     @SuppressWarnings("resource")
-    private void downloadFileToStreamsInternal(
+    private long downloadFileToStreamsInternal(
         final DownloadSpec spec,
         final DownloadOutput[] outputs,
         TaskMonitor taskMonitor) throws CanceledException, DownloadProxyException, SocketException {
@@ -2635,7 +2757,27 @@ public final class VersionControlClient implements Closable {
             final Header contentLength = method.getResponseHeader("Content-Length"); //$NON-NLS-1$
             final Header contentType = method.getResponseHeader("Content-Type"); //$NON-NLS-1$
 
-            responseStream = method.getResponseBodyAsStream();
+            /*
+             * Count the bytes as they come from the server, before they are
+             * gunzipped.
+             */
+            final AtomicLong wireBytes = new AtomicLong();
+            responseStream = new TappedInputStream(method.getResponseBodyAsStream(), new ReadHandler() {
+                @Override
+                public void handleRead(final byte[] b, final int off, final int len, final int readCount) {
+                    wireBytes.addAndGet(readCount);
+                }
+
+                @Override
+                public void handleRead(final byte[] b, final int readCount) {
+                    wireBytes.addAndGet(readCount);
+                }
+
+                @Override
+                public void handleRead(final byte b) {
+                    wireBytes.incrementAndGet();
+                }
+            });
 
             /*
              * Split the outputs into two lists: those that require the wire
@@ -2763,6 +2905,8 @@ public final class VersionControlClient implements Closable {
 
             finishDownloadRequest(method);
             method = null;
+
+            return wireBytes.get();
         } catch (final SocketException e) {
             throw e;
         } catch (final IOException e) {
@@ -34,6 +34,8 @@ import com.microsoft.tfs.core.clients.versioncontrol.events.WorkspaceUpdatedEven
 import com.microsoft.tfs.core.clients.versioncontrol.events.WorkstationNonFatalErrorEvent;
 import com.microsoft.tfs.core.clients.versioncontrol.exceptions.VersionControlException;
 import com.microsoft.tfs.core.clients.versioncontrol.internal.localworkspace.LocalItemExclusionCache;
+import com.microsoft.tfs.core.clients.versioncontrol.localworkspace.IgnoreFile;
+import com.microsoft.tfs.core.clients.versioncontrol.localworkspace.LocalItemExclusionEvaluator;
 import com.microsoft.tfs.core.clients.versioncontrol.path.LocalPath;
 import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.ServerSettings;
 import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.Workspace;
@@ -1346,6 +1348,18 @@ public class Workstation {
         return getLocalItemExclusionCache().getExclusions(serverInfo);
     }
 
+    /**
+     * Returns the set of local item exclusions for this user on this machine as
+     * an {@link IgnoreFile} for {@link LocalItemExclusionEvaluator}. The same
+     * instance is returned until the exclusions change.
+     */
+    public IgnoreFile getLocalItemExclusionsIgnoreFile(final VersionControlClient client) {
+        final InternalServerInfo serverInfo =
+            getCache().getServerInfoByGUID(client.getServerGUID(), client.getConnection().getBaseURI());
+
+        return getLocalItemExclusionCache().getExclusionsIgnoreFile(serverInfo);
+    }
+
     /**
      * Overwrites the list of local item exclusions with the list passed in.
      *
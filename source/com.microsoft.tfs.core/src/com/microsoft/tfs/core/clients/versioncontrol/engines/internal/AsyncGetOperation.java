@@ -24,6 +24,7 @@ import com.microsoft.tfs.core.clients.versioncontrol.UpdateLocalVersionQueue;
 import com.microsoft.tfs.core.clients.versioncontrol.UpdateLocalVersionQueueOptions;
 import com.microsoft.tfs.core.clients.versioncontrol.engines.internal.workers.WorkerStatus;
 import com.microsoft.tfs.core.clients.versioncontrol.internal.concurrent.AccountingCompletionService;
+import com.microsoft.tfs.core.clients.versioncontrol.internal.concurrent.BoundedExecutor;
 import com.microsoft.tfs.core.clients.versioncontrol.internal.localworkspace.BaselineFolderCollection;
 import com.microsoft.tfs.core.clients.versioncontrol.internal.localworkspace.WorkspaceLock;
 import com.microsoft.tfs.core.clients.versioncontrol.path.LocalPath;
@@ -49,6 +50,7 @@ public final class AsyncGetOperation extends AsyncOperation implements Closeable
     private final boolean deleteUndoneAdds;
     private final ChangePendedFlags flags;
     private final AccountingCompletionService<WorkerStatus> completionService;
+    private final DownloadScheduler downloadScheduler;
 
     /**
      * A lookup table of all of the existing local paths we are affecting.
@@ -88,7 +90,9 @@ public final class AsyncGetOperation extends AsyncOperation implements Closeable
         final WorkspaceLock wLock,
         final UpdateLocalVersionQueueOptions localUpdateOptions,
         final ChangePendedFlags flags,
-        final AccountingCompletionService<WorkerStatus> completionService) {
+        final AccountingCompletionService<WorkerStatus> completionService,
+        final BoundedExecutor downloadExecutor,
+        final DownloadScheduler.Policy downloadSchedulingPolicy) {
         super();
 
         Check.notNull(workspace, "workspace"); //$NON-NLS-1$
@@ -99,6 +103,8 @@ public final class AsyncGetOperation extends AsyncOperation implements Closeable
         Check.notNull(flags, "flags"); //$NON-NLS-1$
         // wLock may be null
         Check.notNull(completionService, "completionService"); //$NON-NLS-1$
+        Check.notNull(downloadExecutor, "downloadExecutor"); //$NON-NLS-1$
+        Check.notNull(downloadSchedulingPolicy, "downloadSchedulingPolicy"); //$NON-NLS-1$
 
         this.type = type;
         this.getStatus = new GetStatus();
@@ -116,6 +122,8 @@ public final class AsyncGetOperation extends AsyncOperation implements Closeable
         this.deleteUndoneAdds = deleteUndoneAdds;
         this.flags = flags;
         this.completionService = completionService;
+        this.downloadScheduler =
+            new DownloadScheduler(completionService, downloadExecutor, downloadSchedulingPolicy, this, getStatus);
     }
 
     /**
@@ -351,6 +359,14 @@ public final class AsyncGetOperation extends AsyncOperation implements Closeable
         return completionService;
     }
 
+    /**
+     * @return the scheduler which runs this get's downloads on the
+     *         {@link #getCompletionService()}
+     */
+    public DownloadScheduler getDownloadScheduler() {
+        return downloadScheduler;
+    }
+
     public WorkspaceLock getWorkspaceLock() {
         return workspaceLock;
     }
@@ -13,7 +13,9 @@ import java.io.UnsupportedEncodingException;
 import java.io.Writer;
 import java.nio.charset.Charset;
 import java.text.MessageFormat;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.CompletionService;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -35,6 +37,7 @@ import com.microsoft.tfs.core.clients.versioncontrol.exceptions.VersionControlEx
 import com.microsoft.tfs.core.clients.versioncontrol.internal.concurrent.AccountingCompletionService;
 import com.microsoft.tfs.core.clients.versioncontrol.internal.concurrent.AccountingCompletionService.ExecutionExceptionHandler;
 import com.microsoft.tfs.core.clients.versioncontrol.internal.concurrent.AccountingCompletionService.ResultProcessor;
+import com.microsoft.tfs.core.clients.versioncontrol.internal.concurrent.BoundedExecutor;
 import com.microsoft.tfs.core.clients.versioncontrol.internal.fileattributes.FileAttributeNames;
 import com.microsoft.tfs.core.clients.versioncontrol.internal.fileattributes.FileAttributeValues;
 import com.microsoft.tfs.core.clients.versioncontrol.internal.fileattributes.FileAttributesCollection;
@@ -166,11 +169,30 @@ public class CheckinEngine {
             final AccountingCompletionService<WorkerStatus> completions =
                 new AccountingCompletionService<WorkerStatus>(client.getUploadDownloadWorkerExecutor());
 
+            /*
+             * Large files may have their own executor (when the worker limits
+             * are adaptive), which needs its own completion service.
+             */
+            final BoundedExecutor largeFileExecutor = client.getUploadDownloadWorkerExecutor(Long.MAX_VALUE);
+            final AccountingCompletionService<WorkerStatus> largeFileCompletions =
+                largeFileExecutor == client.getUploadDownloadWorkerExecutor() ? completions
+                    : new AccountingCompletionService<WorkerStatus>(largeFileExecutor);
+
             final AsyncCheckinOperation asyncOp = new AsyncCheckinOperation(workspaceLock);
 
             try {
                 int uploadedCount = 0;
 
+                /*
+                 * Hash the files to upload in parallel (uploadFile hashes each
+                 * one to see if its upload can be skipped).
+                 */
+                try {
+                    FileHashService.getInstance().prefetchMD5Hashes(getUploadedLocalItems(changes), monitor);
+                } catch (final CanceledException e) {
+                    throw new CoreCancelException();
+                }
+
                 for (final PendingChange change : changes) {
                     throwIfCanceled(monitor);
 
@@ -230,7 +252,7 @@ public class CheckinEngine {
                             asyncOp.getWorkspaceLock().yield();
                         }
 
-                        uploadFile(change, completions, asyncOp);
+                        uploadFile(change, completions, largeFileCompletions, asyncOp);
                     } else if (changeType.contains(ChangeType.DELETE) == false
                         && changeType.contains(ChangeType.LOCK) == false
                         && changeType.contains(ChangeType.RENAME) == false
@@ -248,6 +270,17 @@ public class CheckinEngine {
                  */
                 waitForCompletions(completions);
 
+                if (largeFileCompletions != completions) {
+                    waitForCompletions(largeFileCompletions);
+                }
+
+                if (log.isDebugEnabled()) {
+                    log.debug(MessageFormat.format(
+                        "Uploads finished with worker limit {0} ({1} for large files)", //$NON-NLS-1$
+                        client.getUploadDownloadWorkerExecutor().getLimit(),
+                        largeFileExecutor.getLimit()));
+                }
+
                 monitor.done();
             }
 
@@ -261,6 +294,26 @@ public class CheckinEngine {
         }
     }
 
+    /**
+     * @return the local items of the changes whose content
+     *         {@link #uploadChanges(PendingChange[], boolean, boolean)} uploads
+     */
+    private static String[] getUploadedLocalItems(final PendingChange[] changes) {
+        final List<String> localItems = new ArrayList<String>(changes.length);
+
+        for (final PendingChange change : changes) {
+            final ChangeType changeType = change.getChangeType();
+
+            if (changeType.contains(ChangeType.EDIT)
+                && (changeType.contains(ChangeType.MERGE) && changeType.contains(ChangeType.DELETE)) == false
+                && change.getLocalItem() != null) {
+                localItems.add(change.getLocalItem());
+            }
+        }
+
+        return localItems.toArray(new String[localItems.size()]);
+    }
+
     private void throwIfCanceled(final TaskMonitor taskMonitor) throws CoreCancelException {
         if (taskMonitor.isCanceled()) {
             throw new CoreCancelException();
@@ -315,7 +368,12 @@ public class CheckinEngine {
      * @param change
      *        the pending change whose file should be uploaded.
      * @param completionService
-     *        where the uploads were submitted (must not be <code>null</code>)
+     *        where uploads of small files are submitted (must not be
+     *        <code>null</code>)
+     * @param largeFileCompletionService
+     *        where uploads of large files are submitted (must not be
+     *        <code>null</code>, may be the same as
+     *        <code>completionService</code>)
      * @param state
      *        the state kept during checkin to note errors.
      * @throws CheckinException
@@ -326,6 +384,7 @@ public class CheckinEngine {
     private void uploadFile(
         PendingChange change,
         final CompletionService<WorkerStatus> completionService,
+        final CompletionService<WorkerStatus> largeFileCompletionService,
         final AsyncCheckinOperation state) throws CheckinException, CoreCancelException {
         Check.notNull(change, "change"); //$NON-NLS-1$
 
@@ -537,7 +596,12 @@ public class CheckinEngine {
          * disk-bound when we have many small files spread all over the disk
          * (out of cache).
          */
-        completionService.submit(
+        final long fileLength = new File(change.getLocalItem()).length();
+        final CompletionService<WorkerStatus> service =
+            client.getUploadDownloadWorkerExecutor(fileLength) == client.getUploadDownloadWorkerExecutor()
+                ? completionService : largeFileCompletionService;
+
+        service.submit(
             new CheckinWorker(TaskMonitorService.getTaskMonitor(), client, workspace, change, localMD5Hash, state));
     }
 
@@ -613,7 +677,7 @@ public class CheckinEngine {
 
         final File file = new File(fileName);
         try {
-            return HashUtils.hashFile(file, HashUtils.ALGORITHM_MD5, taskMonitor);
+            return FileHashService.getInstance().getMD5Hash(file, taskMonitor);
         } catch (final CanceledException e) {
             throw new CoreCancelException();
         } catch (final FileNotFoundException e) {
@@ -0,0 +1,355 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the repository root.
+
+package com.microsoft.tfs.core.clients.versioncontrol.engines.internal;
+
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.microsoft.tfs.core.clients.versioncontrol.DownloadTiming;
+import com.microsoft.tfs.core.clients.versioncontrol.GetStatus;
+import com.microsoft.tfs.core.clients.versioncontrol.engines.internal.workers.DownloadWorker;
+import com.microsoft.tfs.core.clients.versioncontrol.engines.internal.workers.Worker;
+import com.microsoft.tfs.core.clients.versioncontrol.engines.internal.workers.WorkerStatus;
+import com.microsoft.tfs.core.clients.versioncontrol.engines.internal.workers.WorkerStatus.FinalState;
+import com.microsoft.tfs.core.clients.versioncontrol.internal.concurrent.AccountingCompletionService;
+import com.microsoft.tfs.core.clients.versioncontrol.internal.concurrent.BoundedExecutor;
+import com.microsoft.tfs.util.Check;
+import com.microsoft.tfs.util.TypesafeEnum;
+
+/**
+ * Decides the order a get's downloads run in, and records how long each one
+ * waited and took in the get's {@link GetStatus}.
+ * <p>
+ * Downloads are queued here and run by up to the download executor's limit of
+ * tasks submitted to the get's completion service, each of which runs the
+ * best queued download, then the next best, until the queue is empty. With
+ * {@link Policy#IN_ORDER} the best download is the one queued first, which is
+ * how the get engine has always run them. With the other policies, downloads
+ * queue up while all the workers are busy (up to {@link #MAX_QUEUED}, after
+ * which {@link #schedule(DownloadWorker, String, long)} blocks), and the
+ * largest or smallest one runs next. Files smaller than
+ * {@link #SMALL_FILE_SIZE} have their own lane, which takes turns with the
+ * other, so a stream of small files doesn't wait for the large ones (or the
+ * other way around). Queued downloads are skipped once a download fails
+ * fatally.
+ * <p>
+ * The server doesn't send the sizes of the files a get downloads, so the size
+ * of a download is the size of the local file it replaces. Downloads of new
+ * files have no size, and run after the ones with sizes in their lane, in the
+ * order they were queued.
+ *
+ * @threadsafety thread-safe
+ */
+public final class DownloadScheduler {
+    private static final Log log = LogFactory.getLog(DownloadScheduler.class);
+
+    /**
+     * The order downloads run in.
+     */
+    public static final class Policy extends TypesafeEnum {
+        private Policy(final int value) {
+            super(value);
+        }
+
+        /**
+         * Downloads run in the order they were queued.
+         */
+        public static final Policy IN_ORDER = new Policy(0);
+
+        /**
+         * The largest download runs first, so a large file queued late doesn't
+         * make the get wait for it after all the others are done.
+         */
+        public static final Policy LARGEST_FIRST = new Policy(1);
+
+        /**
+         * The smallest download runs first, so as many files as possible are
+         * ready as soon as possible (for gets a user waits on).
+         */
+        public static final Policy SMALLEST_FIRST = new Policy(2);
+
+        /**
+         * @param value
+         *        the value of a property naming a policy (<code>largest</code>
+         *        or <code>smallest</code>, may be <code>null</code>)
+         * @return the named policy, or {@link #IN_ORDER} if the value doesn't
+         *         name one
+         */
+        public static Policy fromPropertyValue(final String value) {
+            if ("largest".equalsIgnoreCase(value)) //$NON-NLS-1$
+            {
+                return LARGEST_FIRST;
+            } else if ("smallest".equalsIgnoreCase(value)) //$NON-NLS-1$
+            {
+                return SMALLEST_FIRST;
+            }
+            return IN_ORDER;
+        }
+    }
+
+    /**
+     * Downloads of files smaller than this many bytes use the small file lane.
+     */
+    public static final long SMALL_FILE_SIZE = 64 * 1024;
+
+    /**
+     * The most downloads which may wait in the queues before
+     * {@link #schedule(DownloadWorker, String, long)} blocks, so the get
+     * engine doesn't get too far ahead of the downloads.
+     */
+    public static final int MAX_QUEUED = 256;
+
+    private final AccountingCompletionService<WorkerStatus> completionService;
+    private final BoundedExecutor executor;
+    private final Policy policy;
+    private final AsyncOperation asyncOp;
+    private final GetStatus getStatus;
+
+    /*
+     * The queues and counts are guarded by this object's monitor.
+     */
+    private final PriorityQueue<Download> smallLane;
+    private final PriorityQueue<Download> largeLane;
+    private boolean smallLaneNext;
+    private long queuedCount;
+    private int runnerCount;
+
+    /**
+     * @param completionService
+     *        the get's completion service, which runs the downloads (must not
+     *        be <code>null</code>)
+     * @param executor
+     *        the executor the completion service submits to, whose limit is
+     *        the most downloads which run at once (must not be
+     *        <code>null</code>)
+     * @param policy
+     *        the order downloads run in (must not be <code>null</code>)
+     * @param asyncOp
+     *        the get, whose fatal error stops the queued downloads (must not
+     *        be <code>null</code>)
+     * @param getStatus
+     *        the get's status, which the download timings are recorded in
+     *        (must not be <code>null</code>)
+     */
+    public DownloadScheduler(
+        final AccountingCompletionService<WorkerStatus> completionService,
+        final BoundedExecutor executor,
+        final Policy policy,
+        final AsyncOperation asyncOp,
+        final GetStatus getStatus) {
+        Check.notNull(completionService, "completionService"); //$NON-NLS-1$
+        Check.notNull(executor, "executor"); //$NON-NLS-1$
+        Check.notNull(policy, "policy"); //$NON-NLS-1$
+        Check.notNull(asyncOp, "asyncOp"); //$NON-NLS-1$
+        Check.notNull(getStatus, "getStatus"); //$NON-NLS-1$
+
+        this.completionService = completionService;
+        this.executor = executor;
+        this.policy = policy;
+        this.asyncOp = asyncOp;
+        this.getStatus = getStatus;
+
+        final Comparator<Download> comparator = new DownloadComparator(policy);
+        smallLane = new PriorityQueue<Download>(16, comparator);
+        largeLane = new PriorityQueue<Download>(16, comparator);
+    }
+
+    /**
+     * Queues a download. Waiting for the completion service's submissions
+     * waits for every download queued before.
+     *
+     * @param worker
+     *        the download (must not be <code>null</code>)
+     * @param serverItem
+     *        the server path of the file (must not be <code>null</code>)
+     * @param sizeEstimate
+     *        the size of the file in bytes, or -1 if it is not known
+     */
+    public void schedule(final DownloadWorker worker, final String serverItem, final long sizeEstimate) {
+        Check.notNull(worker, "worker"); //$NON-NLS-1$
+        Check.notNull(serverItem, "serverItem"); //$NON-NLS-1$
+
+        final boolean startRunner;
+        synchronized (this) {
+            // In order, a download waits only until a worker is free
+            final int maxQueued = policy == Policy.IN_ORDER ? 1 : MAX_QUEUED;
+            while (smallLane.size() + largeLane.size() >= maxQueued) {
+                try {
+                    wait();
+                } catch (final InterruptedException e) {
+                    log.warn("Interrupted waiting for room in the download queue", e); //$NON-NLS-1$
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+
+            final Download download = new Download(worker, serverItem, sizeEstimate, queuedCount++);
+            if (policy != Policy.IN_ORDER && sizeEstimate >= 0 && sizeEstimate < SMALL_FILE_SIZE) {
+                smallLane.add(download);
+            } else {
+                largeLane.add(download);
+            }
+
+            startRunner = runnerCount < executor.getLimit();
+            if (startRunner) {
+                runnerCount++;
+            }
+        }
+
+        if (startRunner) {
+            completionService.submit(new Runner());
+        }
+    }
+
+    /**
+     * Runs a download on this thread, before any download queued after it.
+     *
+     * @param worker
+     *        the download (must not be <code>null</code>)
+     * @param serverItem
+     *        the server path of the file (must not be <code>null</code>)
+     * @throws Exception
+     *         if the worker throws
+     */
+    public WorkerStatus runNow(final DownloadWorker worker, final String serverItem) throws Exception {
+        return new Download(worker, serverItem, -1, -1).call();
+    }
+
+    /**
+     * @return the best queued download, or <code>null</code> (and the calling
+     *         runner is done) if none are queued
+     */
+    private synchronized Download take() {
+        final Download download;
+        if (smallLane.isEmpty()) {
+            download = largeLane.poll();
+        } else if (largeLane.isEmpty()) {
+            download = smallLane.poll();
+        } else {
+            download = smallLaneNext ? smallLane.poll() : largeLane.poll();
+            smallLaneNext = !smallLaneNext;
+        }
+
+        if (download == null) {
+            runnerCount--;
+        } else {
+            notifyAll();
+        }
+        return download;
+    }
+
+    /**
+     * Runs queued downloads until there are none. Its status is the worst of
+     * the downloads it ran ({@link FinalState#ERROR}, then
+     * {@link FinalState#CANCELED}), or {@link FinalState#NORMAL} if they all
+     * finished normally or another runner took the downloads queued when it
+     * was submitted.
+     */
+    private class Runner implements Worker {
+        @Override
+        public WorkerStatus call() throws Exception {
+            WorkerStatus result = new WorkerStatus(this, FinalState.NORMAL);
+
+            Download download;
+            while ((download = take()) != null) {
+                WorkerStatus status;
+                try {
+                    status = download.call();
+                } catch (final Exception e) {
+                    /*
+                     * Download workers report their own errors, so this is
+                     * unexpected, but the other queued downloads must still
+                     * run.
+                     */
+                    log.warn("Download worker exception", e); //$NON-NLS-1$
+                    status = new WorkerStatus(download.worker, FinalState.ERROR);
+                }
+
+                if (status != null && status.getFinalState().getValue() > result.getFinalState().getValue()) {
+                    result = status;
+                }
+            }
+
+            return result;
+        }
+    }
+
+    private class Download implements Callable<WorkerStatus> {
+        private final DownloadWorker worker;
+        private final String serverItem;
+        private final long sizeEstimate;
+        private final long sequence;
+        private final long queuedTime = System.currentTimeMillis();
+
+        public Download(
+            final DownloadWorker worker,
+            final String serverItem,
+            final long sizeEstimate,
+            final long sequence) {
+            this.worker = worker;
+            this.serverItem = serverItem;
+            this.sizeEstimate = sizeEstimate;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public WorkerStatus call() throws Exception {
+            if (asyncOp.getFatalError() != null) {
+                return new WorkerStatus(worker, FinalState.CANCELED);
+            }
+
+            final long startTime = System.currentTimeMillis();
+            try {
+                return worker.call();
+            } finally {
+                final long bytes = worker.getDownloadedBytes();
+                if (bytes >= 0) {
+                    final long endTime = System.currentTimeMillis();
+                    getStatus.addDownloadTiming(new DownloadTiming(
+                        serverItem,
+                        bytes,
+                        startTime,
+                        Math.max(0, startTime - queuedTime),
+                        Math.max(0, endTime - startTime)));
+                }
+            }
+        }
+    }
+
+    /**
+     * Orders downloads by a {@link Policy}. Downloads with no size estimate
+     * sort after those with one, and downloads which sort the same run in the
+     * order they were queued.
+     */
+    private static class DownloadComparator implements Comparator<Download> {
+        private final Policy policy;
+
+        public DownloadComparator(final Policy policy) {
+            this.policy = policy;
+        }
+
+        @Override
+        public int compare(final Download a, final Download b) {
+            if (policy != Policy.IN_ORDER) {
+                final boolean aKnown = a.sizeEstimate >= 0;
+                final boolean bKnown = b.sizeEstimate >= 0;
+
+                if (aKnown != bKnown) {
+                    return aKnown ? -1 : 1;
+                }
+
+                if (aKnown && a.sizeEstimate != b.sizeEstimate) {
+                    final boolean aFirst = (policy == Policy.LARGEST_FIRST) == (a.sizeEstimate > b.sizeEstimate);
+                    return aFirst ? -1 : 1;
+                }
+            }
+
+            return a.sequence < b.sequence ? -1 : (a.sequence == b.sequence ? 0 : 1);
+        }
+    }
+}
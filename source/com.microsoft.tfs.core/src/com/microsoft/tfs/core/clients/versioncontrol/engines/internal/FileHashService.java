@@ -0,0 +1,351 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the repository root.
+
+package com.microsoft.tfs.core.clients.versioncontrol.engines.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.microsoft.tfs.core.Messages;
+import com.microsoft.tfs.util.Check;
+import com.microsoft.tfs.util.HashUtils;
+import com.microsoft.tfs.util.tasks.CanceledException;
+import com.microsoft.tfs.util.tasks.TaskMonitor;
+
+/**
+ * Computes the MD5 hashes of local files, which check-in, undo unchanged, get
+ * and the local workspace scanner compare with the hashes of the server's
+ * content. Hashes are cached by the file's path, length and last modified
+ * time (the same test the local workspace scanner uses to decide whether a
+ * file may have changed), so a file which hasn't changed is hashed once no
+ * matter how many operations in the process look at it.
+ * {@link #prefetchMD5Hashes(String[], TaskMonitor)} hashes many files at once
+ * on a small pool of threads shared by all callers, so the callers' following
+ * requests for the hashes are served from the cache.
+ * <p>
+ * A file modified within {@link #RACY_INTERVAL_MILLIS} of being hashed is not
+ * cached, because a second change in the same instant (as far as the file
+ * system's timestamps can tell) would not change the key.
+ *
+ * @threadsafety thread-safe
+ */
+public class FileHashService {
+    private static final Log log = LogFactory.getLog(FileHashService.class);
+
+    /**
+     * A property which sets the most threads used to prefetch hashes for all
+     * callers together.
+     */
+    private static final String THREADS_PROPERTY_NAME =
+        "com.microsoft.tfs.core.clients.versioncontrol.hashthreads"; //$NON-NLS-1$
+
+    /**
+     * A property which sets the most hashes cached (0 disables the cache).
+     */
+    private static final String CACHE_SIZE_PROPERTY_NAME =
+        "com.microsoft.tfs.core.clients.versioncontrol.hashcachesize"; //$NON-NLS-1$
+
+    /**
+     * How long after its last modification a file must be hashed for the hash
+     * to be cached (2 seconds covers the coarsest timestamps, FAT's).
+     */
+    public static final long RACY_INTERVAL_MILLIS = 2000;
+
+    /**
+     * How often the throughput is reported while prefetching.
+     */
+    private static final long REPORT_INTERVAL_MILLIS = 500;
+
+    private static final FileHashService instance = new FileHashService(
+        Math.max(1, Integer.getInteger(THREADS_PROPERTY_NAME, Math.min(4, availableProcessors())).intValue()),
+        Math.max(0, Integer.getInteger(CACHE_SIZE_PROPERTY_NAME, 50000).intValue()));
+
+    private final ThreadPoolExecutor executor;
+    private final int cacheSize;
+
+    /**
+     * Absolute path to {@link CacheEntry}, least recently used first. Guarded
+     * by itself.
+     */
+    private final Map<String, CacheEntry> cache;
+
+    /**
+     * Creates a service. Most callers should use {@link #getInstance()}, which
+     * returns the service configured by the system properties.
+     *
+     * @param threads
+     *        the most threads to prefetch hashes on (must be positive)
+     * @param cacheSize
+     *        the most hashes to cache (0 disables the cache)
+     */
+    public FileHashService(final int threads, final int cacheSize) {
+        Check.isTrue(threads > 0, "threads > 0"); //$NON-NLS-1$
+        Check.isTrue(cacheSize >= 0, "cacheSize >= 0"); //$NON-NLS-1$
+
+        this.cacheSize = cacheSize;
+
+        cache = new LinkedHashMap<String, CacheEntry>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<String, CacheEntry> eldest) {
+                return size() > FileHashService.this.cacheSize;
+            }
+        };
+
+        executor = new ThreadPoolExecutor(
+            threads,
+            threads,
+            30,
+            TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(),
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(final Runnable r) {
+                    final Thread thread = new Thread(r, "FileHashService"); //$NON-NLS-1$
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    private static int availableProcessors() {
+        return Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * @return the service configured by the system properties
+     */
+    public static FileHashService getInstance() {
+        return instance;
+    }
+
+    /**
+     * Gets the MD5 hash of a file's content, from the cache if the file has
+     * not changed since it was last hashed.
+     *
+     * @param file
+     *        the file to hash (must not be <code>null</code>)
+     * @param taskMonitor
+     *        the {@link TaskMonitor} to use to detect cancelation (if
+     *        <code>null</code> no cancelation detection is performed)
+     * @return the MD5 hash of the file's content
+     * @throws CanceledException
+     *         if the given {@link TaskMonitor} signals cancelation
+     * @throws IOException
+     *         if the file could not be read
+     */
+    public byte[] getMD5Hash(final File file, final TaskMonitor taskMonitor) throws CanceledException, IOException {
+        return getMD5Hash(file, taskMonitor, null);
+    }
+
+    /**
+     * Hashes files on the service's threads and caches their hashes, so the
+     * caller's following requests for them don't have to hash. Files which
+     * don't exist or can't be read are skipped (the caller's own requests
+     * report the errors). The throughput is reported through the given {@link TaskMonitor}'s
+     * current work description.
+     *
+     * @param fileNames
+     *        the paths of the files to hash (must not be <code>null</code>,
+     *        elements may be <code>null</code>)
+     * @param taskMonitor
+     *        the {@link TaskMonitor} to use to report progress and detect
+     *        cancelation (if <code>null</code> neither is done)
+     * @throws CanceledException
+     *         if the given {@link TaskMonitor} signals cancelation
+     */
+    public void prefetchMD5Hashes(final String[] fileNames, final TaskMonitor taskMonitor) throws CanceledException {
+        Check.notNull(fileNames, "fileNames"); //$NON-NLS-1$
+
+        if (cacheSize == 0) {
+            return;
+        }
+
+        final long start = System.currentTimeMillis();
+        final AtomicLong hashedBytes = new AtomicLong();
+        final List<Future<Void>> tasks = new ArrayList<Future<Void>>(fileNames.length);
+
+        for (final String fileName : fileNames) {
+            if (fileName == null) {
+                continue;
+            }
+
+            final FutureTask<Void> task = new FutureTask<Void>(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    final File file = new File(fileName);
+                    if (file.isFile()) {
+                        getMD5Hash(file, taskMonitor, hashedBytes);
+                    }
+                    return null;
+                }
+            });
+
+            executor.execute(task);
+            tasks.add(task);
+        }
+
+        try {
+            long lastReport = start;
+
+            for (int i = 0; i < tasks.size(); i++) {
+                waitForTask(tasks.get(i), taskMonitor);
+
+                final long now = System.currentTimeMillis();
+                if (taskMonitor != null && now - lastReport >= REPORT_INTERVAL_MILLIS) {
+                    taskMonitor.setCurrentWorkDescription(
+                        MessageFormat.format(
+                            Messages.getString("FileHashService.HashingFilesFormat"), //$NON-NLS-1$
+                            Integer.toString(i + 1),
+                            Integer.toString(tasks.size()),
+                            formatThroughput(hashedBytes.get(), now - start)));
+                    lastReport = now;
+                }
+            }
+        } finally {
+            for (final Future<Void> task : tasks) {
+                task.cancel(false);
+            }
+        }
+
+        final long elapsed = System.currentTimeMillis() - start;
+        log.debug(MessageFormat.format(
+            "Prefetched hashes of {0} files in {1} ms ({2} bytes hashed, {3} MB/s)", //$NON-NLS-1$
+            tasks.size(),
+            elapsed,
+            hashedBytes.get(),
+            formatThroughput(hashedBytes.get(), elapsed)));
+    }
+
+    /**
+     * Removes all the cached hashes.
+     */
+    public void clear() {
+        synchronized (cache) {
+            cache.clear();
+        }
+    }
+
+    private byte[] getMD5Hash(final File file, final TaskMonitor taskMonitor, final AtomicLong hashedBytes)
+        throws CanceledException,
+            IOException {
+        Check.notNull(file, "file"); //$NON-NLS-1$
+
+        final String key = file.getAbsolutePath();
+        final long length = file.length();
+        final long lastModified = file.lastModified();
+
+        if (cacheSize > 0) {
+            final CacheEntry entry;
+            synchronized (cache) {
+                entry = cache.get(key);
+            }
+
+            if (entry != null && entry.length == length && entry.lastModified == lastModified) {
+                return entry.hash.clone();
+            }
+        }
+
+        final long hashTime = System.currentTimeMillis();
+        final byte[] hash = HashUtils.hashFile(file, HashUtils.ALGORITHM_MD5, taskMonitor);
+
+        if (hashedBytes != null) {
+            hashedBytes.addAndGet(length);
+        }
+
+        /*
+         * Don't cache the hash if the file changed while it was read, or
+         * recently enough that it could change again without changing its
+         * last modified time.
+         */
+        if (cacheSize > 0
+            && lastModified != 0
+            && hashTime - lastModified > RACY_INTERVAL_MILLIS
+            && file.length() == length
+            && file.lastModified() == lastModified) {
+            synchronized (cache) {
+                cache.put(key, new CacheEntry(length, lastModified, hash.clone()));
+            }
+        }
+
+        return hash;
+    }
+
+    private static void waitForTask(final Future<Void> task, final TaskMonitor taskMonitor) throws CanceledException {
+        boolean interrupted = false;
+
+        try {
+            while (true) {
+                if (taskMonitor != null && taskMonitor.isCanceled()) {
+                    throw new CanceledException();
+                }
+
+                try {
+                    task.get(REPORT_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+                    return;
+                } catch (final TimeoutException e) {
+                    // Check for cancelation again
+                } catch (final InterruptedException e) {
+                    interrupted = true;
+                } catch (final ExecutionException e) {
+                    if (e.getCause() instanceof CanceledException) {
+                        throw (CanceledException) e.getCause();
+                    } else if (e.getCause() instanceof Error) {
+                        throw (Error) e.getCause();
+                    }
+
+                    // The caller's own request will report it
+                    log.warn("Error prefetching file hash", e.getCause()); //$NON-NLS-1$
+                    return;
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static String formatThroughput(final long bytes, final long millis) {
+        final double megabytes = bytes / (1024.0 * 1024.0);
+        final double megabytesPerSecond = millis > 0 ? megabytes * 1000 / millis : 0;
+
+        return String.format("%.1f", megabytesPerSecond); //$NON-NLS-1$
+    }
+
+    /**
+     * A cached hash, with the length and last modified time the file had when
+     * it was hashed.
+     */
+    private static class CacheEntry {
+        public final long length;
+        public final long lastModified;
+        public final byte[] hash;
+
+        public CacheEntry(final long length, final long lastModified, final byte[] hash) {
+            this.length = length;
+            this.lastModified = lastModified;
+            this.hash = hash;
+        }
+    }
+}
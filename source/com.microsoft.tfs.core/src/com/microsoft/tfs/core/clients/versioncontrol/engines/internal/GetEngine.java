@@ -18,7 +18,9 @@ import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.commons.logging.Log;
@@ -55,6 +57,7 @@ import com.microsoft.tfs.core.clients.versioncontrol.exceptions.VersionControlEx
 import com.microsoft.tfs.core.clients.versioncontrol.internal.concurrent.AccountingCompletionService;
 import com.microsoft.tfs.core.clients.versioncontrol.internal.concurrent.AccountingCompletionService.ExecutionExceptionHandler;
 import com.microsoft.tfs.core.clients.versioncontrol.internal.concurrent.AccountingCompletionService.ResultProcessor;
+import com.microsoft.tfs.core.clients.versioncontrol.internal.concurrent.BoundedExecutor;
 import com.microsoft.tfs.core.clients.versioncontrol.internal.fileattributes.FileAttribute;
 import com.microsoft.tfs.core.clients.versioncontrol.internal.fileattributes.FileAttributeNames;
 import com.microsoft.tfs.core.clients.versioncontrol.internal.fileattributes.FileAttributeValues;
@@ -97,7 +100,6 @@ import com.microsoft.tfs.jni.helpers.FileCopyHelper;
 import com.microsoft.tfs.util.Check;
 import com.microsoft.tfs.util.FileHelpers;
 import com.microsoft.tfs.util.GUID;
-import com.microsoft.tfs.util.HashUtils;
 import com.microsoft.tfs.util.NewlineUtils;
 import com.microsoft.tfs.util.Platform;
 import com.microsoft.tfs.util.datetime.DotNETDate;
@@ -797,7 +799,9 @@ public final class GetEngine {
                 wLock,
                 localUpdateOptions,
                 flags,
-                new AccountingCompletionService<WorkerStatus>(client.getUploadDownloadWorkerExecutor()));
+                new AccountingCompletionService<WorkerStatus>(client.getUploadDownloadWorkerExecutor()),
+                client.getUploadDownloadWorkerExecutor(),
+                client.getDownloadSchedulingPolicy());
 
             log.debug("Preparing Get Operation actions"); //$NON-NLS-1$
 
@@ -1099,6 +1103,30 @@ public final class GetEngine {
 
         log.debug("Try processOperationsInternal: started"); //$NON-NLS-1$
 
+        /*
+         * When pipelined gets are enabled, the operations which can be
+         * processed apart from the others are processed a directory at a time
+         * on the local workers, while this thread processes the rest in order
+         * and the download workers download.
+         */
+        final BoundedExecutor localWorkerExecutor = client.getLocalWorkerExecutor();
+        final GetOperationPartitions partitions;
+        final AccountingCompletionService<Integer> partitionCompletionService;
+        final AtomicInteger partitionedProcessed = new AtomicInteger();
+
+        if (localWorkerExecutor != null && !asyncOp.isPreview()) {
+            partitions = new GetOperationPartitions(actions);
+            partitionCompletionService = new AccountingCompletionService<Integer>(localWorkerExecutor);
+
+            log.debug(MessageFormat.format(
+                "Processing {0} of {1} operations in directory partitions", //$NON-NLS-1$
+                partitions.getPartitionedCount(),
+                actions.length));
+        } else {
+            partitions = null;
+            partitionCompletionService = null;
+        }
+
         try {
             int actionCount = 0;
 
@@ -1113,10 +1141,13 @@ public final class GetEngine {
                     && WorkspaceLocation.LOCAL == asyncOp.getWorkspace().getLocation()
                     && asyncOp.getWorkspaceLock().isYieldRequested()) {
                     /*
-                     * Wait for all outstanding downloads to finish. (No new
-                     * ones will be queued, since it's this thread that does
-                     * that.)
+                     * Wait for all outstanding partitions and downloads to
+                     * finish. (No new ones will be queued, since it's this
+                     * thread that does that.)
                      */
+                    if (partitionCompletionService != null) {
+                        waitForPartitions(partitionCompletionService, asyncOp);
+                    }
                     waitForCompletions(asyncOp.getCompletionService());
 
                     /*
@@ -1141,6 +1172,23 @@ public final class GetEngine {
                 // throw
                 throwIfFatalError(asyncOp);
 
+                if (partitions != null) {
+                    reportPartitionProgress(gettingTaskMonitor, partitionedProcessed);
+
+                    if (partitions.isPartitioned(action)) {
+                        final List<GetOperation> partition = partitions.getPartitionStartingWith(action);
+                        if (partition != null) {
+                            submitPartition(
+                                partitionCompletionService,
+                                partition,
+                                asyncOp,
+                                gettingTaskMonitor,
+                                partitionedProcessed);
+                        }
+                        continue;
+                    }
+                }
+
                 gettingTaskMonitor.setCurrentWorkDescription(action.getTargetServerItem());
 
                 // Perform one get action.
@@ -1149,9 +1197,27 @@ public final class GetEngine {
                 gettingTaskMonitor.worked(1);
             }
         } finally {
+            if (partitionCompletionService != null) {
+                log.debug("Try processOperationsInternal: waiting for partitions completion"); //$NON-NLS-1$
+                waitForPartitions(partitionCompletionService, asyncOp);
+                reportPartitionProgress(gettingTaskMonitor, partitionedProcessed);
+            }
+
             log.debug("Try processOperationsInternal: waiting for downloads completion"); //$NON-NLS-1$
             // Wait for all downloads submitted so far
             waitForCompletions(asyncOp.getCompletionService());
+
+            if (log.isDebugEnabled()) {
+                final BoundedExecutor executor = client.getUploadDownloadWorkerExecutor();
+                final GetStatus status = asyncOp.getStatus();
+                log.debug(MessageFormat.format(
+                    "Downloads finished with worker limit {0} ({1} still active): {2} files, {3} bytes in {4} ms", //$NON-NLS-1$
+                    executor.getLimit(),
+                    executor.getActiveCount(),
+                    status.getDownloadTimings().length,
+                    status.getNumBytesDownloaded(),
+                    status.getDownloadMillis()));
+            }
         }
 
         log.debug("Try processOperationsInternal: finished successfully"); //$NON-NLS-1$
@@ -1167,6 +1233,72 @@ public final class GetEngine {
         finishDirectoryDeletionsAndMoves(asyncOp, gettingTaskMonitor);
     }
 
+    /**
+     * Processes a partition of operations (see {@link GetOperationPartitions})
+     * on a local worker. The worker stops early if the get is canceled or a
+     * download fails fatally; the calling thread reports those when it has
+     * waited for the partitions.
+     *
+     * @param processed
+     *        incremented for each operation processed, so the calling thread
+     *        can report the progress
+     */
+    private void submitPartition(
+        final AccountingCompletionService<Integer> partitionCompletionService,
+        final List<GetOperation> partition,
+        final AsyncGetOperation asyncOp,
+        final TaskMonitor gettingTaskMonitor,
+        final AtomicInteger processed) {
+        // The download workers get their task monitor from this thread's
+        final TaskMonitor taskMonitor = TaskMonitorService.getTaskMonitor();
+
+        partitionCompletionService.submit(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                TaskMonitorService.pushTaskMonitor(taskMonitor);
+                try {
+                    int count = 0;
+                    for (final GetOperation action : partition) {
+                        if (gettingTaskMonitor.isCanceled() || asyncOp.getFatalError() != null) {
+                            break;
+                        }
+
+                        processOperation(action, asyncOp);
+                        processed.incrementAndGet();
+                        count++;
+                    }
+                    return count;
+                } finally {
+                    TaskMonitorService.popTaskMonitor(false);
+                }
+            }
+        });
+    }
+
+    private static void reportPartitionProgress(final TaskMonitor gettingTaskMonitor, final AtomicInteger processed) {
+        final int count = processed.getAndSet(0);
+        if (count > 0) {
+            gettingTaskMonitor.worked(count);
+        }
+    }
+
+    /**
+     * Waits for all submitted partitions. An exception thrown while processing
+     * a partition becomes the operation's fatal error, so the get fails as it
+     * would have if the operation had been processed on the calling thread.
+     */
+    static void waitForPartitions(
+        final AccountingCompletionService<Integer> partitionCompletionService,
+        final AsyncOperation asyncOp) {
+        partitionCompletionService.waitForCompletions(null, new ExecutionExceptionHandler() {
+            @Override
+            public void handleException(final ExecutionException e) {
+                log.warn("Get partition exception", e); //$NON-NLS-1$
+                asyncOp.setFatalError(e.getCause() != null ? e.getCause() : e);
+            }
+        });
+    }
+
     /**
      * Deletes the source item when processing a get operation.
      *
@@ -1555,7 +1687,7 @@ public final class GetEngine {
     private static boolean localContentIsRedundant(final String localItemPath, final byte[] serverHashValue) {
         byte[] localHashValue;
         try {
-            localHashValue = HashUtils.hashFile(new File(localItemPath), "MD5"); //$NON-NLS-1$
+            localHashValue = FileHashService.getInstance().getMD5Hash(new File(localItemPath), null);
         } catch (final Exception e) {
             return false;
         }
@@ -2494,20 +2626,25 @@ public final class GetEngine {
             if (action.getTargetServerItem() != null
                 && ServerPath.getFileName(action.getTargetServerItem()).equals(FileAttributesFile.DEFAULT_FILENAME)) {
                 try {
-                    worker.call();
+                    asyncOp.getDownloadScheduler().runNow(worker, action.getTargetServerItem());
                 } catch (final Exception e) {
                     log.warn("Exception downloading synchronously", e); //$NON-NLS-1$
                 }
             } else {
                 /*
-                 * A normal download. Let our thread pool execute this task.
-                 * submit() will block if all the workers are busy (because the
-                 * completion service wraps a BoundedExecutor), which is what we
-                 * want. This keeps our downloads from getting too far ahead of
-                 * our disk completion I/O and keeps the network from being
-                 * saturated by too many concurrent requests.
+                 * A normal download. The scheduler runs it on our thread pool
+                 * (in the order its policy picks), and blocks when enough
+                 * downloads are waiting for workers. This keeps our downloads
+                 * from getting too far ahead of our disk completion I/O and
+                 * keeps the network from being saturated by too many
+                 * concurrent requests.
+                 *
+                 * The size of the file being replaced is the best estimate of
+                 * the download's size, because the server doesn't send it.
                  */
-                asyncOp.getCompletionService().submit(worker);
+                final long sizeEstimate = existingLocalExists ? existingLocalAttrs.getSize() : -1;
+
+                asyncOp.getDownloadScheduler().schedule(worker, action.getTargetServerItem(), sizeEstimate);
             }
         } else {
             /*
@@ -2921,7 +3058,9 @@ public final class GetEngine {
             public void processResult(final WorkerStatus result) {
                 final WorkerStatus status = result;
 
-                if (status.getFinalState() == FinalState.ERROR) {
+                if (status == null) {
+                    log.debug("Get worker thread finished with no status"); //$NON-NLS-1$
+                } else if (status.getFinalState() == FinalState.ERROR) {
                     log.debug("Get worker thread finished with EXCEPTION"); //$NON-NLS-1$
                 } else if (status.getFinalState() == FinalState.CANCELED) {
                     log.debug("Get worker thread finished with CANCELED"); //$NON-NLS-1$
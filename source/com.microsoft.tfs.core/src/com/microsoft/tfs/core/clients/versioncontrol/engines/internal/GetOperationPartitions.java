@@ -0,0 +1,193 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the repository root.
+
+package com.microsoft.tfs.core.clients.versioncontrol.engines.internal;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import com.microsoft.tfs.core.clients.versioncontrol.path.LocalPath;
+import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.GetOperation;
+import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.ItemType;
+import com.microsoft.tfs.util.Check;
+
+/**
+ * Groups the get operations {@link GetEngine} can process apart from the
+ * others (and from each other's groups) by directory.
+ * <p>
+ * An operation can be processed apart if it gets, replaces or deletes one file
+ * in place (it doesn't move it), and no other operation's source or target is
+ * that file. Such an operation doesn't read or change the state of any other
+ * operation (the target conflict handling in {@link GetEngine} only applies to
+ * operations which share paths), and its directory already exists, so it
+ * doesn't have to wait for an operation which creates one.
+ * <p>
+ * A directory's operations form a partition only if all the operations in the
+ * directory (including those on the directory itself) can be processed apart.
+ * The partition keeps the operations' order, so a <code>.tpattributes</code>
+ * file is still gotten before the files it applies to. No operations are
+ * partitioned when any operation moves a directory, because the files in it
+ * would move with it.
+ *
+ * @threadsafety thread-compatible
+ */
+final class GetOperationPartitions {
+    /**
+     * Each partition by its first operation.
+     */
+    private final Map<GetOperation, List<GetOperation>> partitionsByFirstOperation =
+        new IdentityHashMap<GetOperation, List<GetOperation>>();
+
+    private final Set<GetOperation> partitionedOperations =
+        Collections.newSetFromMap(new IdentityHashMap<GetOperation, Boolean>());
+
+    /**
+     * Partitions the given operations.
+     *
+     * @param actions
+     *        the operations in the order they are processed (must not be
+     *        <code>null</code>)
+     */
+    public GetOperationPartitions(final GetOperation[] actions) {
+        Check.notNull(actions, "actions"); //$NON-NLS-1$
+
+        /*
+         * Count how many times each path is the source or target of an
+         * operation.
+         */
+        final Map<String, Integer> pathCounts = new TreeMap<String, Integer>(LocalPath.TOP_DOWN_COMPARATOR);
+        for (final GetOperation action : actions) {
+            if (action.isIgnore()) {
+                continue;
+            }
+
+            final String source = action.getSourceLocalItem();
+            final String target = action.getTargetLocalItem();
+
+            if (source != null && isDirectoryMove(action, source, target)) {
+                return;
+            }
+
+            countPath(pathCounts, source);
+            if (target != null && (source == null || LocalPath.equals(source, target) == false)) {
+                countPath(pathCounts, target);
+            }
+        }
+
+        /*
+         * Find each operation's directory, and the directories which have an
+         * operation that can't be processed apart.
+         */
+        final Map<String, List<GetOperation>> operationsByDirectory =
+            new TreeMap<String, List<GetOperation>>(LocalPath.TOP_DOWN_COMPARATOR);
+        final Map<String, Boolean> orderedDirectories = new TreeMap<String, Boolean>(LocalPath.TOP_DOWN_COMPARATOR);
+
+        for (final GetOperation action : actions) {
+            if (action.isIgnore()) {
+                continue;
+            }
+
+            final String source = action.getSourceLocalItem();
+            final String target = action.getTargetLocalItem();
+            final String path = target != null ? target : source;
+
+            if (canProcessApart(action, source, target, pathCounts)) {
+                final String directory = LocalPath.getDirectory(path);
+
+                List<GetOperation> operations = operationsByDirectory.get(directory);
+                if (operations == null) {
+                    operations = new ArrayList<GetOperation>();
+                    operationsByDirectory.put(directory, operations);
+                }
+                operations.add(action);
+            } else {
+                markOrdered(orderedDirectories, source);
+                markOrdered(orderedDirectories, target);
+            }
+        }
+
+        for (final Map.Entry<String, List<GetOperation>> entry : operationsByDirectory.entrySet()) {
+            final String directory = entry.getKey();
+            if (orderedDirectories.containsKey(directory) || new File(directory).isDirectory() == false) {
+                continue;
+            }
+
+            final List<GetOperation> operations = entry.getValue();
+            partitionsByFirstOperation.put(operations.get(0), operations);
+            partitionedOperations.addAll(operations);
+        }
+    }
+
+    /**
+     * @return the partition whose first operation is the given operation, or
+     *         <code>null</code> if no partition starts with it
+     */
+    public List<GetOperation> getPartitionStartingWith(final GetOperation action) {
+        return partitionsByFirstOperation.get(action);
+    }
+
+    /**
+     * @return <code>true</code> if the given operation is in a partition,
+     *         <code>false</code> if it must be processed in order
+     */
+    public boolean isPartitioned(final GetOperation action) {
+        return partitionedOperations.contains(action);
+    }
+
+    /**
+     * @return the number of operations in partitions
+     */
+    public int getPartitionedCount() {
+        return partitionedOperations.size();
+    }
+
+    private static boolean isDirectoryMove(final GetOperation action, final String source, final String target) {
+        return action.getItemType() != ItemType.FILE && target != null && LocalPath.equals(source, target) == false;
+    }
+
+    private static boolean canProcessApart(
+        final GetOperation action,
+        final String source,
+        final String target,
+        final Map<String, Integer> pathCounts) {
+        if (action.getItemType() != ItemType.FILE || action.hasConflict() || action.isDownloadCompleted()) {
+            return false;
+        }
+
+        if (source == null && target == null) {
+            return false;
+        }
+
+        // Moves and renames must be processed in order
+        if (source != null && target != null && LocalPath.equals(source, target) == false) {
+            return false;
+        }
+
+        final String path = target != null ? target : source;
+        return pathCounts.get(path).intValue() == 1;
+    }
+
+    private static void countPath(final Map<String, Integer> pathCounts, final String path) {
+        if (path != null) {
+            final Integer count = pathCounts.get(path);
+            pathCounts.put(path, count == null ? 1 : count.intValue() + 1);
+        }
+    }
+
+    private static void markOrdered(final Map<String, Boolean> orderedDirectories, final String path) {
+        if (path != null) {
+            orderedDirectories.put(path, Boolean.TRUE);
+
+            final String directory = LocalPath.getDirectory(path);
+            if (directory != null) {
+                orderedDirectories.put(directory, Boolean.TRUE);
+            }
+        }
+    }
+}
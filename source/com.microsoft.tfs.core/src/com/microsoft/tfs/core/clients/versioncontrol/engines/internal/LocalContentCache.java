@@ -0,0 +1,471 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the repository root.
+
+package com.microsoft.tfs.core.clients.versioncontrol.engines.internal;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.microsoft.tfs.core.clients.versioncontrol.DownloadContentTypes;
+import com.microsoft.tfs.core.clients.versioncontrol.specs.DownloadOutput;
+import com.microsoft.tfs.core.config.persistence.PersistenceStoreProvider;
+import com.microsoft.tfs.core.persistence.FilesystemPersistenceStore;
+import com.microsoft.tfs.util.ArrayUtils;
+import com.microsoft.tfs.util.Check;
+import com.microsoft.tfs.util.HashUtils;
+import com.microsoft.tfs.util.IOUtils;
+import com.microsoft.tfs.util.tasks.CanceledException;
+import com.microsoft.tfs.util.tasks.TaskMonitor;
+
+/**
+ * A content-addressed cache of downloaded file content shared by all the
+ * workspaces on the machine (or all the workspaces which use the same cache
+ * directory). Content is stored uncompressed, keyed by its MD5 hash (the hash
+ * value of a {@link com.microsoft.tfs.core.clients.versioncontrol.soapextensions.GetOperation}),
+ * so a get which needs content another workspace already downloaded copies it
+ * from the cache instead of from the server or proxy.
+ * <p>
+ * The cache is disabled unless {@link #MAX_SIZE_PROPERTY_NAME} is set. Content
+ * is hashed on every hit, and a file which does not match its hash is deleted
+ * and treated as a miss. When the cache grows past its size cap, the least
+ * recently used files (by last modified time, which is updated on each hit)
+ * are deleted. Several processes may use the same cache directory: files are
+ * written to a temporary name and renamed into place, and the size is
+ * recounted from the directory before evicting.
+ *
+ * @threadsafety thread-safe
+ */
+public class LocalContentCache {
+    private static final Log log = LogFactory.getLog(LocalContentCache.class);
+
+    /**
+     * A property to define the maximum size of the cache in megabytes. The
+     * cache is not used if the property is not set or is not positive.
+     */
+    public static final String MAX_SIZE_PROPERTY_NAME =
+        "com.microsoft.tfs.core.clients.versioncontrol.contentcache.maxsize"; //$NON-NLS-1$
+
+    /**
+     * A property to define the directory the cache is stored in. By default
+     * the cache is stored in the user's cache persistence store. Set it to a
+     * directory all the users of the machine can write to share one cache
+     * among them.
+     */
+    public static final String DIRECTORY_PROPERTY_NAME =
+        "com.microsoft.tfs.core.clients.versioncontrol.contentcache.directory"; //$NON-NLS-1$
+
+    private static final String CHILD_STORE_NAME = "ContentCache"; //$NON-NLS-1$
+    private static final String TEMP_SUFFIX = ".tmp"; //$NON-NLS-1$
+
+    /**
+     * Eviction deletes files until the cache is this fraction of its cap, so
+     * it doesn't run again for the next few downloads.
+     */
+    private static final double EVICT_TO_FRACTION = 0.8;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final Map<File, LocalContentCache> instances = new HashMap<File, LocalContentCache>();
+
+    private final File directory;
+    private final long maxSize;
+
+    /**
+     * The approximate size of the cache. Counted from the directory when the
+     * cache is created and before each eviction, and updated as files are
+     * added in between.
+     */
+    private long size = -1;
+
+    private final Object sizeLock = new Object();
+
+    /**
+     * Creates a cache. Most callers should use
+     * {@link #getInstance(PersistenceStoreProvider)}, which returns the cache
+     * configured by the system properties.
+     *
+     * @param directory
+     *        the directory to store content in (must not be <code>null</code>)
+     * @param maxSize
+     *        the size of the content in bytes the cache may hold before
+     *        evicting (must be positive)
+     */
+    public LocalContentCache(final File directory, final long maxSize) {
+        Check.notNull(directory, "directory"); //$NON-NLS-1$
+        Check.isTrue(maxSize > 0, "maxSize > 0"); //$NON-NLS-1$
+
+        this.directory = directory;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Gets the cache configured by {@link #MAX_SIZE_PROPERTY_NAME} and
+     * {@link #DIRECTORY_PROPERTY_NAME}. All callers using the same directory
+     * share one instance.
+     *
+     * @param persistenceStoreProvider
+     *        the provider whose cache store holds the cache if
+     *        {@link #DIRECTORY_PROPERTY_NAME} is not set (must not be
+     *        <code>null</code>)
+     * @return the cache, or <code>null</code> if the cache is disabled
+     */
+    public static LocalContentCache getInstance(final PersistenceStoreProvider persistenceStoreProvider) {
+        Check.notNull(persistenceStoreProvider, "persistenceStoreProvider"); //$NON-NLS-1$
+
+        final String maxSizeValue = System.getProperty(MAX_SIZE_PROPERTY_NAME);
+        if (maxSizeValue == null) {
+            return null;
+        }
+
+        final long maxSizeMegabytes;
+        try {
+            maxSizeMegabytes = Long.parseLong(maxSizeValue.trim());
+        } catch (final NumberFormatException e) {
+            log.warn(MessageFormat.format("Ignoring invalid value for {0}: {1}", //$NON-NLS-1$
+                MAX_SIZE_PROPERTY_NAME,
+                maxSizeValue));
+            return null;
+        }
+
+        if (maxSizeMegabytes <= 0) {
+            return null;
+        }
+
+        final String directoryValue = System.getProperty(DIRECTORY_PROPERTY_NAME);
+        final File directory;
+        if (directoryValue != null && directoryValue.length() > 0) {
+            directory = new File(directoryValue).getAbsoluteFile();
+        } else {
+            directory = ((FilesystemPersistenceStore) persistenceStoreProvider.getCachePersistenceStore().getChildStore(
+                CHILD_STORE_NAME)).getStoreFile();
+        }
+
+        synchronized (instances) {
+            LocalContentCache cache = instances.get(directory);
+
+            if (cache == null) {
+                cache = new LocalContentCache(directory, maxSizeMegabytes * 1024 * 1024);
+                instances.put(directory, cache);
+            }
+
+            return cache;
+        }
+    }
+
+    /**
+     * Writes the content with the given hash from the cache to the outputs.
+     * The content is hashed as it is copied; if it does not match, the cached
+     * file is deleted and the outputs are reset. Each output's actual content
+     * type is set to {@link DownloadContentTypes#APPLICATION_OCTET_STREAM}
+     * (the cache stores uncompressed content). The streams are left open.
+     *
+     * @param hashValue
+     *        the MD5 hash of the content (may be <code>null</code> or not an
+     *        MD5 hash, which is a miss)
+     * @param outputs
+     *        the outputs to write the content to (must not be
+     *        <code>null</code>)
+     * @param taskMonitor
+     *        the monitor to check for cancellation (must not be
+     *        <code>null</code>)
+     * @return <code>true</code> if the content was written to the outputs,
+     *         <code>false</code> if it was not in the cache (the outputs are
+     *         empty)
+     * @throws CanceledException
+     *         if the task monitor was canceled during the copy
+     */
+    public boolean copyTo(final byte[] hashValue, final DownloadOutput[] outputs, final TaskMonitor taskMonitor)
+        throws CanceledException {
+        Check.notNull(outputs, "outputs"); //$NON-NLS-1$
+        Check.notNull(taskMonitor, "taskMonitor"); //$NON-NLS-1$
+
+        if (!isMD5(hashValue)) {
+            return false;
+        }
+
+        final File file = getFile(hashValue);
+
+        final InputStream in;
+        try {
+            in = new FileInputStream(file);
+        } catch (final IOException e) {
+            return false;
+        }
+
+        boolean copied = false;
+        try {
+            final MessageDigest digest = newMD5Digest();
+            final byte[] buffer = new byte[BUFFER_SIZE];
+
+            for (final DownloadOutput output : outputs) {
+                output.setActualContentType(DownloadContentTypes.APPLICATION_OCTET_STREAM);
+
+                // Start the outputs even if the content is empty
+                output.getOutputStream();
+            }
+
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                if (taskMonitor.isCanceled()) {
+                    throw new CanceledException();
+                }
+
+                digest.update(buffer, 0, read);
+
+                for (final DownloadOutput output : outputs) {
+                    output.getOutputStream().write(buffer, 0, read);
+                }
+            }
+
+            if (!Arrays.equals(hashValue, digest.digest())) {
+                log.warn(MessageFormat.format("Deleting cached content {0} which does not match its hash", file)); //$NON-NLS-1$
+                IOUtils.closeSafely(in);
+                file.delete();
+                return false;
+            }
+
+            copied = true;
+        } catch (final IOException e) {
+            log.warn(MessageFormat.format("Error copying cached content {0}", file), e); //$NON-NLS-1$
+            return false;
+        } finally {
+            IOUtils.closeSafely(in);
+
+            if (!copied) {
+                resetOutputs(outputs);
+            }
+        }
+
+        // Most recently used
+        file.setLastModified(System.currentTimeMillis());
+
+        log.debug(MessageFormat.format("Copied {0} from the content cache", file)); //$NON-NLS-1$
+        return true;
+    }
+
+    /**
+     * Adds a copy of a file to the cache if content with its hash is not
+     * already cached. The file is hashed as it is copied, and is not added if
+     * it does not match the hash. Errors are logged, not thrown (the cache is
+     * only an optimization).
+     *
+     * @param hashValue
+     *        the MD5 hash of the file's content (may be <code>null</code> or
+     *        not an MD5 hash, in which case nothing is added)
+     * @param source
+     *        the uncompressed content (must not be <code>null</code>)
+     */
+    public void add(final byte[] hashValue, final File source) {
+        Check.notNull(source, "source"); //$NON-NLS-1$
+
+        if (!isMD5(hashValue)) {
+            return;
+        }
+
+        final File file = getFile(hashValue);
+        if (file.exists()) {
+            return;
+        }
+
+        final long length = source.length();
+        if (length > maxSize / 2) {
+            // One file would evict most of the cache
+            return;
+        }
+
+        File tempFile = null;
+        try {
+            final File parent = file.getParentFile();
+            if (!parent.isDirectory() && !parent.mkdirs() && !parent.isDirectory()) {
+                log.warn(MessageFormat.format("Could not create content cache directory {0}", parent)); //$NON-NLS-1$
+                return;
+            }
+
+            tempFile = File.createTempFile(file.getName(), TEMP_SUFFIX, parent);
+
+            final MessageDigest digest = newMD5Digest();
+            final InputStream in = new FileInputStream(source);
+            try {
+                final OutputStream out = new FileOutputStream(tempFile);
+                try {
+                    final byte[] buffer = new byte[BUFFER_SIZE];
+                    int read;
+                    while ((read = in.read(buffer)) != -1) {
+                        digest.update(buffer, 0, read);
+                        out.write(buffer, 0, read);
+                    }
+                } finally {
+                    out.close();
+                }
+            } finally {
+                in.close();
+            }
+
+            if (!Arrays.equals(hashValue, digest.digest())) {
+                log.debug(MessageFormat.format("Not caching {0} because it does not match its hash", source)); //$NON-NLS-1$
+                return;
+            }
+
+            // Another thread or process may have added it meanwhile
+            if (!tempFile.renameTo(file)) {
+                return;
+            }
+
+            tempFile = null;
+        } catch (final IOException e) {
+            log.warn(MessageFormat.format("Error adding {0} to the content cache", source), e); //$NON-NLS-1$
+            return;
+        } finally {
+            if (tempFile != null) {
+                tempFile.delete();
+            }
+        }
+
+        final boolean evict;
+        synchronized (sizeLock) {
+            if (size < 0) {
+                size = countSize();
+            } else {
+                size += length;
+            }
+
+            evict = size > maxSize;
+        }
+
+        if (evict) {
+            evict();
+        }
+    }
+
+    /**
+     * Deletes the least recently used files until the cache is
+     * {@link #EVICT_TO_FRACTION} of its cap.
+     */
+    private void evict() {
+        final List<File> files = new ArrayList<File>();
+        listContent(files);
+
+        final Map<File, Long> lastModified = new HashMap<File, Long>(files.size());
+        long total = 0;
+        for (final File file : files) {
+            lastModified.put(file, file.lastModified());
+            total += file.length();
+        }
+
+        Collections.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(final File first, final File second) {
+                final long firstModified = lastModified.get(first);
+                final long secondModified = lastModified.get(second);
+                return firstModified < secondModified ? -1 : firstModified == secondModified ? 0 : 1;
+            }
+        });
+
+        final long target = (long) (maxSize * EVICT_TO_FRACTION);
+        int deleted = 0;
+        for (final File file : files) {
+            if (total <= target) {
+                break;
+            }
+
+            final long length = file.length();
+            if (file.delete()) {
+                total -= length;
+                deleted++;
+            }
+        }
+
+        synchronized (sizeLock) {
+            size = total;
+        }
+
+        log.debug(MessageFormat.format(
+            "Evicted {0} files from the content cache {1}, {2} bytes remain", //$NON-NLS-1$
+            deleted,
+            directory,
+            total));
+    }
+
+    private long countSize() {
+        final List<File> files = new ArrayList<File>();
+        listContent(files);
+
+        long total = 0;
+        for (final File file : files) {
+            total += file.length();
+        }
+
+        return total;
+    }
+
+    /**
+     * Lists the content files (not temporary files) in the cache.
+     */
+    private void listContent(final List<File> files) {
+        final File[] subdirectories = directory.listFiles();
+        if (subdirectories == null) {
+            return;
+        }
+
+        for (final File subdirectory : subdirectories) {
+            final File[] children = subdirectory.listFiles();
+            if (children == null) {
+                continue;
+            }
+
+            for (final File child : children) {
+                if (!child.getName().endsWith(TEMP_SUFFIX)) {
+                    files.add(child);
+                }
+            }
+        }
+    }
+
+    /**
+     * Files are spread across 256 subdirectories by the first byte of the
+     * hash.
+     */
+    private File getFile(final byte[] hashValue) {
+        final String name = ArrayUtils.byteArrayToHexStringLowerCase(hashValue);
+        return new File(new File(directory, name.substring(0, 2)), name);
+    }
+
+    private static boolean isMD5(final byte[] hashValue) {
+        return hashValue != null && hashValue.length == 16;
+    }
+
+    private static MessageDigest newMD5Digest() {
+        try {
+            return MessageDigest.getInstance(HashUtils.ALGORITHM_MD5);
+        } catch (final NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static void resetOutputs(final DownloadOutput[] outputs) {
+        for (final DownloadOutput output : outputs) {
+            try {
+                output.resetOutputStream();
+            } catch (final IOException e) {
+                log.warn(MessageFormat.format("Could not reset stream on download output {0}", output), e); //$NON-NLS-1$
+            }
+        }
+    }
+}
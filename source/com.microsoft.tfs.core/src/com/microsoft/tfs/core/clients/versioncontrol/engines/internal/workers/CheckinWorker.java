@@ -4,6 +4,7 @@
 package com.microsoft.tfs.core.clients.versioncontrol.engines.internal.workers;
 
 import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -25,15 +26,20 @@ import com.microsoft.tfs.core.clients.versioncontrol.engines.internal.workers.Wo
 import com.microsoft.tfs.core.clients.versioncontrol.exceptions.VersionControlException;
 import com.microsoft.tfs.core.clients.versioncontrol.internal.httpclient.CancellableChunkPart;
 import com.microsoft.tfs.core.clients.versioncontrol.internal.httpclient.CancellableFilePart;
+import com.microsoft.tfs.core.clients.versioncontrol.internal.httpclient.GZIPFilePartSource;
 import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.PendingChange;
 import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.Workspace;
 import com.microsoft.tfs.core.config.EnvironmentVariables;
 import com.microsoft.tfs.core.exceptions.internal.CoreCancelException;
 import com.microsoft.tfs.core.httpclient.methods.PostMethod;
+import com.microsoft.tfs.core.httpclient.methods.multipart.ByteArrayPartSource;
+import com.microsoft.tfs.core.httpclient.methods.multipart.FilePartSource;
 import com.microsoft.tfs.core.httpclient.methods.multipart.MultipartRequestEntity;
 import com.microsoft.tfs.core.httpclient.methods.multipart.Part;
+import com.microsoft.tfs.core.httpclient.methods.multipart.PartSource;
 import com.microsoft.tfs.core.httpclient.methods.multipart.StringPart;
 import com.microsoft.tfs.util.Check;
+import com.microsoft.tfs.util.GZIPCompressingInputStream;
 import com.microsoft.tfs.util.base64.Base64;
 import com.microsoft.tfs.util.tasks.FileProcessingProgressMonitorAdapter;
 import com.microsoft.tfs.util.tasks.TaskMonitor;
@@ -76,6 +82,12 @@ public class CheckinWorker implements Worker {
      */
     private static final int GZIP_COMPRESS_READ_BUFFER = 4096;
 
+    /**
+     * The size of the buffer used to read compressed bytes from a
+     * {@link GZIPCompressingInputStream} when measuring the compressed length.
+     */
+    private static final int GZIP_MEASURE_READ_BUFFER = 64 * 1024;
+
     /**
      * The default size of the upload chunk.
      *
@@ -119,6 +131,22 @@ public class CheckinWorker implements Worker {
     private static final int MAX_CHUNK_RETRY_ATTEMPTS =
         getRetryAttempts(EnvironmentVariables.MAX_CHUNK_RETRY_ATTEMPTS, DEFAULT_CHUNK_RETRY_ATTEMPTS);
 
+    /**
+     * A property which, when set to <code>true</code>, compresses files as
+     * they are uploaded instead of into a temporary file first, and doesn't
+     * compress files whose content is already compressed (see
+     * {@link IncompressibleFileDetector}).
+     */
+    private static final String STREAMING_UPLOAD_PROPERTY_NAME =
+        "com.microsoft.tfs.core.clients.versioncontrol.checkin.streamingupload"; //$NON-NLS-1$
+
+    private static final boolean STREAMING_UPLOAD = Boolean.getBoolean(STREAMING_UPLOAD_PROPERTY_NAME);
+
+    /**
+     * The file name sent in the content part.
+     */
+    private static final String ITEM_FILE_NAME = "item"; //$NON-NLS-1$
+
     /**
      * Compressed file content type
      */
@@ -261,23 +289,35 @@ public class CheckinWorker implements Worker {
             // part 5 is the chunk byte range.
             // part 6 is the chunk content.
 
-            /*
-             * Compress the file to a temporary file if possible.
-             */
+            PartSource compressedSource = null;
             if (0 < uncompressedFileLength && uncompressedFileLength < MAX_GZIP_INPUT_SIZE) {
-                compressedFile = compressToTempFile(uncompressedSourceFile);
+                if (STREAMING_UPLOAD) {
+                    /*
+                     * Compress as the file is sent, unless it's already
+                     * compressed.
+                     */
+                    if (!IncompressibleFileDetector.isIncompressible(new File(uncompressedSourceFile))) {
+                        compressedSource = createCompressedPartSource(uncompressedSourceFile);
+                    }
+                } else {
+                    /*
+                     * Compress the file to a temporary file.
+                     */
+                    compressedFile = compressToTempFile(uncompressedSourceFile);
+                    compressedSource = new FilePartSource(ITEM_FILE_NAME, compressedFile);
+                }
             }
 
             /*
              * Use the uncompressed file if compression increases the file size.
              */
-            final File uploadFile;
+            final PartSource uploadSource;
             final String contentType;
-            if (compressedFile == null || compressedFile.length() > uncompressedFileLength) {
-                uploadFile = new File(uncompressedSourceFile);
+            if (compressedSource == null || compressedSource.getLength() > uncompressedFileLength) {
+                uploadSource = new FilePartSource(ITEM_FILE_NAME, new File(uncompressedSourceFile));
                 contentType = UNCOMPRESSED;
             } else {
-                uploadFile = compressedFile;
+                uploadSource = compressedSource;
                 contentType = COMPRESSED;
             }
 
@@ -290,11 +330,13 @@ public class CheckinWorker implements Worker {
                         throw new CoreCancelException();
                     }
 
-                    retryableUpload(uploadFile, parts, contentType);
+                    retryableUpload(uploadSource, parts, contentType);
 
                     /*
                      * Upload succeeded.
                      */
+                    client.getUploadDownloadWorkerExecutor(uncompressedFileLength).recordBytesTransferred(
+                        uploadSource.getLength());
                     return;
                 } catch (final SocketException e) {
                     log.warn(MessageFormat.format(
@@ -302,6 +344,8 @@ public class CheckinWorker implements Worker {
                         attempt,
                         uncompressedSourceFile), e);
 
+                    client.getUploadDownloadWorkerExecutor(uncompressedFileLength).recordTransferFailure();
+
                     if (attempt < MAX_FILE_RETRY_ATTEMPTS) {
                         log.info("Retrying"); //$NON-NLS-1$
                     } else {
@@ -327,13 +371,13 @@ public class CheckinWorker implements Worker {
     }
 
     /**
-     * Upload the given source file to the Team Foundation Server. If an
-     * exception is thrown, no clean-up of the source file is performed (the
-     * caller must handle this condition).
+     * Upload the given content to the Team Foundation Server. If an exception
+     * is thrown, no clean-up of the source file is performed (the caller must
+     * handle this condition).
      *
-     * @param uploadFile
-     *        the compressed or uncompressed local file that will be sent to the
-     *        server, which must exist (must not be <code>null</code> or empty)
+     * @param uploadSource
+     *        the compressed or uncompressed content that will be sent to the
+     *        server (must not be <code>null</code>)
      * @param parts
      *        partially populated content parts. The Range part and file part
      *        are filled in for each chunk here.
@@ -343,10 +387,10 @@ public class CheckinWorker implements Worker {
      *         if the upload was cancelled by the user via the
      *         {@link TaskMonitor}.
      */
-    private void retryableUpload(final File uploadFile, final Part[] parts, final String contentType)
+    private void retryableUpload(final PartSource uploadSource, final Part[] parts, final String contentType)
         throws SocketException,
             CoreCancelException {
-        Check.notNull(uploadFile, "uploadFile"); //$NON-NLS-1$
+        Check.notNull(uploadSource, "uploadSource"); //$NON-NLS-1$
         Check.notNullOrEmpty(parts, "parts"); //$NON-NLS-1$
         Check.notNullOrEmpty(contentType, "contentType"); //$NON-NLS-1$
 
@@ -355,11 +399,11 @@ public class CheckinWorker implements Worker {
         BufferedInputStream bufferedStream = null;
 
         try {
-            final long uploadFileLength = uploadFile.length();
+            final long uploadFileLength = uploadSource.getLength();
             long uploadFilePos = 0;
             boolean aChunkHasBeenRetried = false;
 
-            fileStream = new FileInputStream(uploadFile);
+            fileStream = uploadSource.createInputStream();
             bufferedStream = new BufferedInputStream(fileStream);
 
             do {
@@ -382,7 +426,7 @@ public class CheckinWorker implements Worker {
                      * with chunks at all.
                      */
 
-                    filePart = new CancellableFilePart("content", "item", uploadFile, contentType, null); //$NON-NLS-1$ //$NON-NLS-2$
+                    filePart = new CancellableFilePart("content", uploadSource, contentType, null); //$NON-NLS-1$
                     /*
                      * NOTE We construct the file part in a special way so the
                      * character set is never sent to the server (TFS can't
@@ -404,11 +448,13 @@ public class CheckinWorker implements Worker {
                      * Chunked upload. We mark the current position in the
                      * buffered stream to allow re-sending of the chunk in case
                      * redirection or authentication is required on the lower
-                     * HTTP Client level.
+                     * HTTP Client level. The buffered stream's buffer grows to
+                     * hold one chunk, which is all of the content that is in
+                     * memory at once.
                      */
 
                     bufferedStream.mark(MAX_CHUNK_SIZE);
-                    filePart = new CancellableChunkPart(uploadFile, bufferedStream, contentType, chunkSize);
+                    filePart = new CancellableChunkPart(uploadSource, bufferedStream, contentType, chunkSize);
                 }
 
                 /*
@@ -422,7 +468,7 @@ public class CheckinWorker implements Worker {
                         + "-" //$NON-NLS-1$
                         + (uploadFilePos + chunkSize - 1)
                         + "/" //$NON-NLS-1$
-                        + uploadFile.length()
+                        + uploadFileLength
                         + "\r\n", //$NON-NLS-1$
                     partCharSet);
 
@@ -559,6 +605,87 @@ public class CheckinWorker implements Worker {
         }
     }
 
+    /**
+     * Compresses the source file without writing the compressed data to disk,
+     * to find its compressed length. If the compressed data fits in one upload
+     * chunk it is kept in memory and sent from there, otherwise the file is
+     * compressed again as it is sent.
+     *
+     * @param sourceFile
+     *        the source file to compress (must not be <code>null</code> or
+     *        empty).
+     * @return a part source for the compressed content
+     * @throws CoreCancelException
+     *         if the compression was cancelled by the user via Core's
+     *         TaskMonitor.
+     */
+    private PartSource createCompressedPartSource(final String sourceFile) throws CoreCancelException {
+        Check.notNullOrEmpty(sourceFile, "sourceFile"); //$NON-NLS-1$
+
+        final File file = new File(sourceFile);
+        final long fileLength = file.length();
+
+        /*
+         * Keep the compressed data if it fits in a chunk (or in a buffer of the
+         * default chunk size when chunking is disabled) and isn't larger than
+         * the file (in which case the file is sent uncompressed).
+         */
+        final long memoryLimit = Math.min(MAX_CHUNK_SIZE > 0 ? MAX_CHUNK_SIZE : DEFAULT_UPLOAD_CHUNK_SIZE, fileLength);
+        ByteArrayOutputStream memory = new ByteArrayOutputStream((int) Math.min(memoryLimit, 64 * 1024));
+
+        GZIPCompressingInputStream gzis = null;
+
+        final String messageFormat =
+            MessageFormat.format(
+                Messages.getString("CheckinWorker.CompressFIleProgressFormat_SKIPVALIDATE"), //$NON-NLS-1$
+                change.getServerItem());
+        final FileProcessingProgressMonitorAdapter monitor =
+            new FileProcessingProgressMonitorAdapter(userCancellationMonitor, fileLength, messageFormat);
+
+        TaskMonitorService.pushTaskMonitor(monitor);
+
+        try {
+            gzis = new GZIPCompressingInputStream(new FileInputStream(file));
+
+            final byte[] buffer = new byte[GZIP_MEASURE_READ_BUFFER];
+            long uncompressedRead = 0;
+            int read = 0;
+            while ((read = gzis.read(buffer)) != -1) {
+                if (TaskMonitorService.getTaskMonitor().isCanceled()) {
+                    throw new CoreCancelException();
+                }
+
+                if (memory != null) {
+                    if (gzis.getCompressedCount() <= memoryLimit) {
+                        memory.write(buffer, 0, read);
+                    } else {
+                        memory = null;
+                    }
+                }
+
+                TaskMonitorService.getTaskMonitor().worked((int) (gzis.getUncompressedCount() - uncompressedRead));
+                uncompressedRead = gzis.getUncompressedCount();
+            }
+
+            if (memory != null) {
+                return new ByteArrayPartSource(ITEM_FILE_NAME, memory.toByteArray());
+            } else {
+                return new GZIPFilePartSource(ITEM_FILE_NAME, file, gzis.getCompressedCount());
+            }
+        } catch (final IOException e) {
+            throw new VersionControlException(e);
+        } finally {
+            try {
+                if (gzis != null) {
+                    gzis.close();
+                }
+            } catch (final IOException e) {
+            }
+
+            TaskMonitorService.popTaskMonitor();
+        }
+    }
+
     /**
      * Compress the source file to a new temporary file, and return the absolute
      * path to the new temporary file. The algorithm used is gzip.
@@ -0,0 +1,18 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the repository root.
+
+package com.microsoft.tfs.core.clients.versioncontrol.engines.internal.workers;
+
+import com.microsoft.tfs.core.clients.versioncontrol.engines.internal.DownloadScheduler;
+
+/**
+ * A {@link Worker} which downloads one file, run by a
+ * {@link DownloadScheduler}.
+ */
+public interface DownloadWorker extends Worker {
+    /**
+     * @return the number of bytes this worker downloaded from the server, or
+     *         -1 if it didn't download anything
+     */
+    public long getDownloadedBytes();
+}
@@ -22,6 +22,7 @@ import com.microsoft.tfs.core.clients.versioncontrol.engines.internal.AsyncGetOp
 import com.microsoft.tfs.core.clients.versioncontrol.engines.internal.BaselineFileDownloadOutput;
 import com.microsoft.tfs.core.clients.versioncontrol.engines.internal.FileDownloadOutput;
 import com.microsoft.tfs.core.clients.versioncontrol.engines.internal.GetEngine;
+import com.microsoft.tfs.core.clients.versioncontrol.engines.internal.LocalContentCache;
 import com.microsoft.tfs.core.clients.versioncontrol.engines.internal.workers.WorkerStatus.FinalState;
 import com.microsoft.tfs.core.clients.versioncontrol.events.EventSource;
 import com.microsoft.tfs.core.clients.versioncontrol.events.VersionControlEventEngine;
@@ -69,7 +70,7 @@ import com.microsoft.tfs.util.temp.TempStorageService;
  *
  * @threadsafety thread-safe
  */
-public class GetDownloadWorker extends AbstractDownloadWorker {
+public class GetDownloadWorker extends AbstractDownloadWorker implements DownloadWorker {
     private static final Log log = LogFactory.getLog(GetDownloadWorker.class);
 
     private final GetEngine getEngine;
@@ -79,6 +80,18 @@ public class GetDownloadWorker extends AbstractDownloadWorker {
     private final BaselineFolderCollection baselineFolders;
     private final byte[] baselineFileGUID;
 
+    /**
+     * The machine's content cache, or <code>null</code> if it is disabled.
+     */
+    private final LocalContentCache contentCache;
+
+    /**
+     * The number of bytes the server sent (compressed, if the file was sent
+     * compressed), or -1 if nothing has been downloaded (yet, or because the
+     * content came from the content cache).
+     */
+    private volatile long downloadedBytes = -1;
+
     /**
      * Create a worker that can download and complete a get operation. Use the
      * {@link #call()} method to do the work.
@@ -133,6 +146,7 @@ public class GetDownloadWorker extends AbstractDownloadWorker {
         this.existingLocalAttrs = existingLocalAttrs;
         this.baselineFolders = baselineFolders;
         this.baselineFileGUID = baselineFileGUID;
+        this.contentCache = LocalContentCache.getInstance(client.getConnection().getPersistenceStoreProvider());
     }
 
     /**
@@ -196,6 +210,16 @@ public class GetDownloadWorker extends AbstractDownloadWorker {
         return new WorkerStatus(this, FinalState.NORMAL);
     }
 
+    /**
+     * @return the number of bytes this worker downloaded from the server, or
+     *         -1 if it didn't download anything (it hasn't run, it was
+     *         canceled or failed, or the content came from the content cache)
+     */
+    @Override
+    public long getDownloadedBytes() {
+        return downloadedBytes;
+    }
+
     /**
      * Download the file for {@link #operation}. If {@link #baselineFolders} and
      * {@link #baselineFileGUID} are non-<code>null</code>, updates the baseline
@@ -303,11 +327,26 @@ public class GetDownloadWorker extends AbstractDownloadWorker {
                 outputs.add(workingFolderOutput);
             }
 
-            getClient().downloadFileToStreams(
-                operation.createDownloadSpec(),
-                outputs.toArray(new DownloadOutput[outputs.size()]),
-                getEventSource(),
-                getCancelMonitor());
+            /*
+             * Content another workspace on this machine already downloaded can
+             * be copied from the content cache (which verifies its hash)
+             * instead of downloaded again.
+             */
+            final DownloadOutput[] outputArray = outputs.toArray(new DownloadOutput[outputs.size()]);
+            boolean downloaded = false;
+
+            if (contentCache == null
+                || !contentCache.copyTo(operation.getHashValue(), outputArray, getCancelMonitor())) {
+                final long bytes = getClient().downloadFileToStreams(
+                    operation.createDownloadSpec(),
+                    outputArray,
+                    getEventSource(),
+                    getCancelMonitor());
+
+                downloaded = true;
+                downloadedBytes = bytes;
+                getClient().getUploadDownloadWorkerExecutor().recordBytesTransferred(bytes);
+            }
 
             /*
              * Pull the baseline's actual file from the output. We only know
@@ -328,6 +367,10 @@ public class GetDownloadWorker extends AbstractDownloadWorker {
             // Close the outputs so we can use them.
             closeDownloadOutputStreamsSafely(outputs);
 
+            if (downloaded && contentCache != null) {
+                contentCache.add(operation.getHashValue(), workingFolderTempFile);
+            }
+
             // Renames the temp file to the operation's target local item.
             moveTempFileToTargetFile(workingFolderTempFile, targetSymLink, targetSymLinkDestinationUnmapped);
 
@@ -0,0 +1,165 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the repository root.
+
+package com.microsoft.tfs.core.clients.versioncontrol.engines.internal.workers;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.microsoft.tfs.util.Check;
+
+/**
+ * Guesses whether gzipping a file before upload is a waste of time because its
+ * content is already compressed (archives, most image, audio and video
+ * formats).
+ * <p>
+ * Files with a well known compressed extension are skipped without reading
+ * them. Otherwise a few blocks from the start, middle and end of the file are
+ * sampled and the byte entropy of the sample is computed; compressed or
+ * encrypted data is close to 8 bits per byte, while text and most binaries are
+ * well below it.
+ * <p>
+ * This is a guess: the caller must still be prepared for compression to make
+ * a file larger.
+ *
+ * @threadsafety thread-safe
+ */
+public final class IncompressibleFileDetector {
+    private static final Log log = LogFactory.getLog(IncompressibleFileDetector.class);
+
+    /**
+     * Lower case extensions (without the dot) of formats which are compressed.
+     */
+    private static final Set<String> COMPRESSED_EXTENSIONS = new HashSet<String>(Arrays.asList(new String[] {
+        "7z", //$NON-NLS-1$
+        "apk", //$NON-NLS-1$
+        "bz2", //$NON-NLS-1$
+        "cab", //$NON-NLS-1$
+        "docx", //$NON-NLS-1$
+        "ear", //$NON-NLS-1$
+        "flac", //$NON-NLS-1$
+        "gif", //$NON-NLS-1$
+        "gz", //$NON-NLS-1$
+        "jar", //$NON-NLS-1$
+        "jpeg", //$NON-NLS-1$
+        "jpg", //$NON-NLS-1$
+        "m4a", //$NON-NLS-1$
+        "mkv", //$NON-NLS-1$
+        "mov", //$NON-NLS-1$
+        "mp3", //$NON-NLS-1$
+        "mp4", //$NON-NLS-1$
+        "nupkg", //$NON-NLS-1$
+        "ogg", //$NON-NLS-1$
+        "png", //$NON-NLS-1$
+        "pptx", //$NON-NLS-1$
+        "rar", //$NON-NLS-1$
+        "tgz", //$NON-NLS-1$
+        "war", //$NON-NLS-1$
+        "webp", //$NON-NLS-1$
+        "xlsx", //$NON-NLS-1$
+        "xz", //$NON-NLS-1$
+        "zip" //$NON-NLS-1$
+    }));
+
+    /**
+     * The number of blocks sampled, and the size of each.
+     */
+    private static final int SAMPLE_BLOCKS = 4;
+    private static final int SAMPLE_BLOCK_SIZE = 16 * 1024;
+
+    /**
+     * Samples with at least this many bits of entropy per byte are considered
+     * incompressible. Deflate gets less than 5% out of such data.
+     */
+    private static final double ENTROPY_THRESHOLD = 7.5;
+
+    private IncompressibleFileDetector() {
+    }
+
+    /**
+     * @param file
+     *        the file to test (must not be <code>null</code>)
+     * @return <code>true</code> if the file's content is probably already
+     *         compressed, <code>false</code> if it is probably worth
+     *         compressing or can't be read
+     */
+    public static boolean isIncompressible(final File file) {
+        Check.notNull(file, "file"); //$NON-NLS-1$
+
+        if (hasCompressedExtension(file.getName())) {
+            return true;
+        }
+
+        try {
+            return sampleEntropy(file) >= ENTROPY_THRESHOLD;
+        } catch (final IOException e) {
+            log.debug("Could not sample file for compression, will compress it", e); //$NON-NLS-1$
+            return false;
+        }
+    }
+
+    static boolean hasCompressedExtension(final String fileName) {
+        final int dot = fileName.lastIndexOf('.');
+
+        return dot >= 0 && COMPRESSED_EXTENSIONS.contains(fileName.substring(dot + 1).toLowerCase(Locale.US));
+    }
+
+    /**
+     * @return the Shannon entropy in bits per byte of up to
+     *         {@link #SAMPLE_BLOCKS} blocks spread through the file
+     */
+    static double sampleEntropy(final File file) throws IOException {
+        final long[] counts = new long[256];
+        final byte[] buffer = new byte[SAMPLE_BLOCK_SIZE];
+        long total = 0;
+
+        final RandomAccessFile raf = new RandomAccessFile(file, "r"); //$NON-NLS-1$
+        try {
+            final long length = raf.length();
+            final int blocks = (int) Math.min(SAMPLE_BLOCKS, (length + SAMPLE_BLOCK_SIZE - 1) / SAMPLE_BLOCK_SIZE);
+
+            for (int i = 0; i < blocks; i++) {
+                // Evenly spaced, the first at the start and the last at the end
+                final long position =
+                    blocks == 1 ? 0 : (length - SAMPLE_BLOCK_SIZE) * i / (blocks - 1);
+
+                raf.seek(position);
+
+                int read = 0;
+                int count;
+                while (read < buffer.length && (count = raf.read(buffer, read, buffer.length - read)) != -1) {
+                    read += count;
+                }
+
+                for (int j = 0; j < read; j++) {
+                    counts[buffer[j] & 0xff]++;
+                }
+                total += read;
+            }
+        } finally {
+            raf.close();
+        }
+
+        if (total == 0) {
+            return 0;
+        }
+
+        double entropy = 0;
+        for (final long count : counts) {
+            if (count > 0) {
+                final double p = (double) count / total;
+                entropy -= p * Math.log(p);
+            }
+        }
+
+        return entropy / Math.log(2);
+    }
+}
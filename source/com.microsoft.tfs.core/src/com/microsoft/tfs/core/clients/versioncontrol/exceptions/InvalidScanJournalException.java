@@ -0,0 +1,16 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the repository root.
+
+package com.microsoft.tfs.core.clients.versioncontrol.exceptions;
+
+public class InvalidScanJournalException extends VersionControlException {
+    private static final long serialVersionUID = -3920486473129650813L;
+
+    public InvalidScanJournalException() {
+        super();
+    }
+
+    public InvalidScanJournalException(final Exception innerException) {
+        super("", innerException); //$NON-NLS-1$
+    }
+}
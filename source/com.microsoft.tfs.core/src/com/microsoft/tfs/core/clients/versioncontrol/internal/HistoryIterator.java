@@ -3,8 +3,20 @@
 
 package com.microsoft.tfs.core.clients.versioncontrol.internal;
 
+import java.text.MessageFormat;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 
 import com.microsoft.tfs.core.clients.versioncontrol.exceptions.VersionControlException;
 import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.Changeset;
@@ -12,6 +24,10 @@ import com.microsoft.tfs.core.clients.versioncontrol.specs.ItemSpec;
 import com.microsoft.tfs.core.clients.versioncontrol.specs.version.ChangesetVersionSpec;
 import com.microsoft.tfs.core.clients.versioncontrol.specs.version.VersionSpec;
 import com.microsoft.tfs.util.Check;
+import com.microsoft.tfs.util.Closable;
+import com.microsoft.tfs.util.tasks.CanceledException;
+import com.microsoft.tfs.util.tasks.TaskMonitor;
+import com.microsoft.tfs.util.tasks.TaskMonitorService;
 
 import ms.tfs.versioncontrol.clientservices._03._Changeset;
 
@@ -31,11 +47,24 @@ import ms.tfs.versioncontrol.clientservices._03._Changeset;
  * </p>
  *
  * <p>
+ * In read-ahead mode, as soon as a page arrives the next page is requested on
+ * a background thread, so the server works on page N+1 while the caller
+ * consumes page N. At most one page is read ahead. The background request runs
+ * with the {@link TaskMonitor} of the thread which started it, and a caller
+ * waiting for the page stops waiting (with a {@link CanceledException}) when
+ * that {@link TaskMonitor} is canceled. Callers which may stop iterating
+ * early must call {@link #close()} (the iterator is {@link Closable}) to cancel
+ * the read-ahead; once closed, no more pages are requested.
+ * </p>
+ *
+ * <p>
  * This {@link Iterator} implementation does not support the optional
  * {@link Iterator#remove()} method.
  * </p>
  */
-public class HistoryIterator implements Iterator<Changeset> {
+public class HistoryIterator implements Iterator<Changeset>, Closable {
+    private static final Log log = LogFactory.getLog(HistoryIterator.class);
+
     /**
      * The maximum number of changesets we will page in during a single call to
      * QueryHistory. This number is chosen because it is what Visual Studio's
@@ -43,6 +72,27 @@ public class HistoryIterator implements Iterator<Changeset> {
      */
     private static final int PAGE_SIZE = 256;
 
+    /**
+     * A property which, when set to <code>true</code>, makes iterators created
+     * without an explicit read-ahead setting read the next page ahead.
+     */
+    private static final String READ_AHEAD_PROPERTY_NAME =
+        "com.microsoft.tfs.core.clients.versioncontrol.history.readahead"; //$NON-NLS-1$
+
+    private static final boolean READ_AHEAD = Boolean.getBoolean(READ_AHEAD_PROPERTY_NAME);
+
+    /**
+     * How long a caller waiting for a page read ahead waits between checks of
+     * its {@link TaskMonitor} for cancellation.
+     */
+    private static final long CANCEL_POLL_MILLISECONDS = 250;
+
+    /**
+     * How long the read-ahead thread waits for the next page request before it
+     * exits.
+     */
+    private static final long READ_AHEAD_THREAD_KEEP_ALIVE_SECONDS = 30;
+
     /**
      * Proxy for the web service we call to page in changesets.
      */
@@ -63,6 +113,7 @@ public class HistoryIterator implements Iterator<Changeset> {
     private final boolean generateDownloadUrls;
     private final boolean slotMode;
     private final boolean sortAscending;
+    private final boolean readAhead;
 
     /**
      * The top of the next page we will page in (could be <code>null</code>
@@ -106,6 +157,25 @@ public class HistoryIterator implements Iterator<Changeset> {
      */
     private int changesetsIndex = -1;
 
+    /**
+     * The request for the next page, if it is being read ahead, otherwise
+     * <code>null</code>. Its size is {@link #readAheadNumRequested}.
+     */
+    private Future<Changeset[]> readAheadPage;
+    private int readAheadNumRequested;
+
+    /**
+     * Runs this iterator's read-ahead page requests on a single thread, since
+     * only one page is ever in flight. Created by the first read ahead and
+     * shut down by {@link #close()}.
+     */
+    private ThreadPoolExecutor readAheadExecutor;
+
+    /**
+     * Set by {@link #close()}. A closed iterator requests no more pages.
+     */
+    private boolean closed;
+
     /**
      * Creates a new {@link HistoryIterator}. Instantiating a
      * {@link HistoryIterator} does not perform any round trips to the server.
@@ -163,6 +233,46 @@ public class HistoryIterator implements Iterator<Changeset> {
         final boolean generateDownloadUrls,
         final boolean slotMode,
         final boolean sortAscending) {
+        this(
+            webServiceLayer,
+            workspaceName,
+            workspaceOwner,
+            itemSpec,
+            versionItem,
+            user,
+            versionFrom,
+            versionTo,
+            maxCount,
+            includefiles,
+            generateDownloadUrls,
+            slotMode,
+            sortAscending,
+            READ_AHEAD);
+    }
+
+    /**
+     * Creates a new {@link HistoryIterator}. See the other constructor for the
+     * query parameters.
+     *
+     * @param readAhead
+     *        if <code>true</code>, each page after the first is requested in
+     *        the background as soon as the page before it arrives
+     */
+    public HistoryIterator(
+        final WebServiceLayer webServiceLayer,
+        final String workspaceName,
+        final String workspaceOwner,
+        final ItemSpec itemSpec,
+        final VersionSpec versionItem,
+        final String user,
+        final VersionSpec versionFrom,
+        final VersionSpec versionTo,
+        final int maxCount,
+        final boolean includefiles,
+        final boolean generateDownloadUrls,
+        final boolean slotMode,
+        final boolean sortAscending,
+        final boolean readAhead) {
         Check.notNull(webServiceLayer, "webServiceLayer"); //$NON-NLS-1$
 
         this.webServiceLayer = webServiceLayer;
@@ -178,6 +288,29 @@ public class HistoryIterator implements Iterator<Changeset> {
         this.generateDownloadUrls = generateDownloadUrls;
         this.slotMode = slotMode;
         this.sortAscending = sortAscending;
+        this.readAhead = readAhead;
+    }
+
+    /**
+     * Creates a {@link HistoryIterator} which pages in with
+     * {@link #queryPage(VersionSpec, int)}, which a subclass in this package
+     * must override. For tests.
+     */
+    HistoryIterator(final VersionSpec versionTo, final int maxCount, final boolean readAhead) {
+        webServiceLayer = null;
+        workspaceName = null;
+        workspaceOwner = null;
+        itemSpec = null;
+        versionItem = null;
+        user = null;
+        versionFrom = null;
+        endingVersionSpec = versionTo;
+        numLeft = maxCount;
+        includeFiles = false;
+        generateDownloadUrls = false;
+        slotMode = false;
+        sortAscending = false;
+        this.readAhead = readAhead;
     }
 
     /**
@@ -232,6 +365,28 @@ public class HistoryIterator implements Iterator<Changeset> {
         throw new UnsupportedOperationException();
     }
 
+    /**
+     * Cancels the page being read ahead, if any, and stops this iterator from
+     * requesting more pages. Callers which stop iterating before the end should
+     * call this method so the read-ahead thread does not finish a request
+     * nobody will use. After this method is called, {@link #hasNext()} returns
+     * <code>false</code> once the current page has been consumed.
+     */
+    @Override
+    public void close() {
+        closed = true;
+
+        if (readAheadPage != null) {
+            readAheadPage.cancel(true);
+            readAheadPage = null;
+        }
+
+        if (readAheadExecutor != null) {
+            readAheadExecutor.shutdown();
+            readAheadExecutor = null;
+        }
+    }
+
     /**
      * @return <code>true</code> if we have a current page ({@link #changesets}
      *         is non-<code>null</code>), and the current page index (
@@ -250,6 +405,13 @@ public class HistoryIterator implements Iterator<Changeset> {
      *         page
      */
     private boolean areMorePages() {
+        if (closed) {
+            /*
+             * The caller is done with this iterator.
+             */
+            return false;
+        }
+
         if (changesets == null) {
             /*
              * We've never paged at all yet, so we can't say that there are no
@@ -297,35 +459,31 @@ public class HistoryIterator implements Iterator<Changeset> {
     }
 
     /**
-     * Pulls in the next page from the server.
+     * Pulls in the next page from the server (or from the read-ahead request),
+     * then starts reading the page after it ahead if read-ahead is on.
      *
      * @throws VersionControlException
      *         if the web service threw an exception during history query.
+     * @throws CanceledException
+     *         if the current {@link TaskMonitor} was canceled while waiting for
+     *         a page read ahead
      */
     private void pageIn() throws VersionControlException {
-        /*
-         * Figure out how many changesets to request for the the new page. It is
-         * either numLeft or PAGE_SIZE, whichever is smaller.
-         */
-        numRequested = Math.min(numLeft, PAGE_SIZE);
-
-        /*
-         * Pull in the next page by calling the server.
-         */
+        if (readAheadPage != null) {
+            numRequested = readAheadNumRequested;
+            changesets = waitForReadAhead();
+        } else {
+            /*
+             * Figure out how many changesets to request for the the new page.
+             * It is either numLeft or PAGE_SIZE, whichever is smaller.
+             */
+            numRequested = Math.min(numLeft, PAGE_SIZE);
 
-        changesets = webServiceLayer.queryHistory(
-            workspaceName,
-            workspaceOwner,
-            itemSpec,
-            versionItem,
-            user,
-            versionFrom,
-            endingVersionSpec,
-            numRequested,
-            includeFiles,
-            generateDownloadUrls,
-            slotMode,
-            sortAscending);
+            /*
+             * Pull in the next page by calling the server.
+             */
+            changesets = queryPage(endingVersionSpec, numRequested);
+        }
 
         /*
          * Decrement the numLeft field, subtracting the number of changesets in
@@ -340,13 +498,6 @@ public class HistoryIterator implements Iterator<Changeset> {
          * of the next page if there will be one.
          */
         if (changesets.length > 0) {
-            // if the user asked for the changes, sort them
-            if (includeFiles) {
-                for (final Changeset set : changesets) {
-                    set.sortChanges();
-                }
-            }
-
             final int lastChangesetNumber = changesets[changesets.length - 1].getChangesetID();
             endingVersionSpec = new ChangesetVersionSpec(lastChangesetNumber - 1);
         }
@@ -355,5 +506,130 @@ public class HistoryIterator implements Iterator<Changeset> {
          * Set the current page index to 0 (beginning of the page).
          */
         changesetsIndex = 0;
+
+        if (readAhead && areMorePages()) {
+            startReadAhead();
+        }
+    }
+
+    /**
+     * Calls QueryHistory for one page. May be called on a read-ahead thread.
+     *
+     * @return the page (never <code>null</code>)
+     */
+    Changeset[] queryPage(final VersionSpec pageEndingVersionSpec, final int pageNumRequested) {
+        final Changeset[] page = webServiceLayer.queryHistory(
+            workspaceName,
+            workspaceOwner,
+            itemSpec,
+            versionItem,
+            user,
+            versionFrom,
+            pageEndingVersionSpec,
+            pageNumRequested,
+            includeFiles,
+            generateDownloadUrls,
+            slotMode,
+            sortAscending);
+
+        // if the user asked for the changes, sort them
+        if (includeFiles) {
+            for (final Changeset set : page) {
+                set.sortChanges();
+            }
+        }
+
+        return page;
+    }
+
+    /**
+     * Starts requesting the next page on a read-ahead thread. The request runs
+     * with the current thread's {@link TaskMonitor}, so canceling the task
+     * cancels the request.
+     */
+    private void startReadAhead() {
+        final VersionSpec pageEndingVersionSpec = endingVersionSpec;
+        final int pageNumRequested = Math.min(numLeft, PAGE_SIZE);
+        final TaskMonitor taskMonitor = TaskMonitorService.getTaskMonitor();
+
+        if (readAheadExecutor == null) {
+            readAheadExecutor = new ThreadPoolExecutor(
+                1,
+                1,
+                READ_AHEAD_THREAD_KEEP_ALIVE_SECONDS,
+                TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(final Runnable r) {
+                        final Thread thread = new Thread(r, "HistoryIterator read-ahead"); //$NON-NLS-1$
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+
+            // An iterator which is never closed leaves no idle thread behind
+            readAheadExecutor.allowCoreThreadTimeOut(true);
+        }
+
+        readAheadNumRequested = pageNumRequested;
+        readAheadPage = readAheadExecutor.submit(new Callable<Changeset[]>() {
+            @Override
+            public Changeset[] call() throws Exception {
+                TaskMonitorService.pushTaskMonitor(taskMonitor);
+                try {
+                    return queryPage(pageEndingVersionSpec, pageNumRequested);
+                } finally {
+                    TaskMonitorService.popTaskMonitor(false);
+                }
+            }
+        });
+    }
+
+    /**
+     * Waits for the page being read ahead, checking the current thread's
+     * {@link TaskMonitor} for cancellation while waiting. Exceptions thrown by
+     * the request are rethrown on this thread.
+     *
+     * @return the page (never <code>null</code>)
+     */
+    private Changeset[] waitForReadAhead() {
+        final Future<Changeset[]> page = readAheadPage;
+        readAheadPage = null;
+
+        final TaskMonitor taskMonitor = TaskMonitorService.getTaskMonitor();
+        boolean interrupted = false;
+
+        try {
+            while (true) {
+                if (taskMonitor.isCanceled()) {
+                    page.cancel(true);
+                    throw new CanceledException();
+                }
+
+                try {
+                    return page.get(CANCEL_POLL_MILLISECONDS, TimeUnit.MILLISECONDS);
+                } catch (final TimeoutException e) {
+                    // Check for cancellation and wait again
+                } catch (final InterruptedException e) {
+                    interrupted = true;
+                } catch (final ExecutionException e) {
+                    final Throwable cause = e.getCause();
+
+                    if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    } else if (cause instanceof Error) {
+                        throw (Error) cause;
+                    }
+
+                    log.warn(MessageFormat.format("Error reading ahead history for {0}", itemSpec), cause); //$NON-NLS-1$
+                    throw new VersionControlException(cause);
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
     }
 }
@@ -132,8 +132,12 @@ public class AccountingCompletionService<V> extends ExecutorCompletionService<V>
             for (int i = 0; i < submittedCountCopy; i++) {
                 final Future<V> f = super.take();
                 try {
+                    // Get the result even if it's not processed, so a task's
+                    // exception reaches the handler
+                    final V result = f.get();
+
                     if (resultProcessor != null) {
-                        resultProcessor.processResult(f.get());
+                        resultProcessor.processResult(result);
                     }
                 } catch (final ExecutionException e) {
                     log.debug("Execution exception", e); //$NON-NLS-1$
@@ -0,0 +1,231 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the repository root.
+
+package com.microsoft.tfs.core.clients.versioncontrol.internal.concurrent;
+
+import java.text.MessageFormat;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.microsoft.tfs.util.Check;
+
+/**
+ * Adjusts the limit of a {@link BoundedExecutor} while its tasks run, using
+ * additive increase and multiplicative decrease (AIMD) like TCP congestion
+ * control.
+ * <p>
+ * Completions are collected in windows of {@link #WINDOW_MILLISECONDS}. At the
+ * end of each window in which the executor was saturated (tasks waited for a
+ * permit, so the limit was what held throughput back), the throughput of the
+ * window (bytes per second if tasks report bytes through
+ * {@link BoundedExecutor#recordBytesTransferred(long)}, otherwise tasks per
+ * second) is compared with the last window:
+ * <ul>
+ * <li>If throughput dropped, or the time per byte (or per task) grew well past
+ * the lowest recently seen without throughput improving, the limit is cut by
+ * {@link #DECREASE_FACTOR}.</li>
+ * <li>Otherwise the limit grows by one.</li>
+ * </ul>
+ * A transfer failure ({@link BoundedExecutor#recordTransferFailure()}) cuts
+ * the limit at once, at most once per window.
+ *
+ * @threadsafety thread-safe
+ */
+public class AdaptiveConcurrencyController {
+    private final static Log log = LogFactory.getLog(AdaptiveConcurrencyController.class);
+
+    private static final long WINDOW_MILLISECONDS = 2000;
+
+    /**
+     * A window shorter than this many completions doesn't say much about
+     * throughput, so it is extended.
+     */
+    private static final int MIN_WINDOW_TASKS = 4;
+
+    private static final double DECREASE_FACTOR = 0.75;
+
+    /**
+     * Throughput must drop by this fraction to count as a drop, and rise by
+     * this fraction to count as an improvement (so noise doesn't move the
+     * limit).
+     */
+    private static final double THROUGHPUT_TOLERANCE = 0.1;
+
+    /**
+     * The time per unit may grow to this multiple of the lowest recently seen
+     * before the limit is cut.
+     */
+    private static final double LATENCY_FACTOR = 2.0;
+
+    /**
+     * The lowest time per unit drifts up by this factor each window, so a
+     * network which becomes slower for good doesn't hold the limit at the
+     * minimum.
+     */
+    private static final double BASELINE_DRIFT = 1.05;
+
+    private final String name;
+    private final int minLimit;
+    private final int maxLimit;
+
+    private long windowStart = -1;
+    private int windowTasks;
+    private long windowTaskNanos;
+    private long windowBytes;
+    private boolean windowSaturated;
+    private boolean windowDecreased;
+
+    private double previousThroughput = -1;
+    private boolean previousThroughputInBytes;
+    private double baselineLatency = -1;
+
+    /**
+     * @param name
+     *        the name of the executor, for logging (must not be
+     *        <code>null</code>)
+     * @param minLimit
+     *        the smallest limit to set (must be > 0)
+     * @param maxLimit
+     *        the largest limit to set (must be >= minLimit)
+     */
+    public AdaptiveConcurrencyController(final String name, final int minLimit, final int maxLimit) {
+        Check.notNull(name, "name"); //$NON-NLS-1$
+        Check.isTrue(minLimit > 0, "minLimit > 0"); //$NON-NLS-1$
+        Check.isTrue(maxLimit >= minLimit, "maxLimit >= minLimit"); //$NON-NLS-1$
+
+        this.name = name;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+    }
+
+    public int getMinLimit() {
+        return minLimit;
+    }
+
+    public int getMaxLimit() {
+        return maxLimit;
+    }
+
+    /**
+     * Called by the executor after each task completes.
+     *
+     * @param executor
+     *        the executor the task ran on (must not be <code>null</code>)
+     * @param elapsedNanos
+     *        how long the task ran
+     */
+    synchronized void taskCompleted(final BoundedExecutor executor, final long elapsedNanos) {
+        taskCompleted(executor, elapsedNanos, System.nanoTime());
+    }
+
+    /**
+     * Like {@link #taskCompleted(BoundedExecutor, long)}, at the given time (in
+     * {@link System#nanoTime()} units). For tests.
+     */
+    synchronized void taskCompleted(final BoundedExecutor executor, final long elapsedNanos, final long now) {
+        if (windowStart < 0) {
+            windowStart = now - elapsedNanos;
+        }
+
+        windowTasks++;
+        windowTaskNanos += elapsedNanos;
+
+        // The task's permit was already released, so a full executor has one
+        // fewer active task than its limit
+        if (executor.getWaitingCount() > 0 || executor.getActiveCount() + 1 >= executor.getLimit()) {
+            windowSaturated = true;
+        }
+
+        if (windowTasks >= MIN_WINDOW_TASKS && now - windowStart >= WINDOW_MILLISECONDS * 1000000L) {
+            endWindow(executor, now);
+        }
+    }
+
+    synchronized void bytesTransferred(final long bytes) {
+        if (bytes > 0) {
+            windowBytes += bytes;
+        }
+    }
+
+    synchronized void transferFailed(final BoundedExecutor executor) {
+        if (!windowDecreased) {
+            windowDecreased = true;
+            decrease(executor, "transfer failed"); //$NON-NLS-1$
+        }
+    }
+
+    private void endWindow(final BoundedExecutor executor, final long now) {
+        final double seconds = (now - windowStart) / 1000000000.0;
+        final boolean inBytes = windowBytes > 0;
+        final long units = inBytes ? windowBytes : windowTasks;
+        final double throughput = units / seconds;
+        final double latency = (double) windowTaskNanos / units;
+
+        if (inBytes != previousThroughputInBytes) {
+            // Not comparable with the last window
+            previousThroughput = -1;
+            baselineLatency = -1;
+        }
+
+        baselineLatency = (baselineLatency < 0) ? latency : Math.min(latency, baselineLatency * BASELINE_DRIFT);
+
+        if (windowSaturated && !windowDecreased) {
+            final boolean improved =
+                previousThroughput < 0 || throughput > previousThroughput * (1 + THROUGHPUT_TOLERANCE);
+            final boolean dropped = previousThroughput > 0 && throughput < previousThroughput * (1 - THROUGHPUT_TOLERANCE);
+
+            if (dropped) {
+                windowDecreased = true;
+                decrease(executor, "throughput dropped"); //$NON-NLS-1$
+            } else if (!improved && latency > baselineLatency * LATENCY_FACTOR) {
+                windowDecreased = true;
+                decrease(executor, "latency grew"); //$NON-NLS-1$
+            } else if (executor.getLimit() < maxLimit) {
+                setLimit(executor, executor.getLimit() + 1, "probing"); //$NON-NLS-1$
+            }
+        }
+
+        if (log.isTraceEnabled()) {
+            log.trace(MessageFormat.format(
+                "{0}: window of {1} tasks, throughput {2} {3}/s, saturated {4}, limit {5}", //$NON-NLS-1$
+                name,
+                windowTasks,
+                (long) throughput,
+                inBytes ? "bytes" : "tasks", //$NON-NLS-1$ //$NON-NLS-2$
+                windowSaturated,
+                executor.getLimit()));
+        }
+
+        // After a cut, the next window is measured at the lower limit and is
+        // compared with that instead of with this one
+        previousThroughput = windowDecreased ? -1 : throughput;
+        previousThroughputInBytes = inBytes;
+
+        windowStart = now;
+        windowTasks = 0;
+        windowTaskNanos = 0;
+        windowBytes = 0;
+        windowSaturated = false;
+        windowDecreased = false;
+    }
+
+    private void decrease(final BoundedExecutor executor, final String reason) {
+        setLimit(executor, (int) (executor.getLimit() * DECREASE_FACTOR), reason);
+    }
+
+    private void setLimit(final BoundedExecutor executor, final int limit, final String reason) {
+        final int newLimit = Math.max(minLimit, Math.min(maxLimit, limit));
+
+        if (newLimit != executor.getLimit()) {
+            log.debug(MessageFormat.format(
+                "{0}: limit {1} -> {2} ({3})", //$NON-NLS-1$
+                name,
+                executor.getLimit(),
+                newLimit,
+                reason));
+
+            executor.setLimit(newLimit);
+        }
+    }
+}
@@ -7,6 +7,7 @@ import java.text.MessageFormat;
 import java.util.concurrent.Executor;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -19,6 +20,10 @@ import com.microsoft.tfs.util.Check;
  * of tasks to process at once is controlled via the bounds passed at
  * construction. There's no reason to use a bounded other Executor because all
  * the throttling is done here.
+ * <p>
+ * The bound can be changed while tasks are running ({@link #setLimit(int)}),
+ * either by the caller or by an {@link AdaptiveConcurrencyController} given at
+ * construction, which is told when each task completes.
  *
  * For details, see "Java Concurrency in Practice" (Brian Goetz), Listing 8.4.
  *
@@ -28,8 +33,21 @@ public class BoundedExecutor implements Executor {
     private final static Log log = LogFactory.getLog(BoundedExecutor.class);
 
     private final Executor executor;
-    private final Semaphore semaphore;
-    private final int maxPermits;
+    private final ResizableSemaphore semaphore;
+    private final AdaptiveConcurrencyController controller;
+
+    /**
+     * The current bound. Guarded by {@link #limitLock} for writes.
+     */
+    private volatile int limit;
+    private final Object limitLock = new Object();
+
+    /**
+     * The number of tasks running (holding a permit) and the number of
+     * submitters blocked waiting for a permit.
+     */
+    private final AtomicInteger activeCount = new AtomicInteger();
+    private final AtomicInteger waitingCount = new AtomicInteger();
 
     /**
      * Constructs a {@link BoundedExecutor} that throttles the task submission
@@ -44,12 +62,33 @@ public class BoundedExecutor implements Executor {
      *        executor. Must be > 0.
      */
     public BoundedExecutor(final Executor executor, final int bound) {
+        this(executor, bound, null);
+    }
+
+    /**
+     * Constructs a {@link BoundedExecutor} that throttles the task submission
+     * rate to the given executor by blocking, and whose bound is adjusted by a
+     * controller.
+     *
+     * @param executor
+     *        the executor to hand tasks to (must not be <code>null</code>) This
+     *        should be an unbounded pool, because bounding it doesn't make
+     *        sense (this class does the throttling).
+     * @param bound
+     *        the initial maximum number of tasks to be executing via the given
+     *        executor. Must be > 0.
+     * @param controller
+     *        the controller which adjusts the bound as tasks complete (may be
+     *        <code>null</code> for a fixed bound)
+     */
+    public BoundedExecutor(final Executor executor, final int bound, final AdaptiveConcurrencyController controller) {
         Check.notNull(executor, "executor"); //$NON-NLS-1$
         Check.isTrue(bound > 0, "bound > 0"); //$NON-NLS-1$
 
         this.executor = executor;
-        semaphore = new Semaphore(bound);
-        maxPermits = bound;
+        this.controller = controller;
+        semaphore = new ResizableSemaphore(bound);
+        limit = bound;
 
         log.trace(MessageFormat.format("constructed with bounds {0}", Integer.toString(bound))); //$NON-NLS-1$
     }
@@ -81,10 +120,15 @@ public class BoundedExecutor implements Executor {
             executor.execute(new Runnable() {
                 @Override
                 public void run() {
+                    final long start = System.nanoTime();
                     try {
                         command.run();
                     } finally {
                         release();
+
+                        if (controller != null) {
+                            controller.taskCompleted(BoundedExecutor.this, System.nanoTime() - start);
+                        }
                     }
                 }
             });
@@ -93,21 +137,119 @@ public class BoundedExecutor implements Executor {
         }
     }
 
+    /**
+     * @return the maximum number of tasks which may run at once
+     */
+    public int getLimit() {
+        return limit;
+    }
+
+    /**
+     * Changes the maximum number of tasks which may run at once. Lowering the
+     * limit does not stop running tasks; new tasks wait until enough running
+     * tasks finish.
+     *
+     * @param newLimit
+     *        the new limit (must be > 0)
+     */
+    public void setLimit(final int newLimit) {
+        Check.isTrue(newLimit > 0, "newLimit > 0"); //$NON-NLS-1$
+
+        synchronized (limitLock) {
+            final int difference = newLimit - limit;
+
+            if (difference > 0) {
+                semaphore.release(difference);
+            } else if (difference < 0) {
+                semaphore.reducePermits(-difference);
+            }
+
+            limit = newLimit;
+        }
+
+        log.debug(MessageFormat.format("limit set to {0}", Integer.toString(newLimit))); //$NON-NLS-1$
+    }
+
+    /**
+     * @return the number of tasks running now
+     */
+    public int getActiveCount() {
+        return activeCount.get();
+    }
+
+    /**
+     * @return the number of submitters blocked waiting for a running task to
+     *         finish
+     */
+    public int getWaitingCount() {
+        return waitingCount.get();
+    }
+
+    /**
+     * Tells this executor's controller (if any) that a task transferred some
+     * bytes, so the controller can measure throughput in bytes instead of in
+     * tasks.
+     *
+     * @param bytes
+     *        the number of bytes transferred
+     */
+    public void recordBytesTransferred(final long bytes) {
+        if (controller != null) {
+            controller.bytesTransferred(bytes);
+        }
+    }
+
+    /**
+     * Tells this executor's controller (if any) that a task had to retry a
+     * transfer because of a network error, which it treats as a sign of
+     * congestion.
+     */
+    public void recordTransferFailure() {
+        if (controller != null) {
+            controller.transferFailed(this);
+        }
+    }
+
     private void acquire() throws InterruptedException {
-        semaphore.acquire();
+        waitingCount.incrementAndGet();
+        try {
+            semaphore.acquire();
+        } finally {
+            waitingCount.decrementAndGet();
+        }
+
+        activeCount.incrementAndGet();
 
         log.trace(MessageFormat.format(
             "semaphore acquired: {0}/{1} permits left", //$NON-NLS-1$
             Integer.toString(semaphore.availablePermits()),
-            Integer.toString(maxPermits)));
+            Integer.toString(limit)));
     }
 
     private void release() {
+        activeCount.decrementAndGet();
         semaphore.release();
 
         log.trace(MessageFormat.format(
             "semaphore released: {0}/{1} permits left", //$NON-NLS-1$
             Integer.toString(semaphore.availablePermits()),
-            Integer.toString(maxPermits)));
+            Integer.toString(limit)));
+    }
+
+    /**
+     * A {@link Semaphore} whose permits can be taken away without waiting for
+     * them to be released.
+     */
+    private static class ResizableSemaphore extends Semaphore {
+        private static final long serialVersionUID = 6530931236383456925L;
+
+        public ResizableSemaphore(final int permits) {
+            super(permits);
+        }
+
+        @Override
+        public void reducePermits(final int reduction) {
+            super.reducePermits(reduction);
+        }
     }
 }
@@ -12,6 +12,7 @@ import java.io.OutputStream;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
+import com.microsoft.tfs.core.httpclient.methods.multipart.PartSource;
 import com.microsoft.tfs.util.Check;
 import com.microsoft.tfs.util.StringUtil;
 import com.microsoft.tfs.util.tasks.TaskMonitor;
@@ -19,7 +20,9 @@ import com.microsoft.tfs.util.tasks.TaskMonitorService;
 
 /**
  * Extends CancellableFilePart (which represents file data in a MIME multi-part
- * message), but uses a buffered input stream instead of a File.
+ * message), but uses a buffered input stream instead of a File. The stream may
+ * come from a file or from any other {@link PartSource} (for example one that
+ * compresses a file as it is read).
  * <p>
  * To use this part, make sure to wrap your method execution invocation with a
  * catch for SendDataCancellationException, which is thrown on cancel.
@@ -60,6 +63,25 @@ public class CancellableChunkPart extends CancellableFilePart {
         this.chunkSize = chunkSize;
     }
 
+    public CancellableChunkPart(
+        final PartSource source,
+        final InputStream stream,
+        final String contentType,
+        final long chunkSize) {
+        /*
+         * See the other constructor for why the character set is removed. The
+         * source is only used for its file name; the data comes from the
+         * stream.
+         */
+        super("content", source, contentType, null); //$NON-NLS-1$
+        setCharSet(null);
+
+        Check.isTrue(stream.markSupported(), "The stream does not support retry."); //$NON-NLS-1$
+        this.stream = stream;
+
+        this.chunkSize = chunkSize;
+    }
+
     /**
      * Write the data in "source" to the specified stream.
      *
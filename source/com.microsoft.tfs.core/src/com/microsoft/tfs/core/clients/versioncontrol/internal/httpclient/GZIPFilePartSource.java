@@ -0,0 +1,100 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the repository root.
+
+package com.microsoft.tfs.core.clients.versioncontrol.internal.httpclient;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.text.MessageFormat;
+
+import com.microsoft.tfs.core.httpclient.methods.multipart.PartSource;
+import com.microsoft.tfs.util.Check;
+import com.microsoft.tfs.util.GZIPCompressingInputStream;
+
+/**
+ * A {@link PartSource} which gzips a file as it is read, so the compressed
+ * data never has to be written anywhere. The compressed length must be known
+ * when the source is constructed (the upload protocol sends it before the
+ * data); it is usually measured by reading a {@link GZIPCompressingInputStream}
+ * over the same file once.
+ * <p>
+ * If the file changes so that it no longer compresses to the given length,
+ * streams from this source throw {@link IOException} when they reach the end
+ * of the data.
+ *
+ * @threadsafety immutable
+ */
+public class GZIPFilePartSource implements PartSource {
+    private final String fileName;
+    private final File file;
+    private final long compressedLength;
+
+    /**
+     * @param fileName
+     *        the file name to send in the part (must not be <code>null</code>)
+     * @param file
+     *        the uncompressed file (must not be <code>null</code>)
+     * @param compressedLength
+     *        the length of the file's content compressed by
+     *        {@link GZIPCompressingInputStream} (must be >= 0)
+     */
+    public GZIPFilePartSource(final String fileName, final File file, final long compressedLength) {
+        Check.notNull(fileName, "fileName"); //$NON-NLS-1$
+        Check.notNull(file, "file"); //$NON-NLS-1$
+        Check.isTrue(compressedLength >= 0, "compressedLength >= 0"); //$NON-NLS-1$
+
+        this.fileName = fileName;
+        this.file = file;
+        this.compressedLength = compressedLength;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getLength() {
+        return compressedLength;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getFileName() {
+        return fileName;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public InputStream createInputStream() throws IOException {
+        final GZIPCompressingInputStream stream = new GZIPCompressingInputStream(new FileInputStream(file));
+
+        return new FilterInputStream(stream) {
+            @Override
+            public int read() throws IOException {
+                return checkLength(super.read());
+            }
+
+            @Override
+            public int read(final byte[] b, final int off, final int len) throws IOException {
+                return checkLength(super.read(b, off, len));
+            }
+
+            private int checkLength(final int result) throws IOException {
+                if ((result == -1 && stream.getCompressedCount() != compressedLength)
+                    || stream.getCompressedCount() > compressedLength) {
+                    throw new IOException(MessageFormat.format(
+                        "{0} changed while it was being uploaded", //$NON-NLS-1$
+                        file.getAbsolutePath()));
+                }
+
+                return result;
+            }
+        };
+    }
+}
@@ -9,26 +9,47 @@ import java.io.InputStream;
 
 import com.microsoft.tfs.util.Check;
 
+/**
+ * Reads the little-endian primitives and length-prefixed strings written by
+ * {@link BinaryWriter}.
+ * <p>
+ * The reader buffers the stream itself so reading a primitive does not
+ * allocate, and decodes UTF-16LE strings directly from its buffer. Metadata
+ * tables read several values for each of hundreds of thousands of rows, so
+ * this keeps loading them from producing garbage beyond the strings
+ * themselves.
+ *
+ * @threadsafety thread-compatible
+ */
 public class BinaryReader {
+    private static final String UTF_16LE = "UTF-16LE"; //$NON-NLS-1$
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
     private final InputStream is;
     private final String charsetName;
+    private final boolean utf16LE;
+
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int position;
+    private int limit;
+
+    /**
+     * Characters decoded by {@link #readString()}, grown as needed.
+     */
+    private char[] chars = new char[256];
 
     public BinaryReader(final InputStream is, final String charsetName) {
-        Check.isTrue(is.markSupported(), "is"); //$NON-NLS-1$
+        Check.notNull(is, "is"); //$NON-NLS-1$
+        Check.notNull(charsetName, "charsetName"); //$NON-NLS-1$
 
         this.is = is;
         this.charsetName = charsetName;
+        this.utf16LE = UTF_16LE.equalsIgnoreCase(charsetName);
     }
 
     public boolean isEOF() throws IOException {
-        is.mark(1);
-        final int value = is.read();
-        if (value == -1) {
-            return true;
-        } else {
-            is.reset();
-            return false;
-        }
+        return !fill(1);
     }
 
     public boolean readBoolean() throws IOException {
@@ -36,47 +57,39 @@ public class BinaryReader {
     }
 
     public byte readByte() throws IOException {
-        final int value = is.read();
-        if (value == -1) {
-            throw new EOFException();
-        }
-
-        return (byte) value;
+        require(1);
+        return buffer[position++];
     }
 
     public byte[] readBytes(final int count) throws IOException {
         final byte[] bytes = new byte[count];
-        final int bytesRead = is.read(bytes);
-        if (bytesRead == -1) {
-            throw new EOFException();
-        }
-
-        if (bytesRead < count) {
-            throw new IllegalStateException();
-        }
-
+        readFully(bytes, 0, count);
         return bytes;
     }
 
     public short readInt16() throws IOException {
-        final byte[] bytes = readBytes(2);
+        require(2);
 
-        short value = (short) (bytes[1] & 0xff);
+        short value = (short) (buffer[position + 1] & 0xff);
         value <<= 8;
-        value |= bytes[0] & 0xff;
+        value |= buffer[position] & 0xff;
+
+        position += 2;
         return value;
     }
 
     public int readInt32() throws IOException {
-        final byte[] bytes = readBytes(4);
+        require(4);
 
-        int value = bytes[3] & 0xff;
+        int value = buffer[position + 3] & 0xff;
         value <<= 8;
-        value |= bytes[2] & 0xff;
+        value |= buffer[position + 2] & 0xff;
         value <<= 8;
-        value |= bytes[1] & 0xff;
+        value |= buffer[position + 1] & 0xff;
         value <<= 8;
-        value |= bytes[0] & 0xff;
+        value |= buffer[position] & 0xff;
+
+        position += 4;
         return value;
     }
 
@@ -85,23 +98,25 @@ public class BinaryReader {
     }
 
     public long readInt64() throws IOException {
-        final byte[] bytes = readBytes(8);
+        require(8);
 
-        long value = bytes[7] & 0xff;
+        long value = buffer[position + 7] & 0xff;
         value <<= 8;
-        value |= bytes[6] & 0xff;
+        value |= buffer[position + 6] & 0xff;
         value <<= 8;
-        value |= bytes[5] & 0xff;
+        value |= buffer[position + 5] & 0xff;
         value <<= 8;
-        value |= bytes[4] & 0xff;
+        value |= buffer[position + 4] & 0xff;
         value <<= 8;
-        value |= bytes[3] & 0xff;
+        value |= buffer[position + 3] & 0xff;
         value <<= 8;
-        value |= bytes[2] & 0xff;
+        value |= buffer[position + 2] & 0xff;
         value <<= 8;
-        value |= bytes[1] & 0xff;
+        value |= buffer[position + 1] & 0xff;
         value <<= 8;
-        value |= bytes[0] & 0xff;
+        value |= buffer[position] & 0xff;
+
+        position += 8;
         return value;
     }
 
@@ -117,13 +132,107 @@ public class BinaryReader {
             multiplier *= 128;
         } while (true);
 
-        final byte[] bytes = readBytes(length);
-        final String s = new String(bytes, charsetName);
+        if (!utf16LE || (length & 1) != 0) {
+            return new String(readBytes(length), charsetName);
+        }
+
+        final int charCount = length / 2;
+        if (chars.length < charCount) {
+            chars = new char[Math.max(charCount, chars.length * 2)];
+        }
+
+        // Decode a buffer at a time; surrogate pairs need no special handling
+        // because each UTF-16 code unit is copied as-is.
+        int decoded = 0;
+        while (decoded < charCount) {
+            require(2);
+
+            final int available = Math.min(charCount - decoded, (limit - position) / 2);
+            for (int i = 0; i < available; i++) {
+                chars[decoded++] = (char) ((buffer[position + 1] & 0xff) << 8 | (buffer[position] & 0xff));
+                position += 2;
+            }
+        }
 
-        return s;
+        return new String(chars, 0, charCount);
     }
 
     public void close() throws IOException {
         is.close();
     }
+
+    /**
+     * Ensures at least <code>count</code> (no more than the buffer size) bytes
+     * are available in the buffer.
+     *
+     * @throws EOFException
+     *         if the stream ends first
+     */
+    private void require(final int count) throws IOException {
+        if (!fill(count)) {
+            throw new EOFException();
+        }
+    }
+
+    /**
+     * Reads from the stream until at least <code>count</code> (no more than the
+     * buffer size) bytes are available in the buffer.
+     *
+     * @return true if the bytes are available, false if the stream ended first
+     */
+    private boolean fill(final int count) throws IOException {
+        if (limit - position >= count) {
+            return true;
+        }
+
+        // Move the unread bytes to the front of the buffer
+        if (position > 0) {
+            System.arraycopy(buffer, position, buffer, 0, limit - position);
+            limit -= position;
+            position = 0;
+        }
+
+        while (limit < count) {
+            final int read = is.read(buffer, limit, buffer.length - limit);
+            if (read == -1) {
+                return false;
+            }
+
+            limit += read;
+        }
+
+        return true;
+    }
+
+    /**
+     * Copies <code>count</code> bytes into <code>bytes</code>, reading large
+     * arrays directly from the stream instead of through the buffer.
+     */
+    private void readFully(final byte[] bytes, int offset, int count) throws IOException {
+        final int buffered = Math.min(count, limit - position);
+        System.arraycopy(buffer, position, bytes, offset, buffered);
+        position += buffered;
+        offset += buffered;
+        count -= buffered;
+
+        if (count == 0) {
+            return;
+        }
+
+        if (count >= buffer.length) {
+            while (count > 0) {
+                final int read = is.read(bytes, offset, count);
+                if (read == -1) {
+                    throw new EOFException();
+                }
+
+                offset += read;
+                count -= read;
+            }
+        } else {
+            require(count);
+            System.arraycopy(buffer, position, bytes, offset, count);
+            position += count;
+        }
+    }
 }
@@ -14,6 +14,7 @@ public class EnumeratedLocalItem {
     private final FileSystemAttributes attrs;
 
     private String serverItem;
+    private byte[] contentHash;
 
     public EnumeratedLocalItem(final File file, final FileSystemAttributes attrs) {
         this.name = file.getName();
@@ -67,6 +68,18 @@ public class EnumeratedLocalItem {
         serverItem = value;
     }
 
+    /**
+     * @return the MD5 hash of the item's content if it was computed while the
+     *         item was enumerated, otherwise <code>null</code>
+     */
+    public byte[] getContentHash() {
+        return contentHash;
+    }
+
+    public void setContentHash(final byte[] value) {
+        contentHash = value;
+    }
+
     public boolean isExecutable() {
         if (isSymbolicLink()) {
             return false;
@@ -5,9 +5,12 @@ package com.microsoft.tfs.core.clients.versioncontrol.internal.localworkspace;
 
 import java.io.File;
 import java.text.MessageFormat;
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
 import java.util.NoSuchElementException;
 import java.util.Queue;
 import java.util.Set;
@@ -37,6 +40,7 @@ public class LocalItemEnumerator implements Iterator<EnumeratedLocalItem> {
     private Set<String> excludedPaths;
 
     private File[] currentFileList;
+    private FileSystemAttributes[] currentAttributesList;
     private int currentFileListIndex;
 
     private EnumeratedLocalItem currentLocalItem;
@@ -63,7 +67,7 @@ public class LocalItemEnumerator implements Iterator<EnumeratedLocalItem> {
         if (!startPath.exists()) {
             currentFileList = new File[0];
         } else if (startPath.isDirectory()) {
-            currentFileList = startPath.listFiles();
+            listDirectory(startPath);
         } else if (startPath.isFile()) {
             currentFileList = new File[] {
                 startPath
@@ -96,62 +100,173 @@ public class LocalItemEnumerator implements Iterator<EnumeratedLocalItem> {
         excludedPaths.add(localItem);
     }
 
-    private boolean moveNext() {
-        while (true) {
-            if (currentFileList != null && currentFileListIndex < currentFileList.length) {
-                final File currentFile = currentFileList[currentFileListIndex++];
+    public boolean isRecursive() {
+        return recurse;
+    }
 
-                if (currentFile.getName().equals(".") || currentFile.getName().equals("..")) //$NON-NLS-1$ //$NON-NLS-2$
-                {
-                    continue;
-                }
+    /**
+     * Creates an enumerator for a directory beneath this enumerator's start
+     * path which skips the same items this enumerator skips and has the same
+     * tag.
+     *
+     * @param startPath
+     *        the directory to enumerate (must not be <code>null</code>)
+     * @param recurse
+     *        true to enumerate the directory's subdirectories, false to
+     *        enumerate only its direct children
+     * @return a new enumerator
+     */
+    public LocalItemEnumerator createChildEnumerator(final File startPath, final boolean recurse) {
+        final List<String> excludedPaths =
+            this.excludedPaths != null ? new ArrayList<String>(this.excludedPaths) : null;
 
-                // Defer loading these attributes
-                FileSystemAttributes fileAttrs = null;
-
-                // The $tf directory is marked hidden on Windows
-                if (!enumerateHiddenAndSystem) {
-                    // Check to see if the file is hidden. Skip and log a
-                    // warning if the file attributes cannot be read.
-                    try {
-                        fileAttrs = FileSystemUtils.getInstance().getAttributes(currentFile.getPath());
-
-                        if (fileAttrs.isHidden()) {
-                            continue;
-                        }
-                    } catch (final RuntimeException e) {
-                        // Ignore this file if we can't read attributes.
-                        continue;
-                    }
-                }
+        return new LocalItemEnumerator(startPath, recurse, enumerateHiddenAndSystem, excludedPaths, tag);
+    }
 
-                // On non-Windows platforms $tf/.tf cannot be marked hidden,
-                // so test for it here
-                if (BaselineFolder.isPotentialBaselineFolderName(currentFile.getName())) {
-                    continue;
-                }
+    /**
+     * Reads the attributes of the given file and creates an
+     * {@link EnumeratedLocalItem} for it, unless the file is one this
+     * enumerator skips ('.' and '..', hidden files, baseline folders and
+     * excluded paths).
+     * <p>
+     * Safe to call from multiple threads once all excluded paths have been
+     * added.
+     *
+     * @param currentFile
+     *        the file to create an item for (must not be <code>null</code>)
+     * @return the item, or <code>null</code> if the file is skipped
+     */
+    EnumeratedLocalItem createItem(final File currentFile) {
+        return createItem(currentFile, null);
+    }
 
-                if (excludedPaths != null && excludedPaths.contains(currentFile.getPath())) {
-                    continue;
+    /**
+     * Like {@link #createItem(File)}, but uses attributes which were already
+     * read for the file (see {@link #listDirectory(File)}).
+     *
+     * @param currentFile
+     *        the file to create an item for (must not be <code>null</code>)
+     * @param attributes
+     *        the file's attributes, or <code>null</code> to read them
+     * @return the item, or <code>null</code> if the file is skipped
+     */
+    EnumeratedLocalItem createItem(final File currentFile, final FileSystemAttributes attributes) {
+        if (currentFile.getName().equals(".") || currentFile.getName().equals("..")) //$NON-NLS-1$ //$NON-NLS-2$
+        {
+            return null;
+        }
+
+        // Defer loading these attributes
+        FileSystemAttributes fileAttrs = attributes;
+
+        // The $tf directory is marked hidden on Windows
+        if (fileAttrs != null) {
+            if (!enumerateHiddenAndSystem && fileAttrs.isHidden()) {
+                return null;
+            }
+        } else if (!enumerateHiddenAndSystem) {
+            // Check to see if the file is hidden. Skip and log a
+            // warning if the file attributes cannot be read.
+            try {
+                fileAttrs = FileSystemUtils.getInstance().getAttributes(currentFile.getPath());
+
+                if (fileAttrs.isHidden()) {
+                    return null;
                 }
+            } catch (final RuntimeException e) {
+                // Ignore this file if we can't read attributes.
+                return null;
+            }
+        }
 
-                if (fileAttrs == null) {
-                    fileAttrs = FileSystemUtils.getInstance().getAttributes(currentFile.getPath());
+        // On non-Windows platforms $tf/.tf cannot be marked hidden,
+        // so test for it here
+        if (BaselineFolder.isPotentialBaselineFolderName(currentFile.getName())) {
+            return null;
+        }
+
+        if (excludedPaths != null && excludedPaths.contains(currentFile.getPath())) {
+            return null;
+        }
+
+        if (fileAttrs == null) {
+            fileAttrs = FileSystemUtils.getInstance().getAttributes(currentFile.getPath());
+        }
+
+        return new EnumeratedLocalItem(currentFile, fileAttrs);
+    }
+
+    /**
+     * Lists a directory and reads the attributes of its children in one pass
+     * ({@link FileSystemUtils#getChildAttributes(String)}).
+     *
+     * @param directory
+     *        the directory to list (must not be <code>null</code>)
+     * @param files
+     *        the list to add the children to (must not be <code>null</code>)
+     * @param attributes
+     *        the list to add the children's attributes to, at the same indexes
+     *        as the files (must not be <code>null</code>). An attribute is
+     *        <code>null</code> if it could not be read.
+     * @return false if the directory could not be listed
+     */
+    static boolean listDirectory(
+        final File directory,
+        final List<File> files,
+        final List<FileSystemAttributes> attributes) {
+        final Map<String, FileSystemAttributes> children =
+            FileSystemUtils.getInstance().getChildAttributes(directory.getPath());
+
+        if (children == null) {
+            return false;
+        }
+
+        for (final Entry<String, FileSystemAttributes> child : children.entrySet()) {
+            files.add(new File(directory, child.getKey()));
+            attributes.add(child.getValue());
+        }
+
+        return true;
+    }
+
+    private void listDirectory(final File directory) {
+        final List<File> files = new ArrayList<File>();
+        final List<FileSystemAttributes> attributes = new ArrayList<FileSystemAttributes>();
+
+        if (listDirectory(directory, files, attributes)) {
+            currentFileList = files.toArray(new File[files.size()]);
+            currentAttributesList = attributes.toArray(new FileSystemAttributes[attributes.size()]);
+        } else {
+            currentFileList = null;
+            currentAttributesList = null;
+        }
+    }
+
+    private boolean moveNext() {
+        while (true) {
+            if (currentFileList != null && currentFileListIndex < currentFileList.length) {
+                final FileSystemAttributes attributes =
+                    currentAttributesList != null ? currentAttributesList[currentFileListIndex] : null;
+                final File currentFile = currentFileList[currentFileListIndex++];
+                final EnumeratedLocalItem item = createItem(currentFile, attributes);
+
+                if (item == null) {
+                    continue;
                 }
 
-                if (recurse && fileAttrs.isDirectory() && !fileAttrs.isSymbolicLink()) {
+                if (recurse && item.isDirectory()) {
                     // put on the directories to be searched stack
                     stateStack.peek().add(currentFile);
                 }
 
-                currentLocalItem = new EnumeratedLocalItem(currentFile, fileAttrs);
+                currentLocalItem = item;
                 return true;
             } else {
                 while (stateStack.size() > 0) {
                     if (stateStack.peek().size() > 0) {
                         final File subDir = stateStack.peek().poll();
                         stateStack.push(new LinkedList<File>());
-                        currentFileList = subDir.listFiles();
+                        listDirectory(subDir);
                         currentFileListIndex = 0;
                         break;
                     } else {
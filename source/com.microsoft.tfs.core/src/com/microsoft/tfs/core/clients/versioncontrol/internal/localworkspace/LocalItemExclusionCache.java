@@ -7,6 +7,7 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.net.URI;
 import java.text.MessageFormat;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Comparator;
 import java.util.Map;
@@ -23,6 +24,8 @@ import org.w3c.dom.Element;
 
 import com.microsoft.tfs.core.Messages;
 import com.microsoft.tfs.core.clients.versioncontrol.exceptions.VersionControlException;
+import com.microsoft.tfs.core.clients.versioncontrol.localworkspace.IgnoreFile;
+import com.microsoft.tfs.core.clients.versioncontrol.localworkspace.LocalItemExclusionEvaluator;
 import com.microsoft.tfs.core.clients.versioncontrol.localworkspace.LocalItemExclusionsUpdatedListener;
 import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.LocalItemExclusionSet;
 import com.microsoft.tfs.core.clients.versioncontrol.workspacecache.internal.InternalServerInfo;
@@ -75,6 +78,16 @@ public class LocalItemExclusionCache {
     private final Map<InternalServerInfo, ExclusionSet> exclusions =
         new TreeMap<InternalServerInfo, ExclusionSet>(new InternalServerInfoGUIDComparator());
 
+    /**
+     * The last exclusions returned for each server, compiled for matching, so
+     * each {@link LocalItemExclusionEvaluator} doesn't have to compile them
+     * again. Rebuilt when the exclusions change.
+     *
+     * Synchronized on itself.
+     */
+    private final Map<InternalServerInfo, CompiledExclusions> compiledExclusions =
+        new TreeMap<InternalServerInfo, CompiledExclusions>(new InternalServerInfoGUIDComparator());
+
     // Unlike VS we pass in the file; it's easier this way
     public LocalItemExclusionCache(final File cacheFile, final boolean cacheEnabled) {
         this.cacheFile = cacheFile;
@@ -231,6 +244,30 @@ public class LocalItemExclusionCache {
         }
     }
 
+    /**
+     * Returns the set of all default and user exclusions as an
+     * {@link IgnoreFile} which can be shared by exclusion evaluators.
+     *
+     * @param serverInfo
+     *        the server to get exclusions for (must not be <code>null</code>)
+     * @return the global exclusion list for the server (never
+     *         <code>null</code>). Don't add entries to it.
+     */
+    public IgnoreFile getExclusionsIgnoreFile(final InternalServerInfo serverInfo) {
+        final String[] exclusions = getExclusions(serverInfo);
+
+        synchronized (compiledExclusions) {
+            CompiledExclusions compiled = compiledExclusions.get(serverInfo);
+
+            if (compiled == null || !Arrays.equals(compiled.exclusions, exclusions)) {
+                compiled = new CompiledExclusions(exclusions, IgnoreFile.loadGlobalExclusions(exclusions));
+                compiledExclusions.put(serverInfo, compiled);
+            }
+
+            return compiled.ignoreFile;
+        }
+    }
+
     /**
      * Returns the last time we called the server to determine the default
      * exclusions.
@@ -452,6 +489,16 @@ public class LocalItemExclusionCache {
      *
      * @threadsafety unknown
      */
+    private static class CompiledExclusions {
+        public final String[] exclusions;
+        public final IgnoreFile ignoreFile;
+
+        public CompiledExclusions(final String[] exclusions, final IgnoreFile ignoreFile) {
+            this.exclusions = exclusions;
+            this.ignoreFile = ignoreFile;
+        }
+    }
+
     private class InternalServerInfoGUIDComparator implements Comparator<InternalServerInfo> {
         @Override
         public int compare(final InternalServerInfo o1, final InternalServerInfo o2) {
@@ -0,0 +1,329 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the repository root.
+
+package com.microsoft.tfs.core.clients.versioncontrol.internal.localworkspace;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.microsoft.tfs.core.clients.versioncontrol.localworkspace.LocalMetadataTable;
+import com.microsoft.tfs.util.Check;
+
+/**
+ * The append-only log a {@link LocalMetadataTable} writes its changes to
+ * instead of rewriting the whole table (see
+ * {@link LocalMetadataTable#getLogPath(String)}).
+ * <p>
+ * The log starts with an ID which matches the ID stored in the table's
+ * snapshot (the file in slot 1). A log whose ID does not match was left behind
+ * by an earlier snapshot (for example, the process stopped after rewriting the
+ * snapshot but before starting its new log) and is ignored. Each record holds
+ * one save's changes and ends with a checksum, so a record torn by a crash is
+ * ignored along with anything after it, and the table loads as it was after
+ * the previous save.
+ * <p>
+ * The log is protected by the table's lock.
+ *
+ * @threadsafety thread-compatible
+ */
+public class LocalMetadataTableLog {
+    private static final Log log = LogFactory.getLog(LocalMetadataTableLog.class);
+
+    private static final short MAGIC = (short) 0x7c1f;
+    private static final byte SCHEMA_VERSION_1 = 1;
+
+    /**
+     * Magic (2 bytes), schema version (1 byte) and ID (8 bytes).
+     */
+    private static final int HEADER_LENGTH = 11;
+
+    private final String path;
+
+    /**
+     * @param filename
+     *        the table's file name, without an extension (must not be
+     *        <code>null</code>)
+     */
+    public LocalMetadataTableLog(final String filename) {
+        Check.notNull(filename, "filename"); //$NON-NLS-1$
+
+        this.path = LocalMetadataTable.getLogPath(filename);
+    }
+
+    /**
+     * Reads the records in the log, stopping at the first incomplete or
+     * corrupt record.
+     *
+     * @param id
+     *        the ID the log must have
+     * @param records
+     *        receives the payload of each record (must not be
+     *        <code>null</code>)
+     * @return the length of the log up to the end of the last complete record,
+     *         which is 0 if the log does not exist or has a different ID
+     */
+    public long read(final long id, final List<byte[]> records) throws IOException {
+        Check.notNull(records, "records"); //$NON-NLS-1$
+
+        final FileInputStream fis;
+        try {
+            fis = new FileInputStream(path);
+        } catch (final FileNotFoundException e) {
+            return 0;
+        }
+
+        final BinaryReader br = new BinaryReader(new BufferedInputStream(fis), "UTF-16LE"); //$NON-NLS-1$
+        try {
+            final long fileLength = new File(path).length();
+
+            try {
+                if (MAGIC != br.readInt16() || SCHEMA_VERSION_1 != br.readByte() || id != br.readInt64()) {
+                    return 0;
+                }
+            } catch (final EOFException e) {
+                return 0;
+            }
+
+            long validLength = HEADER_LENGTH;
+            final CRC32 crc = new CRC32();
+
+            try {
+                while (!br.isEOF()) {
+                    final int length = br.readInt32();
+                    if (length < 0 || validLength + 8 + length > fileLength) {
+                        break;
+                    }
+
+                    final byte[] payload = br.readBytes(length);
+                    final int checksum = br.readInt32();
+
+                    crc.reset();
+                    crc.update(payload);
+                    if ((int) crc.getValue() != checksum) {
+                        break;
+                    }
+
+                    records.add(payload);
+                    validLength += 8 + length;
+                }
+            } catch (final EOFException e) {
+                // Torn record at the end of the log
+            }
+
+            if (validLength != fileLength) {
+                log.warn(MessageFormat.format(
+                    "Ignoring {0} bytes of incomplete records at the end of {1}", //$NON-NLS-1$
+                    fileLength - validLength,
+                    path));
+            }
+
+            return validLength;
+        } finally {
+            br.close();
+        }
+    }
+
+    /**
+     * Reads the records in the log, stopping at the first incomplete or
+     * corrupt record.
+     *
+     * @return the payload of each record (never <code>null</code>)
+     */
+    public List<byte[]> read(final long id) throws IOException {
+        final List<byte[]> records = new ArrayList<byte[]>();
+        read(id, records);
+        return records;
+    }
+
+    /**
+     * Reads the last record in the log without reading the records before it:
+     * only their lengths are read, and only the last record's checksum is
+     * verified. If the last record is incomplete or corrupt, the one before it
+     * is returned, as {@link #read(long, List)} would stop there.
+     *
+     * @param id
+     *        the ID the log must have
+     * @return the payload of the last complete record, or <code>null</code> if
+     *         the log does not exist, has a different ID or has no records
+     */
+    public byte[] readLastRecord(final long id) throws IOException {
+        final RandomAccessFile raf;
+        try {
+            raf = new RandomAccessFile(path, "r"); //$NON-NLS-1$
+        } catch (final FileNotFoundException e) {
+            return null;
+        }
+
+        try {
+            final long fileLength = raf.length();
+            if (fileLength < HEADER_LENGTH) {
+                return null;
+            }
+
+            final byte[] header = new byte[HEADER_LENGTH];
+            raf.readFully(header);
+
+            final BinaryReader br = new BinaryReader(new ByteArrayInputStream(header), "UTF-16LE"); //$NON-NLS-1$
+            if (MAGIC != br.readInt16() || SCHEMA_VERSION_1 != br.readByte() || id != br.readInt64()) {
+                return null;
+            }
+
+            // Find where each complete record starts
+            final List<Long> offsets = new ArrayList<Long>();
+            final byte[] lengthBytes = new byte[4];
+            long offset = HEADER_LENGTH;
+
+            while (offset + 4 <= fileLength) {
+                raf.seek(offset);
+                raf.readFully(lengthBytes);
+
+                final int length = toInt32(lengthBytes);
+                if (length < 0 || offset + 8 + length > fileLength) {
+                    break;
+                }
+
+                offsets.add(offset);
+                offset += 8 + length;
+            }
+
+            final CRC32 crc = new CRC32();
+            for (int i = offsets.size() - 1; i >= 0; i--) {
+                raf.seek(offsets.get(i));
+                raf.readFully(lengthBytes);
+
+                final byte[] payload = new byte[toInt32(lengthBytes)];
+                raf.readFully(payload);
+                raf.readFully(lengthBytes);
+
+                crc.reset();
+                crc.update(payload);
+                if ((int) crc.getValue() == toInt32(lengthBytes)) {
+                    return payload;
+                }
+            }
+
+            return null;
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Appends a record to the log, first discarding anything after the end of
+     * the last complete record.
+     *
+     * @param id
+     *        the ID the log must have
+     * @param validLength
+     *        the length returned by {@link #read(long, List)} or by the last
+     *        call to this method. If 0, the log is started over with the given
+     *        ID.
+     * @param payload
+     *        the record (must not be <code>null</code>)
+     * @return the length of the log including the new record
+     */
+    public long append(final long id, final long validLength, final byte[] payload) throws IOException {
+        Check.notNull(payload, "payload"); //$NON-NLS-1$
+
+        final ByteArrayOutputStream os = new ByteArrayOutputStream(HEADER_LENGTH + 8 + payload.length);
+        final BinaryWriter bw = new BinaryWriter(os, "UTF-16LE"); //$NON-NLS-1$
+
+        if (validLength == 0) {
+            writeHeader(bw, id);
+        }
+
+        final CRC32 crc = new CRC32();
+        crc.update(payload);
+
+        bw.write(payload.length);
+        bw.write(payload);
+        bw.write((int) crc.getValue());
+        bw.close();
+
+        final byte[] bytes = os.toByteArray();
+
+        if (validLength == 0) {
+            final FileOutputStream fos = new FileOutputStream(path);
+            try {
+                fos.write(bytes);
+            } finally {
+                fos.close();
+            }
+
+            return bytes.length;
+        }
+
+        final RandomAccessFile raf = new RandomAccessFile(path, "rw"); //$NON-NLS-1$
+        try {
+            raf.setLength(validLength);
+            raf.seek(validLength);
+            raf.write(bytes);
+        } finally {
+            raf.close();
+        }
+
+        return validLength + bytes.length;
+    }
+
+    /**
+     * Starts the log over with no records.
+     *
+     * @param id
+     *        the ID of the snapshot the log follows
+     * @return the length of the empty log
+     */
+    public long reset(final long id) throws IOException {
+        final ByteArrayOutputStream os = new ByteArrayOutputStream(HEADER_LENGTH);
+        final BinaryWriter bw = new BinaryWriter(os, "UTF-16LE"); //$NON-NLS-1$
+        writeHeader(bw, id);
+        bw.close();
+
+        final FileOutputStream fos = new FileOutputStream(path);
+        try {
+            fos.write(os.toByteArray());
+        } finally {
+            fos.close();
+        }
+
+        return HEADER_LENGTH;
+    }
+
+    /**
+     * Deletes the log, if it exists.
+     */
+    public void delete() {
+        final File file = new File(path);
+
+        if (file.exists() && !file.delete()) {
+            log.warn(MessageFormat.format("Could not delete {0}", path)); //$NON-NLS-1$
+        }
+    }
+
+    /**
+     * Decodes a little-endian int, the way {@link BinaryReader} reads one.
+     */
+    private static int toInt32(final byte[] bytes) {
+        return (bytes[0] & 0xff) | (bytes[1] & 0xff) << 8 | (bytes[2] & 0xff) << 16 | (bytes[3] & 0xff) << 24;
+    }
+
+    private static void writeHeader(final BinaryWriter bw, final long id) throws IOException {
+        bw.write(MAGIC);
+        bw.write(SCHEMA_VERSION_1);
+        bw.write(id);
+    }
+}
@@ -28,6 +28,7 @@ import com.microsoft.tfs.core.clients.versioncontrol.sparsetree.EnumeratedSparse
 import com.microsoft.tfs.core.clients.versioncontrol.sparsetree.SparseTree;
 import com.microsoft.tfs.core.clients.versioncontrol.sparsetree.SparseTree.EnumNodeCallback;
 import com.microsoft.tfs.core.clients.versioncontrol.sparsetree.SparseTreeAdditionalData;
+import com.microsoft.tfs.core.clients.versioncontrol.sparsetree.SparseTreeSegmentPool;
 import com.microsoft.tfs.util.Check;
 import com.microsoft.tfs.util.GUID;
 import com.microsoft.tfs.util.StringUtil;
@@ -58,14 +59,24 @@ public class LocalPendingChangesTable extends LocalMetadataTable {
     protected void initialize() {
         hasRenames = false;
 
-        pendingChangesTarget =
-            new SparseTree<LocalPendingChange>(ServerPath.PREFERRED_SEPARATOR_CHARACTER, String.CASE_INSENSITIVE_ORDER);
+        // The trees index the same pending changes, so they share their path
+        // segments.
+        final SparseTreeSegmentPool segmentPool = new SparseTreeSegmentPool();
 
-        pendingChangesCommitted =
-            new SparseTree<LocalPendingChange>(ServerPath.PREFERRED_SEPARATOR_CHARACTER, String.CASE_INSENSITIVE_ORDER);
+        pendingChangesTarget = new SparseTree<LocalPendingChange>(
+            ServerPath.PREFERRED_SEPARATOR_CHARACTER,
+            String.CASE_INSENSITIVE_ORDER,
+            segmentPool);
 
-        pendingChangesCandidateTarget =
-            new SparseTree<LocalPendingChange>(ServerPath.PREFERRED_SEPARATOR_CHARACTER, String.CASE_INSENSITIVE_ORDER);
+        pendingChangesCommitted = new SparseTree<LocalPendingChange>(
+            ServerPath.PREFERRED_SEPARATOR_CHARACTER,
+            String.CASE_INSENSITIVE_ORDER,
+            segmentPool);
+
+        pendingChangesCandidateTarget = new SparseTree<LocalPendingChange>(
+            ServerPath.PREFERRED_SEPARATOR_CHARACTER,
+            String.CASE_INSENSITIVE_ORDER,
+            segmentPool);
 
         baseSignature = WebServiceLayerLocalWorkspaces.INITIAL_PENDING_CHANGES_SIGNATURE;
         clientSignature = WebServiceLayerLocalWorkspaces.INITIAL_PENDING_CHANGES_SIGNATURE;
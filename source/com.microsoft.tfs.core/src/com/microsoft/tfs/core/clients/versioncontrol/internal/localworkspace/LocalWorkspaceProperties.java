@@ -787,6 +787,8 @@ public class LocalWorkspaceProperties extends LocalMetadataTable {
 
         final String targetSlotOnePath = getSlotOnePath(targetMetadataTablePath);
         final String targetSlotTwoPath = getSlotTwoPath(targetMetadataTablePath);
+        final String logPath = getLogPath(metadataTablePath);
+        final String targetLogPath = getLogPath(targetMetadataTablePath);
 
         final BaselineFolder currentBaselineFolder = metadataTableLocations.get(metadataTableName);
 
@@ -811,6 +813,12 @@ public class LocalWorkspaceProperties extends LocalMetadataTable {
                 attributes.setNotContentIndexed(true);
                 FileSystemUtils.getInstance().setAttributes(targetSlotTwoPath, attributes);
             }
+
+            // The log holds changes made since the snapshot was written, so it
+            // moves with it.
+            if (new File(logPath).exists()) {
+                LocalWorkspaceProperties.rename(logPath, targetLogPath);
+            }
         } catch (final Throwable t) {
             // The move failed; restore the previous metadata table location
             // before throwing.
@@ -0,0 +1,259 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the repository root.
+
+package com.microsoft.tfs.core.clients.versioncontrol.internal.localworkspace;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+
+import com.microsoft.tfs.core.clients.versioncontrol.exceptions.InvalidScanJournalException;
+import com.microsoft.tfs.core.clients.versioncontrol.localworkspace.LocalMetadataTable;
+import com.microsoft.tfs.util.Check;
+
+/**
+ * Records what the last complete scan of a local workspace saw on disk, so a
+ * new process (which has no path watcher history) can scan only the
+ * directories which changed since then instead of the whole workspace.
+ * <p>
+ * For each directory the scan listed, the journal stores the directory's last
+ * modified time and a signature of the names of the items the local version
+ * and pending changes tables track in it. It also stores the last modified
+ * time of each ignore file, a signature of the working folders and exclusions
+ * the scan used, and the time the scan started.
+ *
+ * @threadsafety thread-compatible
+ */
+public class LocalWorkspaceScanJournal extends LocalMetadataTable {
+    private static final short MAGIC = (short) 0xAB68;
+    private static final byte SCHEMA_VERSION1 = 1;
+
+    private long highWaterMark;
+    private String signature;
+    private Map<String, DirectoryState> directories;
+    private Map<String, Long> ignoreFiles;
+
+    public LocalWorkspaceScanJournal(final String fileName) throws IOException {
+        super(fileName);
+        /* Don't do anything here, Initialize() runs first */
+    }
+
+    @Override
+    protected void initialize() {
+        directories = newPathMap();
+        ignoreFiles = newPathMap();
+    }
+
+    @Override
+    protected void load(final InputStream is) {
+        final BinaryReader br = new BinaryReader(is, "UTF-16LE"); //$NON-NLS-1$
+        try {
+            final short magic = br.readInt16();
+
+            if (MAGIC != magic) {
+                throw new InvalidScanJournalException();
+            }
+
+            final byte schemaVersion = br.readByte();
+
+            switch (schemaVersion) {
+                case SCHEMA_VERSION1:
+                    loadFromVersion1(br);
+                    break;
+
+                default:
+                    throw new InvalidScanJournalException();
+            }
+        } catch (final Exception e) {
+            if (e instanceof InvalidScanJournalException) {
+                throw (InvalidScanJournalException) e;
+            } else {
+                // Wrap the exception
+                throw new InvalidScanJournalException(e);
+            }
+        }
+    }
+
+    @Override
+    protected boolean save(final OutputStream os) throws IOException {
+        final BinaryWriter bw = new BinaryWriter(os, "UTF-16LE"); //$NON-NLS-1$
+        try {
+            bw.write(MAGIC);
+            writeToVersion1(bw);
+        } finally {
+            bw.close();
+        }
+
+        return hasScanState();
+    }
+
+    private void loadFromVersion1(final BinaryReader br) throws IOException {
+        final boolean hasScanState = br.readBoolean();
+
+        if (!hasScanState) {
+            return;
+        }
+
+        highWaterMark = br.readInt64();
+        signature = br.readString();
+
+        final int directoryCount = br.readInt32();
+
+        for (int i = 0; i < directoryCount; i++) {
+            final String path = br.readString();
+            final long lastWriteTime = br.readInt64();
+            final long trackedItemsSignature = br.readInt64();
+
+            directories.put(path, new DirectoryState(lastWriteTime, trackedItemsSignature));
+        }
+
+        final int ignoreFileCount = br.readInt32();
+
+        for (int i = 0; i < ignoreFileCount; i++) {
+            final String path = br.readString();
+            ignoreFiles.put(path, br.readInt64());
+        }
+    }
+
+    private void writeToVersion1(final BinaryWriter bw) throws IOException {
+        bw.write(SCHEMA_VERSION1);
+        bw.write(hasScanState());
+
+        if (!hasScanState()) {
+            return;
+        }
+
+        bw.write(highWaterMark);
+        bw.write(signature);
+
+        bw.write(directories.size());
+
+        for (final Entry<String, DirectoryState> entry : directories.entrySet()) {
+            bw.write(entry.getKey());
+            bw.write(entry.getValue().getLastWriteTime());
+            bw.write(entry.getValue().getTrackedItemsSignature());
+        }
+
+        bw.write(ignoreFiles.size());
+
+        for (final Entry<String, Long> entry : ignoreFiles.entrySet()) {
+            bw.write(entry.getKey());
+            bw.write(entry.getValue().longValue());
+        }
+    }
+
+    /**
+     * @return true if the journal describes a complete scan, false if it is
+     *         empty (no scan recorded, or the last scan was incomplete)
+     */
+    public boolean hasScanState() {
+        return signature != null;
+    }
+
+    /**
+     * @return the time (in Windows filesystem time) the recorded scan started
+     */
+    public long getHighWaterMark() {
+        return highWaterMark;
+    }
+
+    /**
+     * @return the signature of the working folders and exclusions the recorded
+     *         scan used, or <code>null</code> if the journal is empty
+     */
+    public String getSignature() {
+        return signature;
+    }
+
+    /**
+     * @return the directories the recorded scan listed, keyed by local path
+     *         (never <code>null</code>)
+     */
+    public Map<String, DirectoryState> getDirectories() {
+        return Collections.unmodifiableMap(directories);
+    }
+
+    /**
+     * @return the last modified times (in Windows filesystem time) of the
+     *         ignore files the recorded scan found, keyed by local path (never
+     *         <code>null</code>)
+     */
+    public Map<String, Long> getIgnoreFiles() {
+        return Collections.unmodifiableMap(ignoreFiles);
+    }
+
+    /**
+     * Replaces the contents of the journal with the results of a complete
+     * scan.
+     */
+    public void setScanState(
+        final long highWaterMark,
+        final String signature,
+        final Map<String, DirectoryState> directories,
+        final Map<String, Long> ignoreFiles) {
+        Check.notNull(signature, "signature"); //$NON-NLS-1$
+        Check.notNull(directories, "directories"); //$NON-NLS-1$
+        Check.notNull(ignoreFiles, "ignoreFiles"); //$NON-NLS-1$
+
+        this.highWaterMark = highWaterMark;
+        this.signature = signature;
+        this.directories = newPathMap();
+        this.directories.putAll(directories);
+        this.ignoreFiles = newPathMap();
+        this.ignoreFiles.putAll(ignoreFiles);
+
+        setDirty(true);
+    }
+
+    /**
+     * Empties the journal, so the next scan which consults it will be a full
+     * scan.
+     */
+    public void clear() {
+        if (hasScanState()) {
+            highWaterMark = 0;
+            signature = null;
+            directories = newPathMap();
+            ignoreFiles = newPathMap();
+
+            setDirty(true);
+        }
+    }
+
+    private static <T> Map<String, T> newPathMap() {
+        return new TreeMap<String, T>(String.CASE_INSENSITIVE_ORDER);
+    }
+
+    /**
+     * What a scan saw for one directory.
+     */
+    public static class DirectoryState {
+        private final long lastWriteTime;
+        private final long trackedItemsSignature;
+
+        public DirectoryState(final long lastWriteTime, final long trackedItemsSignature) {
+            this.lastWriteTime = lastWriteTime;
+            this.trackedItemsSignature = trackedItemsSignature;
+        }
+
+        /**
+         * @return the directory's last modified time in Windows filesystem
+         *         time
+         */
+        public long getLastWriteTime() {
+            return lastWriteTime;
+        }
+
+        /**
+         * @return a signature of the names of the items in this directory which
+         *         had local version rows or candidate adds
+         */
+        public long getTrackedItemsSignature() {
+            return trackedItemsSignature;
+        }
+    }
+}
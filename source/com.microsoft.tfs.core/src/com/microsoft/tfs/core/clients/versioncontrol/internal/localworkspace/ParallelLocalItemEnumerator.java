@@ -0,0 +1,349 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the repository root.
+
+package com.microsoft.tfs.core.clients.versioncontrol.internal.localworkspace;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Stack;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.microsoft.tfs.core.exceptions.TECoreException;
+import com.microsoft.tfs.jni.FileSystemAttributes;
+import com.microsoft.tfs.util.Check;
+
+/**
+ * Enumerates the same items in the same order as a {@link LocalItemEnumerator}
+ * , but lists directories and reads file attributes on the threads of an
+ * {@link ExecutorService}. Each directory is one task; the tasks for a
+ * directory's subdirectories are submitted as soon as the directory is listed,
+ * so the workers run ahead of the consuming thread.
+ * <p>
+ * The run-ahead is bounded: at most a fixed number of directories are
+ * submitted to the executor or listed but not yet consumed. Further tasks wait
+ * in this enumerator, deepest first (which is close to the order the
+ * consuming thread needs them), and are submitted as listings are consumed. If
+ * the consuming thread needs a listing whose task has not started, it lists
+ * the directory itself.
+ * <p>
+ * The consuming thread walks the completed listings depth-first in the order
+ * {@link LocalItemEnumerator} would have produced them, so results are
+ * deterministic regardless of how the work was scheduled.
+ * <p>
+ * An optional {@link ItemProcessor} is run on the worker thread for each item
+ * so callers can move expensive per-item work (like hashing) off the consuming
+ * thread.
+ * <p>
+ * To abandon an enumeration before it completes, shut down the executor.
+ *
+ * @threadsafety thread-compatible (the iterator must be consumed by one thread)
+ */
+public class ParallelLocalItemEnumerator implements Iterator<EnumeratedLocalItem> {
+    /**
+     * Work done on a worker thread for each enumerated item. Implementations
+     * must be thread-safe.
+     */
+    public interface ItemProcessor {
+        public void process(EnumeratedLocalItem item);
+    }
+
+    /**
+     * The default maximum number of directories submitted or listed ahead of
+     * the consuming thread.
+     */
+    public static final int DEFAULT_MAX_RUN_AHEAD = 256;
+
+    private static final int NEW = 0;
+    private static final int SUBMITTED = 1;
+    private static final int CONSUMED = 2;
+
+    private final LocalItemEnumerator template;
+    private final ExecutorService executor;
+    private final ItemProcessor processor;
+
+    /**
+     * One permit for each task submitted to the executor whose listing has not
+     * been consumed.
+     */
+    private final Semaphore runAhead;
+
+    /**
+     * The tasks waiting to be submitted, in the order to submit them. Guarded
+     * by itself.
+     */
+    private final LinkedList<ListFuture> pending = new LinkedList<ListFuture>();
+
+    private final Stack<Frame> frameStack = new Stack<Frame>();
+    private EnumeratedLocalItem currentLocalItem;
+
+    /**
+     * Creates a {@link ParallelLocalItemEnumerator} which runs at most
+     * {@link #DEFAULT_MAX_RUN_AHEAD} directories ahead of the consuming
+     * thread.
+     *
+     * @see #ParallelLocalItemEnumerator(LocalItemEnumerator, ExecutorService,
+     *      ItemProcessor, int)
+     */
+    public ParallelLocalItemEnumerator(
+        final LocalItemEnumerator template,
+        final ExecutorService executor,
+        final ItemProcessor processor) {
+        this(template, executor, processor, DEFAULT_MAX_RUN_AHEAD);
+    }
+
+    /**
+     * Creates a {@link ParallelLocalItemEnumerator} which enumerates the items
+     * the given {@link LocalItemEnumerator} would enumerate. The template's
+     * excluded paths must not be changed after this constructor is called.
+     *
+     * @param template
+     *        the enumerator whose start path, recursion and exclusions are
+     *        used (must not be <code>null</code>). The template itself is not
+     *        advanced.
+     * @param executor
+     *        the executor to list directories on (must not be
+     *        <code>null</code>)
+     * @param processor
+     *        work to run on the worker thread for each item (may be
+     *        <code>null</code>)
+     * @param maxRunAhead
+     *        the maximum number of directories submitted to the executor or
+     *        listed but not yet consumed (must be positive)
+     */
+    public ParallelLocalItemEnumerator(
+        final LocalItemEnumerator template,
+        final ExecutorService executor,
+        final ItemProcessor processor,
+        final int maxRunAhead) {
+        Check.notNull(template, "template"); //$NON-NLS-1$
+        Check.notNull(executor, "executor"); //$NON-NLS-1$
+        Check.isTrue(maxRunAhead > 0, "maxRunAhead > 0"); //$NON-NLS-1$
+
+        this.template = template;
+        this.executor = executor;
+        this.processor = processor;
+        runAhead = new Semaphore(maxRunAhead);
+
+        final ListFuture start = new ListFuture(new File(template.getStartPath()), true);
+        frameStack.push(new Frame(start));
+
+        synchronized (pending) {
+            pending.add(start);
+        }
+        submitPending();
+    }
+
+    public String getStartPath() {
+        return template.getStartPath();
+    }
+
+    public Object getTag() {
+        return template.getTag();
+    }
+
+    private boolean moveNext() {
+        while (frameStack.size() > 0) {
+            final Frame frame = frameStack.peek();
+            final DirectoryListing listing = frame.getListing();
+
+            if (frame.itemIndex < listing.items.size()) {
+                currentLocalItem = listing.items.get(frame.itemIndex++);
+                return true;
+            }
+
+            if (frame.subdirectoryIndex < listing.subdirectories.size()) {
+                frameStack.push(new Frame(listing.subdirectories.get(frame.subdirectoryIndex++)));
+            } else {
+                frameStack.pop();
+            }
+        }
+
+        currentLocalItem = null;
+        return false;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (currentLocalItem != null) {
+            return true;
+        }
+        return moveNext();
+    }
+
+    @Override
+    public EnumeratedLocalItem next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+
+        final EnumeratedLocalItem toReturn = currentLocalItem;
+        currentLocalItem = null;
+        return toReturn;
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Submits waiting tasks while the run-ahead allows. Called on both the
+     * consuming and the worker threads.
+     */
+    private void submitPending() {
+        while (runAhead.tryAcquire()) {
+            final ListFuture task;
+            synchronized (pending) {
+                task = pending.poll();
+            }
+
+            if (task == null) {
+                runAhead.release();
+                return;
+            }
+
+            // The consuming thread may have listed the directory already
+            if (!task.state.compareAndSet(NEW, SUBMITTED)) {
+                runAhead.release();
+                continue;
+            }
+
+            try {
+                executor.execute(task);
+            } catch (final RejectedExecutionException e) {
+                /*
+                 * The executor is full or was shut down. Leave the task for
+                 * the consuming thread to run when it needs the listing.
+                 */
+                task.state.set(NEW);
+                runAhead.release();
+                return;
+            }
+        }
+    }
+
+    /**
+     * The consuming thread's position in one directory's listing.
+     */
+    private class Frame {
+        private final ListFuture future;
+        private DirectoryListing listing;
+        private int itemIndex;
+        private int subdirectoryIndex;
+
+        public Frame(final ListFuture future) {
+            this.future = future;
+        }
+
+        public DirectoryListing getListing() {
+            if (listing == null) {
+                // Lists the directory on this thread if no worker has started it
+                future.run();
+
+                try {
+                    listing = future.get();
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new TECoreException(e);
+                } catch (final ExecutionException e) {
+                    if (e.getCause() instanceof RuntimeException) {
+                        throw (RuntimeException) e.getCause();
+                    }
+                    if (e.getCause() instanceof Error) {
+                        throw (Error) e.getCause();
+                    }
+                    throw new TECoreException(e.getCause());
+                } finally {
+                    if (future.state.getAndSet(CONSUMED) == SUBMITTED) {
+                        runAhead.release();
+                    }
+                }
+
+                submitPending();
+            }
+            return listing;
+        }
+    }
+
+    private static class DirectoryListing {
+        public final List<EnumeratedLocalItem> items = new ArrayList<EnumeratedLocalItem>();
+        public final List<ListFuture> subdirectories = new ArrayList<ListFuture>();
+    }
+
+    /**
+     * The task which lists one directory, and whether it has been submitted
+     * or consumed.
+     */
+    private class ListFuture extends FutureTask<DirectoryListing> {
+        public final AtomicInteger state = new AtomicInteger(NEW);
+
+        public ListFuture(final File directory, final boolean isStartPath) {
+            super(new ListTask(directory, isStartPath));
+        }
+    }
+
+    private class ListTask implements Callable<DirectoryListing> {
+        private final File directory;
+        private final boolean isStartPath;
+
+        public ListTask(final File directory, final boolean isStartPath) {
+            this.directory = directory;
+            this.isStartPath = isStartPath;
+        }
+
+        @Override
+        public DirectoryListing call() {
+            final DirectoryListing listing = new DirectoryListing();
+
+            final List<File> files = new ArrayList<File>();
+            final List<FileSystemAttributes> attributes = new ArrayList<FileSystemAttributes>();
+            if (isStartPath && !directory.isDirectory()) {
+                // LocalItemEnumerator enumerates a file start path as itself
+                if (directory.isFile()) {
+                    files.add(directory);
+                    attributes.add(null);
+                }
+            } else if (!LocalItemEnumerator.listDirectory(directory, files, attributes)) {
+                return listing;
+            }
+
+            for (int i = 0; i < files.size(); i++) {
+                final File file = files.get(i);
+                final EnumeratedLocalItem item = template.createItem(file, attributes.get(i));
+
+                if (item == null) {
+                    continue;
+                }
+
+                if (processor != null) {
+                    processor.process(item);
+                }
+
+                listing.items.add(item);
+
+                if (template.isRecursive() && item.isDirectory()) {
+                    listing.subdirectories.add(new ListFuture(file, false));
+                }
+            }
+
+            if (listing.subdirectories.size() > 0) {
+                synchronized (pending) {
+                    pending.addAll(0, listing.subdirectories);
+                }
+                submitPending();
+            }
+
+            return listing;
+        }
+    }
+}
@@ -212,6 +212,20 @@ public class WorkspaceLocalItem {
      */
     private byte[] baselineFileGUID;
 
+    /**
+     * True if this item changed since it was last loaded or saved by a
+     * {@link WorkspaceVersionTable}, which then writes it in its next
+     * incremental save. Not persisted.
+     */
+    private boolean modifiedSinceSave = true;
+
+    /**
+     * The (ServerItem, IsCommitted) key this item was last loaded or saved
+     * with, or null if it has not been saved. Not persisted.
+     */
+    private String savedServerItem;
+    private boolean savedCommitted;
+
     /**
      * Returns TRUE if the local item is a folder.
      */
@@ -246,6 +260,7 @@ public class WorkspaceLocalItem {
     }
 
     public void setPendingReconcile(final boolean value) {
+        modifiedSinceSave = true;
         if (value) {
             flags |= (byte) WorkspaceLocalItemStates.PENDING_RECONCILE.toIntFlags();
 
@@ -259,6 +274,7 @@ public class WorkspaceLocalItem {
     }
 
     public void setMissingOnDisk(final boolean value) {
+        modifiedSinceSave = true;
         if (value) {
             flags |= (byte) WorkspaceLocalItemStates.LOCAL_ITEM_MISSING.toIntFlags();
         } else {
@@ -274,6 +290,7 @@ public class WorkspaceLocalItem {
     }
 
     public void setDeleted(final boolean value) {
+        modifiedSinceSave = true;
         if (value) {
             flags |= (byte) WorkspaceLocalItemStates.DELETED.toIntFlags();
         } else {
@@ -347,6 +364,7 @@ public class WorkspaceLocalItem {
      *        <code>null</code> or empty)
      */
     public void setPropertyValues(final PropertyValue[] values) {
+        modifiedSinceSave = true;
         final PropertyValue v = PropertyUtils.selectMatching(values, PropertyConstants.SYMBOLIC_KEY);
         final PropertyValue x = PropertyUtils.selectMatching(values, PropertyConstants.EXECUTABLE_KEY);
 
@@ -506,6 +524,7 @@ public class WorkspaceLocalItem {
     }
 
     public void setCheckinDate(final long value) {
+        modifiedSinceSave = true;
         checkinDate = value;
     }
 
@@ -514,6 +533,7 @@ public class WorkspaceLocalItem {
     }
 
     public void setEncoding(final int value) {
+        modifiedSinceSave = true;
         encoding = value;
     }
 
@@ -522,6 +542,7 @@ public class WorkspaceLocalItem {
     }
 
     public void setItemID(final int value) {
+        modifiedSinceSave = true;
         itemID = value;
     }
 
@@ -530,6 +551,7 @@ public class WorkspaceLocalItem {
     }
 
     public void setLastModifiedTime(final long value) {
+        modifiedSinceSave = true;
         lastModifiedTime = value;
     }
 
@@ -541,6 +563,7 @@ public class WorkspaceLocalItem {
     }
 
     public void setLength(final long value) {
+        modifiedSinceSave = true;
         length = value;
     }
 
@@ -549,6 +572,7 @@ public class WorkspaceLocalItem {
     }
 
     public void setLocalItem(final String value) {
+        modifiedSinceSave = true;
         localItem = value;
     }
 
@@ -557,6 +581,7 @@ public class WorkspaceLocalItem {
     }
 
     public void setServerItem(final String value) {
+        modifiedSinceSave = true;
         serverItem = value;
     }
 
@@ -565,6 +590,7 @@ public class WorkspaceLocalItem {
     }
 
     public void setVersion(final int value) {
+        modifiedSinceSave = true;
         version = value;
     }
 
@@ -573,6 +599,7 @@ public class WorkspaceLocalItem {
     }
 
     public void setBaselineFileGUID(final byte[] value) {
+        modifiedSinceSave = true;
         baselineFileGUID = value;
     }
 
@@ -581,10 +608,53 @@ public class WorkspaceLocalItem {
     }
 
     public void setHashValue(final byte[] hashValue) {
+        modifiedSinceSave = true;
         this.hashValue = hashValue != null ? hashValue.clone() : null;
     }
 
     public boolean isSymbolicLink() {
         return (flags & (byte) WorkspaceLocalItemStates.SYMLINK.toIntFlags()) != 0;
     }
+
+    /**
+     * True if this item changed (other than its scanned bit) since it was last
+     * loaded or saved.
+     */
+    boolean isModifiedSinceSave() {
+        return modifiedSinceSave;
+    }
+
+    /**
+     * The server item this item was last loaded or saved with, or null if it
+     * has not been saved.
+     */
+    String getSavedServerItem() {
+        return savedServerItem;
+    }
+
+    /**
+     * The IsCommitted bit this item was last loaded or saved with.
+     */
+    boolean getSavedCommitted() {
+        return savedCommitted;
+    }
+
+    /**
+     * Records that the item was loaded or saved with its current values.
+     */
+    void markSaved() {
+        modifiedSinceSave = false;
+        savedServerItem = serverItem;
+        savedCommitted = isCommitted();
+    }
+
+    /**
+     * Records that the item is no longer saved in the table, so it will be
+     * written again if it is added back.
+     */
+    void markUnsaved() {
+        modifiedSinceSave = true;
+        savedServerItem = null;
+        savedCommitted = false;
+    }
 }
@@ -3,13 +3,17 @@
 
 package com.microsoft.tfs.core.clients.versioncontrol.internal.localworkspace;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.text.MessageFormat;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Random;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
@@ -31,6 +35,7 @@ import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.internal.Ser
 import com.microsoft.tfs.core.clients.versioncontrol.sparsetree.EnumSubTreeOptions;
 import com.microsoft.tfs.core.clients.versioncontrol.sparsetree.SparseTree;
 import com.microsoft.tfs.core.clients.versioncontrol.sparsetree.SparseTree.ModifyInPlaceCallback;
+import com.microsoft.tfs.core.clients.versioncontrol.sparsetree.SparseTreeSegmentPool;
 import com.microsoft.tfs.util.Check;
 
 public class WorkspaceVersionTable extends LocalMetadataTable {
@@ -39,12 +44,84 @@ public class WorkspaceVersionTable extends LocalMetadataTable {
     private static final short MAGIC = (short) 0xa7cc;
     private static final int SCHEMA_VERSION_2 = 2;
 
+    /**
+     * Schema 3 is schema 2 plus the ID of the log (see
+     * {@link LocalMetadataTableLog}) holding the changes saved since the
+     * snapshot was written.
+     */
+    private static final int SCHEMA_VERSION_3 = 3;
+
+    /**
+     * A property to define whether the table should save changes by appending
+     * them to a log instead of rewriting the whole table. Schema 3 tables
+     * can't be read by Visual Studio or by earlier versions of this client, so
+     * the default is false. When it is false, a schema 3 table is converted
+     * back to schema 2 the next time it is saved.
+     */
+    private static final String INCREMENTAL_SAVES_PROPERTY_NAME =
+        "com.microsoft.tfs.core.clients.versioncontrol.localworkspace.incrementallocalversion"; //$NON-NLS-1$
+
+    private static final boolean INCREMENTAL_SAVES;
+
+    static {
+        final String propValue = System.getProperty(INCREMENTAL_SAVES_PROPERTY_NAME);
+        INCREMENTAL_SAVES = propValue != null && propValue.equalsIgnoreCase("true"); //$NON-NLS-1$
+    }
+
+    /**
+     * The log is compacted into a new snapshot when it would grow past this
+     * length or a quarter of the snapshot's length, whichever is larger.
+     */
+    private static final long MIN_COMPACTION_LOG_LENGTH = 256 * 1024;
+
+    private static final Random logIdRandom = new Random();
+
     public SparseTree<WorkspaceLocalItemPair> server;
     public SparseTree<WorkspaceLocalItem> local;
 
     private List<WorkspaceLocalItem> removedItems;
     private int pendingReconcileCount;
 
+    /**
+     * The ID of the log which follows the snapshot on disk, or 0 if the
+     * snapshot is schema 2 (no log).
+     */
+    private long logId;
+
+    /**
+     * The length of the log up to the end of its last complete record.
+     */
+    private long logLength;
+
+    /**
+     * The log ID written by {@link #save(OutputStream)}, which becomes
+     * {@link #logId} once the snapshot is in place.
+     */
+    private long savedLogId;
+
+    /**
+     * True if the last save appended to the log instead of writing a
+     * snapshot.
+     */
+    private boolean savedIncrementally;
+
+    /**
+     * True if the next save must write a snapshot.
+     */
+    private boolean fullSaveRequired;
+
+    /**
+     * The keys of saved rows which were removed from the table since it was
+     * loaded or saved.
+     */
+    private List<RowKey> removedRowKeys;
+
+    /**
+     * True if {@link #removedItems} changed since the table was loaded or
+     * saved.
+     */
+    private boolean removedItemsModified;
+
     /**
      * Creates or opens a workspace metadata table with the specified base file
      * name and location.
@@ -68,13 +145,19 @@ public class WorkspaceVersionTable extends LocalMetadataTable {
      */
     @Override
     protected void initialize() {
+        // The trees hold the same items, so most of their path segments (file
+        // names especially) are the same and are stored once.
+        final SparseTreeSegmentPool segmentPool = new SparseTreeSegmentPool();
+
         server = new SparseTree<WorkspaceLocalItemPair>(
             ServerPath.PREFERRED_SEPARATOR_CHARACTER,
-            String.CASE_INSENSITIVE_ORDER);
+            String.CASE_INSENSITIVE_ORDER,
+            segmentPool);
 
-        local = new SparseTree<WorkspaceLocalItem>(File.separatorChar, String.CASE_INSENSITIVE_ORDER);
+        local = new SparseTree<WorkspaceLocalItem>(File.separatorChar, String.CASE_INSENSITIVE_ORDER, segmentPool);
 
         removedItems = new ArrayList<WorkspaceLocalItem>();
+        removedRowKeys = new ArrayList<RowKey>();
     }
 
     @Override
@@ -92,6 +175,8 @@ public class WorkspaceVersionTable extends LocalMetadataTable {
             final int schemaVersion = br.readInt32();
             if (schemaVersion == SCHEMA_VERSION_2) {
                 loadFromVersion2(br);
+            } else if (schemaVersion == SCHEMA_VERSION_3) {
+                loadFromVersion3(br);
             } else {
                 throw new WorkspaceVersionTableException(
                     Messages.getString("WorkspaceVersionTable.InvalidVersionTable")); //$NON-NLS-1$
@@ -117,6 +202,7 @@ public class WorkspaceVersionTable extends LocalMetadataTable {
 
         for (int i = 0; i < rowCount; i++) {
             final WorkspaceLocalItem lvEntry = WorkspaceLocalItem.fromVersion2(br);
+            lvEntry.markSaved();
 
             // The removed list keeps track of removed local version rows that
             // must be reconciled to the server. These items have the following
@@ -138,6 +224,108 @@ public class WorkspaceVersionTable extends LocalMetadataTable {
 
     }
 
+    private void loadFromVersion3(final BinaryReader br) throws IOException {
+        logId = br.readInt64();
+
+        // The rest of the snapshot is the same as version 2
+        loadFromVersion2(br);
+
+        final List<byte[]> records = new ArrayList<byte[]>();
+        logLength = new LocalMetadataTableLog(getFilename()).read(logId, records);
+
+        if (records.isEmpty()) {
+            return;
+        }
+
+        for (final byte[] record : records) {
+            replayLogRecord(new BinaryReader(new ByteArrayInputStream(record), "UTF-16LE")); //$NON-NLS-1$
+        }
+
+        rebuildIndexes();
+
+        log.debug(MessageFormat.format("Replayed {0} log records ({1} bytes)", records.size(), logLength)); //$NON-NLS-1$
+    }
+
+    /**
+     * Applies the changes from one incremental save. See
+     * {@link #saveIncremental()} for the format.
+     */
+    private void replayLogRecord(final BinaryReader br) throws IOException {
+        // pending reconcile bit, only read by WorkspaceVersionTableHeader
+        br.readBoolean();
+
+        final int removedRowCount = br.readInt32();
+        for (int i = 0; i < removedRowCount; i++) {
+            final String serverItem = br.readString();
+            final boolean isCommitted = br.readBoolean();
+
+            removeFromServerIndex(serverItem, isCommitted);
+        }
+
+        final int rowCount = br.readInt32();
+        for (int i = 0; i < rowCount; i++) {
+            final WorkspaceLocalItem lvEntry = WorkspaceLocalItem.fromVersion2(br);
+            lvEntry.markSaved();
+
+            add(lvEntry, true);
+        }
+
+        if (br.readBoolean()) {
+            final int removedItemsCount = br.readInt32();
+            final List<WorkspaceLocalItem> newRemovedItems = new ArrayList<WorkspaceLocalItem>(removedItemsCount);
+
+            for (int i = 0; i < removedItemsCount; i++) {
+                newRemovedItems.add(WorkspaceLocalItem.fromVersion2(br));
+            }
+
+            removedItems = newRemovedItems;
+        }
+    }
+
+    /**
+     * Rebuilds the local item index, the removed items list and the pending
+     * reconcile count from the server index after replaying the log, the same
+     * way loading a snapshot of the replayed table would.
+     */
+    private void rebuildIndexes() {
+        final List<WorkspaceLocalItem> rows = new ArrayList<WorkspaceLocalItem>(server.getCount());
+
+        for (final WorkspaceLocalItemPair pair : server.EnumSubTreeReferencedObjects(
+            ServerPath.ROOT,
+            EnumSubTreeOptions.ENUMERATE_SUB_TREE_ROOT,
+            Integer.MAX_VALUE)) {
+            if (null != pair.getCommitted()) {
+                rows.add(pair.getCommitted());
+            }
+
+            if (null != pair.getUncommitted()) {
+                rows.add(pair.getUncommitted());
+            }
+        }
+
+        server.clear();
+        local.clear();
+        pendingReconcileCount = 0;
+
+        final List<WorkspaceLocalItem> newRemovedItems = new ArrayList<WorkspaceLocalItem>();
+
+        for (final WorkspaceLocalItem lvEntry : rows) {
+            // See loadFromVersion2
+            if (null == lvEntry.getLocalItem() && lvEntry.isPendingReconcile() && !lvEntry.isDeleted()) {
+                newRemovedItems.add(lvEntry);
+
+                // The log still has this row in the server index
+                fullSaveRequired = true;
+            } else {
+                add(lvEntry, true);
+            }
+        }
+
+        newRemovedItems.addAll(removedItems);
+        removedItems = newRemovedItems;
+        pendingReconcileCount += removedItems.size();
+    }
+
     @Override
     protected boolean cachedLoad(final LocalMetadataTable source) {
         WorkspaceVersionTable lvCached = null;
@@ -150,6 +338,9 @@ public class WorkspaceVersionTable extends LocalMetadataTable {
             server = lvCached.server;
             local = lvCached.local;
             removedItems = lvCached.removedItems;
+            logId = lvCached.logId;
+            logLength = lvCached.logLength;
+            fullSaveRequired = lvCached.fullSaveRequired;
 
             // Re-mark the source as eligible for cached load. We took a deep
             // copy of what we need.
@@ -167,16 +358,197 @@ public class WorkspaceVersionTable extends LocalMetadataTable {
 
         try {
             bw.write(MAGIC);
-            writeToVersion2(bw);
+
+            if (INCREMENTAL_SAVES) {
+                savedLogId = newLogId();
+                writeToVersion3(bw, savedLogId);
+            } else {
+                savedLogId = 0;
+                writeToVersion2(bw);
+            }
         } finally {
             bw.close();
         }
 
+        savedIncrementally = false;
+        return true;
+    }
+
+    /**
+     * Appends the rows which changed since the table was loaded or saved to
+     * the log. Each log record holds:
+     * <ul>
+     * <li>the pending reconcile bit</li>
+     * <li>the (ServerItem, IsCommitted) keys of the rows removed</li>
+     * <li>the rows added or modified, in schema 2 format</li>
+     * <li>the removed items list, if it changed</li>
+     * </ul>
+     * The table is written as a snapshot instead if incremental saves are
+     * disabled, if it was loaded from a schema 2 snapshot, or if the log is
+     * long enough to compact.
+     */
+    @Override
+    protected boolean saveIncremental() throws IOException {
+        if (!INCREMENTAL_SAVES || 0 == logId || fullSaveRequired) {
+            return false;
+        }
+
+        final List<RowKey> removedKeys = new ArrayList<RowKey>(removedRowKeys);
+        final List<WorkspaceLocalItem> modifiedRows = new ArrayList<WorkspaceLocalItem>();
+
+        for (final WorkspaceLocalItemPair pair : server.EnumSubTreeReferencedObjects(
+            ServerPath.ROOT,
+            EnumSubTreeOptions.ENUMERATE_SUB_TREE_ROOT,
+            Integer.MAX_VALUE)) {
+            addIfModified(pair.getCommitted(), modifiedRows, removedKeys);
+            addIfModified(pair.getUncommitted(), modifiedRows, removedKeys);
+        }
+
+        final ByteArrayOutputStream os = new ByteArrayOutputStream();
+        final BinaryWriter bw = new BinaryWriter(os, "UTF-16LE"); //$NON-NLS-1$
+
+        bw.write(getPendingReconcile());
+
+        bw.write(removedKeys.size());
+        for (final RowKey key : removedKeys) {
+            bw.write(key.serverItem);
+            bw.write(key.isCommitted);
+        }
+
+        bw.write(modifiedRows.size());
+        for (final WorkspaceLocalItem lvEntry : modifiedRows) {
+            lvEntry.saveToVersion2(bw);
+        }
+
+        bw.write(removedItemsModified);
+        if (removedItemsModified) {
+            bw.write(removedItems.size());
+            for (final WorkspaceLocalItem lvEntry : removedItems) {
+                lvEntry.saveToVersion2(bw);
+            }
+        }
+
+        bw.close();
+
+        final byte[] record = os.toByteArray();
+        final long snapshotLength = new File(getSlotOnePath(getFilename())).length();
+
+        if (logLength + record.length > Math.max(MIN_COMPACTION_LOG_LENGTH, snapshotLength / 4)) {
+            log.debug(MessageFormat.format("Compacting {0} byte log", logLength)); //$NON-NLS-1$
+            return false;
+        }
+
+        logLength = new LocalMetadataTableLog(getFilename()).append(logId, logLength, record);
+
+        for (final WorkspaceLocalItem lvEntry : modifiedRows) {
+            lvEntry.markSaved();
+        }
+
+        removedRowKeys.clear();
+        removedItemsModified = false;
+        savedIncrementally = true;
+
         return true;
     }
 
+    private static void addIfModified(
+        final WorkspaceLocalItem lvEntry,
+        final List<WorkspaceLocalItem> modifiedRows,
+        final List<RowKey> removedKeys) {
+        if (null == lvEntry || !lvEntry.isModifiedSinceSave()) {
+            return;
+        }
+
+        // If the row's key changed in place, its old row must be removed
+        final String savedServerItem = lvEntry.getSavedServerItem();
+        if (null != savedServerItem
+            && (!ServerPath.equals(savedServerItem, lvEntry.getServerItem())
+                || lvEntry.getSavedCommitted() != lvEntry.isCommitted())) {
+            removedKeys.add(new RowKey(savedServerItem, lvEntry.getSavedCommitted()));
+        }
+
+        modifiedRows.add(lvEntry);
+    }
+
+    @Override
+    protected void saveComplete() {
+        if (savedIncrementally) {
+            savedIncrementally = false;
+            return;
+        }
+
+        // A new snapshot is in place. Start its log, or delete the log a
+        // schema 3 snapshot left behind.
+        final LocalMetadataTableLog tableLog = new LocalMetadataTableLog(getFilename());
+
+        if (0 != savedLogId) {
+            try {
+                logLength = tableLog.reset(savedLogId);
+            } catch (final IOException e) {
+                // The next incremental save starts the log
+                log.warn("Could not reset the local version table log", e); //$NON-NLS-1$
+                logLength = 0;
+            }
+        } else {
+            tableLog.delete();
+            logLength = 0;
+        }
+
+        logId = savedLogId;
+
+        for (final WorkspaceLocalItemPair pair : server.EnumSubTreeReferencedObjects(
+            ServerPath.ROOT,
+            EnumSubTreeOptions.ENUMERATE_SUB_TREE_ROOT,
+            Integer.MAX_VALUE)) {
+            if (null != pair.getCommitted()) {
+                pair.getCommitted().markSaved();
+            }
+
+            if (null != pair.getUncommitted()) {
+                pair.getUncommitted().markSaved();
+            }
+        }
+
+        removedRowKeys.clear();
+        removedItemsModified = false;
+        fullSaveRequired = false;
+    }
+
+    private static long newLogId() {
+        synchronized (logIdRandom) {
+            long id;
+            do {
+                id = logIdRandom.nextLong();
+            } while (0 == id);
+
+            return id;
+        }
+    }
+
+    /**
+     * Records that a row left the table, so the next incremental save removes
+     * it from the log.
+     */
+    private void recordRemoval(final WorkspaceLocalItem lvEntry) {
+        if (null != lvEntry.getSavedServerItem()) {
+            removedRowKeys.add(new RowKey(lvEntry.getSavedServerItem(), lvEntry.getSavedCommitted()));
+        }
+
+        lvEntry.markUnsaved();
+    }
+
+    private void writeToVersion3(final BinaryWriter bw, final long logId) throws IOException {
+        bw.write(SCHEMA_VERSION_3);
+        bw.write(logId);
+        writeRows(bw);
+    }
+
     private void writeToVersion2(final BinaryWriter bw) throws IOException {
         bw.write(SCHEMA_VERSION_2);
+        writeRows(bw);
+    }
+
+    private void writeRows(final BinaryWriter bw) throws IOException {
         bw.write(getPendingReconcile());
 
         // Number of items in the local version table. We cannot use
@@ -278,6 +650,10 @@ public class WorkspaceVersionTable extends LocalMetadataTable {
 
         // Remove the replaced entry from other indexes.
         if (null != matchingEntry) {
+            if (!fromLoad) {
+                recordRemoval(matchingEntry);
+            }
+
             final String localItem = matchingEntry.getLocalItem();
             if (localItem != null && localItem.length() > 0) {
                 local.remove(localItem, false);
@@ -341,6 +717,7 @@ public class WorkspaceVersionTable extends LocalMetadataTable {
 
         pendingReconcileCount -= removedItems.size();
         removedItems.clear();
+        removedItemsModified = true;
 
         Check.isTrue(0 == pendingReconcileCount, "0 == pendingReconcileCount"); //$NON-NLS-1$
         setDirty(true);
@@ -585,6 +962,7 @@ public class WorkspaceVersionTable extends LocalMetadataTable {
 
                 // Remove from the other indexes
                 removeFromServerIndex(lvEntry.getServerItem(), lvEntry.isCommitted());
+                recordRemoval(lvEntry);
 
                 if (queueForReconcile) {
                     queueForReconcile(lvEntry);
@@ -615,6 +993,7 @@ public class WorkspaceVersionTable extends LocalMetadataTable {
 
             // Remove from the index we used to look up the data
             removeFromServerIndex(serverItem, isCommitted);
+            recordRemoval(lvEntry);
 
             // Remove from the other indexes
             if (lvEntry.getLocalItem() != null && lvEntry.getLocalItem().length() > 0) {
@@ -637,6 +1016,7 @@ public class WorkspaceVersionTable extends LocalMetadataTable {
 
         pendingReconcileCount++;
         removedItems.add(removed);
+        removedItemsModified = true;
     }
 
     /**
@@ -821,6 +1201,9 @@ public class WorkspaceVersionTable extends LocalMetadataTable {
 
         setDirty(true);
 
+        // Every row changes key
+        fullSaveRequired = true;
+
         local.clear();
 
         final List<WorkspaceLocalItemPair> pairs = new ArrayList<WorkspaceLocalItemPair>(server.getCount());
@@ -891,4 +1274,17 @@ public class WorkspaceVersionTable extends LocalMetadataTable {
     public boolean getPendingReconcile() {
         return pendingReconcileCount > 0;
     }
+
+    /**
+     * The primary key of a row, (ServerItem, IsCommitted).
+     */
+    private static class RowKey {
+        public final String serverItem;
+        public final boolean isCommitted;
+
+        public RowKey(final String serverItem, final boolean isCommitted) {
+            this.serverItem = serverItem;
+            this.isCommitted = isCommitted;
+        }
+    }
 }
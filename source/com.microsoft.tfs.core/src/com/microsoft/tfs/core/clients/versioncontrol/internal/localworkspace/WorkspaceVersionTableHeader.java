@@ -16,6 +16,7 @@ public class WorkspaceVersionTableHeader extends LocalMetadataTable {
     private static final short MAGIC_2 = (short) 0xa7cc;
     private static final int SCHEMA_VERSION_1 = 1;
     private static final int SCHEMA_VERSION_2 = 2;
+    private static final int SCHEMA_VERSION_3 = 3;
 
     private boolean pendingReconcile;
 
@@ -77,6 +78,8 @@ public class WorkspaceVersionTableHeader extends LocalMetadataTable {
             final int schemaVersion = br.readInt32();
             if (schemaVersion == SCHEMA_VERSION_1 || schemaVersion == SCHEMA_VERSION_2) {
                 loadFromVersion1(br);
+            } else if (schemaVersion == SCHEMA_VERSION_3) {
+                loadFromVersion3(br);
             } else {
                 throw new WorkspaceVersionTableException(
                     "The workspace version table contains an unknown schema version."); //$NON-NLS-1$
@@ -99,6 +102,18 @@ public class WorkspaceVersionTableHeader extends LocalMetadataTable {
         // The rest of the file is not read.
     }
 
+    private void loadFromVersion3(final BinaryReader br) throws IOException {
+        final long logId = br.readInt64();
+        pendingReconcile = br.readBoolean();
+
+        // Each record in the log starts with the pending reconcile bit as of
+        // that save, so only the last record is needed.
+        final byte[] lastRecord = new LocalMetadataTableLog(getFilename()).readLastRecord(logId);
+        if (null != lastRecord) {
+            pendingReconcile = lastRecord.length > 0 && lastRecord[0] != 0;
+        }
+    }
+
     @Override
     protected boolean save(final OutputStream os) {
         throw new NotYetImplementedException();
@@ -15,14 +15,12 @@ import java.util.concurrent.atomic.AtomicReference;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
-import com.microsoft.tfs.core.clients.versioncontrol.path.ItemPath;
 import com.microsoft.tfs.core.clients.versioncontrol.path.LocalPath;
 import com.microsoft.tfs.core.util.CodePageMapping;
 import com.microsoft.tfs.core.util.FileEncoding;
 import com.microsoft.tfs.core.util.FileEncodingDetector;
 import com.microsoft.tfs.util.Check;
 import com.microsoft.tfs.util.IOUtils;
-import com.microsoft.tfs.util.LocaleInvariantStringHelpers;
 
 /**
  * Used by {@link LocalItemExclusionEvaluator}.
@@ -38,12 +36,41 @@ public class IgnoreFile {
     private final String m_directory;
     private final List<IgnoreEntry> m_ignoreEntries = new ArrayList<IgnoreEntry>();
 
+    /**
+     * The entries compiled for matching, built when first needed and discarded
+     * when an entry is added. Synchronized on {@link #m_ignoreEntries}.
+     */
+    private volatile IgnoreFileMatcher m_matcher;
+
     public IgnoreFile(final String directory) {
         m_directory = directory;
     }
 
     public void addEntry(final IgnoreEntry ignoreEntry) {
-        m_ignoreEntries.add(ignoreEntry);
+        synchronized (m_ignoreEntries) {
+            m_ignoreEntries.add(ignoreEntry);
+            m_matcher = null;
+        }
+    }
+
+    /**
+     * Creates an IgnoreFile for the global exclusion list, which has no
+     * directory.
+     *
+     * @param globalExclusions
+     *        the global exclusions (must not be <code>null</code>)
+     * @return the IgnoreFile
+     */
+    public static IgnoreFile loadGlobalExclusions(final String[] globalExclusions) {
+        Check.notNull(globalExclusions, "globalExclusions"); //$NON-NLS-1$
+
+        final IgnoreFile globalExclusionList = new IgnoreFile(""); //$NON-NLS-1$
+
+        for (final String globalExclusion : globalExclusions) {
+            globalExclusionList.addEntry(new IgnoreEntry(globalExclusion));
+        }
+
+        return globalExclusionList;
     }
 
     public static IgnoreFile load(final String directory) {
@@ -216,108 +243,77 @@ public class IgnoreFile {
             exclusion.set(null);
         }
 
-        Boolean toReturn = null;
-
-        for (final IgnoreEntry ignoreEntry : m_ignoreEntries) {
-            // Index of the first character of the first path part that we are
-            // going to evaluate for exclusions.
-            int i = startPath.length();
-
-            if (startPath.charAt(startPath.length() - 1) != File.separatorChar) {
-                i++;
-            }
-
-            int k = Integer.MAX_VALUE;
-
-            if (null != ignoreEntry.path) {
-                if (!LocalPath.isChild(ignoreEntry.path, path)) {
-                    // This IgnoreEntry applies only to items under a certain
-                    // path, and we don't meet the criteria.
-                    continue;
-                }
+        final int decidingEntry = findDecidingEntry(path, isFolder, startPath, 0, path.length());
 
-                k = ignoreEntry.path.length();
-
-                if (ignoreEntry.path.charAt(ignoreEntry.path.length() - 1) != File.separatorChar) {
-                    k++;
-                }
+        if (decidingEntry < 0) {
+            // No declaration either way (excluded or included)
+            return null;
+        }
 
-                // Skip our start path part ahead
-                i = Math.max(i, k);
-            }
+        final IgnoreEntry ignoreEntry = getEntry(decidingEntry);
 
-            while (i >= 0 && i < path.length()) {
-                if (!ignoreEntry.isRecursive && i > k) {
-                    break;
-                }
+        if (exclusion != null) {
+            exclusion.set(ignoreEntry.originalExclusion);
+        }
 
-                // Calculate the length of the current path part.
-                int j = path.indexOf(File.separatorChar, i);
+        return ignoreEntry.isExcluded;
+    }
 
-                if (j < 0) {
-                    j = path.length();
-                }
+    /**
+     * Finds the entry which decides whether an item is excluded, considering
+     * only the path parts which start in a range of the path. The result for
+     * the whole path is the later (higher index) of the results for any ranges
+     * which cover it.
+     *
+     * @param path
+     *        the local item to check (must not be <code>null</code> or empty)
+     * @param isFolder
+     *        <code>true</code> if the local item to check is a folder;
+     *        <code>false</code> otherwise
+     * @param startPath
+     *        a local item which parents path. Only the path parts after
+     *        startPath are checked (must not be <code>null</code> or empty)
+     * @param fromIndex
+     *        the lowest index in path of the first character of a path part to
+     *        check
+     * @param toIndex
+     *        one past the highest index in path of the first character of a
+     *        path part to check
+     * @return the index of the deciding entry (see {@link #getEntry(int)}), or
+     *         -1 if no entry matched
+     */
+    int findDecidingEntry(
+        final String path,
+        final boolean isFolder,
+        final String startPath,
+        final int fromIndex,
+        final int toIndex) {
+        return getMatcher().findDecidingEntry(path, isFolder, startPath, fromIndex, toIndex);
+    }
 
-                // Don't match IsFolderOnly entries with an item that has
-                // isFolder = false,
-                // if this is the last path part.
-                if (ignoreEntry.isFolderOnly && !isFolder && j == path.length()) {
-                    break;
-                }
+    IgnoreEntry getEntry(final int index) {
+        return getMatcher().getEntry(index);
+    }
 
-                j -= i;
+    int getEntryCount() {
+        return getMatcher().getEntryCount();
+    }
 
-                boolean match = false;
+    private IgnoreFileMatcher getMatcher() {
+        IgnoreFileMatcher matcher = m_matcher;
 
-                if (ignoreEntry.isEndsWith) {
-                    if (ignoreEntry.pattern.length() <= j
-                        && 0 == compareCaseInsensitive(
-                            path,
-                            i + j - ignoreEntry.pattern.length(),
-                            ignoreEntry.pattern,
-                            0,
-                            ignoreEntry.pattern.length())) {
-                        match = true;
-                    }
-                } else if (ignoreEntry.isStartsWith) {
-                    if (ignoreEntry.pattern.length() <= j
-                        && 0 == compareCaseInsensitive(path, i, ignoreEntry.pattern, 0, ignoreEntry.pattern.length())) {
-                        match = true;
-                    }
-                } else if (ignoreEntry.isComplex) {
-                    if (ItemPath.matchesWildcardFile(path.substring(i, i + j), ignoreEntry.pattern)) {
-                        match = true;
-                    }
-                } else {
-                    if (ignoreEntry.pattern.length() == j
-                        && 0 == compareCaseInsensitive(path, i, ignoreEntry.pattern, 0, ignoreEntry.pattern.length())) {
-                        match = true;
-                    }
-                }
+        if (matcher == null) {
+            synchronized (m_ignoreEntries) {
+                matcher = m_matcher;
 
-                if (match) {
-                    if (ignoreEntry.isExcluded) {
-                        toReturn = true;
-                        if (exclusion != null) {
-                            exclusion.set(ignoreEntry.originalExclusion);
-                        }
-                    }
-                    // Otherwise this is an inclusion; only match if this
-                    // is the last path part which matched
-                    else if (i + j == path.length()) {
-                        toReturn = false;
-                        if (exclusion != null) {
-                            exclusion.set(ignoreEntry.originalExclusion);
-                        }
-                    }
+                if (matcher == null) {
+                    matcher = new IgnoreFileMatcher(m_ignoreEntries);
+                    m_matcher = matcher;
                 }
-
-                i += (j + 1);
             }
         }
 
-        // No declaration either way (excluded or included)
-        return toReturn;
+        return matcher;
     }
 
     public String getDirectory() {
@@ -331,71 +327,4 @@ public class IgnoreFile {
 
         return new File(m_directory, LocalItemExclusionEvaluator.IGNORE_FILE_NAME).getAbsolutePath();
     }
-
-    /**
-     * Similar to .NET's String.Compare(String, Int32, String, Int32, Int32,
-     * StringComparison), but always does a locale-invariant case-insensitive
-     * comparison instead of honoring a StringComparison arg.
-     * <p>
-     * This method is here and not in {@link LocaleInvariantStringHelpers}
-     * because it does bounds checking in the .NET way, which differs from
-     * Java's {@link String#regionMatches(boolean, int, String, int, int)}
-     * enough to keep it separate. But the match algorithm at the bottom could
-     * be useful in a new method there.
-     */
-    private int compareCaseInsensitive(
-        final String strA,
-        final int offsetA,
-        final String strB,
-        final int offsetB,
-        final int length) {
-        if (strA == null && strB != null) {
-            return -1;
-        } else if (strA != null && strB == null) {
-            return 1;
-        }
-        // .NET is documented to throw when length > 0 and one is not null
-        else if ((strA == null || strB == null) && length > 0) {
-            throw new IndexOutOfBoundsException("length cannot be > 0 with null string arguments"); //$NON-NLS-1$
-        }
-
-        // End values exclusive
-        final int endA = offsetA + length;
-        final int endB = offsetB + length;
-
-        if (endA > strA.length()) {
-            throw new IndexOutOfBoundsException("offsetA + length is past the end of strA"); //$NON-NLS-1$
-        }
-
-        if (endB > strB.length()) {
-            throw new IndexOutOfBoundsException("offsetB + length is past the end of strB"); //$NON-NLS-1$
-        }
-
-        /*
-         * We checked that we won't walk off the end of either string, so we can
-         * use just one of the end indices (endA) to limit our loop.
-         */
-        for (int iA = offsetA, iB = offsetB; iA < endA; iA++, iB++) {
-            char a = strA.charAt(iA);
-            char b = strB.charAt(iB);
-
-            if (a != b) {
-                // Try both as upper case
-                a = Character.toUpperCase(a);
-                b = Character.toUpperCase(b);
-                if (a != b) {
-                    // Try both as lower case
-                    a = Character.toLowerCase(a);
-                    b = Character.toLowerCase(b);
-                    if (a != b) {
-                        // Unicode difference works
-                        return a - b;
-                    }
-                }
-            }
-        }
-
-        // Got to end of both segments without a difference
-        return 0;
-    }
 }
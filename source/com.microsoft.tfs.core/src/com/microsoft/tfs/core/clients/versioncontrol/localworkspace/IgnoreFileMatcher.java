@@ -0,0 +1,369 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the repository root.
+
+package com.microsoft.tfs.core.clients.versioncontrol.localworkspace;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import com.microsoft.tfs.core.clients.versioncontrol.path.LocalPath;
+
+/**
+ * The entries of an {@link IgnoreFile} compiled for fast matching: exact
+ * patterns, "*suffix" patterns and "prefix*" patterns are found with hash
+ * lookups, and all the other wildcard patterns are matched together with one
+ * {@link WildcardAutomaton}, instead of testing every entry against every path
+ * part.
+ * <p>
+ * The result is exactly what testing the entries one at a time gives: each
+ * entry which matches a path part it applies to "contributes" (an exclusion
+ * on any part, an inclusion only on the last part), and the contributing entry
+ * which comes last in the file decides.
+ *
+ * @threadsafety immutable
+ */
+final class IgnoreFileMatcher {
+    private final IgnoreEntry[] entries;
+
+    /**
+     * Entries grouped by {@link IgnoreEntry#path}, which decides the path parts
+     * they apply to.
+     */
+    private final EntryGroup[] groups;
+
+    public IgnoreFileMatcher(final List<IgnoreEntry> entries) {
+        this.entries = entries.toArray(new IgnoreEntry[entries.size()]);
+
+        final Map<String, List<Integer>> groupIndices = new LinkedHashMap<String, List<Integer>>();
+        for (int i = 0; i < this.entries.length; i++) {
+            List<Integer> indices = groupIndices.get(this.entries[i].path);
+            if (indices == null) {
+                indices = new ArrayList<Integer>();
+                groupIndices.put(this.entries[i].path, indices);
+            }
+            indices.add(i);
+        }
+
+        groups = new EntryGroup[groupIndices.size()];
+        int g = 0;
+        for (final Map.Entry<String, List<Integer>> group : groupIndices.entrySet()) {
+            groups[g++] = new EntryGroup(group.getKey(), group.getValue());
+        }
+    }
+
+    public IgnoreEntry getEntry(final int index) {
+        return entries[index];
+    }
+
+    public int getEntryCount() {
+        return entries.length;
+    }
+
+    /**
+     * Finds the entry which decides whether an item is excluded, considering
+     * only the path parts which start in a range of the path (so the result
+     * for the parts a directory's children share can be computed once).
+     *
+     * @param path
+     *        the local item to check (must not be <code>null</code> or empty)
+     * @param isFolder
+     *        <code>true</code> if the local item is a folder
+     * @param startPath
+     *        a local item which parents path; only the path parts after it are
+     *        checked (must not be <code>null</code> or empty)
+     * @param fromIndex
+     *        the lowest index in path of the first character of a path part to
+     *        check
+     * @param toIndex
+     *        one past the highest index in path of the first character of a
+     *        path part to check
+     * @return the index of the deciding entry, or -1 if no entry matched
+     */
+    public int findDecidingEntry(
+        final String path,
+        final boolean isFolder,
+        final String startPath,
+        final int fromIndex,
+        final int toIndex) {
+        int startIndex = startPath.length();
+        if (startPath.charAt(startPath.length() - 1) != File.separatorChar) {
+            startIndex++;
+        }
+
+        String foldedPath = null;
+        final int end = Math.min(toIndex, path.length());
+        int decidingEntry = -1;
+
+        for (final EntryGroup group : groups) {
+            if (group.entries[group.entries.length - 1] <= decidingEntry) {
+                // Nothing in this group can come after the deciding entry
+                continue;
+            }
+
+            int i = startIndex;
+
+            if (group.path != null) {
+                if (!LocalPath.isChild(group.path, path)) {
+                    continue;
+                }
+                i = Math.max(i, group.pathPartIndex);
+            }
+
+            while (i >= 0 && i < end) {
+                int j = path.indexOf(File.separatorChar, i);
+                if (j < 0) {
+                    j = path.length();
+                }
+
+                if (i >= fromIndex) {
+                    if (foldedPath == null) {
+                        foldedPath = fold(path);
+                    }
+
+                    decidingEntry = group.match(path, foldedPath, i, j, isFolder, decidingEntry);
+                }
+
+                i = j + 1;
+            }
+        }
+
+        return decidingEntry;
+    }
+
+    /**
+     * Folds each character of a string with {@link WildcardAutomaton#fold(char)}
+     * so case-insensitive comparisons can be done with {@link String#equals}.
+     */
+    static String fold(final String s) {
+        final char[] chars = s.toCharArray();
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = WildcardAutomaton.fold(chars[i]);
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Entries which share a {@link IgnoreEntry#path}.
+     */
+    private final class EntryGroup {
+        private final String path;
+
+        /**
+         * The index of the first path part after {@link #path} (only valid if
+         * the path is not <code>null</code>).
+         */
+        private final int pathPartIndex;
+
+        /**
+         * All the entries in the group, ascending.
+         */
+        private final int[] entries;
+
+        private final Map<String, int[]> exactPatterns = new HashMap<String, int[]>();
+        private final Map<String, int[]> suffixPatterns = new HashMap<String, int[]>();
+        private final Map<String, int[]> prefixPatterns = new HashMap<String, int[]>();
+        private final int[] suffixLengths;
+        private final int[] prefixLengths;
+
+        private final int[] complexEntries;
+        private final WildcardAutomaton complexAutomaton;
+
+        public EntryGroup(final String path, final List<Integer> indices) {
+            this.path = path;
+
+            if (path == null) {
+                pathPartIndex = Integer.MAX_VALUE;
+            } else if (path.charAt(path.length() - 1) != File.separatorChar) {
+                pathPartIndex = path.length() + 1;
+            } else {
+                pathPartIndex = path.length();
+            }
+
+            entries = toArray(indices);
+
+            final Map<String, List<Integer>> exact = new HashMap<String, List<Integer>>();
+            final Map<String, List<Integer>> suffixes = new HashMap<String, List<Integer>>();
+            final Map<String, List<Integer>> prefixes = new HashMap<String, List<Integer>>();
+            final TreeSet<Integer> suffixLengthSet = new TreeSet<Integer>();
+            final TreeSet<Integer> prefixLengthSet = new TreeSet<Integer>();
+            final List<Integer> complex = new ArrayList<Integer>();
+            final List<String> complexPatterns = new ArrayList<String>();
+
+            for (final int index : entries) {
+                final IgnoreEntry entry = IgnoreFileMatcher.this.entries[index];
+                final String pattern = fold(entry.pattern);
+
+                if (entry.isEndsWith) {
+                    add(suffixes, pattern, index);
+                    suffixLengthSet.add(pattern.length());
+                } else if (entry.isStartsWith) {
+                    add(prefixes, pattern, index);
+                    prefixLengthSet.add(pattern.length());
+                } else if (entry.isComplex) {
+                    complex.add(index);
+                    complexPatterns.add(entry.pattern);
+                } else {
+                    add(exact, pattern, index);
+                }
+            }
+
+            copy(exact, exactPatterns);
+            copy(suffixes, suffixPatterns);
+            copy(prefixes, prefixPatterns);
+            suffixLengths = toArray(suffixLengthSet);
+            prefixLengths = toArray(prefixLengthSet);
+
+            complexEntries = toArray(complex);
+            complexAutomaton = complex.isEmpty() ? null
+                : new WildcardAutomaton(complexPatterns.toArray(new String[complexPatterns.size()]));
+        }
+
+        /**
+         * Matches the path part from i (inclusive) to j (exclusive) against
+         * the group's entries.
+         *
+         * @return the later of decidingEntry and the last entry in the group
+         *         which contributes for this path part
+         */
+        public int match(
+            final String path,
+            final String foldedPath,
+            final int i,
+            final int j,
+            final boolean isFolder,
+            int decidingEntry) {
+            final int length = j - i;
+
+            if (!exactPatterns.isEmpty()) {
+                decidingEntry =
+                    contribute(exactPatterns.get(foldedPath.substring(i, j)), path, i, j, isFolder, decidingEntry);
+            }
+
+            for (final int suffixLength : suffixLengths) {
+                if (suffixLength > length) {
+                    break;
+                }
+                decidingEntry = contribute(
+                    suffixPatterns.get(foldedPath.substring(j - suffixLength, j)),
+                    path,
+                    i,
+                    j,
+                    isFolder,
+                    decidingEntry);
+            }
+
+            for (final int prefixLength : prefixLengths) {
+                if (prefixLength > length) {
+                    break;
+                }
+                decidingEntry = contribute(
+                    prefixPatterns.get(foldedPath.substring(i, i + prefixLength)),
+                    path,
+                    i,
+                    j,
+                    isFolder,
+                    decidingEntry);
+            }
+
+            if (complexAutomaton != null && complexEntries[complexEntries.length - 1] > decidingEntry) {
+                final boolean[] matches = new boolean[complexEntries.length];
+                if (complexAutomaton.match(path.substring(i, j), matches)) {
+                    for (int p = complexEntries.length - 1; p >= 0 && complexEntries[p] > decidingEntry; p--) {
+                        if (matches[p] && contributes(complexEntries[p], path, i, j, isFolder)) {
+                            decidingEntry = complexEntries[p];
+                            break;
+                        }
+                    }
+                }
+            }
+
+            return decidingEntry;
+        }
+
+        /**
+         * @return the later of decidingEntry and the last of the matched
+         *         entries which contributes
+         */
+        private int contribute(
+            final int[] matched,
+            final String path,
+            final int i,
+            final int j,
+            final boolean isFolder,
+            final int decidingEntry) {
+            if (matched != null) {
+                for (int m = matched.length - 1; m >= 0 && matched[m] > decidingEntry; m--) {
+                    if (contributes(matched[m], path, i, j, isFolder)) {
+                        return matched[m];
+                    }
+                }
+            }
+
+            return decidingEntry;
+        }
+
+        /**
+         * Tests whether an entry which matched the path part from i to j
+         * applies to it, the same way {@link IgnoreFile} always has.
+         */
+        private boolean contributes(
+            final int index,
+            final String path,
+            final int i,
+            final int j,
+            final boolean isFolder) {
+            final IgnoreEntry entry = IgnoreFileMatcher.this.entries[index];
+
+            // Non-recursive entries apply only to the first part after their
+            // path
+            if (!entry.isRecursive && i > pathPartIndex) {
+                return false;
+            }
+
+            final boolean lastPart = j == path.length();
+
+            if (entry.isFolderOnly && !isFolder && lastPart) {
+                return false;
+            }
+
+            // Inclusions apply only to the last path part
+            return entry.isExcluded || lastPart;
+        }
+    }
+
+    private static void add(final Map<String, List<Integer>> map, final String key, final int index) {
+        List<Integer> indices = map.get(key);
+        if (indices == null) {
+            indices = new ArrayList<Integer>();
+            map.put(key, indices);
+        }
+        indices.add(index);
+    }
+
+    private static void copy(final Map<String, List<Integer>> from, final Map<String, int[]> to) {
+        for (final Map.Entry<String, List<Integer>> entry : from.entrySet()) {
+            to.put(entry.getKey(), toArray(entry.getValue()));
+        }
+    }
+
+    private static int[] toArray(final Iterable<Integer> values) {
+        final List<Integer> list = new ArrayList<Integer>();
+        for (final Integer value : values) {
+            list.add(value);
+        }
+
+        final int[] array = new int[list.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = list.get(i);
+        }
+
+        Arrays.sort(array);
+        return array;
+    }
+}
@@ -6,6 +6,7 @@ package com.microsoft.tfs.core.clients.versioncontrol.localworkspace;
 import java.io.File;
 import java.text.MessageFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicReference;
@@ -40,6 +41,8 @@ public class LocalItemExclusionEvaluator {
 
     private static final String DEFAULT_IGNORE_FILE_NAME = ".tfignore"; //$NON-NLS-1$
 
+    private static final int UNKNOWN_DECIDING_ENTRY = -2;
+
     static {
         // TODO VS does:
         // TFCommonUtil.GetAppSetting("VersionControl.IgnoreFileName",
@@ -73,6 +76,21 @@ public class LocalItemExclusionEvaluator {
      */
     private String currentDirectory;
 
+    /**
+     * The directory part (up to and including the last separator) of the last
+     * local item checked, for which {@link #parentDecidingEntries} is valid, or
+     * <code>null</code> if it is not valid.
+     */
+    private String parentDirectory;
+
+    /**
+     * For each entry in the stack, the deciding entry for the path parts
+     * shared by the children of {@link #parentDirectory} (see
+     * {@link IgnoreFile#findDecidingEntry(String, boolean, String, int, int)}
+     * ), or {@link #UNKNOWN_DECIDING_ENTRY} if not yet computed.
+     */
+    private int[] parentDecidingEntries = new int[0];
+
     /**
      * Whether or not to load .tfignore files from below the start local item.
      */
@@ -105,7 +123,7 @@ public class LocalItemExclusionEvaluator {
 
         initialize(
             Workstation.getCurrent(
-                workspace.getClient().getConnection().getPersistenceStoreProvider()).getLocalItemExclusions(
+                workspace.getClient().getConnection().getPersistenceStoreProvider()).getLocalItemExclusionsIgnoreFile(
                     workspace.getClient()));
     }
 
@@ -127,10 +145,10 @@ public class LocalItemExclusionEvaluator {
         // Use the current transaction to get the workspace
         final VersionControlClient client = LocalWorkspaceTransaction.getCurrent().getWorkspace().getClient();
         final PersistenceStoreProvider storeProvider = client.getConnection().getPersistenceStoreProvider();
-        initialize(Workstation.getCurrent(storeProvider).getLocalItemExclusions(client));
+        initialize(Workstation.getCurrent(storeProvider).getLocalItemExclusionsIgnoreFile(client));
     }
 
-    private void initialize(final String[] globalExclusions) {
+    private void initialize(final IgnoreFile globalExclusionList) {
         // Find the workspace root of m_startLocalItem.
         for (final String workspaceRoot : WorkingFolder.getWorkspaceRoots(workingFolders)) {
             if (LocalPath.isChild(workspaceRoot, startLocalItem)) {
@@ -180,12 +198,6 @@ public class LocalItemExclusionEvaluator {
         }
 
         // Add the global exclusion list to the stack.
-        final IgnoreFile globalExclusionList = new IgnoreFile(""); //$NON-NLS-1$
-
-        for (final String globalExclusion : globalExclusions) {
-            globalExclusionList.addEntry(new IgnoreEntry(globalExclusion));
-        }
-
         ignoreFiles.add(globalExclusionList);
 
         // Reverse the list, putting the global exclusion list at the bottom of
@@ -270,6 +282,14 @@ public class LocalItemExclusionEvaluator {
 
         prepareStackForLocalItem(localItem);
 
+        final int leafIndex = localItem.lastIndexOf(File.separatorChar) + 1;
+
+        if (parentDirectory == null || parentDirectory.length() != leafIndex || !localItem.startsWith(parentDirectory)) {
+            parentDirectory = localItem.substring(0, leafIndex);
+            parentDecidingEntries = new int[ignoreFiles.size()];
+            Arrays.fill(parentDecidingEntries, UNKNOWN_DECIDING_ENTRY);
+        }
+
         /*
          * Walk the stack of IgnoreFile objects in reverse. Entries in the stack
          * may be null -- this means that for that directory in the stack, there
@@ -280,13 +300,25 @@ public class LocalItemExclusionEvaluator {
             final IgnoreFile ignoreFile = ignoreFiles.get(i);
 
             if (null != ignoreFile) {
-                final AtomicReference<String> innerAppliedExclusion = new AtomicReference<String>();
-                final Boolean isExcluded =
-                    ignoreFile.isExcluded(localItem, isFolder, startLocalItem, innerAppliedExclusion);
+                /*
+                 * The parts of the path above the item are the same for all
+                 * the items in a directory, so they're matched once per
+                 * directory. The later of the two deciding entries decides.
+                 */
+                if (parentDecidingEntries[i] == UNKNOWN_DECIDING_ENTRY) {
+                    parentDecidingEntries[i] =
+                        ignoreFile.findDecidingEntry(localItem, isFolder, startLocalItem, 0, leafIndex);
+                }
+
+                final int decidingEntry = Math.max(
+                    parentDecidingEntries[i],
+                    ignoreFile.findDecidingEntry(localItem, isFolder, startLocalItem, leafIndex, localItem.length()));
+
+                if (decidingEntry >= 0) {
+                    final IgnoreEntry ignoreEntry = ignoreFile.getEntry(decidingEntry);
 
-                if (isExcluded != null) {
                     if (appliedExclusion != null) {
-                        appliedExclusion.set(innerAppliedExclusion.get());
+                        appliedExclusion.set(ignoreEntry.originalExclusion);
                     }
 
                     if (ignoreFilePath != null) {
@@ -299,7 +331,7 @@ public class LocalItemExclusionEvaluator {
                         }
                     }
 
-                    return isExcluded.booleanValue();
+                    return ignoreEntry.isExcluded;
                 }
             }
         }
@@ -353,6 +385,10 @@ public class LocalItemExclusionEvaluator {
             commonFolderDepth = LocalPath.getFolderDepth(commonPath);
         }
 
+        // The stack is changing, so the deciding entries for the last
+        // directory are no longer valid.
+        parentDirectory = null;
+
         // Pop the number of frames we need to pop to reach the common folder.
         final int popCount = currentFolderDepth - commonFolderDepth;
 
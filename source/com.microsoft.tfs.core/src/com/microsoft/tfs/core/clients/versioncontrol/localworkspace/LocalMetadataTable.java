@@ -36,12 +36,17 @@ public abstract class LocalMetadataTable implements Closeable {
     // Slot for data that is being written.
     protected static final String FILE_EXTENSION_SLOT_THREE = ".tf3"; //$NON-NLS-1$
 
+    // Changes appended since the file in slot 1 was written, for tables which
+    // save incrementally.
+    protected static final String FILE_EXTENSION_LOG = ".tfl"; //$NON-NLS-1$
+
     private boolean dirty;
     private boolean aborted;
     private boolean eligibleForCachedLoad;
 
     private final String filename;
     private FileSystemAttributes savedAttributes;
+    private FileSystemAttributes savedLogAttributes;
 
     private LocalMetadataTableLock tableLock;
 
@@ -113,7 +118,13 @@ public abstract class LocalMetadataTable implements Closeable {
         try {
             if (disposing) {
                 if (tableLock != null) {
-                    if (isDirty() && !isAborted()) {
+                    if (isDirty() && !isAborted() && saveIncremental()) {
+                        setDirty(false);
+
+                        saveComplete();
+
+                        makeEligibleForCachedLoad();
+                    } else if (isDirty() && !isAborted()) {
                         log.debug(MessageFormat.format("Saving {0}", this.getClass().getName())); //$NON-NLS-1$
 
                         final long start = System.currentTimeMillis();
@@ -170,8 +181,9 @@ public abstract class LocalMetadataTable implements Closeable {
     }
 
     private void makeEligibleForCachedLoad() {
-        // Capture the file size and timestamp for slot 1.
+        // Capture the file size and timestamp for slot 1 and the log.
         savedAttributes = FileSystemUtils.getInstance().getAttributes(getSlotOnePath(filename));
+        savedLogAttributes = FileSystemUtils.getInstance().getAttributes(getLogPath(filename));
 
         setEligibleForCachedLoad(true);
     }
@@ -188,6 +200,17 @@ public abstract class LocalMetadataTable implements Closeable {
         // Called during Dispose(), after the table is successfully saved.
     }
 
+    /**
+     * Called during Dispose() when the table is dirty, before the table is
+     * saved. A table which can append its changes to its log (see
+     * {@link #getLogPath(String)}) instead of rewriting the whole table does
+     * so and returns true. Otherwise it returns false and the table is saved
+     * with {@link #save(OutputStream)}.
+     */
+    protected boolean saveIncremental() throws IOException {
+        return false;
+    }
+
     protected boolean cachedLoad(final LocalMetadataTable source) {
         return false;
     }
@@ -213,7 +236,8 @@ public abstract class LocalMetadataTable implements Closeable {
                 source = null;
                 return cachedLoad(source);
             } else if (attrs.getSize() == sourceSavedAttributes.getSize()
-                && attrs.getModificationTime().equals(sourceSavedAttributes.getModificationTime())) {
+                && attrs.getModificationTime().equals(sourceSavedAttributes.getModificationTime())
+                && isLogUnchanged(source)) {
                 // Load from cache if the file has not changed on disk
                 return cachedLoad(source);
             }
@@ -222,6 +246,24 @@ public abstract class LocalMetadataTable implements Closeable {
         return false;
     }
 
+    /**
+     * @return true if the log has not changed on disk since the source table
+     *         was saved or loaded
+     */
+    private boolean isLogUnchanged(final LocalMetadataTable source) {
+        final FileSystemAttributes attrs = FileSystemUtils.getInstance().getAttributes(getLogPath(filename));
+        final FileSystemAttributes sourceSavedAttributes = source.savedLogAttributes;
+
+        final boolean sourceLogExisted = sourceSavedAttributes != null && sourceSavedAttributes.exists();
+
+        if (!attrs.exists() || !sourceLogExisted) {
+            return attrs.exists() == sourceLogExisted;
+        }
+
+        return attrs.getSize() == sourceSavedAttributes.getSize()
+            && attrs.getModificationTime().equals(sourceSavedAttributes.getModificationTime());
+    }
+
     public boolean isDirty() {
         return dirty;
     }
@@ -346,6 +388,10 @@ public abstract class LocalMetadataTable implements Closeable {
         return filename + FILE_EXTENSION_SLOT_THREE;
     }
 
+    public static String getLogPath(final String filename) {
+        return filename + FILE_EXTENSION_LOG;
+    }
+
     public FileSystemAttributes getSavedAttributes() {
         return savedAttributes;
     }
@@ -7,9 +7,21 @@ import java.io.File;
 import java.text.MessageFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
 
@@ -18,8 +30,10 @@ import org.apache.commons.logging.LogFactory;
 
 import com.microsoft.tfs.core.clients.versioncontrol.PropertyConstants;
 import com.microsoft.tfs.core.clients.versioncontrol.PropertyUtils;
+import com.microsoft.tfs.core.clients.versioncontrol.VersionControlClient;
 import com.microsoft.tfs.core.clients.versioncontrol.VersionControlConstants;
 import com.microsoft.tfs.core.clients.versioncontrol.WebServiceLevel;
+import com.microsoft.tfs.core.clients.versioncontrol.Workstation;
 import com.microsoft.tfs.core.clients.versioncontrol.engines.internal.CheckinEngine;
 import com.microsoft.tfs.core.clients.versioncontrol.events.EventSource;
 import com.microsoft.tfs.core.clients.versioncontrol.events.ScannerModifiedFilesEvent;
@@ -29,7 +43,11 @@ import com.microsoft.tfs.core.clients.versioncontrol.internal.localworkspace.Loc
 import com.microsoft.tfs.core.clients.versioncontrol.internal.localworkspace.LocalItemEnumerator;
 import com.microsoft.tfs.core.clients.versioncontrol.internal.localworkspace.LocalPendingChangesTable;
 import com.microsoft.tfs.core.clients.versioncontrol.internal.localworkspace.LocalWorkspaceProperties;
+import com.microsoft.tfs.core.clients.versioncontrol.internal.localworkspace.LocalWorkspaceScanJournal;
+import com.microsoft.tfs.core.clients.versioncontrol.internal.localworkspace.LocalWorkspaceScanJournal.DirectoryState;
 import com.microsoft.tfs.core.clients.versioncontrol.internal.localworkspace.LocalWorkspaceTransaction;
+import com.microsoft.tfs.core.clients.versioncontrol.internal.localworkspace.ParallelLocalItemEnumerator;
+import com.microsoft.tfs.core.clients.versioncontrol.internal.localworkspace.ParallelLocalItemEnumerator.ItemProcessor;
 import com.microsoft.tfs.core.clients.versioncontrol.internal.localworkspace.WorkspaceLocalItem;
 import com.microsoft.tfs.core.clients.versioncontrol.internal.localworkspace.WorkspaceVersionTable;
 import com.microsoft.tfs.core.clients.versioncontrol.path.LocalPath;
@@ -52,6 +70,7 @@ import com.microsoft.tfs.core.clients.versioncontrol.specs.version.LatestVersion
 import com.microsoft.tfs.core.config.EnvironmentVariables;
 import com.microsoft.tfs.core.exceptions.internal.CoreCancelException;
 import com.microsoft.tfs.jni.FileSystemAttributes;
+import com.microsoft.tfs.jni.FileSystemTime;
 import com.microsoft.tfs.jni.FileSystemUtils;
 import com.microsoft.tfs.jni.PlatformMiscUtils;
 import com.microsoft.tfs.util.Check;
@@ -82,6 +101,53 @@ public class LocalWorkspaceScanner {
         s_enumeratedItemsLimit = c_defaultEnumeratedItemsLimit;
     }
 
+    /**
+     * A property to define the number of threads a full scan uses to list
+     * directories, read file attributes and hash changed files. 1 (the
+     * default) scans on the calling thread only; 0 uses one thread per
+     * available processor.
+     */
+    private static final String SCAN_THREADS_PROPERTY_NAME =
+        "com.microsoft.tfs.core.clients.versioncontrol.localworkspace.scanthreads"; //$NON-NLS-1$
+
+    private static final int SCAN_THREADS;
+
+    static {
+        int scanThreads = 1;
+        final String propValue = System.getProperty(SCAN_THREADS_PROPERTY_NAME);
+
+        if (propValue != null) {
+            try {
+                scanThreads = Integer.parseInt(propValue.trim());
+            } catch (final NumberFormatException e) {
+                log.warn(MessageFormat.format("Ignoring invalid value for {0}: {1}", //$NON-NLS-1$
+                    SCAN_THREADS_PROPERTY_NAME,
+                    propValue));
+            }
+
+            if (scanThreads == 0) {
+                scanThreads = Runtime.getRuntime().availableProcessors();
+            }
+        }
+
+        SCAN_THREADS = Math.max(1, scanThreads);
+    }
+
+    /**
+     * A journal scan lists a directory again if its last modified time is
+     * within this many Windows filesystem time units (2 seconds) before the
+     * time the journal was written, because the directory may have changed
+     * again without its last modified time changing (coarse timestamps).
+     */
+    private static final long JOURNAL_TIMESTAMP_SLACK = 2 * 10000000L;
+
+    /**
+     * When at least this many unscanned items are in one directory, the
+     * attributes of all the directory's children are read in one pass instead
+     * of one item at a time.
+     */
+    private static final int BULK_ATTRIBUTES_MINIMUM_ITEMS = 4;
+
     private final LocalWorkspaceProperties wp;
     private final WorkspaceVersionTable lv;
     private final LocalPendingChangesTable pc;
@@ -113,13 +179,41 @@ public class LocalWorkspaceScanner {
     }
 
     public void fullScan() throws CoreCancelException {
+        fullScan(null);
+    }
+
+    /**
+     * Scans the entire mapped local space of the workspace.
+     *
+     * @param journal
+     *        if not <code>null</code>, the journal is updated with the
+     *        directories this scan listed so a later
+     *        {@link #journalScan(LocalWorkspaceScanJournal)} can skip the ones
+     *        which have not changed (or emptied if the scan did not complete)
+     */
+    public void fullScan(final LocalWorkspaceScanJournal journal) throws CoreCancelException {
         final long start = System.currentTimeMillis();
+        final long highWaterMark = getCurrentFilesystemTime();
         int firstPassItems = 0;
+        boolean completeScan = true;
+
+        final Map<String, Long> journalDirectories =
+            journal != null ? new TreeMap<String, Long>(String.CASE_INSENSITIVE_ORDER) : null;
+        final Map<String, Long> journalIgnoreFiles =
+            journal != null ? new TreeMap<String, Long>(String.CASE_INSENSITIVE_ORDER) : null;
+
+        final ExecutorService scanExecutor = createScanExecutor();
+        final Map<String, WorkspaceLocalItem> lvSnapshot =
+            scanExecutor != null ? new TreeMap<String, WorkspaceLocalItem>(String.CASE_INSENSITIVE_ORDER) : null;
 
         // First, set the Scanned bit for each item in the local version table
         // to false
         for (final WorkspaceLocalItem lvEntry : lv.queryByLocalItem(null, RecursionType.FULL, null)) {
             lvEntry.setScanned(false);
+
+            if (lvSnapshot != null) {
+                lvSnapshot.put(lvEntry.getLocalItem(), lvEntry);
+            }
         }
 
         final TaskMonitor taskMonitor = TaskMonitorService.getTaskMonitor();
@@ -128,57 +222,85 @@ public class LocalWorkspaceScanner {
         int candidateAddsCount = 0;
         int enumeratedItemsCount = 0;
 
-        // For each item in the mapped local space of the workspace (first pass)
-        PassOne: for (final LocalItemEnumerator localItemEnum : LocalItemEnumerable.getEnumeratorsForWorkingFolders(
-            workingFolders)) {
-            final LocalItemExclusionEvaluator ignoreFileStack =
-                new LocalItemExclusionEvaluator(this.wp, localItemEnum.getStartPath());
+        // For each item in the mapped local space of the workspace (first pass).
+        // When scanning in parallel, directories are listed (and changed files
+        // hashed) on the scan executor, but items are still processed here in
+        // enumeration order, so the results are the same as a serial scan.
+        try {
+            PassOne: for (final LocalItemEnumerator localItemEnum : LocalItemEnumerable.getEnumeratorsForWorkingFolders(
+                workingFolders)) {
+                final LocalItemExclusionEvaluator ignoreFileStack =
+                    new LocalItemExclusionEvaluator(this.wp, localItemEnum.getStartPath());
+
+                if (journalDirectories != null) {
+                    recordStartPath(localItemEnum, journalDirectories);
+                }
 
-            while (localItemEnum.hasNext()) {
-                if (taskMonitor.isCanceled()) {
-                    throw new CoreCancelException();
+                final Iterator<EnumeratedLocalItem> items;
+                if (scanExecutor != null) {
+                    items = new ParallelLocalItemEnumerator(localItemEnum, scanExecutor, new HashPrefetcher(lvSnapshot));
+                } else {
+                    items = localItemEnum;
                 }
 
-                final EnumeratedLocalItem fromDisk = localItemEnum.next();
+                while (items.hasNext()) {
+                    if (taskMonitor.isCanceled()) {
+                        throw new CoreCancelException();
+                    }
 
-                if (candidateAddsCount >= s_candidateAddsLimit || enumeratedItemsCount >= s_enumeratedItemsLimit) {
-                    // We're done walking mapped local space. Finish up the
-                    // items that are actually in the local version
-                    // table by skipping directly to pass two.
+                    final EnumeratedLocalItem fromDisk = items.next();
 
-                    // No goto in Java, break the PassOne loop
-                    break PassOne;
-                }
+                    if (candidateAddsCount >= s_candidateAddsLimit || enumeratedItemsCount >= s_enumeratedItemsLimit) {
+                        // We're done walking mapped local space. Finish up the
+                        // items that are actually in the local version
+                        // table by skipping directly to pass two.
 
-                enumeratedItemsCount++;
+                        // No goto in Java, break the PassOne loop
+                        completeScan = false;
+                        break PassOne;
+                    }
 
-                final WorkspaceLocalItem lvEntry = lv.getByLocalItem(fromDisk.getFullPath());
+                    enumeratedItemsCount++;
 
-                if (null != lvEntry) {
-                    // We've hit this item in the first pass and will not
-                    // need
-                    // to check it again
-                    // in the second.
-                    lvEntry.setScanned(true);
-                    firstPassItems++;
-
-                    diffItem(fromDisk, lvEntry);
-                } else if (!fromDisk.isDirectory() || fromDisk.isSymbolicLink()) {
-                    // Check to see if this is a candidate add.
-                    if (!ignoreFileStack.isExcluded(fromDisk.getFullPath())) {
-                        final WorkingFolder closestMapping = (WorkingFolder) localItemEnum.getTag();
-                        fromDisk.setServerItem(closestMapping.translateLocalItemToServerItem(fromDisk.getFullPath()));
-
-                        // Check for illegal characters or a $ at the
-                        // beginning of a path part
-                        if (ServerPath.isServerPath(fromDisk.getServerItem())) {
-                            if (addCandidateAdd(fromDisk)) {
-                                candidateAddsCount++;
+                    if (journalDirectories != null) {
+                        recordEnumeratedItem(fromDisk, localItemEnum, journalDirectories, journalIgnoreFiles);
+                    }
+
+                    final WorkspaceLocalItem lvEntry = lv.getByLocalItem(fromDisk.getFullPath());
+
+                    if (null != lvEntry) {
+                        // We've hit this item in the first pass and will not
+                        // need
+                        // to check it again
+                        // in the second.
+                        lvEntry.setScanned(true);
+                        firstPassItems++;
+
+                        diffItem(fromDisk, lvEntry);
+                    } else if (!fromDisk.isDirectory() || fromDisk.isSymbolicLink()) {
+                        // Check to see if this is a candidate add.
+                        if (!ignoreFileStack.isExcluded(fromDisk.getFullPath())) {
+                            final WorkingFolder closestMapping = (WorkingFolder) localItemEnum.getTag();
+                            fromDisk.setServerItem(
+                                closestMapping.translateLocalItemToServerItem(fromDisk.getFullPath()));
+
+                            // Check for illegal characters or a $ at the
+                            // beginning of a path part
+                            if (ServerPath.isServerPath(fromDisk.getServerItem())) {
+                                if (addCandidateAdd(fromDisk)) {
+                                    candidateAddsCount++;
+                                }
                             }
                         }
                     }
                 }
             }
+        } finally {
+            if (scanExecutor != null) {
+                // Abandon any directory listings still queued (limits hit,
+                // cancellation, or errors)
+                scanExecutor.shutdownNow();
+            }
         }
 
         // PassTwo starts here
@@ -186,42 +308,335 @@ public class LocalWorkspaceScanner {
         // If we hit everything in the first pass (common case) then there's no
         // additional work to do here.
         if (firstPassItems != lv.getLocalItemsCount()) {
-            // For each item in the local version table that we missed (second
-            // pass)
-            for (final WorkspaceLocalItem lvEntry : lv.queryByLocalItem(null, RecursionType.FULL, null)) {
-                if (lvEntry.isScanned()) {
-                    // We already hit this item
-                    continue;
+            scanUnscannedItems();
+        }
+
+        scanPartTwo();
+
+        // Remove from the pending changes table those candidates which we don't
+        // have in our list.
+        final Set<String> candidatesToRemove = new TreeSet<String>(String.CASE_INSENSITIVE_ORDER);
+
+        for (final LocalPendingChange candidateChange : pc.queryCandidatesByTargetServerItem(
+            ServerPath.ROOT,
+            RecursionType.FULL,
+            null)) {
+            if (!candidateChanges.contains(candidateChange.getTargetServerItem())) {
+                candidatesToRemove.add(candidateChange.getTargetServerItem());
+            }
+        }
+
+        for (final String candidateToRemove : candidatesToRemove) {
+            pc.removeCandidateByTargetServerItem(candidateToRemove);
+        }
+
+        if (candidatesToRemove.size() > 0) {
+            LocalWorkspaceTransaction.getCurrent().setRaisePendingChangeCandidatesChanged(true);
+        }
+
+        if (journal != null) {
+            if (completeScan) {
+                journal.setScanState(
+                    highWaterMark,
+                    computeJournalSignature(workingFolders),
+                    createDirectoryStates(journalDirectories),
+                    journalIgnoreFiles);
+            } else {
+                // A journal scan can't tell which items the limits skipped
+                journal.clear();
+            }
+        }
+
+        fireChangedByScanEvent();
+
+        log.debug(MessageFormat.format(
+            "Full scan took {0} ms ({1} enum items, {2} fp items, {3} adds, {4} removes, {5} threads)", //$NON-NLS-1$
+            (System.currentTimeMillis() - start),
+            enumeratedItemsCount,
+            firstPassItems,
+            candidateAddsCount,
+            candidatesToRemove.size(),
+            SCAN_THREADS));
+    }
+
+    /**
+     * @return a new executor for a parallel full scan, or <code>null</code> if
+     *         full scans should run on the calling thread
+     */
+    private static ExecutorService createScanExecutor() {
+        if (SCAN_THREADS <= 1) {
+            return null;
+        }
+
+        /*
+         * Each enumerator submits at most its run-ahead, and lists directories
+         * itself when the queue is full, so the queue can be bounded.
+         */
+        return new ThreadPoolExecutor(
+            SCAN_THREADS,
+            SCAN_THREADS,
+            0,
+            TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(ParallelLocalItemEnumerator.DEFAULT_MAX_RUN_AHEAD),
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(final Runnable r) {
+                    final Thread thread = new Thread(r, "LocalWorkspaceScanner"); //$NON-NLS-1$
+                    thread.setDaemon(true);
+                    return thread;
                 }
+            });
+    }
 
-                final File localFile = new File(lvEntry.getLocalItem());
-                final FileSystemAttributes attrs = FileSystemUtils.getInstance().getAttributes(localFile);
+    /**
+     * Scans the workspace using the directories recorded in a journal by an
+     * earlier {@link #fullScan(LocalWorkspaceScanJournal)} or
+     * {@link #journalScan(LocalWorkspaceScanJournal)}, which may have run in
+     * another process. Every item in the local version table is still
+     * compared with the item on disk (edits to a file don't change its
+     * directory), but only directories whose contents may have changed since
+     * the journal was written are listed to find new items.
+     * <p>
+     * A directory is listed again if its last modified time changed, if it
+     * was modified too close to the time the journal was written to trust the
+     * recorded time, or if the set of items the local version and pending
+     * changes tables track in it changed (for example, a pending add was
+     * undone).
+     * <p>
+     * The journal is not used (and no tables are modified) if the working
+     * folders, the global exclusions or any ignore file changed since it was
+     * written; the caller should perform a full scan instead.
+     *
+     * @param journal
+     *        the journal to use and update (must not be <code>null</code>)
+     * @return true if the scan was performed, false if the journal could not
+     *         be used
+     */
+    public boolean journalScan(final LocalWorkspaceScanJournal journal) throws CoreCancelException {
+        Check.notNull(journal, "journal"); //$NON-NLS-1$
 
-                if (!attrs.exists()) {
-                    // Missing on disk, and candidate delete
-                    markForRemoval.add(lvEntry);
-                    continue;
+        final long start = System.currentTimeMillis();
+        final long highWaterMark = getCurrentFilesystemTime();
+        final TaskMonitor taskMonitor = TaskMonitorService.getTaskMonitor();
+        final WorkingFolder[] workingFolders = this.wp.getWorkingFolders();
+
+        if (!journal.hasScanState() || !computeJournalSignature(workingFolders).equals(journal.getSignature())) {
+            return false;
+        }
+
+        // An ignore file can change the exclusions for any directory beneath
+        // it
+        for (final Entry<String, Long> ignoreFile : journal.getIgnoreFiles().entrySet()) {
+            final File localFile = new File(ignoreFile.getKey());
+            final FileSystemAttributes attrs = FileSystemUtils.getInstance().getAttributes(localFile);
+
+            if (!attrs.exists()
+                || new EnumeratedLocalItem(localFile, attrs).getLastWriteTime() != ignoreFile.getValue().longValue()) {
+                return false;
+            }
+        }
+
+        final List<LocalItemEnumerator> rootEnumerators = new ArrayList<LocalItemEnumerator>();
+        for (final LocalItemEnumerator localItemEnum : LocalItemEnumerable.getEnumeratorsForWorkingFolders(
+            workingFolders)) {
+            rootEnumerators.add(localItemEnum);
+        }
+
+        final Map<String, Long> trackedItemsSignatures = computeTrackedItemsSignatures(workingFolders);
+        final long untrustedWriteTime = journal.getHighWaterMark() - JOURNAL_TIMESTAMP_SLACK;
+
+        final Map<String, Long> journalDirectories = new TreeMap<String, Long>(String.CASE_INSENSITIVE_ORDER);
+        final Set<String> listedDirectories = new TreeSet<String>(String.CASE_INSENSITIVE_ORDER);
+        final List<JournalScanItem> listedItems = new ArrayList<JournalScanItem>();
+        final List<JournalScanItem> newDirectories = new ArrayList<JournalScanItem>();
+
+        // Find the directories to list without modifying any tables, so we can
+        // still give up if we find a new ignore file.
+        for (final LocalItemEnumerator rootEnumerator : rootEnumerators) {
+            if (!journal.getDirectories().containsKey(rootEnumerator.getStartPath())) {
+                // The root didn't exist when the journal was written
+                recordStartPath(rootEnumerator, journalDirectories);
+
+                if (journalDirectories.containsKey(rootEnumerator.getStartPath())) {
+                    listedDirectories.add(rootEnumerator.getStartPath());
+                    newDirectories.add(new JournalScanItem(null, rootEnumerator));
                 }
+            }
+        }
 
-                final EnumeratedLocalItem fromDisk = new EnumeratedLocalItem(localFile, attrs);
+        for (final Entry<String, DirectoryState> entry : journal.getDirectories().entrySet()) {
+            if (taskMonitor.isCanceled()) {
+                throw new CoreCancelException();
+            }
+
+            final String directory = entry.getKey();
+            final DirectoryState state = entry.getValue();
+            final File localFile = new File(directory);
+            final FileSystemAttributes attrs = FileSystemUtils.getInstance().getAttributes(localFile);
+
+            if (!attrs.exists() || !attrs.isDirectory() || attrs.isSymbolicLink()) {
+                // The items beneath it are compared with the local version
+                // table below, and candidates beneath it are removed
+                listedDirectories.add(directory);
+                continue;
+            }
+
+            final long lastWriteTime = new EnumeratedLocalItem(localFile, attrs).getLastWriteTime();
+            journalDirectories.put(directory, lastWriteTime);
+
+            final Long trackedItemsSignature = trackedItemsSignatures.get(directory);
+            if (lastWriteTime == state.getLastWriteTime()
+                && lastWriteTime < untrustedWriteTime
+                && (trackedItemsSignature != null ? trackedItemsSignature.longValue() : 0)
+                    == state.getTrackedItemsSignature()) {
+                continue;
+            }
+
+            final LocalItemEnumerator owner = findEnumerator(rootEnumerators, directory);
+            if (owner == null) {
+                return false;
+            }
+
+            listedDirectories.add(directory);
+
+            final Iterator<EnumeratedLocalItem> items = owner.createChildEnumerator(localFile, false);
+            while (items.hasNext()) {
+                final EnumeratedLocalItem fromDisk = items.next();
+
+                if (LocalItemExclusionEvaluator.IGNORE_FILE_NAME.equalsIgnoreCase(fromDisk.getFileName())
+                    && !journal.getIgnoreFiles().containsKey(fromDisk.getFullPath())) {
+                    return false;
+                }
+
+                listedItems.add(new JournalScanItem(fromDisk, owner));
+
+                if (owner.isRecursive()
+                    && fromDisk.isDirectory()
+                    && !journal.getDirectories().containsKey(fromDisk.getFullPath())) {
+                    newDirectories.add(new JournalScanItem(fromDisk, owner));
+                }
+            }
+        }
+
+        // Directories created since the journal was written are enumerated in
+        // full
+        for (final JournalScanItem newDirectory : newDirectories) {
+            final LocalItemEnumerator items;
+            if (newDirectory.item == null) {
+                items = newDirectory.owner;
+            } else {
+                journalDirectories.put(newDirectory.item.getFullPath(), newDirectory.item.getLastWriteTime());
+                listedDirectories.add(newDirectory.item.getFullPath());
+                items = newDirectory.owner.createChildEnumerator(new File(newDirectory.item.getFullPath()), true);
+            }
 
+            while (items.hasNext()) {
+                if (taskMonitor.isCanceled()) {
+                    throw new CoreCancelException();
+                }
+
+                final EnumeratedLocalItem fromDisk = items.next();
+
+                if (LocalItemExclusionEvaluator.IGNORE_FILE_NAME.equalsIgnoreCase(fromDisk.getFileName())) {
+                    return false;
+                }
+
+                listedItems.add(new JournalScanItem(fromDisk, newDirectory.owner));
+
+                if (items.isRecursive() && fromDisk.isDirectory()) {
+                    journalDirectories.put(fromDisk.getFullPath(), fromDisk.getLastWriteTime());
+                    listedDirectories.add(fromDisk.getFullPath());
+                }
+
+                if (listedItems.size() >= s_enumeratedItemsLimit) {
+                    return false;
+                }
+            }
+        }
+
+        if (listedItems.size() >= s_enumeratedItemsLimit) {
+            return false;
+        }
+
+        // From here on this is a full scan which only sees the listed items
+        // in its first pass.
+        for (final WorkspaceLocalItem lvEntry : lv.queryByLocalItem(null, RecursionType.FULL, null)) {
+            lvEntry.setScanned(false);
+        }
+
+        final Map<LocalItemEnumerator, LocalItemExclusionEvaluator> ignoreFileStacks =
+            new HashMap<LocalItemEnumerator, LocalItemExclusionEvaluator>();
+        boolean completeScan = true;
+        int candidateAddsCount = 0;
+
+        for (final JournalScanItem listedItem : listedItems) {
+            if (taskMonitor.isCanceled()) {
+                throw new CoreCancelException();
+            }
+
+            final EnumeratedLocalItem fromDisk = listedItem.item;
+            final WorkspaceLocalItem lvEntry = lv.getByLocalItem(fromDisk.getFullPath());
+
+            if (null != lvEntry) {
+                lvEntry.setScanned(true);
                 diffItem(fromDisk, lvEntry);
+            } else if ((!fromDisk.isDirectory() || fromDisk.isSymbolicLink()) && completeScan) {
+                LocalItemExclusionEvaluator ignoreFileStack = ignoreFileStacks.get(listedItem.owner);
+                if (ignoreFileStack == null) {
+                    ignoreFileStack = new LocalItemExclusionEvaluator(this.wp, listedItem.owner.getStartPath());
+                    ignoreFileStacks.put(listedItem.owner, ignoreFileStack);
+                }
+
+                if (!ignoreFileStack.isExcluded(fromDisk.getFullPath())) {
+                    final WorkingFolder closestMapping = (WorkingFolder) listedItem.owner.getTag();
+                    fromDisk.setServerItem(closestMapping.translateLocalItemToServerItem(fromDisk.getFullPath()));
+
+                    if (ServerPath.isServerPath(fromDisk.getServerItem())) {
+                        if (addCandidateAdd(fromDisk)) {
+                            candidateAddsCount++;
+                        }
+                    }
+                }
+
+                if (candidateAddsCount >= s_candidateAddsLimit) {
+                    completeScan = false;
+                }
             }
         }
 
+        scanUnscannedItems();
+
         scanPartTwo();
 
-        // Remove from the pending changes table those candidates which we don't
-        // have in our list.
+        // Remove from the pending changes table those candidates which we
+        // didn't find again, except for candidate adds in directories we
+        // didn't need to list.
         final Set<String> candidatesToRemove = new TreeSet<String>(String.CASE_INSENSITIVE_ORDER);
 
         for (final LocalPendingChange candidateChange : pc.queryCandidatesByTargetServerItem(
             ServerPath.ROOT,
             RecursionType.FULL,
             null)) {
-            if (!candidateChanges.contains(candidateChange.getTargetServerItem())) {
-                candidatesToRemove.add(candidateChange.getTargetServerItem());
+            if (candidateChanges.contains(candidateChange.getTargetServerItem())) {
+                continue;
+            }
+
+            if (candidateChange.isAdd()) {
+                final String localItem = WorkingFolder.getLocalItemForServerItem(
+                    candidateChange.getTargetServerItem(),
+                    workingFolders,
+                    true /* detectImplicitCloak */);
+
+                if (null != localItem) {
+                    final String parent = LocalPath.getParent(localItem);
+
+                    if (journalDirectories.containsKey(parent) && !listedDirectories.contains(parent)) {
+                        continue;
+                    }
+                }
             }
+
+            candidatesToRemove.add(candidateChange.getTargetServerItem());
         }
 
         for (final String candidateToRemove : candidatesToRemove) {
@@ -232,15 +647,205 @@ public class LocalWorkspaceScanner {
             LocalWorkspaceTransaction.getCurrent().setRaisePendingChangeCandidatesChanged(true);
         }
 
+        if (completeScan) {
+            journal.setScanState(
+                highWaterMark,
+                journal.getSignature(),
+                createDirectoryStates(journalDirectories),
+                journal.getIgnoreFiles());
+        } else {
+            journal.clear();
+        }
+
         fireChangedByScanEvent();
 
         log.debug(MessageFormat.format(
-            "Full scan took {0} ms ({1} enum items, {2} fp items, {3} adds, {4} removes)", //$NON-NLS-1$
+            "Journal scan took {0} ms ({1} of {2} dirs listed, {3} listed items, {4} adds, {5} removes)", //$NON-NLS-1$
             (System.currentTimeMillis() - start),
-            enumeratedItemsCount,
-            firstPassItems,
+            listedDirectories.size(),
+            journalDirectories.size(),
+            listedItems.size(),
             candidateAddsCount,
             candidatesToRemove.size()));
+
+        return true;
+    }
+
+    /**
+     * @return the closest enumerator whose start path is a parent of the
+     *         given directory and which lists the directory's children, or
+     *         <code>null</code> if there is none
+     */
+    private static LocalItemEnumerator findEnumerator(
+        final List<LocalItemEnumerator> rootEnumerators,
+        final String directory) {
+        LocalItemEnumerator closest = null;
+
+        for (final LocalItemEnumerator rootEnumerator : rootEnumerators) {
+            if (LocalPath.isChild(rootEnumerator.getStartPath(), directory)
+                && (closest == null || closest.getStartPath().length() < rootEnumerator.getStartPath().length())) {
+                closest = rootEnumerator;
+            }
+        }
+
+        if (closest != null && !closest.isRecursive() && !LocalPath.equals(closest.getStartPath(), directory)) {
+            return null;
+        }
+
+        return closest;
+    }
+
+    /**
+     * Records the last modified time of an enumerator's start path in a
+     * journal, if it is a directory.
+     */
+    private static void recordStartPath(
+        final LocalItemEnumerator localItemEnum,
+        final Map<String, Long> journalDirectories) {
+        final File startPath = new File(localItemEnum.getStartPath());
+        final FileSystemAttributes attrs = FileSystemUtils.getInstance().getAttributes(startPath);
+
+        if (attrs.exists() && attrs.isDirectory() && !attrs.isSymbolicLink()) {
+            journalDirectories.put(
+                localItemEnum.getStartPath(),
+                new EnumeratedLocalItem(startPath, attrs).getLastWriteTime());
+        }
+    }
+
+    /**
+     * Records an item a full scan enumerated in a journal if it is a directory
+     * the scan will list or an ignore file.
+     */
+    private static void recordEnumeratedItem(
+        final EnumeratedLocalItem fromDisk,
+        final LocalItemEnumerator localItemEnum,
+        final Map<String, Long> journalDirectories,
+        final Map<String, Long> journalIgnoreFiles) {
+        if (fromDisk.isDirectory()) {
+            if (localItemEnum.isRecursive()) {
+                journalDirectories.put(fromDisk.getFullPath(), fromDisk.getLastWriteTime());
+            }
+        } else if (LocalItemExclusionEvaluator.IGNORE_FILE_NAME.equalsIgnoreCase(fromDisk.getFileName())) {
+            journalIgnoreFiles.put(fromDisk.getFullPath(), fromDisk.getLastWriteTime());
+        }
+    }
+
+    /**
+     * Pairs the recorded directory times with the current tracked items
+     * signatures. Call after the scan has finished modifying the tables.
+     */
+    private Map<String, DirectoryState> createDirectoryStates(final Map<String, Long> journalDirectories) {
+        final Map<String, Long> trackedItemsSignatures = computeTrackedItemsSignatures(wp.getWorkingFolders());
+        final Map<String, DirectoryState> directoryStates =
+            new TreeMap<String, DirectoryState>(String.CASE_INSENSITIVE_ORDER);
+
+        for (final Entry<String, Long> entry : journalDirectories.entrySet()) {
+            final Long trackedItemsSignature = trackedItemsSignatures.get(entry.getKey());
+
+            directoryStates.put(
+                entry.getKey(),
+                new DirectoryState(
+                    entry.getValue().longValue(),
+                    trackedItemsSignature != null ? trackedItemsSignature.longValue() : 0));
+        }
+
+        return directoryStates;
+    }
+
+    /**
+     * Computes, for each directory, a signature of the names of the items in
+     * it which have local version rows or candidate adds. If a file stops
+     * being tracked without its directory changing on disk (like when a
+     * pending add is undone) the signature changes, so a journal scan lists
+     * the directory to find the file again.
+     */
+    private Map<String, Long> computeTrackedItemsSignatures(final WorkingFolder[] workingFolders) {
+        final Map<String, Long> signatures = new TreeMap<String, Long>(String.CASE_INSENSITIVE_ORDER);
+
+        for (final WorkspaceLocalItem lvEntry : lv.queryByLocalItem(null, RecursionType.FULL, null)) {
+            addToTrackedItemsSignature(signatures, lvEntry.getLocalItem());
+        }
+
+        for (final LocalPendingChange candidateChange : pc.queryCandidatesByTargetServerItem(
+            ServerPath.ROOT,
+            RecursionType.FULL,
+            null)) {
+            if (candidateChange.isAdd()) {
+                addToTrackedItemsSignature(
+                    signatures,
+                    WorkingFolder.getLocalItemForServerItem(
+                        candidateChange.getTargetServerItem(),
+                        workingFolders,
+                        true /* detectImplicitCloak */));
+            }
+        }
+
+        return signatures;
+    }
+
+    private static void addToTrackedItemsSignature(final Map<String, Long> signatures, final String localItem) {
+        if (localItem == null) {
+            return;
+        }
+
+        final String parent = LocalPath.getParent(localItem);
+        if (parent == null || LocalPath.equals(parent, localItem)) {
+            return;
+        }
+
+        // FNV-1a over the case-folded name, summed so the order items are
+        // added in doesn't matter
+        long hash = 0xcbf29ce484222325L;
+        for (int i = parent.length() + 1; i < localItem.length(); i++) {
+            hash ^= Character.toLowerCase(Character.toUpperCase(localItem.charAt(i)));
+            hash *= 0x100000001b3L;
+        }
+
+        final Long existing = signatures.get(parent);
+        signatures.put(parent, (existing != null ? existing.longValue() : 0) + hash);
+    }
+
+    /**
+     * Computes a signature of the working folders and global exclusions, which
+     * decide which items a scan enumerates and which it excludes.
+     */
+    private static String computeJournalSignature(final WorkingFolder[] workingFolders) {
+        final List<String> folders = new ArrayList<String>(workingFolders.length);
+
+        for (final WorkingFolder workingFolder : workingFolders) {
+            folders.add(workingFolder.getServerItem()
+                + '|'
+                + workingFolder.getLocalItem()
+                + '|'
+                + workingFolder.getDepth()
+                + '|'
+                + workingFolder.getType());
+        }
+
+        Collections.sort(folders);
+
+        final VersionControlClient client = LocalWorkspaceTransaction.getCurrent().getWorkspace().getClient();
+        final String[] exclusions = Workstation.getCurrent(
+            client.getConnection().getPersistenceStoreProvider()).getLocalItemExclusions(client);
+
+        final StringBuilder signature = new StringBuilder();
+        for (final String folder : folders) {
+            signature.append(folder).append('\n');
+        }
+        signature.append('\n');
+        for (final String exclusion : exclusions) {
+            signature.append(exclusion).append('\n');
+        }
+
+        return signature.toString();
+    }
+
+    /**
+     * @return the current time in Windows filesystem time, the unit
+     *         {@link EnumeratedLocalItem#getLastWriteTime()} uses
+     */
+    private static long getCurrentFilesystemTime() {
+        return new FileSystemTime(System.currentTimeMillis() / 1000).getWindowsFilesystemTime();
     }
 
     public void partialScan(final Iterable<String> changedPaths) throws CoreCancelException {
@@ -376,6 +981,61 @@ public class LocalWorkspaceScanner {
         fireChangedByScanEvent();
     }
 
+    /**
+     * Compares each item in the local version table which does not have its
+     * scanned bit set with the item on disk.
+     */
+    private void scanUnscannedItems() {
+        // For each item in the local version table that we missed (second
+        // pass), grouped by directory so the attributes of directories with
+        // many such items can be read together
+        final Map<String, List<WorkspaceLocalItem>> unscannedItemsByParent =
+            new LinkedHashMap<String, List<WorkspaceLocalItem>>();
+
+        for (final WorkspaceLocalItem lvEntry : lv.queryByLocalItem(null, RecursionType.FULL, null)) {
+            if (lvEntry.isScanned()) {
+                // We already hit this item
+                continue;
+            }
+
+            final String parent = LocalPath.getParent(lvEntry.getLocalItem());
+            List<WorkspaceLocalItem> items = unscannedItemsByParent.get(parent);
+            if (items == null) {
+                items = new ArrayList<WorkspaceLocalItem>();
+                unscannedItemsByParent.put(parent, items);
+            }
+            items.add(lvEntry);
+        }
+
+        for (final Entry<String, List<WorkspaceLocalItem>> entry : unscannedItemsByParent.entrySet()) {
+            Map<String, FileSystemAttributes> children = null;
+            if (entry.getKey() != null && entry.getValue().size() >= BULK_ATTRIBUTES_MINIMUM_ITEMS) {
+                children = FileSystemUtils.getInstance().getChildAttributes(entry.getKey());
+            }
+
+            for (final WorkspaceLocalItem lvEntry : entry.getValue()) {
+                final File localFile = new File(lvEntry.getLocalItem());
+
+                // The listing may not have the item if its name differs in
+                // case (or couldn't be read), so read it directly then
+                FileSystemAttributes attrs = children != null ? children.get(localFile.getName()) : null;
+                if (attrs == null) {
+                    attrs = FileSystemUtils.getInstance().getAttributes(localFile);
+                }
+
+                if (!attrs.exists()) {
+                    // Missing on disk, and candidate delete
+                    markForRemoval.add(lvEntry);
+                    continue;
+                }
+
+                final EnumeratedLocalItem fromDisk = new EnumeratedLocalItem(localFile, attrs);
+
+                diffItem(fromDisk, lvEntry);
+            }
+        }
+    }
+
     private void scanPartTwo() {
         // The items in this set may be folders or files. They have local
         // version rows, but no local item on disk. We will mark the local
@@ -546,11 +1206,15 @@ public class LocalWorkspaceScanner {
 
                         // If MD5 is a banned algorithm then the array will come
                         // back zero-length
-                        byte[] onDiskHash = new byte[0];
-                        try {
-                            onDiskHash = CheckinEngine.computeMD5Hash(lvEntry.getLocalItem(), null);
-                        } catch (final CoreCancelException e) {
-                            // Won't happen because we passed a null TaskMonitor
+                        byte[] onDiskHash = fromDisk.getContentHash();
+                        if (onDiskHash == null) {
+                            onDiskHash = new byte[0];
+                            try {
+                                onDiskHash = CheckinEngine.computeMD5Hash(lvEntry.getLocalItem(), null);
+                            } catch (final CoreCancelException e) {
+                                // Won't happen because we passed a null
+                                // TaskMonitor
+                            }
                         }
 
                         if (onDiskHash.length > 0 && Arrays.equals(onDiskHash, lvEntry.getHashValue())) {
@@ -800,4 +1464,64 @@ public class LocalWorkspaceScanner {
                 new ScannerModifiedFilesEvent(EventSource.newFromHere(), workspace, changedByScan));
         }
     }
+
+    /**
+     * Hashes files on the scan executor's threads when {@link #diffItem} is
+     * going to need their hash, so a parallel full scan doesn't hash serially.
+     * Uses a snapshot of the local version table taken before the scan
+     * started, because the table itself is not safe for concurrent reads.
+     */
+    private static class HashPrefetcher implements ItemProcessor {
+        private final Map<String, WorkspaceLocalItem> lvSnapshot;
+
+        public HashPrefetcher(final Map<String, WorkspaceLocalItem> lvSnapshot) {
+            this.lvSnapshot = lvSnapshot;
+        }
+
+        @Override
+        public void process(final EnumeratedLocalItem fromDisk) {
+            if (fromDisk.isDirectory()) {
+                return;
+            }
+
+            final WorkspaceLocalItem lvEntry = lvSnapshot.get(fromDisk.getFullPath());
+            if (lvEntry == null
+                || lvEntry.isDirectory()
+                || -1 == lvEntry.getLength()
+                || 0 == lvEntry.getHashValue().length) {
+                return;
+            }
+
+            // Same tests diffItem uses to decide whether to hash
+            final boolean symlink = lvEntry.isSymbolicLink() || fromDisk.isSymbolicLink();
+            if (lvEntry.getLength() != fromDisk.getFileSize() && !symlink) {
+                return;
+            }
+
+            if (symlink || lvEntry.getLastModifiedTime() != fromDisk.getLastWriteTime()) {
+                try {
+                    fromDisk.setContentHash(CheckinEngine.computeMD5Hash(fromDisk.getFullPath(), null));
+                } catch (final CoreCancelException e) {
+                    // Won't happen because we passed a null TaskMonitor
+                } catch (final RuntimeException e) {
+                    // diffItem will hash the file again and report the error
+                    log.debug(MessageFormat.format("Could not hash {0} during scan", fromDisk.getFullPath()), e); //$NON-NLS-1$
+                }
+            }
+        }
+    }
+
+    /**
+     * An item a journal scan listed, and the enumerator for the working
+     * folder it is beneath.
+     */
+    private static class JournalScanItem {
+        public final EnumeratedLocalItem item;
+        public final LocalItemEnumerator owner;
+
+        public JournalScanItem(final EnumeratedLocalItem item, final LocalItemEnumerator owner) {
+            this.item = item;
+            this.owner = owner;
+        }
+    }
 }
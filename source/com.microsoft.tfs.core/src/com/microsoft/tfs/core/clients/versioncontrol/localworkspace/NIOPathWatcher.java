@@ -0,0 +1,491 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the repository root.
+
+package com.microsoft.tfs.core.clients.versioncontrol.localworkspace;
+
+import java.io.File;
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.text.MessageFormat;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Stack;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.microsoft.tfs.core.clients.versioncontrol.path.LocalPath;
+import com.microsoft.tfs.jni.FileSystemUtils;
+import com.microsoft.tfs.util.Check;
+
+/**
+ * <p>
+ * A {@link PathWatcher} that uses the Java 7 <code>java.nio.file</code>
+ * WatchService to be notified of changes under a workspace root. Every
+ * directory under the root is registered (WatchService is not recursive on
+ * most platforms), and directories created later are registered as their
+ * creation events arrive.
+ * </p>
+ * <p>
+ * Events are coalesced into a {@link PathWatcherReport} of changed paths so
+ * the {@link WorkspaceWatcher} can do partial scans. The report is fully
+ * invalidated (which causes a full scan) only when the WatchService reports an
+ * overflow, when a watched directory is deleted or moved away, when the root
+ * stops being watchable, or when directories could not be registered (for
+ * example when the operating system's watch limit is reached).
+ * </p>
+ * <p>
+ * Core is built for Java 6, so the WatchService classes are accessed with
+ * reflection. Use {@link #isAvailable()} to test whether they can be used in
+ * this JVM.
+ * </p>
+ *
+ * @threadsafety thread-safe
+ */
+public class NIOPathWatcher implements PathWatcher {
+    private static final Log log = LogFactory.getLog(NIOPathWatcher.class);
+
+    /**
+     * How long to wait for more events after one arrives, so bursts of changes
+     * (like a build writing many files) become one notification.
+     */
+    private static final long COALESCE_MILLISECONDS = 100;
+
+    private static final boolean AVAILABLE;
+
+    private static Method fileSystemsGetDefault;
+    private static Method fileSystemNewWatchService;
+    private static Method fileGetPath;
+    private static Method pathRegister;
+    private static Method watchServiceTake;
+    private static Method watchServicePoll;
+    private static Method watchServiceClose;
+    private static Method watchKeyPollEvents;
+    private static Method watchKeyReset;
+    private static Method watchKeyCancel;
+    private static Method watchEventKind;
+    private static Method watchEventContext;
+
+    private static Object kindCreate;
+    private static Object kindDelete;
+    private static Object kindOverflow;
+    private static Object registerKinds;
+
+    private static Class<?> closedWatchServiceExceptionClass;
+
+    static {
+        boolean available = false;
+
+        try {
+            final Class<?> fileSystemsClass = Class.forName("java.nio.file.FileSystems"); //$NON-NLS-1$
+            final Class<?> fileSystemClass = Class.forName("java.nio.file.FileSystem"); //$NON-NLS-1$
+            final Class<?> pathClass = Class.forName("java.nio.file.Path"); //$NON-NLS-1$
+            final Class<?> watchServiceClass = Class.forName("java.nio.file.WatchService"); //$NON-NLS-1$
+            final Class<?> watchKeyClass = Class.forName("java.nio.file.WatchKey"); //$NON-NLS-1$
+            final Class<?> watchEventClass = Class.forName("java.nio.file.WatchEvent"); //$NON-NLS-1$
+            final Class<?> kindClass = Class.forName("java.nio.file.WatchEvent$Kind"); //$NON-NLS-1$
+            final Class<?> standardKindsClass = Class.forName("java.nio.file.StandardWatchEventKinds"); //$NON-NLS-1$
+
+            fileSystemsGetDefault = fileSystemsClass.getMethod("getDefault"); //$NON-NLS-1$
+            fileSystemNewWatchService = fileSystemClass.getMethod("newWatchService"); //$NON-NLS-1$
+            fileGetPath = File.class.getMethod("toPath"); //$NON-NLS-1$
+            pathRegister = pathClass.getMethod("register", watchServiceClass, Array.newInstance(kindClass, 0).getClass()); //$NON-NLS-1$
+            watchServiceTake = watchServiceClass.getMethod("take"); //$NON-NLS-1$
+            watchServicePoll = watchServiceClass.getMethod("poll", long.class, TimeUnit.class); //$NON-NLS-1$
+            watchServiceClose = watchServiceClass.getMethod("close"); //$NON-NLS-1$
+            watchKeyPollEvents = watchKeyClass.getMethod("pollEvents"); //$NON-NLS-1$
+            watchKeyReset = watchKeyClass.getMethod("reset"); //$NON-NLS-1$
+            watchKeyCancel = watchKeyClass.getMethod("cancel"); //$NON-NLS-1$
+            watchEventKind = watchEventClass.getMethod("kind"); //$NON-NLS-1$
+            watchEventContext = watchEventClass.getMethod("context"); //$NON-NLS-1$
+
+            kindCreate = standardKindsClass.getField("ENTRY_CREATE").get(null); //$NON-NLS-1$
+            kindDelete = standardKindsClass.getField("ENTRY_DELETE").get(null); //$NON-NLS-1$
+            final Object kindModify = standardKindsClass.getField("ENTRY_MODIFY").get(null); //$NON-NLS-1$
+            kindOverflow = standardKindsClass.getField("OVERFLOW").get(null); //$NON-NLS-1$
+
+            registerKinds = Array.newInstance(kindClass, 3);
+            Array.set(registerKinds, 0, kindCreate);
+            Array.set(registerKinds, 1, kindDelete);
+            Array.set(registerKinds, 2, kindModify);
+
+            closedWatchServiceExceptionClass = Class.forName("java.nio.file.ClosedWatchServiceException"); //$NON-NLS-1$
+
+            available = true;
+        } catch (final Exception e) {
+            log.info("java.nio.file WatchService is not available, NIOPathWatcher is disabled: " + e.getMessage()); //$NON-NLS-1$
+        }
+
+        AVAILABLE = available;
+    }
+
+    private final String path;
+    private final WorkspaceWatcher workspaceWatcher;
+
+    private final Object lock = new Object();
+
+    /*
+     * All the fields below are synchronized on lock.
+     */
+
+    private boolean watching;
+    private boolean registrationFailed;
+    private Object watchService;
+    private Thread eventThread;
+    private PathWatcherReport report = new PathWatcherReport(true);
+
+    private final Map<Object, String> keyToDirectory = new HashMap<Object, String>();
+    private final Map<String, Object> directoryToKey = new TreeMap<String, Object>(LocalPath.TOP_DOWN_COMPARATOR);
+
+    public NIOPathWatcher(final String path, final WorkspaceWatcher workspaceWatcher) {
+        Check.notNull(path, "path"); //$NON-NLS-1$
+        Check.notNull(workspaceWatcher, "workspaceWatcher"); //$NON-NLS-1$
+
+        this.path = path;
+        this.workspaceWatcher = workspaceWatcher;
+    }
+
+    /**
+     * @return <code>true</code> if the java.nio.file WatchService classes are
+     *         available in this JVM, <code>false</code> if they are not (and
+     *         {@link NIOPathWatcher}s will never start watching)
+     */
+    public static boolean isAvailable() {
+        return AVAILABLE;
+    }
+
+    @Override
+    public String getPath() {
+        return path;
+    }
+
+    @Override
+    public boolean hasChanged() {
+        synchronized (lock) {
+            return registrationFailed || !report.isNothingChanged();
+        }
+    }
+
+    @Override
+    public void startWatching() {
+        synchronized (lock) {
+            if (watching || !AVAILABLE) {
+                return;
+            }
+
+            final File root = new File(path);
+            if (!root.isDirectory()) {
+                // WorkspaceWatcher.ensureWatching() will try again later
+                return;
+            }
+
+            // Changes made while we weren't watching were missed
+            report = new PathWatcherReport(true);
+            registrationFailed = false;
+
+            try {
+                watchService = invoke(fileSystemNewWatchService, invoke(fileSystemsGetDefault, null));
+                registerTree(root, null);
+            } catch (final RuntimeException e) {
+                /*
+                 * Most likely the operating system's limit on watched
+                 * directories was reached. Keep "watching" so we aren't
+                 * restarted on every poll, but make every poll request a full
+                 * scan.
+                 */
+                log.warn(MessageFormat.format(
+                    "Could not watch all directories under {0}, falling back to full scans", //$NON-NLS-1$
+                    path), e);
+
+                closeWatchService();
+                registrationFailed = true;
+                watching = true;
+                return;
+            }
+
+            eventThread = new Thread(new EventRunnable(watchService), "NIOPathWatcher " + path); //$NON-NLS-1$
+            eventThread.setDaemon(true);
+            eventThread.start();
+
+            watching = true;
+        }
+    }
+
+    @Override
+    public void stopWatching() {
+        synchronized (lock) {
+            if (!watching) {
+                return;
+            }
+
+            // Closing the service makes the event thread exit
+            closeWatchService();
+            eventThread = null;
+            registrationFailed = false;
+            watching = false;
+        }
+    }
+
+    @Override
+    public boolean isWatching() {
+        synchronized (lock) {
+            return watching;
+        }
+    }
+
+    @Override
+    public void setClean() {
+        synchronized (lock) {
+            report = new PathWatcherReport(false);
+        }
+    }
+
+    @Override
+    public PathWatcherReport poll() {
+        synchronized (lock) {
+            if (registrationFailed) {
+                return new PathWatcherReport(true);
+            }
+
+            final PathWatcherReport ret = report;
+            report = new PathWatcherReport(false);
+            return ret;
+        }
+    }
+
+    /**
+     * Registers the given directory and all its subdirectories (except
+     * symbolic links and baseline folders) with the watch service. Caller must
+     * hold lock.
+     *
+     * @param directory
+     *        the directory to register (must not be <code>null</code>)
+     * @param newPathsReport
+     *        if not <code>null</code>, the files and directories found under
+     *        the given directory are added to this report (used for
+     *        directories created while watching, whose contents may have been
+     *        created before they were registered)
+     */
+    private void registerTree(final File directory, final PathWatcherReport newPathsReport) {
+        final Stack<File> toRegister = new Stack<File>();
+        toRegister.push(directory);
+
+        while (toRegister.size() > 0) {
+            final File dir = toRegister.pop();
+            final String dirPath = dir.getPath();
+
+            if (!directoryToKey.containsKey(dirPath)) {
+                final Object key = invoke(pathRegister, invoke(fileGetPath, dir), watchService, registerKinds);
+                keyToDirectory.put(key, dirPath);
+                directoryToKey.put(dirPath, key);
+            }
+
+            final File[] children = dir.listFiles();
+            if (children == null) {
+                continue;
+            }
+
+            for (final File child : children) {
+                if (BaselineFolder.isPotentialBaselineFolderName(child.getName())) {
+                    continue;
+                }
+
+                if (newPathsReport != null) {
+                    newPathsReport.addChangedPath(child.getPath());
+                }
+
+                if (child.isDirectory() && !FileSystemUtils.getInstance().getAttributes(child).isSymbolicLink()) {
+                    toRegister.push(child);
+                }
+            }
+        }
+    }
+
+    /**
+     * Cancels the watch keys for the given directory and all directories under
+     * it. Caller must hold lock.
+     */
+    private void unregisterTree(final String directory) {
+        final Iterator<Map.Entry<String, Object>> i = directoryToKey.entrySet().iterator();
+
+        while (i.hasNext()) {
+            final Map.Entry<String, Object> entry = i.next();
+
+            if (LocalPath.isChild(directory, entry.getKey())) {
+                invoke(watchKeyCancel, entry.getValue());
+                keyToDirectory.remove(entry.getValue());
+                i.remove();
+            }
+        }
+    }
+
+    /**
+     * Caller must hold lock.
+     */
+    private void closeWatchService() {
+        if (watchService != null) {
+            try {
+                invoke(watchServiceClose, watchService);
+            } catch (final RuntimeException e) {
+                log.debug("Error closing watch service", e); //$NON-NLS-1$
+            }
+            watchService = null;
+        }
+
+        keyToDirectory.clear();
+        directoryToKey.clear();
+    }
+
+    /**
+     * Adds the events queued on the given key to the report. Caller must hold
+     * lock.
+     *
+     * @return <code>true</code> if any changes were recorded
+     */
+    private boolean processKey(final Object key) {
+        final String directory = keyToDirectory.get(key);
+        boolean changed = false;
+
+        for (final Object event : (List<?>) invoke(watchKeyPollEvents, key)) {
+            final Object kind = invoke(watchEventKind, event);
+
+            if (kind == kindOverflow || directory == null) {
+                report.fullyInvalidate();
+                changed = true;
+                continue;
+            }
+
+            final String name = invoke(watchEventContext, event).toString();
+            if (BaselineFolder.isPotentialBaselineFolderName(name)) {
+                continue;
+            }
+
+            final File changedFile = new File(directory, name);
+            final String changedPath = changedFile.getPath();
+            changed = true;
+
+            if (kind == kindDelete && directoryToKey.containsKey(changedPath)) {
+                // Everything beneath a deleted or moved directory changed
+                unregisterTree(changedPath);
+                report.fullyInvalidate();
+                continue;
+            }
+
+            report.addChangedPath(changedPath);
+
+            if (kind == kindCreate
+                && changedFile.isDirectory()
+                && !FileSystemUtils.getInstance().getAttributes(changedFile).isSymbolicLink()) {
+                try {
+                    registerTree(changedFile, report);
+                } catch (final RuntimeException e) {
+                    log.warn(MessageFormat.format("Could not watch new directory {0}", changedPath), e); //$NON-NLS-1$
+                    report.fullyInvalidate();
+                }
+            }
+        }
+
+        if (!((Boolean) invoke(watchKeyReset, key)).booleanValue()) {
+            /*
+             * The directory is no longer accessible. It was deleted or moved
+             * away, and its key may be processed before its parent's delete
+             * event (which then no longer finds it registered), so everything
+             * beneath it changed.
+             */
+            keyToDirectory.remove(key);
+
+            if (directory != null) {
+                unregisterTree(directory);
+                report.fullyInvalidate();
+                changed = true;
+            }
+        }
+
+        return changed;
+    }
+
+    /**
+     * Invokes a reflected method, rethrowing any exception it throws as a
+     * {@link RuntimeException}.
+     */
+    private static Object invoke(final Method method, final Object target, final Object... args) {
+        try {
+            return method.invoke(target, args);
+        } catch (final InvocationTargetException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        } catch (final IllegalAccessException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Takes keys from one watch service until it is closed, and notifies the
+     * {@link WorkspaceWatcher} (if it scans asynchronously) once per burst of
+     * changes.
+     */
+    private class EventRunnable implements Runnable {
+        private final Object service;
+
+        public EventRunnable(final Object service) {
+            this.service = service;
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    Object key = invoke(watchServiceTake, service);
+                    boolean changed = false;
+
+                    while (key != null) {
+                        synchronized (lock) {
+                            if (service != watchService) {
+                                // Stopped (and maybe restarted) since take()
+                                return;
+                            }
+
+                            changed |= processKey(key);
+                        }
+
+                        key = invoke(watchServicePoll, service, COALESCE_MILLISECONDS, TimeUnit.MILLISECONDS);
+                    }
+
+                    if (changed && workspaceWatcher.isAsynchronous()) {
+                        try {
+                            workspaceWatcher.pathChanged(NIOPathWatcher.this);
+                        } catch (final RuntimeException e) {
+                            // The changes stay in the report for the next scan
+                            log.warn("Error scanning after path change notification", e); //$NON-NLS-1$
+                        }
+                    }
+                }
+            } catch (final RuntimeException e) {
+                if (closedWatchServiceExceptionClass.isInstance(e)
+                    || e.getCause() instanceof InterruptedException) {
+                    // Normal shutdown
+                    return;
+                }
+
+                log.warn(MessageFormat.format("Error watching {0}, falling back to full scans", path), e); //$NON-NLS-1$
+
+                synchronized (lock) {
+                    if (service == watchService) {
+                        closeWatchService();
+                        registrationFailed = true;
+                    }
+                }
+            }
+        }
+    }
+}
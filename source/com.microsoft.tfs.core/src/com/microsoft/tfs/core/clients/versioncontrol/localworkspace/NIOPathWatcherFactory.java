@@ -0,0 +1,23 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the repository root.
+
+package com.microsoft.tfs.core.clients.versioncontrol.localworkspace;
+
+import com.microsoft.tfs.core.clients.versioncontrol.internal.localworkspace.NullPathWatcher;
+
+/**
+ * Creates {@link NIOPathWatcher}s when the java.nio.file WatchService is
+ * available in this JVM, otherwise {@link NullPathWatcher}s.
+ *
+ * @threadsafety thread-safe
+ */
+public class NIOPathWatcherFactory implements PathWatcherFactory {
+    @Override
+    public PathWatcher newPathWatcher(final String path, final WorkspaceWatcher watcher) {
+        if (NIOPathWatcher.isAvailable()) {
+            return new NIOPathWatcher(path, watcher);
+        }
+
+        return new NullPathWatcher(path, watcher);
+    }
+}
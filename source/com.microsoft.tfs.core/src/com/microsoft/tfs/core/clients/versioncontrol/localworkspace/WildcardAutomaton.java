@@ -0,0 +1,239 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the repository root.
+
+package com.microsoft.tfs.core.clients.versioncontrol.localworkspace;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.microsoft.tfs.core.clients.versioncontrol.path.ItemPath;
+import com.microsoft.tfs.util.Check;
+
+/**
+ * Matches a file name against many wildcard patterns ('*' and '?') in one pass
+ * over the name, with a bit-parallel NFA which has one state per pattern
+ * position.
+ * <p>
+ * {@link ItemPath#matchesWildcardFile(String, String)} lets a pattern's last
+ * '.' match the end of the name and lets a name's trailing '.' be left over,
+ * except in a few cases. The automaton accepts a superset of those matches
+ * (any '.' in a pattern may be skipped, and a trailing '.' in the name may be
+ * left over), and each pattern it accepts is confirmed with
+ * {@link ItemPath#matchesWildcardFile(String, String)}, so the result is
+ * exactly what that method would give for each pattern.
+ *
+ * @threadsafety immutable
+ */
+final class WildcardAutomaton {
+    private final String[] patterns;
+
+    /**
+     * The pattern each state belongs to.
+     */
+    private final int[] statePatterns;
+
+    /**
+     * The first state of each pattern.
+     */
+    private final long[] startMask;
+
+    /**
+     * The last state of each pattern (the pattern has been matched).
+     */
+    private final long[] acceptMask;
+
+    /**
+     * States at a '?' (advance on any character).
+     */
+    private final long[] anyMask;
+
+    /**
+     * States at a '*' (stay on any character, or advance without one).
+     */
+    private final long[] starMask;
+
+    /**
+     * States which may advance without a character: '*' and '.'.
+     */
+    private final long[] epsilonMask;
+
+    /**
+     * States at each literal character (folded with {@link #fold(char)}).
+     */
+    private final Map<Character, long[]> literalMasks = new HashMap<Character, long[]>();
+
+    /**
+     * @param patterns
+     *        the wildcard patterns (must not be <code>null</code>)
+     */
+    public WildcardAutomaton(final String[] patterns) {
+        Check.notNull(patterns, "patterns"); //$NON-NLS-1$
+
+        this.patterns = patterns.clone();
+
+        int stateCount = 0;
+        for (final String pattern : patterns) {
+            stateCount += pattern.length() + 1;
+        }
+
+        final int words = (stateCount + 63) / 64;
+        statePatterns = new int[stateCount];
+        startMask = new long[words];
+        acceptMask = new long[words];
+        anyMask = new long[words];
+        starMask = new long[words];
+        epsilonMask = new long[words];
+
+        int state = 0;
+        for (int p = 0; p < patterns.length; p++) {
+            final String pattern = patterns[p];
+
+            set(startMask, state);
+
+            for (int i = 0; i < pattern.length(); i++, state++) {
+                statePatterns[state] = p;
+
+                final char c = pattern.charAt(i);
+                if (c == '*') {
+                    set(starMask, state);
+                    set(epsilonMask, state);
+                } else if (c == '?') {
+                    set(anyMask, state);
+                } else {
+                    if (c == '.') {
+                        set(epsilonMask, state);
+                    }
+
+                    final Character key = Character.valueOf(fold(c));
+                    long[] mask = literalMasks.get(key);
+                    if (mask == null) {
+                        mask = new long[words];
+                        literalMasks.put(key, mask);
+                    }
+                    set(mask, state);
+                }
+            }
+
+            statePatterns[state] = p;
+            set(acceptMask, state);
+            state++;
+        }
+    }
+
+    /**
+     * Tests a file name against all the patterns.
+     *
+     * @param name
+     *        the file name (not a full path) to test (must not be
+     *        <code>null</code>)
+     * @param matches
+     *        set to <code>true</code> at the index of each pattern which
+     *        matches the name (must not be <code>null</code>, must be as long
+     *        as the number of patterns; entries are only ever set, not
+     *        cleared)
+     * @return true if any pattern matched
+     */
+    public boolean match(final String name, final boolean[] matches) {
+        final int words = startMask.length;
+        if (words == 0) {
+            return false;
+        }
+
+        long[] current = startMask.clone();
+        long[] next = new long[words];
+        closeOverEpsilons(current);
+
+        // States which accepted before the name's trailing '.'
+        long[] beforeTrailingPeriod = null;
+
+        for (int i = 0; i < name.length(); i++) {
+            final char c = name.charAt(i);
+
+            if (c == '.' && i == name.length() - 1) {
+                beforeTrailingPeriod = current.clone();
+            }
+
+            final long[] literal = literalMasks.get(Character.valueOf(fold(c)));
+
+            boolean any = false;
+            long carry = 0;
+            for (int w = 0; w < words; w++) {
+                final long advancing = current[w] & (anyMask[w] | (literal != null ? literal[w] : 0));
+                next[w] = (advancing << 1) | carry | (current[w] & starMask[w]);
+                carry = advancing >>> 63;
+                any |= next[w] != 0;
+            }
+
+            if (!any) {
+                if (beforeTrailingPeriod == null) {
+                    return false;
+                }
+                Arrays.fill(next, 0);
+            }
+
+            closeOverEpsilons(next);
+
+            final long[] swap = current;
+            current = next;
+            next = swap;
+        }
+
+        boolean matched = false;
+        for (int w = 0; w < words; w++) {
+            long accepted = current[w] & acceptMask[w];
+            if (beforeTrailingPeriod != null) {
+                accepted |= beforeTrailingPeriod[w] & acceptMask[w];
+            }
+
+            while (accepted != 0) {
+                final int bit = Long.numberOfTrailingZeros(accepted);
+                accepted &= accepted - 1;
+
+                final int p = statePatterns[w * 64 + bit];
+                if (!matches[p] && ItemPath.matchesWildcardFile(name, patterns[p])) {
+                    matches[p] = true;
+                    matched = true;
+                }
+            }
+        }
+
+        return matched;
+    }
+
+    /**
+     * Adds the states reachable without consuming a character.
+     */
+    private void closeOverEpsilons(final long[] states) {
+        boolean changed = true;
+
+        while (changed) {
+            changed = false;
+
+            long carry = 0;
+            for (int w = 0; w < states.length; w++) {
+                final long advancing = states[w] & epsilonMask[w];
+                final long added = ((advancing << 1) | carry) & ~states[w];
+                carry = advancing >>> 63;
+
+                if (added != 0) {
+                    states[w] |= added;
+                    changed = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * Folds a character so two characters are equal after folding if
+     * {@link String#regionMatches(boolean, int, String, int, int)} ignoring
+     * case would find them equal.
+     */
+    static char fold(final char c) {
+        return Character.toLowerCase(Character.toUpperCase(c));
+    }
+
+    private static void set(final long[] mask, final int state) {
+        mask[state / 64] |= 1L << (state % 64);
+    }
+}
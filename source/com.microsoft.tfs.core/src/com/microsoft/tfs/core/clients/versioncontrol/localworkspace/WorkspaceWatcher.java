@@ -3,19 +3,25 @@
 
 package com.microsoft.tfs.core.clients.versioncontrol.localworkspace;
 
+import java.io.File;
 import java.io.IOException;
+import java.text.MessageFormat;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
 import java.util.TreeSet;
 import java.util.concurrent.atomic.AtomicBoolean;
 
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
 import com.microsoft.tfs.core.clients.versioncontrol.WorkspaceLocation;
 import com.microsoft.tfs.core.clients.versioncontrol.Workstation;
 import com.microsoft.tfs.core.clients.versioncontrol.exceptions.VersionControlException;
 import com.microsoft.tfs.core.clients.versioncontrol.internal.localworkspace.AllTablesTransaction;
 import com.microsoft.tfs.core.clients.versioncontrol.internal.localworkspace.LocalPendingChangesTable;
 import com.microsoft.tfs.core.clients.versioncontrol.internal.localworkspace.LocalWorkspaceProperties;
+import com.microsoft.tfs.core.clients.versioncontrol.internal.localworkspace.LocalWorkspaceScanJournal;
 import com.microsoft.tfs.core.clients.versioncontrol.internal.localworkspace.LocalWorkspaceTransaction;
 import com.microsoft.tfs.core.clients.versioncontrol.internal.localworkspace.WorkspaceLocalItem;
 import com.microsoft.tfs.core.clients.versioncontrol.internal.localworkspace.WorkspacePropertiesLocalVersionTransaction;
@@ -31,6 +37,8 @@ import com.microsoft.tfs.core.util.notifications.Notification;
 import com.microsoft.tfs.util.tasks.CanceledException;
 
 public class WorkspaceWatcher {
+    private static final Log log = LogFactory.getLog(WorkspaceWatcher.class);
+
     private final Workspace workspace;
 
     private boolean isAsynchronous;
@@ -54,6 +62,28 @@ public class WorkspaceWatcher {
         ENABLE_PARTIAL_SCANS = propValue != null && propValue.equalsIgnoreCase("false") ? false : true; //$NON-NLS-1$
     }
 
+    private static final boolean ENABLE_SCAN_JOURNAL;
+
+    /**
+     * A property to define whether full scans should record and use the scan
+     * journal, which lets a new process list only the directories which
+     * changed since the last scan. A directory whose modification time has
+     * not changed is then trusted without checking its files, so the default
+     * is false.
+     */
+    private static final String ENABLE_SCAN_JOURNAL_PROPERTY_NAME =
+        "com.microsoft.tfs.core.clients.versioncontrol.localworkspace.enablescanjournal"; //$NON-NLS-1$
+
+    /**
+     * The name of the scan journal table in the local metadata directory.
+     */
+    private static final String SCAN_JOURNAL_TABLE_NAME = "scanjournal"; //$NON-NLS-1$
+
+    static {
+        final String propValue = System.getProperty(ENABLE_SCAN_JOURNAL_PROPERTY_NAME);
+        ENABLE_SCAN_JOURNAL = propValue != null && propValue.equalsIgnoreCase("true"); //$NON-NLS-1$
+    }
+
     public WorkspaceWatcher(final Workspace workspace) {
         this.workspace = workspace;
 
@@ -284,7 +314,7 @@ public class WorkspaceWatcher {
                     final WorkspaceVersionTable lv,
                     final LocalPendingChangesTable pc) {
                     report.fullyInvalidate();
-                    scan(wp, lv, pc);
+                    scan(wp, lv, pc, false /* allowJournalScan */);
                 }
             });
         } finally {
@@ -307,6 +337,28 @@ public class WorkspaceWatcher {
         final LocalWorkspaceProperties wp,
         final WorkspaceVersionTable lv,
         final LocalPendingChangesTable pc) {
+        scan(wp, lv, pc, true /* allowJournalScan */);
+    }
+
+    /**
+     * Performs a scan of the workspace if necessary.
+     *
+     * @param wp
+     *        Workspace properties table
+     * @param lv
+     *        Local version table
+     * @param pc
+     *        Pending changes table
+     * @param allowJournalScan
+     *        true to let a full scan list only the directories the scan
+     *        journal says may have changed, false to always list every
+     *        directory (the journal is still updated)
+     */
+    private void scan(
+        final LocalWorkspaceProperties wp,
+        final WorkspaceVersionTable lv,
+        final LocalPendingChangesTable pc,
+        final boolean allowJournalScan) {
         updatePathWatchers(wp, lv);
 
         PathWatcherReport report;
@@ -330,7 +382,7 @@ public class WorkspaceWatcher {
 
             try {
                 if (report.getFullyInvalidated() || !ENABLE_PARTIAL_SCANS) {
-                    scanner.fullScan();
+                    fullScan(scanner, allowJournalScan);
                 } else {
                     scanner.partialScan(report.getChangedPaths());
                 }
@@ -340,6 +392,75 @@ public class WorkspaceWatcher {
         }
     }
 
+    /**
+     * Performs a full scan with the scanner, using and updating the scan
+     * journal if it is enabled. A process which has just started has no path
+     * watcher history, so this lets it skip listing the directories which
+     * haven't changed since the last process scanned the workspace.
+     */
+    private void fullScan(final LocalWorkspaceScanner scanner, final boolean allowJournalScan)
+        throws CoreCancelException {
+        if (!ENABLE_SCAN_JOURNAL) {
+            scanner.fullScan();
+            return;
+        }
+
+        final LocalWorkspaceScanJournal journal = openScanJournal();
+
+        if (null == journal) {
+            scanner.fullScan();
+            return;
+        }
+
+        boolean success = false;
+        try {
+            if (!allowJournalScan || !scanner.journalScan(journal)) {
+                scanner.fullScan(journal);
+            }
+
+            success = true;
+        } finally {
+            if (!success) {
+                // Don't save a journal describing a scan which the tables
+                // won't reflect
+                journal.setAborted(true);
+            }
+
+            try {
+                journal.close();
+            } catch (final IOException e) {
+                log.warn("Could not save the scan journal", e); //$NON-NLS-1$
+            }
+        }
+    }
+
+    /**
+     * Opens the scan journal for this workspace. If the journal can't be
+     * loaded (for example, it was written by a newer version) it is deleted so
+     * the next full scan starts a new one.
+     *
+     * @return the journal, or <code>null</code> if it could not be opened
+     */
+    private LocalWorkspaceScanJournal openScanJournal() {
+        final String journalPath = LocalPath.combine(workspace.getLocalMetadataDirectory(), SCAN_JOURNAL_TABLE_NAME);
+
+        try {
+            return new LocalWorkspaceScanJournal(journalPath);
+        } catch (final Exception e) {
+            log.warn(MessageFormat.format("Discarding unreadable scan journal {0}", journalPath), e); //$NON-NLS-1$
+        }
+
+        new File(LocalMetadataTable.getSlotOnePath(journalPath)).delete();
+        new File(LocalMetadataTable.getSlotTwoPath(journalPath)).delete();
+
+        try {
+            return new LocalWorkspaceScanJournal(journalPath);
+        } catch (final Exception e) {
+            log.warn(MessageFormat.format("Could not create scan journal {0}", journalPath), e); //$NON-NLS-1$
+            return null;
+        }
+    }
+
     /**
      * Returns true if a scan is necessary on this workspace.
      */
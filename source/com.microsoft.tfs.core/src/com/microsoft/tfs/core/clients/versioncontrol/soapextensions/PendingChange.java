@@ -24,6 +24,7 @@ import com.microsoft.tfs.core.clients.versioncontrol.VersionControlConstants;
 import com.microsoft.tfs.core.clients.versioncontrol.WorkspaceLocation;
 import com.microsoft.tfs.core.clients.versioncontrol.WorkspaceOptions;
 import com.microsoft.tfs.core.clients.versioncontrol.engines.internal.CheckinEngine;
+import com.microsoft.tfs.core.clients.versioncontrol.engines.internal.FileHashService;
 import com.microsoft.tfs.core.clients.versioncontrol.engines.internal.GetEngine;
 import com.microsoft.tfs.core.clients.versioncontrol.events.EventSource;
 import com.microsoft.tfs.core.clients.versioncontrol.events.NonFatalErrorEvent;
@@ -1151,6 +1152,34 @@ public final class PendingChange extends WebServiceObjectWrapper implements Comp
         return (MergeSource[]) WrapperUtils.wrap(MergeSource.class, getWebServiceObject().getMergeSources());
     }
 
+    /**
+     * Hashes the local items of the given pending changes' edits in parallel,
+     * so calls to {@link #hasContentChange()} and
+     * {@link #isUnchanged(Workspace)} for many changes in a row don't hash one
+     * file at a time.
+     *
+     * @param changes
+     *        the changes to hash the local items of (must not be
+     *        <code>null</code>)
+     * @throws CanceledException
+     *         if the hash operation was cancelled via the default
+     *         {@link TaskMonitor}
+     */
+    public static void prefetchContentHashes(final PendingChange[] changes) throws CanceledException {
+        Check.notNull(changes, "changes"); //$NON-NLS-1$
+
+        final List<String> localItems = new ArrayList<String>(changes.length);
+        for (final PendingChange change : changes) {
+            if (change.getChangeType().contains(ChangeType.EDIT) && change.getLocalItem() != null) {
+                localItems.add(change.getLocalItem());
+            }
+        }
+
+        FileHashService.getInstance().prefetchMD5Hashes(
+            localItems.toArray(new String[localItems.size()]),
+            TaskMonitorService.getTaskMonitor());
+    }
+
     /**
      * Tests whether this pending change has local content which differs from
      * the server item. Useful for finding users' changes during "return online"
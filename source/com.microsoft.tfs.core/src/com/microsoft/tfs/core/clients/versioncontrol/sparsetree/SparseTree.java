@@ -10,8 +10,6 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Stack;
-import java.util.concurrent.atomic.AtomicReference;
-import java.util.regex.Pattern;
 
 import com.microsoft.tfs.util.Check;
 import com.microsoft.tfs.util.NotYetImplementedException;
@@ -35,12 +33,6 @@ public class SparseTree<T> {
      */
     private char tokenSeparator;
 
-    /**
-     * Character array for the optional separator character. Used for splitting
-     * and trimming.
-     */
-    private char[] tokenSeparatorArray;
-
     /**
      * The optional element length. If this is -1, a variable length token is
      * assumed and the token separator will be used.
@@ -55,10 +47,25 @@ public class SparseTree<T> {
     private WeakReference<SparseTreeNode<T>> ts_findClosestNodeCache;
 
     /**
-     * An empty string array.
+     * Interns the token elements of the nodes in the tree.
+     */
+    private final SparseTreeSegmentPool segmentPool;
+
+    /**
+     * The elements of the root node's token.
      */
-    private static final String[] EMPTY_STRING_ARRAY = new String[] {
-        "" //$NON-NLS-1$
+    private static final String[] NO_ELEMENTS = new String[0];
+
+    /**
+     * The cursor used by lookups which finish with the token before calling
+     * any code outside the tree, so they can split the token without
+     * allocating.
+     */
+    private static final ThreadLocal<SparseTreeTokenCursor> lookupCursor = new ThreadLocal<SparseTreeTokenCursor>() {
+        @Override
+        protected SparseTreeTokenCursor initialValue() {
+            return new SparseTreeTokenCursor();
+        }
     };
 
     /**
@@ -144,26 +151,51 @@ public class SparseTree<T> {
         this('\0', fixedElementLength, tokenComparison);
     }
 
+    /**
+     * Tokens have variable length segments that are separated by the set of
+     * characters given to the constructor. Tokens are compared with the
+     * StringComparison method supplied. The token elements are interned in the
+     * given pool, which may be shared with other trees over the same items.
+     *
+     *
+     * @param tokenSeparator
+     *        The token separator character.
+     * @param tokenComparison
+     *        The type of comparison to use when comparing tokens.
+     * @param segmentPool
+     *        The pool to intern token elements in (must not be
+     *        <code>null</code>).
+     */
+    public SparseTree(
+        final char tokenSeparator,
+        final Comparator<String> tokenComparison,
+        final SparseTreeSegmentPool segmentPool) {
+        this(tokenSeparator, -1, tokenComparison, segmentPool);
+    }
+
     public SparseTree(
         final char tokenSeparator,
         final int fixedElementLength,
         final Comparator<String> tokenComparison) {
+        this(tokenSeparator, fixedElementLength, tokenComparison, new SparseTreeSegmentPool());
+    }
+
+    public SparseTree(
+        final char tokenSeparator,
+        final int fixedElementLength,
+        final Comparator<String> tokenComparison,
+        final SparseTreeSegmentPool segmentPool) {
         // Validate the split parameters
         Check.isTrue(
             tokenSeparator != '\0' || fixedElementLength > 0,
             "The token separator cannot be null or element length has to be greater than 0"); //$NON-NLS-1$
+        Check.notNull(segmentPool, "segmentPool"); //$NON-NLS-1$
 
         clear();
         this.tokenComparison = tokenComparison;
         this.tokenSeparator = tokenSeparator;
-
-        if (this.tokenSeparator != '\0') {
-            this.tokenSeparatorArray = new char[] {
-                this.tokenSeparator
-            };
-        }
-
         this.fixedElementLength = fixedElementLength;
+        this.segmentPool = segmentPool;
     }
 
     /**
@@ -197,23 +229,14 @@ public class SparseTree<T> {
         // Canonicalize the input.
         token = canonicalizeToken(token);
 
-        final String[] tokenElements = splitToken(token);
+        final SparseTreeTokenCursor cursor = getLookupCursor(token);
 
         // Find the closest parent and child node
-        final AtomicReference<SparseTreeNode<T>> node = new AtomicReference<SparseTreeNode<T>>();
-        final boolean exactMatch = findClosestNode(token, tokenElements, rootNode, node);
-        SparseTreeNode<T> closestNode = node.get();
+        final SparseTreeNode<T> closestNode = findClosestNode(cursor, rootNode);
 
         // Add the node to the tree if is not already in the tree
-        if (!exactMatch) {
-            final SparseTreeNode<T> newNode = new SparseTreeNode<T>(token, tokenElements, referencedObject);
-
-            // If there was no parent found the closest parent is the root
-            if (closestNode == null) {
-                closestNode = rootNode;
-            }
-
-            addNode(closestNode, newNode);
+        if (!isExactMatch(closestNode, cursor)) {
+            addNode(closestNode, newNode(cursor, closestNode, referencedObject));
         } else if (overwrite) {
             // Update the referenced object for this node
             closestNode.referencedObject = referencedObject;
@@ -244,12 +267,14 @@ public class SparseTree<T> {
         token = canonicalizeToken(token);
 
         T referencedObject = null;
-        final String[] tokenElements = splitToken(token);
+
+        // The callback may use the tree, so this lookup gets its own cursor.
+        final SparseTreeTokenCursor cursor = new SparseTreeTokenCursor();
+        splitToken(cursor, token);
 
         // Find the closest parent and child node
-        final AtomicReference<SparseTreeNode<T>> node = new AtomicReference<SparseTreeNode<T>>();
-        final boolean exactMatch = findClosestNode(token, tokenElements, rootNode, node);
-        SparseTreeNode<T> closestNode = node.get();
+        final SparseTreeNode<T> closestNode = findClosestNode(cursor, rootNode);
+        final boolean exactMatch = isExactMatch(closestNode, cursor);
 
         if (exactMatch) {
             referencedObject = closestNode.referencedObject;
@@ -260,14 +285,7 @@ public class SparseTree<T> {
 
         // Add the node to the tree if is not already in the tree
         if (!exactMatch) {
-            final SparseTreeNode<T> newNode = new SparseTreeNode<T>(token, tokenElements, referencedObject);
-
-            // If there was no parent found the closest parent is the root
-            if (closestNode == null) {
-                closestNode = rootNode;
-            }
-
-            addNode(closestNode, newNode);
+            addNode(closestNode, newNode(cursor, closestNode, referencedObject));
         } else {
             closestNode.referencedObject = referencedObject;
         }
@@ -290,14 +308,12 @@ public class SparseTree<T> {
         // Canonicalize the input.
         token = canonicalizeToken(token);
 
-        final String[] tokenElements = splitToken(token);
+        final SparseTreeTokenCursor cursor = getLookupCursor(token);
 
-        final AtomicReference<SparseTreeNode<T>> node = new AtomicReference<SparseTreeNode<T>>();
-        final boolean isSpecifiedToken = findClosestNode(token, tokenElements, rootNode, node);
-        final SparseTreeNode<T> nodeToInvestigate = node.get();
+        final SparseTreeNode<T> nodeToInvestigate = findClosestNode(cursor, rootNode);
 
         // If we found the exact node we were looking for, remove it.
-        if (isSpecifiedToken) {
+        if (isExactMatch(nodeToInvestigate, cursor)) {
             return removeNode(nodeToInvestigate, removeChildren);
         }
 
@@ -306,6 +322,7 @@ public class SparseTree<T> {
         // children of token, then we should remove the range of matching
         // children.
         if (removeChildren) {
+            final String[] tokenElements = cursor.toElements(NO_ELEMENTS, null);
             final SparseTreeRange range = findRange(tokenElements, tokenElements.length, 0, nodeToInvestigate);
 
             if (range.getStart() >= 0) {
@@ -350,13 +367,11 @@ public class SparseTree<T> {
         // Canonicalize the input.
         token = canonicalizeToken(token);
 
-        final String[] tokenElements = splitToken(token);
+        final SparseTreeTokenCursor cursor = getLookupCursor(token);
 
-        final AtomicReference<SparseTreeNode<T>> closestNode = new AtomicReference<SparseTreeNode<T>>();
-        final boolean found = findClosestNode(token, tokenElements, rootNode, closestNode);
-        final SparseTreeNode<T> node = closestNode.get();
+        final SparseTreeNode<T> node = findClosestNode(cursor, rootNode);
 
-        if (!found) {
+        if (!isExactMatch(node, cursor)) {
             if (exactMatch || node == rootNode) {
                 return null;
             } else {
@@ -375,7 +390,7 @@ public class SparseTree<T> {
      * Clears all of the tokens in the store.
      */
     public void clear() {
-        rootNode = new SparseTreeNode<T>("", new String[0], null); //$NON-NLS-1$
+        rootNode = new SparseTreeNode<T>("", NO_ELEMENTS, null); //$NON-NLS-1$
         count = 0;
     }
 
@@ -404,13 +419,11 @@ public class SparseTree<T> {
         token = canonicalizeToken(token);
 
         if (null != token) {
-            final String[] tokenElements = splitToken(token);
+            final SparseTreeTokenCursor cursor = getLookupCursor(token);
 
-            final AtomicReference<SparseTreeNode<T>> closestNode = new AtomicReference<SparseTreeNode<T>>();
-            final boolean found = findClosestNode(token, tokenElements, rootNode, closestNode);
-            node = closestNode.get();
+            node = findClosestNode(cursor, rootNode);
 
-            if (!found) {
+            if (!isExactMatch(node, cursor)) {
                 throw new KeyNotFoundException();
             }
         }
@@ -731,27 +744,22 @@ public class SparseTree<T> {
      * Finds the closest node to the token.
      *
      *
-     * @param token
-     *        The canonicalized token we're looking for
-     * @param tokenElements
-     *        The elements of the token we're looking for
+     * @param cursor
+     *        The elements of the canonicalized token we're looking for
      * @param nodeList
      *        The current nodeList to look for the token in.
-     * @param closestNode
-     *        The current closest node.
-     * @return True if the node found is the exact node we were looking for.
+     * @return The node for the token if it is in the tree (see
+     *         {@link #isExactMatch(SparseTreeNode, SparseTreeTokenCursor)}),
+     *         otherwise the closest parent node in the tree (which may be the
+     *         root node).
      */
-    private boolean findClosestNode(
-        final String token,
-        final String[] tokenElements,
-        SparseTreeNode<T> nodeList,
-        final AtomicReference<SparseTreeNode<T>> closestNode) {
+    private SparseTreeNode<T> findClosestNode(final SparseTreeTokenCursor cursor, SparseTreeNode<T> nodeList) {
         int elementCount = 0;
         final SparseTreeNode<T> cachedNode = getFindClosestNodeCache();
 
         if (null != cachedNode
             && null != cachedNode.parent
-            && isSubItem(token, cachedNode.token)
+            && isSubItem(cursor.getToken(), cachedNode.token)
             && isRooted(cachedNode)) {
             // OK, we have a valid cached entry which can help us out here.
             // This call to FindClosestNode will start doing looking for the
@@ -762,17 +770,16 @@ public class SparseTree<T> {
             nodeList = cachedNode;
             elementCount = cachedNode.tokenElements.length;
 
-            if (elementCount == tokenElements.length) {
+            if (elementCount == cursor.getCount()) {
                 // Exact match
-                closestNode.set(cachedNode);
-                return true;
+                return cachedNode;
             }
         }
 
-        final boolean result = findClosestNodeHelper(tokenElements, elementCount, nodeList, closestNode);
+        final SparseTreeNode<T> result = findClosestNodeHelper(cursor, elementCount, nodeList);
 
         // Cache this result for future calls.
-        setFindClosestNodeCache(closestNode.get());
+        setFindClosestNodeCache(result);
 
         return result;
     }
@@ -781,22 +788,20 @@ public class SparseTree<T> {
      * Finds the closest node to the token.
      *
      *
-     * @param tokenElements
+     * @param cursor
      *        The token we are looking for.
      * @param elementIndex
      *        The index of the element that we are looking at.
      * @param nodeList
      *        The current nodeList to look for the token in.
-     * @param closestNode
-     *        The current closest node.
-     * @return True if the node found is the exact node we were looking for.
+     * @return The node for the token if it is in the tree, otherwise the
+     *         closest parent node.
      */
-    private boolean findClosestNodeHelper(
-        final String[] tokenElements,
+    private SparseTreeNode<T> findClosestNodeHelper(
+        final SparseTreeTokenCursor cursor,
         final int elementIndex,
-        final SparseTreeNode<T> nodeList,
-        final AtomicReference<SparseTreeNode<T>> closestNode) {
-        closestNode.set(nodeList);
+        final SparseTreeNode<T> nodeList) {
+        final int elementCount = cursor.getCount();
 
         int startChildIndex = 0;
         int endChildIndex = nodeList.getChildCount() - 1;
@@ -813,35 +818,31 @@ public class SparseTree<T> {
             // If this element is Equal to our element then this node is
             // either a parent of our path, equal to our path, or is a
             // child or our path.
-            while ((result = tokenComparison.compare(
-                tokenElements[currentElementIndex],
-                childNode.tokenElements[currentElementIndex])) == 0) {
+            while ((result = cursor.compare(
+                currentElementIndex,
+                childNode.tokenElements[currentElementIndex],
+                tokenComparison)) == 0) {
                 // If we are on our last element and the child has the same
                 // amount of elements that we do then
                 // this node is an exact match
-                if (currentElementIndex == tokenElements.length - 1
-                    && childNode.tokenElements.length == tokenElements.length) {
-                    closestNode.set(childNode);
-                    return true;
+                if (currentElementIndex == elementCount - 1 && childNode.tokenElements.length == elementCount) {
+                    return childNode;
                 }
 
                 // If this element is equal to the last path element of the node
                 // we are examining then this
-                // node is at least the parent. Set it to the closest node and
-                // then search through its sub tree.
-                if (childNode.tokenElements.length < tokenElements.length
+                // node is at least the parent. Search through its sub tree for
+                // the nearest.
+                if (childNode.tokenElements.length < elementCount
                     && currentElementIndex == (childNode.tokenElements.length - 1)) {
-                    closestNode.set(childNode);
-
-                    // Search the sub-tree for the nearest
-                    return findClosestNodeHelper(tokenElements, currentElementIndex + 1, childNode, closestNode);
+                    return findClosestNodeHelper(cursor, currentElementIndex + 1, childNode);
                 }
 
                 // Move to the next element in the list
                 currentElementIndex++;
 
                 // If we are past the end of our paths element list we are done
-                if (currentElementIndex == tokenElements.length) {
+                if (currentElementIndex == elementCount) {
                     break;
                 }
             }
@@ -851,7 +852,7 @@ public class SparseTree<T> {
             // just looking at. We can return right now saying that the item
             // that was passed in as the node list is the closest node
             if (result == 0) {
-                return false;
+                return nodeList;
             }
 
             // If the new value is less than the mid-point try insert
@@ -865,7 +866,40 @@ public class SparseTree<T> {
 
         // If we get here then we can assume that nothing in nodeList matched
         // and that we should just be returning the parent.
-        return false;
+        return nodeList;
+    }
+
+    /**
+     * Given the result of
+     * {@link #findClosestNode(SparseTreeTokenCursor, SparseTreeNode)}, returns
+     * true if it is the node for the token rather than a parent of it. Only
+     * the node for the token has as many elements as the token, and the root
+     * node is never the node for a token.
+     */
+    private boolean isExactMatch(final SparseTreeNode<T> closestNode, final SparseTreeTokenCursor cursor) {
+        return closestNode != rootNode && closestNode.tokenElements.length == cursor.getCount();
+    }
+
+    /**
+     * Creates the node for a token which is not in the tree. The node shares
+     * the elements of its parent and interns the rest.
+     *
+     *
+     * @param cursor
+     *        The elements of the canonicalized token
+     * @param parentNode
+     *        The node the new node will be added to
+     * @param referencedObject
+     *        The referencedObject of the new node
+     */
+    private SparseTreeNode<T> newNode(
+        final SparseTreeTokenCursor cursor,
+        final SparseTreeNode<T> parentNode,
+        final T referencedObject) {
+        return new SparseTreeNode<T>(
+            cursor.getToken(),
+            cursor.toElements(parentNode.tokenElements, segmentPool),
+            referencedObject);
     }
 
     /**
@@ -1302,31 +1336,33 @@ public class SparseTree<T> {
      * splitting that has been supplied.
      *
      *
+     * @param cursor
+     *        The cursor to record the elements in.
      * @param token
      *        The canonicalized token to split.
-     * @return The array of elements that make up the token.
      */
-    private String[] splitToken(final String token) {
+    private void splitToken(final SparseTreeTokenCursor cursor, final String token) {
         if (tokenSeparator != '\0') {
-            if (token.length() == 0) {
-                return EMPTY_STRING_ARRAY;
-            }
-
-            return token.split(Pattern.quote(new String(tokenSeparatorArray)));
-        } else if (fixedElementLength > 0) {
-            final int numElements = (token.length() / fixedElementLength);
-            final String[] elements = new String[numElements];
-
-            for (int i = 0; i < numElements; i++) {
-                final int startOffset = i * fixedElementLength;
-                final int endOffset = startOffset + fixedElementLength;
-                elements[i] = token.substring(startOffset, endOffset);
-            }
-
-            return elements;
+            cursor.setSeparated(token, tokenSeparator);
+        } else {
+            cursor.setFixedLength(token, fixedElementLength);
         }
+    }
 
-        return null;
+    /**
+     * Splits a canonicalized token with this thread's lookup cursor. The
+     * caller must be done with the cursor before calling any code which might
+     * use the tree.
+     *
+     *
+     * @param token
+     *        The canonicalized token to split.
+     * @return The cursor holding the elements of the token.
+     */
+    private SparseTreeTokenCursor getLookupCursor(final String token) {
+        final SparseTreeTokenCursor cursor = lookupCursor.get();
+        splitToken(cursor, token);
+        return cursor;
     }
 
     /**
@@ -1347,13 +1383,11 @@ public class SparseTree<T> {
             return false;
         }
 
-        final String itemPrefix = item.substring(0, parent.length());
-
         if (fixedElementLength > 0) {
-            return tokenComparison.compare(parent, itemPrefix) == 0;
+            return startsWith(item, parent);
         } else if (tokenSeparator != '\0') {
             // This is the same check as FileSpec.IsSubItem.
-            return tokenComparison.compare(parent, itemPrefix) == 0
+            return startsWith(item, parent)
                 && (item.length() == parent.length()
                     || (parent.length() > 0 && parent.charAt(parent.length() - 1) == tokenSeparator)
                     || item.charAt(parent.length()) == tokenSeparator);
@@ -1362,6 +1396,25 @@ public class SparseTree<T> {
         return false;
     }
 
+    /**
+     * Returns true if the start of item is equal to prefix using the token
+     * comparison.
+     *
+     *
+     * @param item
+     *        Item to check (at least as long as prefix)
+     * @param prefix
+     *        Potential prefix of item
+     */
+    private boolean startsWith(final String item, final String prefix) {
+        if (tokenComparison == String.CASE_INSENSITIVE_ORDER) {
+            // Avoid creating the substring for the common comparison
+            return item.regionMatches(true, 0, prefix, 0, prefix.length());
+        }
+
+        return tokenComparison.compare(prefix, item.substring(0, prefix.length())) == 0;
+    }
+
     /**
      * Adds a token part to the specified StringBuilder.
      *
@@ -1514,6 +1567,11 @@ public class SparseTree<T> {
     }
 
     private void setFindClosestNodeCache(final SparseTreeNode<T> value) {
+        // Repeated lookups under the same node keep the same reference
+        if (getFindClosestNodeCache() == value) {
+            return;
+        }
+
         ts_findClosestNodeCache = new WeakReference<SparseTreeNode<T>>(value);
     }
 
@@ -1705,12 +1763,15 @@ public class SparseTree<T> {
 
             // Canonicalize and split the token
             this.token = sparseTree.canonicalizeToken(token);
-            this.tokenElements = sparseTree.splitToken(token);
+
+            final SparseTreeTokenCursor cursor = new SparseTreeTokenCursor();
+            sparseTree.splitToken(cursor, token);
+
+            this.tokenElements = cursor.toElements(NO_ELEMENTS, null);
             this.enumTokenLength = tokenElements.length;
 
-            final AtomicReference<SparseTreeNode<T>> closestNode = new AtomicReference<SparseTreeNode<T>>();
-            this.isSpecifiedNode = sparseTree.findClosestNode(token, tokenElements, sparseTree.rootNode, closestNode);
-            this.currentParent = closestNode.get();
+            this.currentParent = sparseTree.findClosestNode(cursor, sparseTree.rootNode);
+            this.isSpecifiedNode = sparseTree.isExactMatch(currentParent, cursor);
 
             this.hasChildren = false;
             this.sparseNodeBuffer = null;
@@ -1948,7 +2009,7 @@ public class SparseTree<T> {
 
         public void reset() {
             current = null;
-            tokenElements = new String[0];
+            tokenElements = NO_ELEMENTS;
             nodeStack = new Stack<SparseTreeNode<T>>();
             state = State.Normal;
 
@@ -1959,12 +2020,12 @@ public class SparseTree<T> {
             SparseTreeNode<T> currentNode = sparseTree.rootNode;
 
             if (null != token) {
-                tokenElements = sparseTree.splitToken(token);
+                final SparseTreeTokenCursor cursor = new SparseTreeTokenCursor();
+                sparseTree.splitToken(cursor, token);
 
-                final AtomicReference<SparseTreeNode<T>> closestNode =
-                    new AtomicReference<SparseTreeNode<T>>(currentNode);
-                isSpecifiedNode = sparseTree.findClosestNode(token, tokenElements, sparseTree.rootNode, closestNode);
-                currentNode = closestNode.get();
+                tokenElements = cursor.toElements(NO_ELEMENTS, null);
+                currentNode = sparseTree.findClosestNode(cursor, sparseTree.rootNode);
+                isSpecifiedNode = sparseTree.isExactMatch(currentNode, cursor);
             }
 
             // There is no entry in the SparseTree for this token or any of
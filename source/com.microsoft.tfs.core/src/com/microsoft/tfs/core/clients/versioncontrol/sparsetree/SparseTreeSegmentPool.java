@@ -0,0 +1,50 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the repository root.
+
+package com.microsoft.tfs.core.clients.versioncontrol.sparsetree;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.microsoft.tfs.util.Check;
+
+/**
+ * Interns the token elements (path segments) stored by one or more
+ * {@link SparseTree}s, so a name which appears in many places in a tree (or in
+ * several trees over the same items, such as the server and local path trees
+ * of a local workspace's version table) is stored once.
+ * <p>
+ * Elements are interned case-sensitively, so a tree gives back exactly the
+ * elements it was given. The pool is never pruned: it holds each distinct
+ * element ever added to its trees until the trees and the pool are discarded.
+ *
+ * @threadsafety thread-compatible
+ */
+public class SparseTreeSegmentPool {
+    private final Map<String, String> segments = new HashMap<String, String>();
+
+    /**
+     * @param segment
+     *        the segment to intern (must not be <code>null</code>)
+     * @return the pooled string equal to <code>segment</code>
+     */
+    public String intern(final String segment) {
+        Check.notNull(segment, "segment"); //$NON-NLS-1$
+
+        final String pooled = segments.get(segment);
+
+        if (pooled != null) {
+            return pooled;
+        }
+
+        segments.put(segment, segment);
+        return segment;
+    }
+
+    /**
+     * @return the number of distinct segments in the pool
+     */
+    public int size() {
+        return segments.size();
+    }
+}
@@ -0,0 +1,160 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the repository root.
+
+package com.microsoft.tfs.core.clients.versioncontrol.sparsetree;
+
+import java.util.Comparator;
+
+/**
+ * The elements of a canonicalized {@link SparseTree} token, recorded as
+ * offsets into the token instead of as separate strings. Lookups compare the
+ * elements in place, so finding a node allocates nothing; the element strings
+ * are only created when a new node is stored.
+ * <p>
+ * A cursor is reused from one lookup to the next, so it must not be shared
+ * across threads or held across a callback which might use the same cursor.
+ *
+ * @threadsafety thread-compatible
+ */
+final class SparseTreeTokenCursor {
+    private String token;
+    private int count;
+    private int[] starts = new int[16];
+    private int[] ends = new int[16];
+
+    /**
+     * Splits a token whose elements are separated by a character.
+     *
+     * @param token
+     *        the canonicalized token (no trailing separators)
+     * @param separator
+     *        the separator character
+     */
+    void setSeparated(final String token, final char separator) {
+        this.token = token;
+        count = 0;
+
+        // An empty token has one (empty) element, like String.split()
+        int start = 0;
+        for (int i = 0; i < token.length(); i++) {
+            if (token.charAt(i) == separator) {
+                addElement(start, i);
+                start = i + 1;
+            }
+        }
+
+        addElement(start, token.length());
+    }
+
+    /**
+     * Splits a token into elements of a fixed length. Characters after the
+     * last complete element are ignored.
+     *
+     * @param token
+     *        the canonicalized token
+     * @param elementLength
+     *        the length of each element
+     */
+    void setFixedLength(final String token, final int elementLength) {
+        this.token = token;
+        count = 0;
+
+        final int elementCount = token.length() / elementLength;
+        for (int i = 0; i < elementCount; i++) {
+            addElement(i * elementLength, (i + 1) * elementLength);
+        }
+    }
+
+    String getToken() {
+        return token;
+    }
+
+    int getCount() {
+        return count;
+    }
+
+    /**
+     * Compares an element of the token to a string the way
+     * <code>comparison</code> would compare the element's string to it.
+     */
+    int compare(final int index, final String element, final Comparator<String> comparison) {
+        if (index >= count) {
+            throw new ArrayIndexOutOfBoundsException(index);
+        }
+
+        final int start = starts[index];
+        final int end = ends[index];
+
+        if (comparison != String.CASE_INSENSITIVE_ORDER) {
+            return comparison.compare(token.substring(start, end), element);
+        }
+
+        // The same comparison as String.CASE_INSENSITIVE_ORDER
+        final int length = end - start;
+        final int elementLength = element.length();
+        final int min = Math.min(length, elementLength);
+
+        for (int i = 0; i < min; i++) {
+            char c1 = token.charAt(start + i);
+            char c2 = element.charAt(i);
+
+            if (c1 != c2) {
+                c1 = Character.toUpperCase(c1);
+                c2 = Character.toUpperCase(c2);
+
+                if (c1 != c2) {
+                    c1 = Character.toLowerCase(c1);
+                    c2 = Character.toLowerCase(c2);
+
+                    if (c1 != c2) {
+                        return c1 - c2;
+                    }
+                }
+            }
+        }
+
+        return length - elementLength;
+    }
+
+    /**
+     * Creates the strings for the elements of the token.
+     *
+     * @param prefix
+     *        elements to use for the first <code>prefix.length</code> elements
+     *        instead of creating new strings (must not be longer than the
+     *        token)
+     * @param pool
+     *        if not <code>null</code>, the remaining elements are interned in
+     *        this pool
+     * @return the elements of the token
+     */
+    String[] toElements(final String[] prefix, final SparseTreeSegmentPool pool) {
+        final String[] elements = new String[count];
+
+        System.arraycopy(prefix, 0, elements, 0, prefix.length);
+
+        for (int i = prefix.length; i < count; i++) {
+            final String element = token.substring(starts[i], ends[i]);
+            elements[i] = (pool != null) ? pool.intern(element) : element;
+        }
+
+        return elements;
+    }
+
+    private void addElement(final int start, final int end) {
+        if (count == starts.length) {
+            final int[] newStarts = new int[count * 2];
+            final int[] newEnds = new int[count * 2];
+
+            System.arraycopy(starts, 0, newStarts, 0, count);
+            System.arraycopy(ends, 0, newEnds, 0, count);
+
+            starts = newStarts;
+            ends = newEnds;
+        }
+
+        starts[count] = start;
+        ends[count] = end;
+        count++;
+    }
+}
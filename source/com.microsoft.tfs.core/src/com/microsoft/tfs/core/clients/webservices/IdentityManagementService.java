@@ -12,6 +12,7 @@ import com.microsoft.tfs.core.artifact.ArtifactID;
 import com.microsoft.tfs.core.clients.registration.RegistrationClient;
 import com.microsoft.tfs.core.clients.registration.RegistrationEntry;
 import com.microsoft.tfs.core.clients.registration.ToolNames;
+import com.microsoft.tfs.core.clients.webservices.internal.IdentityCache;
 import com.microsoft.tfs.core.clients.webservices.internal.TeamFoundationSupportedFeatures;
 import com.microsoft.tfs.core.internal.wrappers.WrapperUtils;
 import com.microsoft.tfs.util.Check;
@@ -25,6 +26,10 @@ import ms.ws._TeamFoundationIdentity;
  * A client for the TFS 2012 {@link _IdentityManagementWebServiceSoap}.
  * <p>
  * Unlike the VS implementation, it does not support pre-TFS 2010 servers.
+ * <p>
+ * When {@link IdentityCache} is enabled, identities read without membership,
+ * options or properties are cached, and the cache is cleared when this client
+ * changes identities on the server.
  *
  * @threadsafety thread-compatible
  * @since TEE-SDK-11.0
@@ -35,6 +40,7 @@ public class IdentityManagementService implements IIdentityManagementService {
     private final String domainSidWithWellKnownPrefix;
     private final String domainScope;
     private final boolean serverIsV3;
+    private final IdentityCache identityCache;
 
     // Return the Scope Uri for global Groups in the domain
     public static String getIdentityDomainScope(final GUID hostID) {
@@ -75,6 +81,7 @@ public class IdentityManagementService implements IIdentityManagementService {
         domainSid = SIDIdentityHelper.getDomainSID(connection.getInstanceID());
         domainSidWithWellKnownPrefix = domainSid.getValue() + SIDIdentityHelper.WELL_KNOWN_SID_TYPE;
         domainScope = getIdentityDomainScope(connection.getInstanceID());
+        identityCache = IdentityCache.newInstance(connection);
     }
 
     @Override
@@ -88,6 +95,32 @@ public class IdentityManagementService implements IIdentityManagementService {
             IdentityHelper.checkDescriptor(descriptor, "descriptors element"); //$NON-NLS-1$
         }
 
+        if (isCached(queryMembership, readOptions)) {
+            final String[] keys = new String[descriptors.length];
+            for (int i = 0; i < descriptors.length; i++) {
+                keys[i] = IdentityCache.descriptorKey(descriptors[i]);
+            }
+
+            return firstOfEach(identityCache.read(keys, new IdentityCache.Loader() {
+                @Override
+                public TeamFoundationIdentity[][] load(final int[] indices) {
+                    final IdentityDescriptor[] toRead = new IdentityDescriptor[indices.length];
+                    for (int i = 0; i < indices.length; i++) {
+                        toRead[i] = descriptors[indices[i]];
+                    }
+
+                    return eachOf(readIdentitiesByDescriptor(toRead, queryMembership, readOptions));
+                }
+            }));
+        }
+
+        return readIdentitiesByDescriptor(descriptors, queryMembership, readOptions);
+    }
+
+    private TeamFoundationIdentity[] readIdentitiesByDescriptor(
+        final IdentityDescriptor[] descriptors,
+        final MembershipQuery queryMembership,
+        final ReadIdentityOptions readOptions) {
         final TeamFoundationIdentity[] identities = (TeamFoundationIdentity[]) WrapperUtils.wrap(
             TeamFoundationIdentity.class,
             proxy.readIdentitiesByDescriptor(
@@ -121,6 +154,31 @@ public class IdentityManagementService implements IIdentityManagementService {
             Check.notNull(teamFoundationIds[i], "teamFoundationIds[i]"); //$NON-NLS-1$
         }
 
+        if (isCached(queryMembership, ReadIdentityOptions.NONE)) {
+            final String[] keys = new String[teamFoundationIds.length];
+            for (int i = 0; i < teamFoundationIds.length; i++) {
+                keys[i] = IdentityCache.teamFoundationIDKey(teamFoundationIds[i]);
+            }
+
+            return firstOfEach(identityCache.read(keys, new IdentityCache.Loader() {
+                @Override
+                public TeamFoundationIdentity[][] load(final int[] indices) {
+                    final GUID[] toRead = new GUID[indices.length];
+                    for (int i = 0; i < indices.length; i++) {
+                        toRead[i] = teamFoundationIds[indices[i]];
+                    }
+
+                    return eachOf(readIdentitiesByID(toRead, queryMembership));
+                }
+            }));
+        }
+
+        return readIdentitiesByID(teamFoundationIds, queryMembership);
+    }
+
+    private TeamFoundationIdentity[] readIdentitiesByID(
+        final GUID[] teamFoundationIds,
+        final MembershipQuery queryMembership) {
         final String[] ids = new String[teamFoundationIds.length];
         for (int i = 0; i < teamFoundationIds.length; i++) {
             ids[i] = teamFoundationIds[i].getGUIDString();
@@ -151,6 +209,33 @@ public class IdentityManagementService implements IIdentityManagementService {
             Check.notNullOrEmpty(factorValue, "factorValue"); //$NON-NLS-1$
         }
 
+        if (isCached(queryMembership, readOptions) && IdentityCache.isSearchCached(searchFactor)) {
+            final String[] keys = new String[factorValues.length];
+            for (int i = 0; i < factorValues.length; i++) {
+                keys[i] = IdentityCache.searchKey(searchFactor, factorValues[i]);
+            }
+
+            return identityCache.read(keys, new IdentityCache.Loader() {
+                @Override
+                public TeamFoundationIdentity[][] load(final int[] indices) {
+                    final String[] toRead = new String[indices.length];
+                    for (int i = 0; i < indices.length; i++) {
+                        toRead[i] = factorValues[indices[i]];
+                    }
+
+                    return searchIdentities(searchFactor, toRead, queryMembership, readOptions);
+                }
+            });
+        }
+
+        return searchIdentities(searchFactor, factorValues, queryMembership, readOptions);
+    }
+
+    private TeamFoundationIdentity[][] searchIdentities(
+        final IdentitySearchFactor searchFactor,
+        final String[] factorValues,
+        final MembershipQuery queryMembership,
+        final ReadIdentityOptions readOptions) {
         final _TeamFoundationIdentity[][] wso = proxy.readIdentities(
             searchFactor.getValue(),
             factorValues,
@@ -208,7 +293,12 @@ public class IdentityManagementService implements IIdentityManagementService {
         final String projectUri,
         final String groupName,
         final String groupDescription) {
-        return new IdentityDescriptor(proxy.createApplicationGroup(projectUri, groupName, groupDescription));
+        final IdentityDescriptor descriptor =
+            new IdentityDescriptor(proxy.createApplicationGroup(projectUri, groupName, groupDescription));
+
+        // A search may have cached that the group didn't exist
+        clearIdentityCache();
+        return descriptor;
     }
 
     @Override
@@ -242,6 +332,7 @@ public class IdentityManagementService implements IIdentityManagementService {
         IdentityHelper.checkDescriptor(groupDescriptor, "groupDescriptor"); //$NON-NLS-1$
 
         proxy.updateApplicationGroup(groupDescriptor.getWebServiceObject(), property.getValue(), newValue);
+        clearIdentityCache();
     }
 
     @Override
@@ -249,6 +340,7 @@ public class IdentityManagementService implements IIdentityManagementService {
         IdentityHelper.checkDescriptor(groupDescriptor, "groupDescriptor"); //$NON-NLS-1$
 
         proxy.deleteApplicationGroup(groupDescriptor.getWebServiceObject());
+        clearIdentityCache();
     }
 
     @Override
@@ -283,7 +375,9 @@ public class IdentityManagementService implements IIdentityManagementService {
     public boolean refreshIdentity(final IdentityDescriptor descriptor) {
         IdentityHelper.checkDescriptor(descriptor, "descriptor"); //$NON-NLS-1$
 
-        return proxy.refreshIdentity(descriptor.getWebServiceObject());
+        final boolean refreshed = proxy.refreshIdentity(descriptor.getWebServiceObject());
+        clearIdentityCache();
+        return refreshed;
     }
 
     @Override
@@ -312,4 +406,49 @@ public class IdentityManagementService implements IIdentityManagementService {
     public String getIdentityDomainScope() {
         return domainScope;
     }
+
+    /**
+     * @return true if identities read with these arguments are cached (those
+     *         read with membership or options are not)
+     */
+    boolean isCached(final MembershipQuery queryMembership, final ReadIdentityOptions readOptions) {
+        return identityCache != null
+            && queryMembership.getValue() == MembershipQuery.NONE.getValue()
+            && readOptions.toIntFlags() == ReadIdentityOptions.NONE.toIntFlags();
+    }
+
+    /**
+     * Removes all identities from the cache after this client changes
+     * identities on the server.
+     */
+    void clearIdentityCache() {
+        if (identityCache != null) {
+            identityCache.clear();
+        }
+    }
+
+    /**
+     * Converts identities read by descriptor or ID (<code>null</code> if not
+     * found) to the results of a search (empty if not found).
+     */
+    private static TeamFoundationIdentity[][] eachOf(final TeamFoundationIdentity[] identities) {
+        final TeamFoundationIdentity[][] results = new TeamFoundationIdentity[identities.length][];
+        for (int i = 0; i < identities.length; i++) {
+            results[i] = identities[i] != null ? new TeamFoundationIdentity[] {
+                identities[i]
+            } : new TeamFoundationIdentity[0];
+        }
+        return results;
+    }
+
+    /**
+     * The inverse of {@link #eachOf(TeamFoundationIdentity[])}.
+     */
+    private static TeamFoundationIdentity[] firstOfEach(final TeamFoundationIdentity[][] identities) {
+        final TeamFoundationIdentity[] results = new TeamFoundationIdentity[identities.length];
+        for (int i = 0; i < identities.length; i++) {
+            results[i] = identities[i].length > 0 ? identities[i][0] : null;
+        }
+        return results;
+    }
 }
@@ -102,11 +102,13 @@ public class IdentityManagementService2 extends IdentityManagementService implem
         Check.notNullOrEmpty(customDisplayName, "customDisplayName"); //$NON-NLS-1$
 
         proxy2.setCustomDisplayName(customDisplayName);
+        clearIdentityCache();
     }
 
     @Override
     public void clearCustomDisplayName() {
         proxy2.setCustomDisplayName(null);
+        clearIdentityCache();
     }
 
     @Override
@@ -122,6 +124,14 @@ public class IdentityManagementService2 extends IdentityManagementService implem
             IdentityHelper.checkDescriptor(descriptor, "descriptors element"); //$NON-NLS-1$
         }
 
+        if (propertyNameFilters == null
+            && propertyScope.getValue() == IdentityPropertyScope.NONE.getValue()
+            && isCached(queryMembership, readOptions)) {
+            // Without properties, membership or options the base class's
+            // cached read is the same
+            return readIdentities(descriptors, queryMembership, readOptions);
+        }
+
         final TeamFoundationIdentity[] identities = (TeamFoundationIdentity[]) WrapperUtils.wrap(
             TeamFoundationIdentity.class,
             proxy2.readIdentitiesByDescriptor(
@@ -162,6 +172,12 @@ public class IdentityManagementService2 extends IdentityManagementService implem
             idStrings[i] = teamFoundationIds[i].getGUIDString();
         }
 
+        if (propertyNameFilters == null
+            && propertyScope.getValue() == IdentityPropertyScope.NONE.getValue()
+            && isCached(queryMembership, readOptions)) {
+            return readIdentities(teamFoundationIds, queryMembership);
+        }
+
         final TeamFoundationIdentity[] identities = (TeamFoundationIdentity[]) WrapperUtils.wrap(
             TeamFoundationIdentity.class,
             proxy2.readIdentitiesById(
@@ -188,6 +204,11 @@ public class IdentityManagementService2 extends IdentityManagementService implem
             Check.notNullOrEmpty(factorValue, "factorValue"); //$NON-NLS-1$
         }
 
+        if (propertyNameFilters == null && isCached(queryMembership, readOptions)) {
+            // The property scope is not sent for searches
+            return readIdentities(searchFactor, searchFactorValues, queryMembership, readOptions);
+        }
+
         final _TeamFoundationIdentity[][] wso = proxy2.readIdentities(
             searchFactor.getValue(),
             searchFactorValues,
@@ -261,6 +282,7 @@ public class IdentityManagementService2 extends IdentityManagementService implem
                 modifiedLocalProperties);
 
             identity.resetModifiedProperties();
+            clearIdentityCache();
         }
     }
 
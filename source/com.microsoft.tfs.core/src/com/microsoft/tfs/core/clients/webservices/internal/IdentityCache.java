@@ -0,0 +1,673 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the repository root.
+
+package com.microsoft.tfs.core.clients.webservices.internal;
+
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.microsoft.tfs.core.TFSConnection;
+import com.microsoft.tfs.core.clients.webservices.IdentityDescriptor;
+import com.microsoft.tfs.core.clients.webservices.IdentityPropertyScope;
+import com.microsoft.tfs.core.clients.webservices.IdentitySearchFactor;
+import com.microsoft.tfs.core.clients.webservices.TeamFoundationIdentity;
+import com.microsoft.tfs.core.memento.Memento;
+import com.microsoft.tfs.core.memento.XMLMemento;
+import com.microsoft.tfs.core.persistence.LockMode;
+import com.microsoft.tfs.core.persistence.PersistenceStore;
+import com.microsoft.tfs.core.util.internal.MementoRepositorySerializer;
+import com.microsoft.tfs.util.Check;
+import com.microsoft.tfs.util.GUID;
+
+import ms.ws._IdentityDescriptor;
+import ms.ws._KeyValueOfStringString;
+import ms.ws._PropertyValue;
+import ms.ws._TeamFoundationIdentity;
+
+/**
+ * An in-process cache of identities read from a server's identity management
+ * service, so the identities which history, pending changes and work items
+ * refer to over and over are read from the server once.
+ * <p>
+ * Identities are cached under string keys made by {@link #descriptorKey},
+ * {@link #teamFoundationIDKey} and {@link #searchKey} for a time to live, and
+ * the least recently used are evicted when the cache is full. Callers always
+ * get their own copies of cached identities (they are mutable).
+ * <p>
+ * A thread which needs an identity another thread is already reading from the
+ * server waits for that read instead of starting its own, and all the
+ * identities a caller needs which aren't cached are read in one request.
+ * <p>
+ * The cache can be saved to the cache {@link PersistenceStore} so new
+ * processes start with the identities earlier ones read (see
+ * {@link #PERSIST_PROPERTY_NAME}).
+ *
+ * @threadsafety thread-safe
+ */
+public class IdentityCache {
+    private static final Log log = LogFactory.getLog(IdentityCache.class);
+
+    /**
+     * A property which sets how many seconds identities are cached. The
+     * default is {@link #TIME_TO_LIVE_SECONDS_DEFAULT}, which disables the
+     * cache, because cached identities can be out of date.
+     */
+    public static final String TIME_TO_LIVE_PROPERTY_NAME =
+        "com.microsoft.tfs.core.clients.webservices.identitycache.ttl"; //$NON-NLS-1$
+
+    /**
+     * A property which sets the maximum number of keys cached per server. The
+     * default is {@link #MAX_SIZE_DEFAULT}.
+     */
+    public static final String MAX_SIZE_PROPERTY_NAME =
+        "com.microsoft.tfs.core.clients.webservices.identitycache.maxsize"; //$NON-NLS-1$
+
+    /**
+     * A property which, when set to <code>true</code>, saves the cache to the
+     * cache persistence store and loads it when a process first connects to
+     * the server.
+     */
+    public static final String PERSIST_PROPERTY_NAME =
+        "com.microsoft.tfs.core.clients.webservices.identitycache.persist"; //$NON-NLS-1$
+
+    public static final int TIME_TO_LIVE_SECONDS_DEFAULT = 0;
+    public static final int MAX_SIZE_DEFAULT = 4096;
+
+    /**
+     * The cache is saved at most this often.
+     */
+    private static final long SAVE_INTERVAL_MILLISECONDS = 60 * 1000;
+
+    private static final String CHILD_STORE_NAME = "TEE-IdentityCache"; //$NON-NLS-1$
+    private static final String FILE_EXTENSION = ".xml"; //$NON-NLS-1$
+
+    // Memento tokens
+    private static final String CACHE_MEMENTO_NAME = "identityCache"; //$NON-NLS-1$
+    private static final String ENTRY_MEMENTO_NAME = "entry"; //$NON-NLS-1$
+    private static final String IDENTITY_MEMENTO_NAME = "identity"; //$NON-NLS-1$
+    private static final String PROPERTY_MEMENTO_NAME = "property"; //$NON-NLS-1$
+    private static final String LOCAL_PROPERTY_MEMENTO_NAME = "localProperty"; //$NON-NLS-1$
+    private static final String KEY_ATTRIBUTE = "key"; //$NON-NLS-1$
+    private static final String EXPIRES_ATTRIBUTE = "expires"; //$NON-NLS-1$
+    private static final String DISPLAY_NAME_ATTRIBUTE = "displayName"; //$NON-NLS-1$
+    private static final String IS_CONTAINER_ATTRIBUTE = "isContainer"; //$NON-NLS-1$
+    private static final String IS_ACTIVE_ATTRIBUTE = "isActive"; //$NON-NLS-1$
+    private static final String TEAM_FOUNDATION_ID_ATTRIBUTE = "teamFoundationId"; //$NON-NLS-1$
+    private static final String UNIQUE_NAME_ATTRIBUTE = "uniqueName"; //$NON-NLS-1$
+    private static final String UNIQUE_USER_ID_ATTRIBUTE = "uniqueUserId"; //$NON-NLS-1$
+    private static final String IDENTITY_TYPE_ATTRIBUTE = "identityType"; //$NON-NLS-1$
+    private static final String IDENTIFIER_ATTRIBUTE = "identifier"; //$NON-NLS-1$
+    private static final String NAME_ATTRIBUTE = "name"; //$NON-NLS-1$
+    private static final String VALUE_ATTRIBUTE = "value"; //$NON-NLS-1$
+
+    /**
+     * Reads identities which aren't cached from the server.
+     */
+    public interface Loader {
+        /**
+         * @param indices
+         *        the indices of the keys passed to
+         *        {@link IdentityCache#read(String[], Loader)} to read
+         * @return for each index, the identities read for it (empty if none
+         *         were found)
+         */
+        TeamFoundationIdentity[][] load(int[] indices);
+    }
+
+    private final long timeToLiveMilliseconds;
+    private final int maxSize;
+    private final PersistenceStore store;
+    private final String storeItemName;
+
+    /**
+     * Synchronizes {@link #entries}, {@link #pendingReads}, {@link #dirty} and
+     * {@link #lastSaveTime}.
+     */
+    private final Object lock = new Object();
+
+    /**
+     * Cached identities by key, least recently used first.
+     */
+    private final LinkedHashMap<String, CacheEntry> entries = new LinkedHashMap<String, CacheEntry>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(final Entry<String, CacheEntry> eldest) {
+            return size() > maxSize;
+        }
+    };
+
+    /**
+     * Reads in progress by key.
+     */
+    private final Map<String, PendingRead> pendingReads = new HashMap<String, PendingRead>();
+
+    private boolean dirty;
+    private long lastSaveTime;
+
+    /**
+     * Creates a cache. Most callers should use
+     * {@link #newInstance(TFSConnection)}, which creates the cache configured
+     * by the system properties.
+     *
+     * @param timeToLiveMilliseconds
+     *        how long identities are cached (must be positive)
+     * @param maxSize
+     *        the maximum number of keys cached (must be positive)
+     * @param store
+     *        the store to save the cache in, or <code>null</code> to not save
+     *        it
+     * @param storeItemName
+     *        the name of the item to save the cache as in the store (must not
+     *        be <code>null</code> if store is not <code>null</code>)
+     */
+    public IdentityCache(
+        final long timeToLiveMilliseconds,
+        final int maxSize,
+        final PersistenceStore store,
+        final String storeItemName) {
+        Check.isTrue(timeToLiveMilliseconds > 0, "timeToLiveMilliseconds > 0"); //$NON-NLS-1$
+        Check.isTrue(maxSize > 0, "maxSize > 0"); //$NON-NLS-1$
+        Check.isTrue(store == null || storeItemName != null, "store == null || storeItemName != null"); //$NON-NLS-1$
+
+        this.timeToLiveMilliseconds = timeToLiveMilliseconds;
+        this.maxSize = maxSize;
+        this.store = store;
+        this.storeItemName = storeItemName;
+
+        if (store != null) {
+            load();
+        }
+    }
+
+    /**
+     * Creates a cache for a connection configured by
+     * {@link #TIME_TO_LIVE_PROPERTY_NAME}, {@link #MAX_SIZE_PROPERTY_NAME} and
+     * {@link #PERSIST_PROPERTY_NAME}. Connections don't share caches, because
+     * they may read identities with different credentials; the connection's
+     * identity management client holds its cache, so it is dropped when the
+     * connection is closed.
+     *
+     * @param connection
+     *        the connection (must not be <code>null</code>)
+     * @return the cache, or <code>null</code> if the cache is disabled
+     */
+    public static IdentityCache newInstance(final TFSConnection connection) {
+        Check.notNull(connection, "connection"); //$NON-NLS-1$
+
+        final int timeToLiveSeconds = Integer.getInteger(TIME_TO_LIVE_PROPERTY_NAME, TIME_TO_LIVE_SECONDS_DEFAULT);
+        final int maxSize = Integer.getInteger(MAX_SIZE_PROPERTY_NAME, MAX_SIZE_DEFAULT);
+
+        if (timeToLiveSeconds <= 0 || maxSize <= 0) {
+            return null;
+        }
+
+        PersistenceStore store = null;
+        if (Boolean.getBoolean(PERSIST_PROPERTY_NAME)) {
+            store =
+                connection.getPersistenceStoreProvider().getCachePersistenceStore().getChildStore(CHILD_STORE_NAME);
+        }
+
+        return new IdentityCache(
+            timeToLiveSeconds * 1000L,
+            maxSize,
+            store,
+            connection.getInstanceID().getGUIDString() + FILE_EXTENSION);
+    }
+
+    /**
+     * @return the key for the identity with the given descriptor
+     */
+    public static String descriptorKey(final IdentityDescriptor descriptor) {
+        return "D:" //$NON-NLS-1$
+            + descriptor.getIdentityType().toLowerCase(Locale.US)
+            + ";" //$NON-NLS-1$
+            + descriptor.getIdentifier().toLowerCase(Locale.US);
+    }
+
+    /**
+     * @return the key for the identity with the given Team Foundation ID
+     */
+    public static String teamFoundationIDKey(final GUID teamFoundationID) {
+        return "T:" + teamFoundationID.getGUIDString(); //$NON-NLS-1$
+    }
+
+    /**
+     * @return true if searches by the factor are cached (only
+     *         {@link IdentitySearchFactor#ACCOUNT_NAME} and
+     *         {@link IdentitySearchFactor#IDENTIFIER} searches, which name
+     *         specific accounts, are)
+     */
+    public static boolean isSearchCached(final IdentitySearchFactor searchFactor) {
+        return searchFactor == IdentitySearchFactor.ACCOUNT_NAME || searchFactor == IdentitySearchFactor.IDENTIFIER;
+    }
+
+    /**
+     * @return the key for the identities found by a search (the factor must be
+     *         one {@link #isSearchCached(IdentitySearchFactor)} accepts)
+     */
+    public static String searchKey(final IdentitySearchFactor searchFactor, final String factorValue) {
+        Check.isTrue(isSearchCached(searchFactor), "isSearchCached(searchFactor)"); //$NON-NLS-1$
+
+        return (searchFactor == IdentitySearchFactor.ACCOUNT_NAME ? "A:" : "I:") //$NON-NLS-1$ //$NON-NLS-2$
+            + factorValue.toLowerCase(Locale.US);
+    }
+
+    /**
+     * Gets the identities for some keys, reading the ones which aren't cached
+     * with the loader (in one call) or waiting for other threads which are
+     * already reading them.
+     *
+     * @param keys
+     *        the keys to get identities for (must not be <code>null</code>)
+     * @param loader
+     *        reads identities from the server (must not be <code>null</code>)
+     * @return for each key, copies of the identities for it (empty if none)
+     */
+    public TeamFoundationIdentity[][] read(final String[] keys, final Loader loader) {
+        Check.notNull(keys, "keys"); //$NON-NLS-1$
+        Check.notNull(loader, "loader"); //$NON-NLS-1$
+
+        final CachedIdentity[][] cached = new CachedIdentity[keys.length][];
+        final PendingRead[] pending = new PendingRead[keys.length];
+        final Map<String, PendingRead> started = new LinkedHashMap<String, PendingRead>();
+        final List<Integer> loadIndices = new ArrayList<Integer>();
+
+        synchronized (lock) {
+            final long now = System.currentTimeMillis();
+
+            for (int i = 0; i < keys.length; i++) {
+                final CacheEntry entry = entries.get(keys[i]);
+
+                if (entry != null && entry.expires > now) {
+                    cached[i] = entry.identities;
+                } else if (pendingReads.containsKey(keys[i])) {
+                    pending[i] = pendingReads.get(keys[i]);
+                } else {
+                    pending[i] = new PendingRead();
+                    pendingReads.put(keys[i], pending[i]);
+                    started.put(keys[i], pending[i]);
+                    loadIndices.add(i);
+                }
+            }
+        }
+
+        if (loadIndices.size() > 0) {
+            loadAndComplete(keys, loadIndices, started, loader);
+        }
+
+        final TeamFoundationIdentity[][] results = new TeamFoundationIdentity[keys.length][];
+        for (int i = 0; i < keys.length; i++) {
+            final CachedIdentity[] identities = cached[i] != null ? cached[i] : pending[i].get();
+
+            results[i] = new TeamFoundationIdentity[identities.length];
+            for (int j = 0; j < identities.length; j++) {
+                results[i][j] = identities[j].toIdentity();
+            }
+        }
+
+        return results;
+    }
+
+    private void loadAndComplete(
+        final String[] keys,
+        final List<Integer> loadIndices,
+        final Map<String, PendingRead> started,
+        final Loader loader) {
+        final int[] indices = new int[loadIndices.size()];
+        for (int i = 0; i < indices.length; i++) {
+            indices[i] = loadIndices.get(i);
+        }
+
+        final TeamFoundationIdentity[][] loaded;
+
+        try {
+            loaded = loader.load(indices);
+        } catch (final RuntimeException e) {
+            synchronized (lock) {
+                for (final Entry<String, PendingRead> read : started.entrySet()) {
+                    pendingReads.remove(read.getKey());
+                    read.getValue().fail(e);
+                }
+            }
+            throw e;
+        }
+
+        synchronized (lock) {
+            final long expires = System.currentTimeMillis() + timeToLiveMilliseconds;
+
+            for (int i = 0; i < indices.length; i++) {
+                final String key = keys[indices[i]];
+                final CachedIdentity[] identities = new CachedIdentity[loaded[i] != null ? loaded[i].length : 0];
+
+                for (int j = 0; j < identities.length; j++) {
+                    identities[j] = new CachedIdentity(loaded[i][j]);
+
+                    // The identity can be found by its descriptor or ID too
+                    entries.put(identities[j].descriptorKey, new CacheEntry(new CachedIdentity[] {
+                        identities[j]
+                    }, expires));
+                    entries.put(identities[j].teamFoundationIDKey, new CacheEntry(new CachedIdentity[] {
+                        identities[j]
+                    }, expires));
+                }
+
+                entries.put(key, new CacheEntry(identities, expires));
+                pendingReads.remove(key);
+                started.get(key).complete(identities);
+            }
+
+            dirty = true;
+        }
+
+        if (store != null) {
+            saveIfDue();
+        }
+    }
+
+    /**
+     * Removes all identities from the cache, for example after a change on
+     * the server which may affect any of them.
+     */
+    public void clear() {
+        synchronized (lock) {
+            entries.clear();
+            dirty = true;
+        }
+    }
+
+    private void load() {
+        try {
+            if (!store.containsItem(storeItemName)) {
+                return;
+            }
+
+            final Memento memento = (Memento) store.retrieveItem(
+                storeItemName,
+                LockMode.WAIT_FOREVER,
+                null,
+                new MementoRepositorySerializer());
+
+            if (memento == null) {
+                return;
+            }
+
+            final long now = System.currentTimeMillis();
+
+            synchronized (lock) {
+                for (final Memento entryMemento : memento.getChildren(ENTRY_MEMENTO_NAME)) {
+                    final Long expires = entryMemento.getLong(EXPIRES_ATTRIBUTE);
+                    final String key = entryMemento.getString(KEY_ATTRIBUTE);
+
+                    if (key == null || expires == null || expires.longValue() <= now) {
+                        continue;
+                    }
+
+                    final Memento[] identityMementos = entryMemento.getChildren(IDENTITY_MEMENTO_NAME);
+                    final CachedIdentity[] identities = new CachedIdentity[identityMementos.length];
+                    for (int i = 0; i < identities.length; i++) {
+                        identities[i] = new CachedIdentity(identityMementos[i]);
+                    }
+
+                    entries.put(key, new CacheEntry(identities, expires.longValue()));
+                }
+            }
+        } catch (final Exception e) {
+            log.warn("Unable to load identity cache", e); //$NON-NLS-1$
+        }
+    }
+
+    private void saveIfDue() {
+        final XMLMemento memento;
+
+        synchronized (lock) {
+            final long now = System.currentTimeMillis();
+            if (!dirty || now - lastSaveTime < SAVE_INTERVAL_MILLISECONDS) {
+                return;
+            }
+
+            memento = new XMLMemento(CACHE_MEMENTO_NAME);
+            for (final Entry<String, CacheEntry> entry : entries.entrySet()) {
+                if (entry.getValue().expires > now && entry.getValue().isPersistable()) {
+                    final Memento entryMemento = memento.createChild(ENTRY_MEMENTO_NAME);
+                    entryMemento.putString(KEY_ATTRIBUTE, entry.getKey());
+                    entryMemento.putLong(EXPIRES_ATTRIBUTE, entry.getValue().expires);
+
+                    for (final CachedIdentity identity : entry.getValue().identities) {
+                        identity.save(entryMemento.createChild(IDENTITY_MEMENTO_NAME));
+                    }
+                }
+            }
+
+            dirty = false;
+            lastSaveTime = now;
+        }
+
+        try {
+            store.storeItem(storeItemName, memento, LockMode.WAIT_FOREVER, null, new MementoRepositorySerializer());
+        } catch (final Exception e) {
+            log.warn("Unable to save identity cache", e); //$NON-NLS-1$
+        }
+    }
+
+    private static class CacheEntry {
+        public final CachedIdentity[] identities;
+        public final long expires;
+
+        public CacheEntry(final CachedIdentity[] identities, final long expires) {
+            this.identities = identities;
+            this.expires = expires;
+        }
+
+        public boolean isPersistable() {
+            for (final CachedIdentity identity : identities) {
+                if (!identity.isPersistable()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * A read from the server other threads can wait for.
+     */
+    private static class PendingRead {
+        private boolean done;
+        private CachedIdentity[] identities;
+        private RuntimeException failure;
+
+        public synchronized void complete(final CachedIdentity[] identities) {
+            this.identities = identities;
+            done = true;
+            notifyAll();
+        }
+
+        public synchronized void fail(final RuntimeException failure) {
+            this.failure = failure;
+            done = true;
+            notifyAll();
+        }
+
+        public synchronized CachedIdentity[] get() {
+            boolean interrupted = false;
+
+            while (!done) {
+                try {
+                    wait();
+                } catch (final InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+
+            if (failure != null) {
+                throw failure;
+            }
+
+            return identities;
+        }
+    }
+
+    /**
+     * An immutable copy of an identity, without membership.
+     */
+    private static class CachedIdentity {
+        private final String displayName;
+        private final boolean isContainer;
+        private final boolean isActive;
+        private final String teamFoundationId;
+        private final String uniqueName;
+        private final int uniqueUserId;
+        private final String identityType;
+        private final String identifier;
+        private final Map<String, Object> properties = new HashMap<String, Object>();
+        private final Map<String, Object> localProperties = new HashMap<String, Object>();
+
+        public final String descriptorKey;
+        public final String teamFoundationIDKey;
+
+        public CachedIdentity(final TeamFoundationIdentity identity) {
+            final _TeamFoundationIdentity wso = identity.getWebServiceObject();
+
+            displayName = wso.getDisplayName();
+            isContainer = wso.isIsContainer();
+            isActive = wso.isIsActive();
+            teamFoundationId = wso.getTeamFoundationId();
+            uniqueName = wso.getUniqueName();
+            uniqueUserId = wso.getUniqueUserId();
+            identityType = wso.getDescriptor().getIdentityType();
+            identifier = wso.getDescriptor().getIdentifier();
+
+            for (final Entry<String, Object> property : identity.getProperties(IdentityPropertyScope.GLOBAL)) {
+                properties.put(property.getKey(), property.getValue());
+            }
+            for (final Entry<String, Object> property : identity.getProperties(IdentityPropertyScope.LOCAL)) {
+                localProperties.put(property.getKey(), property.getValue());
+            }
+
+            descriptorKey = descriptorKey(new IdentityDescriptor(identityType, identifier));
+            teamFoundationIDKey = teamFoundationIDKey(new GUID(teamFoundationId));
+        }
+
+        public CachedIdentity(final Memento memento) {
+            displayName = memento.getString(DISPLAY_NAME_ATTRIBUTE);
+            isContainer = memento.getBoolean(IS_CONTAINER_ATTRIBUTE).booleanValue();
+            isActive = memento.getBoolean(IS_ACTIVE_ATTRIBUTE).booleanValue();
+            teamFoundationId = memento.getString(TEAM_FOUNDATION_ID_ATTRIBUTE);
+            uniqueName = memento.getString(UNIQUE_NAME_ATTRIBUTE);
+            uniqueUserId = memento.getInteger(UNIQUE_USER_ID_ATTRIBUTE).intValue();
+            identityType = memento.getString(IDENTITY_TYPE_ATTRIBUTE);
+            identifier = memento.getString(IDENTIFIER_ATTRIBUTE);
+
+            for (final Memento property : memento.getChildren(PROPERTY_MEMENTO_NAME)) {
+                properties.put(property.getString(NAME_ATTRIBUTE), property.getString(VALUE_ATTRIBUTE));
+            }
+            for (final Memento property : memento.getChildren(LOCAL_PROPERTY_MEMENTO_NAME)) {
+                localProperties.put(property.getString(NAME_ATTRIBUTE), property.getString(VALUE_ATTRIBUTE));
+            }
+
+            descriptorKey = descriptorKey(new IdentityDescriptor(identityType, identifier));
+            teamFoundationIDKey = teamFoundationIDKey(new GUID(teamFoundationId));
+        }
+
+        /**
+         * @return a new identity with this identity's values
+         */
+        public TeamFoundationIdentity toIdentity() {
+            return new TeamFoundationIdentity(
+                new _TeamFoundationIdentity(
+                    displayName,
+                    isContainer,
+                    isActive,
+                    teamFoundationId,
+                    uniqueName,
+                    uniqueUserId,
+                    new _IdentityDescriptor(identityType, identifier),
+                    new _KeyValueOfStringString[0],
+                    toPropertyValues(properties),
+                    toPropertyValues(localProperties),
+                    new _IdentityDescriptor[0],
+                    new _IdentityDescriptor[0]));
+        }
+
+        /**
+         * @return true if all the property values are strings (others are not
+         *         saved)
+         */
+        public boolean isPersistable() {
+            for (final Object value : properties.values()) {
+                if (value != null && !(value instanceof String)) {
+                    return false;
+                }
+            }
+            for (final Object value : localProperties.values()) {
+                if (value != null && !(value instanceof String)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        public void save(final Memento memento) {
+            if (displayName != null) {
+                memento.putString(DISPLAY_NAME_ATTRIBUTE, displayName);
+            }
+            memento.putBoolean(IS_CONTAINER_ATTRIBUTE, isContainer);
+            memento.putBoolean(IS_ACTIVE_ATTRIBUTE, isActive);
+            memento.putString(TEAM_FOUNDATION_ID_ATTRIBUTE, teamFoundationId);
+            if (uniqueName != null) {
+                memento.putString(UNIQUE_NAME_ATTRIBUTE, uniqueName);
+            }
+            memento.putInteger(UNIQUE_USER_ID_ATTRIBUTE, uniqueUserId);
+            memento.putString(IDENTITY_TYPE_ATTRIBUTE, identityType);
+            memento.putString(IDENTIFIER_ATTRIBUTE, identifier);
+
+            saveProperties(memento, PROPERTY_MEMENTO_NAME, properties);
+            saveProperties(memento, LOCAL_PROPERTY_MEMENTO_NAME, localProperties);
+        }
+
+        private static void saveProperties(
+            final Memento memento,
+            final String childName,
+            final Map<String, Object> properties) {
+            for (final Entry<String, Object> property : properties.entrySet()) {
+                final Memento child = memento.createChild(childName);
+                child.putString(NAME_ATTRIBUTE, property.getKey());
+                if (property.getValue() != null) {
+                    child.putString(VALUE_ATTRIBUTE, (String) property.getValue());
+                }
+            }
+        }
+
+        private static _PropertyValue[] toPropertyValues(final Map<String, Object> properties) {
+            final _PropertyValue[] values = new _PropertyValue[properties.size()];
+
+            int i = 0;
+            for (final Entry<String, Object> property : properties.entrySet()) {
+                values[i++] = new _PropertyValue(property.getKey(), property.getValue());
+            }
+
+            return values;
+        }
+    }
+
+    @Override
+    public String toString() {
+        synchronized (lock) {
+            return MessageFormat.format("IdentityCache [{0} keys]", Integer.toString(entries.size())); //$NON-NLS-1$
+        }
+    }
+}
@@ -9,6 +9,8 @@ import java.text.MessageFormat;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Set;
 
 import javax.xml.stream.XMLStreamException;
@@ -36,6 +38,7 @@ import com.microsoft.tfs.core.clients.workitem.internal.metadata.dao.WorkItemTyp
 import com.microsoft.tfs.core.clients.workitem.internal.metadata.impl.ConstantHandlerImpl;
 import com.microsoft.tfs.core.clients.workitem.internal.rowset.DBRowSetHandler;
 import com.microsoft.tfs.core.clients.workitem.internal.rowset.RowSetParser;
+import com.microsoft.tfs.core.clients.workitem.internal.rowset.RowSetSpool;
 import com.microsoft.tfs.core.exceptions.TECoreException;
 import com.microsoft.tfs.core.internal.db.ConnectionPool;
 import com.microsoft.tfs.core.internal.db.DBConnection;
@@ -113,6 +116,14 @@ public class Metadata implements IMetadata, IMetadataUpdateHandler {
 
     private Set<Integer> distinctConstantSetIds;
 
+    /**
+     * The in-memory copy of the most used tables, built on first use and
+     * replaced after each update which changes them. Guarded by
+     * {@link #snapshotLock} for writes.
+     */
+    private volatile MetadataSnapshot snapshot;
+    private final Object snapshotLock = new Object();
+
     private final boolean alwaysSendUpdateNotifications =
         Boolean.getBoolean("com.microsoft.tfs.core.workitem.metadata.alwaysnotifyonupdate"); //$NON-NLS-1$
 
@@ -333,6 +344,21 @@ public class Metadata implements IMetadata, IMetadataUpdateHandler {
      */
     @Override
     public long updateMetadata(final AnyContentType metadata, final String newDbStamp) {
+        return updateMetadata(metadata, newDbStamp, null);
+    }
+
+    /**
+     * Like {@link #updateMetadata(AnyContentType, String)}, and also records
+     * how long each table took to update.
+     *
+     * @param tableUpdateTimes
+     *        receives the milliseconds each table took to update, by table
+     *        name, in the order they were updated (may be <code>null</code>)
+     */
+    private long updateMetadata(
+        final AnyContentType metadata,
+        final String newDbStamp,
+        final Map<String, Long> tableUpdateTimes) {
         final long startTime = System.currentTimeMillis();
         final boolean[] fullUpdateHolder = new boolean[1];
         fullUpdateHolder[0] = false;
@@ -341,38 +367,9 @@ public class Metadata implements IMetadata, IMetadataUpdateHandler {
         connectionPool.executeWithPooledConnection(new DBTask() {
             @Override
             public void performTask(final DBConnection connection) {
-                if (newDbStamp != null) {
-                    /*
-                     * A DBStamp was returned along with metadata updates. We
-                     * need to check it and see which of three states we're in:
-                     *
-                     * 1) If the current dbstamp is null, this is the first
-                     * metadata update. Set the dbstamp to the passed value and
-                     * proceed with the update.
-                     *
-                     * 2) If the current dbstamp is not null and doesn't match
-                     * the passed dbstamp, then our cache has been invalidated.
-                     * Ignore the metadata update and do a complete refresh.
-                     *
-                     * 3) If the current dbstamp is not null and matches the
-                     * passed dbstamp, proceed with the update.
-                     */
-
-                    final String oldDbStamp = getDBStamp(connection);
-
-                    if (oldDbStamp == null || oldDbStamp.length() == 0) {
-                        setDBStamp(connection, newDbStamp);
-                    } else if (!oldDbStamp.equals(newDbStamp)) {
-                        log.info(MessageFormat.format(
-                            "current dbstamp [{0}] does not match [{1}] - invalidating cache", //$NON-NLS-1$
-                            oldDbStamp,
-                            newDbStamp));
-                        dropMetadataTables(connection);
-                        createMaxCountTable(connection);
-                        setDBStamp(connection, ""); //$NON-NLS-1$
-                        fullUpdateHolder[0] = true;
-                        return;
-                    }
+                if (!checkDBStamp(connection, newDbStamp)) {
+                    fullUpdateHolder[0] = true;
+                    return;
                 }
 
                 /*
@@ -380,17 +377,14 @@ public class Metadata implements IMetadata, IMetadataUpdateHandler {
                  */
 
                 final Iterator i = metadata.getElementIterator();
-                final RowSetParser parser = new RowSetParser();
 
                 while (i.hasNext()) {
-                    final DBRowSetHandler handler = new DBRowSetHandler(connection, verbose);
-
-                    if (metadata instanceof DOMAnyContentType) {
-                        parser.parse((Element) i.next(), handler);
+                    if (metadata instanceof DOMAnyContentType || metadata instanceof SpooledMetadataContent) {
+                        updateTable(connection, i.next(), tableNames, tableUpdateTimes);
                     } else if (metadata instanceof StaxAnyContentType) {
                         final XMLStreamReader reader = (XMLStreamReader) i.next();
                         try {
-                            parser.parse(reader, handler);
+                            updateTable(connection, reader, tableNames, tableUpdateTimes);
                         } finally {
                             try {
                                 reader.close();
@@ -404,10 +398,6 @@ public class Metadata implements IMetadata, IMetadataUpdateHandler {
                                 "Can''t update metadata from unknown AnyContentType implementation {0}", //$NON-NLS-1$
                                 metadata.getClass().getName()));
                     }
-
-                    if (alwaysSendUpdateNotifications || handler.getInsertCount() > 0 || handler.getDeleteCount() > 0) {
-                        tableNames.add(handler.getTableName());
-                    }
                 }
 
                 if (i instanceof Closable) {
@@ -416,7 +406,108 @@ public class Metadata implements IMetadata, IMetadataUpdateHandler {
             }
         });
 
-        if (fullUpdateHolder[0]) {
+        metadataUpdated(fullUpdateHolder[0], tableNames);
+
+        return System.currentTimeMillis() - startTime;
+    }
+
+    /**
+     * Checks the DBStamp returned with metadata updates before they are used.
+     *
+     * @return true if the metadata updates can be used, false if the cache has
+     *         been invalidated and a full update must be done instead
+     */
+    private boolean checkDBStamp(final DBConnection connection, final String newDbStamp) {
+        if (newDbStamp != null) {
+            /*
+             * A DBStamp was returned along with metadata updates. We need to
+             * check it and see which of three states we're in:
+             *
+             * 1) If the current dbstamp is null, this is the first metadata
+             * update. Set the dbstamp to the passed value and proceed with the
+             * update.
+             *
+             * 2) If the current dbstamp is not null and doesn't match the
+             * passed dbstamp, then our cache has been invalidated. Ignore the
+             * metadata update and do a complete refresh.
+             *
+             * 3) If the current dbstamp is not null and matches the passed
+             * dbstamp, proceed with the update.
+             */
+
+            final String oldDbStamp = getDBStamp(connection);
+
+            if (oldDbStamp == null || oldDbStamp.length() == 0) {
+                setDBStamp(connection, newDbStamp);
+            } else if (!oldDbStamp.equals(newDbStamp)) {
+                log.info(MessageFormat.format(
+                    "current dbstamp [{0}] does not match [{1}] - invalidating cache", //$NON-NLS-1$
+                    oldDbStamp,
+                    newDbStamp));
+                dropMetadataTables(connection);
+                createMaxCountTable(connection);
+                setDBStamp(connection, ""); //$NON-NLS-1$
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Updates one metadata table from its row set.
+     *
+     * @param rowSet
+     *        the row set: an {@link Element}, a {@link RowSetSpool}, or an
+     *        {@link XMLStreamReader} positioned at the row set's element or the
+     *        start of a document containing it
+     * @param tableNames
+     *        receives the name of the table if it changed
+     * @param tableUpdateTimes
+     *        receives the milliseconds the table took to update (may be
+     *        <code>null</code>)
+     */
+    private void updateTable(
+        final DBConnection connection,
+        final Object rowSet,
+        final Set<String> tableNames,
+        final Map<String, Long> tableUpdateTimes) {
+        final DBRowSetHandler handler = new DBRowSetHandler(connection, verbose);
+        boolean parsed = false;
+
+        try {
+            if (rowSet instanceof Element) {
+                new RowSetParser().parse((Element) rowSet, handler);
+            } else if (rowSet instanceof RowSetSpool) {
+                ((RowSetSpool) rowSet).replay(handler);
+            } else {
+                new RowSetParser().parse((XMLStreamReader) rowSet, handler);
+            }
+
+            parsed = true;
+        } finally {
+            if (!parsed) {
+                // Leave the table as it was
+                handler.abort();
+            }
+        }
+
+        if (alwaysSendUpdateNotifications || handler.getInsertCount() > 0 || handler.getDeleteCount() > 0) {
+            tableNames.add(handler.getTableName());
+        }
+
+        if (tableUpdateTimes != null && handler.getTableName() != null) {
+            tableUpdateTimes.put(handler.getTableName(), handler.getElapsedTime());
+        }
+    }
+
+    /**
+     * Finishes a metadata update: does a full update if the cache was
+     * invalidated, otherwise resets internal caches and notifies listeners of
+     * the tables which changed.
+     */
+    private void metadataUpdated(final boolean fullUpdate, final Set<String> tableNames) {
+        if (fullUpdate) {
             update();
         } else {
             if (tableNames.size() > 0) {
@@ -429,6 +520,13 @@ public class Metadata implements IMetadata, IMetadataUpdateHandler {
                     }
                 }
 
+                for (final String tableName : MetadataSnapshot.TABLE_NAMES) {
+                    if (tableNames.contains(tableName)) {
+                        reloadSnapshot();
+                        break;
+                    }
+                }
+
                 final Set<String> unmodifiableTableNameSet = Collections.unmodifiableSet(tableNames);
 
                 /*
@@ -442,8 +540,6 @@ public class Metadata implements IMetadata, IMetadataUpdateHandler {
                 }
             }
         }
-
-        return System.currentTimeMillis() - startTime;
     }
 
     /*
@@ -469,52 +565,73 @@ public class Metadata implements IMetadata, IMetadataUpdateHandler {
     public MetadataUpdateResults update(final boolean wantResults) {
         final _MetadataTableHaveEntry[] aomthe = getHaveEntries();
 
-        long proxyTime;
+        if (!wantResults) {
+            streamingUpdate(aomthe);
+            return null;
+        }
+
         final long stTime = System.currentTimeMillis();
 
-        AnyContentType metadata;
-        String dbStamp;
+        final AnyContentType metadata = new StaxAnyContentType();
+        final String dbStamp = getMetadata(aomthe, metadata);
+
+        final long proxyTime = System.currentTimeMillis() - stTime;
+
+        final Map<String, Long> tableUpdateTimes = new LinkedHashMap<String, Long>();
+        final long updateDbTime = updateMetadata(metadata, dbStamp, tableUpdateTimes);
+
+        /*
+         * The caller must dispose of the results (which disposes the inner
+         * metadata).
+         */
+        return new MetadataUpdateResults(proxyTime, updateDbTime, tableUpdateTimes, metadata, dbStamp);
+    }
 
+    /**
+     * Gets metadata updates from the server and updates the tables from them.
+     * Each row set is parsed once, as it is read from the response, into a
+     * compact spool; no XML is kept and no database connection is held while
+     * the response is read. The DBStamp comes after the row sets in the
+     * response, so it is checked once the response has been read, before any
+     * table is written.
+     */
+    private void streamingUpdate(final _MetadataTableHaveEntry[] haveEntries) {
+        final SpooledMetadataContent metadata = new SpooledMetadataContent();
+
+        try {
+            final String dbStamp = getMetadata(haveEntries, metadata);
+            updateMetadata(metadata, dbStamp, null);
+        } finally {
+            metadata.dispose();
+        }
+    }
+
+    /**
+     * Calls the GetMetadataEx2 method the server supports.
+     *
+     * @param metadata
+     *        receives the metadata row sets
+     * @return the DBStamp the server returned
+     */
+    private String getMetadata(final _MetadataTableHaveEntry[] haveEntries, final AnyContentType metadata) {
         if (serverVersion.getValue() >= 5) {
             final _ClientService5Soap_GetMetadataEx2Response response =
-                clientService5.getMetadataEx2(aomthe, true, new StaxAnyContentType());
+                clientService5.getMetadataEx2(haveEntries, true, metadata);
 
-            metadata = response.getMetadata();
-            dbStamp = response.getDbStamp();
             userDisplayMode = response.getMode();
+            return response.getDbStamp();
         } else if (serverVersion.getValue() >= 3) {
             final _ClientService3Soap_GetMetadataEx2Response response =
-                clientService3.getMetadataEx2(aomthe, true, new StaxAnyContentType());
+                clientService3.getMetadataEx2(haveEntries, true, metadata);
 
-            metadata = response.getMetadata();
-            dbStamp = response.getDbStamp();
             userDisplayMode = response.getMode();
+            return response.getDbStamp();
         } else {
             final _ClientService2Soap_GetMetadataEx2Response response =
-                clientService2.getMetadataEx2(aomthe, true, new StaxAnyContentType());
+                clientService2.getMetadataEx2(haveEntries, true, metadata);
 
-            metadata = response.getMetadata();
-            dbStamp = response.getDbStamp();
             userDisplayMode = response.getMode();
-        }
-
-        proxyTime = System.currentTimeMillis() - stTime;
-
-        final long updateDbTime = updateMetadata(metadata, dbStamp);
-
-        if (wantResults) {
-            /*
-             * The caller must dispose of the results (which disposes the inner
-             * metadata).
-             */
-            return new MetadataUpdateResults(proxyTime, updateDbTime, metadata, dbStamp);
-        } else {
-            /*
-             * Dispose of the inner metadata.
-             */
-            metadata.dispose();
-
-            return null;
+            return response.getDbStamp();
         }
     }
 
@@ -611,6 +728,54 @@ public class Metadata implements IMetadata, IMetadataUpdateHandler {
         this.verbose = verbose;
     }
 
+    /**
+     * @return the in-memory copy of the most used metadata tables (never
+     *         <code>null</code>)
+     */
+    public MetadataSnapshot getSnapshot() {
+        MetadataSnapshot result = snapshot;
+        if (result == null) {
+            synchronized (snapshotLock) {
+                result = snapshot;
+                if (result == null) {
+                    result = loadSnapshot();
+                    snapshot = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Builds a new snapshot from the database and replaces the current one
+     * with it.
+     */
+    private void reloadSnapshot() {
+        synchronized (snapshotLock) {
+            snapshot = loadSnapshot();
+        }
+    }
+
+    private MetadataSnapshot loadSnapshot() {
+        final long startTime = System.currentTimeMillis();
+        final MetadataSnapshot[] holder = new MetadataSnapshot[1];
+
+        connectionPool.executeWithPooledConnection(new DBTask() {
+            @Override
+            public void performTask(final DBConnection connection) {
+                holder[0] = MetadataSnapshot.load(connection);
+            }
+        });
+
+        if (log.isDebugEnabled()) {
+            log.debug(MessageFormat.format(
+                "loaded metadata snapshot in {0} ms", //$NON-NLS-1$
+                Long.toString(System.currentTimeMillis() - startTime)));
+        }
+
+        return holder[0];
+    }
+
     public synchronized Set<Integer> getDistinctConstantSetIDs() {
         if (distinctConstantSetIds == null) {
             distinctConstantSetIds = new HashSet<Integer>();
@@ -0,0 +1,276 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the repository root.
+
+package com.microsoft.tfs.core.clients.workitem.internal.metadata;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import com.microsoft.tfs.core.clients.workitem.internal.metadata.dao.ConstantMetadata;
+import com.microsoft.tfs.core.clients.workitem.internal.metadata.dao.FieldDefinitionMetadata;
+import com.microsoft.tfs.core.internal.db.DBConnection;
+import com.microsoft.tfs.core.internal.db.ResultHandler;
+import com.microsoft.tfs.util.Check;
+
+/**
+ * An in-memory copy of the metadata tables which are read the most (Constants,
+ * the Hierarchy parent links and Fields), indexed so the hot lookups (constants
+ * by ID or case-insensitive string, parent area IDs, fields by ID or reference
+ * name) are hash lookups instead of SQL queries.
+ * <p>
+ * The database remains the persistent store. {@link Metadata} builds a new
+ * snapshot from it after each update which changes one of these tables and
+ * replaces the old snapshot with it in one step, so readers always see the
+ * tables as they were after some complete update.
+ *
+ * @threadsafety immutable
+ */
+public final class MetadataSnapshot {
+    /**
+     * The tables a snapshot is built from.
+     */
+    public static final String[] TABLE_NAMES = new String[] {
+        MetadataTableNames.CONSTANTS,
+        MetadataTableNames.HIERARCHY,
+        MetadataTableNames.FIELDS
+    };
+
+    private final IntObjectMap<ConstantMetadata> constantsByID;
+
+    /**
+     * Constants by lower case string. Strings which more than one constant
+     * has are in {@link #ambiguousConstantStrings} instead.
+     */
+    private final Map<String, ConstantMetadata> constantsByString;
+    private final Set<String> ambiguousConstantStrings;
+
+    private final IntObjectMap<Integer> parentIDs;
+
+    private final FieldDefinitionMetadata[] fields;
+    private final IntObjectMap<FieldDefinitionMetadata> fieldsByID;
+    private final Map<String, FieldDefinitionMetadata> fieldsByReferenceName;
+
+    public MetadataSnapshot(
+        final ConstantMetadata[] constants,
+        final int[] areaIDs,
+        final int[] parentIDs,
+        final FieldDefinitionMetadata[] fields) {
+        Check.notNull(constants, "constants"); //$NON-NLS-1$
+        Check.notNull(areaIDs, "areaIDs"); //$NON-NLS-1$
+        Check.notNull(parentIDs, "parentIDs"); //$NON-NLS-1$
+        Check.isTrue(areaIDs.length == parentIDs.length, "areaIDs.length == parentIDs.length"); //$NON-NLS-1$
+        Check.notNull(fields, "fields"); //$NON-NLS-1$
+
+        constantsByID = new IntObjectMap<ConstantMetadata>(constants.length);
+        constantsByString = new HashMap<String, ConstantMetadata>(constants.length * 4 / 3 + 1);
+        ambiguousConstantStrings = new HashSet<String>();
+
+        for (final ConstantMetadata constant : constants) {
+            constantsByID.put(constant.getConstID(), constant);
+
+            if (constant.getString() != null) {
+                final String key = toLowerCase(constant.getString());
+                if (constantsByString.put(key, constant) != null) {
+                    ambiguousConstantStrings.add(key);
+                }
+            }
+        }
+        for (final String key : ambiguousConstantStrings) {
+            constantsByString.remove(key);
+        }
+
+        this.parentIDs = new IntObjectMap<Integer>(areaIDs.length);
+        for (int i = 0; i < areaIDs.length; i++) {
+            this.parentIDs.put(areaIDs[i], Integer.valueOf(parentIDs[i]));
+        }
+
+        this.fields = fields.clone();
+        fieldsByID = new IntObjectMap<FieldDefinitionMetadata>(fields.length);
+        fieldsByReferenceName = new HashMap<String, FieldDefinitionMetadata>(fields.length * 4 / 3 + 1);
+        for (final FieldDefinitionMetadata field : fields) {
+            fieldsByID.put(field.getID(), field);
+            if (field.getReferenceName() != null) {
+                fieldsByReferenceName.put(toLowerCase(field.getReferenceName()), field);
+            }
+        }
+    }
+
+    /**
+     * Reads a snapshot from the metadata tables. Tables which do not exist yet
+     * (before the first update) are read as empty.
+     */
+    public static MetadataSnapshot load(final DBConnection connection) {
+        final List<ConstantMetadata> constants = new ArrayList<ConstantMetadata>();
+        if (connection.getDBSpecificOperations().tableExists(MetadataTableNames.CONSTANTS)) {
+            connection.createStatement(ConstantMetadata.SELECT_STRING).executeQuery(new ResultHandler() {
+                @Override
+                public void handleRow(final ResultSet rset) throws SQLException {
+                    constants.add(ConstantMetadata.fromRow(rset));
+                }
+            });
+        }
+
+        final List<int[]> links = new ArrayList<int[]>();
+        if (connection.getDBSpecificOperations().tableExists(MetadataTableNames.HIERARCHY)) {
+            connection.createStatement("select AreaID, ParentID from Hierarchy").executeQuery(new ResultHandler() { //$NON-NLS-1$
+                @Override
+                public void handleRow(final ResultSet rset) throws SQLException {
+                    links.add(new int[] {
+                        rset.getInt(1),
+                        rset.getInt(2)
+                    });
+                }
+            });
+        }
+
+        final List<FieldDefinitionMetadata> fields = new ArrayList<FieldDefinitionMetadata>();
+        if (connection.getDBSpecificOperations().tableExists(MetadataTableNames.FIELDS)) {
+            connection.createStatement(FieldDefinitionMetadata.getSelectStatement(connection)).executeQuery(
+                new ResultHandler() {
+                    @Override
+                    public void handleRow(final ResultSet rset) throws SQLException {
+                        fields.add(FieldDefinitionMetadata.fromRow(rset));
+                    }
+                });
+        }
+
+        final int[] areaIDs = new int[links.size()];
+        final int[] parentIDs = new int[links.size()];
+        for (int i = 0; i < areaIDs.length; i++) {
+            areaIDs[i] = links.get(i)[0];
+            parentIDs[i] = links.get(i)[1];
+        }
+
+        return new MetadataSnapshot(
+            constants.toArray(new ConstantMetadata[constants.size()]),
+            areaIDs,
+            parentIDs,
+            fields.toArray(new FieldDefinitionMetadata[fields.size()]));
+    }
+
+    /**
+     * @return the constant with the given ID, or <code>null</code> if there is
+     *         none
+     */
+    public ConstantMetadata getConstant(final int id) {
+        return constantsByID.get(id);
+    }
+
+    /**
+     * Finds a constant by its string, ignoring case.
+     *
+     * @return the constant, or <code>null</code> if there is none
+     * @throws IllegalStateException
+     *         if more than one constant has the string
+     */
+    public ConstantMetadata getConstant(final String string) {
+        if (string == null) {
+            return null;
+        }
+
+        final String key = toLowerCase(string);
+        if (ambiguousConstantStrings.contains(key)) {
+            throw new IllegalStateException(
+                MessageFormat.format("constant [{0}] returned more than one result", string)); //$NON-NLS-1$
+        }
+
+        return constantsByString.get(key);
+    }
+
+    /**
+     * @return the parent of the given area node, or <code>null</code> if
+     *         there is no such node
+     */
+    public Integer getParentID(final int areaID) {
+        return parentIDs.get(areaID);
+    }
+
+    public FieldDefinitionMetadata[] getAllFieldDefinitions() {
+        return fields.clone();
+    }
+
+    /**
+     * @return the field with the given ID, or <code>null</code> if there is
+     *         none
+     */
+    public FieldDefinitionMetadata getFieldDefinition(final int id) {
+        return fieldsByID.get(id);
+    }
+
+    /**
+     * @return the field with the given reference name (ignoring case), or
+     *         <code>null</code> if there is none
+     */
+    public FieldDefinitionMetadata getFieldDefinition(final String referenceName) {
+        if (referenceName == null) {
+            return null;
+        }
+        return fieldsByReferenceName.get(toLowerCase(referenceName));
+    }
+
+    private static String toLowerCase(final String s) {
+        return s.toLowerCase(Locale.ENGLISH);
+    }
+
+    /**
+     * A map with primitive int keys (open addressing with linear probing), so
+     * the ID indexes don't box every key.
+     */
+    private static final class IntObjectMap<V> {
+        private final int[] keys;
+        private final Object[] values;
+        private final int mask;
+
+        public IntObjectMap(final int expectedSize) {
+            int capacity = 4;
+            while (capacity < expectedSize * 2) {
+                capacity <<= 1;
+            }
+
+            keys = new int[capacity];
+            values = new Object[capacity];
+            mask = capacity - 1;
+        }
+
+        /**
+         * Adds a mapping (the map does not grow, so at most the expected size
+         * of distinct keys may be added).
+         */
+        public void put(final int key, final V value) {
+            Check.notNull(value, "value"); //$NON-NLS-1$
+
+            int i = hash(key);
+            while (values[i] != null && keys[i] != key) {
+                i = (i + 1) & mask;
+            }
+
+            keys[i] = key;
+            values[i] = value;
+        }
+
+        @SuppressWarnings("unchecked")
+        public V get(final int key) {
+            int i = hash(key);
+            while (values[i] != null) {
+                if (keys[i] == key) {
+                    return (V) values[i];
+                }
+                i = (i + 1) & mask;
+            }
+            return null;
+        }
+
+        private int hash(final int key) {
+            final int h = key * 0x9E3779B9;
+            return (h ^ (h >>> 16)) & mask;
+        }
+    }
+}
@@ -3,25 +3,33 @@
 
 package com.microsoft.tfs.core.clients.workitem.internal.metadata;
 
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 import com.microsoft.tfs.core.ws.runtime.types.AnyContentType;
 import com.microsoft.tfs.util.Check;
 
 public class MetadataUpdateResults {
     private final long proxyTime;
     private final long dbUpdateTime;
+    private final Map<String, Long> tableUpdateTimes;
     private final AnyContentType metadataResponse;
     private final String dbStamp;
 
     public MetadataUpdateResults(
         final long proxyTime,
         final long dbUpdateTime,
+        final Map<String, Long> tableUpdateTimes,
         final AnyContentType metadataResponse,
         final String dbStamp) {
+        Check.notNull(tableUpdateTimes, "tableUpdateTimes"); //$NON-NLS-1$
         Check.notNull(metadataResponse, "metadataResponse"); //$NON-NLS-1$
         Check.notNull(dbStamp, "dbStamp"); //$NON-NLS-1$
 
         this.proxyTime = proxyTime;
         this.dbUpdateTime = dbUpdateTime;
+        this.tableUpdateTimes = Collections.unmodifiableMap(new LinkedHashMap<String, Long>(tableUpdateTimes));
         this.metadataResponse = metadataResponse;
         this.dbStamp = dbStamp;
     }
@@ -34,6 +42,15 @@ public class MetadataUpdateResults {
         return dbUpdateTime;
     }
 
+    /**
+     * @return the milliseconds each table took to update, by table name, in
+     *         the order they were updated (included in
+     *         {@link #getDBUpdateTime()})
+     */
+    public Map<String, Long> getTableUpdateTimes() {
+        return tableUpdateTimes;
+    }
+
     public AnyContentType getMetadataResponse() {
         return metadataResponse;
     }
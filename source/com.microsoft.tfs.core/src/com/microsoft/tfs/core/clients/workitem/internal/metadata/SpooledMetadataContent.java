@@ -0,0 +1,75 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the repository root.
+
+package com.microsoft.tfs.core.clients.workitem.internal.metadata;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+
+import com.microsoft.tfs.core.clients.workitem.internal.rowset.RowSetParser;
+import com.microsoft.tfs.core.clients.workitem.internal.rowset.RowSetSpool;
+import com.microsoft.tfs.core.ws.runtime.types.AnyContentType;
+
+/**
+ * Metadata content which parses each row set once, as it is read from the SOAP
+ * response, into a {@link RowSetSpool}. The tables are updated from the spools
+ * after the whole response (including the DBStamp that follows the row sets)
+ * has been read, so no database connection is needed while reading.
+ * <p>
+ * The {@link Iterator} returned by {@link #getElementIterator()} provides
+ * {@link RowSetSpool}s. {@link #dispose()} must always be called to free any
+ * temporary files.
+ */
+class SpooledMetadataContent implements AnyContentType {
+    private final List<RowSetSpool> spools = new ArrayList<RowSetSpool>();
+
+    @Override
+    public void readFromElement(final XMLStreamReader reader) throws XMLStreamException {
+        /*
+         * The reader is positioned at the element that contains the row sets.
+         * Spool each child element; the parser reads the child's end element.
+         */
+        int event = reader.next();
+
+        while (event != XMLStreamConstants.END_ELEMENT) {
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                final RowSetSpool spool = new RowSetSpool();
+                spools.add(spool);
+
+                new RowSetParser().parse(reader, spool);
+            }
+
+            event = reader.next();
+        }
+    }
+
+    @Override
+    public Iterator getElementIterator() {
+        return spools.iterator();
+    }
+
+    @Override
+    public void dispose() {
+        for (final RowSetSpool spool : spools) {
+            spool.dispose();
+        }
+
+        spools.clear();
+    }
+
+    @Override
+    public void writeAsElement(final XMLStreamWriter writer, final String name) throws XMLStreamException {
+        /*
+         * Like StaxAnyContentType, write only the row set elements.
+         */
+        for (final RowSetSpool spool : spools) {
+            spool.writeAsElement(writer);
+        }
+    }
+}
@@ -5,4 +5,16 @@ package com.microsoft.tfs.core.clients.workitem.internal.metadata.dao;
 
 public interface FieldsTable {
     public FieldDefinitionMetadata[] getAllFieldDefinitions();
+
+    /**
+     * @return the field with the given ID, or <code>null</code> if there is
+     *         none
+     */
+    public FieldDefinitionMetadata getFieldDefinition(int id);
+
+    /**
+     * @return the field with the given reference name (ignoring case), or
+     *         <code>null</code> if there is none
+     */
+    public FieldDefinitionMetadata getFieldDefinition(String referenceName);
 }
\ No newline at end of file
@@ -20,52 +20,30 @@ import com.microsoft.tfs.core.internal.db.ResultHandler;
 public class ConstantsTableImpl extends BaseMetadataDAO implements ConstantsTable {
     @Override
     public ConstantMetadata getConstantByString(final String string) {
-        final ConstantMetadata[] constantMetadata = new ConstantMetadata[1];
-
-        getConnection().createStatement(
-            ConstantMetadata.SELECT_STRING + " where lower(String) = lower(?)").executeQuery( //$NON-NLS-1$
-                new Object[] {
-                    string
-        }, new ResultHandler() {
-            @Override
-            public void handleRow(final ResultSet rset) throws SQLException {
-                if (constantMetadata[0] != null) {
-                    throw new IllegalStateException(
-                        MessageFormat.format("constant [{0}] returned more than one result", string)); //$NON-NLS-1$
-                }
-
-                constantMetadata[0] = ConstantMetadata.fromRow(rset);
-            }
-        });
-
         /*
-         * return null if we didn't get any rows
+         * return null if there is no such constant
          */
-        return constantMetadata[0];
+        return getMetadata().getSnapshot().getConstant(string);
     }
 
     @Override
     public String getConstantByID(final int id) {
-        final Object[] results = getConnection().createStatement(
-            "select String, DisplayName from Constants where ConstID = ?").executeMultiColumnQuery(new Integer(id)); //$NON-NLS-1$
+        final ConstantMetadata constant = getMetadata().getSnapshot().getConstant(id);
 
-        if (results == null) {
+        if (constant == null) {
             throw new LookupFailedException(
                 MessageFormat.format(
                     Messages.getString("ConstantsTableImpl.NoConstantExistsWithConstIDFormat"), //$NON-NLS-1$
                     Integer.toString(id)));
         }
 
-        return (String) (results[1] != null ? results[1] : results[0]);
+        return constant.getDisplayName() != null ? constant.getDisplayName() : constant.getString();
     }
 
     @Override
     public Integer getIDByConstant(final String constant) {
-        return getConnection().createStatement(
-            "select ConstID from Constants where lower(String) = lower(?)").executeIntQuery( //$NON-NLS-1$
-                new Object[] {
-                    constant
-        });
+        final ConstantMetadata constantMetadata = getMetadata().getSnapshot().getConstant(constant);
+        return constantMetadata != null ? Integer.valueOf(constantMetadata.getConstID()) : null;
     }
 
     @Override
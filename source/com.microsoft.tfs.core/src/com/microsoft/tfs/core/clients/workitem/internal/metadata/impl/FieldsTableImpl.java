@@ -3,28 +3,22 @@
 
 package com.microsoft.tfs.core.clients.workitem.internal.metadata.impl;
 
-import java.sql.ResultSet;
-import java.sql.SQLException;
-import java.util.ArrayList;
-import java.util.List;
-
 import com.microsoft.tfs.core.clients.workitem.internal.metadata.dao.FieldDefinitionMetadata;
 import com.microsoft.tfs.core.clients.workitem.internal.metadata.dao.FieldsTable;
-import com.microsoft.tfs.core.internal.db.ResultHandler;
 
 public class FieldsTableImpl extends BaseMetadataDAO implements FieldsTable {
     @Override
     public FieldDefinitionMetadata[] getAllFieldDefinitions() {
-        final List<FieldDefinitionMetadata> fieldDefinitions = new ArrayList<FieldDefinitionMetadata>();
-        final String selectString = FieldDefinitionMetadata.getSelectStatement(getConnection());
+        return getMetadata().getSnapshot().getAllFieldDefinitions();
+    }
 
-        getConnection().createStatement(selectString).executeQuery(new ResultHandler() {
-            @Override
-            public void handleRow(final ResultSet rset) throws SQLException {
-                fieldDefinitions.add(FieldDefinitionMetadata.fromRow(rset));
-            }
-        });
+    @Override
+    public FieldDefinitionMetadata getFieldDefinition(final int id) {
+        return getMetadata().getSnapshot().getFieldDefinition(id);
+    }
 
-        return fieldDefinitions.toArray(new FieldDefinitionMetadata[fieldDefinitions.size()]);
+    @Override
+    public FieldDefinitionMetadata getFieldDefinition(final String referenceName) {
+        return getMetadata().getSnapshot().getFieldDefinition(referenceName);
     }
 }
@@ -5,8 +5,10 @@ package com.microsoft.tfs.core.clients.workitem.internal.metadata.impl;
 
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.text.MessageFormat;
 
 import com.microsoft.tfs.core.clients.workitem.internal.metadata.dao.HierarchyTable;
+import com.microsoft.tfs.core.clients.workitem.internal.metadata.dao.LookupFailedException;
 import com.microsoft.tfs.core.clients.workitem.internal.metadata.dao.NodeMetadata;
 import com.microsoft.tfs.core.clients.workitem.internal.metadata.dao.NodeResultHandler;
 import com.microsoft.tfs.core.internal.db.ResultHandler;
@@ -48,10 +50,14 @@ public class HierarchyTableImpl extends BaseMetadataDAO implements HierarchyTabl
 
     @Override
     public int getParentID(final int childId) {
-        return getConnection().createStatement("select ParentID from Hierarchy where AreaID = ?").executeIntQuery( //$NON-NLS-1$
-            new Object[] {
-                new Integer(childId)
-        }).intValue();
+        final Integer parentId = getMetadata().getSnapshot().getParentID(childId);
+
+        if (parentId == null) {
+            throw new LookupFailedException(
+                MessageFormat.format("no hierarchy node exists with AreaID [{0}]", Integer.toString(childId))); //$NON-NLS-1$
+        }
+
+        return parentId.intValue();
     }
 
     @Override
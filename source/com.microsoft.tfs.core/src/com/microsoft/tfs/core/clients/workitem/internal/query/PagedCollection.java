@@ -4,28 +4,145 @@
 package com.microsoft.tfs.core.clients.workitem.internal.query;
 
 import java.text.MessageFormat;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
+import com.microsoft.tfs.util.tasks.TaskMonitor;
+import com.microsoft.tfs.util.tasks.TaskMonitorService;
+
+/**
+ * Holds a fixed number of items which are paged in through a
+ * {@link PageCallback} one page at a time, the first time an item in the page
+ * is requested.
+ * <p>
+ * When read-ahead is enabled and a caller requests the pages in order, the
+ * collection also requests the next few pages on background threads, so the
+ * round trips for them overlap with the caller's work and each other. A page
+ * is only ever requested once at a time: callers which need a page which is
+ * already being paged in (by read-ahead or another caller) wait for it. While
+ * reading ahead, pages before the current one are dropped (and paged in again
+ * if needed) once more than the maximum number of pages are held.
+ *
+ * @threadsafety thread-safe
+ */
 public class PagedCollection {
+    /**
+     * A property which sets how many pages are read ahead once sequential
+     * access is detected (0 disables read-ahead).
+     */
+    private static final String READ_AHEAD_PAGES_PROPERTY_NAME =
+        "com.microsoft.tfs.core.workitem.query.readaheadpages"; //$NON-NLS-1$
+
+    /**
+     * A property which sets the most pages held while reading ahead (0 for
+     * no limit).
+     */
+    private static final String MAX_RESIDENT_PAGES_PROPERTY_NAME =
+        "com.microsoft.tfs.core.workitem.query.maxresidentpages"; //$NON-NLS-1$
+
+    /**
+     * A property which sets the most threads used to read pages ahead for all
+     * collections together.
+     */
+    private static final String READ_AHEAD_THREADS_PROPERTY_NAME =
+        "com.microsoft.tfs.core.workitem.query.readaheadthreads"; //$NON-NLS-1$
+
+    public static final int DEFAULT_READ_AHEAD_PAGES =
+        Math.max(0, Integer.getInteger(READ_AHEAD_PAGES_PROPERTY_NAME, 3).intValue());
+
+    public static final int DEFAULT_MAX_RESIDENT_PAGES =
+        Math.max(0, Integer.getInteger(MAX_RESIDENT_PAGES_PROPERTY_NAME, 100).intValue());
+
+    private static final int READ_AHEAD_THREADS =
+        Math.max(1, Integer.getInteger(READ_AHEAD_THREADS_PROPERTY_NAME, 4).intValue());
+
+    private static final ThreadPoolExecutor readAheadExecutor;
+
+    static {
+        readAheadExecutor = new ThreadPoolExecutor(
+            READ_AHEAD_THREADS,
+            READ_AHEAD_THREADS,
+            30,
+            TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(),
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(final Runnable r) {
+                    final Thread thread = new Thread(r, "PagedCollection read-ahead"); //$NON-NLS-1$
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        readAheadExecutor.allowCoreThreadTimeOut(true);
+    }
+
     private final Object[] objects;
     private int pageSize;
     private final PageCallback callback;
     private boolean pagedAny = false;
 
+    private final int readAheadPages;
+    private final int maxResidentPages;
+
+    /**
+     * Pages being paged in, by page number. Guarded by this.
+     */
+    private final Map<Integer, Future<Object[]>> pendingPages = new HashMap<Integer, Future<Object[]>>();
+
+    /**
+     * The page numbers of the pages held in {@link #objects}. Guarded by this.
+     */
+    private final TreeSet<Integer> residentPages = new TreeSet<Integer>();
+
+    /**
+     * The page number of the last page a caller read from, used to detect
+     * sequential access. Guarded by this.
+     */
+    private int currentPage = -1;
+    private boolean sequential = false;
+
     public PagedCollection(final int totalSize, final int pageSize, final PageCallback callback) {
+        this(totalSize, pageSize, callback, 0, 0);
+    }
+
+    /**
+     * @param readAheadPages
+     *        how many pages to request ahead of a caller which reads the pages
+     *        in order (0 disables read-ahead)
+     * @param maxResidentPages
+     *        the most pages to hold while reading ahead (0 for no limit)
+     */
+    public PagedCollection(
+        final int totalSize,
+        final int pageSize,
+        final PageCallback callback,
+        final int readAheadPages,
+        final int maxResidentPages) {
         objects = new Object[totalSize];
         this.pageSize = pageSize;
         this.callback = callback;
+        this.readAheadPages = readAheadPages;
+        this.maxResidentPages = maxResidentPages;
     }
 
     public int getSize() {
         return objects.length;
     }
 
-    public int getPageSize() {
+    public synchronized int getPageSize() {
         return pageSize;
     }
 
-    public void setPageSize(final int pageSize) {
+    public synchronized void setPageSize(final int pageSize) {
         if (pagedAny) {
             throw new IllegalStateException("cannot change page size once paging begins"); //$NON-NLS-1$
         }
@@ -41,50 +158,196 @@ public class PagedCollection {
                 Integer.toString(getSize())));
         }
 
-        /*
-         * is the requested index already paged in?
-         */
-        if (objects[index] == null) {
-            pagedAny = true;
+        final Future<Object[]> page;
+        final int pageStart;
+        FutureTask<Object[]> pageTask = null;
 
+        synchronized (this) {
             /*
              * which page does the requested index fall in?
              */
             final int pageNumber = index / pageSize;
 
-            /*
-             * what is the starting index for that page?
-             */
-            final int pageStart = pageNumber * pageSize;
+            if (readAheadPages > 0 && pageNumber != currentPage) {
+                /*
+                 * moving on to the next page means the caller is reading in
+                 * order, so keep the next pages coming
+                 */
+                sequential = currentPage >= 0 && pageNumber == currentPage + 1;
+                currentPage = pageNumber;
 
-            /*
-             * how long is that page? (normally pageSize, but the last page may
-             * be shorter)
-             */
-            int pageLength = pageSize;
-            if (pageStart + pageLength > getSize()) {
-                pageLength = getSize() - pageStart;
+                if (sequential) {
+                    for (int i = 1; i <= readAheadPages; i++) {
+                        readAhead(pageNumber + i);
+                    }
+                    evictConsumedPages();
+                }
             }
 
             /*
-             * call back to get the items
+             * is the requested index already paged in?
              */
-            final Object[] newItems = callback.pageInItems(pageStart, pageLength);
-
-            if (newItems == null || newItems.length != pageLength) {
-                throw new IllegalStateException("page callback returned bad itemset"); //$NON-NLS-1$
+            if (objects[index] != null) {
+                return objects[index];
             }
 
             /*
-             * copy the newly paged in item references into our array
+             * is someone already paging it in? if not, page it in on this
+             * thread
              */
-            System.arraycopy(newItems, 0, objects, pageStart, pageLength);
+            Future<Object[]> pending = pendingPages.get(pageNumber);
+            if (pending == null) {
+                pageTask = newPageTask(pageNumber);
+                pending = pageTask;
+            }
+            page = pending;
+            pageStart = pageNumber * pageSize;
+        }
+
+        if (pageTask != null) {
+            pageTask.run();
         }
 
-        return objects[index];
+        return waitForPage(page)[index - pageStart];
     }
 
-    public boolean hasPagedAny() {
+    public synchronized boolean hasPagedAny() {
         return pagedAny;
     }
+
+    /**
+     * Starts paging in a page on a background thread, if it exists and isn't
+     * already paged in or being paged in. Must be called holding the lock.
+     */
+    private void readAhead(final int pageNumber) {
+        if (pageNumber * pageSize >= getSize()
+            || residentPages.contains(pageNumber)
+            || pendingPages.containsKey(pageNumber)) {
+            return;
+        }
+
+        final FutureTask<Object[]> pageTask = newPageTask(pageNumber);
+        final TaskMonitor taskMonitor = TaskMonitorService.getTaskMonitor();
+        readAheadExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                TaskMonitorService.pushTaskMonitor(taskMonitor);
+                try {
+                    pageTask.run();
+                } finally {
+                    TaskMonitorService.popTaskMonitor(false);
+                }
+            }
+        });
+    }
+
+    /**
+     * Creates a task which pages in a page and stores its items, and records
+     * it as pending. Must be called holding the lock.
+     */
+    private FutureTask<Object[]> newPageTask(final int pageNumber) {
+        pagedAny = true;
+
+        /*
+         * what is the starting index for that page?
+         */
+        final int pageStart = pageNumber * pageSize;
+
+        /*
+         * how long is that page? (normally pageSize, but the last page may be
+         * shorter)
+         */
+        final int pageLength = Math.min(pageSize, getSize() - pageStart);
+
+        final FutureTask<Object[]> pageTask = new FutureTask<Object[]>(new Callable<Object[]>() {
+            @Override
+            public Object[] call() throws Exception {
+                try {
+                    /*
+                     * call back to get the items
+                     */
+                    final Object[] newItems = callback.pageInItems(pageStart, pageLength);
+
+                    if (newItems == null || newItems.length != pageLength) {
+                        throw new IllegalStateException("page callback returned bad itemset"); //$NON-NLS-1$
+                    }
+
+                    synchronized (PagedCollection.this) {
+                        /*
+                         * copy the newly paged in item references into our
+                         * array
+                         */
+                        System.arraycopy(newItems, 0, objects, pageStart, pageLength);
+                        residentPages.add(pageNumber);
+                        evictConsumedPages();
+                    }
+
+                    return newItems;
+                } finally {
+                    synchronized (PagedCollection.this) {
+                        pendingPages.remove(pageNumber);
+                    }
+                }
+            }
+        });
+
+        pendingPages.put(pageNumber, pageTask);
+        return pageTask;
+    }
+
+    /**
+     * Drops the pages before the page the caller is reading while there are
+     * too many pages held. Only done while reading ahead, so callers which
+     * jump around keep everything they've paged in. Must be called holding the
+     * lock.
+     */
+    private void evictConsumedPages() {
+        if (!sequential || maxResidentPages <= 0) {
+            return;
+        }
+
+        while (residentPages.size() > maxResidentPages && residentPages.first().intValue() < currentPage) {
+            final int pageNumber = residentPages.pollFirst().intValue();
+            final int pageStart = pageNumber * pageSize;
+            final int pageEnd = Math.min(pageStart + pageSize, getSize());
+
+            for (int i = pageStart; i < pageEnd; i++) {
+                objects[i] = null;
+            }
+        }
+    }
+
+    /**
+     * Waits for a page to be paged in, rethrowing anything the callback threw
+     * on this thread.
+     *
+     * @return the page's items
+     */
+    private static Object[] waitForPage(final Future<Object[]> page) {
+        boolean interrupted = false;
+
+        try {
+            while (true) {
+                try {
+                    return page.get();
+                } catch (final InterruptedException e) {
+                    interrupted = true;
+                } catch (final ExecutionException e) {
+                    final Throwable cause = e.getCause();
+
+                    if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    } else if (cause instanceof Error) {
+                        throw (Error) cause;
+                    }
+
+                    throw new RuntimeException(cause);
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
 }
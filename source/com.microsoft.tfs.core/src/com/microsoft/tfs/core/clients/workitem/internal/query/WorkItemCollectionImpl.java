@@ -77,7 +77,8 @@ public class WorkItemCollectionImpl implements WorkItemCollection, PageCallback
 
     /*
      * Column names / ids passed to the paging web services. These are computed
-     * when needed and then cached.
+     * when needed and then cached. Guarded by this, since pages can be paged
+     * in on read-ahead threads.
      */
     private String[] shortTextColumnNames;
     private int[] longTextColumnIds;
@@ -96,8 +97,7 @@ public class WorkItemCollectionImpl implements WorkItemCollection, PageCallback
         this.witContext = witContext;
         revs = null;
 
-        pagedCollection =
-            new PagedCollection((ids != null ? ids.length : 0), WorkItemQueryConstants.DEFAULT_PAGE_SIZE, this);
+        pagedCollection = newPagedCollection(ids != null ? ids.length : 0);
     }
 
     public WorkItemCollectionImpl(final int[] ids, final int[] revs, final Query query, final WITContext witContext) {
@@ -106,7 +106,16 @@ public class WorkItemCollectionImpl implements WorkItemCollection, PageCallback
         this.witContext = witContext;
         this.query = query;
 
-        pagedCollection = new PagedCollection(ids.length, WorkItemQueryConstants.DEFAULT_PAGE_SIZE, this);
+        pagedCollection = newPagedCollection(ids.length);
+    }
+
+    private PagedCollection newPagedCollection(final int size) {
+        return new PagedCollection(
+            size,
+            WorkItemQueryConstants.DEFAULT_PAGE_SIZE,
+            this,
+            PagedCollection.DEFAULT_READ_AHEAD_PAGES,
+            PagedCollection.DEFAULT_MAX_RESIDENT_PAGES);
     }
 
     /***************************************************************************
@@ -175,8 +184,10 @@ public class WorkItemCollectionImpl implements WorkItemCollection, PageCallback
 
     @Override
     public Object[] pageInItems(final int startingIx, final int length) {
-        if (shortTextColumnNames == null) {
-            computeColumns();
+        synchronized (this) {
+            if (shortTextColumnNames == null) {
+                computeColumns();
+            }
         }
 
         if (!query.isBatchReadMode() || revs == null) {
@@ -340,11 +351,17 @@ public class WorkItemCollectionImpl implements WorkItemCollection, PageCallback
             items = response.getItems();
         }
 
-        witContext.getMetadataUpdateHandler().updateMetadata(metadata, null);
+        /*
+         * Only the round trips run in parallel when pages are read ahead; the
+         * responses are applied one at a time.
+         */
+        synchronized (this) {
+            witContext.getMetadataUpdateHandler().updateMetadata(metadata, null);
 
-        metadata.dispose();
+            metadata.dispose();
 
-        return handlePageResponse(((DOMAnyContentType) items).getElements(), idsToPage, pageStart);
+            return handlePageResponse(((DOMAnyContentType) items).getElements(), idsToPage, pageStart);
+        }
     }
 
     private WorkItem[] pageWorkitemsByIDRevs(final int pageStart, final int pageLength) {
@@ -390,7 +407,9 @@ public class WorkItemCollectionImpl implements WorkItemCollection, PageCallback
             items = response.getItems();
         }
 
-        return handlePageResponse(((DOMAnyContentType) items).getElements(), pagedIds, pageStart);
+        synchronized (this) {
+            return handlePageResponse(((DOMAnyContentType) items).getElements(), pagedIds, pageStart);
+        }
     }
 
     /***************************************************************************
@@ -5,7 +5,9 @@ package com.microsoft.tfs.core.clients.workitem.internal.rowset;
 
 import java.text.MessageFormat;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import com.microsoft.tfs.core.clients.workitem.internal.metadata.Metadata;
 import com.microsoft.tfs.core.clients.workitem.internal.metadata.TableIndexInfo;
@@ -18,8 +20,23 @@ import com.microsoft.tfs.core.internal.db.DBStatement;
 /**
  * A table handler that does the creating and updating of the main metadata
  * tables.
+ * <p>
+ * Rows are written in batches: the existing rows a batch replaces are deleted
+ * with one JDBC batch, then the batch's rows are inserted with another. (A
+ * single "delete ... where key in (...)" is much slower in HSQLDB, which
+ * doesn't use the primary key index for it.)
+ * Each table is updated in one transaction, so a failed update leaves the
+ * table and its high water mark as they were. If the update fails,
+ * {@link #abort()} must be called.
  */
 public class DBRowSetHandler implements RowSetParseHandler {
+    /**
+     * A property which sets the number of rows written to the database
+     * together. The default is {@link DBStatement#DEFAULT_BATCH_SIZE}.
+     */
+    public static final String BATCH_SIZE_PROPERTY_NAME =
+        "com.microsoft.tfs.core.workitem.metadata.batchsize"; //$NON-NLS-1$
+
     private final DBConnection connection;
     private final SQLMapper sqlMapper;
     private String tableName;
@@ -33,8 +50,23 @@ public class DBRowSetHandler implements RowSetParseHandler {
     private int fDeletedIndex;
     private int cacheStampIndex;
 
+    private final int batchSize;
     private DBStatement deleteStatement;
     private DBStatement insertStatement;
+    private boolean inTransaction;
+
+    /**
+     * The primary keys of the rows in the batch (in order, and as a set to
+     * find keys repeated in one batch, which must be deleted and inserted in
+     * order).
+     */
+    private final List<Object> batchKeys = new ArrayList<Object>();
+    private final Set<Object> batchKeySet = new HashSet<Object>();
+
+    /**
+     * The parameters of the rows to insert in the batch.
+     */
+    private final List<Object[]> batchInserts = new ArrayList<Object[]>();
 
     private boolean existingTable;
 
@@ -43,6 +75,7 @@ public class DBRowSetHandler implements RowSetParseHandler {
     private int skipCount;
     private long startTime;
     private long maxCacheStamp;
+    private long elapsedTime;
 
     private final boolean verbose;
 
@@ -50,6 +83,9 @@ public class DBRowSetHandler implements RowSetParseHandler {
         this.connection = connection;
         this.verbose = verbose;
         sqlMapper = SQLMapperFactory.getSQLMapper(connection);
+
+        final int size = Integer.getInteger(BATCH_SIZE_PROPERTY_NAME, DBStatement.DEFAULT_BATCH_SIZE);
+        batchSize = size > 0 ? size : DBStatement.DEFAULT_BATCH_SIZE;
     }
 
     public String getTableName() {
@@ -156,18 +192,30 @@ public class DBRowSetHandler implements RowSetParseHandler {
         }
         sb.append(")"); //$NON-NLS-1$
 
-        deleteStatement = connection.createStatement("delete from " + tableName + " where " + pkColName + " = ?"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
-        insertStatement = connection.createStatement(sb.toString());
+        connection.beginTransaction();
+        inTransaction = true;
 
-        deleteStatement.beginBatch();
-        insertStatement.beginBatch();
+        if (existingTable) {
+            deleteStatement = connection.createStatement("delete from " + tableName + " where " + pkColName + " = ?"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+            deleteStatement.beginBatch(batchSize);
+        }
+
+        insertStatement = connection.createStatement(sb.toString());
+        insertStatement.beginBatch(batchSize);
     }
 
     @Override
     public void handleRow(final String[] rowValues) {
         if (existingTable) {
-            final Object o = sqlMapper.getSQLObject(pkType, rowValues[pkIndex]);
-            deleteCount += deleteStatement.executeUpdate(o);
+            final Object key = sqlMapper.getSQLObject(pkType, rowValues[pkIndex]);
+
+            if (batchKeySet.contains(key)) {
+                // The later row replaces the earlier one
+                writeBatch();
+            }
+
+            batchKeys.add(key);
+            batchKeySet.add(key);
         }
 
         /*
@@ -196,6 +244,9 @@ public class DBRowSetHandler implements RowSetParseHandler {
                  * don't insert rows with deleted flag set
                  */
                 ++skipCount;
+                if (batchKeys.size() >= batchSize) {
+                    writeBatch();
+                }
                 return;
             }
         }
@@ -204,16 +255,49 @@ public class DBRowSetHandler implements RowSetParseHandler {
         for (int i = 0; i < rowValues.length; i++) {
             params[i] = sqlMapper.getSQLObject(columnTypes.get(i), rowValues[i]);
         }
-        insertCount += insertStatement.executeUpdate(params);
+        batchInserts.add(params);
+
+        if (batchInserts.size() >= batchSize || batchKeys.size() >= batchSize) {
+            writeBatch();
+        }
+    }
+
+    /**
+     * Deletes the rows the batch replaces and inserts its rows.
+     */
+    private void writeBatch() {
+        if (batchKeys.size() > 0) {
+            for (final Object key : batchKeys) {
+                deleteStatement.addBatch(key);
+            }
+            deleteStatement.executeBatch();
+            deleteCount = deleteStatement.getBatchUpdateCount();
+
+            batchKeys.clear();
+            batchKeySet.clear();
+        }
+
+        for (final Object[] params : batchInserts) {
+            insertStatement.addBatch(params);
+        }
+        insertStatement.executeBatch();
+        insertCount = insertStatement.getBatchUpdateCount();
+
+        batchInserts.clear();
     }
 
     @Override
     public void handleEndParsing() {
+        if (insertStatement != null) {
+            writeBatch();
+        }
         if (deleteStatement != null) {
             deleteStatement.finishBatch();
+            deleteStatement = null;
         }
         if (insertStatement != null) {
             insertStatement.finishBatch();
+            insertStatement = null;
         }
 
         // Update high water mark table
@@ -236,8 +320,14 @@ public class DBRowSetHandler implements RowSetParseHandler {
             connection.createStatement(sql).executeUpdate();
         }
 
+        if (inTransaction) {
+            connection.commitTransaction();
+            inTransaction = false;
+        }
+
+        elapsedTime = System.currentTimeMillis() - startTime;
+
         if (verbose) {
-            final long elapsedTime = System.currentTimeMillis() - startTime;
             System.out.println(
                 MessageFormat.format(
                     "table [{0}] deleted {1} inserted {2} skipped {3} cachestamp {4} elapsed {5}", //$NON-NLS-1$
@@ -250,6 +340,35 @@ public class DBRowSetHandler implements RowSetParseHandler {
         }
     }
 
+    /**
+     * Discards the changes made to the table if the update failed before
+     * {@link #handleEndParsing()} finished.
+     */
+    public void abort() {
+        batchKeys.clear();
+        batchKeySet.clear();
+        batchInserts.clear();
+
+        try {
+            if (deleteStatement != null) {
+                deleteStatement.finishBatch();
+            }
+            if (insertStatement != null) {
+                insertStatement.finishBatch();
+            }
+        } catch (final RuntimeException e) {
+            // The changes are discarded below
+        } finally {
+            deleteStatement = null;
+            insertStatement = null;
+        }
+
+        if (inTransaction) {
+            connection.rollbackTransaction();
+            inTransaction = false;
+        }
+    }
+
     public int getDeleteCount() {
         return deleteCount;
     }
@@ -261,4 +380,11 @@ public class DBRowSetHandler implements RowSetParseHandler {
     public int getSkipCount() {
         return skipCount;
     }
+
+    /**
+     * @return the milliseconds the table took to update
+     */
+    public long getElapsedTime() {
+        return elapsedTime;
+    }
 }
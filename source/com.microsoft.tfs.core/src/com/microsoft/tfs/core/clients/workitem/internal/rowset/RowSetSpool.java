@@ -0,0 +1,328 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the repository root.
+
+package com.microsoft.tfs.core.clients.workitem.internal.rowset;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.text.MessageFormat;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import com.microsoft.tfs.util.temp.FastTempOutputStream;
+
+/**
+ * A handler which records the parsed row set so it can be replayed to another
+ * handler later, after the XML it was parsed from is gone.
+ * <p>
+ * The row set is kept in a compact binary form, in memory or (when it is large)
+ * in a temporary file, so replaying it costs much less than parsing the XML
+ * again. {@link #dispose()} must always be called to free any temporary file.
+ */
+public class RowSetSpool implements RowSetParseHandler {
+    private static final int BEGIN_PARSING = 1;
+    private static final int TABLE_NAME = 2;
+    private static final int COLUMN = 3;
+    private static final int FINISHED_COLUMNS = 4;
+    private static final int ROW = 5;
+    private static final int END_PARSING = 6;
+
+    private static final String ENCODING = "UTF-8"; //$NON-NLS-1$
+
+    private final FastTempOutputStream spool = new FastTempOutputStream();
+    private final DataOutputStream output = new DataOutputStream(new BufferedOutputStream(spool));
+
+    private String tableName;
+    private boolean finished;
+
+    /**
+     * @return the name of the spooled table, or <code>null</code> if none has
+     *         been parsed yet
+     */
+    public String getTableName() {
+        return tableName;
+    }
+
+    @Override
+    public void handleBeginParsing() {
+        try {
+            output.writeByte(BEGIN_PARSING);
+        } catch (final IOException e) {
+            throw spoolException(e);
+        }
+    }
+
+    @Override
+    public void handleTableName(final String tableName) {
+        this.tableName = tableName;
+
+        try {
+            output.writeByte(TABLE_NAME);
+            writeString(tableName);
+        } catch (final IOException e) {
+            throw spoolException(e);
+        }
+    }
+
+    @Override
+    public void handleColumn(final String name, final String type) {
+        try {
+            output.writeByte(COLUMN);
+            writeString(name);
+            writeString(type);
+        } catch (final IOException e) {
+            throw spoolException(e);
+        }
+    }
+
+    @Override
+    public void handleFinishedColumns() {
+        try {
+            output.writeByte(FINISHED_COLUMNS);
+        } catch (final IOException e) {
+            throw spoolException(e);
+        }
+    }
+
+    @Override
+    public void handleRow(final String[] rowValues) {
+        try {
+            output.writeByte(ROW);
+            output.writeInt(rowValues.length);
+            for (int i = 0; i < rowValues.length; i++) {
+                writeString(rowValues[i]);
+            }
+        } catch (final IOException e) {
+            throw spoolException(e);
+        }
+    }
+
+    @Override
+    public void handleEndParsing() {
+        try {
+            output.writeByte(END_PARSING);
+
+            // The spool can only be read after it's closed
+            output.close();
+            finished = true;
+        } catch (final IOException e) {
+            throw spoolException(e);
+        }
+    }
+
+    /**
+     * Passes the spooled row set to the given handler, as
+     * {@link RowSetParser} passed it to this one.
+     *
+     * @param handler
+     *        the handler to pass the row set to (must not be <code>null</code>)
+     * @return the handler
+     */
+    public RowSetParseHandler replay(final RowSetParseHandler handler) {
+        final DataInputStream input = openInput();
+
+        try {
+            int event;
+            do {
+                event = input.readByte();
+
+                switch (event) {
+                    case BEGIN_PARSING:
+                        handler.handleBeginParsing();
+                        break;
+                    case TABLE_NAME:
+                        handler.handleTableName(readString(input));
+                        break;
+                    case COLUMN:
+                        handler.handleColumn(readString(input), readString(input));
+                        break;
+                    case FINISHED_COLUMNS:
+                        handler.handleFinishedColumns();
+                        break;
+                    case ROW:
+                        handler.handleRow(readRow(input));
+                        break;
+                    case END_PARSING:
+                        handler.handleEndParsing();
+                        break;
+                    default:
+                        throw new RowSetParseException(MessageFormat.format(
+                            "Unknown event {0} in spooled row set", //$NON-NLS-1$
+                            Integer.toString(event)));
+                }
+            } while (event != END_PARSING);
+        } catch (final IOException e) {
+            throw spoolException(e);
+        } finally {
+            closeInput(input);
+        }
+
+        return handler;
+    }
+
+    /**
+     * Writes the spooled row set as the "table" element it was parsed from.
+     * Skipped (<code>null</code>) values are written with the "k" attribute on
+     * the next value, so {@link RowSetParser} reads back the same row set.
+     */
+    public void writeAsElement(final XMLStreamWriter writer) throws XMLStreamException {
+        final DataInputStream input = openInput();
+
+        try {
+            boolean inColumns = false;
+            boolean inRows = false;
+
+            int event;
+            do {
+                event = input.readByte();
+
+                switch (event) {
+                    case BEGIN_PARSING:
+                        break;
+                    case TABLE_NAME:
+                        writer.writeStartElement("table"); //$NON-NLS-1$
+                        writer.writeAttribute("name", readString(input)); //$NON-NLS-1$
+                        break;
+                    case COLUMN:
+                        if (!inColumns) {
+                            writer.writeStartElement("columns"); //$NON-NLS-1$
+                            inColumns = true;
+                        }
+                        writer.writeStartElement("c"); //$NON-NLS-1$
+                        writeTextElement(writer, "n", readString(input)); //$NON-NLS-1$
+                        writeTextElement(writer, "t", readString(input)); //$NON-NLS-1$
+                        writer.writeEndElement();
+                        break;
+                    case FINISHED_COLUMNS:
+                        if (!inColumns) {
+                            writer.writeStartElement("columns"); //$NON-NLS-1$
+                        }
+                        writer.writeEndElement();
+                        inColumns = false;
+                        break;
+                    case ROW:
+                        if (!inRows) {
+                            writer.writeStartElement("rows"); //$NON-NLS-1$
+                            inRows = true;
+                        }
+                        writeRow(writer, readRow(input));
+                        break;
+                    case END_PARSING:
+                        if (inRows) {
+                            writer.writeEndElement();
+                        }
+                        writer.writeEndElement();
+                        break;
+                    default:
+                        throw new RowSetParseException(MessageFormat.format(
+                            "Unknown event {0} in spooled row set", //$NON-NLS-1$
+                            Integer.toString(event)));
+                }
+            } while (event != END_PARSING);
+        } catch (final IOException e) {
+            throw spoolException(e);
+        } finally {
+            closeInput(input);
+        }
+    }
+
+    /**
+     * Frees the spooled row set.
+     */
+    public void dispose() {
+        try {
+            // Anything still buffered in the output isn't needed
+            spool.dispose();
+        } catch (final IOException e) {
+            throw spoolException(e);
+        }
+    }
+
+    private void writeRow(final XMLStreamWriter writer, final String[] rowValues) throws XMLStreamException {
+        writer.writeStartElement("r"); //$NON-NLS-1$
+
+        boolean skipped = false;
+        for (int i = 0; i < rowValues.length; i++) {
+            if (rowValues[i] == null) {
+                skipped = true;
+                continue;
+            }
+
+            writer.writeStartElement("f"); //$NON-NLS-1$
+            if (skipped) {
+                writer.writeAttribute("k", Integer.toString(i)); //$NON-NLS-1$
+                skipped = false;
+            }
+            writer.writeCharacters(rowValues[i]);
+            writer.writeEndElement();
+        }
+
+        writer.writeEndElement();
+    }
+
+    private static void writeTextElement(final XMLStreamWriter writer, final String name, final String text)
+        throws XMLStreamException {
+        writer.writeStartElement(name);
+        if (text != null) {
+            writer.writeCharacters(text);
+        }
+        writer.writeEndElement();
+    }
+
+    private void writeString(final String value) throws IOException {
+        if (value == null) {
+            output.writeInt(-1);
+        } else {
+            final byte[] bytes = value.getBytes(ENCODING);
+            output.writeInt(bytes.length);
+            output.write(bytes);
+        }
+    }
+
+    private static String readString(final DataInputStream input) throws IOException {
+        final int length = input.readInt();
+        if (length < 0) {
+            return null;
+        }
+
+        final byte[] bytes = new byte[length];
+        input.readFully(bytes);
+        return new String(bytes, ENCODING);
+    }
+
+    private static String[] readRow(final DataInputStream input) throws IOException {
+        final String[] rowValues = new String[input.readInt()];
+        for (int i = 0; i < rowValues.length; i++) {
+            rowValues[i] = readString(input);
+        }
+        return rowValues;
+    }
+
+    private DataInputStream openInput() {
+        if (!finished) {
+            throw new IllegalStateException("The row set has not been completely parsed"); //$NON-NLS-1$
+        }
+
+        try {
+            return new DataInputStream(new BufferedInputStream(spool.getInputStream()));
+        } catch (final IOException e) {
+            throw spoolException(e);
+        }
+    }
+
+    private static void closeInput(final DataInputStream input) {
+        try {
+            input.close();
+        } catch (final IOException e) {
+            // Nothing was written, so nothing is lost
+        }
+    }
+
+    private static RowSetParseException spoolException(final IOException e) {
+        return new RowSetParseException(MessageFormat.format("Error spooling row set: {0}", e.toString())); //$NON-NLS-1$
+    }
+}
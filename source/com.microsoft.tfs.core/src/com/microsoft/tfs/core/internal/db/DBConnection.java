@@ -35,6 +35,48 @@ public class DBConnection {
         return new DBStatement(connection, sql);
     }
 
+    /**
+     * Begins a transaction: the updates made with this connection's statements
+     * are not committed until {@link #commitTransaction()} is called, or are
+     * discarded by {@link #rollbackTransaction()}.
+     */
+    public void beginTransaction() {
+        try {
+            connection.setAutoCommit(false);
+        } catch (final SQLException e) {
+            throw new DBException(e);
+        }
+    }
+
+    /**
+     * Commits the transaction begun with {@link #beginTransaction()} and
+     * returns the connection to committing each update.
+     */
+    public void commitTransaction() {
+        try {
+            connection.commit();
+            connection.setAutoCommit(true);
+        } catch (final SQLException e) {
+            throw new DBException(e);
+        }
+    }
+
+    /**
+     * Discards the updates made since {@link #beginTransaction()} and returns
+     * the connection to committing each update. Does nothing if no
+     * transaction is in progress.
+     */
+    public void rollbackTransaction() {
+        try {
+            if (!connection.getAutoCommit()) {
+                connection.rollback();
+                connection.setAutoCommit(true);
+            }
+        } catch (final SQLException e) {
+            throw new DBException(e);
+        }
+    }
+
     public void close() {
         try {
             connection.close();
@@ -12,6 +12,7 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.text.MessageFormat;
 import java.util.ArrayList;
 import java.util.List;
@@ -22,10 +23,21 @@ import org.apache.commons.logging.LogFactory;
 public class DBStatement {
     private static final Log log = LogFactory.getLog(DBStatement.class);
 
+    /**
+     * The number of updates sent to the database together by
+     * {@link #addBatch(Object)} unless {@link #beginBatch(int)} is given
+     * another size.
+     */
+    public static final int DEFAULT_BATCH_SIZE = 500;
+
     private final Connection connection;
     private final String sql;
     private PreparedStatement ps;
 
+    private int batchSize;
+    private int batchCount;
+    private int batchUpdateCount;
+
     public DBStatement(final Connection connection, final String sql) {
         this.connection = connection;
         this.sql = sql;
@@ -344,7 +356,33 @@ public class DBStatement {
         }
     }
 
+    /**
+     * Prepares the statement once for many executions, and batches updates
+     * added with {@link #addBatch(Object)} in groups of
+     * {@link #DEFAULT_BATCH_SIZE}. Call {@link #finishBatch()} when done.
+     */
     public void beginBatch() {
+        beginBatch(DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * Prepares the statement once for many executions, and batches updates
+     * added with {@link #addBatch(Object)} in groups of the given size. Call
+     * {@link #finishBatch()} when done.
+     *
+     * @param batchSize
+     *        the number of updates sent to the database together (must be
+     *        positive)
+     */
+    public void beginBatch(final int batchSize) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("batchSize must be positive"); //$NON-NLS-1$
+        }
+
+        this.batchSize = batchSize;
+        batchCount = 0;
+        batchUpdateCount = 0;
+
         try {
             ps = connection.prepareStatement(sql);
         } catch (final SQLException e) {
@@ -352,12 +390,89 @@ public class DBStatement {
         }
     }
 
+    /**
+     * Adds an update to the batch begun with {@link #beginBatch(int)}, and
+     * sends the batch to the database if it is full.
+     */
+    public void addBatch(final Object params) {
+        try {
+            setParameters(ps, params);
+            ps.addBatch();
+        } catch (final SQLException e) {
+            throw new DBException(e, sql);
+        }
+
+        if (++batchCount >= batchSize) {
+            executeBatch();
+        }
+    }
+
+    /**
+     * Sends the updates added with {@link #addBatch(Object)} since the last
+     * time the batch was sent to the database.
+     *
+     * @return the number of rows the updates changed
+     */
+    public int executeBatch() {
+        if (batchCount == 0) {
+            return 0;
+        }
+
+        final long startTime = System.currentTimeMillis();
+        int rowCount = 0;
+
+        try {
+            final int[] counts = ps.executeBatch();
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] > 0) {
+                    rowCount += counts[i];
+                } else if (counts[i] == Statement.SUCCESS_NO_INFO) {
+                    ++rowCount;
+                }
+            }
+
+            batchUpdateCount += rowCount;
+            return rowCount;
+        } catch (final SQLException e) {
+            throw new DBException(e, sql);
+        } finally {
+            if (log.isTraceEnabled()) {
+                final long elapsed = System.currentTimeMillis() - startTime;
+                log.trace(MessageFormat.format(
+                    "batch (elapsed={0} updates={1} rows={2}): {3}", //$NON-NLS-1$
+                    elapsed,
+                    batchCount,
+                    rowCount,
+                    sql));
+            }
+
+            batchCount = 0;
+        }
+    }
+
+    /**
+     * @return the number of rows changed by the batched updates sent to the
+     *         database since {@link #beginBatch(int)}
+     */
+    public int getBatchUpdateCount() {
+        return batchUpdateCount;
+    }
+
+    /**
+     * Sends any updates still in the batch to the database and closes the
+     * prepared statement.
+     */
     public void finishBatch() {
         if (ps != null) {
             try {
-                ps.close();
-            } catch (final SQLException e) {
-                throw new DBException(e, sql);
+                executeBatch();
+            } finally {
+                try {
+                    ps.close();
+                } catch (final SQLException e) {
+                    throw new DBException(e, sql);
+                }
+                ps = null;
             }
         }
     }
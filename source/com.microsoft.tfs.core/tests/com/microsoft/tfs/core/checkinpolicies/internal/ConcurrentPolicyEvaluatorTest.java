@@ -0,0 +1,181 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the repository root.
+
+package com.microsoft.tfs.core.checkinpolicies.internal;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import com.microsoft.tfs.core.checkinpolicies.PolicyBase;
+import com.microsoft.tfs.core.checkinpolicies.PolicyContext;
+import com.microsoft.tfs.core.checkinpolicies.PolicyContextKeys;
+import com.microsoft.tfs.core.checkinpolicies.PolicyEditArgs;
+import com.microsoft.tfs.core.checkinpolicies.PolicyEvaluationCancelledException;
+import com.microsoft.tfs.core.checkinpolicies.PolicyEvaluationStatus;
+import com.microsoft.tfs.core.checkinpolicies.PolicyFailure;
+import com.microsoft.tfs.core.checkinpolicies.PolicyType;
+import com.microsoft.tfs.core.memento.Memento;
+import com.microsoft.tfs.util.tasks.NullTaskMonitor;
+import com.microsoft.tfs.util.tasks.TaskMonitor;
+
+import junit.framework.TestCase;
+
+public class ConcurrentPolicyEvaluatorTest extends TestCase {
+    private static final PolicyType TYPE = new PolicyType("test", "Test", "Test", "Test", "None"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$
+
+    /**
+     * Sleeps for a while, optionally stopping when canceled, and fails once.
+     */
+    private static class SleepingPolicy extends PolicyBase {
+        private final long sleepMillis;
+        private final boolean cancelable;
+        public final CountDownLatch started = new CountDownLatch(1);
+
+        public SleepingPolicy(final long sleepMillis, final boolean cancelable) {
+            this.sleepMillis = sleepMillis;
+            this.cancelable = cancelable;
+        }
+
+        @Override
+        public PolicyFailure[] evaluate(final PolicyContext context) throws PolicyEvaluationCancelledException {
+            started.countDown();
+
+            final TaskMonitor taskMonitor = (TaskMonitor) context.getProperty(PolicyContextKeys.TASK_MONITOR);
+            final long end = System.currentTimeMillis() + sleepMillis;
+            while (System.currentTimeMillis() < end) {
+                if (cancelable && taskMonitor.isCanceled()) {
+                    throw new PolicyEvaluationCancelledException();
+                }
+
+                try {
+                    Thread.sleep(10);
+                } catch (final InterruptedException e) {
+                    throw new PolicyEvaluationCancelledException();
+                }
+            }
+
+            return new PolicyFailure[] {
+                new PolicyFailure("failed", this) //$NON-NLS-1$
+            };
+        }
+
+        @Override
+        public void loadConfiguration(final Memento configurationMemento) {
+        }
+
+        @Override
+        public void saveConfiguration(final Memento configurationMemento) {
+        }
+
+        @Override
+        public boolean edit(final PolicyEditArgs policyEditArgs) {
+            return false;
+        }
+
+        @Override
+        public PolicyType getPolicyType() {
+            return TYPE;
+        }
+    }
+
+    /**
+     * Records the late evaluations.
+     */
+    private static class TestListener implements ConcurrentPolicyEvaluator.LateEvaluationListener {
+        public final CountDownLatch finished = new CountDownLatch(1);
+        public volatile boolean completed;
+
+        @Override
+        public void onLateEvaluationFinished(final PolicyEvaluationStatus status, final boolean completed) {
+            this.completed = completed;
+            finished.countDown();
+        }
+    }
+
+    public void testPoliciesRunAtOnce() throws Exception {
+        final List<PolicyEvaluationStatus> statuses = new ArrayList<PolicyEvaluationStatus>();
+        for (int i = 0; i < 4; i++) {
+            statuses.add(status(new SleepingPolicy(300, true)));
+        }
+
+        final TestListener listener = new TestListener();
+        final long start = System.currentTimeMillis();
+        final List<PolicyEvaluationStatus> overdue = new ConcurrentPolicyEvaluator(10000).start(
+            statuses,
+            new PolicyContext(),
+            listener).waitForCompletion(NullTaskMonitor.INSTANCE);
+
+        // Serially these would take at least 1200 ms
+        assertTrue(System.currentTimeMillis() - start < 1000);
+        assertEquals(0, overdue.size());
+        for (final PolicyEvaluationStatus status : statuses) {
+            assertEquals(1, status.getFailures().length);
+        }
+        assertEquals(1, listener.finished.getCount());
+    }
+
+    public void testOverduePolicyIsCanceled() throws Exception {
+        final SleepingPolicy slow = new SleepingPolicy(10000, true);
+        final PolicyEvaluationStatus slowStatus = status(slow);
+        final PolicyEvaluationStatus fastStatus = status(new SleepingPolicy(0, true));
+
+        final List<PolicyEvaluationStatus> statuses = new ArrayList<PolicyEvaluationStatus>();
+        statuses.add(slowStatus);
+        statuses.add(fastStatus);
+
+        final TestListener listener = new TestListener();
+        final List<PolicyEvaluationStatus> overdue = new ConcurrentPolicyEvaluator(200).start(
+            statuses,
+            new PolicyContext(),
+            listener).waitForCompletion(NullTaskMonitor.INSTANCE);
+
+        assertEquals(1, overdue.size());
+        assertSame(slowStatus, overdue.get(0));
+        assertEquals(1, fastStatus.getFailures().length);
+
+        assertTrue(listener.finished.await(5, TimeUnit.SECONDS));
+        assertFalse(listener.completed);
+        assertEquals(0, slowStatus.getFailures().length);
+    }
+
+    public void testOverduePolicyReportsLateFailures() throws Exception {
+        final PolicyEvaluationStatus status = status(new SleepingPolicy(500, false));
+
+        final List<PolicyEvaluationStatus> statuses = new ArrayList<PolicyEvaluationStatus>();
+        statuses.add(status);
+
+        final TestListener listener = new TestListener();
+        final List<PolicyEvaluationStatus> overdue = new ConcurrentPolicyEvaluator(100).start(
+            statuses,
+            new PolicyContext(),
+            listener).waitForCompletion(NullTaskMonitor.INSTANCE);
+
+        assertEquals(1, overdue.size());
+        assertTrue(listener.finished.await(5, TimeUnit.SECONDS));
+        assertTrue(listener.completed);
+        assertEquals(1, status.getFailures().length);
+    }
+
+    public void testCancel() throws Exception {
+        final SleepingPolicy slow = new SleepingPolicy(10000, true);
+        final List<PolicyEvaluationStatus> statuses = new ArrayList<PolicyEvaluationStatus>();
+        statuses.add(status(slow));
+
+        final TestListener listener = new TestListener();
+        final ConcurrentPolicyEvaluator.Evaluation evaluation =
+            new ConcurrentPolicyEvaluator(0).start(statuses, new PolicyContext(), listener);
+
+        assertTrue(slow.started.await(5, TimeUnit.SECONDS));
+        evaluation.cancel();
+
+        // Canceled policies aren't late
+        assertEquals(0, evaluation.waitForCompletion(NullTaskMonitor.INSTANCE).size());
+        assertEquals(1, listener.finished.getCount());
+    }
+
+    private static PolicyEvaluationStatus status(final SleepingPolicy policy) {
+        return new PolicyEvaluationStatus(policy, 0, new String[0]);
+    }
+}
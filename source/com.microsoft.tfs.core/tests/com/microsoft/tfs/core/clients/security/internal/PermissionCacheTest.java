@@ -0,0 +1,155 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the repository root.
+
+package com.microsoft.tfs.core.clients.security.internal;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.microsoft.tfs.core.clients.security.AccessControlEntryDetails;
+import com.microsoft.tfs.core.clients.security.AccessControlListDetails;
+import com.microsoft.tfs.core.clients.security.SecurityNamespaceDescription;
+import com.microsoft.tfs.core.clients.security.SecurityNamespaceStructure;
+import com.microsoft.tfs.core.clients.webservices.IdentityDescriptor;
+import com.microsoft.tfs.util.GUID;
+
+import junit.framework.TestCase;
+
+public class PermissionCacheTest extends TestCase {
+    private static final String TYPE = "System.Security.Principal.WindowsIdentity"; //$NON-NLS-1$
+
+    private static final int READ = 1;
+    private static final int WRITE = 2;
+
+    private static final IdentityDescriptor USER = new IdentityDescriptor(TYPE, "S-1-5-21-1"); //$NON-NLS-1$
+    private static final IdentityDescriptor GROUP = new IdentityDescriptor(TYPE, "S-1-5-21-2"); //$NON-NLS-1$
+
+    /**
+     * Serves fixed lists and memberships and records the loads.
+     */
+    private static class TestLoader implements PermissionCache.Loader {
+        private final AccessControlListDetails[] lists;
+        public final List<String> loads = new ArrayList<String>();
+
+        public TestLoader(final AccessControlListDetails[] lists) {
+            this.lists = lists;
+        }
+
+        @Override
+        public AccessControlListDetails[] loadAccessControlLists(final String token, final boolean recurse) {
+            loads.add(token + (recurse ? " recurse" : "")); //$NON-NLS-1$ //$NON-NLS-2$
+
+            final List<AccessControlListDetails> ret = new ArrayList<AccessControlListDetails>();
+            for (final AccessControlListDetails list : lists) {
+                if (list.getToken().equals(token) || (recurse && list.getToken().startsWith(token + "/"))) //$NON-NLS-1$
+                {
+                    ret.add(list);
+                }
+            }
+            return ret.toArray(new AccessControlListDetails[ret.size()]);
+        }
+
+        @Override
+        public IdentityDescriptor[] loadMemberships(final IdentityDescriptor descriptor) {
+            loads.add("memberships"); //$NON-NLS-1$
+            return new IdentityDescriptor[] {
+                GROUP
+            };
+        }
+    }
+
+    public void testInheritedAndNearerEntries() {
+        final TestLoader loader = new TestLoader(new AccessControlListDetails[] {
+            list("root", true, new AccessControlEntryDetails(GROUP, READ | WRITE, 0)), //$NON-NLS-1$
+            list("root/a", true, new AccessControlEntryDetails(USER, 0, WRITE)), //$NON-NLS-1$
+            list("root/a/b", true, new AccessControlEntryDetails(GROUP, WRITE, 0)) //$NON-NLS-1$
+        });
+        final PermissionCache cache =
+            new PermissionCache(description(SecurityNamespaceStructure.HIERARCHICHAL), loader, 60000);
+
+        // The group's entry on the root is inherited
+        assertEquals(READ | WRITE, cache.getEffectiveAllow("root/c", USER)); //$NON-NLS-1$
+
+        // The user's deny on a is nearer than the root's allow
+        assertEquals(READ, cache.getEffectiveAllow("root/a/x/", USER)); //$NON-NLS-1$
+
+        // The allow on b is nearer than the deny on a
+        assertTrue(cache.hasPermission("root/a/b/file", USER, READ | WRITE)); //$NON-NLS-1$
+
+        // One load of the whole tree, one of the memberships
+        assertEquals(2, loader.loads.size());
+        assertEquals("root recurse", loader.loads.get(0)); //$NON-NLS-1$
+    }
+
+    public void testDenyWinsAtSameLevelAndInheritanceStops() {
+        final TestLoader loader = new TestLoader(new AccessControlListDetails[] {
+            list("root", true, new AccessControlEntryDetails(USER, READ | WRITE, 0)), //$NON-NLS-1$
+            list("root/a", true, new AccessControlEntryDetails(USER, WRITE, 0), //$NON-NLS-1$
+                new AccessControlEntryDetails(GROUP, 0, WRITE)),
+            list("root/b", false) //$NON-NLS-1$
+        });
+        final PermissionCache cache =
+            new PermissionCache(description(SecurityNamespaceStructure.HIERARCHICHAL), loader, 60000);
+
+        assertEquals(READ, cache.getEffectiveAllow("root/a", USER)); //$NON-NLS-1$
+        assertEquals(0, cache.getEffectiveAllow("root/b/c", USER)); //$NON-NLS-1$
+    }
+
+    public void testFlatNamespaceDoesNotInherit() {
+        final TestLoader loader = new TestLoader(new AccessControlListDetails[] {
+            list("root", true, new AccessControlEntryDetails(GROUP, READ, 0)), //$NON-NLS-1$
+            list("root/a", true, new AccessControlEntryDetails(GROUP, WRITE, 0)) //$NON-NLS-1$
+        });
+        final PermissionCache cache = new PermissionCache(description(SecurityNamespaceStructure.FLAT), loader, 60000);
+
+        assertEquals(WRITE, cache.getEffectiveAllow("root/a", USER)); //$NON-NLS-1$
+        assertEquals("root/a", loader.loads.get(0)); //$NON-NLS-1$
+    }
+
+    public void testInvalidateAndExpiry() throws Exception {
+        final TestLoader loader = new TestLoader(new AccessControlListDetails[] {
+            list("root", true, new AccessControlEntryDetails(USER, READ, 0)) //$NON-NLS-1$
+        });
+        final PermissionCache cache =
+            new PermissionCache(description(SecurityNamespaceStructure.HIERARCHICHAL), loader, 60000);
+
+        cache.getEffectiveAllow("root/a", USER); //$NON-NLS-1$
+        cache.getEffectiveAllow("root/b", USER); //$NON-NLS-1$
+        assertEquals(2, loader.loads.size());
+
+        final long generation = cache.getGeneration();
+        cache.invalidate();
+        cache.putAnswer("answer", true, generation); //$NON-NLS-1$
+        assertNull(cache.getAnswer("answer")); //$NON-NLS-1$
+
+        cache.getEffectiveAllow("root/a", USER); //$NON-NLS-1$
+        assertEquals(4, loader.loads.size());
+
+        final PermissionCache expiring =
+            new PermissionCache(description(SecurityNamespaceStructure.HIERARCHICHAL), loader, 0);
+        expiring.getEffectiveAllow("root/a", USER); //$NON-NLS-1$
+        expiring.getEffectiveAllow("root/a", USER); //$NON-NLS-1$
+        assertEquals(8, loader.loads.size());
+    }
+
+    private static AccessControlListDetails list(
+        final String token,
+        final boolean inherit,
+        final AccessControlEntryDetails... entries) {
+        return new AccessControlListDetails(inherit, token, false, entries);
+    }
+
+    private static SecurityNamespaceDescription description(final SecurityNamespaceStructure structure) {
+        return new SecurityNamespaceDescription(
+            GUID.newGUID(),
+            "Test", //$NON-NLS-1$
+            "Test", //$NON-NLS-1$
+            "Default", //$NON-NLS-1$
+            '/',
+            -1,
+            structure,
+            WRITE,
+            READ,
+            null);
+    }
+}
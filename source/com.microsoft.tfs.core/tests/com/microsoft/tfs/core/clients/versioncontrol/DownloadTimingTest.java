@@ -0,0 +1,69 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the repository root.
+
+package com.microsoft.tfs.core.clients.versioncontrol;
+
+import junit.framework.TestCase;
+
+public class DownloadTimingTest extends TestCase {
+    public void testTiming() {
+        final DownloadTiming timing = new DownloadTiming("$/a", 3000, 1000, 50, 1500); //$NON-NLS-1$
+
+        assertEquals("$/a", timing.getServerItem()); //$NON-NLS-1$
+        assertEquals(3000, timing.getBytes());
+        assertEquals(1000, timing.getStartTime());
+        assertEquals(2500, timing.getEndTime());
+        assertEquals(50, timing.getQueuedMillis());
+        assertEquals(1500, timing.getDownloadMillis());
+        assertEquals(2000, timing.getBytesPerSecond());
+    }
+
+    public void testInstantDownload() {
+        // A download which took no time counts as one millisecond
+        assertEquals(5000, new DownloadTiming("$/a", 5, 0, 0, 0).getBytesPerSecond()); //$NON-NLS-1$
+    }
+
+    public void testInvalidArguments() {
+        try {
+            new DownloadTiming("$/a", -1, 0, 0, 0); //$NON-NLS-1$
+            fail();
+        } catch (final IllegalArgumentException e) {
+        }
+
+        try {
+            new DownloadTiming("$/a", 0, 0, -1, 0); //$NON-NLS-1$
+            fail();
+        } catch (final IllegalArgumentException e) {
+        }
+
+        try {
+            new DownloadTiming("$/a", 0, 0, 0, -1); //$NON-NLS-1$
+            fail();
+        } catch (final IllegalArgumentException e) {
+        }
+    }
+
+    public void testGetStatusTotals() {
+        final GetStatus status = new GetStatus();
+        assertEquals(0, status.getNumBytesDownloaded());
+        assertEquals(0, status.getDownloadMillis());
+        assertEquals(0, status.getDownloadBytesPerSecond());
+
+        status.addDownloadTiming(new DownloadTiming("$/a", 1000, 1000, 0, 500)); //$NON-NLS-1$
+        status.addDownloadTiming(new DownloadTiming("$/b", 3000, 1200, 0, 800)); //$NON-NLS-1$
+
+        // The downloads overlapped from 1000 to 2000
+        assertEquals(4000, status.getNumBytesDownloaded());
+        assertEquals(1000, status.getDownloadMillis());
+        assertEquals(4000, status.getDownloadBytesPerSecond());
+        assertEquals(2, status.getDownloadTimings().length);
+
+        final GetStatus other = new GetStatus();
+        other.addDownloadTiming(new DownloadTiming("$/c", 500, 3000, 0, 1000)); //$NON-NLS-1$
+        status.combine(other);
+
+        assertEquals(3, status.getDownloadTimings().length);
+        assertEquals(4500, status.getNumBytesDownloaded());
+        assertEquals(3000, status.getDownloadMillis());
+    }
+}
@@ -0,0 +1,77 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the repository root.
+
+package com.microsoft.tfs.core.clients.versioncontrol;
+
+import java.util.concurrent.CountDownLatch;
+
+import junit.framework.TestCase;
+
+public class GetStatusTest extends TestCase {
+    public void testConcurrentIncrements() throws Exception {
+        final int threadCount = 8;
+        final int incrementCount = 20000;
+
+        final GetStatus status = new GetStatus();
+        final CountDownLatch start = new CountDownLatch(1);
+        final Thread[] threads = new Thread[threadCount];
+
+        for (int i = 0; i < threadCount; i++) {
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (final InterruptedException e) {
+                        return;
+                    }
+
+                    for (int j = 0; j < incrementCount; j++) {
+                        status.incrementNumConflicts();
+                        status.incrementNumUpdated();
+                        status.incrementNumWarnings();
+                        status.incrementNumResolvedConflicts();
+                    }
+                }
+            };
+            threads[i].start();
+        }
+
+        start.countDown();
+        for (int i = 0; i < threadCount; i++) {
+            threads[i].join();
+        }
+
+        assertEquals(threadCount * incrementCount, status.getNumConflicts());
+        assertEquals(threadCount * incrementCount, status.getNumUpdated());
+        assertEquals(threadCount * incrementCount, status.getNumWarnings());
+        assertEquals(threadCount * incrementCount, status.getNumResolvedConflicts());
+    }
+
+    public void testCombine() {
+        final GetStatus status = new GetStatus();
+        status.setNumOperations(2);
+        status.incrementNumConflicts();
+
+        final GetStatus other = new GetStatus();
+        other.setNumOperations(3);
+        other.incrementNumUpdated();
+        other.incrementNumWarnings();
+        other.setHaveResolvableWarnings(true);
+        other.addDownloadTiming(new DownloadTiming("$/a", 10, 0, 0, 1)); //$NON-NLS-1$
+
+        status.combine(other);
+
+        assertEquals(5, status.getNumOperations());
+        assertEquals(1, status.getNumConflicts());
+        assertEquals(1, status.getNumUpdated());
+        assertEquals(1, status.getNumWarnings());
+        assertTrue(status.haveResolvableWarnings());
+        assertEquals(1, status.getDownloadTimings().length);
+
+        // Combining with itself doubles the counts
+        status.combine(status);
+        assertEquals(10, status.getNumOperations());
+        assertEquals(2, status.getDownloadTimings().length);
+    }
+}
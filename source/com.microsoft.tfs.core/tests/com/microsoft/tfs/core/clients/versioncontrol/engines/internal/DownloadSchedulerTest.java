@@ -0,0 +1,360 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the repository root.
+
+package com.microsoft.tfs.core.clients.versioncontrol.engines.internal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import com.microsoft.tfs.core.clients.versioncontrol.DownloadTiming;
+import com.microsoft.tfs.core.clients.versioncontrol.GetStatus;
+import com.microsoft.tfs.core.clients.versioncontrol.engines.internal.workers.DownloadWorker;
+import com.microsoft.tfs.core.clients.versioncontrol.engines.internal.workers.WorkerStatus;
+import com.microsoft.tfs.core.clients.versioncontrol.engines.internal.workers.WorkerStatus.FinalState;
+import com.microsoft.tfs.core.clients.versioncontrol.internal.concurrent.AccountingCompletionService;
+import com.microsoft.tfs.core.clients.versioncontrol.internal.concurrent.AccountingCompletionService.ResultProcessor;
+import com.microsoft.tfs.core.clients.versioncontrol.internal.concurrent.BoundedExecutor;
+
+import junit.framework.TestCase;
+
+public class DownloadSchedulerTest extends TestCase {
+    private ExecutorService pool;
+    private AsyncOperation asyncOp;
+    private GetStatus getStatus;
+    private List<String> ran;
+    private AccountingCompletionService<WorkerStatus> completionService;
+
+    /**
+     * Records the order downloads run in, and can wait for a gate to open
+     * before it finishes.
+     */
+    private class TestWorker implements DownloadWorker {
+        private final String name;
+        private final long downloadedBytes;
+        private final CountDownLatch gate;
+        private final FinalState finalState;
+        public final CountDownLatch started = new CountDownLatch(1);
+
+        public TestWorker(final String name, final long downloadedBytes, final CountDownLatch gate) {
+            this(name, downloadedBytes, gate, FinalState.NORMAL);
+        }
+
+        public TestWorker(
+            final String name,
+            final long downloadedBytes,
+            final CountDownLatch gate,
+            final FinalState finalState) {
+            this.name = name;
+            this.downloadedBytes = downloadedBytes;
+            this.gate = gate;
+            this.finalState = finalState;
+        }
+
+        @Override
+        public WorkerStatus call() throws Exception {
+            started.countDown();
+            if (gate != null) {
+                gate.await(10, TimeUnit.SECONDS);
+            }
+            ran.add(name);
+            return new WorkerStatus(this, finalState);
+        }
+
+        @Override
+        public long getDownloadedBytes() {
+            return downloadedBytes;
+        }
+    }
+
+    /**
+     * Collects the statuses the downloads (and runners) finished with.
+     */
+    private static class Results implements ResultProcessor<WorkerStatus> {
+        public final List<WorkerStatus> statuses = new ArrayList<WorkerStatus>();
+
+        @Override
+        public void processResult(final WorkerStatus result) {
+            statuses.add(result);
+        }
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        pool = Executors.newCachedThreadPool();
+        asyncOp = new AsyncOperation();
+        getStatus = new GetStatus();
+        ran = Collections.synchronizedList(new ArrayList<String>());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        pool.shutdownNow();
+    }
+
+    public void testInOrder() throws Exception {
+        final DownloadScheduler scheduler = newScheduler(pool, 1, DownloadScheduler.Policy.IN_ORDER);
+
+        scheduler.schedule(new TestWorker("a", -1, null), "$/a", 1000000); //$NON-NLS-1$ //$NON-NLS-2$
+        scheduler.schedule(new TestWorker("b", -1, null), "$/b", 1); //$NON-NLS-1$ //$NON-NLS-2$
+        scheduler.schedule(new TestWorker("c", -1, null), "$/c", -1); //$NON-NLS-1$ //$NON-NLS-2$
+        scheduler.schedule(new TestWorker("d", -1, null), "$/d", 500000); //$NON-NLS-1$ //$NON-NLS-2$
+        completionService.waitForCompletions();
+
+        assertEquals(list("a", "b", "c", "d"), ran); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+    }
+
+    public void testLargestFirst() throws Exception {
+        final List<String> order = runQueued(DownloadScheduler.Policy.LARGEST_FIRST, new long[] {
+            100000,
+            -1,
+            500000,
+            200000,
+            1000000
+        });
+
+        assertEquals(list("4", "2", "3", "0", "1"), order); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$
+    }
+
+    public void testSmallestFirst() throws Exception {
+        final List<String> order = runQueued(DownloadScheduler.Policy.SMALLEST_FIRST, new long[] {
+            500000,
+            -1,
+            100000,
+            1000000,
+            200000
+        });
+
+        assertEquals(list("2", "4", "0", "3", "1"), order); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$
+    }
+
+    public void testUnknownSizesRunInQueuedOrder() throws Exception {
+        final List<String> order = runQueued(DownloadScheduler.Policy.LARGEST_FIRST, new long[] {
+            -1,
+            -1,
+            -1
+        });
+
+        assertEquals(list("0", "1", "2"), order); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+    }
+
+    public void testLanesAlternate() throws Exception {
+        final long small = DownloadScheduler.SMALL_FILE_SIZE;
+        final List<String> order = runQueued(DownloadScheduler.Policy.LARGEST_FIRST, new long[] {
+            small - 2,
+            small + 1,
+            small - 1,
+            small + 2,
+            small - 3
+        });
+
+        // The large lane goes first, then they take turns until one is empty
+        assertEquals(list("3", "2", "1", "0", "4"), order); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$
+    }
+
+    public void testEmptyRunnerReturnsStatus() throws Exception {
+        /*
+         * The second runner is held back until the first has run both
+         * downloads, so it finds the queue empty.
+         */
+        final List<Runnable> held = new ArrayList<Runnable>();
+        final Executor holdingExecutor = new Executor() {
+            private int count;
+
+            @Override
+            public synchronized void execute(final Runnable command) {
+                if (++count == 2) {
+                    held.add(command);
+                } else {
+                    pool.execute(command);
+                }
+            }
+        };
+
+        final DownloadScheduler scheduler = newScheduler(holdingExecutor, 2, DownloadScheduler.Policy.LARGEST_FIRST);
+
+        final CountDownLatch gate = new CountDownLatch(1);
+        final TestWorker first = new TestWorker("a", -1, gate); //$NON-NLS-1$
+        scheduler.schedule(first, "$/a", 1); //$NON-NLS-1$
+        assertTrue(first.started.await(10, TimeUnit.SECONDS));
+
+        scheduler.schedule(new TestWorker("b", -1, null), "$/b", 1); //$NON-NLS-1$ //$NON-NLS-2$
+        assertEquals(1, held.size());
+
+        gate.countDown();
+        waitForRun(2);
+        held.get(0).run();
+
+        final Results results = new Results();
+        completionService.waitForCompletions(results);
+
+        assertEquals(list("a", "b"), ran); //$NON-NLS-1$ //$NON-NLS-2$
+        assertEquals(2, results.statuses.size());
+        for (final WorkerStatus status : results.statuses) {
+            assertNotNull(status);
+            assertEquals(FinalState.NORMAL, status.getFinalState());
+        }
+    }
+
+    public void testScheduleBlocksAtMaxQueued() throws Exception {
+        final DownloadScheduler scheduler = newScheduler(pool, 1, DownloadScheduler.Policy.LARGEST_FIRST);
+
+        final CountDownLatch gate = new CountDownLatch(1);
+        final TestWorker first = new TestWorker("first", -1, gate); //$NON-NLS-1$
+        scheduler.schedule(first, "$/first", 1); //$NON-NLS-1$
+        assertTrue(first.started.await(10, TimeUnit.SECONDS));
+
+        for (int i = 0; i < DownloadScheduler.MAX_QUEUED; i++) {
+            scheduler.schedule(new TestWorker(Integer.toString(i), -1, null), "$/" + i, i); //$NON-NLS-1$
+        }
+
+        final Thread blocked = new Thread() {
+            @Override
+            public void run() {
+                scheduler.schedule(new TestWorker("last", -1, null), "$/last", 1); //$NON-NLS-1$ //$NON-NLS-2$
+            }
+        };
+        blocked.start();
+
+        blocked.join(300);
+        assertTrue(blocked.isAlive());
+
+        gate.countDown();
+        blocked.join(10000);
+        assertFalse(blocked.isAlive());
+
+        completionService.waitForCompletions();
+        assertEquals(DownloadScheduler.MAX_QUEUED + 2, ran.size());
+    }
+
+    public void testFatalErrorSkipsQueued() throws Exception {
+        final DownloadScheduler scheduler = newScheduler(pool, 1, DownloadScheduler.Policy.LARGEST_FIRST);
+
+        final CountDownLatch gate = new CountDownLatch(1);
+        final TestWorker first = new TestWorker("a", -1, gate); //$NON-NLS-1$
+        scheduler.schedule(first, "$/a", 1); //$NON-NLS-1$
+        assertTrue(first.started.await(10, TimeUnit.SECONDS));
+
+        scheduler.schedule(new TestWorker("b", -1, null), "$/b", 1); //$NON-NLS-1$ //$NON-NLS-2$
+        asyncOp.setFatalError(new RuntimeException());
+        gate.countDown();
+
+        final Results results = new Results();
+        completionService.waitForCompletions(results);
+
+        assertEquals(list("a"), ran); //$NON-NLS-1$
+        assertEquals(1, results.statuses.size());
+        assertEquals(FinalState.CANCELED, results.statuses.get(0).getFinalState());
+    }
+
+    public void testRunnerReturnsWorstStatus() throws Exception {
+        checkRunnerStatus(FinalState.ERROR, FinalState.NORMAL, FinalState.ERROR);
+        checkRunnerStatus(FinalState.CANCELED, FinalState.NORMAL, FinalState.CANCELED);
+        checkRunnerStatus(FinalState.ERROR, FinalState.CANCELED, FinalState.ERROR);
+        checkRunnerStatus(FinalState.NORMAL, FinalState.CANCELED, FinalState.CANCELED);
+        checkRunnerStatus(FinalState.NORMAL, FinalState.NORMAL, FinalState.NORMAL);
+    }
+
+    public void testTimingsRecorded() throws Exception {
+        final DownloadScheduler scheduler = newScheduler(pool, 1, DownloadScheduler.Policy.IN_ORDER);
+
+        scheduler.schedule(new TestWorker("a", 100, null), "$/a", -1); //$NON-NLS-1$ //$NON-NLS-2$
+        scheduler.schedule(new TestWorker("b", -1, null), "$/b", -1); //$NON-NLS-1$ //$NON-NLS-2$
+        scheduler.runNow(new TestWorker("c", 50, null), "$/c"); //$NON-NLS-1$ //$NON-NLS-2$
+        completionService.waitForCompletions();
+
+        // Downloads which downloaded nothing aren't recorded
+        final DownloadTiming[] timings = getStatus.getDownloadTimings();
+        assertEquals(2, timings.length);
+        assertEquals(150, getStatus.getNumBytesDownloaded());
+
+        final List<String> items = new ArrayList<String>();
+        for (final DownloadTiming timing : timings) {
+            items.add(timing.getServerItem());
+            assertTrue(timing.getQueuedMillis() >= 0);
+            assertTrue(timing.getDownloadMillis() >= 0);
+        }
+        Collections.sort(items);
+        assertEquals(list("$/a", "$/c"), items); //$NON-NLS-1$ //$NON-NLS-2$
+    }
+
+    /**
+     * Runs a gate download, queues downloads of the given sizes behind it, and
+     * returns the order the queued ones ran in (named by their index).
+     */
+    private List<String> runQueued(final DownloadScheduler.Policy policy, final long[] sizes) throws Exception {
+        final DownloadScheduler scheduler = newScheduler(pool, 1, policy);
+
+        final CountDownLatch gate = new CountDownLatch(1);
+        final TestWorker first = new TestWorker("gate", -1, gate); //$NON-NLS-1$
+        scheduler.schedule(first, "$/gate", -1); //$NON-NLS-1$
+        assertTrue(first.started.await(10, TimeUnit.SECONDS));
+
+        for (int i = 0; i < sizes.length; i++) {
+            scheduler.schedule(new TestWorker(Integer.toString(i), -1, null), "$/" + i, sizes[i]); //$NON-NLS-1$
+        }
+
+        gate.countDown();
+        completionService.waitForCompletions();
+
+        assertEquals("gate", ran.get(0)); //$NON-NLS-1$
+        return new ArrayList<String>(ran.subList(1, ran.size()));
+    }
+
+    /**
+     * Runs two downloads which finish with the given states on one runner and
+     * checks the runner's status.
+     */
+    private void checkRunnerStatus(final FinalState first, final FinalState second, final FinalState expected)
+        throws Exception {
+        ran.clear();
+        final DownloadScheduler scheduler = newScheduler(pool, 1, DownloadScheduler.Policy.IN_ORDER);
+
+        // The first download holds the only runner until the second is queued
+        final CountDownLatch gate = new CountDownLatch(1);
+        final TestWorker firstWorker = new TestWorker("a", -1, gate, first); //$NON-NLS-1$
+        scheduler.schedule(firstWorker, "$/a", -1); //$NON-NLS-1$
+        assertTrue(firstWorker.started.await(10, TimeUnit.SECONDS));
+
+        scheduler.schedule(new TestWorker("b", -1, null, second), "$/b", -1); //$NON-NLS-1$ //$NON-NLS-2$
+        gate.countDown();
+
+        final Results results = new Results();
+        completionService.waitForCompletions(results);
+
+        assertEquals(list("a", "b"), ran); //$NON-NLS-1$ //$NON-NLS-2$
+        assertEquals(1, results.statuses.size());
+        assertEquals(expected, results.statuses.get(0).getFinalState());
+    }
+
+    private void waitForRun(final int count) throws InterruptedException {
+        final long end = System.currentTimeMillis() + 10000;
+        while (ran.size() < count && System.currentTimeMillis() < end) {
+            Thread.sleep(10);
+        }
+        assertEquals(count, ran.size());
+    }
+
+    /**
+     * Creates a scheduler which submits to {@link #completionService}.
+     */
+    private DownloadScheduler newScheduler(
+        final Executor executor,
+        final int limit,
+        final DownloadScheduler.Policy policy) {
+        final BoundedExecutor boundedExecutor = new BoundedExecutor(executor, limit);
+        completionService = new AccountingCompletionService<WorkerStatus>(boundedExecutor);
+        return new DownloadScheduler(completionService, boundedExecutor, policy, asyncOp, getStatus);
+    }
+
+    private static List<String> list(final String... names) {
+        final List<String> list = new ArrayList<String>();
+        Collections.addAll(list, names);
+        return list;
+    }
+}
@@ -0,0 +1,96 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the repository root.
+
+package com.microsoft.tfs.core.clients.versioncontrol.engines.internal;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import com.microsoft.tfs.util.HashUtils;
+
+import junit.framework.TestCase;
+
+public class FileHashServiceTest extends TestCase {
+    private static final long OLD_TIME = 1000000000000L;
+
+    private File directory;
+
+    @Override
+    protected void setUp() throws Exception {
+        directory = File.createTempFile("FileHashServiceTest", ""); //$NON-NLS-1$ //$NON-NLS-2$
+        directory.delete();
+        directory.mkdir();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        for (final File file : directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    public void testHash() throws Exception {
+        final FileHashService service = new FileHashService(2, 10);
+        final File file = write("file", "abc", OLD_TIME); //$NON-NLS-1$ //$NON-NLS-2$
+
+        assertTrue(Arrays.equals(md5("abc"), service.getMD5Hash(file, null))); //$NON-NLS-1$
+    }
+
+    public void testUnchangedFileIsCached() throws Exception {
+        final FileHashService service = new FileHashService(2, 10);
+        final File file = write("file", "abc", OLD_TIME); //$NON-NLS-1$ //$NON-NLS-2$
+        service.getMD5Hash(file, null);
+
+        // Same length and last modified time: the key can't tell
+        write("file", "xyz", OLD_TIME); //$NON-NLS-1$ //$NON-NLS-2$
+        assertTrue(Arrays.equals(md5("abc"), service.getMD5Hash(file, null))); //$NON-NLS-1$
+
+        // A new last modified time misses
+        write("file", "xyz", OLD_TIME + 1000); //$NON-NLS-1$ //$NON-NLS-2$
+        assertTrue(Arrays.equals(md5("xyz"), service.getMD5Hash(file, null))); //$NON-NLS-1$
+    }
+
+    public void testRecentlyModifiedFileIsNotCached() throws Exception {
+        final FileHashService service = new FileHashService(2, 10);
+        final long now = System.currentTimeMillis();
+        final File file = write("file", "abc", now); //$NON-NLS-1$ //$NON-NLS-2$
+        service.getMD5Hash(file, null);
+
+        write("file", "xyz", now); //$NON-NLS-1$ //$NON-NLS-2$
+        assertTrue(Arrays.equals(md5("xyz"), service.getMD5Hash(file, null))); //$NON-NLS-1$
+    }
+
+    public void testPrefetch() throws Exception {
+        final FileHashService service = new FileHashService(2, 10);
+        final String[] fileNames = new String[5];
+        for (int i = 0; i < fileNames.length; i++) {
+            fileNames[i] = write("file" + i, "abc" + i, OLD_TIME).getPath(); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+
+        service.prefetchMD5Hashes(fileNames, null);
+
+        for (int i = 0; i < fileNames.length; i++) {
+            write("file" + i, "xyz" + i, OLD_TIME); //$NON-NLS-1$ //$NON-NLS-2$
+            assertTrue(Arrays.equals(md5("abc" + i), service.getMD5Hash(new File(fileNames[i]), null))); //$NON-NLS-1$
+        }
+    }
+
+    private File write(final String name, final String content, final long lastModified) throws IOException {
+        final File file = new File(directory, name);
+        final FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content.getBytes("UTF-8")); //$NON-NLS-1$
+        } finally {
+            out.close();
+        }
+        assertTrue(file.setLastModified(lastModified));
+        return file;
+    }
+
+    private static byte[] md5(final String content) {
+        return HashUtils.hashString(content, "UTF-8", HashUtils.ALGORITHM_MD5); //$NON-NLS-1$
+    }
+}
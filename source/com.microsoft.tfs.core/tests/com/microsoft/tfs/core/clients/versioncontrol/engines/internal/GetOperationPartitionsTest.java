@@ -0,0 +1,161 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the repository root.
+
+package com.microsoft.tfs.core.clients.versioncontrol.engines.internal;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.microsoft.tfs.core.clients.versioncontrol.internal.concurrent.AccountingCompletionService;
+import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.GetOperation;
+import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.ItemType;
+
+import junit.framework.TestCase;
+
+public class GetOperationPartitionsTest extends TestCase {
+    private File directory;
+    private File a;
+    private File b;
+
+    @Override
+    protected void setUp() throws Exception {
+        directory = File.createTempFile("GetOperationPartitionsTest", ""); //$NON-NLS-1$ //$NON-NLS-2$
+        directory.delete();
+        directory.mkdir();
+
+        a = new File(directory, "a"); //$NON-NLS-1$
+        a.mkdir();
+        b = new File(directory, "b"); //$NON-NLS-1$
+        b.mkdir();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        a.delete();
+        b.delete();
+        directory.delete();
+    }
+
+    public void testPartitionsByDirectory() {
+        final GetOperation a1 = file(path(a, "1"), path(a, "1")); //$NON-NLS-1$ //$NON-NLS-2$
+        final GetOperation b1 = file(null, path(b, "1")); //$NON-NLS-1$
+        final GetOperation a2 = file(path(a, "2"), null); //$NON-NLS-1$
+
+        final GetOperationPartitions partitions = new GetOperationPartitions(new GetOperation[] {
+            a1,
+            b1,
+            a2
+        });
+
+        assertEquals(3, partitions.getPartitionedCount());
+
+        final List<GetOperation> partitionA = partitions.getPartitionStartingWith(a1);
+        assertEquals(2, partitionA.size());
+        assertSame(a1, partitionA.get(0));
+        assertSame(a2, partitionA.get(1));
+
+        assertEquals(1, partitions.getPartitionStartingWith(b1).size());
+        assertNull(partitions.getPartitionStartingWith(a2));
+    }
+
+    public void testRenameOrdersBothDirectories() {
+        final GetOperation a1 = file(path(a, "1"), path(a, "1")); //$NON-NLS-1$ //$NON-NLS-2$
+        final GetOperation b1 = file(path(b, "1"), path(b, "1")); //$NON-NLS-1$ //$NON-NLS-2$
+        final GetOperation move = file(path(a, "2"), path(b, "2")); //$NON-NLS-1$ //$NON-NLS-2$
+
+        final GetOperationPartitions partitions = new GetOperationPartitions(new GetOperation[] {
+            a1,
+            b1,
+            move
+        });
+
+        assertEquals(0, partitions.getPartitionedCount());
+        assertFalse(partitions.isPartitioned(a1));
+        assertFalse(partitions.isPartitioned(b1));
+    }
+
+    public void testSharedPathIsOrdered() {
+        final GetOperation delete = file(path(a, "1"), null); //$NON-NLS-1$
+        final GetOperation add = file(null, path(a, "1")); //$NON-NLS-1$
+        final GetOperation b1 = file(null, path(b, "1")); //$NON-NLS-1$
+
+        final GetOperationPartitions partitions = new GetOperationPartitions(new GetOperation[] {
+            delete,
+            add,
+            b1
+        });
+
+        assertFalse(partitions.isPartitioned(delete));
+        assertFalse(partitions.isPartitioned(add));
+        assertTrue(partitions.isPartitioned(b1));
+    }
+
+    public void testDirectoryMoveDisablesPartitions() {
+        final GetOperation a1 = file(null, path(a, "1")); //$NON-NLS-1$
+        final GetOperation move = new GetOperation();
+        move.setItemType(ItemType.FOLDER);
+        move.setSourceLocalItem(b.getAbsolutePath());
+        move.setTargetLocalItem(path(directory, "c")); //$NON-NLS-1$
+
+        final GetOperationPartitions partitions = new GetOperationPartitions(new GetOperation[] {
+            a1,
+            move
+        });
+
+        assertEquals(0, partitions.getPartitionedCount());
+    }
+
+    public void testMissingDirectoryIsNotPartitioned() {
+        final GetOperation missing = file(null, path(new File(directory, "missing"), "1")); //$NON-NLS-1$ //$NON-NLS-2$
+
+        final GetOperationPartitions partitions = new GetOperationPartitions(new GetOperation[] {
+            missing
+        });
+
+        assertFalse(partitions.isPartitioned(missing));
+    }
+
+    public void testPartitionExceptionIsFatal() {
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            final AccountingCompletionService<Integer> completionService =
+                new AccountingCompletionService<Integer>(executor);
+            final IllegalStateException exception = new IllegalStateException("partition failed"); //$NON-NLS-1$
+
+            completionService.submit(new Callable<Integer>() {
+                @Override
+                public Integer call() {
+                    return 1;
+                }
+            });
+            completionService.submit(new Callable<Integer>() {
+                @Override
+                public Integer call() {
+                    throw exception;
+                }
+            });
+
+            final AsyncOperation asyncOp = new AsyncOperation();
+            GetEngine.waitForPartitions(completionService, asyncOp);
+
+            assertSame(exception, asyncOp.getFatalError());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static GetOperation file(final String source, final String target) {
+        final GetOperation operation = new GetOperation();
+        operation.setItemType(ItemType.FILE);
+        operation.setSourceLocalItem(source);
+        operation.setTargetLocalItem(target);
+        return operation;
+    }
+
+    private static String path(final File parent, final String name) {
+        return new File(parent, name).getAbsolutePath();
+    }
+}
@@ -0,0 +1,144 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the repository root.
+
+package com.microsoft.tfs.core.clients.versioncontrol.engines.internal;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import com.microsoft.tfs.core.clients.versioncontrol.specs.DownloadOutput;
+import com.microsoft.tfs.util.ArrayUtils;
+import com.microsoft.tfs.util.HashUtils;
+import com.microsoft.tfs.util.tasks.NullTaskMonitor;
+
+import junit.framework.TestCase;
+
+public class LocalContentCacheTest extends TestCase {
+    private File directory;
+
+    @Override
+    protected void setUp() throws Exception {
+        directory = File.createTempFile("LocalContentCacheTest", ""); //$NON-NLS-1$ //$NON-NLS-2$
+        directory.delete();
+        directory.mkdir();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        delete(directory);
+    }
+
+    public void testAddAndCopy() throws Exception {
+        final LocalContentCache cache = new LocalContentCache(new File(directory, "cache"), 1024 * 1024); //$NON-NLS-1$
+        final byte[] content = new byte[] {
+            1,
+            2,
+            3
+        };
+        final byte[] hash = HashUtils.hashBytes(content, HashUtils.ALGORITHM_MD5);
+
+        final File target = new File(directory, "target"); //$NON-NLS-1$
+        assertFalse(copy(cache, hash, target));
+
+        cache.add(hash, write("source", content)); //$NON-NLS-1$
+
+        assertTrue(copy(cache, hash, target));
+        assertTrue(Arrays.equals(hash, HashUtils.hashFile(target, HashUtils.ALGORITHM_MD5)));
+    }
+
+    public void testContentNotMatchingHashIsNotAdded() throws Exception {
+        final LocalContentCache cache = new LocalContentCache(new File(directory, "cache"), 1024 * 1024); //$NON-NLS-1$
+        final byte[] hash = HashUtils.hashBytes(new byte[] {
+            1
+        }, HashUtils.ALGORITHM_MD5);
+
+        cache.add(hash, write("source", new byte[] //$NON-NLS-1$
+        {
+            2
+        }));
+
+        assertFalse(copy(cache, hash, new File(directory, "target"))); //$NON-NLS-1$
+    }
+
+    public void testCorruptContentIsAMiss() throws Exception {
+        final File cacheDirectory = new File(directory, "cache"); //$NON-NLS-1$
+        final LocalContentCache cache = new LocalContentCache(cacheDirectory, 1024 * 1024);
+        final byte[] content = new byte[] {
+            1,
+            2
+        };
+        final byte[] hash = HashUtils.hashBytes(content, HashUtils.ALGORITHM_MD5);
+
+        cache.add(hash, write("source", content)); //$NON-NLS-1$
+
+        // Damage the cached copy
+        final File cached = cacheDirectory.listFiles()[0].listFiles()[0];
+        final FileOutputStream out = new FileOutputStream(cached);
+        out.write(9);
+        out.close();
+
+        final File target = new File(directory, "target"); //$NON-NLS-1$
+        assertFalse(copy(cache, hash, target));
+        assertFalse(cached.exists());
+    }
+
+    public void testLeastRecentlyUsedIsEvicted() throws Exception {
+        final LocalContentCache cache = new LocalContentCache(new File(directory, "cache"), 1000); //$NON-NLS-1$
+        final byte[][] hashes = new byte[3][];
+
+        for (int i = 0; i < hashes.length; i++) {
+            final byte[] content = new byte[400];
+            Arrays.fill(content, (byte) i);
+            hashes[i] = HashUtils.hashBytes(content, HashUtils.ALGORITHM_MD5);
+
+            final File source = write("source" + i, content); //$NON-NLS-1$
+            cache.add(hashes[i], source);
+
+            // Distinct, ordered last modified times
+            new File(new File(new File(directory, "cache"), toHex(hashes[i]).substring(0, 2)), toHex(hashes[i])) //$NON-NLS-1$
+                .setLastModified(1000000000000L + i * 10000L);
+        }
+
+        final File target = new File(directory, "target"); //$NON-NLS-1$
+        assertFalse(copy(cache, hashes[0], target));
+        assertTrue(copy(cache, hashes[2], target));
+    }
+
+    private boolean copy(final LocalContentCache cache, final byte[] hash, final File target) throws IOException {
+        final DownloadOutput output = new FileDownloadOutput(target, true);
+        try {
+            return cache.copyTo(hash, new DownloadOutput[] {
+                output
+            }, NullTaskMonitor.INSTANCE);
+        } finally {
+            output.closeOutputStream();
+        }
+    }
+
+    private File write(final String name, final byte[] content) throws IOException {
+        final File file = new File(directory, name);
+        final FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content);
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    private static String toHex(final byte[] bytes) {
+        return ArrayUtils.byteArrayToHexStringLowerCase(bytes);
+    }
+
+    private static void delete(final File file) {
+        final File[] children = file.listFiles();
+        if (children != null) {
+            for (final File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,57 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the repository root.
+
+package com.microsoft.tfs.core.clients.versioncontrol.engines.internal.workers;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class IncompressibleFileDetectorTest extends TestCase {
+    public void testCompressedExtension() {
+        assertTrue(IncompressibleFileDetector.hasCompressedExtension("lib.jar")); //$NON-NLS-1$
+        assertTrue(IncompressibleFileDetector.hasCompressedExtension("Image.PNG")); //$NON-NLS-1$
+        assertFalse(IncompressibleFileDetector.hasCompressedExtension("Main.java")); //$NON-NLS-1$
+        assertFalse(IncompressibleFileDetector.hasCompressedExtension("jar")); //$NON-NLS-1$
+    }
+
+    public void testRandomContentIsIncompressible() throws Exception {
+        final byte[] data = new byte[200 * 1024];
+        new Random(1).nextBytes(data);
+
+        final File file = write(data);
+        try {
+            assertTrue(IncompressibleFileDetector.isIncompressible(file));
+        } finally {
+            file.delete();
+        }
+    }
+
+    public void testTextIsCompressible() throws Exception {
+        final StringBuffer sb = new StringBuffer();
+        for (int i = 0; i < 10000; i++) {
+            sb.append("public void method").append(i).append("() {}\n"); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+
+        final File file = write(sb.toString().getBytes("UTF-8")); //$NON-NLS-1$
+        try {
+            assertFalse(IncompressibleFileDetector.isIncompressible(file));
+        } finally {
+            file.delete();
+        }
+    }
+
+    private static File write(final byte[] data) throws IOException {
+        final File file = File.createTempFile("IncompressibleFileDetectorTest", ".dat"); //$NON-NLS-1$ //$NON-NLS-2$
+        final FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(data);
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+}
@@ -0,0 +1,168 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the repository root.
+
+package com.microsoft.tfs.core.clients.versioncontrol.internal;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import com.microsoft.tfs.core.clients.versioncontrol.exceptions.VersionControlException;
+import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.Changeset;
+import com.microsoft.tfs.core.clients.versioncontrol.specs.version.ChangesetVersionSpec;
+import com.microsoft.tfs.core.clients.versioncontrol.specs.version.VersionSpec;
+
+import junit.framework.TestCase;
+
+public class HistoryIteratorTest extends TestCase {
+    private static final int PAGE_SIZE = 256;
+
+    /**
+     * Pages in changesets from a history of {@link #latest} changesets, and
+     * records the requests made.
+     */
+    private static class TestHistoryIterator extends HistoryIterator {
+        private final int latest;
+        private final List<String> requests = new ArrayList<String>();
+
+        /**
+         * When not <code>null</code>, requests after the first wait for this
+         * latch.
+         */
+        private CountDownLatch releaseRequests;
+        private final CountDownLatch requestWaiting = new CountDownLatch(1);
+        private final CountDownLatch requestInterrupted = new CountDownLatch(1);
+
+        /**
+         * When not <code>null</code>, requests after the first throw this.
+         */
+        private RuntimeException requestException;
+
+        public TestHistoryIterator(final int latest, final int maxCount, final boolean readAhead) {
+            super(null, maxCount, readAhead);
+            this.latest = latest;
+        }
+
+        @Override
+        Changeset[] queryPage(final VersionSpec pageEndingVersionSpec, final int pageNumRequested) {
+            final boolean first;
+            synchronized (requests) {
+                first = requests.isEmpty();
+                requests.add(pageEndingVersionSpec + " " + pageNumRequested); //$NON-NLS-1$
+            }
+
+            if (!first && releaseRequests != null) {
+                requestWaiting.countDown();
+                try {
+                    releaseRequests.await();
+                } catch (final InterruptedException e) {
+                    requestInterrupted.countDown();
+                    throw new VersionControlException(e);
+                }
+            }
+
+            if (!first && requestException != null) {
+                throw requestException;
+            }
+
+            final int top = pageEndingVersionSpec == null ? latest
+                : ((ChangesetVersionSpec) pageEndingVersionSpec).getChangeset();
+            final int count = Math.max(0, Math.min(top, pageNumRequested));
+
+            final Changeset[] page = new Changeset[count];
+            for (int i = 0; i < count; i++) {
+                page[i] = new Changeset(null, null, null, null, null, null, null, top - i, null, null, null);
+            }
+            return page;
+        }
+
+        public List<String> getRequests() {
+            synchronized (requests) {
+                return new ArrayList<String>(requests);
+            }
+        }
+    }
+
+    public void testReadAheadReturnsSameChangesets() {
+        final TestHistoryIterator serial = new TestHistoryIterator(600, Integer.MAX_VALUE, false);
+        final TestHistoryIterator readAhead = new TestHistoryIterator(600, Integer.MAX_VALUE, true);
+
+        final List<Integer> expected = consume(serial);
+        assertEquals(600, expected.size());
+        assertEquals(600, expected.get(0).intValue());
+        assertEquals(1, expected.get(599).intValue());
+
+        assertEquals(expected, consume(readAhead));
+        assertEquals(serial.getRequests(), readAhead.getRequests());
+    }
+
+    public void testReadAheadStopsAtMaxCount() {
+        final TestHistoryIterator iterator = new TestHistoryIterator(1000, 300, true);
+
+        assertEquals(300, consume(iterator).size());
+        assertEquals(2, iterator.getRequests().size());
+        assertTrue(iterator.getRequests().get(1).endsWith(" " + (300 - PAGE_SIZE))); //$NON-NLS-1$
+    }
+
+    public void testReadsAtMostOnePageAhead() throws Exception {
+        final TestHistoryIterator iterator = new TestHistoryIterator(2000, Integer.MAX_VALUE, true);
+        iterator.prime();
+
+        // Nothing is consumed, so only the next page is read ahead
+        Thread.sleep(200);
+        assertEquals(2, iterator.getRequests().size());
+
+        iterator.close();
+    }
+
+    public void testCloseCancelsReadAhead() throws Exception {
+        final TestHistoryIterator iterator = new TestHistoryIterator(2000, Integer.MAX_VALUE, true);
+        iterator.releaseRequests = new CountDownLatch(1);
+        iterator.prime();
+
+        assertTrue(iterator.requestWaiting.await(10, TimeUnit.SECONDS));
+        iterator.close();
+        assertTrue(iterator.requestInterrupted.await(10, TimeUnit.SECONDS));
+
+        // The current page can still be consumed, but no more are requested
+        assertEquals(PAGE_SIZE, consume(iterator).size());
+        assertEquals(2, iterator.getRequests().size());
+
+        // Closing again does nothing
+        iterator.close();
+    }
+
+    public void testCloseStopsPaging() {
+        final TestHistoryIterator iterator = new TestHistoryIterator(2000, Integer.MAX_VALUE, false);
+        iterator.prime();
+        iterator.close();
+
+        assertEquals(PAGE_SIZE, consume(iterator).size());
+        assertEquals(1, iterator.getRequests().size());
+    }
+
+    public void testReadAheadErrorIsRethrown() {
+        final TestHistoryIterator iterator = new TestHistoryIterator(2000, Integer.MAX_VALUE, true);
+        iterator.requestException = new VersionControlException("test"); //$NON-NLS-1$
+
+        for (int i = 0; i < PAGE_SIZE; i++) {
+            iterator.next();
+        }
+
+        try {
+            iterator.hasNext();
+            fail();
+        } catch (final VersionControlException e) {
+            assertSame(iterator.requestException, e);
+        }
+    }
+
+    private static List<Integer> consume(final HistoryIterator iterator) {
+        final List<Integer> ids = new ArrayList<Integer>();
+        while (iterator.hasNext()) {
+            ids.add(iterator.next().getChangesetID());
+        }
+        return ids;
+    }
+}
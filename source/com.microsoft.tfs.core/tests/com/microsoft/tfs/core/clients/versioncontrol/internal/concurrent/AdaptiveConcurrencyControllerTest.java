@@ -0,0 +1,162 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the repository root.
+
+package com.microsoft.tfs.core.clients.versioncontrol.internal.concurrent;
+
+import java.util.concurrent.Executor;
+
+import junit.framework.TestCase;
+
+public class AdaptiveConcurrencyControllerTest extends TestCase {
+    private static final long WINDOW_NANOS = 2000 * 1000000L;
+
+    /**
+     * Runs nothing, and reports submitters waiting when it is told to, which
+     * makes windows saturated.
+     */
+    private static class TestExecutor extends BoundedExecutor {
+        public boolean saturated = true;
+
+        public TestExecutor(final int bound, final AdaptiveConcurrencyController controller) {
+            super(new Executor() {
+                @Override
+                public void execute(final Runnable command) {
+                }
+            }, bound, controller);
+        }
+
+        @Override
+        public int getWaitingCount() {
+            return saturated ? 1 : 0;
+        }
+    }
+
+    private AdaptiveConcurrencyController controller;
+    private TestExecutor executor;
+    private long now;
+
+    @Override
+    protected void setUp() throws Exception {
+        controller = new AdaptiveConcurrencyController("test", 2, 8); //$NON-NLS-1$
+        executor = new TestExecutor(4, controller);
+        now = 0;
+    }
+
+    public void testSaturatedWindowIncreasesLimit() {
+        completeWindow(4, WINDOW_NANOS / 4, 1000);
+        assertEquals(5, executor.getLimit());
+
+        // Throughput held, so the limit keeps growing
+        completeWindow(4, WINDOW_NANOS / 4, 1000);
+        assertEquals(6, executor.getLimit());
+    }
+
+    public void testUnsaturatedWindowKeepsLimit() {
+        executor.saturated = false;
+
+        completeWindow(4, WINDOW_NANOS / 4, 1000);
+        assertEquals(4, executor.getLimit());
+    }
+
+    public void testLimitGrowsToMax() {
+        for (int i = 0; i < 10; i++) {
+            completeWindow(4, WINDOW_NANOS / 4, 1000);
+        }
+        assertEquals(8, executor.getLimit());
+    }
+
+    public void testThroughputDropDecreasesLimit() {
+        completeWindow(4, WINDOW_NANOS / 4, 1000);
+        assertEquals(5, executor.getLimit());
+
+        // Half the bytes in the same time
+        completeWindow(4, WINDOW_NANOS / 4, 500);
+        assertEquals(3, executor.getLimit());
+
+        // The next window is compared with nothing, so it probes again
+        completeWindow(4, WINDOW_NANOS / 4, 100);
+        assertEquals(4, executor.getLimit());
+    }
+
+    public void testLatencyGrowthDecreasesLimit() {
+        completeWindow(4, WINDOW_NANOS / 4, 1000);
+        assertEquals(5, executor.getLimit());
+
+        // The same throughput, but each task takes three times as long
+        completeWindow(4, 3 * WINDOW_NANOS / 4, 1000);
+        assertEquals(3, executor.getLimit());
+    }
+
+    public void testLatencyGrowthWithBetterThroughputIncreasesLimit() {
+        completeWindow(4, WINDOW_NANOS / 4, 1000);
+        assertEquals(5, executor.getLimit());
+
+        completeWindow(4, 3 * WINDOW_NANOS / 4, 2000);
+        assertEquals(6, executor.getLimit());
+    }
+
+    public void testDecreaseStopsAtMin() {
+        completeWindow(4, WINDOW_NANOS / 4, 1000);
+        completeWindow(4, WINDOW_NANOS / 4, 100);
+        assertEquals(3, executor.getLimit());
+
+        executor.recordTransferFailure();
+        assertEquals(2, executor.getLimit());
+        completeWindow(4, WINDOW_NANOS / 4, 100);
+
+        completeWindow(4, WINDOW_NANOS / 4, 100);
+        assertEquals(3, executor.getLimit());
+
+        // 3 * 0.75 rounds down to the min
+        completeWindow(4, WINDOW_NANOS / 4, 10);
+        assertEquals(2, executor.getLimit());
+
+        executor.recordTransferFailure();
+        assertEquals(2, executor.getLimit());
+    }
+
+    public void testShortWindowIsExtended() {
+        // Three tasks aren't enough to end a window, however long they take
+        for (int i = 0; i < 3; i++) {
+            now += WINDOW_NANOS;
+            controller.taskCompleted(executor, WINDOW_NANOS, now);
+        }
+        assertEquals(4, executor.getLimit());
+
+        now += 1;
+        controller.taskCompleted(executor, 1, now);
+        assertEquals(5, executor.getLimit());
+    }
+
+    public void testTransferFailureDecreasesOncePerWindow() {
+        executor.setLimit(8);
+
+        executor.recordTransferFailure();
+        assertEquals(6, executor.getLimit());
+
+        executor.recordTransferFailure();
+        assertEquals(6, executor.getLimit());
+
+        // The window with the failure doesn't probe
+        completeWindow(4, WINDOW_NANOS / 4, 1000);
+        assertEquals(6, executor.getLimit());
+
+        executor.recordTransferFailure();
+        assertEquals(4, executor.getLimit());
+    }
+
+    /**
+     * Completes a window of tasks ending {@link #WINDOW_NANOS} after the last
+     * one ended.
+     */
+    private void completeWindow(final int tasks, final long taskNanos, final long bytesPerTask) {
+        final long start = now;
+
+        for (int i = 1; i <= tasks; i++) {
+            executor.recordBytesTransferred(bytesPerTask);
+
+            now = start + WINDOW_NANOS * i / tasks;
+            controller.taskCompleted(executor, taskNanos, now);
+        }
+    }
+}
@@ -0,0 +1,130 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the repository root.
+
+package com.microsoft.tfs.core.clients.versioncontrol.internal.concurrent;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+public class BoundedExecutorTest extends TestCase {
+    private ExecutorService pool;
+
+    @Override
+    protected void setUp() throws Exception {
+        pool = Executors.newCachedThreadPool();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        pool.shutdownNow();
+    }
+
+    public void testLimitBoundsRunningTasks() throws Exception {
+        final BoundedExecutor executor = new BoundedExecutor(pool, 2);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger maxRunning = new AtomicInteger();
+        final AtomicInteger running = new AtomicInteger();
+
+        final Thread submitter = submit(executor, 5, release, running, maxRunning);
+
+        waitForActive(executor, 2);
+        assertEquals(1, executor.getWaitingCount());
+
+        release.countDown();
+        submitter.join(10000);
+
+        assertEquals(2, maxRunning.get());
+    }
+
+    public void testRaiseLimitReleasesWaiter() throws Exception {
+        final BoundedExecutor executor = new BoundedExecutor(pool, 1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger maxRunning = new AtomicInteger();
+        final AtomicInteger running = new AtomicInteger();
+
+        final Thread submitter = submit(executor, 3, release, running, maxRunning);
+
+        waitForActive(executor, 1);
+        executor.setLimit(3);
+        waitForActive(executor, 3);
+
+        assertEquals(3, executor.getLimit());
+
+        release.countDown();
+        submitter.join(10000);
+    }
+
+    public void testLowerLimitTakesEffectAsTasksFinish() throws Exception {
+        final BoundedExecutor executor = new BoundedExecutor(pool, 3);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger maxRunning = new AtomicInteger();
+        final AtomicInteger running = new AtomicInteger();
+
+        Thread submitter = submit(executor, 3, release, running, maxRunning);
+        waitForActive(executor, 3);
+
+        executor.setLimit(1);
+        assertEquals(1, executor.getLimit());
+
+        release.countDown();
+        submitter.join(10000);
+        waitForActive(executor, 0);
+
+        // Only one of the next tasks runs at a time
+        maxRunning.set(0);
+        submitter = submit(executor, 4, new CountDownLatch(0), running, maxRunning);
+        submitter.join(10000);
+        waitForActive(executor, 0);
+
+        assertEquals(1, maxRunning.get());
+    }
+
+    private Thread submit(
+        final BoundedExecutor executor,
+        final int count,
+        final CountDownLatch release,
+        final AtomicInteger running,
+        final AtomicInteger maxRunning) {
+        final Thread submitter = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < count; i++) {
+                    executor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            final int now = running.incrementAndGet();
+                            synchronized (maxRunning) {
+                                maxRunning.set(Math.max(maxRunning.get(), now));
+                            }
+
+                            try {
+                                release.await(10, TimeUnit.SECONDS);
+                                Thread.sleep(5);
+                            } catch (final InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                            } finally {
+                                running.decrementAndGet();
+                            }
+                        }
+                    });
+                }
+            }
+        });
+
+        submitter.start();
+        return submitter;
+    }
+
+    private void waitForActive(final BoundedExecutor executor, final int count) throws InterruptedException {
+        for (int i = 0; i < 1000 && executor.getActiveCount() != count; i++) {
+            Thread.sleep(10);
+        }
+
+        assertEquals(count, executor.getActiveCount());
+    }
+}
@@ -5,6 +5,7 @@ package com.microsoft.tfs.core.clients.versioncontrol.localworkspace;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Arrays;
@@ -416,6 +417,91 @@ public class BinaryReaderWriterTests extends TestCase {
         Assert.assertEquals((byte) 0x11, br.readByte());
     }
 
+    public void testReadWriteNonAsciiString() throws IOException {
+        final ByteArrayOutputStream os = new ByteArrayOutputStream();
+        final BinaryWriter bw = new BinaryWriter(os, CHARSET);
+
+        final String s = "\u00e9t\u00e9 \u4e2d\u6587 \ud83d\ude00"; //$NON-NLS-1$
+        bw.write(s);
+        bw.close();
+
+        final InputStream is = new ByteArrayInputStream(os.toByteArray());
+        final BinaryReader br = new BinaryReader(is, CHARSET);
+
+        Assert.assertEquals(s, br.readString());
+        br.close();
+    }
+
+    public void testReadWriteValuesSpanningBuffers() throws IOException {
+        final ByteArrayOutputStream os = new ByteArrayOutputStream();
+        final BinaryWriter bw = new BinaryWriter(os, CHARSET);
+
+        // Enough rows that values straddle the reader's buffer boundaries
+        for (int i = 0; i < 20000; i++) {
+            bw.write((byte) i);
+            bw.write("$/Project/Folder/File" + i + ".txt"); //$NON-NLS-1$ //$NON-NLS-2$
+            bw.write(i);
+            bw.write((long) i << 32);
+            bw.write(bytes1);
+        }
+        bw.close();
+
+        final InputStream is = new ByteArrayInputStream(os.toByteArray());
+        final BinaryReader br = new BinaryReader(is, CHARSET);
+
+        for (int i = 0; i < 20000; i++) {
+            Assert.assertEquals((byte) i, br.readByte());
+            Assert.assertEquals("$/Project/Folder/File" + i + ".txt", br.readString()); //$NON-NLS-1$ //$NON-NLS-2$
+            Assert.assertEquals(i, br.readInt32());
+            Assert.assertEquals((long) i << 32, br.readInt64());
+            Assert.assertTrue(Arrays.equals(bytes1, br.readBytes(bytes1.length)));
+        }
+        Assert.assertTrue(br.isEOF());
+        br.close();
+    }
+
+    public void testReadFromStreamWithShortReads() throws IOException {
+        final ByteArrayOutputStream os = new ByteArrayOutputStream();
+        final BinaryWriter bw = new BinaryWriter(os, CHARSET);
+
+        final String big = createCharString(150000);
+        bw.write(0x11223344);
+        bw.write(big);
+        bw.write(0x1122334455667788L);
+        bw.close();
+
+        // Returns at most three bytes from each read
+        final InputStream is = new ByteArrayInputStream(os.toByteArray()) {
+            @Override
+            public synchronized int read(final byte[] b, final int off, final int len) {
+                return super.read(b, off, Math.min(len, 3));
+            }
+        };
+        final BinaryReader br = new BinaryReader(is, CHARSET);
+
+        Assert.assertEquals(0x11223344, br.readInt32());
+        Assert.assertEquals(big, br.readString());
+        Assert.assertEquals(0x1122334455667788L, br.readInt64());
+        Assert.assertTrue(br.isEOF());
+        br.close();
+    }
+
+    public void testReadPastEOF() throws IOException {
+        final InputStream is = new ByteArrayInputStream(new byte[] {
+            0x01,
+            0x02
+        });
+        final BinaryReader br = new BinaryReader(is, CHARSET);
+
+        try {
+            br.readInt32();
+            fail("Expected EOFException"); //$NON-NLS-1$
+        } catch (final EOFException e) {
+            // Expected
+        }
+        br.close();
+    }
+
     private String createCharString(final int length) {
         final StringBuilder sb = new StringBuilder();
         for (int i = 0; i < length / 10; i++) {
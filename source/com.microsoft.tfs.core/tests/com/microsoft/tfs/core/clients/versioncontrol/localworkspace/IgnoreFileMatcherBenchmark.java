@@ -0,0 +1,209 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the repository root.
+
+package com.microsoft.tfs.core.clients.versioncontrol.localworkspace;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Simple benchmark harness for .tfignore matching. Enumerates every item
+ * under a directory, then times three ways of deciding which are excluded:
+ * testing every entry against every path part (how {@link IgnoreFile} used to
+ * match), the compiled {@link IgnoreFileMatcher}, and the compiled matcher
+ * with the parent directory's result remembered (as
+ * {@link LocalItemExclusionEvaluator} does). All three must exclude the same
+ * items.
+ */
+public class IgnoreFileMatcherBenchmark {
+    private static final int ROUNDS = 5;
+
+    /**
+     * Used when no .tfignore file is given: typical global exclusions and
+     * .tfignore entries, with a few wildcard patterns which need the automaton.
+     */
+    private static final String[] DEFAULT_PATTERNS = new String[] {
+        "*.user", //$NON-NLS-1$
+        "*.suo", //$NON-NLS-1$
+        "*.tmp", //$NON-NLS-1$
+        "*.log", //$NON-NLS-1$
+        "*.cache", //$NON-NLS-1$
+        "*.bak", //$NON-NLS-1$
+        "*.orig", //$NON-NLS-1$
+        "*.pyc", //$NON-NLS-1$
+        "*.o", //$NON-NLS-1$
+        "*.class", //$NON-NLS-1$
+        "*~", //$NON-NLS-1$
+        "~$*", //$NON-NLS-1$
+        "bin/", //$NON-NLS-1$
+        "obj/", //$NON-NLS-1$
+        "target/", //$NON-NLS-1$
+        "packages/", //$NON-NLS-1$
+        "node_modules/", //$NON-NLS-1$
+        "Thumbs.db", //$NON-NLS-1$
+        "Debug*", //$NON-NLS-1$
+        "*.g?.*", //$NON-NLS-1$
+        "lib*.so.?", //$NON-NLS-1$
+        "*test?.*", //$NON-NLS-1$
+        "!*.so.1", //$NON-NLS-1$
+        "!keep.log" //$NON-NLS-1$
+    };
+
+    private static class Item {
+        public final String path;
+        public final boolean isFolder;
+
+        public Item(final String path, final boolean isFolder) {
+            this.path = path;
+            this.isFolder = isFolder;
+        }
+    }
+
+    public static void main(final String[] args) throws IOException {
+        if (args.length < 1 || args.length > 2) {
+            System.err.println("usage: " //$NON-NLS-1$
+                + IgnoreFileMatcherBenchmark.class.getName()
+                + " <directory> [<.tfignore file>]"); //$NON-NLS-1$
+            System.exit(-1);
+        }
+
+        final String root = new File(args[0]).getCanonicalPath();
+        final String[] patterns = args.length > 1 ? readLines(args[1]) : DEFAULT_PATTERNS;
+
+        final List<Item> items = new ArrayList<Item>();
+        enumerate(new File(root), items);
+
+        final IgnoreFile ignoreFile = IgnoreFile.load(root, patterns);
+        final List<IgnoreEntry> entries = new ArrayList<IgnoreEntry>();
+        for (int i = 0; i < ignoreFile.getEntryCount(); i++) {
+            entries.add(ignoreFile.getEntry(i));
+        }
+
+        System.out.println(MessageFormat.format(
+            "{0} items, {1} entries", //$NON-NLS-1$
+            items.size(),
+            entries.size()));
+
+        final Boolean[] expected = new Boolean[items.size()];
+        final Boolean[] compiled = new Boolean[items.size()];
+        final Boolean[] memoized = new Boolean[items.size()];
+
+        long entryByEntryNanos = Long.MAX_VALUE;
+        long compiledNanos = Long.MAX_VALUE;
+        long memoizedNanos = Long.MAX_VALUE;
+
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            final AtomicReference<String> exclusion = new AtomicReference<String>();
+            for (int i = 0; i < items.size(); i++) {
+                final Item item = items.get(i);
+                expected[i] =
+                    IgnoreFileTests.isExcludedEntryByEntry(entries, item.path, item.isFolder, root, exclusion);
+            }
+            entryByEntryNanos = Math.min(entryByEntryNanos, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            for (int i = 0; i < items.size(); i++) {
+                final Item item = items.get(i);
+                compiled[i] = ignoreFile.isExcluded(item.path, item.isFolder, root, null);
+            }
+            compiledNanos = Math.min(compiledNanos, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            final Map<String, Integer> parentEntries = new HashMap<String, Integer>();
+            for (int i = 0; i < items.size(); i++) {
+                final Item item = items.get(i);
+                final int leafIndex = item.path.lastIndexOf(File.separatorChar) + 1;
+                final String parent = item.path.substring(0, leafIndex);
+
+                Integer parentEntry = parentEntries.get(parent);
+                if (parentEntry == null) {
+                    parentEntry = ignoreFile.findDecidingEntry(item.path, item.isFolder, root, 0, leafIndex);
+                    parentEntries.put(parent, parentEntry);
+                }
+
+                final int decidingEntry = Math.max(
+                    parentEntry.intValue(),
+                    ignoreFile.findDecidingEntry(item.path, item.isFolder, root, leafIndex, item.path.length()));
+
+                memoized[i] = decidingEntry < 0 ? null : ignoreFile.getEntry(decidingEntry).isExcluded;
+            }
+            memoizedNanos = Math.min(memoizedNanos, System.nanoTime() - start);
+        }
+
+        int excludedCount = 0;
+        for (int i = 0; i < items.size(); i++) {
+            if (!equal(expected[i], compiled[i]) || !equal(expected[i], memoized[i])) {
+                System.err.println(MessageFormat.format(
+                    "Mismatch for {0}: {1} entry by entry, {2} compiled, {3} memoized", //$NON-NLS-1$
+                    items.get(i).path,
+                    expected[i],
+                    compiled[i],
+                    memoized[i]));
+                System.exit(1);
+            }
+
+            if (Boolean.TRUE.equals(expected[i])) {
+                excludedCount++;
+            }
+        }
+
+        System.out.println(MessageFormat.format("{0} excluded", excludedCount)); //$NON-NLS-1$
+        System.out.println(MessageFormat.format(
+            "best of {0}: entry by entry {1} ms, compiled {2} ms, compiled and memoized {3} ms", //$NON-NLS-1$
+            ROUNDS,
+            entryByEntryNanos / 1000000,
+            compiledNanos / 1000000,
+            memoizedNanos / 1000000));
+    }
+
+    /**
+     * Adds every item under the given directory (not following symbolic
+     * links) to the list, each directory before its children.
+     */
+    private static void enumerate(final File directory, final List<Item> items) throws IOException {
+        final File[] children = directory.listFiles();
+        if (children == null) {
+            return;
+        }
+
+        for (final File child : children) {
+            final boolean isFolder =
+                child.isDirectory() && child.getCanonicalPath().equals(child.getAbsolutePath());
+
+            items.add(new Item(child.getAbsolutePath(), isFolder));
+
+            if (isFolder) {
+                enumerate(child, items);
+            }
+        }
+    }
+
+    private static String[] readLines(final String fileName) throws IOException {
+        final List<String> lines = new ArrayList<String>();
+        final BufferedReader reader = new BufferedReader(new FileReader(fileName));
+
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines.add(line);
+            }
+        } finally {
+            reader.close();
+        }
+
+        return lines.toArray(new String[lines.size()]);
+    }
+
+    private static boolean equal(final Boolean a, final Boolean b) {
+        return a == null ? b == null : a.equals(b);
+    }
+}
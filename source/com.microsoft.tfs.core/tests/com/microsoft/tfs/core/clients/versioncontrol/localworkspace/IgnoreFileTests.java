@@ -0,0 +1,246 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the repository root.
+
+package com.microsoft.tfs.core.clients.versioncontrol.localworkspace;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.microsoft.tfs.core.clients.versioncontrol.path.ItemPath;
+import com.microsoft.tfs.core.clients.versioncontrol.path.LocalPath;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+public class IgnoreFileTests extends TestCase {
+    private static final String ROOT = File.separator + "ws"; //$NON-NLS-1$
+
+    private static final String[] NAME_PARTS = new String[] {
+        "bin", //$NON-NLS-1$
+        "Bin", //$NON-NLS-1$
+        "obj", //$NON-NLS-1$
+        "a", //$NON-NLS-1$
+        "b.", //$NON-NLS-1$
+        ".", //$NON-NLS-1$
+        ".txt", //$NON-NLS-1$
+        ".TXT", //$NON-NLS-1$
+        "x", //$NON-NLS-1$
+        "log" //$NON-NLS-1$
+    };
+
+    private static final String[] PATTERN_PARTS = new String[] {
+        "*", //$NON-NLS-1$
+        "?", //$NON-NLS-1$
+        ".", //$NON-NLS-1$
+        "bin", //$NON-NLS-1$
+        "a", //$NON-NLS-1$
+        "txt", //$NON-NLS-1$
+        "x", //$NON-NLS-1$
+        "LOG" //$NON-NLS-1$
+    };
+
+    public void testLastMatchingEntryDecides() {
+        final IgnoreFile ignoreFile = IgnoreFile.load(ROOT, new String[] {
+            "*.txt", //$NON-NLS-1$
+            "!keep.txt", //$NON-NLS-1$
+            "bin\\", //$NON-NLS-1$
+            "\\top.log" //$NON-NLS-1$
+        });
+
+        assertExcluded(ignoreFile, path("a", "b.TXT"), false, Boolean.TRUE, ROOT + File.separator + "*.txt"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+        assertExcluded(ignoreFile, path("a", "keep.txt"), false, Boolean.FALSE, ROOT + File.separator + "keep.txt"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+
+        // Inclusions only apply to the last path part
+        assertExcluded(ignoreFile, path("keep.txt", "c"), false, Boolean.TRUE, ROOT + File.separator + "*.txt"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+
+        // Folder only
+        assertExcluded(ignoreFile, path("a", "bin"), false, null, null); //$NON-NLS-1$ //$NON-NLS-2$
+        assertExcluded(ignoreFile, path("a", "bin"), true, Boolean.TRUE, ROOT + File.separator + "bin"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+        assertExcluded(ignoreFile, path("bin", "c"), false, Boolean.TRUE, ROOT + File.separator + "bin"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+
+        // Not recursive
+        assertExcluded(ignoreFile, path("top.log"), false, Boolean.TRUE, ROOT + File.separator + "top.log"); //$NON-NLS-1$ //$NON-NLS-2$
+        assertExcluded(ignoreFile, path("a", "top.log"), false, null, null); //$NON-NLS-1$ //$NON-NLS-2$
+    }
+
+    public void testWildcardAutomatonMatchesItemPath() {
+        final Random random = new Random(1);
+
+        for (int round = 0; round < 200; round++) {
+            final String[] patterns = new String[1 + random.nextInt(8)];
+            for (int p = 0; p < patterns.length; p++) {
+                patterns[p] = randomString(random, PATTERN_PARTS, 4);
+            }
+
+            final WildcardAutomaton automaton = new WildcardAutomaton(patterns);
+
+            for (int n = 0; n < 50; n++) {
+                final String name = randomString(random, NAME_PARTS, 3);
+                final boolean[] matches = new boolean[patterns.length];
+                automaton.match(name, matches);
+
+                for (int p = 0; p < patterns.length; p++) {
+                    Assert.assertEquals(
+                        "\"" + name + "\" against \"" + patterns[p] + "\"", //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+                        ItemPath.matchesWildcardFile(name, patterns[p]),
+                        matches[p]);
+                }
+            }
+        }
+    }
+
+    public void testCompiledMatchesEntryByEntry() {
+        final Random random = new Random(2);
+
+        for (int round = 0; round < 200; round++) {
+            final List<String> lines = new ArrayList<String>();
+            final int count = 1 + random.nextInt(12);
+
+            for (int i = 0; i < count; i++) {
+                String line = randomString(random, random.nextBoolean() ? NAME_PARTS : PATTERN_PARTS, 3);
+
+                if (random.nextInt(4) == 0) {
+                    line = randomString(random, NAME_PARTS, 1) + "/" + line; //$NON-NLS-1$
+                }
+                if (random.nextInt(4) == 0) {
+                    line = "/" + line; //$NON-NLS-1$
+                }
+                if (random.nextInt(4) == 0) {
+                    line = line + "/"; //$NON-NLS-1$
+                }
+                if (random.nextInt(3) == 0) {
+                    line = "!" + line; //$NON-NLS-1$
+                }
+
+                lines.add(line);
+            }
+
+            final IgnoreFile ignoreFile = IgnoreFile.load(ROOT, lines.toArray(new String[lines.size()]));
+
+            final List<IgnoreEntry> entries = new ArrayList<IgnoreEntry>();
+            for (int i = 0; i < ignoreFile.getEntryCount(); i++) {
+                entries.add(ignoreFile.getEntry(i));
+            }
+
+            for (int n = 0; n < 50; n++) {
+                final String[] parts = new String[1 + random.nextInt(4)];
+                for (int p = 0; p < parts.length; p++) {
+                    parts[p] = randomString(random, NAME_PARTS, 2);
+                }
+
+                final String path = path(parts);
+                final boolean isFolder = random.nextBoolean();
+
+                final AtomicReference<String> expectedExclusion = new AtomicReference<String>();
+                final Boolean expected = isExcludedEntryByEntry(entries, path, isFolder, ROOT, expectedExclusion);
+
+                assertExcluded(ignoreFile, path, isFolder, expected, expectedExclusion.get());
+
+                // Matching the parent's parts and the last part separately
+                final int leafIndex = path.lastIndexOf(File.separatorChar) + 1;
+                final int decidingEntry = Math.max(
+                    ignoreFile.findDecidingEntry(path, isFolder, ROOT, 0, leafIndex),
+                    ignoreFile.findDecidingEntry(path, isFolder, ROOT, leafIndex, path.length()));
+
+                Assert.assertEquals(
+                    path,
+                    expected,
+                    decidingEntry < 0 ? null : Boolean.valueOf(ignoreFile.getEntry(decidingEntry).isExcluded));
+            }
+        }
+    }
+
+    private static void assertExcluded(
+        final IgnoreFile ignoreFile,
+        final String path,
+        final boolean isFolder,
+        final Boolean expected,
+        final String expectedExclusion) {
+        final AtomicReference<String> exclusion = new AtomicReference<String>();
+
+        Assert.assertEquals(path, expected, ignoreFile.isExcluded(path, isFolder, ROOT, exclusion));
+        Assert.assertEquals(path, expectedExclusion, exclusion.get());
+    }
+
+    /**
+     * Tests every entry against every path part, the simple way.
+     */
+    static Boolean isExcludedEntryByEntry(
+        final List<IgnoreEntry> entries,
+        final String path,
+        final boolean isFolder,
+        final String startPath,
+        final AtomicReference<String> exclusion) {
+        Boolean result = null;
+
+        for (final IgnoreEntry entry : entries) {
+            int i = startPath.length() + 1;
+            int k = Integer.MAX_VALUE;
+
+            if (entry.path != null) {
+                if (!LocalPath.isChild(entry.path, path)) {
+                    continue;
+                }
+                k = entry.path.length() + 1;
+                i = Math.max(i, k);
+            }
+
+            while (i < path.length()) {
+                if (!entry.isRecursive && i > k) {
+                    break;
+                }
+
+                int j = path.indexOf(File.separatorChar, i);
+                if (j < 0) {
+                    j = path.length();
+                }
+
+                if (entry.isFolderOnly && !isFolder && j == path.length()) {
+                    break;
+                }
+
+                final String part = path.substring(i, j);
+                final boolean match;
+
+                if (entry.isEndsWith) {
+                    match = part.toLowerCase().endsWith(entry.pattern.toLowerCase());
+                } else if (entry.isStartsWith) {
+                    match = part.toLowerCase().startsWith(entry.pattern.toLowerCase());
+                } else if (entry.isComplex) {
+                    match = ItemPath.matchesWildcardFile(part, entry.pattern);
+                } else {
+                    match = part.equalsIgnoreCase(entry.pattern);
+                }
+
+                if (match && (entry.isExcluded || j == path.length())) {
+                    result = Boolean.valueOf(entry.isExcluded);
+                    exclusion.set(entry.originalExclusion);
+                }
+
+                i = j + 1;
+            }
+        }
+
+        return result;
+    }
+
+    private static String path(final String... parts) {
+        final StringBuilder path = new StringBuilder(ROOT);
+        for (final String part : parts) {
+            path.append(File.separatorChar).append(part);
+        }
+        return path.toString();
+    }
+
+    private static String randomString(final Random random, final String[] parts, final int maxParts) {
+        final StringBuilder s = new StringBuilder();
+        final int count = 1 + random.nextInt(maxParts);
+        for (int i = 0; i < count; i++) {
+            s.append(parts[random.nextInt(parts.length)]);
+        }
+        return s.toString();
+    }
+}
@@ -0,0 +1,212 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the repository root.
+
+package com.microsoft.tfs.core.clients.versioncontrol.localworkspace;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.microsoft.tfs.core.clients.versioncontrol.internal.localworkspace.LocalMetadataTableLog;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+public class LocalMetadataTableLogTests extends TestCase {
+    private static final long ID = 0x1122334455667788L;
+
+    private File directory;
+    private String filename;
+
+    @Override
+    protected void setUp() throws Exception {
+        directory = File.createTempFile("LocalMetadataTableLogTests", ""); //$NON-NLS-1$ //$NON-NLS-2$
+        directory.delete();
+        directory.mkdir();
+
+        filename = new File(directory, "localversion").getAbsolutePath(); //$NON-NLS-1$
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        new File(LocalMetadataTable.getLogPath(filename)).delete();
+        directory.delete();
+    }
+
+    public void testReadMissingLog() throws IOException {
+        final List<byte[]> records = new ArrayList<byte[]>();
+
+        Assert.assertEquals(0, new LocalMetadataTableLog(filename).read(ID, records));
+        Assert.assertTrue(records.isEmpty());
+    }
+
+    public void testAppendAndRead() throws IOException {
+        final LocalMetadataTableLog log = new LocalMetadataTableLog(filename);
+
+        long length = log.append(ID, 0, new byte[] {
+            1,
+            2,
+            3
+        });
+        length = log.append(ID, length, new byte[0]);
+        length = log.append(ID, length, new byte[] {
+            4
+        });
+
+        Assert.assertEquals(new File(LocalMetadataTable.getLogPath(filename)).length(), length);
+
+        final List<byte[]> records = new ArrayList<byte[]>();
+        Assert.assertEquals(length, log.read(ID, records));
+        Assert.assertEquals(3, records.size());
+        Assert.assertTrue(Arrays.equals(new byte[] {
+            1,
+            2,
+            3
+        }, records.get(0)));
+        Assert.assertEquals(0, records.get(1).length);
+        Assert.assertTrue(Arrays.equals(new byte[] {
+            4
+        }, records.get(2)));
+    }
+
+    public void testLogWithDifferentIDIsIgnored() throws IOException {
+        final LocalMetadataTableLog log = new LocalMetadataTableLog(filename);
+        log.append(ID, 0, new byte[] {
+            1
+        });
+
+        final List<byte[]> records = new ArrayList<byte[]>();
+        Assert.assertEquals(0, log.read(ID + 1, records));
+        Assert.assertTrue(records.isEmpty());
+    }
+
+    public void testTornRecordIsIgnoredAndOverwritten() throws IOException {
+        final LocalMetadataTableLog log = new LocalMetadataTableLog(filename);
+        final long validLength = log.append(ID, 0, new byte[] {
+            1
+        });
+        log.append(ID, validLength, new byte[] {
+            2,
+            2,
+            2,
+            2
+        });
+
+        // Cut the second record short, as a crash during the write would
+        final RandomAccessFile raf = new RandomAccessFile(LocalMetadataTable.getLogPath(filename), "rw"); //$NON-NLS-1$
+        raf.setLength(raf.length() - 2);
+        raf.close();
+
+        List<byte[]> records = new ArrayList<byte[]>();
+        Assert.assertEquals(validLength, log.read(ID, records));
+        Assert.assertEquals(1, records.size());
+
+        // The next append replaces the torn record
+        log.append(ID, validLength, new byte[] {
+            3
+        });
+
+        records = log.read(ID);
+        Assert.assertEquals(2, records.size());
+        Assert.assertTrue(Arrays.equals(new byte[] {
+            3
+        }, records.get(1)));
+    }
+
+    public void testCorruptRecordIsIgnored() throws IOException {
+        final LocalMetadataTableLog log = new LocalMetadataTableLog(filename);
+        final long validLength = log.append(ID, 0, new byte[] {
+            1
+        });
+        log.append(ID, validLength, new byte[] {
+            2
+        });
+
+        // Flip the second record's payload byte
+        final RandomAccessFile raf = new RandomAccessFile(LocalMetadataTable.getLogPath(filename), "rw"); //$NON-NLS-1$
+        raf.seek(validLength + 4);
+        raf.write(9);
+        raf.close();
+
+        Assert.assertEquals(1, log.read(ID).size());
+    }
+
+    public void testReadLastRecord() throws IOException {
+        final LocalMetadataTableLog log = new LocalMetadataTableLog(filename);
+        Assert.assertNull(log.readLastRecord(ID));
+
+        long length = log.reset(ID);
+        Assert.assertNull(log.readLastRecord(ID));
+
+        length = log.append(ID, length, new byte[] {
+            1,
+            2,
+            3
+        });
+        log.append(ID, length, new byte[] {
+            4,
+            5
+        });
+
+        Assert.assertTrue(Arrays.equals(new byte[] {
+            4,
+            5
+        }, log.readLastRecord(ID)));
+        Assert.assertNull(log.readLastRecord(ID + 1));
+    }
+
+    public void testReadLastRecordSkipsTornAndCorruptRecords() throws IOException {
+        final LocalMetadataTableLog log = new LocalMetadataTableLog(filename);
+        long length = log.append(ID, 0, new byte[] {
+            1
+        });
+        final long secondRecordOffset = length;
+        length = log.append(ID, length, new byte[] {
+            2
+        });
+        log.append(ID, length, new byte[] {
+            3,
+            3,
+            3,
+            3
+        });
+
+        // Cut the third record short
+        final RandomAccessFile raf = new RandomAccessFile(LocalMetadataTable.getLogPath(filename), "rw"); //$NON-NLS-1$
+        raf.setLength(raf.length() - 2);
+        Assert.assertTrue(Arrays.equals(new byte[] {
+            2
+        }, log.readLastRecord(ID)));
+
+        // Flip the second record's payload byte
+        raf.seek(secondRecordOffset + 4);
+        raf.write(9);
+        raf.close();
+        Assert.assertTrue(Arrays.equals(new byte[] {
+            1
+        }, log.readLastRecord(ID)));
+    }
+
+    public void testReset() throws IOException {
+        final LocalMetadataTableLog log = new LocalMetadataTableLog(filename);
+        log.append(ID, 0, new byte[] {
+            1
+        });
+
+        final long length = log.reset(ID + 1);
+
+        Assert.assertTrue(log.read(ID).isEmpty());
+        Assert.assertTrue(log.read(ID + 1).isEmpty());
+
+        log.append(ID + 1, length, new byte[] {
+            2
+        });
+        Assert.assertEquals(1, log.read(ID + 1).size());
+
+        log.delete();
+        Assert.assertFalse(new File(LocalMetadataTable.getLogPath(filename)).exists());
+    }
+}
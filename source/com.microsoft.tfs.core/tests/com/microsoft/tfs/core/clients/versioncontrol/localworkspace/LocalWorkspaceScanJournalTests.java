@@ -0,0 +1,277 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the repository root.
+
+package com.microsoft.tfs.core.clients.versioncontrol.localworkspace;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.microsoft.tfs.core.clients.versioncontrol.exceptions.InvalidScanJournalException;
+import com.microsoft.tfs.core.clients.versioncontrol.exceptions.VersionControlException;
+import com.microsoft.tfs.core.clients.versioncontrol.internal.localworkspace.LocalWorkspaceScanJournal;
+import com.microsoft.tfs.core.clients.versioncontrol.internal.localworkspace.LocalWorkspaceScanJournal.DirectoryState;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+public class LocalWorkspaceScanJournalTests extends TestCase {
+    private File directory;
+    private String filename;
+
+    /**
+     * Exposes the table's streams, and releases the table lock without saving
+     * (a full close needs the native file system utilities).
+     */
+    private static class TestJournal extends LocalWorkspaceScanJournal {
+        public TestJournal(final String filename) throws IOException {
+            super(filename);
+        }
+
+        public byte[] saveToBytes() throws IOException {
+            final ByteArrayOutputStream os = new ByteArrayOutputStream();
+            save(os);
+            return os.toByteArray();
+        }
+
+        public void loadFromBytes(final byte[] bytes) {
+            load(new ByteArrayInputStream(bytes));
+        }
+
+        public boolean isJournalDirty() {
+            return isDirty();
+        }
+
+        public void release() throws IOException {
+            close(false);
+        }
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        directory = File.createTempFile("LocalWorkspaceScanJournalTests", ""); //$NON-NLS-1$ //$NON-NLS-2$
+        directory.delete();
+        directory.mkdir();
+
+        filename = new File(directory, "scanjournal").getAbsolutePath(); //$NON-NLS-1$
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        new File(LocalMetadataTable.getSlotOnePath(filename)).delete();
+        new File(LocalMetadataTable.getSlotTwoPath(filename)).delete();
+        new File(LocalMetadataTable.getSlotThreePath(filename)).delete();
+        new File(LocalMetadataTable.getLogPath(filename)).delete();
+
+        final File[] files = directory.listFiles();
+        if (files != null) {
+            for (final File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    public void testNewJournalIsEmpty() throws IOException {
+        final TestJournal journal = new TestJournal(filename);
+        try {
+            Assert.assertFalse(journal.hasScanState());
+            Assert.assertNull(journal.getSignature());
+            Assert.assertTrue(journal.getDirectories().isEmpty());
+            Assert.assertTrue(journal.getIgnoreFiles().isEmpty());
+            Assert.assertFalse(journal.isJournalDirty());
+        } finally {
+            journal.release();
+        }
+    }
+
+    public void testSaveAndLoad() throws IOException {
+        final TestJournal journal = new TestJournal(filename);
+        final byte[] bytes;
+        try {
+            setScanState(journal);
+            Assert.assertTrue(journal.isJournalDirty());
+            bytes = journal.saveToBytes();
+        } finally {
+            journal.release();
+        }
+
+        final TestJournal loaded = new TestJournal(filename);
+        try {
+            loaded.loadFromBytes(bytes);
+            assertScanState(loaded);
+        } finally {
+            loaded.release();
+        }
+    }
+
+    public void testConstructorLoadsSavedJournal() throws IOException {
+        final TestJournal journal = new TestJournal(filename);
+        try {
+            setScanState(journal);
+            writeSlotOne(journal.saveToBytes());
+        } finally {
+            journal.release();
+        }
+
+        // The loaded directories and ignore files must survive initialization
+        final TestJournal loaded = new TestJournal(filename);
+        try {
+            assertScanState(loaded);
+            Assert.assertFalse(loaded.isJournalDirty());
+        } finally {
+            loaded.release();
+        }
+    }
+
+    public void testClear() throws IOException {
+        final TestJournal journal = new TestJournal(filename);
+        final byte[] bytes;
+        try {
+            setScanState(journal);
+            journal.clear();
+
+            Assert.assertFalse(journal.hasScanState());
+            Assert.assertEquals(0, journal.getHighWaterMark());
+            Assert.assertTrue(journal.getDirectories().isEmpty());
+            Assert.assertTrue(journal.getIgnoreFiles().isEmpty());
+
+            bytes = journal.saveToBytes();
+        } finally {
+            journal.release();
+        }
+
+        final TestJournal loaded = new TestJournal(filename);
+        try {
+            loaded.loadFromBytes(bytes);
+            Assert.assertFalse(loaded.hasScanState());
+            Assert.assertTrue(loaded.getDirectories().isEmpty());
+        } finally {
+            loaded.release();
+        }
+    }
+
+    public void testClearEmptyJournalIsNotDirty() throws IOException {
+        final TestJournal journal = new TestJournal(filename);
+        try {
+            journal.clear();
+            Assert.assertFalse(journal.isJournalDirty());
+        } finally {
+            journal.release();
+        }
+    }
+
+    public void testSetScanStateReplacesContents() throws IOException {
+        final TestJournal journal = new TestJournal(filename);
+        try {
+            setScanState(journal);
+
+            final Map<String, DirectoryState> directories = new HashMap<String, DirectoryState>();
+            directories.put("/w/other", new DirectoryState(7, 8)); //$NON-NLS-1$
+            journal.setScanState(300, "sig2", directories, new HashMap<String, Long>()); //$NON-NLS-1$
+
+            Assert.assertEquals(300, journal.getHighWaterMark());
+            Assert.assertEquals("sig2", journal.getSignature()); //$NON-NLS-1$
+            Assert.assertEquals(1, journal.getDirectories().size());
+            Assert.assertTrue(journal.getDirectories().containsKey("/w/other")); //$NON-NLS-1$
+            Assert.assertTrue(journal.getIgnoreFiles().isEmpty());
+        } finally {
+            journal.release();
+        }
+    }
+
+    public void testBadMagicIsRejected() throws IOException {
+        final TestJournal journal = new TestJournal(filename);
+        try {
+            journal.loadFromBytes(new byte[] {
+                0,
+                0,
+                1,
+                0
+            });
+            Assert.fail("expected InvalidScanJournalException"); //$NON-NLS-1$
+        } catch (final InvalidScanJournalException e) {
+            // expected
+        } finally {
+            journal.release();
+        }
+    }
+
+    public void testUnknownSchemaIsRejected() throws IOException {
+        final TestJournal journal = new TestJournal(filename);
+        try {
+            final byte[] bytes = journal.saveToBytes();
+            // Magic is two bytes, followed by the schema version
+            bytes[2] = 99;
+            journal.loadFromBytes(bytes);
+            Assert.fail("expected InvalidScanJournalException"); //$NON-NLS-1$
+        } catch (final InvalidScanJournalException e) {
+            // expected
+        } finally {
+            journal.release();
+        }
+    }
+
+    public void testTruncatedJournalIsRejected() throws IOException {
+        final TestJournal journal = new TestJournal(filename);
+        try {
+            setScanState(journal);
+            final byte[] bytes = journal.saveToBytes();
+            final byte[] truncated = new byte[bytes.length / 2];
+            System.arraycopy(bytes, 0, truncated, 0, truncated.length);
+
+            writeSlotOne(truncated);
+        } finally {
+            journal.release();
+        }
+
+        try {
+            new TestJournal(filename).release();
+            Assert.fail("expected VersionControlException"); //$NON-NLS-1$
+        } catch (final VersionControlException e) {
+            Assert.assertTrue(e.getCause() instanceof InvalidScanJournalException);
+        }
+    }
+
+    private static void setScanState(final LocalWorkspaceScanJournal journal) {
+        final Map<String, DirectoryState> directories = new HashMap<String, DirectoryState>();
+        directories.put("/w", new DirectoryState(100, 1)); //$NON-NLS-1$
+        directories.put("/w/Src", new DirectoryState(110, 2)); //$NON-NLS-1$
+
+        final Map<String, Long> ignoreFiles = new HashMap<String, Long>();
+        ignoreFiles.put("/w/.tfignore", 120L); //$NON-NLS-1$
+
+        journal.setScanState(200, "sig", directories, ignoreFiles); //$NON-NLS-1$
+    }
+
+    private static void assertScanState(final LocalWorkspaceScanJournal journal) {
+        Assert.assertTrue(journal.hasScanState());
+        Assert.assertEquals(200, journal.getHighWaterMark());
+        Assert.assertEquals("sig", journal.getSignature()); //$NON-NLS-1$
+
+        final Map<String, DirectoryState> directories = journal.getDirectories();
+        Assert.assertEquals(2, directories.size());
+        Assert.assertEquals(100, directories.get("/w").getLastWriteTime()); //$NON-NLS-1$
+        Assert.assertEquals(1, directories.get("/w").getTrackedItemsSignature()); //$NON-NLS-1$
+
+        // Paths are compared without case
+        Assert.assertEquals(110, directories.get("/w/src").getLastWriteTime()); //$NON-NLS-1$
+        Assert.assertEquals(2, directories.get("/W/SRC").getTrackedItemsSignature()); //$NON-NLS-1$
+
+        Assert.assertEquals(1, journal.getIgnoreFiles().size());
+        Assert.assertEquals(120L, journal.getIgnoreFiles().get("/W/.TFIGNORE").longValue()); //$NON-NLS-1$
+    }
+
+    private void writeSlotOne(final byte[] bytes) throws IOException {
+        final FileOutputStream os = new FileOutputStream(LocalMetadataTable.getSlotOnePath(filename));
+        try {
+            os.write(bytes);
+        } finally {
+            os.close();
+        }
+    }
+}
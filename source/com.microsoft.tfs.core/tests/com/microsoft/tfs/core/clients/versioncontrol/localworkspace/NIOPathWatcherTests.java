@@ -0,0 +1,199 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the repository root.
+
+package com.microsoft.tfs.core.clients.versioncontrol.localworkspace;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+public class NIOPathWatcherTests extends TestCase {
+    /**
+     * How long to wait for events before failing.
+     */
+    private static final long TIMEOUT_MILLISECONDS = 10000;
+
+    private File directory;
+    private NIOPathWatcher watcher;
+
+    @Override
+    protected void setUp() throws Exception {
+        directory = File.createTempFile("NIOPathWatcherTests", ""); //$NON-NLS-1$ //$NON-NLS-2$
+        directory.delete();
+        directory.mkdir();
+
+        watcher = new NIOPathWatcher(directory.getPath(), new WorkspaceWatcher(null));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        watcher.stopWatching();
+        delete(directory);
+    }
+
+    public void testStartWatching() {
+        Assert.assertTrue(NIOPathWatcher.isAvailable());
+        Assert.assertFalse(watcher.isWatching());
+
+        watcher.startWatching();
+        Assert.assertTrue(watcher.isWatching());
+
+        // Changes made before watching started were missed
+        Assert.assertTrue(watcher.hasChanged());
+        Assert.assertTrue(watcher.poll().getFullyInvalidated());
+        Assert.assertTrue(watcher.poll().isNothingChanged());
+        Assert.assertFalse(watcher.hasChanged());
+    }
+
+    public void testCreateFile() throws Exception {
+        startClean();
+
+        final File file = new File(directory, "a.txt"); //$NON-NLS-1$
+        write(file, 1);
+
+        Assert.assertTrue(waitForPath(file).contains(file.getPath()));
+    }
+
+    public void testModifyFile() throws Exception {
+        final File file = new File(directory, "a.txt"); //$NON-NLS-1$
+        write(file, 1);
+        startClean();
+
+        write(file, 2);
+
+        Assert.assertTrue(waitForPath(file).contains(file.getPath()));
+    }
+
+    public void testDeleteFile() throws Exception {
+        final File file = new File(directory, "a.txt"); //$NON-NLS-1$
+        write(file, 1);
+        startClean();
+
+        Assert.assertTrue(file.delete());
+
+        Assert.assertTrue(waitForPath(file).contains(file.getPath()));
+    }
+
+    public void testChangeInSubdirectory() throws Exception {
+        final File subdirectory = new File(directory, "sub"); //$NON-NLS-1$
+        subdirectory.mkdir();
+        startClean();
+
+        final File file = new File(subdirectory, "a.txt"); //$NON-NLS-1$
+        write(file, 1);
+
+        Assert.assertTrue(waitForPath(file).contains(file.getPath()));
+    }
+
+    public void testCreatedDirectoryIsWatched() throws Exception {
+        startClean();
+
+        final File subdirectory = new File(directory, "sub"); //$NON-NLS-1$
+        subdirectory.mkdir();
+        Assert.assertTrue(waitForPath(subdirectory).contains(subdirectory.getPath()));
+
+        final File file = new File(subdirectory, "a.txt"); //$NON-NLS-1$
+        write(file, 1);
+
+        Assert.assertTrue(waitForPath(file).contains(file.getPath()));
+    }
+
+    public void testDeleteDirectoryFullyInvalidates() throws Exception {
+        final File subdirectory = new File(directory, "sub"); //$NON-NLS-1$
+        subdirectory.mkdir();
+        startClean();
+
+        Assert.assertTrue(subdirectory.delete());
+
+        Assert.assertNull(waitForPath(subdirectory));
+    }
+
+    public void testBaselineFolderIsIgnored() throws Exception {
+        startClean();
+
+        final File baselineFolder = new File(directory, BaselineFolder.getBaselineFolderName());
+        baselineFolder.mkdir();
+        write(new File(baselineFolder, "a.gz"), 1); //$NON-NLS-1$
+
+        final File file = new File(directory, "a.txt"); //$NON-NLS-1$
+        write(file, 1);
+
+        final Set<String> paths = waitForPath(file);
+        Assert.assertEquals(1, paths.size());
+    }
+
+    public void testStopWatching() throws Exception {
+        startClean();
+        watcher.stopWatching();
+        Assert.assertFalse(watcher.isWatching());
+
+        write(new File(directory, "a.txt"), 1); //$NON-NLS-1$
+        Thread.sleep(500);
+
+        Assert.assertTrue(watcher.poll().isNothingChanged());
+    }
+
+    /**
+     * Starts watching and clears the initial full invalidation.
+     */
+    private void startClean() {
+        watcher.startWatching();
+        watcher.setClean();
+    }
+
+    /**
+     * Polls the watcher until the given file's path is reported.
+     *
+     * @return the changed paths reported, or <code>null</code> if the watcher
+     *         was fully invalidated
+     */
+    private Set<String> waitForPath(final File file) throws InterruptedException {
+        final Set<String> paths = new HashSet<String>();
+        final long end = System.currentTimeMillis() + TIMEOUT_MILLISECONDS;
+
+        while (System.currentTimeMillis() < end) {
+            final PathWatcherReport report = watcher.poll();
+
+            if (report.getFullyInvalidated()) {
+                return null;
+            }
+
+            for (final String path : report.getChangedPaths()) {
+                paths.add(path);
+            }
+
+            if (paths.contains(file.getPath())) {
+                return paths;
+            }
+
+            Thread.sleep(50);
+        }
+
+        Assert.fail("No event for " + file); //$NON-NLS-1$
+        return null;
+    }
+
+    private static void write(final File file, final int value) throws IOException {
+        final FileOutputStream os = new FileOutputStream(file);
+        try {
+            os.write(value);
+        } finally {
+            os.close();
+        }
+    }
+
+    private static void delete(final File file) {
+        final File[] children = file.listFiles();
+        if (children != null) {
+            for (final File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,194 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the repository root.
+
+package com.microsoft.tfs.core.clients.versioncontrol.localworkspace;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.microsoft.tfs.core.clients.versioncontrol.internal.localworkspace.EnumeratedLocalItem;
+import com.microsoft.tfs.core.clients.versioncontrol.internal.localworkspace.LocalItemEnumerator;
+import com.microsoft.tfs.core.clients.versioncontrol.internal.localworkspace.ParallelLocalItemEnumerator;
+import com.microsoft.tfs.core.clients.versioncontrol.internal.localworkspace.ParallelLocalItemEnumerator.ItemProcessor;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+public class ParallelLocalItemEnumeratorTests extends TestCase {
+    private File directory;
+    private ExecutorService executor;
+
+    @Override
+    protected void setUp() throws Exception {
+        directory = File.createTempFile("ParallelLocalItemEnumeratorTests", ""); //$NON-NLS-1$ //$NON-NLS-2$
+        directory.delete();
+        directory.mkdir();
+
+        // Three levels of directories with a few files in each
+        createTree(directory, 3);
+
+        // Baseline folders are skipped
+        createTree(new File(directory, BaselineFolder.getBaselineFolderName()), 1);
+
+        executor = Executors.newFixedThreadPool(4);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        executor.shutdownNow();
+        delete(directory);
+    }
+
+    public void testSameItemsAsSerial() {
+        final List<String> expected = serial(template(directory, true));
+        Assert.assertTrue(expected.size() > 50);
+        Assert.assertFalse(expected.contains(new File(directory, BaselineFolder.getBaselineFolderName()).getPath()));
+
+        Assert.assertEquals(expected, parallel(template(directory, true), executor, 1));
+        Assert.assertEquals(expected, parallel(template(directory, true), executor, 3));
+        Assert.assertEquals(
+            expected,
+            parallel(template(directory, true), executor, ParallelLocalItemEnumerator.DEFAULT_MAX_RUN_AHEAD));
+    }
+
+    public void testNotRecursive() {
+        Assert.assertEquals(serial(template(directory, false)), parallel(template(directory, false), executor, 2));
+    }
+
+    public void testExcludedPaths() {
+        final LocalItemEnumerator serialTemplate = template(directory, true);
+        final LocalItemEnumerator parallelTemplate = template(directory, true);
+
+        final String excluded = new File(new File(directory, "dir1"), "dir0").getPath(); //$NON-NLS-1$ //$NON-NLS-2$
+        serialTemplate.addExcludedPath(excluded);
+        parallelTemplate.addExcludedPath(excluded);
+
+        final List<String> expected = serial(serialTemplate);
+        Assert.assertFalse(expected.contains(excluded));
+        Assert.assertEquals(expected, parallel(parallelTemplate, executor, 4));
+    }
+
+    public void testFileStartPath() {
+        final File file = new File(directory, "file0.txt"); //$NON-NLS-1$
+        final List<String> items = parallel(template(file, true), executor, 4);
+
+        Assert.assertEquals(1, items.size());
+        Assert.assertEquals(serial(template(file, true)), items);
+    }
+
+    public void testFullQueue() {
+        // Most submissions are rejected, so the consumer lists most
+        // directories itself
+        final ThreadPoolExecutor smallExecutor =
+            new ThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(1));
+        try {
+            Assert.assertEquals(
+                serial(template(directory, true)),
+                parallel(template(directory, true), smallExecutor, 8));
+        } finally {
+            smallExecutor.shutdownNow();
+        }
+    }
+
+    public void testShutDownExecutor() {
+        executor.shutdown();
+        Assert.assertEquals(serial(template(directory, true)), parallel(template(directory, true), executor, 4));
+    }
+
+    public void testProcessorRunsOncePerItem() {
+        final AtomicInteger count = new AtomicInteger();
+        final Iterator<EnumeratedLocalItem> items =
+            new ParallelLocalItemEnumerator(template(directory, true), executor, new ItemProcessor() {
+                @Override
+                public void process(final EnumeratedLocalItem item) {
+                    count.incrementAndGet();
+                }
+            }, 2);
+
+        final int itemCount = toPaths(items).size();
+        Assert.assertEquals(itemCount, count.get());
+    }
+
+    public void testRunAheadIsBounded() throws Exception {
+        final AtomicInteger processed = new AtomicInteger();
+        final ParallelLocalItemEnumerator items =
+            new ParallelLocalItemEnumerator(template(directory, true), executor, new ItemProcessor() {
+                @Override
+                public void process(final EnumeratedLocalItem item) {
+                    processed.incrementAndGet();
+                }
+            }, 2);
+
+        // Nothing is consumed, so at most two directories (of up to eight
+        // items each) can be listed
+        Thread.sleep(500);
+        Assert.assertTrue(processed.get() <= 2 * 8);
+
+        Assert.assertEquals(serial(template(directory, true)), toPaths(items));
+    }
+
+    private static LocalItemEnumerator template(final File startPath, final boolean recurse) {
+        return new LocalItemEnumerator(startPath, recurse, false, null, null);
+    }
+
+    private static List<String> serial(final LocalItemEnumerator enumerator) {
+        return toPaths(enumerator);
+    }
+
+    private static List<String> parallel(
+        final LocalItemEnumerator template,
+        final ExecutorService executor,
+        final int maxRunAhead) {
+        return toPaths(new ParallelLocalItemEnumerator(template, executor, null, maxRunAhead));
+    }
+
+    private static List<String> toPaths(final Iterator<EnumeratedLocalItem> items) {
+        final List<String> paths = new ArrayList<String>();
+        while (items.hasNext()) {
+            paths.add(items.next().getFullPath());
+        }
+        return paths;
+    }
+
+    /**
+     * Creates five files and, above the last level, three subdirectories.
+     */
+    private static void createTree(final File parent, final int levels) throws IOException {
+        parent.mkdir();
+
+        for (int i = 0; i < 5; i++) {
+            final FileOutputStream os = new FileOutputStream(new File(parent, "file" + i + ".txt")); //$NON-NLS-1$ //$NON-NLS-2$
+            try {
+                os.write(i);
+            } finally {
+                os.close();
+            }
+        }
+
+        if (levels > 1) {
+            for (int i = 0; i < 3; i++) {
+                createTree(new File(parent, "dir" + i), levels - 1); //$NON-NLS-1$
+            }
+        }
+    }
+
+    private static void delete(final File file) {
+        final File[] children = file.listFiles();
+        if (children != null) {
+            for (final File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
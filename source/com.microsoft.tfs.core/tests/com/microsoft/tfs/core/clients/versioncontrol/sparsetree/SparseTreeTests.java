@@ -854,6 +854,63 @@ public class SparseTreeTests extends TestCase {
         Assert.assertTrue(areStringListsEqual(expectedResults, results, String.CASE_INSENSITIVE_ORDER));
     }
 
+    // Test 27. Lookups compare elements ignoring case, with empty elements.
+    public void test27() {
+        final SparseTree<String> st = new SparseTree<String>('/', String.CASE_INSENSITIVE_ORDER);
+
+        st.add("$/Proj/Src/Main.java", "main"); //$NON-NLS-1$ //$NON-NLS-2$
+        st.add("$/Proj//Empty", "empty"); //$NON-NLS-1$ //$NON-NLS-2$
+        st.add("$/Proj/Src", "src"); //$NON-NLS-1$ //$NON-NLS-2$
+
+        Assert.assertEquals("main", st.get("$/PROJ/src/MAIN.JAVA")); //$NON-NLS-1$ //$NON-NLS-2$
+        Assert.assertEquals("src", st.get("$/proj/SRC/")); //$NON-NLS-1$ //$NON-NLS-2$
+        Assert.assertEquals("empty", st.get("$/proj//empty")); //$NON-NLS-1$ //$NON-NLS-2$
+        Assert.assertNull(st.get("$/proj/empty")); //$NON-NLS-1$
+        Assert.assertNull(st.get("$/Proj/Src/Main")); //$NON-NLS-1$
+        Assert.assertEquals("src", st.get("$/Proj/Src/Other.java", false)); //$NON-NLS-1$ //$NON-NLS-2$
+
+        Assert.assertTrue(st.remove("$/PROJ/SRC", true)); //$NON-NLS-1$
+        Assert.assertNull(st.get("$/Proj/Src/Main.java")); //$NON-NLS-1$
+        Assert.assertEquals("empty", st.get("$/Proj//Empty")); //$NON-NLS-1$ //$NON-NLS-2$
+    }
+
+    // Test 28. Trees sharing a segment pool store each element once.
+    public void test28() {
+        final SparseTreeSegmentPool pool = new SparseTreeSegmentPool();
+        final SparseTree<String> server = new SparseTree<String>('/', String.CASE_INSENSITIVE_ORDER, pool);
+        final SparseTree<String> local = new SparseTree<String>('\\', String.CASE_INSENSITIVE_ORDER, pool);
+
+        server.add("$/Proj/a/Makefile", "1"); //$NON-NLS-1$ //$NON-NLS-2$
+        server.add("$/Proj/b/Makefile", "2"); //$NON-NLS-1$ //$NON-NLS-2$
+        local.add("C:\\ws\\a\\Makefile", "1"); //$NON-NLS-1$ //$NON-NLS-2$
+        local.add("C:\\ws\\b\\makefile", "2"); //$NON-NLS-1$ //$NON-NLS-2$
+
+        // $, Proj, a, Makefile, b, C:, ws, makefile
+        Assert.assertEquals(8, pool.size());
+
+        Assert.assertEquals("2", local.get("c:\\WS\\B\\MAKEFILE")); //$NON-NLS-1$ //$NON-NLS-2$
+        Assert.assertEquals("1", server.get("$/proj/A/makefile")); //$NON-NLS-1$ //$NON-NLS-2$
+    }
+
+    // Test 29. Fixed length elements, with other comparisons.
+    public void test29() {
+        final SparseTree<String> st = new SparseTree<String>(2, new Comparator<String>() {
+            @Override
+            public int compare(final String x, final String y) {
+                return x.compareTo(y);
+            }
+        });
+
+        st.add("aabb", "aabb"); //$NON-NLS-1$ //$NON-NLS-2$
+        st.add("aabbcc", "aabbcc"); //$NON-NLS-1$ //$NON-NLS-2$
+        st.add("aa", "aa"); //$NON-NLS-1$ //$NON-NLS-2$
+
+        Assert.assertEquals("aabbcc", st.get("aabbcc")); //$NON-NLS-1$ //$NON-NLS-2$
+        Assert.assertNull(st.get("AABBCC")); //$NON-NLS-1$
+        Assert.assertEquals("aabb", st.get("aabbdd", false)); //$NON-NLS-1$ //$NON-NLS-2$
+        Assert.assertEquals(3, st.getCount());
+    }
+
     class NoChildrenBelowCallback implements EnumNodeCallback<String> {
         @Override
         public boolean invoke(
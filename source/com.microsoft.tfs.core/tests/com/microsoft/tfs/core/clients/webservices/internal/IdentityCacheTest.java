@@ -0,0 +1,202 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the repository root.
+
+package com.microsoft.tfs.core.clients.webservices.internal;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.microsoft.tfs.core.clients.webservices.IdentityDescriptor;
+import com.microsoft.tfs.core.clients.webservices.TeamFoundationIdentity;
+import com.microsoft.tfs.util.GUID;
+
+import junit.framework.TestCase;
+import ms.ws._IdentityDescriptor;
+import ms.ws._KeyValueOfStringString;
+import ms.ws._PropertyValue;
+import ms.ws._TeamFoundationIdentity;
+
+public class IdentityCacheTest extends TestCase {
+    private static final String TYPE = "System.Security.Principal.WindowsIdentity"; //$NON-NLS-1$
+
+    /**
+     * Loads an identity named after each key and counts the keys loaded.
+     */
+    private static class CountingLoader implements IdentityCache.Loader {
+        private final String[] keys;
+        public final AtomicInteger calls = new AtomicInteger();
+        public final AtomicInteger loaded = new AtomicInteger();
+
+        public CountingLoader(final String[] keys) {
+            this.keys = keys;
+        }
+
+        @Override
+        public TeamFoundationIdentity[][] load(final int[] indices) {
+            calls.incrementAndGet();
+            loaded.addAndGet(indices.length);
+
+            final TeamFoundationIdentity[][] results = new TeamFoundationIdentity[indices.length][];
+            for (int i = 0; i < indices.length; i++) {
+                results[i] = new TeamFoundationIdentity[] {
+                    createIdentity(keys[indices[i]])
+                };
+            }
+            return results;
+        }
+    }
+
+    public void testCachedReadsReturnCopies() {
+        final IdentityCache cache = new IdentityCache(60000, 100, null, null);
+        final String[] keys = new String[] {
+            "A:one", //$NON-NLS-1$
+            "A:two", //$NON-NLS-1$
+            "A:one" //$NON-NLS-1$
+        };
+        final CountingLoader loader = new CountingLoader(keys);
+
+        final TeamFoundationIdentity[][] first = cache.read(keys, loader);
+        assertEquals(1, loader.calls.get());
+        assertEquals(2, loader.loaded.get());
+        assertEquals("A:one", first[0][0].getDisplayName()); //$NON-NLS-1$
+        assertEquals("A:two", first[1][0].getDisplayName()); //$NON-NLS-1$
+        assertEquals("A:one", first[2][0].getDisplayName()); //$NON-NLS-1$
+
+        final TeamFoundationIdentity[][] second = cache.read(keys, loader);
+        assertEquals(1, loader.calls.get());
+        assertNotSame(first[0][0], second[0][0]);
+        assertEquals("A:one", second[0][0].getDisplayName()); //$NON-NLS-1$
+        assertEquals("value", second[0][0].getProperty("property")); //$NON-NLS-1$ //$NON-NLS-2$
+
+        // The identities are cached by descriptor and ID too
+        final TeamFoundationIdentity identity = second[1][0];
+        cache.read(new String[] {
+            IdentityCache.descriptorKey(identity.getDescriptor()),
+            IdentityCache.teamFoundationIDKey(identity.getTeamFoundationID())
+        }, loader);
+        assertEquals(1, loader.calls.get());
+    }
+
+    public void testExpiryAndEviction() throws Exception {
+        final String[] keys = new String[] {
+            "A:one", //$NON-NLS-1$
+            "A:two" //$NON-NLS-1$
+        };
+
+        IdentityCache cache = new IdentityCache(1, 100, null, null);
+        CountingLoader loader = new CountingLoader(keys);
+        cache.read(keys, loader);
+        Thread.sleep(10);
+        cache.read(keys, loader);
+        assertEquals(4, loader.loaded.get());
+
+        // Each identity takes three keys (search, descriptor and ID)
+        cache = new IdentityCache(60000, 3, null, null);
+        loader = new CountingLoader(keys);
+        cache.read(keys, loader);
+        cache.read(new String[] {
+            keys[1]
+        }, loader);
+        assertEquals(2, loader.loaded.get());
+        cache.read(new String[] {
+            keys[0]
+        }, loader);
+        assertEquals(3, loader.loaded.get());
+    }
+
+    public void testConcurrentReadsAreCoalesced() throws Exception {
+        final IdentityCache cache = new IdentityCache(60000, 100, null, null);
+        final String[] keys = new String[] {
+            "I:S-1-5-21-1" //$NON-NLS-1$
+        };
+        final CountDownLatch loading = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger calls = new AtomicInteger();
+
+        final IdentityCache.Loader loader = new IdentityCache.Loader() {
+            @Override
+            public TeamFoundationIdentity[][] load(final int[] indices) {
+                calls.incrementAndGet();
+                loading.countDown();
+                try {
+                    release.await();
+                } catch (final InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                return new TeamFoundationIdentity[][] {
+                    new TeamFoundationIdentity[0]
+                };
+            }
+        };
+
+        final TeamFoundationIdentity[][][] results = new TeamFoundationIdentity[2][][];
+        final Thread[] threads = new Thread[2];
+        for (int t = 0; t < threads.length; t++) {
+            final int index = t;
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    results[index] = cache.read(keys, loader);
+                }
+            };
+        }
+
+        threads[0].start();
+        loading.await();
+        threads[1].start();
+
+        // Let the second thread find the read in progress
+        Thread.sleep(100);
+        release.countDown();
+
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(1, calls.get());
+        assertEquals(0, results[0][0].length);
+        assertEquals(0, results[1][0].length);
+    }
+
+    public void testFailedReadIsNotCached() {
+        final IdentityCache cache = new IdentityCache(60000, 100, null, null);
+        final String[] keys = new String[] {
+            "A:one" //$NON-NLS-1$
+        };
+
+        try {
+            cache.read(keys, new IdentityCache.Loader() {
+                @Override
+                public TeamFoundationIdentity[][] load(final int[] indices) {
+                    throw new IllegalStateException();
+                }
+            });
+            fail();
+        } catch (final IllegalStateException e) {
+            // Expected
+        }
+
+        final CountingLoader loader = new CountingLoader(keys);
+        cache.read(keys, loader);
+        assertEquals(1, loader.calls.get());
+    }
+
+    private static TeamFoundationIdentity createIdentity(final String name) {
+        return new TeamFoundationIdentity(
+            new _TeamFoundationIdentity(
+                name,
+                false,
+                true,
+                GUID.newGUID().getGUIDString(),
+                name,
+                0,
+                new IdentityDescriptor(TYPE, "S-1-5-21-" + name.hashCode()).getWebServiceObject(), //$NON-NLS-1$
+                new _KeyValueOfStringString[0],
+                new _PropertyValue[] {
+                    new _PropertyValue("property", "value") //$NON-NLS-1$ //$NON-NLS-2$
+                },
+                new _PropertyValue[0],
+                new _IdentityDescriptor[0],
+                new _IdentityDescriptor[0]));
+    }
+}
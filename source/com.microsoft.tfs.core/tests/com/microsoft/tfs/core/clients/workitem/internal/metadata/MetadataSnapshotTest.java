@@ -0,0 +1,79 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the repository root.
+
+package com.microsoft.tfs.core.clients.workitem.internal.metadata;
+
+import com.microsoft.tfs.core.clients.workitem.internal.metadata.dao.ConstantMetadata;
+import com.microsoft.tfs.core.clients.workitem.internal.metadata.dao.FieldDefinitionMetadata;
+
+import junit.framework.TestCase;
+
+public class MetadataSnapshotTest extends TestCase {
+    public void testConstants() {
+        final MetadataSnapshot snapshot = new MetadataSnapshot(new ConstantMetadata[] {
+            new ConstantMetadata(-2, null, "[Project]\\Contributors"), //$NON-NLS-1$
+            new ConstantMetadata(12, "Active", "Active"), //$NON-NLS-1$ //$NON-NLS-2$
+            new ConstantMetadata(13, null, "DOMAIN\\User"), //$NON-NLS-1$
+            new ConstantMetadata(14, null, "Dup"), //$NON-NLS-1$
+            new ConstantMetadata(15, null, "DUP") //$NON-NLS-1$
+        }, new int[0], new int[0], new FieldDefinitionMetadata[0]);
+
+        assertEquals(-2, snapshot.getConstant(-2).getConstID());
+        assertEquals("Active", snapshot.getConstant(12).getDisplayName()); //$NON-NLS-1$
+        assertNull(snapshot.getConstant(99));
+
+        assertEquals(13, snapshot.getConstant("domain\\USER").getConstID()); //$NON-NLS-1$
+        assertEquals(-2, snapshot.getConstant("[project]\\contributors").getConstID()); //$NON-NLS-1$
+        assertNull(snapshot.getConstant("missing")); //$NON-NLS-1$
+        assertNull(snapshot.getConstant((String) null));
+
+        try {
+            snapshot.getConstant("dup"); //$NON-NLS-1$
+            fail();
+        } catch (final IllegalStateException e) {
+            // Expected
+        }
+        assertEquals("Dup", snapshot.getConstant(14).getString()); //$NON-NLS-1$
+    }
+
+    public void testParentIDs() {
+        final int count = 10000;
+        final int[] areaIDs = new int[count];
+        final int[] parentIDs = new int[count];
+        for (int i = 0; i < count; i++) {
+            // Spread the IDs out so they collide in the table
+            areaIDs[i] = i * 1024;
+            parentIDs[i] = i / 2 * 1024;
+        }
+
+        final MetadataSnapshot snapshot =
+            new MetadataSnapshot(new ConstantMetadata[0], areaIDs, parentIDs, new FieldDefinitionMetadata[0]);
+
+        for (int i = 0; i < count; i++) {
+            assertEquals(i / 2 * 1024, snapshot.getParentID(i * 1024).intValue());
+        }
+        assertNull(snapshot.getParentID(1));
+        assertNull(snapshot.getParentID(-1024));
+    }
+
+    public void testFields() {
+        final FieldDefinitionMetadata title = new FieldDefinitionMetadata(1, 0, "Title", "System.Title", true); //$NON-NLS-1$ //$NON-NLS-2$
+        final FieldDefinitionMetadata state = new FieldDefinitionMetadata(2, 0, "State", "System.State", false); //$NON-NLS-1$ //$NON-NLS-2$
+
+        final MetadataSnapshot snapshot =
+            new MetadataSnapshot(new ConstantMetadata[0], new int[0], new int[0], new FieldDefinitionMetadata[] {
+                title,
+                state
+            });
+
+        assertSame(title, snapshot.getFieldDefinition(1));
+        assertSame(state, snapshot.getFieldDefinition("system.state")); //$NON-NLS-1$
+        assertNull(snapshot.getFieldDefinition(3));
+        assertNull(snapshot.getFieldDefinition("System.Reason")); //$NON-NLS-1$
+
+        final FieldDefinitionMetadata[] all = snapshot.getAllFieldDefinitions();
+        assertEquals(2, all.length);
+        all[0] = null;
+        assertSame(title, snapshot.getAllFieldDefinitions()[0]);
+    }
+}
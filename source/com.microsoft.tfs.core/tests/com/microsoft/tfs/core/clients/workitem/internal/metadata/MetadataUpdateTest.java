@@ -0,0 +1,282 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the repository root.
+
+package com.microsoft.tfs.core.clients.workitem.internal.metadata;
+
+import java.io.StringReader;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.DriverManager;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.Map;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamReader;
+
+import com.microsoft.tfs.core.clients.workitem.WorkItemServerVersion;
+import com.microsoft.tfs.core.internal.db.ConnectionPool;
+import com.microsoft.tfs.core.internal.db.DBConnection;
+import com.microsoft.tfs.core.ws.runtime.types.AnyContentType;
+
+import junit.framework.TestCase;
+import ms.tfs.workitemtracking.clientservices._03._ClientService5Soap;
+import ms.tfs.workitemtracking.clientservices._03._ClientService5Soap_GetMetadataEx2Response;
+
+/**
+ * Tests {@link Metadata#update(boolean)} against an in-memory HSQLDB database,
+ * with a web service which answers with canned metadata.
+ */
+public class MetadataUpdateTest extends TestCase {
+    private static final String DRIVER_CLASS = "org.hsqldb.jdbcDriver"; //$NON-NLS-1$
+
+    private static final String COLUMNS = "<columns>" //$NON-NLS-1$
+        + "<c><n>ActionID</n><t>System.Int32</t></c>" //$NON-NLS-1$
+        + "<c><n>Name</n><t>System.String</t></c>" //$NON-NLS-1$
+        + "<c><n>fDeleted</n><t>System.Boolean</t></c>" //$NON-NLS-1$
+        + "<c><n>Cachestamp</n><t>System.UInt64</t></c>" //$NON-NLS-1$
+        + "</columns>"; //$NON-NLS-1$
+
+    /**
+     * A pool of one connection which counts the connections given out.
+     */
+    private static class TestConnectionPool extends ConnectionPool {
+        private final DBConnection connection;
+        private int givenCount;
+
+        public TestConnectionPool(final DBConnection connection) {
+            super(null);
+            this.connection = connection;
+        }
+
+        @Override
+        public synchronized DBConnection getConnection() {
+            givenCount++;
+            return connection;
+        }
+
+        @Override
+        public synchronized void releaseConnection(final DBConnection connection) {
+            givenCount--;
+        }
+
+        public synchronized int getGivenCount() {
+            return givenCount;
+        }
+    }
+
+    /**
+     * Answers GetMetadataEx2 with the queued responses, and records how many
+     * connections were out while each response was read.
+     */
+    private class TestService implements InvocationHandler {
+        private final LinkedList<String[]> responses = new LinkedList<String[]>();
+        private final LinkedList<Integer> givenCounts = new LinkedList<Integer>();
+
+        public void addResponse(final String dbStamp, final String rowSets) {
+            responses.add(new String[] {
+                dbStamp,
+                rowSets
+            });
+        }
+
+        @Override
+        public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+            if (!method.getName().equals("getMetadataEx2")) //$NON-NLS-1$
+            {
+                throw new UnsupportedOperationException(method.getName());
+            }
+
+            final String[] response = responses.removeFirst();
+            givenCounts.add(pool.getGivenCount());
+
+            final XMLStreamReader reader = XMLInputFactory.newInstance().createXMLStreamReader(
+                new StringReader("<metadata>" + response[1] + "</metadata>")); //$NON-NLS-1$ //$NON-NLS-2$
+            while (reader.next() != XMLStreamConstants.START_ELEMENT) {
+                ;
+            }
+
+            final AnyContentType metadata = (AnyContentType) args[2];
+            metadata.readFromElement(reader);
+            reader.close();
+
+            return new _ClientService5Soap_GetMetadataEx2Response(metadata, response[0], 0, 0, 0);
+        }
+    }
+
+    private DBConnection connection;
+    private TestConnectionPool pool;
+    private TestService service;
+    private Metadata metadata;
+
+    @Override
+    protected void setUp() throws Exception {
+        Class.forName(DRIVER_CLASS);
+        connection = new DBConnection(
+            DriverManager.getConnection("jdbc:hsqldb:mem:" + getName(), "sa", ""), //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+            DRIVER_CLASS);
+        pool = new TestConnectionPool(connection);
+        service = new TestService();
+
+        final _ClientService5Soap proxy = (_ClientService5Soap) Proxy.newProxyInstance(
+            getClass().getClassLoader(),
+            new Class[] {
+                _ClientService5Soap.class
+            },
+            service);
+
+        metadata = new Metadata(pool, WorkItemServerVersion.V5, null, null, proxy);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        connection.createStatement("shutdown").executeUpdate(); //$NON-NLS-1$
+        connection.close();
+    }
+
+    public void testUpdateWritesRowSets() {
+        service.addResponse("stamp", table( //$NON-NLS-1$
+            "<r><f>1</f><f>Resolve</f><f>False</f><f>5</f></r>" //$NON-NLS-1$
+                + "<r><f>2</f><f k=\"2\">False</f><f>7</f></r>" //$NON-NLS-1$
+                + "<r><f>3</f><f>Deleted</f><f>True</f><f>6</f></r>")); //$NON-NLS-1$
+
+        metadata.update();
+
+        // The response was read without a connection
+        assertEquals(0, service.givenCounts.getFirst().intValue());
+        assertEquals(0, pool.getGivenCount());
+
+        assertEquals(2, countRows("select count(*) from Actions")); //$NON-NLS-1$
+        assertEquals(
+            "Resolve", //$NON-NLS-1$
+            connection.createStatement("select Name from Actions where ActionID = 1").executeStringQuery()); //$NON-NLS-1$
+        assertNull(connection.createStatement("select Name from Actions where ActionID = 2").executeStringQuery()); //$NON-NLS-1$
+        assertEquals(7L, getRowVersion());
+        assertEquals("stamp", getDBStamp()); //$NON-NLS-1$
+    }
+
+    public void testUpdateReplacesRows() {
+        service.addResponse("stamp", table( //$NON-NLS-1$
+            "<r><f>1</f><f>Resolve</f><f>False</f><f>5</f></r>" //$NON-NLS-1$
+                + "<r><f>2</f><f>Close</f><f>False</f><f>6</f></r>")); //$NON-NLS-1$
+        metadata.update();
+
+        service.addResponse("stamp", table( //$NON-NLS-1$
+            "<r><f>1</f><f>Fixed</f><f>False</f><f>8</f></r>" //$NON-NLS-1$
+                + "<r><f>2</f><f>Close</f><f>True</f><f>9</f></r>")); //$NON-NLS-1$
+        metadata.update();
+
+        assertEquals(1, countRows("select count(*) from Actions")); //$NON-NLS-1$
+        assertEquals(
+            "Fixed", //$NON-NLS-1$
+            connection.createStatement("select Name from Actions where ActionID = 1").executeStringQuery()); //$NON-NLS-1$
+        assertEquals(9L, getRowVersion());
+    }
+
+    public void testChangedStampIsCheckedBeforeWriting() {
+        service.addResponse("stamp", table("<r><f>1</f><f>Resolve</f><f>False</f><f>5</f></r>")); //$NON-NLS-1$ //$NON-NLS-2$
+        metadata.update();
+
+        /*
+         * This row set can't be written (the table has no primary key column),
+         * so the update only succeeds if the new stamp is checked first. That
+         * invalidates the cache and the tables are fully updated from the next
+         * response.
+         */
+        service.addResponse(
+            "other", //$NON-NLS-1$
+            "<table name=\"Actions\"><columns><c><n>Name</n><t>System.String</t></c></columns>" //$NON-NLS-1$
+                + "<rows><r><f>Bad</f></r></rows></table>"); //$NON-NLS-1$
+        service.addResponse("other", table("<r><f>4</f><f>Reopen</f><f>False</f><f>2</f></r>")); //$NON-NLS-1$ //$NON-NLS-2$
+        metadata.update();
+
+        assertEquals(1, countRows("select count(*) from Actions")); //$NON-NLS-1$
+        assertEquals(
+            "Reopen", //$NON-NLS-1$
+            connection.createStatement("select Name from Actions where ActionID = 4").executeStringQuery()); //$NON-NLS-1$
+        assertEquals(2L, getRowVersion());
+        assertEquals("other", getDBStamp()); //$NON-NLS-1$
+    }
+
+    public void testFailedRowSetLeavesTable() {
+        service.addResponse("stamp", table("<r><f>1</f><f>Resolve</f><f>False</f><f>5</f></r>")); //$NON-NLS-1$ //$NON-NLS-2$
+        metadata.update();
+
+        // The second row's key isn't a number
+        service.addResponse("stamp", table( //$NON-NLS-1$
+            "<r><f>1</f><f>Fixed</f><f>False</f><f>8</f></r>" //$NON-NLS-1$
+                + "<r><f>x</f><f>Bad</f><f>False</f><f>9</f></r>")); //$NON-NLS-1$
+
+        try {
+            metadata.update();
+            fail();
+        } catch (final RuntimeException e) {
+            // Expected
+        }
+
+        assertEquals(0, pool.getGivenCount());
+        assertEquals(
+            "Resolve", //$NON-NLS-1$
+            connection.createStatement("select Name from Actions where ActionID = 1").executeStringQuery()); //$NON-NLS-1$
+        assertEquals(5L, getRowVersion());
+    }
+
+    public void testUpdateResults() {
+        service.addResponse(
+            "stamp", //$NON-NLS-1$
+            table("<r><f>1</f><f>Resolve</f><f>False</f><f>5</f></r>") //$NON-NLS-1$
+                + "<table name=\"Rules\"><columns><c><n>RuleID</n><t>System.Int32</t></c></columns>" //$NON-NLS-1$
+                + "<rows><r><f>10</f></r></rows></table>"); //$NON-NLS-1$
+
+        final MetadataUpdateResults results = metadata.update(true);
+        try {
+            assertEquals("stamp", results.getDBStamp()); //$NON-NLS-1$
+
+            // The tables are listed in the order they were updated
+            final Map<String, Long> times = results.getTableUpdateTimes();
+            assertEquals(Arrays.asList(new String[] {
+                "Actions", //$NON-NLS-1$
+                "Rules" //$NON-NLS-1$
+            }), new ArrayList<String>(times.keySet()));
+            for (final Long time : times.values()) {
+                assertTrue(time.longValue() >= 0);
+            }
+
+            try {
+                times.clear();
+                fail();
+            } catch (final UnsupportedOperationException e) {
+                // Expected
+            }
+        } finally {
+            results.dispose();
+        }
+
+        assertEquals(1, countRows("select count(*) from Rules")); //$NON-NLS-1$
+    }
+
+    private static String table(final String rows) {
+        return "<table name=\"Actions\">" + COLUMNS + "<rows>" + rows + "</rows></table>"; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+    }
+
+    private long countRows(final String sql) {
+        return connection.createStatement(sql).executeNumericQuery();
+    }
+
+    private long getRowVersion() {
+        return connection.createStatement("select " //$NON-NLS-1$
+            + Metadata.ROW_VERSION_COLUMN_NAME
+            + " from " //$NON-NLS-1$
+            + Metadata.MAXCOUNT_TABLE_NAME
+            + " where " //$NON-NLS-1$
+            + Metadata.TABLE_NAME_COLUMN_NAME
+            + " = 'Actions'").executeLongQuery().longValue(); //$NON-NLS-1$
+    }
+
+    private String getDBStamp() {
+        return connection.createStatement("select DBStamp from WITHousekeeping").executeStringQuery(); //$NON-NLS-1$
+    }
+}
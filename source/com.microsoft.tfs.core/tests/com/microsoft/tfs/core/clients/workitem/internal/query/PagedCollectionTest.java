@@ -3,6 +3,11 @@
 
 package com.microsoft.tfs.core.clients.workitem.internal.query;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
 import junit.framework.TestCase;
 
 public class PagedCollectionTest extends TestCase {
@@ -78,6 +83,138 @@ public class PagedCollectionTest extends TestCase {
         assertFalse(callback.isPageCalled());
     }
 
+    public void testSequentialReadsReadAhead() {
+        final CountingPageCallback counting = new CountingPageCallback();
+        final PagedCollection collection = new PagedCollection(100, 10, counting, 3, 0);
+
+        // The first page alone isn't sequential access
+        collection.getItem(0);
+        assertEquals(1, counting.getCallCount());
+
+        final Object[] items = new Object[100];
+        for (int i = 0; i < 100; i++) {
+            items[i] = collection.getItem(i);
+            assertNotNull(items[i]);
+        }
+
+        // Each page was paged in exactly once, and the items stay put
+        assertEquals(10, counting.getCallCount());
+        for (int i = 0; i < 100; i++) {
+            assertSame(items[i], collection.getItem(i));
+        }
+        assertEquals(10, counting.getCallCount());
+    }
+
+    public void testConsumedPagesAreEvicted() {
+        final CountingPageCallback counting = new CountingPageCallback();
+        final PagedCollection collection = new PagedCollection(100, 10, counting, 1, 3);
+
+        final Object first = collection.getItem(0);
+        for (int i = 0; i < 100; i++) {
+            collection.getItem(i);
+        }
+        assertEquals(10, counting.getCallCount());
+
+        // The first page was dropped, so it's paged in again
+        assertNotSame(first, collection.getItem(0));
+        assertEquals(11, counting.getCallCount());
+    }
+
+    public void testConcurrentMissesShareOnePage() throws Exception {
+        final CountDownLatch paging = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountingPageCallback counting = new CountingPageCallback() {
+            @Override
+            public Object[] pageInItems(final int startingIx, final int length) {
+                paging.countDown();
+                try {
+                    release.await();
+                } catch (final InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                return super.pageInItems(startingIx, length);
+            }
+        };
+        final PagedCollection collection = new PagedCollection(10, 5, counting, 3, 0);
+
+        final Object[] results = new Object[2];
+        final Thread[] threads = new Thread[2];
+        for (int t = 0; t < threads.length; t++) {
+            final int index = t;
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    results[index] = collection.getItem(index);
+                }
+            };
+        }
+
+        threads[0].start();
+        paging.await();
+        threads[1].start();
+
+        // Let the second thread find the page in progress
+        Thread.sleep(100);
+        release.countDown();
+
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(1, counting.getCallCount());
+        assertNotNull(results[0]);
+        assertNotNull(results[1]);
+    }
+
+    public void testFailedPageIsRetried() {
+        final boolean[] fail = new boolean[] {
+            true
+        };
+        final CountingPageCallback counting = new CountingPageCallback() {
+            @Override
+            public Object[] pageInItems(final int startingIx, final int length) {
+                if (fail[0]) {
+                    throw new IllegalStateException();
+                }
+                return super.pageInItems(startingIx, length);
+            }
+        };
+        final PagedCollection collection = new PagedCollection(10, 5, counting, 3, 0);
+
+        try {
+            collection.getItem(0);
+            fail();
+        } catch (final IllegalStateException e) {
+            // Expected
+        }
+
+        fail[0] = false;
+        assertNotNull(collection.getItem(0));
+        assertEquals(1, counting.getCallCount());
+    }
+
+    /**
+     * Counts the pages paged in, from any thread.
+     */
+    private static class CountingPageCallback implements PageCallback {
+        private final List<Integer> calls = Collections.synchronizedList(new ArrayList<Integer>());
+
+        @Override
+        public Object[] pageInItems(final int startingIx, final int length) {
+            calls.add(startingIx);
+
+            final Object[] results = new Object[length];
+            for (int i = 0; i < length; i++) {
+                results[i] = new Object();
+            }
+            return results;
+        }
+
+        public int getCallCount() {
+            return calls.size();
+        }
+    }
+
     private static class MockPageCallback implements PageCallback {
         private boolean pageCalled = false;
         private int lastStartingIx = -1;
@@ -0,0 +1,184 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the repository root.
+
+package com.microsoft.tfs.core.clients.workitem.internal.rowset;
+
+import java.sql.DriverManager;
+
+import com.microsoft.tfs.core.clients.workitem.internal.metadata.Metadata;
+import com.microsoft.tfs.core.internal.db.DBConnection;
+
+import junit.framework.TestCase;
+
+public class DBRowSetHandlerTest extends TestCase {
+    private static final String DRIVER_CLASS = "org.hsqldb.jdbcDriver"; //$NON-NLS-1$
+
+    private DBConnection connection;
+    private String oldBatchSize;
+
+    @Override
+    protected void setUp() throws Exception {
+        Class.forName(DRIVER_CLASS);
+        connection = new DBConnection(
+            DriverManager.getConnection("jdbc:hsqldb:mem:" + getName(), "sa", ""), //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+            DRIVER_CLASS);
+        connection.createStatement("create table " //$NON-NLS-1$
+            + Metadata.MAXCOUNT_TABLE_NAME
+            + " (" //$NON-NLS-1$
+            + Metadata.TABLE_NAME_COLUMN_NAME
+            + " varchar(255), " //$NON-NLS-1$
+            + Metadata.ROW_VERSION_COLUMN_NAME
+            + " bigint)").executeUpdate(); //$NON-NLS-1$
+
+        // Small batches so the rows span several of them
+        oldBatchSize = System.getProperty(DBRowSetHandler.BATCH_SIZE_PROPERTY_NAME);
+        System.setProperty(DBRowSetHandler.BATCH_SIZE_PROPERTY_NAME, "2"); //$NON-NLS-1$
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (oldBatchSize == null) {
+            System.clearProperty(DBRowSetHandler.BATCH_SIZE_PROPERTY_NAME);
+        } else {
+            System.setProperty(DBRowSetHandler.BATCH_SIZE_PROPERTY_NAME, oldBatchSize);
+        }
+
+        connection.createStatement("shutdown").executeUpdate(); //$NON-NLS-1$
+        connection.close();
+    }
+
+    public void testNewTable() {
+        final DBRowSetHandler handler = update(new String[][] {
+            row(1, "a", false, 5), //$NON-NLS-1$
+            row(2, "b", false, 3), //$NON-NLS-1$
+            row(3, "c", true, 9), //$NON-NLS-1$
+            row(4, "d", false, 4), //$NON-NLS-1$
+            row(5, "e", false, 2) //$NON-NLS-1$
+        });
+
+        assertEquals("Actions", handler.getTableName()); //$NON-NLS-1$
+        assertEquals(4, handler.getInsertCount());
+        assertEquals(0, handler.getDeleteCount());
+        assertEquals(1, handler.getSkipCount());
+
+        assertEquals(4, countRows());
+        assertNull(getName(3));
+
+        // Deleted rows count toward the high water mark
+        assertEquals(9, getRowVersion());
+    }
+
+    public void testExistingRowsAreReplaced() {
+        update(new String[][] {
+            row(1, "a", false, 1), //$NON-NLS-1$
+            row(2, "b", false, 2), //$NON-NLS-1$
+            row(3, "c", false, 3) //$NON-NLS-1$
+        });
+
+        final DBRowSetHandler handler = update(new String[][] {
+            row(2, "b2", false, 4), //$NON-NLS-1$
+            // The same key twice in one batch: the later row wins
+            row(2, "b3", false, 5), //$NON-NLS-1$
+            row(3, "c", true, 6), //$NON-NLS-1$
+            row(4, "d", false, 7) //$NON-NLS-1$
+        });
+
+        assertEquals(3, countRows());
+        assertEquals("a", getName(1)); //$NON-NLS-1$
+        assertEquals("b3", getName(2)); //$NON-NLS-1$
+        assertNull(getName(3));
+        assertEquals("d", getName(4)); //$NON-NLS-1$
+        assertEquals(7, getRowVersion());
+
+        assertEquals(3, handler.getInsertCount());
+        assertEquals(3, handler.getDeleteCount());
+    }
+
+    public void testAbortRollsBack() {
+        update(new String[][] {
+            row(1, "a", false, 1), //$NON-NLS-1$
+            row(2, "b", false, 2) //$NON-NLS-1$
+        });
+
+        final DBRowSetHandler handler = new DBRowSetHandler(connection, false);
+        begin(handler);
+        handler.handleRow(row(1, "x", false, 3)); //$NON-NLS-1$
+        handler.handleRow(row(2, "x", true, 4)); //$NON-NLS-1$
+        handler.handleRow(row(3, "x", false, 5)); //$NON-NLS-1$
+        handler.handleRow(row(4, "x", false, 6)); //$NON-NLS-1$
+        handler.handleRow(row(5, "x", false, 7)); //$NON-NLS-1$
+
+        // Some of the batches have been written
+        assertTrue(handler.getInsertCount() > 0);
+
+        handler.abort();
+
+        assertEquals(2, countRows());
+        assertEquals("a", getName(1)); //$NON-NLS-1$
+        assertEquals("b", getName(2)); //$NON-NLS-1$
+        assertEquals(2, getRowVersion());
+
+        // The connection commits each update again
+        connection.createStatement("delete from Actions where ActionID = 1").executeUpdate(); //$NON-NLS-1$
+        connection.rollbackTransaction();
+        assertEquals(1, countRows());
+    }
+
+    public void testAbortWithoutUpdate() {
+        final DBRowSetHandler handler = new DBRowSetHandler(connection, false);
+        handler.handleBeginParsing();
+        handler.handleTableName("Actions"); //$NON-NLS-1$
+
+        // Nothing was started, so there's nothing to roll back
+        handler.abort();
+        assertFalse(connection.getDBSpecificOperations().tableExists("Actions")); //$NON-NLS-1$
+    }
+
+    private DBRowSetHandler update(final String[][] rows) {
+        final DBRowSetHandler handler = new DBRowSetHandler(connection, false);
+        begin(handler);
+        for (int i = 0; i < rows.length; i++) {
+            handler.handleRow(rows[i]);
+        }
+        handler.handleEndParsing();
+        return handler;
+    }
+
+    private static void begin(final DBRowSetHandler handler) {
+        handler.handleBeginParsing();
+        handler.handleTableName("Actions"); //$NON-NLS-1$
+        handler.handleColumn("ActionID", "System.Int32"); //$NON-NLS-1$ //$NON-NLS-2$
+        handler.handleColumn("Name", "System.String"); //$NON-NLS-1$ //$NON-NLS-2$
+        handler.handleColumn("fDeleted", "System.Boolean"); //$NON-NLS-1$ //$NON-NLS-2$
+        handler.handleColumn("Cachestamp", "System.UInt64"); //$NON-NLS-1$ //$NON-NLS-2$
+        handler.handleFinishedColumns();
+    }
+
+    private static String[] row(final int id, final String name, final boolean deleted, final long cacheStamp) {
+        return new String[] {
+            Integer.toString(id),
+            name,
+            Boolean.toString(deleted),
+            Long.toString(cacheStamp)
+        };
+    }
+
+    private long countRows() {
+        return connection.createStatement("select count(*) from Actions").executeNumericQuery(); //$NON-NLS-1$
+    }
+
+    private String getName(final int id) {
+        return connection.createStatement("select Name from Actions where ActionID = ?").executeStringQuery( //$NON-NLS-1$
+            Integer.valueOf(id));
+    }
+
+    private long getRowVersion() {
+        return connection.createStatement("select " //$NON-NLS-1$
+            + Metadata.ROW_VERSION_COLUMN_NAME
+            + " from " //$NON-NLS-1$
+            + Metadata.MAXCOUNT_TABLE_NAME
+            + " where " //$NON-NLS-1$
+            + Metadata.TABLE_NAME_COLUMN_NAME
+            + " = 'Actions'").executeLongQuery().longValue(); //$NON-NLS-1$
+    }
+}
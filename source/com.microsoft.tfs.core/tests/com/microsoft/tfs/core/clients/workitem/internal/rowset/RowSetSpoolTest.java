@@ -0,0 +1,147 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the repository root.
+
+package com.microsoft.tfs.core.clients.workitem.internal.rowset;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamWriter;
+
+import junit.framework.TestCase;
+
+public class RowSetSpoolTest extends TestCase {
+    private static final String ROW_SET = "<table name=\"Actions\">" //$NON-NLS-1$
+        + "<columns>" //$NON-NLS-1$
+        + "<c><n>ActionID</n><t>System.Int32</t></c>" //$NON-NLS-1$
+        + "<c><n>Name</n><t>System.String</t></c>" //$NON-NLS-1$
+        + "<c><n>Note</n><t>System.String</t></c>" //$NON-NLS-1$
+        + "</columns>" //$NON-NLS-1$
+        + "<rows>" //$NON-NLS-1$
+        + "<r><f>1</f><f>Resolve &amp; close</f><f>\u00e9\u4e2d</f></r>" //$NON-NLS-1$
+        + "<r><f>2</f><f k=\"2\">Skipped</f></r>" //$NON-NLS-1$
+        + "<r><f>3</f></r>" //$NON-NLS-1$
+        + "</rows>" //$NON-NLS-1$
+        + "</table>"; //$NON-NLS-1$
+
+    /**
+     * Records the events it's given as strings.
+     */
+    private static class RecordingHandler implements RowSetParseHandler {
+        public final List<String> events = new ArrayList<String>();
+
+        @Override
+        public void handleBeginParsing() {
+            events.add("begin"); //$NON-NLS-1$
+        }
+
+        @Override
+        public void handleTableName(final String tableName) {
+            events.add("table " + tableName); //$NON-NLS-1$
+        }
+
+        @Override
+        public void handleColumn(final String name, final String type) {
+            events.add("column " + name + " " + type); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+
+        @Override
+        public void handleFinishedColumns() {
+            events.add("columns"); //$NON-NLS-1$
+        }
+
+        @Override
+        public void handleRow(final String[] rowValues) {
+            events.add("row " + Arrays.asList(rowValues)); //$NON-NLS-1$
+        }
+
+        @Override
+        public void handleEndParsing() {
+            events.add("end"); //$NON-NLS-1$
+        }
+    }
+
+    public void testReplay() throws Exception {
+        final RowSetSpool spool = spool(ROW_SET);
+        try {
+            assertEquals("Actions", spool.getTableName()); //$NON-NLS-1$
+            assertEquals(parse(ROW_SET), replay(spool));
+
+            // Replaying again gives the same events
+            assertEquals(parse(ROW_SET), replay(spool));
+        } finally {
+            spool.dispose();
+        }
+    }
+
+    public void testWriteAsElement() throws Exception {
+        final RowSetSpool spool = spool(ROW_SET);
+        try {
+            final StringWriter xml = new StringWriter();
+            final XMLStreamWriter writer = XMLOutputFactory.newInstance().createXMLStreamWriter(xml);
+            spool.writeAsElement(writer);
+            writer.close();
+
+            // The written row set parses to the same events
+            assertEquals(parse(ROW_SET), parse(xml.toString()));
+        } finally {
+            spool.dispose();
+        }
+    }
+
+    public void testEmptyRowSet() throws Exception {
+        final String rowSet = "<table name=\"Actions\"><columns></columns></table>"; //$NON-NLS-1$
+        final RowSetSpool spool = spool(rowSet);
+        try {
+            assertEquals(parse(rowSet), replay(spool));
+
+            final StringWriter xml = new StringWriter();
+            final XMLStreamWriter writer = XMLOutputFactory.newInstance().createXMLStreamWriter(xml);
+            spool.writeAsElement(writer);
+            writer.close();
+            assertEquals(parse(rowSet), parse(xml.toString()));
+        } finally {
+            spool.dispose();
+        }
+    }
+
+    public void testUnfinishedSpoolCannotBeReplayed() {
+        final RowSetSpool spool = new RowSetSpool();
+        try {
+            spool.handleBeginParsing();
+            spool.handleTableName("Actions"); //$NON-NLS-1$
+
+            spool.replay(new RecordingHandler());
+            fail();
+        } catch (final IllegalStateException e) {
+            // Expected
+        } finally {
+            spool.dispose();
+        }
+    }
+
+    private static RowSetSpool spool(final String rowSet) throws Exception {
+        final RowSetSpool spool = new RowSetSpool();
+        new RowSetParser().parse(
+            XMLInputFactory.newInstance().createXMLStreamReader(new StringReader(rowSet)),
+            spool);
+        return spool;
+    }
+
+    private static List<String> parse(final String rowSet) throws Exception {
+        final RecordingHandler handler = new RecordingHandler();
+        new RowSetParser().parse(
+            XMLInputFactory.newInstance().createXMLStreamReader(new StringReader(rowSet)),
+            handler);
+        return handler.events;
+    }
+
+    private static List<String> replay(final RowSetSpool spool) {
+        return ((RecordingHandler) spool.replay(new RecordingHandler())).events;
+    }
+}
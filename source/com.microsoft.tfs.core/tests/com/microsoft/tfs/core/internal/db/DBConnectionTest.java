@@ -0,0 +1,87 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the repository root.
+
+package com.microsoft.tfs.core.internal.db;
+
+import java.sql.DriverManager;
+
+import junit.framework.TestCase;
+
+public class DBConnectionTest extends TestCase {
+    private static final String DRIVER_CLASS = "org.hsqldb.jdbcDriver"; //$NON-NLS-1$
+
+    private DBConnection connection;
+
+    @Override
+    protected void setUp() throws Exception {
+        Class.forName(DRIVER_CLASS);
+        connection = new DBConnection(
+            DriverManager.getConnection("jdbc:hsqldb:mem:" + getName(), "sa", ""), //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+            DRIVER_CLASS);
+        connection.createStatement("create table Items (ID int primary key)").executeUpdate(); //$NON-NLS-1$
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        connection.createStatement("shutdown").executeUpdate(); //$NON-NLS-1$
+        connection.close();
+    }
+
+    public void testCommitTransaction() {
+        connection.beginTransaction();
+        insert(1);
+        insert(2);
+        connection.commitTransaction();
+
+        assertEquals(2, countItems());
+
+        // Updates are committed one at a time again
+        insert(3);
+        connection.rollbackTransaction();
+        assertEquals(3, countItems());
+    }
+
+    public void testRollbackTransaction() {
+        insert(1);
+
+        connection.beginTransaction();
+        insert(2);
+        connection.createStatement("delete from Items where ID = 1").executeUpdate(); //$NON-NLS-1$
+        assertEquals(1, countItems());
+        connection.rollbackTransaction();
+
+        assertEquals(1, countItems());
+        assertEquals(1, connection.createStatement("select ID from Items").executeIntQuery().intValue()); //$NON-NLS-1$
+    }
+
+    public void testRollbackWithoutTransaction() {
+        insert(1);
+        connection.rollbackTransaction();
+
+        assertEquals(1, countItems());
+    }
+
+    public void testBatchInTransaction() {
+        connection.beginTransaction();
+
+        final DBStatement statement = connection.createStatement("insert into Items values (?)"); //$NON-NLS-1$
+        statement.beginBatch(2);
+        for (int i = 0; i < 5; i++) {
+            statement.addBatch(Integer.valueOf(i));
+        }
+        statement.finishBatch();
+        assertEquals(5, countItems());
+
+        // Batches sent to the database are still rolled back
+        connection.rollbackTransaction();
+        assertEquals(0, countItems());
+    }
+
+    private void insert(final int id) {
+        connection.createStatement("insert into Items values (?)").executeUpdate(Integer.valueOf(id)); //$NON-NLS-1$
+    }
+
+    private long countItems() {
+        return connection.createStatement("select count(*) from Items").executeNumericQuery(); //$NON-NLS-1$
+    }
+}
@@ -0,0 +1,127 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the repository root.
+
+package com.microsoft.tfs.core.internal.db;
+
+import java.sql.DriverManager;
+
+import junit.framework.TestCase;
+
+public class DBStatementTest extends TestCase {
+    private static final String DRIVER_CLASS = "org.hsqldb.jdbcDriver"; //$NON-NLS-1$
+
+    private DBConnection connection;
+
+    @Override
+    protected void setUp() throws Exception {
+        Class.forName(DRIVER_CLASS);
+        connection = new DBConnection(
+            DriverManager.getConnection("jdbc:hsqldb:mem:" + getName(), "sa", ""), //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+            DRIVER_CLASS);
+        connection.createStatement("create table Items (ID int primary key, Name varchar(20))").executeUpdate(); //$NON-NLS-1$
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        connection.createStatement("shutdown").executeUpdate(); //$NON-NLS-1$
+        connection.close();
+    }
+
+    public void testBatchIsSentWhenFull() {
+        final DBStatement insert = connection.createStatement("insert into Items values (?, ?)"); //$NON-NLS-1$
+        insert.beginBatch(3);
+
+        insert.addBatch(row(1, "a")); //$NON-NLS-1$
+        insert.addBatch(row(2, "b")); //$NON-NLS-1$
+        assertEquals(0, countItems());
+        assertEquals(0, insert.getBatchUpdateCount());
+
+        // The third update fills the batch
+        insert.addBatch(row(3, "c")); //$NON-NLS-1$
+        assertEquals(3, countItems());
+        assertEquals(3, insert.getBatchUpdateCount());
+
+        insert.addBatch(row(4, "d")); //$NON-NLS-1$
+        assertEquals(3, countItems());
+
+        insert.finishBatch();
+        assertEquals(4, countItems());
+        assertEquals(4, insert.getBatchUpdateCount());
+    }
+
+    public void testExecuteBatch() {
+        final DBStatement insert = connection.createStatement("insert into Items values (?, ?)"); //$NON-NLS-1$
+        insert.beginBatch(10);
+
+        assertEquals(0, insert.executeBatch());
+
+        insert.addBatch(row(1, "a")); //$NON-NLS-1$
+        insert.addBatch(row(2, "b")); //$NON-NLS-1$
+        assertEquals(2, insert.executeBatch());
+        assertEquals(2, countItems());
+
+        // Nothing is left to send
+        assertEquals(0, insert.executeBatch());
+        insert.finishBatch();
+        assertEquals(2, insert.getBatchUpdateCount());
+    }
+
+    public void testBatchCountsChangedRows() {
+        final DBStatement insert = connection.createStatement("insert into Items values (?, ?)"); //$NON-NLS-1$
+        insert.beginBatch();
+        for (int i = 0; i < 5; i++) {
+            insert.addBatch(row(i, "x")); //$NON-NLS-1$
+        }
+        insert.finishBatch();
+
+        final DBStatement delete = connection.createStatement("delete from Items where ID = ?"); //$NON-NLS-1$
+        delete.beginBatch(2);
+        delete.addBatch(Integer.valueOf(1));
+        delete.addBatch(Integer.valueOf(3));
+
+        // Deletes which match no row don't count
+        delete.addBatch(Integer.valueOf(99));
+        delete.finishBatch();
+
+        assertEquals(2, delete.getBatchUpdateCount());
+        assertEquals(3, countItems());
+    }
+
+    public void testBeginBatchNeedsPositiveSize() {
+        final DBStatement insert = connection.createStatement("insert into Items values (?, ?)"); //$NON-NLS-1$
+
+        try {
+            insert.beginBatch(0);
+            fail();
+        } catch (final IllegalArgumentException e) {
+            // Expected
+        }
+    }
+
+    public void testFailedBatchThrows() {
+        final DBStatement insert = connection.createStatement("insert into Items values (?, ?)"); //$NON-NLS-1$
+        insert.beginBatch(2);
+        insert.addBatch(row(1, "a")); //$NON-NLS-1$
+
+        try {
+            // The duplicate key fails the batch
+            insert.addBatch(row(1, "b")); //$NON-NLS-1$
+            fail();
+        } catch (final DBException e) {
+            // Expected
+        } finally {
+            insert.finishBatch();
+        }
+    }
+
+    private long countItems() {
+        return connection.createStatement("select count(*) from Items").executeNumericQuery(); //$NON-NLS-1$
+    }
+
+    private static Object[] row(final int id, final String name) {
+        return new Object[] {
+            Integer.valueOf(id),
+            name
+        };
+    }
+}
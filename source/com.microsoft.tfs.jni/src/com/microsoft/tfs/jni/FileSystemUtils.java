@@ -6,11 +6,26 @@ package com.microsoft.tfs.jni;
 import java.io.File;
 import java.io.IOException;
 import java.text.MessageFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.microsoft.tfs.jni.internal.filesystem.NIODirectoryAttributesReader;
 import com.microsoft.tfs.jni.internal.filesystem.NativeFileSystem;
 import com.microsoft.tfs.util.Check;
 
 public class FileSystemUtils implements FileSystem {
+    private static final Log log = LogFactory.getLog(FileSystemUtils.class);
+
+    /**
+     * A property which, when set to <code>true</code>, makes
+     * {@link #getChildAttributes(String)} read attributes with
+     * <code>java.nio.file</code> even when the native library is loaded.
+     */
+    private static final String PREFER_NIO_PROPERTY_NAME = "com.microsoft.tfs.jni.filesystem.prefer-nio"; //$NON-NLS-1$
+
     private static final FileSystemUtils instance = new FileSystemUtils();
 
     /**
@@ -23,27 +38,32 @@ public class FileSystemUtils implements FileSystem {
 
     private final NativeFileSystem nativeImpl;
 
+    /**
+     * Reads whole directories for {@link #getChildAttributes(String)}, or
+     * <code>null</code> if java.nio.file isn't available or doesn't support
+     * the file system.
+     */
+    private volatile NIODirectoryAttributesReader nioReader;
+
+    /**
+     * Whether {@link #getChildAttributes(String)} uses {@link #nioReader}
+     * before trying the native library. Set when the native library turns out
+     * not to be loaded.
+     */
+    private volatile boolean preferNIO = Boolean.getBoolean(PREFER_NIO_PROPERTY_NAME);
+
     private FileSystemUtils() {
         nativeImpl = new NativeFileSystem();
+
+        if (NIODirectoryAttributesReader.isAvailable()) {
+            nioReader = new NIODirectoryAttributesReader();
+        }
     }
 
     @Override
     public FileSystemAttributes getAttributes(final String filepath) {
         try {
-            final FileSystemAttributes attrs = nativeImpl.getAttributes(filepath);
-
-            if (attrs.isSymbolicLink()) {
-                attrs.setArchive(false);
-                attrs.setExecutable(false);
-                attrs.setHidden(false);
-                attrs.setNotContentIndexed(false);
-                attrs.setOwnerOnly(false);
-                attrs.setPublicWritable(false);
-                attrs.setReadOnly(true);
-                attrs.setSystem(false);
-            }
-
-            return attrs;
+            return normalizeSymbolicLink(nativeImpl.getAttributes(filepath));
         } catch (final RuntimeException e) {
             // Add the file path to the exception message.
             final String format = Messages.getString("FileSystemUtils.MessagePlusPathFormat"); //$NON-NLS-1$
@@ -51,6 +71,129 @@ public class FileSystemUtils implements FileSystem {
         }
     }
 
+    /**
+     * Gets the attributes of all the children of a directory in one pass over
+     * the directory, which is faster than listing it and calling
+     * {@link #getAttributes(String)} for each child.
+     * <p>
+     * The attributes are read with the native library when it is loaded, and
+     * with <code>java.nio.file</code> (on file systems with POSIX attributes)
+     * when it isn't or when the
+     * <code>com.microsoft.tfs.jni.filesystem.prefer-nio</code> system property
+     * is <code>true</code>. Both give the same attributes as
+     * {@link #getAttributes(String)}.
+     *
+     * @param directory
+     *        the directory whose children to read (must not be
+     *        <code>null</code>)
+     * @return a map of child names (not paths) to their attributes, in the
+     *         order the directory listed them, or <code>null</code> if the
+     *         directory could not be listed. A value is <code>null</code> if
+     *         the child's attributes could not be read; call
+     *         {@link #getAttributes(String)} for the child to get the error.
+     */
+    public Map<String, FileSystemAttributes> getChildAttributes(final String directory) {
+        Check.notNull(directory, "directory"); //$NON-NLS-1$
+
+        if (preferNIO) {
+            final Map<String, FileSystemAttributes> children = getChildAttributesNIO(directory);
+
+            if (nioReader != null) {
+                return children;
+            }
+        }
+
+        final String[] names = new File(directory).list();
+        if (names == null) {
+            return null;
+        }
+
+        final Map<String, FileSystemAttributes> children = new LinkedHashMap<String, FileSystemAttributes>();
+
+        for (final String name : names) {
+            final String path = new File(directory, name).getPath();
+            FileSystemAttributes attrs;
+
+            try {
+                attrs = normalizeSymbolicLink(nativeImpl.getAttributes(path));
+            } catch (final UnsatisfiedLinkError e) {
+                if (nioReader == null) {
+                    throw e;
+                }
+
+                log.info("Native file system library is not loaded, reading directories with java.nio.file"); //$NON-NLS-1$
+                preferNIO = true;
+                return getChildAttributes(directory);
+            } catch (final RuntimeException e) {
+                attrs = null;
+            }
+
+            children.put(name, attrs);
+        }
+
+        return children;
+    }
+
+    /**
+     * Convenience method to get the attributes of a directory's children from
+     * a {@link File}.
+     *
+     * @see #getChildAttributes(String)
+     */
+    public Map<String, FileSystemAttributes> getChildAttributes(final File directory) {
+        Check.notNull(directory, "directory"); //$NON-NLS-1$
+        return getChildAttributes(directory.getPath());
+    }
+
+    /**
+     * Reads a directory with {@link #nioReader}. If the directory's file
+     * system isn't supported, {@link #nioReader} is cleared so the native
+     * library is used from now on.
+     */
+    private Map<String, FileSystemAttributes> getChildAttributesNIO(final String directory) {
+        final NIODirectoryAttributesReader reader = nioReader;
+
+        if (reader != null) {
+            try {
+                final Map<String, FileSystemAttributes> children = reader.getChildAttributes(directory);
+
+                if (children != null) {
+                    for (final Map.Entry<String, FileSystemAttributes> entry : children.entrySet()) {
+                        normalizeSymbolicLink(entry.getValue());
+                    }
+                }
+
+                return children;
+            } catch (final UnsupportedOperationException e) {
+                log.info("java.nio.file can't read POSIX attributes, reading directories with native code", e); //$NON-NLS-1$
+                nioReader = null;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Gives a symbolic link's attributes the fixed values callers expect (a
+     * link is read-only and has no other attributes).
+     *
+     * @return the given attributes
+     */
+    private static FileSystemAttributes normalizeSymbolicLink(final FileSystemAttributes attrs) {
+        if (attrs != null && attrs.isSymbolicLink()) {
+            attrs.setArchive(false);
+            attrs.setExecutable(false);
+            attrs.setHidden(false);
+            attrs.setNotContentIndexed(false);
+            attrs.setOwnerOnly(false);
+            attrs.setPublicWritable(false);
+            attrs.setReadOnly(true);
+            attrs.setSystem(false);
+        }
+
+        return attrs;
+    }
+
     /**
      * Convenience method to get attributes from a {@link File}.
      *
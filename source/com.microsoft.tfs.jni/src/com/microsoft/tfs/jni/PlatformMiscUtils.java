@@ -3,6 +3,8 @@
 
 package com.microsoft.tfs.jni;
 
+import java.util.Map;
+
 import com.microsoft.tfs.jni.internal.platformmisc.NativePlatformMisc;
 
 public class PlatformMiscUtils implements PlatformMisc {
@@ -16,6 +18,28 @@ public class PlatformMiscUtils implements PlatformMisc {
         return PlatformMiscUtils.instance;
     }
 
+    /**
+     * The environment {@link #getEnvironmentVariable(String)} reads instead of
+     * the process's, or <code>null</code> to read the process's.
+     */
+    private static volatile Map<String, String> environmentOverride;
+
+    /**
+     * Makes {@link #getEnvironmentVariable(String)} read the given variables
+     * instead of the process's environment. A long-running process which runs
+     * commands on behalf of other processes sets each one's environment while
+     * it runs the command. {@link #expandEnvironmentString(String)} still uses
+     * the process's environment.
+     *
+     * @param environment
+     *        the variables to read (the map is used as is, so it must look up
+     *        names case-insensitively on Windows), or <code>null</code> to read
+     *        the process's environment again
+     */
+    public static void setEnvironmentOverride(final Map<String, String> environment) {
+        environmentOverride = environment;
+    }
+
     private final NativePlatformMisc nativeImpl;
 
     private PlatformMiscUtils() {
@@ -44,6 +68,11 @@ public class PlatformMiscUtils implements PlatformMisc {
 
     @Override
     public String getEnvironmentVariable(final String name) {
+        final Map<String, String> environment = environmentOverride;
+        if (environment != null) {
+            return environment.get(name);
+        }
+
         return nativeImpl.getEnvironmentVariable(name);
     }
 
@@ -0,0 +1,305 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the repository root.
+
+package com.microsoft.tfs.jni.internal.filesystem;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.microsoft.tfs.jni.FileSystemAttributes;
+import com.microsoft.tfs.jni.FileSystemTime;
+import com.microsoft.tfs.util.Check;
+
+/**
+ * Reads the attributes of all the children of a directory with the Java 7
+ * <code>java.nio.file</code> API: one <code>DirectoryStream</code> to list the
+ * directory and one <code>readAttributes(..., "posix:...")</code> for each
+ * child (two for symbolic links, which are read and followed). No native code
+ * is used.
+ * <p>
+ * The attributes match what {@link NativeFileSystem} returns on Unix. Only
+ * file systems with a POSIX attribute view are supported (not Windows), and
+ * {@link #getChildAttributes(String)} throws
+ * {@link UnsupportedOperationException} for others.
+ * <p>
+ * The JNI project is built for Java 6, so the <code>java.nio.file</code>
+ * classes are accessed with reflection. Use {@link #isAvailable()} to test
+ * whether they can be used in this JVM.
+ *
+ * @threadsafety thread-safe
+ */
+public class NIODirectoryAttributesReader {
+    private static final Log log = LogFactory.getLog(NIODirectoryAttributesReader.class);
+
+    /**
+     * The attributes read for each child. Owner and group are deliberately not
+     * read ("posix:*" would look up their names, which costs more than the
+     * stat).
+     */
+    private static final String ATTRIBUTES =
+        "posix:lastModifiedTime,size,isDirectory,isSymbolicLink,permissions"; //$NON-NLS-1$
+
+    /**
+     * Names of <code>PosixFilePermission</code> values.
+     */
+    private static final String OWNER_WRITE = "OWNER_WRITE"; //$NON-NLS-1$
+    private static final String OWNER_EXECUTE = "OWNER_EXECUTE"; //$NON-NLS-1$
+    private static final String GROUP_WRITE = "GROUP_WRITE"; //$NON-NLS-1$
+    private static final String OTHERS_WRITE = "OTHERS_WRITE"; //$NON-NLS-1$
+    private static final String GROUP_PREFIX = "GROUP_"; //$NON-NLS-1$
+    private static final String OTHERS_PREFIX = "OTHERS_"; //$NON-NLS-1$
+
+    private static final boolean AVAILABLE;
+
+    private static Method fileToPath;
+    private static Method filesNewDirectoryStream;
+    private static Method filesReadAttributes;
+    private static Method pathGetFileName;
+    private static Method fileTimeTo;
+
+    private static Object noFollowLinks;
+    private static Object followLinks;
+
+    private static Class<?> noSuchFileExceptionClass;
+    private static Class<?> directoryIteratorExceptionClass;
+
+    static {
+        boolean available = false;
+
+        try {
+            final Class<?> filesClass = Class.forName("java.nio.file.Files"); //$NON-NLS-1$
+            final Class<?> pathClass = Class.forName("java.nio.file.Path"); //$NON-NLS-1$
+            final Class<?> linkOptionClass = Class.forName("java.nio.file.LinkOption"); //$NON-NLS-1$
+            final Class<?> fileTimeClass = Class.forName("java.nio.file.attribute.FileTime"); //$NON-NLS-1$
+
+            fileToPath = File.class.getMethod("toPath"); //$NON-NLS-1$
+            filesNewDirectoryStream = filesClass.getMethod("newDirectoryStream", pathClass); //$NON-NLS-1$
+            filesReadAttributes = filesClass.getMethod(
+                "readAttributes", //$NON-NLS-1$
+                pathClass,
+                String.class,
+                Array.newInstance(linkOptionClass, 0).getClass());
+            pathGetFileName = pathClass.getMethod("getFileName"); //$NON-NLS-1$
+            fileTimeTo = fileTimeClass.getMethod("to", TimeUnit.class); //$NON-NLS-1$
+
+            noFollowLinks = Array.newInstance(linkOptionClass, 1);
+            Array.set(noFollowLinks, 0, linkOptionClass.getField("NOFOLLOW_LINKS").get(null)); //$NON-NLS-1$
+            followLinks = Array.newInstance(linkOptionClass, 0);
+
+            noSuchFileExceptionClass = Class.forName("java.nio.file.NoSuchFileException"); //$NON-NLS-1$
+            directoryIteratorExceptionClass = Class.forName("java.nio.file.DirectoryIteratorException"); //$NON-NLS-1$
+
+            available = true;
+        } catch (final Exception e) {
+            log.info("java.nio.file is not available, NIODirectoryAttributesReader is disabled: " + e.getMessage()); //$NON-NLS-1$
+        }
+
+        AVAILABLE = available;
+    }
+
+    /**
+     * @return true if the <code>java.nio.file</code> classes are available in
+     *         this JVM
+     */
+    public static boolean isAvailable() {
+        return AVAILABLE;
+    }
+
+    public NIODirectoryAttributesReader() {
+        Check.isTrue(AVAILABLE, "java.nio.file is available"); //$NON-NLS-1$
+    }
+
+    /**
+     * Lists a directory and reads the attributes of each of its children.
+     *
+     * @param directory
+     *        the directory to list (must not be <code>null</code>)
+     * @return a map of child names to their attributes, in the order the
+     *         directory listed them, or <code>null</code> if the directory
+     *         could not be listed (it doesn't exist, is not a directory, or
+     *         can't be read). A value is <code>null</code> if the child's
+     *         attributes could not be read.
+     * @throws UnsupportedOperationException
+     *         if the directory's file system has no POSIX attribute view
+     */
+    public Map<String, FileSystemAttributes> getChildAttributes(final String directory) {
+        Check.notNull(directory, "directory"); //$NON-NLS-1$
+
+        final Object stream;
+
+        try {
+            stream = invoke(filesNewDirectoryStream, null, invoke(fileToPath, new File(directory)));
+        } catch (final IOException e) {
+            return null;
+        }
+
+        final Map<String, FileSystemAttributes> children = new LinkedHashMap<String, FileSystemAttributes>();
+
+        try {
+            for (final Object childPath : (Iterable<?>) stream) {
+                children.put(invokeUnchecked(pathGetFileName, childPath).toString(), readAttributes(childPath));
+            }
+        } catch (final RuntimeException e) {
+            if (directoryIteratorExceptionClass.isInstance(e)) {
+                // The directory could not be read part way through
+                return null;
+            }
+            throw e;
+        } finally {
+            try {
+                ((Closeable) stream).close();
+            } catch (final IOException e) {
+                // Ignore
+            }
+        }
+
+        return children;
+    }
+
+    /**
+     * Reads one child's attributes like the native implementation: the link
+     * itself decides the modification time and whether it's a symbolic link,
+     * and the link's target decides everything else.
+     *
+     * @return the attributes, or <code>null</code> if they could not be read
+     */
+    private FileSystemAttributes readAttributes(final Object path) {
+        final Map<?, ?> link;
+
+        try {
+            link = (Map<?, ?>) invoke(filesReadAttributes, null, path, ATTRIBUTES, noFollowLinks);
+        } catch (final IOException e) {
+            if (noSuchFileExceptionClass.isInstance(e)) {
+                // Deleted since it was listed
+                return new FileSystemAttributes();
+            }
+
+            log.debug("Could not read attributes of " + path, e); //$NON-NLS-1$
+            return null;
+        }
+
+        final boolean symbolicLink = ((Boolean) link.get("isSymbolicLink")).booleanValue(); //$NON-NLS-1$
+        final FileSystemTime modificationTime = toFileSystemTime(link.get("lastModifiedTime")); //$NON-NLS-1$
+
+        Map<?, ?> target = link;
+        if (symbolicLink) {
+            try {
+                target = (Map<?, ?>) invoke(filesReadAttributes, null, path, ATTRIBUTES, followLinks);
+            } catch (final IOException e) {
+                // A link to a file which doesn't exist
+                return new FileSystemAttributes(
+                    true,
+                    modificationTime,
+                    0,
+                    false,
+                    false,
+                    false,
+                    false,
+                    false,
+                    false,
+                    false,
+                    false,
+                    false,
+                    true);
+            }
+        }
+
+        boolean ownerWrite = false;
+        boolean ownerExecute = false;
+        boolean anyGroupOrOthers = false;
+        boolean groupWrite = false;
+        boolean othersWrite = false;
+
+        final Collection<?> permissions = (Collection<?>) target.get("permissions"); //$NON-NLS-1$
+        for (final Object permission : permissions) {
+            final String name = permission.toString();
+
+            if (name.equals(OWNER_WRITE)) {
+                ownerWrite = true;
+            } else if (name.equals(OWNER_EXECUTE)) {
+                ownerExecute = true;
+            } else if (name.startsWith(GROUP_PREFIX) || name.startsWith(OTHERS_PREFIX)) {
+                anyGroupOrOthers = true;
+
+                if (name.equals(GROUP_WRITE)) {
+                    groupWrite = true;
+                } else if (name.equals(OTHERS_WRITE)) {
+                    othersWrite = true;
+                }
+            }
+        }
+
+        return new FileSystemAttributes(
+            true,
+            modificationTime,
+            ((Long) target.get("size")).longValue(), //$NON-NLS-1$
+            !ownerWrite,
+            !anyGroupOrOthers,
+            groupWrite && othersWrite,
+            false,
+            false,
+            ((Boolean) target.get("isDirectory")).booleanValue(), //$NON-NLS-1$
+            false,
+            false,
+            ownerExecute,
+            symbolicLink);
+    }
+
+    private static FileSystemTime toFileSystemTime(final Object fileTime) {
+        final long nanos = ((Long) invokeUnchecked(fileTimeTo, fileTime, TimeUnit.NANOSECONDS)).longValue();
+
+        long seconds = nanos / 1000000000L;
+        long remainder = nanos % 1000000000L;
+        if (remainder < 0) {
+            seconds--;
+            remainder += 1000000000L;
+        }
+
+        return new FileSystemTime(seconds, remainder);
+    }
+
+    /**
+     * Invokes a reflected method, rethrowing any {@link IOException} it
+     * throws, and any other exception as a {@link RuntimeException}.
+     */
+    private static Object invoke(final Method method, final Object target, final Object... args) throws IOException {
+        try {
+            return method.invoke(target, args);
+        } catch (final InvocationTargetException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        } catch (final IllegalAccessException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Invokes a reflected method which doesn't throw checked exceptions.
+     */
+    private static Object invokeUnchecked(final Method method, final Object target, final Object... args) {
+        try {
+            return invoke(method, target, args);
+        } catch (final IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
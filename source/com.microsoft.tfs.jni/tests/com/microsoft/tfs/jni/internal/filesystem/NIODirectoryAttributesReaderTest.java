@@ -0,0 +1,110 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the repository root.
+
+package com.microsoft.tfs.jni.internal.filesystem;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Map;
+
+import com.microsoft.tfs.jni.FileSystemAttributes;
+import com.microsoft.tfs.jni.FileSystemTime;
+import com.microsoft.tfs.util.Platform;
+
+import junit.framework.TestCase;
+
+public class NIODirectoryAttributesReaderTest extends TestCase {
+    private File directory;
+
+    @Override
+    protected void setUp() throws Exception {
+        directory = File.createTempFile("NIODirectoryAttributesReaderTest", ""); //$NON-NLS-1$ //$NON-NLS-2$
+        directory.delete();
+        directory.mkdir();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        final File[] children = directory.listFiles();
+        if (children != null) {
+            for (final File child : children) {
+                child.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    public void testChildAttributes() throws Exception {
+        // POSIX attributes are not available on Windows
+        if (!NIODirectoryAttributesReader.isAvailable() || !Platform.isCurrentPlatform(Platform.GENERIC_UNIX)) {
+            return;
+        }
+
+        final File file = write("file", 3); //$NON-NLS-1$
+        file.setLastModified(1500000000000L);
+        final File readOnly = write("readonly", 1); //$NON-NLS-1$
+        readOnly.setWritable(false);
+        final File executable = write("executable", 0); //$NON-NLS-1$
+        executable.setExecutable(true);
+        new File(directory, "dir").mkdir(); //$NON-NLS-1$
+        link(file, "link"); //$NON-NLS-1$
+        link(new File(directory, "missing"), "dangling"); //$NON-NLS-1$ //$NON-NLS-2$
+
+        final Map<String, FileSystemAttributes> children =
+            new NIODirectoryAttributesReader().getChildAttributes(directory.getPath());
+
+        assertEquals(6, children.size());
+
+        final FileSystemAttributes fileAttrs = children.get("file"); //$NON-NLS-1$
+        assertTrue(fileAttrs.exists());
+        assertEquals(3, fileAttrs.getSize());
+        assertFalse(fileAttrs.isReadOnly());
+        assertFalse(fileAttrs.isDirectory());
+        assertFalse(fileAttrs.isSymbolicLink());
+        assertEquals(new FileSystemTime(1500000000L, 0), fileAttrs.getModificationTime());
+
+        assertTrue(children.get("readonly").isReadOnly()); //$NON-NLS-1$
+        assertTrue(children.get("executable").isExecutable()); //$NON-NLS-1$
+        assertTrue(children.get("dir").isDirectory()); //$NON-NLS-1$
+
+        final FileSystemAttributes linkAttrs = children.get("link"); //$NON-NLS-1$
+        assertTrue(linkAttrs.exists());
+        assertTrue(linkAttrs.isSymbolicLink());
+        assertEquals(3, linkAttrs.getSize());
+
+        final FileSystemAttributes danglingAttrs = children.get("dangling"); //$NON-NLS-1$
+        assertTrue(danglingAttrs.exists());
+        assertTrue(danglingAttrs.isSymbolicLink());
+        assertEquals(0, danglingAttrs.getSize());
+    }
+
+    public void testMissingDirectory() {
+        if (!NIODirectoryAttributesReader.isAvailable()) {
+            return;
+        }
+
+        assertNull(new NIODirectoryAttributesReader().getChildAttributes(new File(directory, "missing").getPath())); //$NON-NLS-1$
+    }
+
+    private File write(final String name, final int length) throws IOException {
+        final File file = new File(directory, name);
+        final FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(new byte[length]);
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    private void link(final File target, final String name) throws Exception {
+        final Process process = Runtime.getRuntime().exec(new String[] {
+            "ln", //$NON-NLS-1$
+            "-s", //$NON-NLS-1$
+            target.getPath(),
+            new File(directory, name).getPath()
+        });
+        assertEquals(0, process.waitFor());
+    }
+}
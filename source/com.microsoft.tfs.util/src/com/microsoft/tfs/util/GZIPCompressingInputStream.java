@@ -0,0 +1,204 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the repository root.
+
+package com.microsoft.tfs.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * An {@link InputStream} which reads uncompressed bytes from another stream
+ * and returns them in gzip format (the opposite of {@link GZIPInputStream}).
+ * Compression happens as the stream is read, so no more than one read buffer
+ * of compressed data is ever held.
+ * <p>
+ * The output for the same input is always the same (the gzip header has no
+ * file name or modification time), so a stream may be read once to measure
+ * the compressed length and again to send the data.
+ *
+ * @threadsafety thread-compatible
+ */
+public class GZIPCompressingInputStream extends InputStream {
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * The gzip header, the same as {@link GZIPOutputStream} writes (deflate, no
+     * flags, no modification time).
+     */
+    private static final byte[] HEADER = new byte[] {
+        (byte) 0x1f,
+        (byte) 0x8b,
+        Deflater.DEFLATED,
+        0,
+        0,
+        0,
+        0,
+        0,
+        0,
+        0
+    };
+
+    private static final int TRAILER_SIZE = 8;
+
+    private final InputStream in;
+    private final Deflater deflater;
+    private final CRC32 crc = new CRC32();
+    private final byte[] readBuffer = new byte[READ_BUFFER_SIZE];
+
+    /**
+     * The header or trailer bytes not yet returned.
+     */
+    private byte[] pending = HEADER;
+    private int pendingOffset = 0;
+
+    private boolean inputDone;
+    private boolean trailerWritten;
+    private boolean closed;
+
+    private long uncompressedCount;
+    private long compressedCount;
+
+    /**
+     * Constructs a {@link GZIPCompressingInputStream} with the default
+     * compression level.
+     *
+     * @param in
+     *        the stream to read uncompressed bytes from (must not be
+     *        <code>null</code>)
+     */
+    public GZIPCompressingInputStream(final InputStream in) {
+        this(in, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * Constructs a {@link GZIPCompressingInputStream}.
+     *
+     * @param in
+     *        the stream to read uncompressed bytes from (must not be
+     *        <code>null</code>)
+     * @param level
+     *        the {@link Deflater} compression level
+     */
+    public GZIPCompressingInputStream(final InputStream in, final int level) {
+        Check.notNull(in, "in"); //$NON-NLS-1$
+
+        this.in = in;
+        deflater = new Deflater(level, true);
+    }
+
+    /**
+     * @return the number of uncompressed bytes read from the underlying stream
+     *         so far
+     */
+    public long getUncompressedCount() {
+        return uncompressedCount;
+    }
+
+    /**
+     * @return the number of compressed bytes returned by this stream so far
+     */
+    public long getCompressedCount() {
+        return compressedCount;
+    }
+
+    @Override
+    public int read() throws IOException {
+        final byte[] b = new byte[1];
+        final int read = read(b, 0, 1);
+
+        return read == -1 ? -1 : (b[0] & 0xff);
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len) throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed"); //$NON-NLS-1$
+        }
+        if (off < 0 || len < 0 || len > b.length - off) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (len == 0) {
+            return 0;
+        }
+
+        while (true) {
+            if (pending != null) {
+                final int count = Math.min(len, pending.length - pendingOffset);
+                System.arraycopy(pending, pendingOffset, b, off, count);
+                pendingOffset += count;
+
+                if (pendingOffset == pending.length) {
+                    pending = null;
+                }
+
+                compressedCount += count;
+                return count;
+            }
+
+            if (trailerWritten) {
+                return -1;
+            }
+
+            if (!deflater.needsInput() || inputDone) {
+                final int count = deflater.deflate(b, off, len);
+
+                if (count > 0) {
+                    compressedCount += count;
+                    return count;
+                }
+
+                if (deflater.finished()) {
+                    pending = getTrailer();
+                    pendingOffset = 0;
+                    trailerWritten = true;
+                    continue;
+                }
+            }
+
+            if (deflater.needsInput() && !inputDone) {
+                final int read = in.read(readBuffer);
+
+                if (read == -1) {
+                    inputDone = true;
+                    deflater.finish();
+                } else if (read > 0) {
+                    crc.update(readBuffer, 0, read);
+                    deflater.setInput(readBuffer, 0, read);
+                    uncompressedCount += read;
+                }
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            deflater.end();
+            in.close();
+        }
+    }
+
+    private byte[] getTrailer() {
+        final byte[] trailer = new byte[TRAILER_SIZE];
+
+        writeInt(trailer, 0, crc.getValue());
+        writeInt(trailer, 4, uncompressedCount);
+
+        return trailer;
+    }
+
+    /**
+     * Writes the low 32 bits of the value in little-endian order.
+     */
+    private static void writeInt(final byte[] b, final int offset, final long value) {
+        b[offset] = (byte) value;
+        b[offset + 1] = (byte) (value >> 8);
+        b[offset + 2] = (byte) (value >> 16);
+        b[offset + 3] = (byte) (value >> 24);
+    }
+}
@@ -9,6 +9,8 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.NoSuchProviderException;
@@ -93,6 +95,11 @@ public class HashUtils {
      */
     public static final String ALGORITHM_SHA_512 = "SHA-512"; //$NON-NLS-1$
 
+    /**
+     * The size of the buffer files are read into for hashing.
+     */
+    private static final int FILE_BUFFER_SIZE = 256 * 1024;
+
     /**
      * Tests whether a given hash algorithm is available from the registered
      * providers.
@@ -481,8 +488,33 @@ public class HashUtils {
             IOException {
         Check.notNull(file, "file"); //$NON-NLS-1$
 
+        /*
+         * Read through the channel with a buffer larger than a stream's reads
+         * (the file isn't mapped: a mapped file can't be deleted or renamed on
+         * Windows until the mapping is garbage collected).
+         */
         final FileInputStream stream = new FileInputStream(file);
-        return hashStream(stream, digester, taskMonitor);
+        final FileChannel channel = stream.getChannel();
+        final ByteBuffer buffer = ByteBuffer.allocate(FILE_BUFFER_SIZE);
+
+        try {
+            if (taskMonitor != null && taskMonitor.isCanceled()) {
+                throw new CanceledException();
+            }
+
+            while (channel.read(buffer) != -1) {
+                if (taskMonitor != null && taskMonitor.isCanceled()) {
+                    throw new CanceledException();
+                }
+
+                digester.update(buffer.array(), 0, buffer.position());
+                buffer.clear();
+            }
+
+            return digester.digest();
+        } finally {
+            IOUtils.closeSafely(stream);
+        }
     }
 
     /**
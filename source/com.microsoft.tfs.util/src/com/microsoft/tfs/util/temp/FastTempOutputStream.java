@@ -139,6 +139,11 @@ public class FastTempOutputStream extends OutputStream {
      */
     private boolean writable = true;
 
+    /**
+     * The number of bytes written to this stream.
+     */
+    private long size;
+
     /**
      * Creates a {@link FastTempOutputStream} with default values for the size
      * hint and heap limit.
@@ -304,6 +309,7 @@ public class FastTempOutputStream extends OutputStream {
 
         adjustStorage(len);
         currentStream.write(b, off, len);
+        size += len;
     }
 
     /**
@@ -315,6 +321,7 @@ public class FastTempOutputStream extends OutputStream {
 
         adjustStorage(b.length);
         currentStream.write(b);
+        size += b.length;
     }
 
     /**
@@ -326,6 +333,7 @@ public class FastTempOutputStream extends OutputStream {
 
         adjustStorage(1);
         currentStream.write(b);
+        size++;
     }
 
     /**
@@ -340,6 +348,22 @@ public class FastTempOutputStream extends OutputStream {
         }
     }
 
+    /**
+     * @return the number of bytes written to this stream, whether they are
+     *         stored in heap memory or in a file
+     */
+    public synchronized long size() {
+        return size;
+    }
+
+    /**
+     * @return the file the contents are stored in, or <code>null</code> if
+     *         they are stored in heap memory (for tests)
+     */
+    synchronized File getFile() {
+        return file;
+    }
+
     /**
      * Gets an {@link InputStream} that reads the buffer contents that were
      * previously written before {@link #close()} was called. This method may be
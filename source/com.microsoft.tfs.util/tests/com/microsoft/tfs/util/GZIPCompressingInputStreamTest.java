@@ -0,0 +1,67 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the repository root.
+
+package com.microsoft.tfs.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+import junit.framework.TestCase;
+
+public class GZIPCompressingInputStreamTest extends TestCase {
+    public void testEmpty() throws Exception {
+        assertRoundTrip(new byte[0]);
+    }
+
+    public void testText() throws Exception {
+        final StringBuffer sb = new StringBuffer();
+        for (int i = 0; i < 20000; i++) {
+            sb.append("line ").append(i).append('\n'); //$NON-NLS-1$
+        }
+        assertRoundTrip(sb.toString().getBytes("UTF-8")); //$NON-NLS-1$
+    }
+
+    public void testRandom() throws Exception {
+        final byte[] data = new byte[300 * 1024];
+        new Random(1).nextBytes(data);
+        assertRoundTrip(data);
+    }
+
+    public void testSameOutputEachTime() throws Exception {
+        final byte[] data = new byte[100 * 1024];
+        new Random(2).nextBytes(data);
+        Arrays.fill(data, 0, 50 * 1024, (byte) 'a');
+
+        final GZIPCompressingInputStream stream = new GZIPCompressingInputStream(new ByteArrayInputStream(data));
+        final byte[] first = readAll(stream, 1);
+        assertEquals(first.length, stream.getCompressedCount());
+        assertEquals(data.length, stream.getUncompressedCount());
+
+        assertTrue(Arrays.equals(
+            first,
+            readAll(new GZIPCompressingInputStream(new ByteArrayInputStream(data)), 8192)));
+    }
+
+    private void assertRoundTrip(final byte[] data) throws IOException {
+        final byte[] compressed = readAll(new GZIPCompressingInputStream(new ByteArrayInputStream(data)), 777);
+        final byte[] uncompressed = readAll(new GZIPInputStream(new ByteArrayInputStream(compressed)), 4096);
+
+        assertTrue(Arrays.equals(data, uncompressed));
+    }
+
+    private static byte[] readAll(final InputStream in, final int bufferSize) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[bufferSize];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        in.close();
+        return out.toByteArray();
+    }
+}
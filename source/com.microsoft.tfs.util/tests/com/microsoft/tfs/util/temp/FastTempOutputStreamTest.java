@@ -3,6 +3,8 @@
 
 package com.microsoft.tfs.util.temp;
 
+import java.io.DataInputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Arrays;
@@ -135,4 +137,59 @@ public class FastTempOutputStreamTest extends TestCase {
         assertTrue("array contents should be equal", Arrays.equals(result, BIG_BYTES)); //$NON-NLS-1$
         ftos.dispose();
     }
+
+    public void testSize() throws IOException {
+        final FastTempOutputStream ftos = new FastTempOutputStream(6, 2);
+        assertEquals(0, ftos.size());
+
+        ftos.write(BYTES);
+        ftos.write(55);
+        assertEquals(BYTES.length + 1, ftos.size());
+
+        // Crosses the heap limit into file storage
+        ftos.write(BYTES, 1, 3);
+        ftos.close();
+        assertEquals(BYTES.length + 4, ftos.size());
+
+        ftos.dispose();
+    }
+
+    public void testSmallContentStaysInHeap() throws IOException {
+        final FastTempOutputStream ftos = new FastTempOutputStream(6, 2);
+        ftos.write(BYTES);
+        ftos.close();
+
+        assertNull(ftos.getFile());
+        ftos.dispose();
+    }
+
+    public void testLargeContentSpillsToFile() throws IOException {
+        final byte[] bigBytes = new byte[64 * 1024];
+        for (int i = 0; i < bigBytes.length; i++) {
+            bigBytes[i] = (byte) i;
+        }
+
+        final FastTempOutputStream ftos = new FastTempOutputStream(1000, 100);
+        ftos.write(BYTES);
+        ftos.write(bigBytes);
+        ftos.close();
+
+        final File file = ftos.getFile();
+        assertNotNull(file);
+        assertTrue(file.exists());
+        assertEquals(BYTES.length + bigBytes.length, file.length());
+
+        final DataInputStream is = new DataInputStream(ftos.getInputStream());
+        final byte[] result = new byte[BYTES.length + bigBytes.length];
+        is.readFully(result);
+        assertEquals(-1, is.read());
+        is.close();
+
+        assertTrue(Arrays.equals(BYTES, Arrays.copyOfRange(result, 0, BYTES.length)));
+        assertTrue(Arrays.equals(bigBytes, Arrays.copyOfRange(result, BYTES.length, result.length)));
+
+        ftos.dispose();
+        assertNull(ftos.getFile());
+        assertFalse(file.exists());
+    }
 }